@@ -0,0 +1,114 @@
+﻿using System;
+using System.Collections.Generic;
+using System.IO;
+using System.Threading;
+using System.Threading.Tasks;
+using Corpus.Core.Analysis;
+using Corpus.Core.Plugin.Analysis;
+using Fusi.Tools;
+using Xunit;
+
+namespace Corpus.Core.Plugin.Test.Analysis;
+
+public sealed class TextFilterChainTest
+{
+    private const string TEXT = "<TEI><teiHeader><title>T</title></teiHeader>" +
+        "<text><p>L’amico</p></text></TEI>";
+
+    // a reader-only filter changing the text length
+    private sealed class UpperSuffixTextFilter : ITextFilter
+    {
+        public async Task<TextReader> ApplyAsync(TextReader reader,
+            IHasDataDictionary? context = null)
+        {
+            string text = await reader.ReadToEndAsync();
+            return new StringReader(text.ToUpperInvariant() + "!");
+        }
+    }
+
+    // a filter recording the token it received
+    private sealed class TokenTextFilter : ICancellableTextFilter
+    {
+        public CancellationToken? Token { get; private set; }
+
+        public Task<TextReader> ApplyAsync(TextReader reader,
+            IHasDataDictionary? context = null)
+            => ApplyAsync(reader, context, CancellationToken.None);
+
+        public Task<TextReader> ApplyAsync(TextReader reader,
+            IHasDataDictionary? context, CancellationToken cancel)
+        {
+            Token = cancel;
+            return Task.FromResult(reader);
+        }
+    }
+
+    [Fact]
+    public async Task ApplyAsync_NoFilters_Unchanged()
+    {
+        string result = await TextFilterChain.ApplyAsync([], TEXT);
+
+        Assert.Same(TEXT, result);
+    }
+
+    [Fact]
+    public async Task ApplyAsync_BufferFilters_SameAsReaders()
+    {
+        List<ITextFilter> filters =
+        [
+            new TeiTextFilter(),
+            new QuotationMarkTextFilter()
+        ];
+        string expected = TEXT;
+        foreach (ITextFilter filter in filters)
+        {
+            expected = (await filter.ApplyAsync(new StringReader(expected)))
+                .ReadToEnd();
+        }
+
+        string result = await TextFilterChain.ApplyAsync(filters, TEXT);
+
+        Assert.Equal(expected, result);
+        Assert.Equal(TEXT.Length, result.Length);
+        Assert.Equal("L'amico", result.Replace(" ", ""));
+    }
+
+    [Fact]
+    public async Task ApplyAsync_ReaderFilter_Applied()
+    {
+        string result = await TextFilterChain.ApplyAsync(
+        [
+            new TeiTextFilter(),
+            new UpperSuffixTextFilter(),
+            new QuotationMarkTextFilter()
+        ], TEXT);
+
+        Assert.Equal(TEXT.Length + 1, result.Length);
+        Assert.Equal("L'AMICO!", result.Replace(" ", ""));
+    }
+
+    [Fact]
+    public async Task ApplyAsync_CancellableFilter_GetsToken()
+    {
+        using CancellationTokenSource cts = new();
+        TokenTextFilter filter = new();
+
+        string result = await TextFilterChain.ApplyAsync(
+            [new TeiTextFilter(), filter], TEXT, null, cts.Token);
+
+        Assert.Equal(TEXT.Length, result.Length);
+        Assert.Equal(cts.Token, filter.Token);
+    }
+
+    [Fact]
+    public async Task ApplyAsync_Cancelled_Throws()
+    {
+        using CancellationTokenSource cts = new();
+        cts.Cancel();
+        TokenTextFilter filter = new();
+
+        await Assert.ThrowsAnyAsync<OperationCanceledException>(
+            () => TextFilterChain.ApplyAsync([filter], TEXT, null, cts.Token));
+        Assert.Null(filter.Token);
+    }
+}
@@ -229,6 +229,32 @@ public sealed class XmlTextPickerTest
         Assert.NotNull(pElem);
     }
 
+    [Fact]
+    public void PickNode_TeiParsed_SameAsUnparsed()
+    {
+        string xml = TestHelper.LoadResourceText("TeiSampleDoc.xml");
+        XmlTextMapper mapper = GetTeiTextMapper();
+
+        TextMapNode root = mapper.Map(xml)!;
+        XmlTextPicker picker = new();
+        picker.Configure(new XmlTextPickerOptions
+        {
+            Namespaces = ["tei=http://www.tei-c.org/ns/1.0"],
+            DefaultNsPrefix = "tei"
+        });
+        object parsed = picker.Parse(xml)!;
+
+        for (int i = 0; i < root.Children.Count; i++)
+        {
+            TextPiece? expected = picker.PickNode(xml, root, root.Children[i]);
+            TextPiece? actual = picker.PickNode(xml, parsed, root,
+                root.Children[i]);
+
+            Assert.NotNull(actual);
+            Assert.Equal(expected!.Text, actual.Text);
+        }
+    }
+
     [Fact]
     public void PickContext_TeiOffsetInP2_P2()
     {
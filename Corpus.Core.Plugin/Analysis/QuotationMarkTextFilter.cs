@@ -1,6 +1,5 @@
 ﻿using System;
 using System.IO;
-using System.Text;
 using System.Threading.Tasks;
 using Corpus.Core.Analysis;
 using Fusi.Tools;
@@ -14,30 +13,35 @@ namespace Corpus.Core.Plugin.Analysis;
 /// <para>Tag: <c>text-filter.quotation-mark</c>.</para>
 /// </summary>
 [Tag("text-filter.quotation-mark")]
-public sealed class QuotationMarkTextFilter : ITextFilter
+public sealed class QuotationMarkTextFilter : IBufferTextFilter
 {
     /// <summary>
-    /// Applies this filter.
+    /// Applies this filter in place.
     /// </summary>
-    /// <param name="reader">The input text reader.</param>
+    /// <param name="text">The text to filter.</param>
     /// <param name="context">The optional context. Not used.</param>
-    /// <returns>The output text reader.</returns>
-    /// <exception cref="ArgumentNullException">null reader</exception>
-    public async Task<TextReader> ApplyAsync(TextReader reader,
-        IHasDataDictionary? context = null)
+    /// <returns>True.</returns>
+    public bool Apply(Span<char> text, IHasDataDictionary? context = null)
     {
-        ArgumentNullException.ThrowIfNull(reader);
-
-        StringBuilder sb = new(await reader.ReadToEndAsync());
-        for (int i = 1; i < sb.Length - 1; i++)
+        for (int i = 1; i < text.Length - 1; i++)
         {
-            if (sb[i] == '\u2019' && char.IsLetter(sb[i - 1]) &&
-                char.IsLetter(sb[i + 1]))
+            if (text[i] == '\u2019' && char.IsLetter(text[i - 1]) &&
+                char.IsLetter(text[i + 1]))
             {
-                sb[i] = '\'';
+                text[i] = '\'';
             }
         }
-
-        return new StringReader(sb.ToString());
+        return true;
     }
+
+    /// <summary>
+    /// Applies this filter.
+    /// </summary>
+    /// <param name="reader">The input text reader.</param>
+    /// <param name="context">The optional context. Not used.</param>
+    /// <returns>The output text reader.</returns>
+    /// <exception cref="ArgumentNullException">null reader</exception>
+    public Task<TextReader> ApplyAsync(TextReader reader,
+        IHasDataDictionary? context = null)
+        => TextFilterChain.ApplyAsync(this, reader, context);
 }
@@ -16,7 +16,7 @@ namespace Corpus.Core.Plugin.Analysis;
 /// </summary>
 /// <seealso cref="ITextFilter" />
 [Tag("text-filter.tei")]
-public sealed class TeiTextFilter : ITextFilter,
+public sealed class TeiTextFilter : IBufferTextFilter,
     IConfigurable<TeiTextFilterOptions>
 {
     private readonly Regex _headerRegex;
@@ -45,6 +45,27 @@ public sealed class TeiTextFilter : ITextFilter,
         _keepTags = options.KeepTags;
     }
 
+    private static void Fill(Span<char> text, Regex regex)
+    {
+        // matches are found left to right, so blank-filling a match does
+        // not affect the next ones
+        foreach (ValueMatch m in regex.EnumerateMatches(text))
+            text.Slice(m.Index, m.Length).Fill(' ');
+    }
+
+    /// <summary>
+    /// Applies this filter in place.
+    /// </summary>
+    /// <param name="text">The text to filter.</param>
+    /// <param name="context">The optional context. Not used.</param>
+    /// <returns>True.</returns>
+    public bool Apply(Span<char> text, IHasDataDictionary? context = null)
+    {
+        Fill(text, _headerRegex);
+        if (!_keepTags) Fill(text, _tagRegex);
+        return true;
+    }
+
     /// <summary>
     /// Applies this filter.
     /// </summary>
@@ -52,19 +73,9 @@ public sealed class TeiTextFilter : ITextFilter,
     /// <param name="context">The optional context. Not used.</param>
     /// <returns>The output text reader.</returns>
     /// <exception cref="ArgumentNullException">null reader</exception>
-    public async Task<TextReader> ApplyAsync(TextReader reader,
+    public Task<TextReader> ApplyAsync(TextReader reader,
         IHasDataDictionary? context = null)
-    {
-        ArgumentNullException.ThrowIfNull(reader);
-
-        string text = await reader.ReadToEndAsync();
-
-        text = _headerRegex.Replace(text, m => new string(' ', m.Length));
-        if (!_keepTags)
-            text = _tagRegex.Replace(text, m => new string(' ', m.Length));
-
-        return new StringReader(text);
-    }
+        => TextFilterChain.ApplyAsync(this, reader, context);
 }
 
 /// <summary>
@@ -2,6 +2,7 @@
 using System.Collections.Generic;
 using System.Text.RegularExpressions;
 using System.Xml;
+using System.Xml.Linq;
 using System.Xml.XPath;
 
 namespace Corpus.Core.Plugin.Analysis;
@@ -110,4 +111,42 @@ public static class XmlNsOptionHelper
 
         return nsmgr;
     }
+
+    /// <summary>
+    /// Gets all the namespaces declared in the root element of the
+    /// specified document into an XML namespaces manager. This is the
+    /// same as getting them from the document's XML code, without parsing
+    /// it again when a parsed document is available.
+    /// </summary>
+    /// <param name="doc">The document.</param>
+    /// <param name="defaultNsPrefix">The optional default prefix to map
+    /// to the default namespace with an empty prefix.</param>
+    /// <param name="namespaces">Additional namespaces to use, keyed by
+    /// their prefix.</param>
+    /// <returns>Namespaces manager.</returns>
+    /// <exception cref="ArgumentNullException">doc</exception>
+    public static XmlNamespaceManager GetDocNamespacesManager(XDocument doc,
+        string? defaultNsPrefix = null,
+        IDictionary<string, string>? namespaces = null)
+    {
+        ArgumentNullException.ThrowIfNull(doc);
+
+        Dictionary<string, string> docNamespaces = [];
+        if (doc.Root != null)
+        {
+            foreach (XAttribute attr in doc.Root.Attributes())
+            {
+                if (!attr.IsNamespaceDeclaration) continue;
+                docNamespaces[attr.Name.Namespace == XNamespace.None
+                    ? "" : attr.Name.LocalName] = attr.Value;
+            }
+        }
+        XmlNamespaceManager nsmgr = new(new NameTable());
+
+        AddNamespaces(docNamespaces, defaultNsPrefix, nsmgr);
+        if (namespaces?.Count > 0)
+            AddNamespaces(namespaces, defaultNsPrefix, nsmgr);
+
+        return nsmgr;
+    }
 }
@@ -138,7 +138,7 @@ public sealed class XmlTextMapper : ITextMapper,
         // load namespaces from both document and options
         XmlNamespaceManager nsmgr =
             XmlNsOptionHelper.GetDocNamespacesManager(
-                text, _defaultNsPrefix, _namespaces);
+                doc, _defaultNsPrefix, _namespaces);
 
         // search each defined structure in the document, starting
         // from the root element (which by definition must be single)
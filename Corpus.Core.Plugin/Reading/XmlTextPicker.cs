@@ -19,7 +19,7 @@ namespace Corpus.Core.Plugin.Reading;
 /// </summary>
 /// <seealso cref="T:Corpus.Core.Reading.ITextPicker" />
 [Tag("text-picker.xml")]
-public sealed class XmlTextPicker : ITextPicker,
+public sealed class XmlTextPicker : IParsingTextPicker,
     IConfigurable<XmlTextPickerOptions>
 {
     private readonly Regex _tagStartRegex;
@@ -115,13 +115,64 @@ public sealed class XmlTextPicker : ITextPicker,
         map.SelectAll(false);
         if (node.Location == null) return null;
 
-        XDocument doc = XDocument.Parse(text, LoadOptions.PreserveWhitespace);
+        return PickElement(text,
+            XDocument.Parse(text, LoadOptions.PreserveWhitespace), map, node);
+    }
+
+    /// <summary>
+    /// Parses the specified document text into an XML document.
+    /// </summary>
+    /// <param name="text">The source document text.</param>
+    /// <returns>The <see cref="XDocument"/>.</returns>
+    /// <exception cref="ArgumentNullException">text</exception>
+    public object? Parse(string text)
+    {
+        ArgumentNullException.ThrowIfNull(text);
+        return XDocument.Parse(text, LoadOptions.PreserveWhitespace);
+    }
 
+    /// <summary>
+    /// Pick the text corresponding to the content of the specified
+    /// document map node, from the XML document got from
+    /// <see cref="Parse"/>.
+    /// </summary>
+    /// <param name="text">The source document text.</param>
+    /// <param name="parsed">The parsed <see cref="XDocument"/>.</param>
+    /// <param name="map">The source document full map (root node)</param>
+    /// <param name="node">The node to pick.</param>
+    /// <returns>text or null if not found</returns>
+    /// <exception cref="ArgumentNullException">null text or parsed or map
+    /// or node</exception>
+    /// <exception cref="ArgumentException">parsed is not an XML document
+    /// </exception>
+    public TextPiece? PickNode(string text, object parsed, TextMapNode map,
+        TextMapNode node)
+    {
+        ArgumentNullException.ThrowIfNull(text);
+        ArgumentNullException.ThrowIfNull(parsed);
+        ArgumentNullException.ThrowIfNull(map);
+        ArgumentNullException.ThrowIfNull(node);
+
+        if (parsed is not XDocument doc)
+        {
+            throw new ArgumentException("Expected XML document",
+                nameof(parsed));
+        }
+
+        map.SelectAll(false);
+        if (node.Location == null) return null;
+
+        return PickElement(text, doc, map, node);
+    }
+
+    private TextPiece? PickElement(string text, XDocument doc,
+        TextMapNode map, TextMapNode node)
+    {
         // load namespaces from both document and options
         XmlNamespaceManager nsmgr = XmlNsOptionHelper.GetDocNamespacesManager(
-            text, _options?.DefaultNsPrefix, _namespaces);
+            doc, _options?.DefaultNsPrefix, _namespaces);
 
-        XElement? element = doc.XPathSelectElement(node.Location, nsmgr);
+        XElement? element = doc.XPathSelectElement(node.Location!, nsmgr);
         return element != null
             ? new TextPiece(element.ToString(SaveOptions.DisableFormatting), map)
             : null;
@@ -0,0 +1,157 @@
+﻿using System;
+using System.IO;
+using Corpus.Core.Reading;
+using Xunit;
+
+namespace Corpus.Core.Test.Reading;
+
+public sealed class DocumentReadingCacheTest
+{
+    private static TextMapNode CreateMap()
+    {
+        TextMapNode root = new()
+        {
+            Label = "root",
+            Location = "/TEI",
+            StartIndex = 0,
+            EndIndex = 100
+        };
+        root.Add(new TextMapNode
+        {
+            Label = "a",
+            Location = "/TEI/div[1]",
+            StartIndex = 10,
+            EndIndex = 50
+        });
+        root.Add(new TextMapNode
+        {
+            Label = "b [2]",
+            Location = "/TEI/div[2]",
+            StartIndex = 50,
+            EndIndex = 90
+        });
+        return root;
+    }
+
+    [Fact]
+    public void GetVersion_ChangesWithDocumentAndScope()
+    {
+        Document document = new() { Id = 1 };
+        document.LastModified = new DateTime(2026, 1, 1, 0, 0, 0,
+            DateTimeKind.Utc);
+
+        string v1 = DocumentReadingCache.GetVersion(document, "a");
+        Assert.Equal(v1, DocumentReadingCache.GetVersion(document, "a"));
+        Assert.NotEqual(v1, DocumentReadingCache.GetVersion(document, "b"));
+
+        document.LastModified = document.LastModified.AddSeconds(1);
+        Assert.NotEqual(v1, DocumentReadingCache.GetVersion(document, "a"));
+    }
+
+    [Fact]
+    public void TryGet_SetVersion_OtherVersionMisses()
+    {
+        DocumentReadingCache cache = new(1000);
+        cache.Set(1, "v1", DocumentReadingCache.TEXT_PART, "abc", 10);
+
+        Assert.True(cache.TryGet(1, "v1", DocumentReadingCache.TEXT_PART,
+            out string? text));
+        Assert.Equal("abc", text);
+        Assert.False(cache.TryGet(1, "v2", DocumentReadingCache.TEXT_PART,
+            out string? _));
+        Assert.Equal(1, cache.Hits);
+        Assert.Equal(1, cache.Misses);
+    }
+
+    [Fact]
+    public void Set_OverBudget_EvictsLeastRecentlyUsed()
+    {
+        DocumentReadingCache cache = new(100);
+        cache.Set(1, "v", "p", "a", 40);
+        cache.Set(2, "v", "p", "b", 40);
+        // touch 1, so that 2 is the least recently used
+        Assert.True(cache.TryGet(1, "v", "p", out string? _));
+
+        cache.Set(3, "v", "p", "c", 40);
+
+        Assert.Equal(2, cache.Count);
+        Assert.Equal(80, cache.Size);
+        Assert.Equal(1, cache.Evictions);
+        Assert.True(cache.TryGet(1, "v", "p", out string? _));
+        Assert.False(cache.TryGet(2, "v", "p", out string? _));
+        Assert.True(cache.TryGet(3, "v", "p", out string? _));
+    }
+
+    [Fact]
+    public void Set_LargerThanBudget_NotStored()
+    {
+        DocumentReadingCache cache = new(100);
+        cache.Set(1, "v", "p", "a", 40);
+
+        cache.Set(2, "v", "p", "b", 200);
+
+        Assert.Equal(1, cache.Count);
+        Assert.False(cache.TryGet(2, "v", "p", out string? _));
+    }
+
+    [Fact]
+    public void Set_Replace_UpdatesSize()
+    {
+        DocumentReadingCache cache = new(100);
+        cache.Set(1, "v", "p", "a", 40);
+
+        cache.Set(1, "v", "p", "b", 30);
+
+        Assert.Equal(1, cache.Count);
+        Assert.Equal(30, cache.Size);
+        Assert.True(cache.TryGet(1, "v", "p", out string? value));
+        Assert.Equal("b", value);
+    }
+
+    [Fact]
+    public void SaveMap_LoadMap_RoundTrip()
+    {
+        string dir = Path.Combine(Path.GetTempPath(),
+            "pythia-map-" + Guid.NewGuid().ToString("N"));
+        try
+        {
+            DocumentReadingCache cache = new() { MapDirectory = dir };
+            TextMapNode map = CreateMap();
+
+            cache.SaveMap(1, "v1", map);
+            TextMapNode? loaded = cache.LoadMap(1, "v1");
+
+            Assert.NotNull(loaded);
+            Assert.Equal(map.DumpTree(), loaded.DumpTree());
+            Assert.Same(loaded, loaded.Children[1].Parent);
+            Assert.Null(cache.LoadMap(1, "v2"));
+        }
+        finally
+        {
+            if (Directory.Exists(dir)) Directory.Delete(dir, true);
+        }
+    }
+
+    [Fact]
+    public void SaveMap_NewVersion_DeletesOldVersion()
+    {
+        string dir = Path.Combine(Path.GetTempPath(),
+            "pythia-map-" + Guid.NewGuid().ToString("N"));
+        try
+        {
+            DocumentReadingCache cache = new() { MapDirectory = dir };
+            cache.SaveMap(1, "v1", CreateMap());
+            cache.SaveMap(2, "v1", CreateMap());
+
+            cache.SaveMap(1, "v2", CreateMap());
+
+            Assert.Null(cache.LoadMap(1, "v1"));
+            Assert.NotNull(cache.LoadMap(1, "v2"));
+            Assert.NotNull(cache.LoadMap(2, "v1"));
+        }
+        finally
+        {
+            if (Directory.Exists(dir)) Directory.Delete(dir, true);
+        }
+    }
+}
@@ -137,4 +137,24 @@ public sealed class TextMapNodeTest
             return true;
         });
     }
+
+    [Fact]
+    public void Clone_Ok()
+    {
+        TextMapNode root = CreateTextMap();
+
+        TextMapNode clone = root.Clone();
+
+        Assert.NotSame(root, clone);
+        Assert.Null(clone.Parent);
+        Assert.Equal(root.DumpTree(), clone.DumpTree());
+        Assert.Same(clone, clone.Children[0].Parent);
+
+        // changing the clone does not change the source
+        clone.Children[0].StartIndex += 100;
+        clone.SelectAll(true);
+        Assert.NotEqual(root.Children[0].StartIndex,
+            clone.Children[0].StartIndex);
+        Assert.False(root.Children[0].IsSelected);
+    }
 }
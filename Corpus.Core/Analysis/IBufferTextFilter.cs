@@ -0,0 +1,26 @@
+﻿using Fusi.Tools;
+using System;
+
+namespace Corpus.Core.Analysis;
+
+/// <summary>
+/// A text filter which can be applied in place to a buffer of characters,
+/// without changing its length. This avoids a full copy of the text for
+/// each filter in a chain (see <see cref="TextFilterChain"/>). Filters
+/// implementing this interface still implement the <see cref="ITextFilter"/>
+/// contract, usually via <see cref="TextFilterChain.ApplyAsync(
+/// IBufferTextFilter, System.IO.TextReader, IHasDataDictionary)"/>.
+/// </summary>
+public interface IBufferTextFilter : ITextFilter
+{
+    /// <summary>
+    /// Applies the filter in place to the specified text.
+    /// </summary>
+    /// <param name="text">The text to filter.</param>
+    /// <param name="context">The optional context.</param>
+    /// <returns>True if applied; false if the filter could not be applied
+    /// in place (e.g. because it would change the text length), in which
+    /// case <paramref name="text"/> is unchanged, and the filter should be
+    /// applied via <see cref="ITextFilter.ApplyAsync"/>.</returns>
+    bool Apply(Span<char> text, IHasDataDictionary? context = null);
+}
@@ -0,0 +1,24 @@
+﻿using Fusi.Tools;
+using System.IO;
+using System.Threading;
+using System.Threading.Tasks;
+
+namespace Corpus.Core.Analysis;
+
+/// <summary>
+/// A text filter whose work can be cancelled, e.g. because it calls
+/// a remote service. <see cref="TextFilterChain"/> passes its cancellation
+/// token to filters implementing this interface.
+/// </summary>
+public interface ICancellableTextFilter : ITextFilter
+{
+    /// <summary>
+    /// Applies the filter to the specified reader asynchronously.
+    /// </summary>
+    /// <param name="reader">The input reader.</param>
+    /// <param name="context">The optional context.</param>
+    /// <param name="cancel">The cancellation token.</param>
+    /// <returns>The output reader.</returns>
+    Task<TextReader> ApplyAsync(TextReader reader,
+        IHasDataDictionary? context, CancellationToken cancel);
+}
@@ -0,0 +1,114 @@
+﻿using Fusi.Tools;
+using System;
+using System.Buffers;
+using System.Collections.Generic;
+using System.IO;
+using System.Threading;
+using System.Threading.Tasks;
+
+namespace Corpus.Core.Analysis;
+
+/// <summary>
+/// Helpers for applying text filters over a single pooled buffer.
+/// </summary>
+public static class TextFilterChain
+{
+    /// <summary>
+    /// Applies the specified filters in their order to the specified text.
+    /// The text is copied once into a pooled buffer, and each filter
+    /// implementing <see cref="IBufferTextFilter"/> is applied to it in
+    /// place; any other filter is applied via its reader, and its result
+    /// is copied back into the buffer. Filters implementing
+    /// <see cref="ICancellableTextFilter"/> receive the cancellation token.
+    /// </summary>
+    /// <param name="filters">The filters.</param>
+    /// <param name="text">The text.</param>
+    /// <param name="context">The optional context.</param>
+    /// <param name="cancel">The cancellation token.</param>
+    /// <returns>The filtered text.</returns>
+    /// <exception cref="ArgumentNullException">filters or text</exception>
+    /// <exception cref="OperationCanceledException">cancelled</exception>
+    public static async Task<string> ApplyAsync(IList<ITextFilter> filters,
+        string text, IHasDataDictionary? context = null,
+        CancellationToken cancel = default)
+    {
+        ArgumentNullException.ThrowIfNull(filters);
+        ArgumentNullException.ThrowIfNull(text);
+
+        if (filters.Count == 0) return text;
+
+        char[] buffer = ArrayPool<char>.Shared.Rent(Math.Max(1, text.Length));
+        try
+        {
+            int length = text.Length;
+            text.CopyTo(0, buffer, 0, length);
+
+            foreach (ITextFilter filter in filters)
+            {
+                cancel.ThrowIfCancellationRequested();
+                if (filter is IBufferTextFilter bufferFilter &&
+                    bufferFilter.Apply(buffer.AsSpan(0, length), context))
+                {
+                    continue;
+                }
+
+                StringReader input = new(new string(buffer, 0, length));
+                TextReader reader = filter is ICancellableTextFilter cancellable
+                    ? await cancellable.ApplyAsync(input, context, cancel)
+                    : await filter.ApplyAsync(input, context);
+                string filtered = await reader.ReadToEndAsync(cancel);
+
+                if (filtered.Length > buffer.Length)
+                {
+                    ArrayPool<char>.Shared.Return(buffer);
+                    buffer = ArrayPool<char>.Shared.Rent(filtered.Length);
+                }
+                filtered.CopyTo(0, buffer, 0, filtered.Length);
+                length = filtered.Length;
+            }
+
+            return new string(buffer, 0, length);
+        }
+        finally
+        {
+            ArrayPool<char>.Shared.Return(buffer);
+        }
+    }
+
+    /// <summary>
+    /// Applies the specified buffer filter to the text read from the
+    /// specified reader. This adapts <see cref="IBufferTextFilter"/> to the
+    /// <see cref="ITextFilter"/> contract.
+    /// </summary>
+    /// <param name="filter">The filter.</param>
+    /// <param name="reader">The input reader.</param>
+    /// <param name="context">The optional context.</param>
+    /// <returns>The output reader.</returns>
+    /// <exception cref="ArgumentNullException">filter or reader</exception>
+    /// <exception cref="InvalidOperationException">filter not applicable
+    /// in place</exception>
+    public static async Task<TextReader> ApplyAsync(IBufferTextFilter filter,
+        TextReader reader, IHasDataDictionary? context = null)
+    {
+        ArgumentNullException.ThrowIfNull(filter);
+        ArgumentNullException.ThrowIfNull(reader);
+
+        string text = await reader.ReadToEndAsync();
+        char[] buffer = ArrayPool<char>.Shared.Rent(Math.Max(1, text.Length));
+        try
+        {
+            text.CopyTo(0, buffer, 0, text.Length);
+            if (!filter.Apply(buffer.AsSpan(0, text.Length), context))
+            {
+                throw new InvalidOperationException(
+                    $"Filter {filter.GetType().Name} " +
+                    "cannot be applied in place");
+            }
+            return new StringReader(new string(buffer, 0, text.Length));
+        }
+        finally
+        {
+            ArrayPool<char>.Shared.Return(buffer);
+        }
+    }
+}
@@ -20,6 +20,8 @@ public sealed class DocumentReader
     private readonly ITextMapper _mapper;
     private readonly ITextPicker _picker;
     private readonly IMemoryCache? _cache;
+    private readonly DocumentReadingCache? _readingCache;
+    private readonly string? _scope;
 
     /// <summary>
     /// Initializes a new instance of the <see cref="DocumentReader" /> class.
@@ -40,6 +42,122 @@ public sealed class DocumentReader
         _cache = cache;
     }
 
+    /// <summary>
+    /// Initializes a new instance of the <see cref="DocumentReader" /> class
+    /// using a reading cache. The cache keeps the text, the text map and,
+    /// when the picker is an <see cref="IParsingTextPicker"/>, the parsed
+    /// text of each document version; maps are cloned before being picked
+    /// from, so that cached data are never changed.
+    /// </summary>
+    /// <param name="retriever">The text retriever.</param>
+    /// <param name="mapper">The text mapper.</param>
+    /// <param name="picker">The text picker.</param>
+    /// <param name="cache">The reading cache.</param>
+    /// <param name="scope">The optional scope of cached data, e.g. the
+    /// profile used to configure the components. See
+    /// <see cref="DocumentReadingCache.GetVersion"/>.</param>
+    /// <exception cref="ArgumentNullException">null retriever or mapper
+    /// or picker or cache</exception>
+    public DocumentReader(ITextRetriever retriever, ITextMapper mapper,
+        ITextPicker picker, DocumentReadingCache cache, string? scope = null)
+        : this(retriever, mapper, picker)
+    {
+        _readingCache = cache ?? throw new ArgumentNullException(nameof(cache));
+        _scope = scope;
+    }
+
+    private TextMapNode? MapText(IDocument document, string text)
+    {
+        TextMapNode? map = _mapper.Map(text,
+            document.Attributes!.ToImmutableDictionary(
+                a => a.Name!, a => a.Value ?? ""));
+        if (map == null) return null;
+
+        // supply root label if required
+        if (map.Label == "-" && !string.IsNullOrEmpty(document.Title))
+            map.Label = document.Title;
+        return map;
+    }
+
+    /// <summary>
+    /// Gets the text and map of the specified document from the reading
+    /// cache, adding them when missing. The returned map is a copy which
+    /// can be freely changed.
+    /// </summary>
+    private async Task<(string? text, TextMapNode? map)> GetCachedSourceAsync(
+        IDocument document, string version)
+    {
+        string? text = await _readingCache!.GetTextAsync(document, version,
+            _retriever);
+        if (text == null) return (null, null);
+
+        if (!_readingCache.TryGet(document.Id, version,
+            DocumentReadingCache.MAP_PART, out TextMapNode? map))
+        {
+            map = _readingCache.LoadMap(document.Id, version);
+            if (map == null)
+            {
+                map = MapText(document, text);
+                if (map == null) return (text, null);
+                _readingCache.SaveMap(document.Id, version, map);
+            }
+            _readingCache.Set(document.Id, version,
+                DocumentReadingCache.MAP_PART, map,
+                DocumentReadingCache.EstimateSize(map));
+        }
+        return (text, map!.Clone());
+    }
+
+    /// <summary>
+    /// Gets the map of the specified document. When using a reading cache,
+    /// the map is got from it, or added to it when missing.
+    /// </summary>
+    /// <param name="document">The document.</param>
+    /// <returns>The root node of the map, or null if not found.</returns>
+    /// <exception cref="ArgumentNullException">document</exception>
+    public async Task<TextMapNode?> GetMapAsync(IDocument document)
+    {
+        ArgumentNullException.ThrowIfNull(document);
+
+        if (_readingCache != null)
+        {
+            return (await GetCachedSourceAsync(document,
+                DocumentReadingCache.GetVersion(document, _scope))).map;
+        }
+
+        string? text = await _retriever.GetAsync(document);
+        return text == null ? null : MapText(document, text);
+    }
+
+    private async Task<TextPiece?> ReadCachedAsync(IDocument document,
+        string nodePath)
+    {
+        string version = DocumentReadingCache.GetVersion(document, _scope);
+        (string? text, TextMapNode? map) =
+            await GetCachedSourceAsync(document, version);
+        if (text == null || map == null) return null;
+
+        TextMapNode? node = nodePath.Length < 2
+            ? map : map.GetDescendant(nodePath[2..]);
+        if (node == null) return null;
+
+        if (_picker is not IParsingTextPicker parsingPicker)
+            return _picker.PickNode(text, map, node);
+
+        // pick from the cached parsed text, parsing it when missing
+        if (!_readingCache!.TryGet(document.Id, version,
+            DocumentReadingCache.PARSED_PART, out object? parsed))
+        {
+            parsed = parsingPicker.Parse(text);
+            if (parsed == null) return null;
+            _readingCache.Set(document.Id, version,
+                DocumentReadingCache.PARSED_PART, parsed,
+                DocumentReadingCache.EstimateSize(text)
+                * _readingCache.ParsedSizeFactor);
+        }
+        return parsingPicker.PickNode(text, parsed!, map, node);
+    }
+
     /// <summary>
     /// Read the text corresponding to the content of the specified document
     /// map node.
@@ -56,6 +174,9 @@ public sealed class DocumentReader
         ArgumentNullException.ThrowIfNull(document);
         ArgumentNullException.ThrowIfNull(nodePath);
 
+        if (_readingCache != null)
+            return await ReadCachedAsync(document, nodePath);
+
         string? text = null;
         TextMapNode? map = null;
         bool cacheHit = false;
@@ -126,6 +247,17 @@ public sealed class DocumentReader
     {
         ArgumentNullException.ThrowIfNull(document);
 
+        if (_readingCache != null)
+        {
+            (string? cachedText, TextMapNode? cachedMap) =
+                await GetCachedSourceAsync(document,
+                    DocumentReadingCache.GetVersion(document, _scope));
+            return cachedText == null || cachedMap == null
+                ? null
+                : _picker.PickContext(cachedText, cachedMap, startIndex,
+                    endIndex);
+        }
+
         string? text = null;
         TextMapNode? map = null;
         bool cacheHit = false;
@@ -0,0 +1,424 @@
+﻿using System;
+using System.Collections.Generic;
+using System.Globalization;
+using System.IO;
+using System.Security.Cryptography;
+using System.Text;
+using System.Text.Json;
+using System.Text.Json.Serialization;
+using System.Threading.Tasks;
+
+namespace Corpus.Core.Reading;
+
+/// <summary>
+/// A bounded, thread-safe LRU cache for reading documents. It holds the
+/// retrieved text of each document together with the data derived from
+/// it, like its parsed form, its text map and its rendered pieces. Each
+/// entry is keyed by document ID, content version and part name, and has
+/// an estimated size in bytes: the least recently used entries are evicted
+/// when the total size exceeds <see cref="Budget"/>. Optionally, text maps
+/// can also be persisted in <see cref="MapDirectory"/>, so that they
+/// survive restarts.
+/// </summary>
+public sealed class DocumentReadingCache
+{
+    /// <summary>
+    /// The name of the part for the document's text.
+    /// </summary>
+    public const string TEXT_PART = "text";
+
+    /// <summary>
+    /// The name of the part for the document's parsed text.
+    /// </summary>
+    public const string PARSED_PART = "parsed";
+
+    /// <summary>
+    /// The name of the part for the document's text map.
+    /// </summary>
+    public const string MAP_PART = "map";
+
+    private static readonly JsonSerializerOptions _jsonOptions = new()
+    {
+        DefaultIgnoreCondition = JsonIgnoreCondition.WhenWritingNull,
+        MaxDepth = 256
+    };
+
+    private readonly object _locker = new();
+    private readonly Dictionary<string, LinkedListNode<Entry>> _map = [];
+    private readonly LinkedList<Entry> _lru = new();
+    private long _size;
+    private long _hits;
+    private long _misses;
+    private long _evictions;
+
+    /// <summary>
+    /// Gets the maximum total estimated size of the entries in this cache,
+    /// in bytes.
+    /// </summary>
+    public long Budget { get; }
+
+    /// <summary>
+    /// Gets or sets the optional directory where text maps are persisted.
+    /// When null, maps are kept only in memory.
+    /// </summary>
+    public string? MapDirectory { get; set; }
+
+    /// <summary>
+    /// Gets or sets the factor used to estimate the size of a parsed text
+    /// from the size of its source text. The default value is 6, which
+    /// roughly fits XML documents parsed into a tree of nodes.
+    /// </summary>
+    public int ParsedSizeFactor { get; set; } = 6;
+
+    /// <summary>
+    /// Gets the count of entries in this cache.
+    /// </summary>
+    public int Count
+    {
+        get { lock (_locker) return _map.Count; }
+    }
+
+    /// <summary>
+    /// Gets the total estimated size of the entries in this cache.
+    /// </summary>
+    public long Size
+    {
+        get { lock (_locker) return _size; }
+    }
+
+    /// <summary>
+    /// Gets the count of cache hits.
+    /// </summary>
+    public long Hits
+    {
+        get { lock (_locker) return _hits; }
+    }
+
+    /// <summary>
+    /// Gets the count of cache misses.
+    /// </summary>
+    public long Misses
+    {
+        get { lock (_locker) return _misses; }
+    }
+
+    /// <summary>
+    /// Gets the count of entries evicted from this cache because it
+    /// exceeded its budget.
+    /// </summary>
+    public long Evictions
+    {
+        get { lock (_locker) return _evictions; }
+    }
+
+    /// <summary>
+    /// Initializes a new instance of the <see cref="DocumentReadingCache"/>
+    /// class.
+    /// </summary>
+    /// <param name="budget">The maximum total estimated size of the entries
+    /// in bytes (default=256 MB).</param>
+    /// <exception cref="ArgumentOutOfRangeException">budget less than 1
+    /// </exception>
+    public DocumentReadingCache(long budget = 256 * 1024 * 1024)
+    {
+        ArgumentOutOfRangeException.ThrowIfLessThan(budget, 1);
+        Budget = budget;
+    }
+
+    /// <summary>
+    /// Gets the content version of the specified document. This changes
+    /// whenever the document is modified, or the scope changes.
+    /// </summary>
+    /// <param name="document">The document.</param>
+    /// <param name="scope">The optional scope of the derived data. This is
+    /// whatever affects them besides the document, like the content of the
+    /// profile used to configure the components reading it.</param>
+    /// <returns>Version, consisting of hexadecimal digits and dashes.
+    /// </returns>
+    /// <exception cref="ArgumentNullException">document</exception>
+    public static string GetVersion(IDocument document, string? scope = null)
+    {
+        ArgumentNullException.ThrowIfNull(document);
+
+        string version = document.LastModified.Ticks.ToString("x",
+            CultureInfo.InvariantCulture);
+        if (string.IsNullOrEmpty(scope)) return version;
+
+        byte[] hash = SHA256.HashData(Encoding.UTF8.GetBytes(scope));
+        return version + "-" + Convert.ToHexStringLower(hash, 0, 8);
+    }
+
+    /// <summary>
+    /// Estimates the size in bytes of the specified text.
+    /// </summary>
+    /// <param name="text">The text.</param>
+    /// <returns>Size.</returns>
+    public static long EstimateSize(string? text) =>
+        text == null ? 0 : 24 + (text.Length * 2L);
+
+    /// <summary>
+    /// Estimates the size in bytes of the specified text map.
+    /// </summary>
+    /// <param name="map">The map's root node.</param>
+    /// <returns>Size.</returns>
+    /// <exception cref="ArgumentNullException">map</exception>
+    public static long EstimateSize(TextMapNode map)
+    {
+        ArgumentNullException.ThrowIfNull(map);
+
+        long size = 0;
+        map.Visit(n =>
+        {
+            size += 80 + EstimateSize(n.Label) + EstimateSize(n.Location);
+            return true;
+        });
+        return size;
+    }
+
+    private static string BuildKey(int documentId, string version,
+        string part) => $"{documentId}\n{version}\n{part}";
+
+    /// <summary>
+    /// Tries to get the specified part of a document.
+    /// </summary>
+    /// <typeparam name="T">The type of the part's value.</typeparam>
+    /// <param name="documentId">The document identifier.</param>
+    /// <param name="version">The document's version, as got from
+    /// <see cref="GetVersion"/>.</param>
+    /// <param name="part">The part name.</param>
+    /// <param name="value">The value, or null if not found.</param>
+    /// <returns>True if found.</returns>
+    /// <exception cref="ArgumentNullException">version or part</exception>
+    public bool TryGet<T>(int documentId, string version, string part,
+        out T? value) where T : class
+    {
+        ArgumentNullException.ThrowIfNull(version);
+        ArgumentNullException.ThrowIfNull(part);
+
+        string key = BuildKey(documentId, version, part);
+        lock (_locker)
+        {
+            if (_map.TryGetValue(key, out LinkedListNode<Entry>? node)
+                && node.Value.Value is T t)
+            {
+                _lru.Remove(node);
+                _lru.AddFirst(node);
+                _hits++;
+                value = t;
+                return true;
+            }
+            _misses++;
+        }
+        value = null;
+        return false;
+    }
+
+    /// <summary>
+    /// Sets the specified part of a document, evicting the least recently
+    /// used entries as required to stay within <see cref="Budget"/>.
+    /// Values larger than the whole budget are not stored.
+    /// </summary>
+    /// <param name="documentId">The document identifier.</param>
+    /// <param name="version">The document's version, as got from
+    /// <see cref="GetVersion"/>.</param>
+    /// <param name="part">The part name.</param>
+    /// <param name="value">The value.</param>
+    /// <param name="size">The estimated size of the value in bytes.</param>
+    /// <exception cref="ArgumentNullException">version or part or value
+    /// </exception>
+    public void Set(int documentId, string version, string part,
+        object value, long size)
+    {
+        ArgumentNullException.ThrowIfNull(version);
+        ArgumentNullException.ThrowIfNull(part);
+        ArgumentNullException.ThrowIfNull(value);
+
+        string key = BuildKey(documentId, version, part);
+        lock (_locker)
+        {
+            if (_map.TryGetValue(key, out LinkedListNode<Entry>? old))
+            {
+                _lru.Remove(old);
+                _map.Remove(key);
+                _size -= old.Value.Size;
+            }
+            if (size > Budget) return;
+
+            _map[key] = _lru.AddFirst(new Entry(key, value, size));
+            _size += size;
+            while (_size > Budget)
+            {
+                LinkedListNode<Entry> last = _lru.Last!;
+                _lru.RemoveLast();
+                _map.Remove(last.Value.Key);
+                _size -= last.Value.Size;
+                _evictions++;
+            }
+        }
+    }
+
+    /// <summary>
+    /// Gets the text of the specified document, retrieving and adding it
+    /// if not present. A leading byte order mark is removed from the text.
+    /// </summary>
+    /// <param name="document">The document.</param>
+    /// <param name="version">The document's version, as got from
+    /// <see cref="GetVersion"/>.</param>
+    /// <param name="retriever">The retriever used to get the text.</param>
+    /// <returns>Text, or null if not found.</returns>
+    /// <exception cref="ArgumentNullException">document or version or
+    /// retriever</exception>
+    public async Task<string?> GetTextAsync(IDocument document,
+        string version, ITextRetriever retriever)
+    {
+        ArgumentNullException.ThrowIfNull(document);
+        ArgumentNullException.ThrowIfNull(retriever);
+
+        if (TryGet(document.Id, version, TEXT_PART, out string? text))
+            return text;
+
+        text = await retriever.GetAsync(document);
+        if (text == null) return null;
+        // remove FEFF header which might have been inserted when storing text
+        if (text.Length > 0 && text[0] == 0xFEFF) text = text[1..];
+
+        Set(document.Id, version, TEXT_PART, text, EstimateSize(text));
+        return text;
+    }
+
+    private string GetMapPath(int documentId, string version) =>
+        Path.Combine(MapDirectory!, $"{documentId}-{version}.json");
+
+    /// <summary>
+    /// Loads the specified map from <see cref="MapDirectory"/>.
+    /// </summary>
+    /// <param name="documentId">The document identifier.</param>
+    /// <param name="version">The document's version.</param>
+    /// <returns>The map's root node, or null if not found or no directory
+    /// was set.</returns>
+    /// <exception cref="ArgumentNullException">version</exception>
+    public TextMapNode? LoadMap(int documentId, string version)
+    {
+        ArgumentNullException.ThrowIfNull(version);
+        if (string.IsNullOrEmpty(MapDirectory)) return null;
+
+        string path = GetMapPath(documentId, version);
+        if (!File.Exists(path)) return null;
+
+        try
+        {
+            using FileStream stream = File.OpenRead(path);
+            MapNode? node = JsonSerializer.Deserialize<MapNode>(stream,
+                _jsonOptions);
+            return node?.ToTextMapNode();
+        }
+        catch (Exception ex) when (ex is IOException or JsonException)
+        {
+            // a damaged or concurrently replaced file is just a miss
+            return null;
+        }
+    }
+
+    /// <summary>
+    /// Saves the specified map into <see cref="MapDirectory"/>, deleting
+    /// the maps saved for other versions of the same document. This does
+    /// nothing if no directory was set.
+    /// </summary>
+    /// <param name="documentId">The document identifier.</param>
+    /// <param name="version">The document's version.</param>
+    /// <param name="map">The map's root node.</param>
+    /// <exception cref="ArgumentNullException">version or map</exception>
+    public void SaveMap(int documentId, string version, TextMapNode map)
+    {
+        ArgumentNullException.ThrowIfNull(version);
+        ArgumentNullException.ThrowIfNull(map);
+        if (string.IsNullOrEmpty(MapDirectory)) return;
+
+        Directory.CreateDirectory(MapDirectory);
+        string path = GetMapPath(documentId, version);
+
+        // write to a temporary file and then move it, so that readers
+        // never see a partially written map
+        string tmpPath = path + "." + Guid.NewGuid().ToString("N") + ".tmp";
+        using (FileStream stream = File.Create(tmpPath))
+        {
+            JsonSerializer.Serialize(stream, MapNode.From(map), _jsonOptions);
+        }
+        File.Move(tmpPath, path, true);
+
+        foreach (string old in Directory.EnumerateFiles(MapDirectory,
+            $"{documentId}-*.json"))
+        {
+            if (old != path) File.Delete(old);
+        }
+    }
+
+    /// <summary>
+    /// Clears this cache and resets its counters. Persisted maps are not
+    /// deleted.
+    /// </summary>
+    public void Clear()
+    {
+        lock (_locker)
+        {
+            _map.Clear();
+            _lru.Clear();
+            _size = _hits = _misses = _evictions = 0;
+        }
+    }
+
+    private sealed record Entry(string Key, object Value, long Size);
+
+    private sealed class MapNode
+    {
+        [JsonPropertyName("l")]
+        public string? Label { get; set; }
+
+        [JsonPropertyName("loc")]
+        public string? Location { get; set; }
+
+        [JsonPropertyName("s")]
+        public int StartIndex { get; set; }
+
+        [JsonPropertyName("e")]
+        public int EndIndex { get; set; }
+
+        [JsonPropertyName("c")]
+        public List<MapNode>? Children { get; set; }
+
+        public static MapNode From(TextMapNode node)
+        {
+            MapNode result = new()
+            {
+                Label = node.Label,
+                Location = node.Location,
+                StartIndex = node.StartIndex,
+                EndIndex = node.EndIndex
+            };
+            if (node.HasChildren)
+            {
+                result.Children = new List<MapNode>(node.Children.Count);
+                foreach (TextMapNode child in node.Children)
+                    result.Children.Add(From(child));
+            }
+            return result;
+        }
+
+        public TextMapNode ToTextMapNode()
+        {
+            TextMapNode node = new()
+            {
+                Label = Label,
+                Location = Location,
+                StartIndex = StartIndex,
+                EndIndex = EndIndex
+            };
+            if (Children != null)
+            {
+                foreach (MapNode child in Children)
+                    node.Add(child.ToTextMapNode());
+            }
+            return node;
+        }
+    }
+}
@@ -0,0 +1,32 @@
+﻿namespace Corpus.Core.Reading;
+
+/// <summary>
+/// A text picker which can pick nodes from a text parsed in advance.
+/// This is an optional extension of <see cref="ITextPicker"/>, used by
+/// <see cref="DocumentReader"/> to keep the parsed text in its cache,
+/// rather than parsing the whole text whenever a node is picked.
+/// </summary>
+public interface IParsingTextPicker : ITextPicker
+{
+    /// <summary>
+    /// Parses the specified document text.
+    /// </summary>
+    /// <param name="text">The source document text.</param>
+    /// <returns>The parsed text, whose type depends on the implementation
+    /// (e.g. an XML document), or null if the text cannot be parsed.
+    /// </returns>
+    object? Parse(string text);
+
+    /// <summary>
+    /// Pick the text corresponding to the content of the specified document
+    /// map node, from the text parsed by <see cref="Parse"/>. The parsed
+    /// text is not changed, so it can be shared by concurrent callers.
+    /// </summary>
+    /// <param name="text">The source document text.</param>
+    /// <param name="parsed">The text parsed by <see cref="Parse"/>.</param>
+    /// <param name="map">The source document full map (root node)</param>
+    /// <param name="node">The node to pick.</param>
+    /// <returns>text or null if not found</returns>
+    TextPiece? PickNode(string text, object parsed, TextMapNode map,
+        TextMapNode node);
+}
@@ -92,6 +92,26 @@ public class TextMapNode
         Children.Add(node);
     }
 
+    /// <summary>
+    /// Creates a deep copy of the tree rooted at this node. The copy has
+    /// no parent. This is used when a shared map is going to be changed,
+    /// e.g. by selecting its nodes.
+    /// </summary>
+    /// <returns>The root of the copied tree.</returns>
+    public TextMapNode Clone()
+    {
+        TextMapNode clone = new()
+        {
+            Label = Label,
+            Location = Location,
+            StartIndex = StartIndex,
+            EndIndex = EndIndex,
+            IsSelected = IsSelected
+        };
+        foreach (TextMapNode child in Children) clone.Add(child.Clone());
+        return clone;
+    }
+
     #region Path
     /// <summary>
     /// Gets the path from the root to this node.
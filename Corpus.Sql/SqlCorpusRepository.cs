@@ -984,7 +984,7 @@ public abstract class SqlCorpusRepository : IConfigurable<SqlRepositoryOptions>
     /// related data.
     /// </summary>
     /// <param name="id">The document identifier.</param>
-    public void DeleteDocument(int id)
+    public virtual void DeleteDocument(int id)
     {
         using IDbConnection connection = GetConnection();
         connection.Open();
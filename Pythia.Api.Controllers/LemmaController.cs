@@ -5,6 +5,7 @@ using Pythia.Api.Models;
 using Pythia.Core;
 using System;
 using System.Collections.Generic;
+using System.Threading.Tasks;
 
 namespace Pythia.Api.Controllers;
 
@@ -15,13 +16,18 @@ namespace Pythia.Api.Controllers;
 /// Initializes a new instance of the <see cref="LemmaController"/> class.
 /// </remarks>
 /// <param name="repository">The repository.</param>
+/// <param name="store">The optional in-memory words and lemmata store. When
+/// this is loaded, lemmata and their counts are read from it rather than from
+/// the repository.</param>
 /// <exception cref="ArgumentNullException">repository</exception>
 [ApiController]
 [Route("api/lemmata")]
-public class LemmaController(IIndexRepository repository) : ControllerBase
+public class LemmaController(IIndexRepository repository,
+    WordFrequencyStore? store = null) : ControllerBase
 {
     private readonly IIndexRepository _repository = repository
         ?? throw new ArgumentNullException(nameof(repository));
+    private readonly WordFrequencyStore? _store = store;
 
     /// <summary>
     /// Gets a page of lemmata.
@@ -31,11 +37,14 @@ public class LemmaController(IIndexRepository repository) : ControllerBase
     [HttpGet()]
     [ProducesResponseType(StatusCodes.Status200OK, Type = typeof(DataPage<Lemma>))]
     [ProducesResponseType(StatusCodes.Status400BadRequest)]
-    public ActionResult<DataPage<Lemma>> Get([FromQuery]
+    public async Task<ActionResult<DataPage<Lemma>>> GetAsync([FromQuery]
         LemmaFilterBindingModel filter)
     {
         if (!ModelState.IsValid) return BadRequest(ModelState);
-        return _repository.GetLemmata(filter.ToFilter());
+        if (_store?.IsLoaded == true)
+            return _store.GetLemmata(filter.ToFilter());
+        return await _repository.GetLemmataAsync(filter.ToFilter(),
+            HttpContext.RequestAborted);
     }
 
     /// <summary>
@@ -56,8 +65,9 @@ public class LemmaController(IIndexRepository repository) : ControllerBase
 
         foreach (string attrName in attributes)
         {
-            IList<TokenCount> attrCounts = _repository.GetTokenCounts(
-                true, id, attrName);
+            IList<TokenCount> attrCounts = _store?.IsLoaded == true
+                ? _store.GetTokenCounts(true, id, attrName)
+                : _repository.GetTokenCounts(true, id, attrName);
             if (attrCounts.Count > 0) counts[attrName] = attrCounts;
         }
         return counts;
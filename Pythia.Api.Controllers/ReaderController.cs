@@ -2,13 +2,11 @@
 using Corpus.Core.Reading;
 using Microsoft.AspNetCore.Http;
 using Microsoft.AspNetCore.Mvc;
-using Microsoft.Extensions.Caching.Memory;
 using Pythia.Api.Models;
 using Pythia.Api.Services;
 using Pythia.Core;
 using Pythia.Core.Config;
 using System;
-using System.Collections.Immutable;
 using System.IO;
 using System.Text;
 using System.Threading.Tasks;
@@ -32,35 +30,35 @@ public class TextResponse
 /// <seealso cref="Controller" />
 /// <remarks>
 /// Initializes a new instance of the <see cref="ReaderController"/> class.
+/// Texts, text maps, parsed texts and rendered pieces are kept in the
+/// shared <see cref="DocumentReadingCache"/>, keyed by document ID and
+/// version, so that paging through a document does not retrieve and parse
+/// its text again.
 /// </remarks>
-/// <param name="cache">The cache.</param>
+/// <param name="cache">The reading cache.</param>
 /// <param name="factoryProvider">The factory provider.</param>
 /// <param name="repository">The repository.</param>
 /// <exception cref="ArgumentNullException">repository</exception>
 [ApiController]
 [Route("api/documents")]
-public class ReaderController(IMemoryCache cache,
+public class ReaderController(DocumentReadingCache cache,
     IPythiaFactoryProvider factoryProvider,
     IIndexRepository repository) : ControllerBase
 {
-    private readonly IMemoryCache _cache = cache
+    private readonly DocumentReadingCache _cache = cache
         ?? throw new ArgumentNullException(nameof(cache));
     private readonly IPythiaFactoryProvider _factoryProvider = factoryProvider
         ?? throw new ArgumentNullException(nameof(factoryProvider));
     private readonly IIndexRepository _repository = repository
         ?? throw new ArgumentNullException(nameof(repository));
 
-    /// <summary>
-    /// Gets the contents map of the specified document.
-    /// </summary>
-    /// <param name="id">The document's identifier.</param>
-    /// <returns>the root node of the map</returns>
-    [HttpGet("{id}/map", Name = "GetDocumentMap")]
-    [ProducesResponseType(StatusCodes.Status200OK, Type = typeof(TextMapNodeModel))]
-    [ProducesResponseType(StatusCodes.Status404NotFound)]
-    public async Task<ActionResult<TextMapNodeModel>>
-        GetDocumentMap([FromRoute] int id)
+    private sealed record ReadingSource(IDocument Document, string Profile,
+        PythiaFactory Factory);
+
+    private ActionResult? GetSource(int id, out ReadingSource? source)
     {
+        source = null;
+
         // get the document
         IDocument? document = _repository.GetDocument(id, false);
         if (document == null) return NotFound();
@@ -70,39 +68,92 @@ public class ReaderController(IMemoryCache cache,
         if (profile == null)
             return NotFound($"Profile {document.ProfileId} not found");
 
-        // get the factory
-        PythiaFactory factory = _factoryProvider.GetFactory(profile.Content!);
+        // get the factory, leased until the end of the request so that
+        // its host is not disposed while in use if evicted
+        PythiaFactoryLease lease =
+            _factoryProvider.AcquireFactory(profile.Content!);
+        HttpContext.Response.RegisterForDispose(lease);
+        source = new ReadingSource(document, profile.Content!, lease.Factory);
+        return null;
+    }
 
-        TextMapNode root;
-        if (_cache.TryGetValue($"map-{document.Id}", out var o))
-        {
-            root = (TextMapNode)o!;
-        }
-        else
-        {
-            // get the text retriever for that profile
-            ITextRetriever? retriever = factory.GetTextRetriever();
-            if (retriever == null)
-            {
-                return NotFound($"Retriever for profile {document.ProfileId} " +
-                   "not found");
-            }
+    private ActionResult? GetReader(ReadingSource source,
+        out DocumentReader? reader)
+    {
+        reader = null;
+        string? profileId = source.Document.ProfileId;
 
-            // get the text mapper for that profile
-            ITextMapper? mapper = factory.GetTextMapper();
-            if (mapper == null)
-            {
-                return NotFound($"Mapper for profile {document.ProfileId} " +
-                   "not found");
-            }
+        // get the text retriever for that profile
+        ITextRetriever? retriever = source.Factory.GetTextRetriever();
+        if (retriever == null)
+            return NotFound($"Retriever for profile {profileId} not found");
+
+        // get the text mapper for that profile
+        ITextMapper? mapper = source.Factory.GetTextMapper();
+        if (mapper == null)
+            return NotFound($"Mapper for profile {profileId} not found");
 
-            // retrieve the text and map it
-            string text = (await retriever.GetAsync(document))!;
-            root = mapper.Map(text, document.Attributes!
-                .ToImmutableDictionary(a => a.Name!, a => a.Value ?? ""))!;
+        // get the text picker for that profile
+        ITextPicker? picker = source.Factory.GetTextPicker();
+        if (picker == null)
+            return NotFound($"Picker for profile {profileId} not found");
 
-            _cache.Set($"map-{document.Id}", root);
-        }
+        reader = new DocumentReader(retriever, mapper, picker, _cache,
+            source.Profile);
+        return null;
+    }
+
+    private async Task<ActionResult<TextResponse>> ReadPieceAsync(int id,
+        string pieceKey, Func<DocumentReader, IDocument, Task<TextPiece?>> read,
+        string location)
+    {
+        ActionResult? error = GetSource(id, out ReadingSource? source);
+        if (error != null) return error;
+
+        // use the rendered piece if cached
+        string version = DocumentReadingCache.GetVersion(source!.Document,
+            source.Profile);
+        string part = "piece:" + pieceKey;
+        if (_cache.TryGet(id, version, part, out string? text))
+            return Ok(new TextResponse { Text = text });
+
+        error = GetReader(source, out DocumentReader? reader);
+        if (error != null) return error;
+
+        // read the requested piece
+        TextPiece? piece = await read(reader!, source.Document);
+        if (piece == null)
+            return NotFound($"Document {id} text at {location} not found");
+
+        // render it
+        ITextRenderer? renderer = source.Factory.GetTextRenderer();
+        if (renderer != null)
+            piece.Text = renderer.Render(source.Document, piece.Text);
+
+        _cache.Set(id, version, part, piece.Text,
+            DocumentReadingCache.EstimateSize(piece.Text));
+        return Ok(new TextResponse { Text = piece.Text });
+    }
+
+    /// <summary>
+    /// Gets the contents map of the specified document.
+    /// </summary>
+    /// <param name="id">The document's identifier.</param>
+    /// <returns>the root node of the map</returns>
+    [HttpGet("{id}/map", Name = "GetDocumentMap")]
+    [ProducesResponseType(StatusCodes.Status200OK, Type = typeof(TextMapNodeModel))]
+    [ProducesResponseType(StatusCodes.Status404NotFound)]
+    public async Task<ActionResult<TextMapNodeModel>>
+        GetDocumentMap([FromRoute] int id)
+    {
+        ActionResult? error = GetSource(id, out ReadingSource? source);
+        if (error != null) return error;
+
+        error = GetReader(source!, out DocumentReader? reader);
+        if (error != null) return error;
+
+        TextMapNode? root = await reader!.GetMapAsync(source!.Document);
+        if (root == null) return NotFound($"Document {id} map not found");
 
         TextMapNodeModel result = new(root);
         return Ok(result);
@@ -119,28 +170,23 @@ public class ReaderController(IMemoryCache cache,
     [Produces("text/plain")]
     public async Task<IActionResult> GetDocumentText([FromRoute] int id)
     {
-        // get the document
-        IDocument? document = _repository.GetDocument(id, false);
-        if (document == null) return NotFound();
-
-        // load the profile
-        IProfile? profile = _repository.GetProfile(document.ProfileId!);
-        if (profile == null)
-            return NotFound($"Profile {document.ProfileId} not found");
-
-        // get the factory
-        PythiaFactory factory = _factoryProvider.GetFactory(profile.Content!);
+        ActionResult? error = GetSource(id, out ReadingSource? source);
+        if (error != null) return error;
 
         // get the text retriever
-        ITextRetriever? retriever = factory.GetTextRetriever();
+        ITextRetriever? retriever = source!.Factory.GetTextRetriever();
         if (retriever == null)
         {
-            return NotFound($"Retriever for profile {document.ProfileId} " +
-               "not found");
+            return NotFound("Retriever for profile " +
+                $"{source.Document.ProfileId} not found");
         }
 
         // retrieve the text
-        string text = (await retriever.GetAsync(document))!;
+        string? text = await _cache.GetTextAsync(source.Document,
+            DocumentReadingCache.GetVersion(source.Document, source.Profile),
+            retriever);
+        if (text == null) return NotFound($"Document {id} text not found");
+
         return new FileStreamResult(
             new MemoryStream(Encoding.UTF8.GetBytes(text)), "text/plain");
     }
@@ -155,61 +201,13 @@ public class ReaderController(IMemoryCache cache,
     [HttpGet("{id}/path/{path}", Name = "GetDocumentPieceFromPath")]
     [ProducesResponseType(StatusCodes.Status200OK, Type = typeof(TextResponse))]
     [ProducesResponseType(StatusCodes.Status404NotFound)]
-    public async Task<ActionResult<TextResponse>> GetDocumentPieceFromPath(
+    public Task<ActionResult<TextResponse>> GetDocumentPieceFromPath(
         [FromRoute] int id, [FromRoute] string path)
     {
         path = path.Replace('-', '.');
 
-        // get the document
-        IDocument? document = _repository.GetDocument(id, false);
-        if (document == null) return NotFound();
-
-        // load the profile
-        IProfile? profile = _repository.GetProfile(document.ProfileId!);
-        if (profile == null)
-            return NotFound($"Profile {document.ProfileId} not found");
-
-        // get the document's profile
-        PythiaFactory factory = _factoryProvider.GetFactory(profile.Content!);
-
-        // get the text retriever for that profile
-        ITextRetriever? retriever = factory.GetTextRetriever();
-        if (retriever == null)
-        {
-            return NotFound($"Retriever for profile {document.ProfileId} " +
-               "not found");
-        }
-
-        // get the text mapper for that profile
-        ITextMapper? mapper = factory.GetTextMapper();
-        if (mapper == null)
-        {
-            return NotFound($"Mapper for profile {document.ProfileId} " +
-               "not found");
-        }
-
-        // get the text picker for that profile
-        ITextPicker? picker = factory.GetTextPicker();
-        if (picker == null)
-        {
-            return NotFound($"Picker for profile {document.ProfileId} " +
-               "not found");
-        }
-
-        // read the requested piece
-        DocumentReader reader = new(retriever, mapper, picker);
-        TextPiece? piece = await reader.ReadAsync(document, path);
-        if (piece == null)
-            return NotFound($"Document {id} text at {path} not found");
-
-        // render it
-        ITextRenderer? renderer = factory.GetTextRenderer();
-        if (renderer != null)
-        {
-            piece.Text = renderer.Render(document, piece.Text);
-        }
-
-        return Ok(new TextResponse { Text = piece.Text });
+        return ReadPieceAsync(id, "path:" + path,
+            (reader, document) => reader.ReadAsync(document, path), path);
     }
 
     /// <summary>
@@ -223,58 +221,11 @@ public class ReaderController(IMemoryCache cache,
     [HttpGet("{id}/range/{start}/{end}", Name = "GetDocumentPieceFromRange")]
     [ProducesResponseType(StatusCodes.Status200OK, Type = typeof(TextResponse))]
     [ProducesResponseType(StatusCodes.Status404NotFound)]
-    public async Task<ActionResult<TextResponse>> GetDocumentPieceFromRange(
+    public Task<ActionResult<TextResponse>> GetDocumentPieceFromRange(
         [FromRoute] int id, [FromRoute] int start, [FromRoute] int end)
     {
-        // get the document
-        IDocument? document = _repository.GetDocument(id, false);
-        if (document == null) return NotFound();
-
-        // load the profile
-        IProfile? profile = _repository.GetProfile(document.ProfileId!);
-        if (profile == null)
-            return NotFound($"Profile {document.ProfileId} not found");
-
-        // get the factory
-        PythiaFactory factory = _factoryProvider.GetFactory(profile.Content!);
-
-        // get the text retriever for that profile
-        ITextRetriever? retriever = factory.GetTextRetriever();
-        if (retriever == null)
-        {
-            return NotFound($"Retriever for profile {document.ProfileId} " +
-               "not found");
-        }
-
-        // get the text mapper for that profile
-        ITextMapper? mapper = factory.GetTextMapper();
-        if (mapper == null)
-        {
-            return NotFound($"Mapper for profile {document.ProfileId} " +
-               "not found");
-        }
-
-        // get the text picker for that profile
-        ITextPicker? picker = factory.GetTextPicker();
-        if (picker == null)
-        {
-            return NotFound($"Picker for profile {document.ProfileId} " +
-               "not found");
-        }
-
-        // read the requested piece
-        DocumentReader reader = new(retriever, mapper, picker);
-        TextPiece? piece = await reader.ReadAsync(document, start, end);
-        if (piece == null)
-            return NotFound($"Document {id} text at {start}-{end} not found");
-
-        // render it
-        ITextRenderer? renderer = factory.GetTextRenderer();
-        if (renderer != null)
-        {
-            piece.Text = renderer.Render(document, piece.Text);
-        }
-
-        return Ok(new TextResponse { Text = piece.Text });
+        return ReadPieceAsync(id, $"range:{start}-{end}",
+            (reader, document) => reader.ReadAsync(document, start, end),
+            $"{start}-{end}");
     }
 }
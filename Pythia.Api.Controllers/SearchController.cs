@@ -49,17 +49,29 @@ public sealed class SearchController(IIndexRepository repository,
     private readonly IWebHostEnvironment _environment = environment
         ?? throw new ArgumentNullException(nameof(environment));
 
+    private const int EXPORT_BUFFER_SIZE = 64 * 1024;
+
+    private async Task<List<KwicSearchResult>> GetKwicResultsAsync(
+        IList<SearchResult> items, int contextSize, CancellationToken cancel)
+    {
+        // the contexts of a whole page are got in a single query
+        return [.. await _repository.GetResultContextAsync(items, contextSize,
+            cancel)];
+    }
+
     /// <summary>
-    /// Executes the search specified.
+    /// Executes the search specified. If the client disconnects, the query
+    /// is cancelled on the database server.
     /// </summary>
     /// <param name="model">The query model.</param>
     /// <returns>page of results</returns>
     [HttpGet()]
     [ProducesResponseType(StatusCodes.Status200OK,
-        Type = typeof(ResultWrapperModel<DataPage<KwicSearchResult>>))]
+        Type = typeof(ResultWrapperModel<SearchDataPage<KwicSearchResult>>))]
     [ProducesResponseType(400)]
-    public ActionResult<ResultWrapperModel<DataPage<KwicSearchResult>>>
-        Search([FromQuery] SearchBindingModel model)
+    public async Task<ActionResult<
+        ResultWrapperModel<SearchDataPage<KwicSearchResult>>>>
+        SearchAsync([FromQuery] SearchBindingModel model)
     {
         if (!ModelState.IsValid) return BadRequest(ModelState);
 
@@ -68,41 +80,134 @@ public sealed class SearchController(IIndexRepository repository,
             IList<ILiteralFilter> filters = _factoryProvider.GetFactory()
                 .GetLiteralFilters();
 
-            DataPage<SearchResult> page = _repository.Search(new SearchRequest
+            SearchDataPage<SearchResult> page = await _repository.SearchAsync(
+                new SearchRequest
+                {
+                    PageNumber = model.PageNumber,
+                    PageSize = model.PageSize,
+                    Query = model.Query,
+                    SortFields = model.SortFields,
+                    CountStrategy = model.CountStrategy
+                        ?? SearchCountStrategy.Exact
+                }, filters, HttpContext.RequestAborted);
+
+            List<KwicSearchResult> allResults = await GetKwicResultsAsync(
+                page.Items, model.ContextSize ?? 5, HttpContext.RequestAborted);
+
+            SearchDataPage<KwicSearchResult> wrapped =
+                new(model.PageNumber, model.PageSize, page.Total, allResults)
+                {
+                    IsTotalApproximate = page.IsTotalApproximate,
+                    IsTotalDeferred = page.IsTotalDeferred
+                };
+
+            return Ok(new ResultWrapperModel<SearchDataPage<KwicSearchResult>>
             {
-                PageNumber = model.PageNumber,
-                PageSize = model.PageSize,
-                Query = model.Query,
-                SortFields = model.SortFields
-            }, filters);
-
-            // Process results in smaller batches to avoid PostgreSQL
-            // shared memory issues with large UNION queries
-            const int contextBatchSize = 20;
-            List<KwicSearchResult> allResults = [];
-            for (int i = 0; i < page.Items.Count; i += contextBatchSize)
+                Value = wrapped
+            });
+        }
+        catch (Exception ex)
+        {
+            Debug.WriteLine(ex.ToString());
+            return Ok(new ResultWrapperModel<SearchDataPage<KwicSearchResult>>
             {
-                int batchCount = Math.Min(contextBatchSize, page.Items.Count - i);
-                List<SearchResult> batch = [.. page.Items
-                    .Skip(i)
-                    .Take(batchCount)];
-                IList<KwicSearchResult> batchResults =
-                    _repository.GetResultContext(batch, model.ContextSize ?? 5);
-                allResults.AddRange(batchResults);
-            }
+                Error = ex.Message
+            });
+        }
+    }
 
-            DataPage<KwicSearchResult> wrapped =
-                new(model.PageNumber, model.PageSize, page.Total, allResults);
+    /// <summary>
+    /// Gets the exact total count of results for the specified query.
+    /// This is used to get the count deferred by a search whose count
+    /// strategy is <c>Deferred</c>. Counts are briefly cached, so that
+    /// they are not recalculated while paging through results. If the
+    /// client disconnects, the count query is cancelled on the database
+    /// server.
+    /// </summary>
+    /// <param name="model">The query model. Only its query is used.</param>
+    /// <returns>count</returns>
+    [HttpGet("count")]
+    [ProducesResponseType(StatusCodes.Status200OK,
+        Type = typeof(ResultWrapperModel<int>))]
+    [ProducesResponseType(400)]
+    public async Task<ActionResult<ResultWrapperModel<int>>>
+        GetSearchCountAsync([FromQuery] SearchBindingModel model)
+    {
+        if (!ModelState.IsValid) return BadRequest(ModelState);
+
+        try
+        {
+            IList<ILiteralFilter> filters = _factoryProvider.GetFactory()
+                .GetLiteralFilters();
 
-            return Ok(new ResultWrapperModel<DataPage<KwicSearchResult>>
+            int count = await _repository.GetSearchCountAsync(
+                new SearchRequest
+                {
+                    Query = model.Query
+                }, filters, HttpContext.RequestAborted);
+
+            return Ok(new ResultWrapperModel<int>
             {
-                Value = wrapped
+                Value = count
+            });
+        }
+        catch (Exception ex)
+        {
+            Debug.WriteLine(ex.ToString());
+            return Ok(new ResultWrapperModel<int>
+            {
+                Error = ex.Message
+            });
+        }
+    }
+
+    /// <summary>
+    /// Executes the search specified, paging results by seeking after the
+    /// last result of the previous page rather than by offset. Results are
+    /// sorted by document, so the sort fields and page number in the model
+    /// are ignored. This is the efficient way of walking through all the
+    /// pages of results.
+    /// </summary>
+    /// <param name="model">The query model.</param>
+    /// <param name="after">The continuation token got from the previous
+    /// page, or null to get the first page.</param>
+    /// <returns>page of results with the continuation token for the next
+    /// page, if any</returns>
+    [HttpGet("seek")]
+    [ProducesResponseType(StatusCodes.Status200OK,
+        Type = typeof(ResultWrapperModel<KeysetPage<KwicSearchResult>>))]
+    [ProducesResponseType(400)]
+    public async Task<ActionResult<
+        ResultWrapperModel<KeysetPage<KwicSearchResult>>>>
+        SearchAfterAsync([FromQuery] SearchBindingModel model,
+        [FromQuery] string? after)
+    {
+        if (!ModelState.IsValid) return BadRequest(ModelState);
+
+        try
+        {
+            IList<ILiteralFilter> filters = _factoryProvider.GetFactory()
+                .GetLiteralFilters();
+
+            KeysetPage<SearchResult> page = await _repository.SearchAfterAsync(
+                new SearchRequest
+                {
+                    PageSize = model.PageSize,
+                    Query = model.Query
+                }, after, filters, HttpContext.RequestAborted);
+
+            return Ok(new ResultWrapperModel<KeysetPage<KwicSearchResult>>
+            {
+                Value = new KeysetPage<KwicSearchResult>(
+                    await GetKwicResultsAsync(page.Items,
+                        model.ContextSize ?? 5, HttpContext.RequestAborted),
+                    page.ContinuationToken, page.Total)
             });
         }
         catch (Exception ex)
         {
             Debug.WriteLine(ex.ToString());
-            return Ok(new ResultWrapperModel<DataPage<KwicSearchResult>>
+            return Ok(new ResultWrapperModel<KeysetPage<KwicSearchResult>>
             {
                 Error = ex.Message
             });
@@ -152,63 +257,33 @@ public sealed class SearchController(IIndexRepository repository,
     private async Task ExportDataAsync(ExportSearchBindingModel model,
         CsvWriter csvWriter, CancellationToken cancel)
     {
-        try
-        {
-            // prepare the search request
-            SearchRequest request = new()
-            {
-                Query = model.Query,
-                PageNumber = model.PageNumber,
-                PageSize = model.PageSize
-            };
+        // the query is run once and its results are streamed, so pages
+        // just define the slice of results to export
+        int lastPage = model.LastPage ?? 0;
+        if (lastPage > 0 && lastPage < model.PageNumber) return;
 
-            int lastPage = model.LastPage ?? 0;
+        int skip = (int)Math.Min(int.MaxValue,
+            (long)(model.PageNumber - 1) * model.PageSize);
+        int take = lastPage == 0 ? 0 : (int)Math.Min(int.MaxValue,
+            (long)(lastPage - model.PageNumber + 1) * model.PageSize);
 
-            while ((lastPage == 0 || request.PageNumber <= lastPage) &&
-                !cancel.IsCancellationRequested)
-            {
-                // perform the search
-                DataPage<SearchResult> page = _repository.Search(request);
-                if (page.PageCount == 0) break;
-
-                // update last page if needed
-                if (lastPage == 0 || lastPage > page.PageCount)
-                    lastPage = page.PageCount;
-
-                // Process results in smaller batches to avoid PostgreSQL
-                // shared memory issues with large UNION queries
-                const int contextBatchSize = 20;
-                for (int i = 0; i < page.Items.Count; i += contextBatchSize)
-                {
-                    int batchCount = Math.Min(contextBatchSize, page.Items.Count - i);
-                    List<SearchResult> batch = [.. page.Items
-                        .Skip(i)
-                        .Take(batchCount)];
-
-                    // get the result context for this batch
-                    IList<KwicSearchResult> results = _repository.GetResultContext(
-                        batch, model.ContextSize ?? 5);
-
-                    // write results to CSV
-                    foreach (var result in results)
-                    {
-                        WriteCsvResult(result, csvWriter);
-                        await csvWriter.FlushAsync();
-                    }
-                }
-
-                // move to the next page
-                request.PageNumber++;
-            }
-            await csvWriter.FlushAsync();
-        }
-        catch (OperationCanceledException)
-        {
-            // The operation was canceled, do nothing
-        }
-        catch (Exception ex)
+        IList<ILiteralFilter> filters = _factoryProvider.GetFactory()
+            .GetLiteralFilters();
+        IAsyncEnumerable<SearchResult> results = SearchResultStream.SliceAsync(
+            _repository.StreamSearchAsync(
+                new SearchRequest { Query = model.Query }, filters, cancel),
+            skip, take, cancel);
+
+        // contexts are got a window at a time, and each window is flushed
+        // as a whole: flushing awaits the response pipe, which holds back
+        // the export when the client reads slower than we write
+        await foreach (IList<KwicSearchResult> window in _repository
+            .GetContextWindowsAsync(results, model.ContextSize ?? 5,
+                cancel: cancel))
         {
-            _logger.LogError(ex, "Error during export");
+            foreach (KwicSearchResult result in window)
+                WriteCsvResult(result, csvWriter);
+            await csvWriter.FlushAsync();
         }
     }
 
@@ -240,30 +315,37 @@ public sealed class SearchController(IIndexRepository repository,
             "Content-Disposition", "attachment; filename=search_results.csv");
         Response.ContentType = "text/csv";
 
-        // create a token that will be canceled when the client disconnects
-        using CancellationTokenSource cts = new();
-        HttpContext.RequestAborted.Register(() => cts.Cancel());
+        CancellationToken cancel = HttpContext.RequestAborted;
 
-        // use a custom StreamWriter that writes to the response body
-        await using StreamWriter streamWriter = new(Response.Body, Encoding.UTF8);
-        await using CsvWriter csvWriter =
-            new(streamWriter, CultureInfo.InvariantCulture);
+        // write through the response pipe with a large buffer, so that
+        // the body is sent in a few big chunks. Writers are disposed only
+        // on success, because disposing flushes their buffers, which would
+        // start the body even when we are going to return an error.
+        StreamWriter streamWriter = new(Response.BodyWriter.AsStream(),
+            Encoding.UTF8, EXPORT_BUFFER_SIZE);
+        CsvWriter csvWriter = new(streamWriter, CultureInfo.InvariantCulture);
 
-        // write the CSV header
-        WriteCsvHeader(model.ContextSize ?? 5, csvWriter);
-
-        // start the export process as a low-priority task
         try
         {
-            await Task.Factory.StartNew(
-                async () => await ExportDataAsync(model, csvWriter, cts.Token),
-                cts.Token,
-                TaskCreationOptions.LongRunning,
-                TaskScheduler.Default);
+            WriteCsvHeader(model.ContextSize ?? 5, csvWriter);
+            await ExportDataAsync(model, csvWriter, cancel);
+            await csvWriter.DisposeAsync();
+        }
+        catch (OperationCanceledException) when (cancel.IsCancellationRequested)
+        {
+            // the client disconnected, do nothing
         }
         catch (Exception ex)
         {
-            _logger.LogError(ex, "Error starting export task");
+            _logger.LogError(ex, "Error during export");
+
+            // once the body has started, the only way of telling the client
+            // that the file is incomplete is dropping the connection
+            if (Response.HasStarted)
+            {
+                HttpContext.Abort();
+                return new EmptyResult();
+            }
 
             if (!_environment.IsProduction())
             {
@@ -3,6 +3,7 @@ using Microsoft.AspNetCore.Mvc;
 using Pythia.Core;
 using System;
 using System.Collections.Generic;
+using System.Threading.Tasks;
 
 namespace Pythia.Api.Controllers;
 
@@ -22,14 +23,46 @@ public class StatsController(IIndexRepository repository) : ControllerBase
         ?? throw new ArgumentNullException(nameof(repository));
 
     /// <summary>
-    /// Gets statistics about the index.
+    /// Gets statistics about the index. When the repository keeps a
+    /// statistics snapshot (see <see cref="IStatisticsSnapshotRepository"/>),
+    /// statistics are read from it, and include <c>snapshot_time</c> and
+    /// <c>snapshot_refresh_time</c>, i.e. the time of the last update and
+    /// of the last full refresh of the snapshot, in seconds since the
+    /// Unix epoch; the time of the last update is also set in the
+    /// <c>Last-Modified</c> header. Otherwise, or when <paramref name="live"/>
+    /// is true, statistics are calculated from the whole index.
     /// </summary>
+    /// <param name="live">True to calculate statistics from the index
+    /// even when a snapshot is available.</param>
     /// <returns>Dictionary with name=value pairs.</returns>
     [HttpGet()]
     [ProducesResponseType(StatusCodes.Status200OK,
         Type = typeof(IDictionary<string,double>))]
-    public ActionResult<IDictionary<string,double>> GetStatistics()
+    public async Task<ActionResult<IDictionary<string,double>>>
+        GetStatisticsAsync([FromQuery] bool live = false)
     {
-        return Ok(_repository.GetStatistics());
+        if (!live && _repository is IStatisticsSnapshotRepository snapshots)
+        {
+            StatisticsSnapshot? snapshot =
+                await snapshots.GetStatisticsSnapshotAsync(
+                    HttpContext.RequestAborted);
+            if (snapshot != null)
+            {
+                Dictionary<string, double> stats = new(snapshot.Values)
+                {
+                    ["snapshot_time"] = new DateTimeOffset(snapshot.Updated)
+                        .ToUnixTimeSeconds(),
+                    ["snapshot_refresh_time"] =
+                        new DateTimeOffset(snapshot.Refreshed)
+                        .ToUnixTimeSeconds()
+                };
+                Response.GetTypedHeaders().LastModified =
+                    new DateTimeOffset(snapshot.Updated);
+                return Ok(stats);
+            }
+        }
+
+        return Ok(await _repository.GetStatisticsAsync(
+            HttpContext.RequestAborted));
     }
 }
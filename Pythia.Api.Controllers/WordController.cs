@@ -5,6 +5,7 @@ using Pythia.Api.Models;
 using Pythia.Core;
 using System;
 using System.Collections.Generic;
+using System.Threading.Tasks;
 
 namespace Pythia.Api.Controllers;
 
@@ -15,27 +16,48 @@ namespace Pythia.Api.Controllers;
 /// Initializes a new instance of the <see cref="WordController"/> class.
 /// </remarks>
 /// <param name="repository">The repository.</param>
+/// <param name="store">The optional in-memory words and lemmata store. When
+/// this is loaded, words and their counts are read from it rather than from
+/// the repository.</param>
 /// <exception cref="ArgumentNullException">repository</exception>
 [ApiController]
 [Route("api/words")]
-public class WordController(IIndexRepository repository) : ControllerBase
+public class WordController(IIndexRepository repository,
+    WordFrequencyStore? store = null) : ControllerBase
 {
     private readonly IIndexRepository _repository = repository
         ?? throw new ArgumentNullException(nameof(repository));
+    private readonly WordFrequencyStore? _store = store;
 
     /// <summary>
-    /// Gets a page of words.
+    /// Gets a page of words. If the client disconnects, the query is
+    /// cancelled on the database server.
     /// </summary>
     /// <param name="filter">The words filter model.</param>
     /// <returns>page</returns>
     [HttpGet()]
     [ProducesResponseType(StatusCodes.Status200OK, Type = typeof(DataPage<Word>))]
     [ProducesResponseType(StatusCodes.Status400BadRequest)]
-    public ActionResult<DataPage<Word>> Get(
+    public async Task<ActionResult<DataPage<Word>>> GetAsync(
         [FromQuery] WordFilterBindingModel filter)
     {
         if (!ModelState.IsValid) return BadRequest(ModelState);
-        return _repository.GetWords(filter.ToFilter());
+        if (_store?.IsLoaded == true) return _store.GetWords(filter.ToFilter());
+        return await _repository.GetWordsAsync(filter.ToFilter(),
+            HttpContext.RequestAborted);
+    }
+
+    /// <summary>
+    /// Gets statistics about the in-memory words and lemmata store, including
+    /// its estimated memory usage in bytes. If the store is not enabled or
+    /// not yet loaded, an empty dictionary is returned.
+    /// </summary>
+    /// <returns>Dictionary with statistics.</returns>
+    [HttpGet("store-stats")]
+    [ProducesResponseType(StatusCodes.Status200OK)]
+    public IDictionary<string, double> GetStoreStatistics()
+    {
+        return _store?.GetStatistics() ?? new Dictionary<string, double>();
     }
 
     /// <summary>
@@ -70,8 +92,9 @@ public class WordController(IIndexRepository repository) : ControllerBase
 
         foreach (string attrName in attributes)
         {
-            IList<TokenCount> attrCounts = _repository.GetTokenCounts(
-                false, id, attrName);
+            IList<TokenCount> attrCounts = _store?.IsLoaded == true
+                ? _store.GetTokenCounts(false, id, attrName)
+                : _repository.GetTokenCounts(false, id, attrName);
             if (attrCounts.Count > 0) counts[attrName] = attrCounts;
         }
         return counts;
@@ -1,6 +1,7 @@
 ﻿using System;
 using System.Collections.Generic;
 using System.ComponentModel.DataAnnotations;
+using Pythia.Core;
 
 namespace Pythia.Api.Models;
 
@@ -40,6 +41,14 @@ public class SearchBindingModel
     /// </summary>
     public IList<string>? SortFields { get; set; }
 
+    /// <summary>
+    /// The strategy used to calculate the total count of results:
+    /// <c>Exact</c> (default), <c>Estimated</c> (the total is marked
+    /// as approximate), or <c>Deferred</c> (the exact count must be got
+    /// from the <c>api/search/count</c> endpoint).
+    /// </summary>
+    public SearchCountStrategy? CountStrategy { get; set; }
+
     /// <summary>
     /// Initializes a new instance of the <see cref="SearchBindingModel"/> class.
     /// </summary>
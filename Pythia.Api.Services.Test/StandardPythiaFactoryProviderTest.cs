@@ -0,0 +1,220 @@
+﻿using Microsoft.Extensions.Hosting;
+using System;
+using System.Collections.Concurrent;
+using System.Collections.Generic;
+using System.Linq;
+using System.Threading;
+using System.Threading.Tasks;
+using Xunit;
+
+namespace Pythia.Api.Services.Test;
+
+public sealed class StandardPythiaFactoryProviderTest
+{
+    private const string CS = "Host=localhost;Database=pythia-test";
+
+    private sealed class HostBuilderMock
+    {
+        public ConcurrentBag<MockHost> Hosts { get; } = [];
+        public int BuildCount => Hosts.Count;
+
+        public IHost Build(string profile)
+        {
+            MockHost host = new(profile);
+            Hosts.Add(host);
+            return host;
+        }
+    }
+
+    /// <summary>
+    /// A host counting its disposals.
+    /// </summary>
+    private sealed class MockHost(string profile) : IHost
+    {
+        private readonly IHost _host = new HostBuilder().Build();
+        private int _disposeCount;
+
+        public string Profile { get; } = profile;
+        public int DisposeCount => Volatile.Read(ref _disposeCount);
+        public IServiceProvider Services => _host.Services;
+
+        public Task StartAsync(CancellationToken cancellationToken = default)
+            => Task.CompletedTask;
+
+        public Task StopAsync(CancellationToken cancellationToken = default)
+            => Task.CompletedTask;
+
+        public void Dispose()
+        {
+            Interlocked.Increment(ref _disposeCount);
+            _host.Dispose();
+        }
+    }
+
+    private static MockHost GetHost(HostBuilderMock builder, string profile)
+        => builder.Hosts.Single(h => h.Profile == profile);
+
+    /// <summary>
+    /// Acquires the factory for the specified profile, releasing it at once.
+    /// </summary>
+    private static void Touch(StandardPythiaFactoryProvider provider,
+        string profile)
+    {
+        using PythiaFactoryLease lease = provider.AcquireFactory(profile);
+    }
+
+    [Fact]
+    public async Task AcquireFactory_Concurrent_BuiltOnce()
+    {
+        HostBuilderMock builder = new();
+        using StandardPythiaFactoryProvider provider = new(CS, 2,
+            builder.Build);
+
+        PythiaFactoryLease[] leases = await Task.WhenAll(
+            Enumerable.Range(0, 32).Select(_ =>
+                Task.Run(() => provider.AcquireFactory("a"))));
+
+        Assert.Equal(1, builder.BuildCount);
+        Assert.All(leases, l => Assert.Same(leases[0].Factory, l.Factory));
+        foreach (PythiaFactoryLease lease in leases) lease.Dispose();
+        Assert.Equal(0, GetHost(builder, "a").DisposeCount);
+    }
+
+    [Fact]
+    public void AcquireFactory_EvictedReleased_Disposed()
+    {
+        HostBuilderMock builder = new();
+        using StandardPythiaFactoryProvider provider = new(CS, 1,
+            builder.Build);
+
+        Touch(provider, "a");
+        Touch(provider, "b");
+
+        Assert.Equal(1, provider.Count);
+        Assert.Equal(1, GetHost(builder, "a").DisposeCount);
+        Assert.Equal(0, GetHost(builder, "b").DisposeCount);
+    }
+
+    [Fact]
+    public void AcquireFactory_EvictedWhileLeased_DisposedOnRelease()
+    {
+        HostBuilderMock builder = new();
+        using StandardPythiaFactoryProvider provider = new(CS, 1,
+            builder.Build);
+
+        PythiaFactoryLease a = provider.AcquireFactory("a");
+        PythiaFactoryLease a2 = provider.AcquireFactory("a");
+        using (provider.AcquireFactory("b"))
+        {
+            Assert.Equal(0, GetHost(builder, "a").DisposeCount);
+        }
+
+        a.Dispose();
+        // disposing a lease twice has no effect
+        a.Dispose();
+        Assert.Equal(0, GetHost(builder, "a").DisposeCount);
+        a2.Dispose();
+        Assert.Equal(1, GetHost(builder, "a").DisposeCount);
+        Assert.Equal(0, GetHost(builder, "b").DisposeCount);
+    }
+
+    [Fact]
+    public async Task AcquireFactory_EvictedWhileBuilding_DisposedAfterBuild()
+    {
+        HostBuilderMock builder = new();
+        using ManualResetEventSlim building = new();
+        using ManualResetEventSlim gate = new();
+        using StandardPythiaFactoryProvider provider = new(CS, 1,
+            profile =>
+            {
+                if (profile == "a")
+                {
+                    building.Set();
+                    gate.Wait();
+                }
+                return builder.Build(profile);
+            });
+
+        Task<PythiaFactoryLease> task = Task.Run(
+            () => provider.AcquireFactory("a"));
+        building.Wait();
+
+        // evict a while it is being built
+        Touch(provider, "b");
+        gate.Set();
+        PythiaFactoryLease a = await task;
+
+        Assert.Equal(0, GetHost(builder, "a").DisposeCount);
+        a.Dispose();
+        Assert.Equal(1, GetHost(builder, "a").DisposeCount);
+
+        // a is no longer cached and gets rebuilt
+        Touch(provider, "a");
+        Assert.Equal(2, builder.Hosts.Count(h => h.Profile == "a"));
+    }
+
+    [Fact]
+    public void AcquireFactory_BuildFailed_NotCached()
+    {
+        HostBuilderMock builder = new();
+        int count = 0;
+        using StandardPythiaFactoryProvider provider = new(CS, 1,
+            profile => ++count == 1
+                ? throw new InvalidOperationException("Failed")
+                : builder.Build(profile));
+
+        Assert.Throws<InvalidOperationException>(
+            () => provider.AcquireFactory("a"));
+        Assert.Equal(0, provider.Count);
+
+        using PythiaFactoryLease lease = provider.AcquireFactory("a");
+        Assert.Equal(1, provider.Count);
+    }
+
+    [Fact]
+    public void Dispose_Leased_DisposedOnRelease()
+    {
+        HostBuilderMock builder = new();
+        StandardPythiaFactoryProvider provider = new(CS, 2, builder.Build);
+        PythiaFactoryLease a = provider.AcquireFactory("a");
+        Touch(provider, "b");
+
+        provider.Dispose();
+
+        Assert.Equal(0, GetHost(builder, "a").DisposeCount);
+        Assert.Equal(1, GetHost(builder, "b").DisposeCount);
+        Assert.Throws<ObjectDisposedException>(
+            () => provider.AcquireFactory("a"));
+        a.Dispose();
+        Assert.Equal(1, GetHost(builder, "a").DisposeCount);
+    }
+
+    [Fact]
+    public async Task AcquireFactory_ConcurrentEvictions_NoHostDisposedInUse()
+    {
+        HostBuilderMock builder = new();
+        StandardPythiaFactoryProvider provider = new(CS, 2, builder.Build);
+        string[] profiles = ["a", "b", "c", "d", "e"];
+        int errors = 0;
+
+        await Task.WhenAll(Enumerable.Range(0, 8).Select(t => Task.Run(() =>
+        {
+            Random random = new(t);
+            for (int i = 0; i < 500; i++)
+            {
+                using PythiaFactoryLease lease = provider.AcquireFactory(
+                    profiles[random.Next(profiles.Length)]);
+                MockHost host = (MockHost)lease.Host!;
+                Thread.SpinWait(random.Next(100));
+                if (host.DisposeCount > 0) Interlocked.Increment(ref errors);
+            }
+        })));
+
+        provider.Dispose();
+
+        Assert.Equal(0, errors);
+        Assert.True(builder.BuildCount > profiles.Length);
+        List<MockHost> hosts = [.. builder.Hosts];
+        Assert.All(hosts, h => Assert.Equal(1, h.DisposeCount));
+    }
+}
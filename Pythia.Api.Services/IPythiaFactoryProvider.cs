@@ -8,9 +8,21 @@ namespace Pythia.Api.Services;
 public interface IPythiaFactoryProvider
 {
     /// <summary>
-    /// Gets the Pythia factory for the specified profile.
+    /// Gets the Pythia factory for the specified profile. Callers should
+    /// use <see cref="AcquireFactory(string)"/>, which keeps the factory
+    /// usable until its lease is disposed.
     /// </summary>
     /// <param name="profile">The profile name.</param>
     /// <returns>The Pythia factory.</returns>
     PythiaFactory GetFactory(string profile);
+
+    /// <summary>
+    /// Acquires a lease on the Pythia factory for the specified profile.
+    /// The factory can be used until the lease is disposed. The default
+    /// implementation just wraps <see cref="GetFactory(string)"/>.
+    /// </summary>
+    /// <param name="profile">The profile name.</param>
+    /// <returns>The lease.</returns>
+    PythiaFactoryLease AcquireFactory(string profile) =>
+        new(GetFactory(profile));
 }
\ No newline at end of file
@@ -0,0 +1,47 @@
+﻿using Microsoft.Extensions.Hosting;
+using Pythia.Core.Config;
+using System;
+using System.Threading;
+
+namespace Pythia.Api.Services;
+
+/// <summary>
+/// A lease on a Pythia factory got from an <see cref="IPythiaFactoryProvider"/>.
+/// The factory can be safely used until the lease is disposed.
+/// </summary>
+public sealed class PythiaFactoryLease : IDisposable
+{
+    private Action? _release;
+
+    /// <summary>
+    /// Gets the leased factory.
+    /// </summary>
+    public PythiaFactory Factory { get; }
+
+    /// <summary>
+    /// Gets the host of the leased factory, when known.
+    /// </summary>
+    internal IHost? Host { get; init; }
+
+    /// <summary>
+    /// Initializes a new instance of the <see cref="PythiaFactoryLease"/>
+    /// class.
+    /// </summary>
+    /// <param name="factory">The leased factory.</param>
+    /// <param name="release">The optional action releasing the factory,
+    /// invoked only once when this lease is disposed.</param>
+    /// <exception cref="ArgumentNullException">factory</exception>
+    public PythiaFactoryLease(PythiaFactory factory, Action? release = null)
+    {
+        Factory = factory ?? throw new ArgumentNullException(nameof(factory));
+        _release = release;
+    }
+
+    /// <summary>
+    /// Releases the factory.
+    /// </summary>
+    public void Dispose()
+    {
+        Interlocked.Exchange(ref _release, null)?.Invoke();
+    }
+}
@@ -6,6 +6,10 @@ using Pythia.Core.Config;
 using Pythia.Core.Plugin.Analysis;
 using System;
 using System.Collections.Generic;
+using System.Linq;
+using System.Security.Cryptography;
+using System.Text;
+using System.Threading;
 
 namespace Pythia.Api.Services;
 
@@ -14,22 +18,68 @@ namespace Pythia.Api.Services;
 /// components, and can be used as a sample implementation to create your
 /// own providers.
 /// </summary>
-public sealed class StandardPythiaFactoryProvider : IPythiaFactoryProvider
+/// <remarks>Factories are cached by a hash of their profile's content, up
+/// to <see cref="Capacity"/>; when this is exceeded, the least recently
+/// used factory is evicted, so the capacity should exceed the count of
+/// profiles used at the same time. Factories got via
+/// <see cref="AcquireFactory"/> are reference counted: the host of an
+/// evicted factory is disposed only when its last lease is released, also
+/// when eviction happened while the factory was still being built. This
+/// provider is thread-safe, and builds each factory only once even when
+/// requested concurrently.</remarks>
+public sealed class StandardPythiaFactoryProvider : IPythiaFactoryProvider,
+    IDisposable
 {
     private readonly string _connString;
-    private readonly Dictionary<int, PythiaFactory> _factories;
+    private readonly Func<string, IHost> _getHost;
+    private readonly object _locker = new();
+    private readonly Dictionary<string, LinkedListNode<Entry>> _map = [];
+    private readonly LinkedList<Entry> _lru = new();
+    private bool _disposed;
+
+    /// <summary>
+    /// Gets the maximum count of factories kept by this provider.
+    /// </summary>
+    public int Capacity { get; }
+
+    /// <summary>
+    /// Gets the count of factories kept by this provider.
+    /// </summary>
+    public int Count
+    {
+        get { lock (_locker) return _map.Count; }
+    }
 
     /// <summary>
     /// Initializes a new instance of the <see cref="StandardPythiaFactoryProvider"/>
     /// class.
     /// </summary>
     /// <param name="connString">The connection string.</param>
+    /// <param name="capacity">The maximum count of factories to keep.</param>
     /// <exception cref="ArgumentNullException">connString</exception>
-    public StandardPythiaFactoryProvider(string connString)
+    /// <exception cref="ArgumentOutOfRangeException">capacity less than 1
+    /// </exception>
+    public StandardPythiaFactoryProvider(string connString, int capacity = 32)
+        : this(connString, capacity, GetHost)
+    {
+    }
+
+    /// <summary>
+    /// Initializes a new instance of the <see cref="StandardPythiaFactoryProvider"/>
+    /// class with the specified function building a host from a profile.
+    /// </summary>
+    /// <param name="connString">The connection string.</param>
+    /// <param name="capacity">The maximum count of factories to keep.</param>
+    /// <param name="getHost">The function building a host from a profile.
+    /// </param>
+    internal StandardPythiaFactoryProvider(string connString, int capacity,
+        Func<string, IHost> getHost)
     {
         _connString = connString
             ?? throw new ArgumentNullException(nameof(connString));
-        _factories = [];
+        ArgumentOutOfRangeException.ThrowIfLessThan(capacity, 1);
+        Capacity = capacity;
+        _getHost = getHost;
     }
 
     private static IHost GetHost(string config)
@@ -50,24 +100,168 @@ public sealed class StandardPythiaFactoryProvider : IPythiaFactoryProvider
             .Build();
     }
 
+    private static string GetKey(string profile) =>
+        Convert.ToHexString(SHA256.HashData(Encoding.UTF8.GetBytes(profile)));
+
+    private static void DisposeEntry(Entry entry)
+    {
+        // a faulted build has no value to dispose
+        if (entry.Build.IsValueCreated) entry.Build.Value.Host.Dispose();
+    }
+
     /// <summary>
-    /// Gets the factory for the specified profile.
+    /// Marks the specified entry as evicted, and tells whether its host
+    /// can be disposed now, i.e. when it has no leases. Otherwise, it will
+    /// be disposed when its last lease is released. Call this in the lock.
+    /// </summary>
+    private static bool Evict(Entry entry)
+    {
+        entry.IsEvicted = true;
+        return entry.LeaseCount == 0;
+    }
+
+    private void Release(Entry entry)
+    {
+        lock (_locker)
+        {
+            if (--entry.LeaseCount > 0 || !entry.IsEvicted) return;
+        }
+        DisposeEntry(entry);
+    }
+
+    /// <summary>
+    /// Gets the factory for the specified profile. The factory is not
+    /// leased, so its host might be disposed while in use if evicted:
+    /// use <see cref="AcquireFactory"/> instead.
     /// </summary>
     /// <param name="profile">The profile content.</param>
     /// <returns>Factory</returns>
     /// <exception cref="ArgumentNullException">profile</exception>
+    /// <exception cref="ObjectDisposedException">provider disposed
+    /// </exception>
+    [Obsolete("The factory is not leased: use AcquireFactory instead.")]
     public PythiaFactory GetFactory(string profile)
+    {
+        using PythiaFactoryLease lease = AcquireFactory(profile);
+        return lease.Factory;
+    }
+
+    /// <summary>
+    /// Acquires a lease on the factory for the specified profile. The host
+    /// of the factory is not disposed until the lease is disposed, even if
+    /// the factory is evicted in the meantime.
+    /// </summary>
+    /// <param name="profile">The profile content.</param>
+    /// <returns>Lease.</returns>
+    /// <exception cref="ArgumentNullException">profile</exception>
+    /// <exception cref="ObjectDisposedException">provider disposed
+    /// </exception>
+    public PythiaFactoryLease AcquireFactory(string profile)
     {
         ArgumentNullException.ThrowIfNull(profile);
 
-        int hash = profile.GetHashCode();
-        if (!_factories.ContainsKey(hash))
+        string key = GetKey(profile);
+        Entry entry;
+        List<Entry>? evicted = null;
+
+        lock (_locker)
+        {
+            ObjectDisposedException.ThrowIf(_disposed, this);
+
+            if (_map.TryGetValue(key, out LinkedListNode<Entry>? node))
+            {
+                _lru.Remove(node);
+                _lru.AddFirst(node);
+                entry = node.Value;
+            }
+            else
+            {
+                // the factory is built outside the lock, once: concurrent
+                // requests for the same profile wait for the same build
+                entry = new Entry(key, new Lazy<(IHost, PythiaFactory)>(
+                    () =>
+                    {
+                        IHost host = _getHost(profile);
+                        return (host, new PythiaFactory(host)
+                        {
+                            ConnectionString = _connString
+                        });
+                    }, LazyThreadSafetyMode.ExecutionAndPublication));
+                _map[key] = _lru.AddFirst(entry);
+
+                while (_map.Count > Capacity)
+                {
+                    LinkedListNode<Entry> last = _lru.Last!;
+                    _lru.RemoveLast();
+                    _map.Remove(last.Value.Key);
+                    if (Evict(last.Value)) (evicted ??= []).Add(last.Value);
+                }
+            }
+            // the lease also protects the build
+            entry.LeaseCount++;
+        }
+
+        // dispose evicted hosts outside the lock
+        if (evicted != null)
+        {
+            foreach (Entry e in evicted) DisposeEntry(e);
+        }
+
+        try
         {
-            _factories[hash] = new PythiaFactory(GetHost(profile))
+            (IHost host, PythiaFactory factory) = entry.Build.Value;
+            return new PythiaFactoryLease(factory, () => Release(entry))
             {
-                ConnectionString = _connString
+                Host = host
             };
         }
-        return _factories[hash];
+        catch
+        {
+            // do not cache failures, so that the next request retries
+            lock (_locker)
+            {
+                if (_map.TryGetValue(key, out LinkedListNode<Entry>? node)
+                    && node.Value == entry)
+                {
+                    _lru.Remove(node);
+                    _map.Remove(key);
+                }
+                entry.IsEvicted = true;
+            }
+            Release(entry);
+            throw;
+        }
+    }
+
+    /// <summary>
+    /// Disposes the hosts of all the factories built by this provider.
+    /// Hosts of leased factories are disposed when their last lease is
+    /// released.
+    /// </summary>
+    public void Dispose()
+    {
+        List<Entry> entries;
+        lock (_locker)
+        {
+            if (_disposed) return;
+            _disposed = true;
+            entries = [.. _lru.Where(Evict)];
+            _map.Clear();
+            _lru.Clear();
+        }
+        foreach (Entry entry in entries) DisposeEntry(entry);
+    }
+
+    /// <summary>
+    /// A cached factory with its leases. The mutable state is guarded by
+    /// the provider's lock.
+    /// </summary>
+    private sealed class Entry(string key,
+        Lazy<(IHost Host, PythiaFactory Factory)> build)
+    {
+        public string Key { get; } = key;
+        public Lazy<(IHost Host, PythiaFactory Factory)> Build { get; } = build;
+        public int LeaseCount { get; set; }
+        public bool IsEvicted { get; set; }
     }
 }
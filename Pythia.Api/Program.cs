@@ -29,9 +29,12 @@ using Microsoft.IdentityModel.Logging;
 using Microsoft.IdentityModel.Tokens;
 using System.Text;
 using Corpus.Core;
+using Corpus.Core.Reading;
 using Corpus.Sql;
 using Fusi.Api.Auth.Services;
 using Pythia.Core;
+using Pythia.Core.Index;
+using Pythia.Core.Plugin.Analysis;
 using Pythia.Sql.PgSql;
 
 namespace Pythia.Api;
@@ -369,14 +372,84 @@ public static class Program
             });
             return repository;
         });
+        // the timeout of each asynchronous search (0 or missing=none)
+        TimeSpan searchTimeout = config.GetValue<TimeSpan?>("SearchTimeout")
+            ?? TimeSpan.Zero;
+        // whether queries are planned from the estimates of their pairs
+        bool queryPlanning = config.GetValue<bool>("QueryPlanning");
+        // the optional in-process positional index for searches
+        string? positionalPath = config.GetValue<string>("PositionalIndexPath");
+        PositionalIndex? positionalIndex =
+            string.IsNullOrEmpty(positionalPath) ||
+            !System.IO.File.Exists(positionalPath)
+                ? null
+                : new PositionalIndex(positionalPath);
+        if (positionalIndex != null) services.AddSingleton(positionalIndex);
+        // the postings evaluated from it, shared by all the repositories
+        PositionalPostingCache postingCache = new();
+        // the optional binary token cache for KWIC contexts, shared by all
+        // the repositories (each read maps its own view of the document)
+        string? kwicCachePath = config.GetValue<string>("KwicTokenCachePath");
+        FsBinaryTokenCache? kwicCache = null;
+        if (!string.IsNullOrEmpty(kwicCachePath) &&
+            System.IO.Directory.Exists(kwicCachePath))
+        {
+            kwicCache = new FsBinaryTokenCache();
+            kwicCache.Open(kwicCachePath);
+        }
         services.AddScoped<IIndexRepository>(_ =>
         {
-            PgSqlIndexRepository repository = new();
+            PgSqlIndexRepository repository = new()
+            {
+                SearchTimeout = searchTimeout,
+                IsQueryPlanningEnabled = queryPlanning,
+                KwicTokenCache = kwicCache
+            };
             repository.Configure(new SqlRepositoryOptions
             {
                 ConnectionString = cs
             });
-            return repository;
+            return positionalIndex != null
+                ? new PositionalIndexRepository(repository, positionalIndex)
+                {
+                    PostingCache = postingCache
+                }
+                : repository;
+        });
+
+        // the optional in-memory words and lemmata store
+        if (config.GetValue<bool>("WordStore:IsEnabled"))
+        {
+            WordFrequencyStore store = new(WordFrequencyStore.CreateComparer(
+                config["WordStore:Collation"]));
+            TimeSpan refreshInterval =
+                config.GetValue<TimeSpan?>("WordStore:RefreshInterval")
+                ?? TimeSpan.Zero;
+            services.AddSingleton(store);
+            services.AddHostedService(sp => new WordFrequencyStoreService(
+                store,
+                () =>
+                {
+                    PgSqlIndexRepository repository = new();
+                    repository.Configure(new SqlRepositoryOptions
+                    {
+                        ConnectionString = cs
+                    });
+                    return repository;
+                },
+                refreshInterval,
+                sp.GetRequiredService<ILogger<WordFrequencyStoreService>>()));
+        }
+
+        // the cache of document texts, maps and pieces for the reader
+        long readerCacheBudget = config.GetValue<long?>("ReaderCache:Budget")
+            ?? 256L * 1024 * 1024;
+        string? readerMapDir =
+            config.GetValue<string>("ReaderCache:MapDirectory");
+        services.AddSingleton(_ => new DocumentReadingCache(readerCacheBudget)
+        {
+            MapDirectory = string.IsNullOrEmpty(readerMapDir)
+                ? null : readerMapDir
         });
 
         // pythia factories
@@ -393,8 +466,28 @@ public static class Program
             return new StandardQueryPythiaFactoryProvider(profile, cs);
         });
 
+        // factories are cached by profile up to the specified count, and
+        // optionally built at startup for all the profiles in the database
+        int factoryCapacity =
+            config.GetValue<int?>("FactoryProvider:Capacity") ?? 32;
         services.AddSingleton<IPythiaFactoryProvider>(
-            _ => new StandardPythiaFactoryProvider(cs));
+            _ => new StandardPythiaFactoryProvider(cs, factoryCapacity));
+        if (config.GetValue<bool>("FactoryProvider:IsWarmUpEnabled"))
+        {
+            services.AddHostedService(sp => new PythiaFactoryWarmUpService(
+                sp.GetRequiredService<IPythiaFactoryProvider>(),
+                () =>
+                {
+                    PgSqlIndexRepository repository = new();
+                    repository.Configure(new SqlRepositoryOptions
+                    {
+                        ConnectionString = cs
+                    });
+                    return repository;
+                },
+                factoryCapacity,
+                sp.GetRequiredService<ILogger<PythiaFactoryWarmUpService>>()));
+        }
     }
     #endregion
 
@@ -0,0 +1,78 @@
+﻿using Corpus.Core;
+using Microsoft.Extensions.Hosting;
+using Microsoft.Extensions.Logging;
+using System;
+using System.Diagnostics;
+using System.Threading;
+using System.Threading.Tasks;
+
+namespace Pythia.Api.Services;
+
+/// <summary>
+/// Background service which builds at startup the Pythia factories for
+/// the profiles found in the database, so that the first requests using
+/// them do not pay the cost of building their host.
+/// </summary>
+/// <param name="provider">The factory provider to warm up.</param>
+/// <param name="getRepository">The function used to get the repository
+/// to read profiles from.</param>
+/// <param name="maxCount">The maximum count of factories to build. This
+/// should not exceed the provider's capacity.</param>
+/// <param name="logger">The logger.</param>
+/// <exception cref="ArgumentNullException">provider, getRepository or
+/// logger</exception>
+public sealed class PythiaFactoryWarmUpService(IPythiaFactoryProvider provider,
+    Func<ICorpusRepository> getRepository, int maxCount,
+    ILogger<PythiaFactoryWarmUpService> logger) : BackgroundService
+{
+    private readonly IPythiaFactoryProvider _provider = provider
+        ?? throw new ArgumentNullException(nameof(provider));
+    private readonly Func<ICorpusRepository> _getRepository = getRepository
+        ?? throw new ArgumentNullException(nameof(getRepository));
+    private readonly ILogger<PythiaFactoryWarmUpService> _logger = logger
+        ?? throw new ArgumentNullException(nameof(logger));
+
+    /// <summary>
+    /// Executes the service.
+    /// </summary>
+    /// <param name="stoppingToken">The stopping token.</param>
+    protected override async Task ExecuteAsync(CancellationToken stoppingToken)
+    {
+        // let the host complete its startup before building
+        await Task.Yield();
+
+        Stopwatch stopwatch = Stopwatch.StartNew();
+        int count = 0;
+        try
+        {
+            foreach (IProfile profile in _getRepository().GetProfiles(
+                new ProfileFilter { PageSize = 0 }).Items)
+            {
+                if (stoppingToken.IsCancellationRequested || count == maxCount)
+                    break;
+                if (string.IsNullOrEmpty(profile.Content)) continue;
+
+                try
+                {
+                    using PythiaFactoryLease lease =
+                        _provider.AcquireFactory(profile.Content);
+                    count++;
+                }
+                catch (Exception ex)
+                {
+                    // a broken profile fails only when requested
+                    _logger.LogWarning(ex,
+                        "Error building factory for profile {ProfileId}",
+                        profile.Id);
+                }
+            }
+        }
+        catch (Exception ex)
+        {
+            _logger.LogError(ex, "Error reading profiles for warm-up");
+        }
+
+        _logger.LogInformation("Built {Count} Pythia factories in {Elapsed}",
+            count, stopwatch.Elapsed);
+    }
+}
@@ -0,0 +1,79 @@
+﻿using Microsoft.Extensions.Hosting;
+using Microsoft.Extensions.Logging;
+using Pythia.Core;
+using System;
+using System.Diagnostics;
+using System.Threading;
+using System.Threading.Tasks;
+
+namespace Pythia.Api.Services;
+
+/// <summary>
+/// Background service which loads the in-memory
+/// <see cref="WordFrequencyStore"/> at startup, and then periodically
+/// checks the words index signature to reload it whenever the index is
+/// rebuilt or updated.
+/// </summary>
+/// <param name="store">The store to load.</param>
+/// <param name="getSource">The function used to get the source to load the
+/// store from.</param>
+/// <param name="refreshInterval">The interval between each check of the
+/// index signature; zero to load the store only once.</param>
+/// <param name="logger">The logger.</param>
+/// <exception cref="ArgumentNullException">store, getSource or logger
+/// </exception>
+public sealed class WordFrequencyStoreService(WordFrequencyStore store,
+    Func<IWordFrequencySource> getSource, TimeSpan refreshInterval,
+    ILogger<WordFrequencyStoreService> logger) : BackgroundService
+{
+    private readonly WordFrequencyStore _store = store
+        ?? throw new ArgumentNullException(nameof(store));
+    private readonly Func<IWordFrequencySource> _getSource = getSource
+        ?? throw new ArgumentNullException(nameof(getSource));
+    private readonly ILogger<WordFrequencyStoreService> _logger = logger
+        ?? throw new ArgumentNullException(nameof(logger));
+
+    private void Refresh()
+    {
+        Stopwatch stopwatch = Stopwatch.StartNew();
+        if (!_store.Refresh(_getSource())) return;
+
+        _logger.LogInformation("Word store loaded in {Elapsed}: " +
+            "{WordCount} words, {LemmaCount} lemmata, {Memory:N0} bytes",
+            stopwatch.Elapsed, _store.WordCount, _store.LemmaCount,
+            _store.EstimatedMemory);
+    }
+
+    /// <summary>
+    /// Executes the service.
+    /// </summary>
+    /// <param name="stoppingToken">The stopping token.</param>
+    protected override async Task ExecuteAsync(CancellationToken stoppingToken)
+    {
+        // let the host complete its startup before loading
+        await Task.Yield();
+
+        while (!stoppingToken.IsCancellationRequested)
+        {
+            try
+            {
+                Refresh();
+            }
+            catch (Exception ex)
+            {
+                // until loaded, controllers fall back to the database
+                _logger.LogError(ex, "Error loading word store");
+            }
+
+            if (refreshInterval <= TimeSpan.Zero) break;
+            try
+            {
+                await Task.Delay(refreshInterval, stoppingToken);
+            }
+            catch (OperationCanceledException)
+            {
+                break;
+            }
+        }
+    }
+}
@@ -0,0 +1,63 @@
+﻿using BenchmarkDotNet.Columns;
+using BenchmarkDotNet.Configs;
+using BenchmarkDotNet.Diagnosers;
+using BenchmarkDotNet.Exporters;
+using BenchmarkDotNet.Exporters.Csv;
+using BenchmarkDotNet.Exporters.Json;
+using System;
+using System.IO;
+using System.Reflection;
+
+namespace Pythia.Benchmarks;
+
+/// <summary>
+/// Configuration shared by all the Pythia benchmarks. Besides timings,
+/// this reports allocations, and exports results as JSON, CSV and
+/// markdown under <c>BenchmarkDotNet.Artifacts/{version}</c>, so that the
+/// baselines of different Pythia versions can be kept side by side and
+/// compared. The artifacts root can be overridden with the
+/// <c>PYTHIA_BENCH_ARTIFACTS</c> environment variable.
+/// </summary>
+public sealed class BenchmarkConfig : ManualConfig
+{
+    /// <summary>
+    /// The name of the environment variable with the artifacts root path.
+    /// </summary>
+    public const string ARTIFACTS_ENV = "PYTHIA_BENCH_ARTIFACTS";
+
+    /// <summary>
+    /// Initializes a new instance of the <see cref="BenchmarkConfig"/>
+    /// class.
+    /// </summary>
+    public BenchmarkConfig()
+    {
+        Add(DefaultConfig.Instance);
+
+        AddDiagnoser(MemoryDiagnoser.Default);
+        AddColumn(RankColumn.Arabic);
+        AddExporter(JsonExporter.Full);
+        AddExporter(CsvExporter.Default);
+        AddExporter(MarkdownExporter.GitHub);
+
+        string root = Environment.GetEnvironmentVariable(ARTIFACTS_ENV)
+            ?? "BenchmarkDotNet.Artifacts";
+        ArtifactsPath = Path.Combine(root, GetVersion());
+        WithOptions(ConfigOptions.JoinSummary);
+    }
+
+    private static string GetVersion()
+    {
+        Assembly asm = typeof(Core.TextSpan).Assembly;
+        string? version = asm
+            .GetCustomAttribute<AssemblyInformationalVersionAttribute>()
+            ?.InformationalVersion;
+
+        // drop source revision metadata (e.g. 12.0.3+a1b2c3d)
+        if (version != null)
+        {
+            int i = version.IndexOf('+');
+            if (i > -1) version = version[..i];
+        }
+        return version ?? asm.GetName().Version?.ToString() ?? "dev";
+    }
+}
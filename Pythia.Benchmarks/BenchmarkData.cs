@@ -0,0 +1,239 @@
+﻿using Pythia.Core;
+using System;
+using System.Collections.Generic;
+using System.Globalization;
+using System.Linq;
+using System.Text;
+
+namespace Pythia.Benchmarks;
+
+/// <summary>
+/// Deterministic synthetic data shared by benchmarks. A fixed seed is
+/// used so that runs against different versions measure the same input.
+/// </summary>
+internal static class BenchmarkData
+{
+    private const int SEED = 1963;
+
+    private static readonly string[] _words =
+    [
+        "Chommoda", "dicebat", "si", "quando", "commoda", "vellet",
+        "dicere", "et", "insidias", "Arrius", "hinsidias", "mirifice",
+        "sperabat", "se", "esse", "locutum", "cum", "quantum", "poterat",
+        "dixerat", "credo", "sic", "mater", "sic", "liber", "avunculus",
+        "eius", "sic", "maternus", "avus", "dixerat", "atque", "avia",
+        "l'amico", "dell'anno", "perché", "città", "virtù", "più",
+    ];
+
+    private static readonly string[] _puncts =
+    [
+        "", "", "", "", ",", ".", ";", ":", "!", "?", "»",
+    ];
+
+    /// <summary>
+    /// Builds a text of the specified count of words, with punctuation
+    /// and line breaks sparsely interleaved.
+    /// </summary>
+    /// <param name="wordCount">The word count.</param>
+    /// <returns>Text.</returns>
+    public static string BuildText(int wordCount)
+    {
+        Random random = new(SEED);
+        StringBuilder sb = new();
+
+        for (int i = 0; i < wordCount; i++)
+        {
+            if (i > 0) sb.Append(i % 12 == 0 ? '\n' : ' ');
+            sb.Append(_words[random.Next(_words.Length)]);
+            sb.Append(_puncts[random.Next(_puncts.Length)]);
+        }
+        return sb.ToString();
+    }
+
+    /// <summary>
+    /// Builds the specified count of token spans for a document.
+    /// </summary>
+    /// <param name="documentId">The document identifier.</param>
+    /// <param name="count">The tokens count.</param>
+    /// <returns>Spans.</returns>
+    public static IList<TextSpan> BuildTokens(int documentId, int count)
+    {
+        Random random = new(SEED);
+        List<TextSpan> tokens = new(count);
+        int index = 0;
+
+        for (int i = 0; i < count; i++)
+        {
+            string text = _words[random.Next(_words.Length)];
+            TextSpan token = new()
+            {
+                DocumentId = documentId,
+                P1 = i + 1,
+                P2 = i + 1,
+                Index = index,
+                Length = text.Length,
+                Text = text,
+                Value = text.ToLowerInvariant(),
+            };
+            token.AddAttribute(new Corpus.Core.Attribute
+            {
+                TargetId = token.P1,
+                Name = "len",
+                Value = text.Length.ToString(CultureInfo.InvariantCulture),
+                Type = Corpus.Core.AttributeType.Number
+            });
+            tokens.Add(token);
+            index += text.Length + 1;
+        }
+        return tokens;
+    }
+
+    /// <summary>
+    /// Gets the distinct words of the synthetic vocabulary.
+    /// </summary>
+    public static IReadOnlyList<string> Words => _words;
+
+    #region Corpus
+    private const int FORM_COUNT = 20000;
+
+    // geographic names, tagged with a gn attribute
+    private static readonly string[] _names =
+        ["Ionios", "Hionios", "Syriam", "Troiae", "Italiam", "Romae"];
+
+    private static readonly string[] _endings =
+        ["a", "ae", "am", "arum", "is", "o", "orum", "os", "um", "us"];
+
+    private static readonly string[] _poses =
+        ["NOUN", "VERB", "ADJ", "ADV", "PRON", "ADP", "CCONJ", "PROPN"];
+
+    private static readonly Lazy<string[]> _vocabulary = new(BuildVocabulary);
+
+    /// <summary>
+    /// Builds the corpus vocabulary, ordered by rank: the words of the
+    /// sample texts and geographic names first, then synthetic forms.
+    /// </summary>
+    private static string[] BuildVocabulary()
+    {
+        Random random = new(SEED);
+        const string letters = "abcdefghilmnopqrstuv";
+        HashSet<string> vocabulary = [];
+        List<string> forms = [.. _words.Concat(_names)
+            .Where(vocabulary.Add)];
+
+        while (forms.Count < FORM_COUNT)
+        {
+            char[] stem = new char[3 + random.Next(6)];
+            for (int j = 0; j < stem.Length; j++)
+                stem[j] = letters[random.Next(letters.Length)];
+            string form = new string(stem) +
+                _endings[random.Next(_endings.Length)];
+            if (vocabulary.Add(form)) forms.Add(form);
+        }
+        return [.. forms];
+    }
+
+    private static string GetLemma(string form)
+    {
+        string value = form.ToLowerInvariant();
+        string? ending = _endings.FirstOrDefault(e => value.Length > e.Length + 2
+            && value.EndsWith(e, StringComparison.Ordinal));
+        return ending == null ? value : value[..^ending.Length] + "us";
+    }
+
+    /// <summary>
+    /// Builds the spans of a corpus document: tokens, whose forms follow
+    /// a Zipf-like distribution over a vocabulary of 20,000 forms, and the
+    /// structures used by the benchmark queries: sentences (<c>snt</c>),
+    /// lines (<c>l</c>) and groups of lines (<c>lg</c>).
+    /// </summary>
+    /// <param name="documentId">The document identifier.</param>
+    /// <param name="count">The tokens count.</param>
+    /// <param name="random">The random numbers generator.</param>
+    /// <returns>Spans.</returns>
+    public static IList<TextSpan> BuildCorpusSpans(int documentId, int count,
+        Random random)
+    {
+        string[] vocabulary = _vocabulary.Value;
+        List<TextSpan> spans = new(count + count / 4);
+        List<TextSpan> lines = [];
+        int index = 0;
+
+        for (int i = 0; i < count; i++)
+        {
+            // the rank is log-uniform, i.e. its frequency is about 1/rank
+            int rank = (int)Math.Pow(vocabulary.Length, random.NextDouble())
+                - 1;
+            string text = vocabulary[rank];
+            TextSpan token = new()
+            {
+                DocumentId = documentId,
+                P1 = i + 1,
+                P2 = i + 1,
+                Index = index,
+                Length = text.Length,
+                Language = "lat",
+                Pos = _poses[rank % _poses.Length],
+                Lemma = GetLemma(text),
+                Value = text.ToLowerInvariant(),
+                Text = text
+            };
+            token.AddAttribute(new Corpus.Core.Attribute
+            {
+                TargetId = token.P1,
+                Name = "len",
+                Value = text.Length.ToString(CultureInfo.InvariantCulture),
+                Type = Corpus.Core.AttributeType.Number
+            });
+            if (Array.IndexOf(_names, text) > -1)
+            {
+                token.AddAttribute(new Corpus.Core.Attribute
+                {
+                    TargetId = token.P1,
+                    Name = "gn",
+                    Value = token.Value
+                });
+            }
+            spans.Add(token);
+            index += text.Length + 1;
+        }
+
+        // structures: the first spans are the tokens, at P1-1
+        for (int p1 = 1; p1 <= count;)
+        {
+            int p2 = Math.Min(count, p1 + 7 + random.Next(24));
+            AddStructure(spans, "snt", p1, p2);
+            p1 = p2 + 1;
+        }
+        for (int p1 = 1; p1 <= count;)
+        {
+            int p2 = Math.Min(count, p1 + 5 + random.Next(4));
+            lines.Add(AddStructure(spans, "l", p1, p2));
+            p1 = p2 + 1;
+        }
+        for (int i = 0; i < lines.Count; i += 4)
+        {
+            AddStructure(spans, "lg", lines[i].P1,
+                lines[Math.Min(lines.Count - 1, i + 3)].P2);
+        }
+
+        return spans;
+    }
+
+    private static TextSpan AddStructure(List<TextSpan> spans, string type,
+        int p1, int p2)
+    {
+        TextSpan first = spans[p1 - 1], last = spans[p2 - 1];
+        TextSpan structure = new()
+        {
+            DocumentId = first.DocumentId,
+            Type = type,
+            P1 = p1,
+            P2 = p2,
+            Index = first.Index,
+            Length = last.Index + last.Length - first.Index
+        };
+        spans.Add(structure);
+        return structure;
+    }
+    #endregion
+}
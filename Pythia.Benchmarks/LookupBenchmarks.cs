@@ -0,0 +1,122 @@
+﻿using BenchmarkDotNet.Attributes;
+using Fusi.Tools.Data;
+using Pythia.Tagger.LiteDB;
+using Pythia.Tagger.Lookup;
+using System;
+using System.Collections.Generic;
+using System.IO;
+using System.Linq;
+
+namespace Pythia.Benchmarks;
+
+/// <summary>
+/// Lookup index benchmarks: exact, prefix, suffix and fuzzy lookups
+/// against the RAM and LiteDB implementations, seeded with the same
+/// synthetic forms. The LiteDB lookup cache is disabled, so that the
+/// storage itself is measured.
+/// </summary>
+public class LookupBenchmarks
+{
+    private const int ENTRY_COUNT = 50000;
+    private const int PROBE_COUNT = 100;
+
+    private static readonly string[] _endings =
+        ["a", "ae", "am", "arum", "is", "o", "orum", "os", "um", "us"];
+
+    private readonly List<string> _probes = [];
+    private string _dbPath = "";
+    private RamLookupIndex _ram = null!;
+    private LiteDBLookupIndex _lite = null!;
+
+    [Params("ram", "litedb")]
+    public string Index { get; set; } = "ram";
+
+    private ILookupIndex Target => Index == "ram" ? _ram : _lite;
+
+    private static List<LookupEntry> BuildEntries()
+    {
+        Random random = new(1963);
+        List<LookupEntry> entries = new(ENTRY_COUNT);
+        const string letters = "abcdefghilmnopqrstuv";
+
+        for (int i = 0; i < ENTRY_COUNT; i++)
+        {
+            char[] stem = new char[3 + random.Next(6)];
+            for (int j = 0; j < stem.Length; j++)
+                stem[j] = letters[random.Next(letters.Length)];
+            string lemma = new(stem);
+            string value = lemma + _endings[i % _endings.Length];
+
+            entries.Add(new LookupEntry
+            {
+                Id = i + 1,
+                Text = value,
+                Value = value,
+                Lemma = lemma + "us",
+                Pos = i % 3 == 0 ? "VERB" : "NOUN"
+            });
+        }
+        return entries;
+    }
+
+    [GlobalSetup]
+    public void Setup()
+    {
+        List<LookupEntry> entries = BuildEntries();
+
+        _probes.Clear();
+        for (int i = 0; i < PROBE_COUNT; i++)
+            _probes.Add(entries[i * (ENTRY_COUNT / PROBE_COUNT)].Value!);
+
+        _ram = new RamLookupIndex(entries);
+
+        _dbPath = Path.Combine(Path.GetTempPath(), "pythia-bench-lookup.db");
+        if (File.Exists(_dbPath)) File.Delete(_dbPath);
+        using (LiteDBLookupIndex writer = new(_dbPath))
+        {
+            writer.AddBatch(entries);
+        }
+        _lite = new LiteDBLookupIndex(_dbPath, true)
+        {
+            CacheSize = 0
+        };
+    }
+
+    [GlobalCleanup]
+    public void Cleanup()
+    {
+        _lite?.Dispose();
+        if (File.Exists(_dbPath)) File.Delete(_dbPath);
+    }
+
+    private int Find(LookupEntryComparison comparison,
+        Func<string, string> valueSelector)
+    {
+        int count = 0;
+        foreach (string probe in _probes)
+        {
+            DataPage<LookupEntry> page = Target.Find(new LookupFilter
+            {
+                PageSize = 0,
+                Value = valueSelector(probe),
+                Comparison = comparison
+            });
+            count += page.Total;
+        }
+        return count;
+    }
+
+    [Benchmark]
+    public int Lookup() => _probes.Sum(p => Target.Lookup(p).Count);
+
+    [Benchmark]
+    public int FindPrefix() =>
+        Find(LookupEntryComparison.Prefix, p => p[..3]);
+
+    [Benchmark]
+    public int FindSuffix() =>
+        Find(LookupEntryComparison.Suffix, p => p[^3..]);
+
+    [Benchmark]
+    public int FindFuzzy() => Find(LookupEntryComparison.Fuzzy, p => p);
+}
@@ -0,0 +1,17 @@
+﻿using BenchmarkDotNet.Running;
+
+namespace Pythia.Benchmarks;
+
+/// <summary>
+/// Benchmarks entry point. Run with <c>-c Release</c>, e.g.
+/// <c>dotnet run -c Release -- --filter *QueryBuilder*</c>; with no filter
+/// an interactive selection menu is shown.
+/// </summary>
+public static class Program
+{
+    public static void Main(string[] args)
+    {
+        BenchmarkSwitcher.FromAssembly(typeof(Program).Assembly)
+            .Run(args, new BenchmarkConfig());
+    }
+}
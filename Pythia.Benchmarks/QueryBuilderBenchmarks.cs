@@ -0,0 +1,56 @@
+﻿using BenchmarkDotNet.Attributes;
+using Pythia.Core;
+using Pythia.Sql;
+using Pythia.Sql.PgSql;
+using System;
+using System.Collections.Generic;
+
+namespace Pythia.Benchmarks;
+
+/// <summary>
+/// Query compilation benchmarks: pythia query to SQL.
+/// </summary>
+public class QueryBuilderBenchmarks
+{
+    private SqlQueryBuilder _builder = null!;
+
+    /// <summary>
+    /// Gets a corpus of representative pythia queries, covering
+    /// literals, operators, document and structure filters, logical
+    /// combinations and locations.
+    /// </summary>
+    public static IEnumerable<string> Queries =>
+    [
+        "[value=\"chommoda\"]",
+        "[lemma_id=\"5\"]",
+        "[value*=\"homm\"]",
+        "[value$=\"ter\"]",
+        "[value%=\"chommoda:0.5\"]",
+        "@[author=\"Catullus\"]; [value=\"chommoda\"]",
+        "[$name=\"lg\"]",
+        "[value=\"chommoda\"] OR [value=\"commoda\"]",
+        "[value=\"ionios\"] AND NOT [gn]",
+        "[value=\"sic\"] NEAR(m=0,s=l) [value=\"mater\"]",
+        "[value$=\"ter\"] INSIDE() [$l]",
+        "[gn] OVERLAPS(n=1) [$l]",
+        "[$name=\"l\"] LALIGN(m=0) [$name=\"snt\"]",
+        "[value=\"sic\"] BEFORE(m=0) " +
+            "([value=\"mater\"] OR [value=\"liber\"])",
+    ];
+
+    [GlobalSetup]
+    public void Setup()
+    {
+        _builder = new SqlQueryBuilder(new PgSqlHelper());
+    }
+
+    [Benchmark]
+    [ArgumentsSource(nameof(Queries))]
+    public Tuple<string, string> Build(string query)
+    {
+        return _builder.Build(new SearchRequest
+        {
+            Query = query
+        });
+    }
+}
@@ -0,0 +1,170 @@
+﻿using BenchmarkDotNet.Attributes;
+using Corpus.Core;
+using Corpus.Sql;
+using Fusi.DbManager.PgSql;
+using Pythia.Core;
+using Pythia.Sql;
+using Pythia.Sql.PgSql;
+using System;
+using System.Collections.Generic;
+using System.Threading;
+using System.Threading.Tasks;
+using Testcontainers.PostgreSql;
+
+namespace Pythia.Benchmarks;
+
+/// <summary>
+/// End-to-end search benchmarks against PostgreSQL. By default, the
+/// server is a reusable PostgreSQL container started with Testcontainers,
+/// so that Docker is required; to use another server, set the
+/// <c>PYTHIA_BENCH_CST</c> environment variable to a connection string
+/// template, with <c>{0}</c> as the database name placeholder. The
+/// benchmark database is created and seeded with a synthetic corpus of
+/// 1,000,000 tokens when missing or incompletely seeded.
+/// </summary>
+public class SearchBenchmarks
+{
+    /// <summary>
+    /// The name of the environment variable with the connection string
+    /// template.
+    /// </summary>
+    public const string CST_ENV = "PYTHIA_BENCH_CST";
+
+    private const string DB_NAME = "pythia-bench-corpus";
+    private const string PROFILE_ID = "bench";
+    // the profile added as the last seeding step
+    private const string SEEDED_PROFILE_ID = "bench-seeded";
+    private const int DOCUMENT_COUNT = 200;
+    private const int TOKEN_COUNT = 5000;
+
+    private static readonly string[] _authors =
+        ["Catullus", "Horatius", "Vergilius", "Ovidius", "Cicero", "Livius"];
+
+    private PgSqlIndexRepository _repository = null!;
+
+    /// <summary>
+    /// Gets or sets a value indicating whether the compiled queries and
+    /// the totals are cached. When false, each search compiles its query
+    /// and runs its count query.
+    /// </summary>
+    [Params(false, true)]
+    public bool IsCached { get; set; }
+
+    /// <summary>
+    /// Gets the queries to search for.
+    /// </summary>
+    public static IEnumerable<string> Queries =>
+        QueryBuilderBenchmarks.Queries;
+
+    private static async Task<string> GetConnectionStringTemplateAsync()
+    {
+        string? cst = Environment.GetEnvironmentVariable(CST_ENV);
+        if (cst != null) return cst;
+
+        // the container is reused by the processes of all the benchmarks,
+        // and kept after them: remove it to reseed from scratch
+        PostgreSqlContainer container = new PostgreSqlBuilder()
+            .WithImage("postgres:17")
+            .WithUsername("postgres")
+            .WithPassword("postgres")
+            .WithLabel("pythia-bench", DB_NAME)
+            .WithReuse(true)
+            .Build();
+        await container.StartAsync();
+
+        return "User ID=postgres;Password=postgres;" +
+            $"Host={container.Hostname};" +
+            $"Port={container.GetMappedPublicPort(5432)};Database={{0}}";
+    }
+
+    private static async Task SeedAsync(PgSqlDbManager manager,
+        PgSqlIndexRepository repository)
+    {
+        if (manager.Exists(DB_NAME))
+        {
+            if (repository.GetProfile(SEEDED_PROFILE_ID, true) != null) return;
+            manager.ClearDatabase(DB_NAME);
+        }
+        else
+        {
+            manager.CreateDatabase(DB_NAME,
+                new PgSqlIndexRepository().GetSchema(), null);
+        }
+
+        repository.AddProfile(new Profile { Id = PROFILE_ID, Content = "{}" });
+
+        Random random = new(1963);
+        for (int i = 0; i < DOCUMENT_COUNT; i++)
+        {
+            Document document = new()
+            {
+                Author = _authors[i % _authors.Length],
+                Title = $"opus {i + 1}",
+                Source = $"opus-{i + 1}.xml",
+                ProfileId = PROFILE_ID,
+                SortKey = $"opus-{i + 1:00000}",
+                DateValue = -100 + random.Next(500),
+                LastModified = DateTime.UtcNow,
+                Attributes =
+                [
+                    new Corpus.Core.Attribute
+                    {
+                        Name = "category",
+                        Value = i % 3 == 0 ? "prose" : "poetry"
+                    }
+                ]
+            };
+            repository.AddDocument(document, false, true);
+            repository.AddSpans(BenchmarkData.BuildCorpusSpans(document.Id,
+                TOKEN_COUNT, random));
+        }
+
+        await repository.BuildWordIndexAsync("lat",
+            new Dictionary<string, int> { ["date_value"] = 3 },
+            [], [], [], CancellationToken.None);
+        manager.ExecuteCommands(DB_NAME, "ANALYZE;");
+
+        repository.AddProfile(new Profile
+        {
+            Id = SEEDED_PROFILE_ID,
+            Content = "{}"
+        });
+    }
+
+    [GlobalSetup]
+    public async Task SetupAsync()
+    {
+        string cst = await GetConnectionStringTemplateAsync();
+
+        // the process-wide caches are never used, so that runs do not
+        // depend on the searches executed before them
+        _repository = new PgSqlIndexRepository
+        {
+            IsBulkImportEnabled = true,
+            QueryCache = null,
+            CountCache = null
+        };
+        _repository.Configure(new SqlRepositoryOptions
+        {
+            ConnectionString = string.Format(cst, DB_NAME)
+        });
+
+        await SeedAsync(new PgSqlDbManager(cst), _repository);
+
+        if (IsCached)
+        {
+            _repository.QueryCache = new SqlQueryCache();
+            _repository.CountCache = new SearchCountCache();
+        }
+    }
+
+    [Benchmark]
+    [ArgumentsSource(nameof(Queries))]
+    public int Search(string query)
+    {
+        return _repository.Search(new SearchRequest
+        {
+            Query = query
+        }).Total;
+    }
+}
@@ -0,0 +1,48 @@
+﻿using BenchmarkDotNet.Attributes;
+using Pythia.Tagger;
+using System.Collections.Generic;
+
+namespace Pythia.Benchmarks;
+
+/// <summary>
+/// String similarity benchmarks: scoring and thresholded matching of
+/// every pair of words in the synthetic vocabulary.
+/// </summary>
+public class SimilarityBenchmarks
+{
+    private readonly DamerauLevenshteinSimilarityScorer _scorer = new();
+    private IReadOnlyList<string> _words = [];
+
+    [GlobalSetup]
+    public void Setup()
+    {
+        _words = BenchmarkData.Words;
+    }
+
+    [Benchmark]
+    public double Score()
+    {
+        double total = 0;
+        foreach (string a in _words)
+        {
+            foreach (string b in _words) total += _scorer.Score(a, b);
+        }
+        return total;
+    }
+
+    [Benchmark]
+    [Arguments(0.5)]
+    [Arguments(0.8)]
+    public int IsWithin(double threshold)
+    {
+        int count = 0;
+        foreach (string a in _words)
+        {
+            foreach (string b in _words)
+            {
+                if (_scorer.IsWithin(a, b, threshold)) count++;
+            }
+        }
+        return count;
+    }
+}
@@ -0,0 +1,96 @@
+﻿using BenchmarkDotNet.Attributes;
+using Pythia.Core;
+using Pythia.Core.Plugin.Analysis;
+using System.Collections.Generic;
+using System.IO;
+
+namespace Pythia.Benchmarks;
+
+/// <summary>
+/// File system forward token cache benchmarks: writing the tokens of
+/// a set of documents, and reading them back either by enumeration or by
+/// sequential position.
+/// </summary>
+public class TokenCacheBenchmarks
+{
+    private const int DOC_COUNT = 10;
+
+    private readonly List<IList<TextSpan>> _docs = [];
+    private string _writeDir = "";
+    private string _readDir = "";
+
+    [Params(1000, 10000)]
+    public int TokenCount { get; set; }
+
+    [GlobalSetup]
+    public void Setup()
+    {
+        string root = Path.Combine(Path.GetTempPath(), "pythia-bench-cache");
+        _writeDir = Path.Combine(root, "write");
+        _readDir = Path.Combine(root, "read");
+
+        _docs.Clear();
+        for (int id = 1; id <= DOC_COUNT; id++)
+            _docs.Add(BenchmarkData.BuildTokens(id, TokenCount));
+
+        FsForwardTokenCache cache = new();
+        cache.Delete(_readDir);
+        Write(cache, _readDir);
+    }
+
+    [GlobalCleanup]
+    public void Cleanup()
+    {
+        FsForwardTokenCache cache = new();
+        cache.Delete(_writeDir);
+        cache.Delete(_readDir);
+    }
+
+    [IterationSetup(Target = nameof(AddSpans))]
+    public void ClearWriteDir()
+    {
+        new FsForwardTokenCache().Delete(_writeDir);
+    }
+
+    private void Write(FsForwardTokenCache cache, string dir)
+    {
+        cache.Open(dir);
+        for (int i = 0; i < _docs.Count; i++)
+            cache.AddSpans(i + 1, _docs[i]);
+        cache.Close();
+    }
+
+    [Benchmark]
+    public void AddSpans() => Write(new FsForwardTokenCache(), _writeDir);
+
+    [Benchmark]
+    public int EnumerateSpans()
+    {
+        FsForwardTokenCache cache = new();
+        cache.Open(_readDir);
+        int count = 0;
+        for (int id = 1; id <= DOC_COUNT; id++)
+        {
+            foreach (TextSpan _ in cache.EnumerateSpans(id)) count++;
+        }
+        cache.Close();
+        return count;
+    }
+
+    [Benchmark]
+    public int GetSpan()
+    {
+        FsForwardTokenCache cache = new();
+        cache.Open(_readDir);
+        int count = 0;
+        for (int id = 1; id <= DOC_COUNT; id++)
+        {
+            for (int p = 1; p <= TokenCount; p++)
+            {
+                if (cache.GetSpan(id, p) != null) count++;
+            }
+        }
+        cache.Close();
+        return count;
+    }
+}
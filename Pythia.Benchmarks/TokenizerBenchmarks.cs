@@ -0,0 +1,62 @@
+﻿using BenchmarkDotNet.Attributes;
+using Pythia.Core.Analysis;
+using Pythia.Core.Plugin.Analysis;
+using System.IO;
+using System.Threading.Tasks;
+
+namespace Pythia.Benchmarks;
+
+/// <summary>
+/// Tokenization benchmarks: full tokenization of a synthetic document
+/// with each tokenizer, bare or with the standard filters chain.
+/// </summary>
+public class TokenizerBenchmarks
+{
+    private string _text = "";
+
+    [Params(1000, 10000)]
+    public int WordCount { get; set; }
+
+    [GlobalSetup]
+    public void Setup()
+    {
+        _text = BenchmarkData.BuildText(WordCount);
+    }
+
+    private static void AddFilters(ITokenizer tokenizer)
+    {
+        PunctuationTokenFilter punctuation = new();
+        punctuation.Configure(new PunctuationTokenFilterOptions());
+        LenSupplierTokenFilter len = new();
+        len.Configure(new LenSupplierTokenFilterOptions
+        {
+            LetterOnly = true
+        });
+
+        tokenizer.Filters.Add(punctuation);
+        tokenizer.Filters.Add(new ItalianTokenFilter());
+        tokenizer.Filters.Add(len);
+    }
+
+    private async Task<int> TokenizeAsync(ITokenizer tokenizer)
+    {
+        tokenizer.Start(new StringReader(_text), 1);
+        int count = 0;
+        while (await tokenizer.NextAsync()) count++;
+        return count;
+    }
+
+    [Benchmark(Baseline = true)]
+    public Task<int> Whitespace() => TokenizeAsync(new WhitespaceTokenizer());
+
+    [Benchmark]
+    public Task<int> Standard() => TokenizeAsync(new StandardTokenizer());
+
+    [Benchmark]
+    public Task<int> StandardFiltered()
+    {
+        StandardTokenizer tokenizer = new();
+        AddFilters(tokenizer);
+        return TokenizeAsync(tokenizer);
+    }
+}
@@ -0,0 +1,256 @@
+﻿using Pythia.Core.Plugin.Analysis;
+using System;
+using System.Collections.Generic;
+using System.IO;
+using System.Linq;
+using System.Threading;
+using System.Threading.Tasks;
+using Xunit;
+
+namespace Pythia.Core.Plugin.Test.Analysis;
+
+public sealed class FsBinaryTokenCacheTest : IDisposable
+{
+    private const string TEXT = "Hello, world! This is a test.";
+    private readonly string _dir;
+
+    public FsBinaryTokenCacheTest()
+    {
+        _dir = Path.Combine(
+            Environment.GetFolderPath(Environment.SpecialFolder.DesktopDirectory),
+            "~FsBinaryTokenCacheTest");
+    }
+
+    private void EnsureDirNotExists()
+    {
+        if (Directory.Exists(_dir)) Directory.Delete(_dir, true);
+    }
+
+    private static async Task<List<TextSpan>> GetTokensAsync(int documentId)
+    {
+        StandardTokenizer tokenizer = new();
+        tokenizer.Start(new StringReader(TEXT), 1);
+        List<TextSpan> tokens = [];
+        while (await tokenizer.NextAsync())
+        {
+            tokenizer.CurrentToken.DocumentId = documentId;
+            tokens.Add(tokenizer.CurrentToken.Clone());
+        }
+        return tokens;
+    }
+
+    [Fact]
+    public async Task AddTokens_6_Ok()
+    {
+        FsBinaryTokenCache cache = new();
+        cache.Open(_dir);
+
+        cache.AddSpans(1, await GetTokensAsync(1), TEXT);
+        cache.Close();
+
+        Assert.True(File.Exists(Path.Combine(_dir, "00001.tkc")));
+    }
+
+    [Fact]
+    public async Task GetToken_Random_Ok()
+    {
+        FsBinaryTokenCache cache = new();
+        cache.Open(_dir);
+        cache.AddSpans(1, await GetTokensAsync(1), TEXT);
+        cache.Close();
+
+        cache.Open(_dir);
+        string[] expected =
+        [
+            "Hello,", "world!", "This", "is", "a", "test."
+        ];
+        // backwards, which would fail with a forward-only cache
+        for (int i = 5; i >= 0; i--)
+        {
+            TextSpan? token = cache.GetSpan(1, 1 + i);
+            Assert.NotNull(token);
+            Assert.Equal(1 + i, token.P1);
+            Assert.Equal(expected[i], token.Value);
+            Assert.Equal(expected[i],
+                token.Attributes!.First(a => a.Name == "text").Value);
+        }
+        Assert.Null(cache.GetSpan(1, 7));
+        Assert.Null(cache.GetSpan(2, 1));
+        cache.Close();
+    }
+
+    [Fact]
+    public async Task GetSpans_Range_Ok()
+    {
+        FsBinaryTokenCache cache = new();
+        cache.Open(_dir);
+        cache.AddSpans(1, await GetTokensAsync(1), TEXT);
+        cache.Close();
+
+        cache.Open(_dir);
+        IList<TextSpan> spans = cache.GetSpans(1, 5, 9);
+        Assert.Equal(new[] { "a", "test." }, spans.Select(s => s.Value));
+        Assert.Equal(new[] { 5, 6 }, spans.Select(s => s.P1));
+        Assert.Empty(cache.GetSpans(2, 1, 3));
+        cache.Close();
+    }
+
+    [Fact]
+    public async Task GetSpans_Concurrent_Ok()
+    {
+        FsBinaryTokenCache cache = new();
+        cache.Open(_dir);
+        cache.AddSpans(1, await GetTokensAsync(1), TEXT);
+        cache.AddSpans(2, await GetTokensAsync(2), TEXT);
+        cache.Close();
+
+        cache.Open(_dir);
+        string[] expected =
+        [
+            "Hello,", "world!", "This", "is", "a", "test."
+        ];
+        Parallel.For(0, 200, i =>
+        {
+            IList<TextSpan> spans = cache.GetSpans(1 + (i % 2), 1, 6);
+            Assert.Equal(expected, spans.Select(s => s.Value));
+        });
+        cache.Close();
+    }
+
+    [Fact]
+    public async Task GetToken_AllowedAttributes_Ok()
+    {
+        FsBinaryTokenCache cache = new();
+        cache.AllowedAttributes.Add("pos");
+        cache.Open(_dir);
+        List<TextSpan> tokens = await GetTokensAsync(1);
+        tokens[1].AddAttribute(new Corpus.Core.Attribute
+        {
+            Name = "pos",
+            Value = "NOUN"
+        });
+        tokens[1].AddAttribute(new Corpus.Core.Attribute
+        {
+            Name = "lemma",
+            Value = "world"
+        });
+        cache.AddSpans(1, tokens);
+
+        // read before closing: pending tokens are written first
+        TextSpan? token = cache.GetSpan(1, 2);
+        Assert.NotNull(token);
+        Assert.Single(token.Attributes!);
+        Assert.Equal("pos", token.Attributes![0].Name);
+        Assert.Equal("NOUN", token.Attributes[0].Value);
+        cache.Close();
+    }
+
+    [Fact]
+    public async Task AddTokens_Append_Ok()
+    {
+        FsBinaryTokenCache cache = new();
+        cache.Open(_dir);
+        List<TextSpan> tokens = await GetTokensAsync(1);
+        cache.AddSpans(1, tokens.Take(3).ToList());
+        cache.AddSpans(2, await GetTokensAsync(2));
+        cache.Close();
+
+        cache.Open(_dir);
+        cache.AddSpans(1, tokens.Skip(3).ToList());
+        Assert.Equal(new[] { 1, 2 }, cache.GetDocumentIds());
+        for (int i = 1; i <= 6; i++)
+        {
+            Assert.Equal(tokens[i - 1].Value, cache.GetSpan(1, i)?.Value);
+            Assert.Equal(tokens[i - 1].Value, cache.GetSpan(2, i)?.Value);
+        }
+        cache.Close();
+    }
+
+    [Fact]
+    public async Task DeleteDocument_Ok()
+    {
+        FsBinaryTokenCache cache = new();
+        cache.Open(_dir);
+        cache.AddSpans(1, await GetTokensAsync(1));
+        Assert.NotNull(cache.GetSpan(1, 1));
+
+        cache.DeleteDocument(1);
+
+        Assert.Null(cache.GetSpan(1, 1));
+        Assert.False(File.Exists(Path.Combine(_dir, "00001.tkc")));
+        cache.Close();
+    }
+
+    [Fact]
+    public void GetToken_UnsortedDuplicates_FirstAddedWins()
+    {
+        FsBinaryTokenCache cache = new();
+        cache.Open(_dir);
+        // many tokens, so that an unstable sort would swap duplicates
+        List<TextSpan> tokens = [];
+        for (int i = 40; i > 0; i--)
+        {
+            TextSpan a = new() { DocumentId = 1, Value = $"a{i}" };
+            a.SetPositions(i);
+            TextSpan b = new() { DocumentId = 1, Value = $"b{i}" };
+            b.SetPositions(i);
+            tokens.Add(a);
+            tokens.Add(b);
+        }
+        cache.AddSpans(1, tokens);
+        cache.Close();
+
+        cache.Open(_dir);
+        for (int i = 1; i <= 40; i++)
+            Assert.Equal($"a{i}", cache.GetSpan(1, i)?.Value);
+        cache.Close();
+    }
+
+    [Fact]
+    public void GetToken_NonAscii_Decoded()
+    {
+        FsBinaryTokenCache cache = new();
+        cache.Open(_dir);
+        TextSpan token = new() { DocumentId = 1, Value = "città" };
+        token.SetPositions(1);
+        token.AddAttribute(new Corpus.Core.Attribute
+        {
+            Name = "lemma",
+            Value = "ἄνθρωπος"
+        });
+        cache.AddSpans(1, [token]);
+        cache.Close();
+
+        cache.Open(_dir);
+        TextSpan? read = cache.GetSpan(1, 1);
+        Assert.NotNull(read);
+        Assert.Equal("città", read.Value);
+        Assert.Equal("ἄνθρωπος",
+            read.Attributes!.First(a => a.Name == "lemma").Value);
+        cache.Close();
+    }
+
+    #region IDisposable Support
+    private bool _disposed;
+
+    private void Dispose(bool disposing)
+    {
+        if (!_disposed)
+        {
+            if (disposing)
+            {
+                Thread.Sleep(1000);
+                EnsureDirNotExists();
+            }
+
+            _disposed = true;
+        }
+    }
+
+    public void Dispose()
+    {
+        // Do not change this code. Put cleanup code in Dispose(bool disposing) above.
+        Dispose(true);
+    }
+    #endregion
+}
@@ -88,4 +88,30 @@ public sealed class XmlLocalTagListTextFilterTest
         Assert.Equal(7, entries[0].Range.Start);
         Assert.Equal(17, entries[0].Range.Length);
     }
+
+    [Fact]
+    public void Apply_Buffer_Ok()
+    {
+        char[] text = "<p>Hello, <hi rend=\"b\">my</hi><lb/> world</p>"
+            .ToCharArray();
+
+        DataDictionary context = new();
+        XmlLocalTagListTextFilter filter = new();
+        filter.Configure(new XmlLocalTagListTextFilterOptions
+        {
+            Names = new HashSet<string> { "hi", "lb" }
+        });
+
+        Assert.True(filter.Apply(text, context));
+
+        IList<XmlTagListEntry> entries = (IList<XmlTagListEntry>)
+            context.Data[XmlLocalTagListTextFilter.XML_LOCAL_TAG_LIST_KEY];
+        Assert.Equal(2, entries.Count);
+        Assert.Equal("hi", entries[0].Name);
+        Assert.Equal(10, entries[0].Range.Start);
+        Assert.Equal(20, entries[0].Range.Length);
+        Assert.Equal("lb", entries[1].Name);
+        Assert.Equal(30, entries[1].Range.Start);
+        Assert.Equal(5, entries[1].Range.Length);
+    }
 }
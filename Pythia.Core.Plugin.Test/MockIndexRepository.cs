@@ -173,12 +173,48 @@ public sealed class MockIndexRepository : RamCorpusRepository,
         return Tuple.Create(startToken.P1, endToken.P1);
     }
 
-    public DataPage<SearchResult> Search(SearchRequest request,
+    public SearchDataPage<SearchResult> Search(SearchRequest request,
         IList<ILiteralFilter>? literalFilters = null)
     {
         throw new NotImplementedException();
     }
 
+    public Task<SearchDataPage<SearchResult>> SearchAsync(
+        SearchRequest request,
+        IList<ILiteralFilter>? literalFilters = null,
+        CancellationToken cancel = default)
+    {
+        throw new NotImplementedException();
+    }
+
+    public int GetSearchCount(SearchRequest request,
+        IList<ILiteralFilter>? literalFilters = null)
+    {
+        throw new NotImplementedException();
+    }
+
+    public Task<int> GetSearchCountAsync(SearchRequest request,
+        IList<ILiteralFilter>? literalFilters = null,
+        CancellationToken cancel = default)
+    {
+        throw new NotImplementedException();
+    }
+
+    public KeysetPage<SearchResult> SearchAfter(SearchRequest request,
+        string? continuationToken,
+        IList<ILiteralFilter>? literalFilters = null)
+    {
+        throw new NotImplementedException();
+    }
+
+    public Task<KeysetPage<SearchResult>> SearchAfterAsync(
+        SearchRequest request, string? continuationToken,
+        IList<ILiteralFilter>? literalFilters = null,
+        CancellationToken cancel = default)
+    {
+        throw new NotImplementedException();
+    }
+
     /// <summary>
     /// Gets the context for the specified result(s).
     /// </summary>
@@ -187,12 +223,26 @@ public sealed class MockIndexRepository : RamCorpusRepository,
     /// 5 tokens to the left and 5 to the right.</param>
     /// <returns>results with context</returns>
     /// <exception cref="NotImplementedException">not implemented</exception>
+    public IAsyncEnumerable<SearchResult> StreamSearchAsync(
+        SearchRequest request, IList<ILiteralFilter>? literalFilters = null,
+        CancellationToken cancel = default)
+    {
+        throw new NotImplementedException();
+    }
+
     public IList<KwicSearchResult> GetResultContext(
         IList<SearchResult> results, int contextSize)
     {
         throw new NotImplementedException();
     }
 
+    public Task<IList<KwicSearchResult>> GetResultContextAsync(
+        IList<SearchResult> results, int contextSize,
+        CancellationToken cancel = default)
+    {
+        throw new NotImplementedException();
+    }
+
     /// <summary>
     /// Gets the specified page of words.
     /// </summary>
@@ -204,11 +254,23 @@ public sealed class MockIndexRepository : RamCorpusRepository,
         throw new NotImplementedException();
     }
 
+    public Task<DataPage<Word>> GetWordsAsync(WordFilter filter,
+        CancellationToken cancel = default)
+    {
+        throw new NotImplementedException();
+    }
+
     public DataPage<Lemma> GetLemmata(LemmaFilter filter)
     {
         throw new NotImplementedException();
     }
 
+    public Task<DataPage<Lemma>> GetLemmataAsync(LemmaFilter filter,
+        CancellationToken cancel = default)
+    {
+        throw new NotImplementedException();
+    }
+
     public IList<TokenCount> GetTokenCounts(bool lemma, int id,
         string attrName)
     {
@@ -225,6 +287,12 @@ public sealed class MockIndexRepository : RamCorpusRepository,
         throw new NotImplementedException();
     }
 
+    public Task<IDictionary<string, double>> GetStatisticsAsync(
+        CancellationToken cancel = default)
+    {
+        throw new NotImplementedException();
+    }
+
     /// <summary>
     /// Gets all the document name=value pairs to be used when filling
     /// word and lemma document counts.
@@ -240,10 +308,12 @@ public sealed class MockIndexRepository : RamCorpusRepository,
     /// attributes to be excluded from the pairs. All the names of
     /// non-categorical attributes (like e.g. the file path of a document,
     /// which is unique for each document) should be excluded.</param>
+    /// <param name="cancel">The cancellation token.</param>
     /// <returns>Built pairs.</returns>
     public Task<IList<DocumentPair>> GetDocumentPairsAsync(
         IDictionary<string, int> binCounts,
-        HashSet<string> excludedAttrNames)
+        HashSet<string> excludedAttrNames,
+        CancellationToken cancel = default)
     {
         throw new NotImplementedException();
     }
@@ -0,0 +1,615 @@
+﻿using Pythia.Core.Analysis;
+using System;
+using System.Buffers.Binary;
+using System.Collections.Generic;
+using System.Globalization;
+using System.IO;
+using System.IO.MemoryMappedFiles;
+using System.Linq;
+using System.Text;
+using System.Threading;
+
+namespace Pythia.Core.Plugin.Analysis;
+
+/// <summary>
+/// A file-system based, random-access tokens cache using a binary format.
+/// Each document is stored in a single file (<c>NNNNN.tkc</c>) with a
+/// fixed-size header, followed by fixed-width token records sorted by
+/// position, fixed-width attribute records, and a table of the strings
+/// (values and attribute names) they refer to. Files are memory-mapped
+/// when read, so that any token can be got in constant time by its
+/// position, in any order and without parsing: records and strings are
+/// decoded straight from the mapped memory, without copying it. This is a faster
+/// alternative to <see cref="FsForwardTokenCache"/> for deferred POS
+/// tagging, where the text format is not required.
+/// </summary>
+/// <remarks>Tokens added to a document are buffered in memory and written
+/// to its file when another document is written, when the document is
+/// read, or when the cache is closed. <see cref="GetSpans"/> maps its
+/// document on each call, so that it can be used by several threads at
+/// once; all the other members must be called by one thread at a time.
+/// </remarks>
+/// <seealso cref="ITokenCache" />
+public sealed class FsBinaryTokenCache : IConcurrentTokenCache
+{
+    // "PTKC" in little-endian order
+    private const int MAGIC = 0x434B5450;
+    private const int VERSION = 1;
+    private const int HEADER_SIZE = 32;
+    private const int TOKEN_SIZE = 24;
+    private const int ATTRIBUTE_SIZE = 12;
+
+    private string _rootDir;
+
+    private int _writeDocId;
+    private readonly List<CachedToken> _writeTokens;
+
+    // the document read by GetSpan and AddSpans
+    private DocumentReader? _reader;
+
+    /// <summary>
+    /// Gets the list of TextSpan attributes allowed to be stored in the cache.
+    /// When empty, any attribute is allowed; otherwise, only the attributes
+    /// included in this list are allowed.
+    /// </summary>
+    public HashSet<string> AllowedAttributes { get; }
+
+    /// <summary>
+    /// Initializes a new instance of the <see cref="FsBinaryTokenCache"/>
+    /// class.
+    /// </summary>
+    public FsBinaryTokenCache()
+    {
+        _rootDir = "";
+        AllowedAttributes = [];
+        _writeTokens = [];
+    }
+
+    /// <summary>
+    /// Opens or creates the cache at the specified source.
+    /// </summary>
+    /// <param name="source">The source directory.</param>
+    /// <exception cref="ArgumentNullException">source</exception>
+    public void Open(string source)
+    {
+        ArgumentNullException.ThrowIfNull(source);
+
+        Close();
+        if (!Directory.Exists(source)) Directory.CreateDirectory(source);
+        _rootDir = source;
+    }
+
+    private void CloseReadDocument()
+    {
+        _reader?.Dispose();
+        _reader = null;
+    }
+
+    private void CloseWriteDocument()
+    {
+        if (_writeDocId != 0) WriteDocument(_writeDocId, _writeTokens);
+        _writeTokens.Clear();
+        _writeDocId = 0;
+    }
+
+    /// <summary>
+    /// Closes this cache, flushing any pending tokens.
+    /// </summary>
+    public void Close()
+    {
+        CloseReadDocument();
+        CloseWriteDocument();
+
+        _rootDir = "";
+    }
+
+    /// <summary>
+    /// Deletes the cache at the specified source.
+    /// </summary>
+    /// <param name="source">The source.</param>
+    /// <exception cref="ArgumentNullException">source</exception>
+    public void Delete(string source)
+    {
+        ArgumentNullException.ThrowIfNull(source);
+        if (Directory.Exists(source)) Directory.Delete(source, true);
+    }
+
+    /// <summary>
+    /// Checks if the cache at the specified source exists.
+    /// </summary>
+    /// <param name="source">The source.</param>
+    /// <returns>True if exists.</returns>
+    /// <exception cref="ArgumentNullException">source</exception>
+    public bool Exists(string source)
+    {
+        ArgumentNullException.ThrowIfNull(source);
+        return Directory.Exists(source);
+    }
+
+    private string GetFilePath(int documentId) =>
+        Path.Combine(_rootDir ?? "", $"{documentId:00000}.tkc");
+
+    private static void TryDelete(string file)
+    {
+        Exception? error = null;
+        int ms = 500;
+        for (int i = 0; i < 3; i++)
+        {
+            try
+            {
+                File.Delete(file);
+                return;
+            }
+            catch (Exception ex)
+            {
+                error = ex;
+                Thread.Sleep(ms);
+                ms += 500;
+            }
+        }
+        if (error != null) throw error;
+    }
+
+    /// <summary>
+    /// Deletes the document with the specified ID from the cache.
+    /// May throw any <see cref="File.Delete"/> exception.
+    /// </summary>
+    /// <param name="id">The document identifier.</param>
+    public void DeleteDocument(int id)
+    {
+        if (_writeDocId == id)
+        {
+            _writeTokens.Clear();
+            _writeDocId = 0;
+        }
+        if (_reader?.DocumentId == id) CloseReadDocument();
+
+        string file = GetFilePath(id);
+        if (File.Exists(file)) TryDelete(file);
+    }
+
+    /// <summary>
+    /// Gets the IDs of all the documents in the cache, including the one
+    /// being written if any.
+    /// </summary>
+    /// <returns>Sorted document IDs.</returns>
+    public IList<int> GetDocumentIds()
+    {
+        SortedSet<int> ids = [];
+        foreach (string file in Directory.EnumerateFiles(_rootDir, "*.tkc"))
+        {
+            if (int.TryParse(Path.GetFileNameWithoutExtension(file),
+                NumberStyles.None, CultureInfo.InvariantCulture, out int id))
+            {
+                ids.Add(id);
+            }
+        }
+        if (_writeDocId != 0) ids.Add(_writeDocId);
+        return [.. ids];
+    }
+
+    #region Writing
+    private static int GetStringId(string? s, Dictionary<string, int> ids,
+        List<string> strings)
+    {
+        if (s == null) return -1;
+        if (!ids.TryGetValue(s, out int id))
+        {
+            id = strings.Count;
+            ids[s] = id;
+            strings.Add(s);
+        }
+        return id;
+    }
+
+    private void WriteDocument(int documentId, List<CachedToken> tokens)
+    {
+        // tokens are sorted by position (stable, to preserve duplicates)
+        List<CachedToken> sorted = [.. tokens.OrderBy(t => t.P1)];
+
+        // build the strings table
+        Dictionary<string, int> ids = [];
+        List<string> strings = [];
+        int attrCount = 0;
+        foreach (CachedToken token in sorted)
+        {
+            GetStringId(token.Value, ids, strings);
+            foreach (CachedAttribute attr in token.Attributes)
+            {
+                GetStringId(attr.Name, ids, strings);
+                GetStringId(attr.Value, ids, strings);
+                attrCount++;
+            }
+        }
+
+        using FileStream stream = new(GetFilePath(documentId),
+            FileMode.Create, FileAccess.Write, FileShare.None);
+        using BinaryWriter writer = new(stream, Encoding.UTF8);
+
+        // header
+        writer.Write(MAGIC);
+        writer.Write(VERSION);
+        writer.Write(sorted.Count);
+        writer.Write(attrCount);
+        writer.Write(strings.Count);
+        writer.Write(sorted.Count > 0 ? sorted[0].P1 : 0);
+        writer.Write(0L);
+
+        // tokens
+        int attrStart = 0;
+        foreach (CachedToken token in sorted)
+        {
+            writer.Write(token.P1);
+            writer.Write(token.Index);
+            writer.Write(token.Length);
+            writer.Write(GetStringId(token.Value, ids, strings));
+            writer.Write(attrStart);
+            writer.Write(token.Attributes.Length);
+            attrStart += token.Attributes.Length;
+        }
+
+        // attributes
+        foreach (CachedToken token in sorted)
+        {
+            foreach (CachedAttribute attr in token.Attributes)
+            {
+                writer.Write(GetStringId(attr.Name, ids, strings));
+                writer.Write(GetStringId(attr.Value, ids, strings));
+                writer.Write((int)attr.Type);
+            }
+        }
+
+        // strings: offsets (count + 1) relative to data, then UTF-8 data
+        byte[][] data = new byte[strings.Count][];
+        int offset = 0;
+        for (int i = 0; i < strings.Count; i++)
+        {
+            data[i] = Encoding.UTF8.GetBytes(strings[i]);
+            writer.Write(offset);
+            offset += data[i].Length;
+        }
+        writer.Write(offset);
+        foreach (byte[] bytes in data) writer.Write(bytes);
+    }
+
+    private CachedToken CreateCachedToken(TextSpan token, string? content)
+    {
+        List<CachedAttribute> attributes = [];
+        if (token.Attributes?.Count > 0)
+        {
+            foreach (Corpus.Core.Attribute attribute in token.Attributes)
+            {
+                if (AllowedAttributes.Count == 0
+                    || AllowedAttributes.Contains(attribute.Name!))
+                {
+                    attributes.Add(new CachedAttribute(attribute.Name!,
+                        attribute.Value, attribute.Type));
+                }
+            }
+        }
+        if (content != null)
+        {
+            attributes.Add(new CachedAttribute("text",
+                content.Substring(token.Index, token.Length),
+                Corpus.Core.AttributeType.Text));
+            attributes.Add(new CachedAttribute("text-pos",
+                token.P1.ToString(CultureInfo.InvariantCulture),
+                Corpus.Core.AttributeType.Number));
+        }
+        return new CachedToken(token.P1, token.Index, token.Length,
+            token.Value, [.. attributes]);
+    }
+
+    /// <summary>
+    /// Adds the specified tokens to the cache. The tokens must all
+    /// belong to the same document, and are appended to the existing
+    /// document if any.
+    /// </summary>
+    /// <param name="documentId">The document identifier.</param>
+    /// <param name="tokens">The tokens.</param>
+    /// <param name="content">The document's content. Pass this when
+    /// you want to add a TextSpan attribute named <c>text</c> with value
+    /// equal to the original TextSpan. This can be required in some scenarios,
+    /// e.g. for deferred POS tagging.</param>
+    /// <exception cref="ArgumentNullException">tokens</exception>
+    public void AddSpans(int documentId, IList<TextSpan> tokens,
+        string? content = null)
+    {
+        ArgumentNullException.ThrowIfNull(tokens);
+
+        if (_writeDocId != documentId)
+        {
+            CloseWriteDocument();
+            _writeDocId = documentId;
+
+            // append to the existing document if any
+            if (OpenReadDocument(documentId))
+            {
+                _writeTokens.AddRange(_reader!.ReadTokens());
+                CloseReadDocument();
+            }
+        }
+
+        foreach (TextSpan token in tokens)
+            _writeTokens.Add(CreateCachedToken(token, content));
+    }
+    #endregion
+
+    #region Reading
+    private bool OpenReadDocument(int documentId)
+    {
+        CloseReadDocument();
+        _reader = DocumentReader.Open(GetFilePath(documentId), documentId);
+        return _reader != null;
+    }
+
+    /// <summary>
+    /// Gets the specified TextSpan from the cache. Tokens can be got in
+    /// any order.
+    /// </summary>
+    /// <param name="documentId">The document identifier.</param>
+    /// <param name="position">The TextSpan's position.</param>
+    /// <returns>TextSpan, or null if not found.</returns>
+    public TextSpan? GetSpan(int documentId, int position)
+    {
+        // pending tokens of the requested document must be written first
+        if (_writeDocId == documentId) CloseWriteDocument();
+
+        if (_reader?.DocumentId != documentId &&
+            !OpenReadDocument(documentId))
+        {
+            return null;
+        }
+
+        int i = _reader!.FindToken(position);
+        return i > -1 ? _reader.ReadToken(i) : null;
+    }
+
+    /// <summary>
+    /// Gets the tokens of the specified document in the specified range of
+    /// positions. This maps the document's file for the duration of the
+    /// call, so it can be called by several threads at once, as long as
+    /// the cache is not being written. Tokens still pending in memory are
+    /// not seen.
+    /// </summary>
+    /// <param name="documentId">The document identifier.</param>
+    /// <param name="minPosition">The minimum position.</param>
+    /// <param name="maxPosition">The maximum position.</param>
+    /// <returns>The first token found at each position in the range, sorted
+    /// by position. Positions without tokens are skipped.</returns>
+    /// <exception cref="InvalidDataException">invalid file</exception>
+    public IList<TextSpan> GetSpans(int documentId, int minPosition,
+        int maxPosition)
+    {
+        using DocumentReader? reader = DocumentReader.Open(
+            GetFilePath(documentId), documentId);
+        if (reader == null) return [];
+
+        List<TextSpan> spans = [];
+        int prev = minPosition - 1;
+        for (int i = reader.FindFirstToken(minPosition);
+            i < reader.TokenCount; i++)
+        {
+            int position = reader.ReadPosition(i);
+            if (position > maxPosition) break;
+            // duplicates: the first token added at a position wins
+            if (position == prev) continue;
+            spans.Add(reader.ReadToken(i));
+            prev = position;
+        }
+        return spans;
+    }
+    #endregion
+
+    /// <summary>
+    /// A reader of a single document file, decoding its records straight
+    /// from the mapped memory. Each reader has its own view of the file.
+    /// </summary>
+    private sealed class DocumentReader : IDisposable
+    {
+        private readonly MemoryMappedFile _file;
+        private readonly MemoryMappedViewAccessor _view;
+        private readonly nint _base;
+        private readonly long _length;
+        private readonly int _firstPosition;
+        private readonly long _attributesOffset;
+        private readonly long _stringOffsetsOffset;
+        private readonly long _stringDataOffset;
+        private readonly string?[] _strings;
+        private bool _disposed;
+
+        public int DocumentId { get; }
+
+        public int TokenCount { get; }
+
+        private unsafe DocumentReader(string file, int documentId)
+        {
+            _file = MemoryMappedFile.CreateFromFile(file, FileMode.Open,
+                null, 0, MemoryMappedFileAccess.Read);
+            _view = _file.CreateViewAccessor(0, 0,
+                MemoryMappedFileAccess.Read);
+            byte* pointer = null;
+            _view.SafeMemoryMappedViewHandle.AcquirePointer(ref pointer);
+            _base = (nint)(pointer + _view.PointerOffset);
+            _length = _view.Capacity;
+
+            if (_length < HEADER_SIZE
+                || ReadInt32(0) != MAGIC
+                || ReadInt32(4) != VERSION)
+            {
+                Dispose();
+                throw new InvalidDataException(
+                    $"Invalid binary token cache file: {file}");
+            }
+
+            DocumentId = documentId;
+            TokenCount = ReadInt32(8);
+            int attrCount = ReadInt32(12);
+            int stringCount = ReadInt32(16);
+            _firstPosition = ReadInt32(20);
+            _attributesOffset = HEADER_SIZE + (long)TokenCount * TOKEN_SIZE;
+            _stringOffsetsOffset = _attributesOffset
+                + (long)attrCount * ATTRIBUTE_SIZE;
+            _stringDataOffset = _stringOffsetsOffset + (stringCount + 1L) * 4;
+            _strings = new string?[stringCount];
+        }
+
+        /// <summary>
+        /// Opens the specified document file if it exists.
+        /// </summary>
+        /// <param name="file">The file path.</param>
+        /// <param name="documentId">The document identifier.</param>
+        /// <returns>Reader, or null if the file does not exist.</returns>
+        /// <exception cref="InvalidDataException">invalid file</exception>
+        public static DocumentReader? Open(string file, int documentId) =>
+            File.Exists(file) ? new DocumentReader(file, documentId) : null;
+
+        /// <summary>
+        /// Gets the specified bytes of the document, directly from its
+        /// mapped memory.
+        /// </summary>
+        /// <param name="offset">The offset from the start of the file.</param>
+        /// <param name="length">The count of bytes.</param>
+        /// <returns>Bytes.</returns>
+        /// <exception cref="InvalidDataException">out of file</exception>
+        private unsafe ReadOnlySpan<byte> GetBytes(long offset, int length)
+        {
+            if (offset < 0 || length < 0 || offset + length > _length)
+            {
+                throw new InvalidDataException(
+                    $"Invalid offset in binary token cache: {offset}");
+            }
+            return new ReadOnlySpan<byte>((byte*)_base + offset, length);
+        }
+
+        private int ReadInt32(long offset) =>
+            BinaryPrimitives.ReadInt32LittleEndian(GetBytes(offset, 4));
+
+        private string? GetString(int id)
+        {
+            if (id < 0) return null;
+
+            // strings are decoded lazily and then reused
+            string? s = _strings[id];
+            if (s != null) return s;
+
+            long p = _stringOffsetsOffset + (long)id * 4;
+            int start = ReadInt32(p);
+            int end = ReadInt32(p + 4);
+            s = Encoding.UTF8.GetString(
+                GetBytes(_stringDataOffset + start, end - start));
+            _strings[id] = s;
+            return s;
+        }
+
+        public int ReadPosition(int index) =>
+            ReadInt32(HEADER_SIZE + (long)index * TOKEN_SIZE);
+
+        /// <summary>
+        /// Finds the first token at or after the specified position.
+        /// </summary>
+        /// <param name="position">The position.</param>
+        /// <returns>The token index, or <see cref="TokenCount"/> if none.
+        /// </returns>
+        public int FindFirstToken(int position)
+        {
+            int lo = 0, hi = TokenCount;
+            while (lo < hi)
+            {
+                int mid = lo + ((hi - lo) >> 1);
+                if (ReadPosition(mid) < position) lo = mid + 1;
+                else hi = mid;
+            }
+            return lo;
+        }
+
+        /// <summary>
+        /// Finds the first token at the specified position.
+        /// </summary>
+        /// <param name="position">The position.</param>
+        /// <returns>The token index, or -1 if not found.</returns>
+        public int FindToken(int position)
+        {
+            // positions are usually contiguous, so try direct access first
+            int i = position - _firstPosition;
+            if (i >= 0 && i < TokenCount && ReadPosition(i) == position &&
+                (i == 0 || ReadPosition(i - 1) != position))
+            {
+                return i;
+            }
+
+            // else binary search the first token at position
+            i = FindFirstToken(position);
+            return i < TokenCount && ReadPosition(i) == position ? i : -1;
+        }
+
+        public TextSpan ReadToken(int index)
+        {
+            long p = HEADER_SIZE + (long)index * TOKEN_SIZE;
+            TextSpan span = new()
+            {
+                DocumentId = DocumentId,
+                Index = ReadInt32(p + 4),
+                Length = ReadInt32(p + 8),
+                Value = GetString(ReadInt32(p + 12)) ?? "",
+            };
+            span.SetPositions(ReadInt32(p));
+
+            int attrStart = ReadInt32(p + 16);
+            int attrCount = ReadInt32(p + 20);
+            for (int j = 0; j < attrCount; j++)
+            {
+                long a = _attributesOffset
+                    + (long)(attrStart + j) * ATTRIBUTE_SIZE;
+                span.AddAttribute(new Corpus.Core.Attribute
+                {
+                    TargetId = span.P1,
+                    Name = GetString(ReadInt32(a)),
+                    Value = GetString(ReadInt32(a + 4)),
+                    Type = (Corpus.Core.AttributeType)ReadInt32(a + 8)
+                });
+            }
+            return span;
+        }
+
+        public IEnumerable<CachedToken> ReadTokens()
+        {
+            for (int i = 0; i < TokenCount; i++)
+            {
+                long p = HEADER_SIZE + (long)i * TOKEN_SIZE;
+                int attrStart = ReadInt32(p + 16);
+                int attrCount = ReadInt32(p + 20);
+                CachedAttribute[] attributes = new CachedAttribute[attrCount];
+                for (int j = 0; j < attrCount; j++)
+                {
+                    long a = _attributesOffset
+                        + (long)(attrStart + j) * ATTRIBUTE_SIZE;
+                    attributes[j] = new CachedAttribute(
+                        GetString(ReadInt32(a))!,
+                        GetString(ReadInt32(a + 4)),
+                        (Corpus.Core.AttributeType)ReadInt32(a + 8));
+                }
+                yield return new CachedToken(ReadInt32(p),
+                    ReadInt32(p + 4),
+                    ReadInt32(p + 8),
+                    GetString(ReadInt32(p + 12)),
+                    attributes);
+            }
+        }
+
+        public void Dispose()
+        {
+            if (_disposed) return;
+            _view.SafeMemoryMappedViewHandle.ReleasePointer();
+            _view.Dispose();
+            _file.Dispose();
+            _disposed = true;
+        }
+    }
+
+    private readonly record struct CachedAttribute(string Name,
+        string? Value, Corpus.Core.AttributeType Type);
+
+    private sealed record CachedToken(int P1, int Index, int Length,
+        string? Value, CachedAttribute[] Attributes);
+}
@@ -9,7 +9,9 @@ namespace Pythia.Core.Plugin.Analysis;
 
 /// <summary>
 /// Attributes supplier token filter, drawing selected attributes from
-/// the tokens stored in a file-system based cache.
+/// the tokens stored in a file-system based cache, either text
+/// (<see cref="FsForwardTokenCache"/>) or binary
+/// (<see cref="FsBinaryTokenCache"/>).
 /// Tag: <c>token-filter.cache-supplier.fs</c>.
 /// </summary>
 /// <remarks>This filter is used in deferred POS tagging, to supply POS
@@ -45,7 +47,9 @@ public sealed class FsCacheSupplierTokenFilter : ITokenFilter,
 
         string cacheDir = options.CacheDirectory ?? "";
         _attrNames.Clear();
-        _cache = new FsForwardTokenCache();
+        _cache = options.IsBinary
+            ? new FsBinaryTokenCache()
+            : new FsForwardTokenCache();
         _cache.Open(cacheDir);
         if (options.SuppliedAttributes?.Count > 0)
         {
@@ -101,4 +105,11 @@ public sealed class FsCacheSupplierTokenFilterOptions
     /// are ignored.
     /// </summary>
     public IList<string>? SuppliedAttributes { get; set; }
+
+    /// <summary>
+    /// Gets or sets a value indicating whether the cache uses the binary
+    /// format of <see cref="FsBinaryTokenCache"/> rather than the text
+    /// format of <see cref="FsForwardTokenCache"/>.
+    /// </summary>
+    public bool IsBinary { get; set; }
 }
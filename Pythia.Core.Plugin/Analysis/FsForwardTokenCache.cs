@@ -166,6 +166,47 @@ public sealed class FsForwardTokenCache : ITokenCache
         }
     }
 
+    /// <summary>
+    /// Gets the IDs of all the documents in the cache.
+    /// </summary>
+    /// <returns>Sorted document IDs.</returns>
+    public IList<int> GetDocumentIds()
+    {
+        SortedSet<int> ids = [];
+        foreach (string file in Directory.EnumerateFiles(_rootDir, "*.*.txt"))
+        {
+            string name = Path.GetFileName(file);
+            int i = name.IndexOf('.');
+            if (i > 0 && int.TryParse(name.AsSpan(0, i), NumberStyles.None,
+                CultureInfo.InvariantCulture, out int id))
+            {
+                ids.Add(id);
+            }
+        }
+        return [.. ids];
+    }
+
+    /// <summary>
+    /// Enumerates all the tokens of the specified document, in their
+    /// order. This reads the document files independently from
+    /// <see cref="GetSpan(int, int)"/>, and is used to export the cache,
+    /// e.g. into a <see cref="FsBinaryTokenCache"/>.
+    /// </summary>
+    /// <param name="documentId">The document identifier.</param>
+    /// <returns>Tokens.</returns>
+    public IEnumerable<TextSpan> EnumerateSpans(int documentId)
+    {
+        int block = 1;
+        string file;
+        while (File.Exists(file = GetFilePath(documentId, block++)))
+        {
+            using StreamReader reader = new(file, Encoding.UTF8);
+            TextSpan? span;
+            while ((span = ReadToken(reader, documentId)) != null)
+                yield return span;
+        }
+    }
+
     private void WriteToken(TextSpan TextSpan, TextWriter writer)
     {
         // #pos NxN
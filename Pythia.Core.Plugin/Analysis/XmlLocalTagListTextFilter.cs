@@ -21,7 +21,7 @@ namespace Pythia.Core.Plugin.Analysis;
 /// <para>Tag: <c>text-filter.xml-local-tag-list</c></para>
 /// </summary>
 [Tag("text-filter.xml-local-tag-list")]
-public sealed class XmlLocalTagListTextFilter : ITextFilter,
+public sealed class XmlLocalTagListTextFilter : IBufferTextFilter,
     IConfigurable<XmlLocalTagListTextFilterOptions>
 {
     /// <summary>
@@ -37,6 +37,77 @@ public sealed class XmlLocalTagListTextFilter : ITextFilter,
         new(@"<(?<c>/)?(?<n>[\p{L}_][-_.\p{L}0-9]*)[^/>]*(?<e>/)?>",
         RegexOptions.Compiled);
 
+    private static bool IsNameChar(char c) =>
+        c == '-' || c == '_' || c == '.' || char.IsLetter(c) ||
+        char.IsAsciiDigit(c);
+
+    private bool IsListed(ReadOnlySpan<char> name)
+    {
+        HashSet<string>? names = _options?.Names;
+        if (names == null) return true;
+
+        return names.TryGetAlternateLookup(
+            out HashSet<string>.AlternateLookup<ReadOnlySpan<char>> lookup)
+            ? lookup.Contains(name)
+            : names.Contains(name.ToString());
+    }
+
+    private void Collect(ReadOnlySpan<char> text, IHasDataDictionary context)
+    {
+        List<XmlTagListEntry> entries = [];
+        Stack<XmlTagListEntry> stack = new();
+
+        foreach (ValueMatch m in _tagRegex.EnumerateMatches(text))
+        {
+            // get the tag's name, after < or </
+            bool closing = text[m.Index + 1] == '/';
+            int start = m.Index + (closing ? 2 : 1);
+            int end = start + 1;
+            while (IsNameChar(text[end])) end++;
+
+            ReadOnlySpan<char> name = text[start..end];
+            if (!IsListed(name)) continue;
+
+            // empty
+            if (text[m.Index + m.Length - 2] == '/')
+            {
+                entries.Add(new XmlTagListEntry(name.ToString(),
+                    new(m.Index, m.Length)));
+            }
+            // closing
+            else if (closing)
+            {
+                XmlTagListEntry opening = stack.Pop();
+                entries.Add(new XmlTagListEntry(name.ToString(),
+                    new TextRange(
+                        opening.Range.Start,
+                        m.Index + m.Length - opening.Range.Start)));
+            }
+            // opening
+            else
+            {
+                stack.Push(new XmlTagListEntry(name.ToString(),
+                    new(m.Index, m.Length)));
+            }
+        }
+
+        context.Data[_options?.DataKey ?? XML_LOCAL_TAG_LIST_KEY] =
+            entries.OrderBy(e => e.Range.Start).ToList();
+    }
+
+    /// <summary>
+    /// Applies the filter to the specified text. The text is not changed.
+    /// </summary>
+    /// <param name="text">The text.</param>
+    /// <param name="context">The context. If null, this filter will do
+    /// nothing.</param>
+    /// <returns>True.</returns>
+    public bool Apply(Span<char> text, IHasDataDictionary? context = null)
+    {
+        if (context is not null) Collect(text, context);
+        return true;
+    }
+
     /// <summary>
     /// Applies the filter to the specified reader asynchronously.
     /// </summary>
@@ -51,41 +122,9 @@ public sealed class XmlLocalTagListTextFilter : ITextFilter,
         ArgumentNullException.ThrowIfNull(reader);
         if (context is null) return Task.FromResult(reader);
 
+        // the text is not changed, so there is no need to copy it
         string text = reader.ReadToEnd();
-        List<XmlTagListEntry> entries = [];
-        Stack<XmlTagListEntry> stack = new();
-
-        foreach (Match m in _tagRegex.Matches(text))
-        {
-            string name = m.Groups["n"].Value;
-            if (_options?.Names == null || _options.Names.Contains(name))
-            {
-                // empty
-                if (m.Groups["e"].Length > 0)
-                {
-                    entries.Add(new XmlTagListEntry(name,
-                        new(m.Index, m.Length)));
-                }
-                // closing
-                else if (m.Groups["c"].Length > 0)
-                {
-                    XmlTagListEntry opening = stack.Pop();
-                    entries.Add(new XmlTagListEntry(name,
-                        new TextRange(
-                            opening.Range.Start,
-                            m.Index + m.Length - opening.Range.Start)));
-                }
-                // opening
-                else
-                {
-                    stack.Push(new XmlTagListEntry(name,
-                        new(m.Index, m.Length)));
-                }
-            }
-        }
-
-        context.Data[_options?.DataKey ?? XML_LOCAL_TAG_LIST_KEY] =
-            entries.OrderBy(e => e.Range.Start).ToList();
+        Collect(text, context);
         return Task.FromResult((TextReader)new StringReader(text));
     }
 
@@ -24,7 +24,7 @@ namespace Pythia.Core.Plugin.Analysis;
 /// </summary>
 /// <seealso cref="ITextFilter" />
 [Tag("text-filter.xml-tag-filler")]
-public sealed class XmlTagFillerTextFilter : ITextFilter,
+public sealed class XmlTagFillerTextFilter : IBufferTextFilter,
     IConfigurable<XmlTagFillerTextFilterOptions>
 {
     private readonly HashSet<XName> _tags;
@@ -69,42 +69,43 @@ public sealed class XmlTagFillerTextFilter : ITextFilter,
     }
 
     /// <summary>
-    /// Applies the filter to the specified reader.
+    /// Applies the filter in place to the specified text.
     /// </summary>
-    /// <param name="reader">The input reader.</param>
+    /// <param name="text">The text to filter.</param>
     /// <param name="context">The optional context. Not used.</param>
-    /// <returns>The output reader.</returns>
-    /// <exception cref="ArgumentNullException">reader</exception>
+    /// <returns>True.</returns>
     /// <exception cref="FormatException">Mismatched XML fragment.</exception>
-    public async Task<TextReader> ApplyAsync(TextReader reader,
-        IHasDataDictionary? context = null)
+    public bool Apply(Span<char> text, IHasDataDictionary? context = null)
     {
-        ArgumentNullException.ThrowIfNull(reader);
-
-        string xml = await reader.ReadToEndAsync();
-
         // if no tags defined, just fill all the tags
         if (_tags.Count == 0)
         {
-            StringBuilder sb = new(xml);
+            StringBuilder sb = new(text.Length);
+            sb.Append(text);
             XmlFiller.FillTags(sb);
-            return new StringReader(sb.ToString());
+            sb.CopyTo(0, text, text.Length);
+            return true;
         }
 
         // else fill only the tags defined
-        StringBuilder filled = new(xml);
-        XmlTagRangeSet set = new(xml, _tags);
+        XmlTagRangeSet set = new(text.ToString(), _tags);
         foreach (XmlTagRange range in set.GetTagRanges())
-        {
-            for (int i = range.StartIndex;
-                     i < range.StartIndex + range.Length; i++)
-            {
-                filled[i] = ' ';
-            }
-        }
+            text.Slice(range.StartIndex, range.Length).Fill(' ');
 
-        return new StringReader(filled.ToString());
+        return true;
     }
+
+    /// <summary>
+    /// Applies the filter to the specified reader.
+    /// </summary>
+    /// <param name="reader">The input reader.</param>
+    /// <param name="context">The optional context. Not used.</param>
+    /// <returns>The output reader.</returns>
+    /// <exception cref="ArgumentNullException">reader</exception>
+    /// <exception cref="FormatException">Mismatched XML fragment.</exception>
+    public Task<TextReader> ApplyAsync(TextReader reader,
+        IHasDataDictionary? context = null)
+        => TextFilterChain.ApplyAsync(this, reader, context);
 }
 
 /// <summary>
@@ -0,0 +1,168 @@
+﻿using Pythia.Core.Analysis;
+using System;
+using System.Collections.Concurrent;
+using System.Collections.Generic;
+using System.Linq;
+using System.Threading;
+using System.Threading.Tasks;
+using Xunit;
+
+namespace Pythia.Core.Test.Analysis;
+
+public sealed class IndexPipelineTest
+{
+    private static IEnumerable<string> GetSources(int count) =>
+        Enumerable.Range(1, count).Select(n => n.ToString());
+
+    private sealed class Log
+    {
+        private int _writing;
+
+        public ConcurrentQueue<string> Events { get; } = new();
+        public int MaxConcurrentWrites { get; private set; }
+
+        public async Task WriteAsync(string item)
+        {
+            int n = Interlocked.Increment(ref _writing);
+            if (n > MaxConcurrentWrites) MaxConcurrentWrites = n;
+            await Task.Yield();
+            Events.Enqueue("w" + item);
+            Interlocked.Decrement(ref _writing);
+        }
+
+        public List<string> Get(char prefix) =>
+            [.. Events.Where(e => e[0] == prefix).Select(e => e[1..])];
+    }
+
+    private static IndexPipeline<string> CreatePipeline(Log log,
+        int analysisCount, int structureCount,
+        Func<string, string?>? analyze = null,
+        Action<string>? parse = null)
+    {
+        return new IndexPipeline<string>(
+            async (_, source, _) =>
+            {
+                await Task.Yield();
+                string? item = analyze != null ? analyze(source) : source;
+                log.Events.Enqueue("a" + source);
+                return item;
+            },
+            (item, _) => log.WriteAsync(item),
+            (_, item, _) =>
+            {
+                parse?.Invoke(item);
+                log.Events.Enqueue("p" + item);
+                return Task.CompletedTask;
+            })
+        {
+            AnalysisWorkerCount = analysisCount,
+            StructureWorkerCount = structureCount,
+            Capacity = 2
+        };
+    }
+
+    [Fact]
+    public async Task RunAsync_Parallel_EachDocumentWrittenThenParsed()
+    {
+        Log log = new();
+        IndexPipeline<string> pipeline = CreatePipeline(log, 4, 3);
+
+        await pipeline.RunAsync(GetSources(50), CancellationToken.None);
+
+        string[] expected = [.. GetSources(50).Order()];
+        Assert.Equal(expected, log.Get('a').Order());
+        Assert.Equal(expected, log.Get('w').Order());
+        Assert.Equal(expected, log.Get('p').Order());
+
+        // structures are parsed only after tokens are written
+        List<string> events = [.. log.Events];
+        foreach (string source in expected)
+        {
+            Assert.True(events.IndexOf("w" + source) <
+                events.IndexOf("p" + source));
+        }
+        Assert.Equal(1, log.MaxConcurrentWrites);
+    }
+
+    [Fact]
+    public async Task RunAsync_SingleWorkers_KeepsSourcesOrder()
+    {
+        Log log = new();
+        IndexPipeline<string> pipeline = CreatePipeline(log, 1, 1);
+
+        await pipeline.RunAsync(GetSources(20), CancellationToken.None);
+
+        Assert.Equal(GetSources(20), log.Get('w'));
+        Assert.Equal(GetSources(20), log.Get('p'));
+    }
+
+    [Fact]
+    public async Task RunAsync_SkippedDocument_NotWritten()
+    {
+        Log log = new();
+        IndexPipeline<string> pipeline = CreatePipeline(log, 2, 2,
+            s => s == "3" ? null : s);
+
+        await pipeline.RunAsync(GetSources(5), CancellationToken.None);
+
+        Assert.Equal(5, log.Get('a').Count);
+        Assert.DoesNotContain("3", log.Get('w'));
+        Assert.Equal(4, log.Get('p').Count);
+    }
+
+    [Fact]
+    public async Task RunAsync_AnalysisError_AbortsAndRethrows()
+    {
+        Log log = new();
+        IndexPipeline<string> pipeline = CreatePipeline(log, 2, 2,
+            s => s == "5" ? throw new InvalidOperationException(s) : s);
+
+        InvalidOperationException ex =
+            await Assert.ThrowsAsync<InvalidOperationException>(
+            () => pipeline.RunAsync(GetSources(1000), CancellationToken.None));
+
+        Assert.Equal("5", ex.Message);
+        Assert.True(log.Get('a').Count < 1000);
+    }
+
+    [Fact]
+    public async Task RunAsync_ParseError_AbortsAndRethrows()
+    {
+        Log log = new();
+        IndexPipeline<string> pipeline = CreatePipeline(log, 2, 2,
+            parse: s =>
+            {
+                if (s == "5") throw new InvalidOperationException(s);
+            });
+
+        InvalidOperationException ex =
+            await Assert.ThrowsAsync<InvalidOperationException>(
+            () => pipeline.RunAsync(GetSources(1000), CancellationToken.None));
+
+        Assert.Equal("5", ex.Message);
+        Assert.True(log.Get('a').Count < 1000);
+    }
+
+    [Fact]
+    public async Task RunAsync_Cancelled_StopsAndCompletesAnalyzed()
+    {
+        Log log = new();
+        using CancellationTokenSource cts = new();
+        IndexPipeline<string> pipeline = CreatePipeline(log, 3, 2,
+            s =>
+            {
+                if (s == "10") cts.Cancel();
+                return s;
+            });
+
+        await pipeline.RunAsync(GetSources(1000), cts.Token);
+
+        List<string> analyzed = log.Get('a');
+        Assert.Contains("10", analyzed);
+        Assert.True(analyzed.Count < 1000);
+
+        // documents analyzed before cancellation are completed
+        Assert.Equal(analyzed.Order(), log.Get('w').Order());
+        Assert.Equal(analyzed.Order(), log.Get('p').Order());
+    }
+}
@@ -126,6 +126,19 @@ public sealed class PythiaFactoryTest
         Assert.NotNull(picker);
     }
 
+    [Fact]
+    public void GetIndexComponentSet_Distinct()
+    {
+        IndexComponentSet a = _factory.GetIndexComponentSet();
+        IndexComponentSet b = _factory.GetIndexComponentSet();
+
+        Assert.Equal(2, a.TextFilters.Count);
+        Assert.Single(a.StructureParsers);
+        Assert.NotSame(a.Tokenizer, b.Tokenizer);
+        Assert.NotSame(a.TextFilters[0], b.TextFilters[0]);
+        Assert.NotSame(a.StructureParsers[0], b.StructureParsers[0]);
+    }
+
     //[Fact]
     //public void GetTextRenderer_NotNull()
     //{
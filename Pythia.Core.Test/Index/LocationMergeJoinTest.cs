@@ -0,0 +1,81 @@
+﻿using Pythia.Core.Index;
+using Pythia.Core.Query;
+using System.Collections.Generic;
+using System.Linq;
+using Xunit;
+
+namespace Pythia.Core.Test.Index;
+
+public sealed class LocationMergeJoinTest
+{
+    // spans as (document, p1, p2)
+    private static readonly (int, int, int)[] _left =
+    [
+        (1, 1, 1), (1, 5, 5), (2, 3, 3), (4, 2, 2)
+    ];
+
+    private static readonly (int, int, int)[] _right =
+    [
+        (1, 2, 2), (1, 9, 9), (3, 1, 1), (4, 1, 4)
+    ];
+
+    private static List<(int, int, int)> Join(PositionalLocop locop) =>
+        [.. LocationMergeJoin.Join(_left, _right, locop, s => s)];
+
+    [Fact]
+    public void Join_Near()
+    {
+        List<(int, int, int)> result = Join(
+            new PositionalLocop(pythiaLexer.NEAR, false, 0, 0));
+
+        Assert.Equal(new[] { (1, 1, 1) }, result);
+    }
+
+    [Fact]
+    public void Join_NotNear()
+    {
+        List<(int, int, int)> result = Join(
+            new PositionalLocop(pythiaLexer.NEAR, true, 0, 0));
+
+        Assert.Equal(new[] { (1, 5, 5), (2, 3, 3), (4, 2, 2) }, result);
+    }
+
+    [Fact]
+    public void Join_Before()
+    {
+        List<(int, int, int)> result = Join(
+            new PositionalLocop(pythiaLexer.BEFORE, false, 0, 3));
+
+        Assert.Equal(new[] { (1, 1, 1), (1, 5, 5) }, result);
+    }
+
+    [Fact]
+    public void Join_Inside()
+    {
+        List<(int, int, int)> result = Join(
+            new PositionalLocop(pythiaLexer.INSIDE, false));
+
+        Assert.Equal(new[] { (4, 2, 2) }, result);
+    }
+
+    [Fact]
+    public void Join_Streamed_EnumeratesOnce()
+    {
+        int count = 0;
+        IEnumerable<(int, int, int)> Right()
+        {
+            foreach (var span in _right)
+            {
+                count++;
+                yield return span;
+            }
+        }
+
+        List<(int, int, int)> result = [.. LocationMergeJoin.Join(_left,
+            Right(), new PositionalLocop(pythiaLexer.OVERLAPS, false),
+            s => s)];
+
+        Assert.Equal(new[] { (4, 2, 2) }, result);
+        Assert.Equal(_right.Length, count);
+    }
+}
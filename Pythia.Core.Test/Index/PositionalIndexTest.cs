@@ -0,0 +1,206 @@
+﻿using Pythia.Core.Index;
+using System;
+using System.IO;
+using System.Linq;
+using Xunit;
+
+namespace Pythia.Core.Test.Index;
+
+public sealed class PositionalIndexTest : IDisposable
+{
+    private readonly string _path;
+    private readonly PositionalIndex _index;
+
+    public PositionalIndexTest()
+    {
+        PositionalIndexWriter writer = new();
+
+        // documents in database order: doc 2 (sort key a), doc 1 (b)
+        writer.AddDocument(2, "Cicero", "Epistulae", "a",
+            new DateTime(2020, 1, 2));
+        writer.AddDocument(1, "Catullus", "Carmina", "b",
+            new DateTime(2020, 1, 1));
+
+        // doc 1: sic est mater
+        writer.AddSpan(CreateToken(1, 1, 1, "sic", "sic", "ADV"));
+        writer.AddSpan(CreateToken(2, 1, 2, "est", "sum", "VERB"));
+        TextSpan mater = CreateToken(3, 1, 3, "mater", "mater", "NOUN");
+        mater.AddAttribute(new Corpus.Core.Attribute
+        {
+            Name = "case",
+            Value = "nom"
+        });
+        writer.AddSpan(mater);
+        writer.AddSpan(new TextSpan
+        {
+            Id = 4,
+            DocumentId = 1,
+            Type = TextSpan.TYPE_SENTENCE,
+            P1 = 1,
+            P2 = 3,
+            Value = "sic est mater"
+        });
+
+        // doc 2: mater sic
+        writer.AddSpan(CreateToken(5, 2, 1, "mater", "mater", "NOUN"));
+        writer.AddSpan(CreateToken(6, 2, 2, "Sic", "sic", "ADV"));
+        writer.AddSpan(new TextSpan
+        {
+            Id = 7,
+            DocumentId = 2,
+            Type = TextSpan.TYPE_SENTENCE,
+            P1 = 1,
+            P2 = 2,
+            Value = "mater sic"
+        });
+
+        _path = Path.GetTempFileName();
+        writer.Save(_path);
+        _index = new PositionalIndex(_path);
+    }
+
+    private static TextSpan CreateToken(int id, int documentId,
+        int position, string value, string lemma, string pos)
+    {
+        return new TextSpan
+        {
+            Id = id,
+            DocumentId = documentId,
+            P1 = position,
+            P2 = position,
+            Index = position * 10,
+            Length = value.Length,
+            Value = value,
+            Lemma = lemma,
+            Pos = pos
+        };
+    }
+
+    public void Dispose()
+    {
+        _index.Dispose();
+        File.Delete(_path);
+    }
+
+    private int[] Search(string query) =>
+        [.. new PositionalQueryEvaluator(_index).Evaluate(query)
+            .Select(p => _index.GetResult(p.Ordinal).Id)];
+
+    [Fact]
+    public void Open_Counts()
+    {
+        Assert.Equal(2, _index.DocumentCount);
+        Assert.Equal(7, _index.SpanCount);
+    }
+
+    [Fact]
+    public void Open_SourceSignature()
+    {
+        Assert.Equal(2, _index.SourceDocumentCount);
+        Assert.Equal(new DateTime(2020, 1, 2), _index.SourceLastModified);
+    }
+
+    [Fact]
+    public void IsCurrent_Stale_StaysStale()
+    {
+        Assert.False(_index.IsCurrent(TimeSpan.Zero, _ => false));
+        Assert.False(_index.IsCurrent(TimeSpan.Zero, _ => true));
+    }
+
+    [Fact]
+    public void GetResult_HasDocumentMetadata()
+    {
+        SearchResult result = _index.GetResult(0);
+
+        Assert.Equal(5, result.Id);
+        Assert.Equal(2, result.DocumentId);
+        Assert.Equal(1, result.P1);
+        Assert.Equal(10, result.Index);
+        Assert.Equal("mater", result.Value);
+        Assert.Equal(TextSpan.TYPE_TOKEN, result.Type);
+        Assert.Equal("Cicero", result.Author);
+        Assert.Equal("Epistulae", result.Title);
+        Assert.Equal("a", result.SortKey);
+    }
+
+    [Fact]
+    public void Evaluate_Eq_CaseInsensitiveInResultsOrder()
+    {
+        Assert.Equal(new[] { 6, 1 }, Search("[value=\"SIC\"]"));
+    }
+
+    [Fact]
+    public void Evaluate_StartsWith()
+    {
+        Assert.Equal(new[] { 5, 3 }, Search("[value^=\"ma\"]"));
+    }
+
+    [Fact]
+    public void Evaluate_Regexp_CaseSensitive()
+    {
+        Assert.Equal(new[] { 6 }, Search("[value~=\"^S\"]"));
+    }
+
+    [Fact]
+    public void Evaluate_Numeric()
+    {
+        Assert.Equal(new[] { 6, 2, 3 }, Search("[p1>=\"2\"]"));
+    }
+
+    [Fact]
+    public void Evaluate_Attribute()
+    {
+        Assert.Equal(new[] { 3 }, Search("[case]"));
+        Assert.Equal(new[] { 3 }, Search("[case=\"nom\"]"));
+        Assert.Empty(Search("[case=\"acc\"]"));
+    }
+
+    [Fact]
+    public void Evaluate_Logical()
+    {
+        Assert.Equal(new[] { 5, 3 },
+            Search("[lemma=\"mater\"] AND [pos=\"NOUN\"]"));
+        Assert.Equal(new[] { 5, 6, 1, 3 },
+            Search("[value=\"mater\"] OR [value=\"sic\"]"));
+        Assert.Equal(new[] { 5 },
+            Search("[value=\"mater\"] AND NOT [case]"));
+    }
+
+    [Fact]
+    public void Evaluate_Before()
+    {
+        Assert.Equal(new[] { 1 },
+            Search("[value=\"sic\"] BEFORE(m=0) [value=\"est\"]"));
+    }
+
+    [Fact]
+    public void Evaluate_Near()
+    {
+        Assert.Equal(new[] { 5 },
+            Search("[value=\"mater\"] NEAR(m=0) [value=\"sic\"]"));
+        Assert.Equal(new[] { 5, 3 },
+            Search("[value=\"mater\"] NEAR(m=1) [value=\"sic\"]"));
+    }
+
+    [Fact]
+    public void Evaluate_NotNear()
+    {
+        Assert.Equal(new[] { 3 },
+            Search("[value=\"mater\"] NOT NEAR(m=0) [value=\"sic\"]"));
+    }
+
+    [Fact]
+    public void Evaluate_Inside()
+    {
+        Assert.Equal(new[] { 2 }, Search("[value=\"est\"] INSIDE() [$snt]"));
+        Assert.Equal(new[] { 5 },
+            Search("[value=\"mater\"] INSIDE(ms=0) [$snt]"));
+    }
+
+    [Fact]
+    public void Evaluate_DocumentSet_NotSupported()
+    {
+        Assert.Throws<NotSupportedException>(
+            () => Search("@[author=\"Cicero\"];[value=\"sic\"]"));
+    }
+}
@@ -0,0 +1,45 @@
+﻿using Pythia.Core.Index;
+using Xunit;
+
+namespace Pythia.Core.Test.Index;
+
+public sealed class PositionalPostingCacheTest
+{
+    private static PositionalPosting[] Create(int ordinal) =>
+        [new PositionalPosting(ordinal, 0, 1, 1)];
+
+    [Fact]
+    public void BuildKey_SpacesOutsideQuotes_Same()
+    {
+        Assert.Equal(
+            PositionalPostingCache.BuildKey("[value=\"a\"]", null),
+            PositionalPostingCache.BuildKey(" [value=\"a\"]\n", null));
+    }
+
+    [Fact]
+    public void GetOrAdd_Cached_NotEvaluatedAgain()
+    {
+        PositionalPostingCache cache = new();
+        PositionalPosting[] postings = cache.GetOrAdd("a", () => Create(1));
+
+        Assert.Same(postings, cache.GetOrAdd("a", () => Create(2)));
+        Assert.Equal(1, cache.Hits);
+        Assert.Equal(1, cache.Misses);
+    }
+
+    [Fact]
+    public void GetOrAdd_Full_EvictsLeastRecentlyUsed()
+    {
+        PositionalPostingCache cache = new(2);
+        cache.GetOrAdd("a", () => Create(1));
+        cache.GetOrAdd("b", () => Create(2));
+        // touch a, so that b is the least recently used
+        cache.GetOrAdd("a", () => Create(0));
+        cache.GetOrAdd("c", () => Create(3));
+
+        Assert.Equal(2, cache.Count);
+        Assert.Equal(1, cache.Evictions);
+        Assert.Equal(1, cache.GetOrAdd("a", () => Create(0))[0].Ordinal);
+        Assert.Equal(4, cache.GetOrAdd("b", () => Create(4))[0].Ordinal);
+    }
+}
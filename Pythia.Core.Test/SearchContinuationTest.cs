@@ -0,0 +1,42 @@
+﻿using System;
+using Xunit;
+
+namespace Pythia.Core.Test;
+
+public sealed class SearchContinuationTest
+{
+    [Fact]
+    public void Decode_NullOrEmpty_Start()
+    {
+        Assert.Same(SearchContinuation.Start, SearchContinuation.Decode(null));
+        Assert.Same(SearchContinuation.Start, SearchContinuation.Decode(""));
+    }
+
+    [Theory]
+    [InlineData("")]
+    [InlineData("catullus")]
+    [InlineData("a,b|c/d+e?città")]
+    public void EncodeDecode_RoundTrip(string sortKey)
+    {
+        SearchContinuation c = new(sortKey, 12, 345, 6789);
+
+        string token = c.Encode();
+        SearchContinuation d = SearchContinuation.Decode(token);
+
+        Assert.DoesNotContain('+', token);
+        Assert.DoesNotContain('/', token);
+        Assert.DoesNotContain('=', token);
+        Assert.Equal(sortKey, d.SortKey);
+        Assert.Equal(12, d.DocumentId);
+        Assert.Equal(345, d.P1);
+        Assert.Equal(6789, d.Id);
+    }
+
+    [Theory]
+    [InlineData("!!")]
+    [InlineData("YWJj")]
+    public void Decode_Invalid_Throws(string token)
+    {
+        Assert.Throws<ArgumentException>(() => SearchContinuation.Decode(token));
+    }
+}
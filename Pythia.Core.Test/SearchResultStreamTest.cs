@@ -0,0 +1,89 @@
+﻿using System;
+using System.Collections.Generic;
+using System.Threading.Tasks;
+using Xunit;
+
+namespace Pythia.Core.Test;
+
+public sealed class SearchResultStreamTest
+{
+    private static async IAsyncEnumerable<int> GetNumbers(int count)
+    {
+        for (int i = 1; i <= count; i++)
+        {
+            await Task.Yield();
+            yield return i;
+        }
+    }
+
+    private static async Task<List<int>> ToListAsync(
+        IAsyncEnumerable<int> source)
+    {
+        List<int> items = [];
+        await foreach (int n in source) items.Add(n);
+        return items;
+    }
+
+    [Fact]
+    public async Task SliceAsync_All_Ok()
+    {
+        List<int> items = await ToListAsync(
+            SearchResultStream.SliceAsync(GetNumbers(5), 0, 0));
+
+        Assert.Equal([1, 2, 3, 4, 5], items);
+    }
+
+    [Fact]
+    public async Task SliceAsync_SkipAndTake_Ok()
+    {
+        List<int> items = await ToListAsync(
+            SearchResultStream.SliceAsync(GetNumbers(10), 3, 4));
+
+        Assert.Equal([4, 5, 6, 7], items);
+    }
+
+    [Fact]
+    public async Task SliceAsync_TakeBeyondEnd_Ok()
+    {
+        List<int> items = await ToListAsync(
+            SearchResultStream.SliceAsync(GetNumbers(5), 3, 10));
+
+        Assert.Equal([4, 5], items);
+    }
+
+    [Fact]
+    public async Task SliceAsync_SkipBeyondEnd_Empty()
+    {
+        List<int> items = await ToListAsync(
+            SearchResultStream.SliceAsync(GetNumbers(5), 10, 0));
+
+        Assert.Empty(items);
+    }
+
+    [Fact]
+    public async Task SliceAsync_Take_StopsEnumerating()
+    {
+        int read = 0;
+        async IAsyncEnumerable<int> Count()
+        {
+            await foreach (int n in GetNumbers(100))
+            {
+                read++;
+                yield return n;
+            }
+        }
+
+        List<int> items = await ToListAsync(
+            SearchResultStream.SliceAsync(Count(), 0, 3));
+
+        Assert.Equal([1, 2, 3], items);
+        Assert.Equal(3, read);
+    }
+
+    [Fact]
+    public async Task SliceAsync_NegativeSkip_Throws()
+    {
+        await Assert.ThrowsAsync<ArgumentOutOfRangeException>(() =>
+            ToListAsync(SearchResultStream.SliceAsync(GetNumbers(1), -1, 0)));
+    }
+}
@@ -0,0 +1,92 @@
+﻿using System;
+using System.Collections.Generic;
+using Xunit;
+
+namespace Pythia.Core.Test;
+
+public sealed class StatisticsSnapshotTest
+{
+    private static readonly DateTime _time =
+        new(2026, 10, 17, 12, 0, 0, DateTimeKind.Utc);
+
+    [Fact]
+    public void Create_AttrCounts_SpanOverDocument()
+    {
+        StatisticsSnapshot snapshot = StatisticsSnapshot.Create(
+        [
+            new("doc@author", 10),
+            new("doc@title", 10),
+            new("span@title", 3),
+        ], _time, _time);
+
+        Assert.Equal(2, snapshot.Values.Count);
+        Assert.Equal(10, snapshot.Values["@author"]);
+        Assert.Equal(3, snapshot.Values["@title"]);
+    }
+
+    [Fact]
+    public void Create_Counts_Ratios()
+    {
+        StatisticsSnapshot snapshot = StatisticsSnapshot.Create(
+        [
+            new("document_count", 4),
+            new("document_attribute_count", 10),
+            new("span_count", 0),
+            new("span_attribute_count", 5),
+            new("span.tok", 0),
+        ], _time, _time.AddMinutes(1));
+
+        Assert.Equal(2.5, snapshot.Values["document_attribute_count_ratio"]);
+        Assert.False(snapshot.Values.ContainsKey(
+            "span_attribute_count_ratio"));
+        Assert.Equal(0, snapshot.Values["span.tok"]);
+        Assert.Equal(_time, snapshot.Refreshed);
+        Assert.Equal(_time.AddMinutes(1), snapshot.Updated);
+    }
+
+    [Fact]
+    public void GetSpanDeltas_Empty_Empty()
+    {
+        Dictionary<string, double> deltas = StatisticsSnapshot.GetSpanDeltas(
+            []);
+
+        Assert.Empty(deltas);
+    }
+
+    [Fact]
+    public void GetSpanDeltas_TokensAndStructures_Ok()
+    {
+        TextSpan tok1 = new() { Type = TextSpan.TYPE_TOKEN };
+        tok1.AddAttribute(new Corpus.Core.Attribute("case", "upper"));
+        tok1.AddAttribute(new Corpus.Core.Attribute("color", "red"));
+        TextSpan tok2 = new() { Type = TextSpan.TYPE_TOKEN };
+        tok2.AddAttribute(new Corpus.Core.Attribute("case", "lower"));
+        TextSpan sent = new() { Type = "snt" };
+        sent.AddAttribute(new Corpus.Core.Attribute("type", "question"));
+
+        Dictionary<string, double> deltas = StatisticsSnapshot.GetSpanDeltas(
+            [tok1, tok2, sent]);
+
+        Assert.Equal(3, deltas["span_count"]);
+        Assert.Equal(2, deltas["span.tok"]);
+        Assert.Equal(1, deltas["span.snt"]);
+        Assert.Equal(4, deltas["span_attribute_count"]);
+        Assert.Equal(3, deltas["span_tok_attribute_count"]);
+        Assert.Equal(2, deltas["span@case"]);
+        Assert.Equal(1, deltas["span@color"]);
+        Assert.Equal(1, deltas["span@type"]);
+        Assert.Equal(8, deltas.Count);
+    }
+
+    [Fact]
+    public void GetSpanDeltas_NameSelector_Applied()
+    {
+        TextSpan tok = new();
+        tok.AddAttribute(new Corpus.Core.Attribute("colour", "red"));
+
+        Dictionary<string, double> deltas = StatisticsSnapshot.GetSpanDeltas(
+            [tok], n => n[..3]);
+
+        Assert.Equal(1, deltas["span@col"]);
+    }
+}
@@ -0,0 +1,396 @@
+﻿using Fusi.Tools.Data;
+using System;
+using System.Collections.Generic;
+using System.Linq;
+using Xunit;
+
+namespace Pythia.Core.Test;
+
+public sealed class WordFrequencyStoreTest
+{
+    private sealed class MockSource : IWordFrequencySource
+    {
+        public string Signature { get; set; } = "1";
+
+        public IList<Word>? Words { get; set; }
+
+        public string GetWordIndexSignature() => Signature;
+
+        public static Word CreateWord(int id, string value, string? lemma,
+            int? lemmaId, string pos, int count) => new()
+        {
+            Id = id,
+            LemmaId = lemmaId,
+            Value = value,
+            ReversedValue = new string(value.Reverse().ToArray()),
+            Language = "lat",
+            Pos = pos,
+            Lemma = lemma,
+            Count = count
+        };
+
+        public IEnumerable<Word> EnumerateWords() => Words ??
+        [
+            CreateWord(1, "amo", "amo", 1, "VERB", 10),
+            CreateWord(2, "amas", "amo", 1, "VERB", 4),
+            CreateWord(3, "amat", "amo", 1, "VERB", 7),
+            CreateWord(4, "rosa", "rosa", 2, "NOUN", 12),
+            CreateWord(5, "rosam", "rosa", 2, "NOUN", 3),
+            CreateWord(6, "et", null, null, "CCONJ", 30)
+        ];
+
+        public IEnumerable<Lemma> EnumerateLemmata() =>
+        [
+            new Lemma { Id = 1, Value = "amo", ReversedValue = "oma",
+                Pos = "VERB", Count = 21 },
+            new Lemma { Id = 2, Value = "rosa", ReversedValue = "asor",
+                Pos = "NOUN", Count = 15 }
+        ];
+
+        public IEnumerable<TokenCount> EnumerateTokenCounts(bool lemma) =>
+            lemma
+            ? [
+                new TokenCount(1, "genre", "poetry", 15),
+                new TokenCount(1, "genre", "prose", 6)
+            ]
+            : [
+                new TokenCount(1, "genre", "prose", 3),
+                new TokenCount(1, "genre", "poetry", 7),
+                new TokenCount(1, "author", "Catullus", 5),
+                new TokenCount(2, "genre", "poetry", 4),
+                new TokenCount(1, "year", "58", 0)
+            ];
+    }
+
+    private static WordFrequencyStore GetStore()
+    {
+        WordFrequencyStore store = new();
+        store.Load(new MockSource());
+        return store;
+    }
+
+    [Fact]
+    public void Load_Ok()
+    {
+        WordFrequencyStore store = GetStore();
+
+        Assert.True(store.IsLoaded);
+        Assert.Equal(6, store.WordCount);
+        Assert.Equal(2, store.LemmaCount);
+        Assert.True(store.EstimatedMemory > 0);
+    }
+
+    [Fact]
+    public void Refresh_SameSignature_False()
+    {
+        WordFrequencyStore store = new();
+        MockSource source = new();
+
+        Assert.True(store.Refresh(source));
+        Assert.False(store.Refresh(source));
+
+        source.Signature = "2";
+        Assert.True(store.Refresh(source));
+        Assert.Equal("2", store.Signature);
+    }
+
+    [Fact]
+    public void GetWords_NoFilter_SortedByValue()
+    {
+        WordFrequencyStore store = GetStore();
+
+        DataPage<Word> page = store.GetWords(new WordFilter
+        {
+            PageNumber = 1,
+            PageSize = 4
+        });
+
+        Assert.Equal(6, page.Total);
+        Assert.Equal(new[] { "amas", "amat", "amo", "et" },
+            page.Items.Select(w => w.Value));
+        Word amas = page.Items[0];
+        Assert.Equal(2, amas.Id);
+        Assert.Equal(1, amas.LemmaId);
+        Assert.Equal("sama", amas.ReversedValue);
+        Assert.Equal("lat", amas.Language);
+        Assert.Equal("VERB", amas.Pos);
+        Assert.Equal("amo", amas.Lemma);
+        Assert.Equal(4, amas.Count);
+    }
+
+    [Fact]
+    public void GetWords_SecondPage_Ok()
+    {
+        WordFrequencyStore store = GetStore();
+
+        DataPage<Word> page = store.GetWords(new WordFilter
+        {
+            PageNumber = 2,
+            PageSize = 4
+        });
+
+        Assert.Equal(6, page.Total);
+        Assert.Equal(new[] { "rosa", "rosam" },
+            page.Items.Select(w => w.Value));
+    }
+
+    [Fact]
+    public void GetWords_ByCountDescending_Ok()
+    {
+        WordFrequencyStore store = GetStore();
+
+        DataPage<Word> page = store.GetWords(new WordFilter
+        {
+            PageNumber = 1,
+            PageSize = 3,
+            SortOrder = WordSortOrder.ByCount,
+            IsSortDescending = true
+        });
+
+        Assert.Equal(new[] { "et", "rosa", "amo" },
+            page.Items.Select(w => w.Value));
+    }
+
+    [Fact]
+    public void GetWords_Prefix_Ok()
+    {
+        WordFrequencyStore store = GetStore();
+
+        DataPage<Word> page = store.GetWords(new WordFilter
+        {
+            PageNumber = 1,
+            PageSize = 10,
+            ValuePattern = "am%",
+            SortOrder = WordSortOrder.ByCount
+        });
+
+        Assert.Equal(3, page.Total);
+        Assert.Equal(new[] { "amas", "amat", "amo" },
+            page.Items.Select(w => w.Value).OrderBy(s => s));
+        Assert.Equal(new[] { 4, 7, 10 }, page.Items.Select(w => w.Count));
+    }
+
+    [Fact]
+    public void GetWords_Suffix_Ok()
+    {
+        WordFrequencyStore store = GetStore();
+
+        DataPage<Word> page = store.GetWords(new WordFilter
+        {
+            PageNumber = 1,
+            PageSize = 10,
+            ValuePattern = "%am"
+        });
+
+        Assert.Single(page.Items);
+        Assert.Equal("rosam", page.Items[0].Value);
+    }
+
+    [Fact]
+    public void GetWords_Pattern_Ok()
+    {
+        WordFrequencyStore store = GetStore();
+
+        DataPage<Word> page = store.GetWords(new WordFilter
+        {
+            PageNumber = 1,
+            PageSize = 10,
+            ValuePattern = "_ma_"
+        });
+
+        Assert.Equal(new[] { "amas", "amat" },
+            page.Items.Select(w => w.Value));
+    }
+
+    [Fact]
+    public void GetWords_Exact_Ok()
+    {
+        WordFrequencyStore store = GetStore();
+
+        DataPage<Word> page = store.GetWords(new WordFilter
+        {
+            PageNumber = 1,
+            PageSize = 10,
+            ValuePattern = "rosa"
+        });
+
+        Assert.Single(page.Items);
+        Assert.Equal(4, page.Items[0].Id);
+    }
+
+    [Fact]
+    public void GetWords_LemmaAndLength_Ok()
+    {
+        WordFrequencyStore store = GetStore();
+
+        DataPage<Word> page = store.GetWords(new WordFilter
+        {
+            PageNumber = 1,
+            PageSize = 10,
+            LemmaId = 1,
+            MinValueLength = 4,
+            SortOrder = WordSortOrder.ByCount,
+            IsSortDescending = true
+        });
+
+        Assert.Equal(new[] { "amat", "amas" },
+            page.Items.Select(w => w.Value));
+    }
+
+    [Fact]
+    public void GetWords_PosAndCount_Ok()
+    {
+        WordFrequencyStore store = GetStore();
+
+        DataPage<Word> page = store.GetWords(new WordFilter
+        {
+            PageNumber = 1,
+            PageSize = 10,
+            Pos = "NOUN",
+            MinCount = 5
+        });
+
+        Assert.Single(page.Items);
+        Assert.Equal("rosa", page.Items[0].Value);
+    }
+
+    [Fact]
+    public void GetWords_UnknownPos_Empty()
+    {
+        WordFrequencyStore store = GetStore();
+
+        DataPage<Word> page = store.GetWords(new WordFilter
+        {
+            PageNumber = 1,
+            PageSize = 10,
+            Pos = "ADJ"
+        });
+
+        Assert.Equal(0, page.Total);
+        Assert.Empty(page.Items);
+    }
+
+    [Fact]
+    public void GetLemmata_ByReversedValue_Ok()
+    {
+        WordFrequencyStore store = GetStore();
+
+        DataPage<Lemma> page = store.GetLemmata(new LemmaFilter
+        {
+            PageNumber = 1,
+            PageSize = 10,
+            SortOrder = WordSortOrder.ByReversedValue
+        });
+
+        Assert.Equal(new[] { "rosa", "amo" },
+            page.Items.Select(l => l.Value));
+        Assert.Equal(21, page.Items[1].Count);
+    }
+
+    [Fact]
+    public void GetTokenCounts_Word_SortedByCount()
+    {
+        WordFrequencyStore store = GetStore();
+
+        IList<TokenCount> counts = store.GetTokenCounts(false, 1, "genre");
+
+        Assert.Equal(2, counts.Count);
+        Assert.Equal("poetry", counts[0].AttributeValue);
+        Assert.Equal(7, counts[0].Value);
+        Assert.Equal("prose", counts[1].AttributeValue);
+        Assert.Equal(3, counts[1].Value);
+    }
+
+    [Fact]
+    public void GetTokenCounts_ZeroOrMissing_Empty()
+    {
+        WordFrequencyStore store = GetStore();
+
+        Assert.Empty(store.GetTokenCounts(false, 1, "year"));
+        Assert.Empty(store.GetTokenCounts(false, 3, "genre"));
+        Assert.Empty(store.GetTokenCounts(false, 1, "missing"));
+    }
+
+    [Fact]
+    public void GetTokenCounts_Lemma_Ok()
+    {
+        WordFrequencyStore store = GetStore();
+
+        IList<TokenCount> counts = store.GetTokenCounts(true, 1, "genre");
+
+        Assert.Equal(new[] { 15, 6 }, counts.Select(c => c.Value));
+    }
+
+    private static WordFrequencyStore GetAccentedStore(StringComparer? comparer)
+    {
+        WordFrequencyStore store = new(comparer);
+        store.Load(new MockSource
+        {
+            Words =
+            [
+                MockSource.CreateWord(1, "cittb", null, null, "X", 1),
+                MockSource.CreateWord(2, "città", null, null, "NOUN", 2),
+                MockSource.CreateWord(3, "cittadino", null, null, "NOUN", 3),
+                MockSource.CreateWord(4, "citta", null, null, "X", 4)
+            ]
+        });
+        return store;
+    }
+
+    [Fact]
+    public void GetWords_Accented_SortedByCulture()
+    {
+        // like a linguistic collation of the database (ORDER BY value)
+        WordFrequencyStore store = GetAccentedStore(null);
+
+        DataPage<Word> page = store.GetWords(new WordFilter
+        {
+            PageNumber = 1,
+            PageSize = 10
+        });
+
+        Assert.Equal(new[] { "citta", "città", "cittadino", "cittb" },
+            page.Items.Select(w => w.Value));
+    }
+
+    [Fact]
+    public void GetWords_AccentedPrefix_SortedByCulture()
+    {
+        WordFrequencyStore store = GetAccentedStore(null);
+
+        DataPage<Word> page = store.GetWords(new WordFilter
+        {
+            PageNumber = 2,
+            PageSize = 2,
+            ValuePattern = "citt%"
+        });
+
+        Assert.Equal(4, page.Total);
+        Assert.Equal(new[] { "cittadino", "cittb" },
+            page.Items.Select(w => w.Value));
+        Assert.Equal(2, store.GetWords(new WordFilter
+        {
+            PageNumber = 1,
+            PageSize = 10,
+            ValuePattern = "città"
+        }).Items[0].Id);
+    }
+
+    [Fact]
+    public void GetWords_AccentedOrdinal_SortedByCodePoint()
+    {
+        // like the C collation of the database
+        WordFrequencyStore store = GetAccentedStore(
+            WordFrequencyStore.CreateComparer("ordinal"));
+
+        DataPage<Word> page = store.GetWords(new WordFilter
+        {
+            PageNumber = 1,
+            PageSize = 10,
+            IsSortDescending = true
+        });
+
+        Assert.Equal(new[] { "città", "cittb", "cittadino", "citta" },
+            page.Items.Select(w => w.Value));
+    }
+}
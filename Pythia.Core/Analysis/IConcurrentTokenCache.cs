@@ -0,0 +1,23 @@
+﻿using System.Collections.Generic;
+
+namespace Pythia.Core.Analysis;
+
+/// <summary>
+/// A token cache whose tokens can also be read by several threads at once,
+/// e.g. when it is shared by the repositories serving concurrent searches.
+/// </summary>
+public interface IConcurrentTokenCache : ITokenCache
+{
+    /// <summary>
+    /// Gets the tokens of the specified document in the specified range of
+    /// positions. Unlike the other members of the cache, this method can
+    /// be called concurrently, as long as the cache is not being written.
+    /// </summary>
+    /// <param name="documentId">The document identifier.</param>
+    /// <param name="minPosition">The minimum position.</param>
+    /// <param name="maxPosition">The maximum position.</param>
+    /// <returns>The first token found at each position in the range, sorted
+    /// by position. Positions without tokens are skipped.</returns>
+    IList<TextSpan> GetSpans(int documentId, int minPosition,
+        int maxPosition);
+}
@@ -20,13 +20,7 @@ public sealed class IndexBuilder
 {
     private readonly PythiaFactory _factory;
     private readonly IIndexRepository _repository;
-    private ITextFilter[]? _filters;
-    private IAttributeParser[]? _attributeParsers;
-    private IDocSortKeyBuilder? _docSortKeyBuilder;
-    private IDocDateValueCalculator? _docDateValueCalculator;
-    private ITokenizer? _tokenizer;
-    private IStructureParser[]? _structureParsers;
-    private ITextRetriever? _textRetriever;
+    private readonly SemaphoreSlim _wordIndexLock = new(1, 1);
 
     /// <summary>
     /// Gets or sets a value indicating whether this builder is working
@@ -40,6 +34,57 @@ public sealed class IndexBuilder
     /// </summary>
     public bool IsContentStored { get; set; }
 
+    /// <summary>
+    /// Gets or sets a value indicating whether spans should be imported
+    /// in bulk, when the repository supports it (see
+    /// <see cref="IBulkSpanRepository"/>). In this mode tokens are also
+    /// flushed to the repository in larger batches of
+    /// <see cref="BulkBatchSize"/> tokens.
+    /// </summary>
+    public bool IsBulkImportEnabled { get; set; }
+
+    /// <summary>
+    /// Gets or sets the size of the batches of tokens flushed to the
+    /// repository when <see cref="IsBulkImportEnabled"/> is true.
+    /// Default is 5000.
+    /// </summary>
+    public int BulkBatchSize { get; set; } = 5000;
+
+    /// <summary>
+    /// Gets or sets the count of documents retrieved, filtered and tokenized
+    /// in parallel by <see cref="Build"/>. When this is 1 (the default),
+    /// documents are indexed one at a time. Otherwise, they flow through
+    /// a bounded pipeline where each analysis worker has its own set of
+    /// components, a single writer stores the tokens, and structures are
+    /// parsed by <see cref="StructureParallelism"/> workers.
+    /// </summary>
+    public int MaxDegreeOfParallelism { get; set; } = 1;
+
+    /// <summary>
+    /// Gets or sets the count of structure parsing workers used when
+    /// <see cref="MaxDegreeOfParallelism"/> is greater than 1. When this is
+    /// 0 (the default), the same count of analysis workers is used.
+    /// </summary>
+    public int StructureParallelism { get; set; }
+
+    /// <summary>
+    /// Gets or sets the maximum count of documents queued between two stages
+    /// of the parallel pipeline. When a queue is full, the stage feeding it
+    /// waits, so that memory usage stays bounded. When this is 0
+    /// (the default), twice <see cref="MaxDegreeOfParallelism"/> is used.
+    /// </summary>
+    public int PipelineCapacity { get; set; }
+
+    /// <summary>
+    /// Gets or sets the options of the words index to be updated while
+    /// indexing. When this is set and the repository implements
+    /// <see cref="IIncrementalWordIndexRepository"/>, the words of each
+    /// document being updated are removed from the words index before
+    /// changing it, and the words of each indexed document are then added,
+    /// so that the words index needs no full rebuild.
+    /// </summary>
+    public WordIndexOptions? WordIndexOptions { get; set; }
+
     /// <summary>
     /// Gets or sets the optional logger to use.
     /// </summary>
@@ -75,73 +120,100 @@ public sealed class IndexBuilder
         Contents = IndexContents.All;
     }
 
-    private void CreateComponents()
+    private IndexComponentSet CreateComponents()
     {
-        // text filters
-        Logger?.LogInformation("Getting text filters...");
-        _filters = _factory.GetTextFilters().ToArray();
-
-        // attribute parsers
-        Logger?.LogInformation("Getting attribute parser...");
-        _attributeParsers = _factory.GetAttributeParsers().ToArray();
+        Logger?.LogInformation("Getting index components...");
+        return _factory.GetIndexComponentSet();
+    }
 
-        // doc sort key builder
-        Logger?.LogInformation("Getting sort key builder...");
-        _docSortKeyBuilder = _factory.GetDocSortKeyBuilder();
+    private async Task UpdateWordIndexAsync(IIndexRepository repository,
+        int documentId, bool adding, CancellationToken cancel)
+    {
+        if (IsDryMode || WordIndexOptions == null ||
+            repository is not IIncrementalWordIndexRepository words)
+        {
+            return;
+        }
 
-        // doc date value calculator
-        Logger?.LogInformation("Getting date value calculator...");
-        _docDateValueCalculator = _factory.GetDocDateValueCalculator();
+        // word and lemma rows are shared among documents, so updates
+        // from parallel workers are serialized
+        await _wordIndexLock.WaitAsync(cancel);
+        try
+        {
+            if (adding)
+            {
+                Logger?.LogInformation("Adding words of #{DocumentId}",
+                    documentId);
+                await words.AddDocumentWordsAsync(documentId,
+                    WordIndexOptions, cancel);
+            }
+            else
+            {
+                Logger?.LogInformation("Removing words of #{DocumentId}",
+                    documentId);
+                await words.RemoveDocumentWordsAsync(documentId,
+                    WordIndexOptions, cancel);
+            }
+        }
+        finally
+        {
+            _wordIndexLock.Release();
+        }
+    }
 
-        // tokenizer
-        Logger?.LogInformation("Getting tokenizer...");
-        _tokenizer = _factory.GetTokenizer();
+    private static async Task TokenizeAsync(ITokenizer tokenizer, string text,
+        int documentId, IHasDataDictionary? context, int batchSize,
+        Action<List<TextSpan>> flush)
+    {
+        using TextReader reader = new StringReader(text);
+        tokenizer.Start(reader, documentId, context);
 
-        // structure parsers
-        Logger?.LogInformation("Getting structure parsers...");
-        _structureParsers = _factory.GetStructureParsers().ToArray();
+        List<TextSpan> tokens = [];
+        while (await tokenizer.NextAsync())
+        {
+            // ignore empty tokens
+            if (string.IsNullOrEmpty(tokenizer.CurrentToken.Value)) continue;
 
-        // text retriever
-        Logger?.LogInformation("Getting text retriever...");
-        _textRetriever = _factory.GetTextRetriever();
+            tokens.Add(tokenizer.CurrentToken.Clone());
+            if (tokens.Count >= batchSize)
+            {
+                flush(tokens);
+                tokens.Clear();
+            }
+        }
+        if (tokens.Count > 0) flush(tokens);
     }
 
+    private int GetTokenBatchSize(IIndexRepository repository) =>
+        IsBulkImportEnabled && repository is IBulkSpanRepository
+            ? BulkBatchSize : 100;
+
     /// <summary>
     /// Adds to the repository the tokens from the specified document.
     /// </summary>
+    /// <param name="tokenizer">The tokenizer.</param>
     /// <param name="text">The text.</param>
     /// <param name="document">The document.</param>
     /// <param name="repository">The repository.</param>
     /// <param name="updating">if set to <c>true</c> the document tokens are
     /// being updated.</param>
     /// <param name="context">The optional context.</param>
-    private async Task AddTokensAsync(string text, IDocument document,
-        IIndexRepository repository, bool updating, IHasDataDictionary? context)
+    private async Task AddTokensAsync(ITokenizer tokenizer, string text,
+        IDocument document, IIndexRepository repository, bool updating,
+        IHasDataDictionary? context)
     {
         Logger?.LogInformation("Tokenizing {DocumentId}: {DocumentTitle}",
             document.Id, document.Title);
 
         if (updating && !IsDryMode) repository.DeleteDocumentSpans(document.Id);
 
-        using TextReader reader = new StringReader(text);
         try
         {
-            _tokenizer!.Start(reader, document.Id, context);
-
-            List<TextSpan> tokens = [];
-            while (await _tokenizer.NextAsync())
-            {
-                // ignore empty tokens
-                if (string.IsNullOrEmpty(_tokenizer.CurrentToken.Value)) continue;
-
-                tokens.Add(_tokenizer.CurrentToken.Clone());
-                if (tokens.Count >= 100)
+            await TokenizeAsync(tokenizer, text, document.Id, context,
+                GetTokenBatchSize(repository), tokens =>
                 {
                     if (!IsDryMode) repository.AddSpans(tokens);
-                    tokens.Clear();
-                }
-            }
-            if (tokens.Count > 0 && !IsDryMode) repository.AddSpans(tokens);
+                });
             Logger?.LogInformation("Tokenization complete");
         }
         catch (Exception ex)
@@ -153,13 +225,57 @@ public sealed class IndexBuilder
         }
     }
 
-    private void ParseMetadata(string text, IDocument document)
+    /// <summary>
+    /// Writes to the repository the tokens collected from the specified
+    /// document by a pipeline worker.
+    /// </summary>
+    /// <param name="tokens">The tokens.</param>
+    /// <param name="document">The document.</param>
+    /// <param name="repository">The repository.</param>
+    /// <param name="updating">if set to <c>true</c> the document tokens are
+    /// being updated.</param>
+    private void WriteTokens(IList<TextSpan> tokens, IDocument document,
+        IIndexRepository repository, bool updating)
+    {
+        if (IsDryMode) return;
+
+        Logger?.LogInformation("Writing {Count} tokens of #{DocumentId}",
+            tokens.Count, document.Id);
+
+        if (updating)
+        {
+            repository.DeleteDocumentSpans(document.Id);
+        }
+        else
+        {
+            // a new document got its ID only when stored, after tokenization
+            foreach (TextSpan token in tokens) token.DocumentId = document.Id;
+        }
+        try
+        {
+            foreach (TextSpan[] batch in tokens.Chunk(
+                GetTokenBatchSize(repository)))
+            {
+                repository.AddSpans(batch);
+            }
+        }
+        catch (Exception ex)
+        {
+            Logger?.LogError(ex, "Error adding tokens from document #{DocumentId}",
+                document.Id);
+            repository.DeleteDocumentSpans(document.Id);
+            throw;
+        }
+    }
+
+    private void ParseMetadata(IndexComponentSet components, string text,
+        IDocument document)
     {
-        if (_attributeParsers?.Length > 0)
+        if (components.AttributeParsers.Count > 0)
         {
             Logger?.LogInformation("Parsing document metadata");
 
-            foreach (IAttributeParser parser in _attributeParsers)
+            foreach (IAttributeParser parser in components.AttributeParsers)
             {
                 foreach (Corpus.Core.Attribute attribute in parser.Parse(
                     new StringReader(text), document))
@@ -187,13 +303,14 @@ public sealed class IndexBuilder
 
         // calculated metadata
         Logger?.LogInformation("Calculating document metadata");
-        document.DateValue = _docDateValueCalculator!.Calculate(
+        document.DateValue = components.DocDateValueCalculator.Calculate(
             document.Attributes!);
-        document.SortKey = _docSortKeyBuilder!.Build(document);
+        document.SortKey = components.DocSortKeyBuilder.Build(document);
     }
 
-    private void AddStructures(string text, IDocument document,
-        IIndexRepository repository, bool updating, IHasDataDictionary? context)
+    private void AddStructures(IList<IStructureParser> parsers, string text,
+        IDocument document, IIndexRepository repository, bool updating,
+        IHasDataDictionary? context)
     {
         Logger?.LogInformation("Detecting structures");
 
@@ -201,10 +318,9 @@ public sealed class IndexBuilder
         if (updating && !IsDryMode)
             repository.DeleteDocumentSpans(document.Id, "tok", true);
 
-        if (_structureParsers == null || _structureParsers.Length == 0)
-            return;
+        if (parsers.Count == 0) return;
 
-        foreach (IStructureParser parser in _structureParsers)
+        foreach (IStructureParser parser in parsers)
         {
             Logger?.LogInformation("Structure parser: {ParserName}",
                 parser.GetType().Name);
@@ -220,8 +336,34 @@ public sealed class IndexBuilder
         Logger?.LogInformation("Structure detection complete");
     }
 
-    private async Task IndexDocument(string source, string profileId,
-        IIndexRepository repository)
+    private static void EnsureSameLength(string text, string filteredText)
+    {
+        // ensure that the length of the filtered text did not change
+        if (text.Length != filteredText.Length)
+        {
+            throw new ArgumentException(
+                LocalizedStrings.Format(
+                    Properties.Resources.TextLengthMismatch,
+                    filteredText.Length,
+                    text.Length));
+        }
+    }
+
+    /// <summary>
+    /// Retrieves and filters the document from the specified source. This
+    /// does not change the repository, which is left to
+    /// <see cref="StoreDocumentAsync"/>, so that it can run in parallel.
+    /// </summary>
+    /// <param name="components">The components to use.</param>
+    /// <param name="source">The document's source.</param>
+    /// <param name="profileId">The profile identifier.</param>
+    /// <param name="repository">The repository.</param>
+    /// <param name="cancel">The cancellation token.</param>
+    /// <returns>The prepared document, or null if the document has no
+    /// text or the filtered text callback stopped it.</returns>
+    private async Task<PreparedDocument?> PrepareDocumentAsync(
+        IndexComponentSet components, string source, string profileId,
+        IIndexRepository repository, CancellationToken cancel)
     {
         // document: retrieve an existing one or just create a new one.
         // Document's metadata are cleared before adding/updating.
@@ -238,19 +380,18 @@ public sealed class IndexBuilder
         else
         {
             document.Attributes!.Clear();
+            // its last modified time tells consumers it was reindexed
+            document.LastModified = DateTime.UtcNow;
             updating = true;
         }
 
         // parse and add document's metadata
-        string? text = await _textRetriever!.GetAsync(document);
-        if (text == null) return;
+        string? text = await components.TextRetriever.GetAsync(document);
+        if (text == null) return null;
         document.Content = text;
 
-        // get the text
-        StringReader reader = new(text);
-
         // extract metadata from it (unfiltered)
-        ParseMetadata(text, document);
+        ParseMetadata(components, text, document);
         if (updating)
         {
             Logger?.LogInformation("Updating document #{DocumentId}: {DocumentTitle}",
@@ -262,66 +403,79 @@ public sealed class IndexBuilder
                 document.Id, document.Title);
         }
 
-        if (!IsDryMode) repository.AddDocument(document, IsContentStored, true);
-
-        if (updating)
-        {
-            Logger?.LogInformation("Updated document #{DocumentId}", document.Id);
-        }
-        else
-        {
-            Logger?.LogInformation("Updated document #{DocumentId}", document.Id);
-        }
-
         // create a data context for filters
         DataDictionary context = new();
 
         // get a filtered version of the original text
         Logger?.LogInformation("Applying text filters");
 
-        foreach (ITextFilter filter in _filters!)
-        {
-            reader = (StringReader)await filter.ApplyAsync(reader, context);
-        }
-        string filteredText = await reader.ReadToEndAsync();
+        string filteredText = await TextFilterChain.ApplyAsync(
+            components.TextFilters, text, context, cancel);
 
         // callback if requested
-        if (FilteredTextCallback?.Invoke(source, filteredText) == false) return;
+        if (FilteredTextCallback?.Invoke(source, filteredText) == false)
+            return null;
 
-        // analyze tokens from filtered text (only if requested)
-        if ((Contents & IndexContents.Tokens) != 0)
+        return new PreparedDocument(source, document, updating, text,
+            filteredText, context);
+    }
+
+    /// <summary>
+    /// Stores the specified prepared document in the repository, adding
+    /// or updating it. When updating, the document's words are first
+    /// removed from the words index, while its old attributes and tokens
+    /// are still there. A new document gets its ID here.
+    /// </summary>
+    /// <param name="prepared">The prepared document.</param>
+    /// <param name="repository">The repository.</param>
+    /// <param name="cancel">The cancellation token.</param>
+    private async Task StoreDocumentAsync(PreparedDocument prepared,
+        IIndexRepository repository, CancellationToken cancel)
+    {
+        IDocument document = prepared.Document;
+        if (prepared.Updating)
+            await UpdateWordIndexAsync(repository, document.Id, false, cancel);
+
+        if (IsDryMode) return;
+        repository.AddDocument(document, IsContentStored, true);
+
+        if (prepared.Updating)
         {
-            await AddTokensAsync(filteredText, document, repository, updating,
-                context);
+            Logger?.LogInformation("Updated document #{DocumentId}", document.Id);
         }
-
-        // analyze structures from unfiltered text (only if requested)
-        if ((Contents & IndexContents.Structures) != 0)
+        else
         {
-            // ensure that the length of the filtered text did not change
-            if (text.Length != filteredText.Length)
-            {
-                throw new ArgumentException(
-                    LocalizedStrings.Format(
-                        Properties.Resources.TextLengthMismatch,
-                        filteredText.Length,
-                        text.Length));
-            }
-
-            AddStructures(text, document, repository, updating, context);
+            Logger?.LogInformation("Added document #{DocumentId}", document.Id);
         }
     }
 
-    private async Task<string> GetFilteredText(string text)
+    private async Task IndexDocument(IndexComponentSet components,
+        string source, string profileId, IIndexRepository repository,
+        CancellationToken cancel)
     {
-        StringReader reader = new(text);
+        PreparedDocument? prepared = await PrepareDocumentAsync(components,
+            source, profileId, repository, cancel);
+        if (prepared == null) return;
+        await StoreDocumentAsync(prepared, repository, cancel);
 
-        // get a filtered version of the original text
-        foreach (ITextFilter filter in _filters!)
+        // analyze tokens from filtered text (only if requested)
+        if ((Contents & IndexContents.Tokens) != 0)
         {
-            reader = (StringReader)await filter.ApplyAsync(reader);
+            await AddTokensAsync(components.Tokenizer, prepared.FilteredText,
+                prepared.Document, repository, prepared.Updating,
+                prepared.Context);
+        }
+        await UpdateWordIndexAsync(repository, prepared.Document.Id, true,
+            cancel);
+
+        // analyze structures from unfiltered text (only if requested)
+        if ((Contents & IndexContents.Structures) != 0)
+        {
+            EnsureSameLength(prepared.Text, prepared.FilteredText);
+            AddStructures(components.StructureParsers, prepared.Text,
+                prepared.Document, repository, prepared.Updating,
+                prepared.Context);
         }
-        return await reader.ReadToEndAsync();
     }
 
     /// <summary>
@@ -341,7 +495,7 @@ public sealed class IndexBuilder
     {
         ArgumentNullException.ThrowIfNull(cache);
 
-        CreateComponents();
+        IndexComponentSet components = CreateComponents();
 
         // get the source collector to get text sources
         ISourceCollector? collector = _factory.GetSourceCollector();
@@ -380,31 +534,33 @@ public sealed class IndexBuilder
             }
 
             // parse and add document's metadata
-            string? text = await _textRetriever!.GetAsync(document);
+            string? text = await components.TextRetriever.GetAsync(document);
             if (text == null) continue;
 
             // extract metadata from it (unfiltered)
-            ParseMetadata(text, document);
+            ParseMetadata(components, text, document);
 
             // store document (with content if required)
             if (IsContentStored) document.Content = text;
             _repository.AddDocument(document, IsContentStored, true);
 
             // tokenize the filtered text
-            string filteredText = await GetFilteredText(text);
+            string filteredText = await TextFilterChain.ApplyAsync(
+                components.TextFilters, text, null, cancel);
             using (TextReader reader = new StringReader(filteredText))
             {
-                _tokenizer!.Start(reader, document.Id);
+                ITokenizer tokenizer = components.Tokenizer;
+                tokenizer.Start(reader, document.Id);
 
                 List<TextSpan> tokens = [];
-                while (await _tokenizer.NextAsync())
+                while (await tokenizer.NextAsync())
                 {
                     // ignore empty tokens
-                    if (string.IsNullOrEmpty(_tokenizer.CurrentToken.Value))
+                    if (string.IsNullOrEmpty(tokenizer.CurrentToken.Value))
                         continue;
 
-                    _tokenizer.CurrentToken.DocumentId = document.Id;
-                    tokens.Add(_tokenizer.CurrentToken.Clone());
+                    tokenizer.CurrentToken.DocumentId = document.Id;
+                    tokens.Add(tokenizer.CurrentToken.Clone());
                     if (tokens.Count >= 100)
                     {
                         cache.AddSpans(tokens[0].DocumentId, tokens,
@@ -438,17 +594,68 @@ public sealed class IndexBuilder
         ArgumentNullException.ThrowIfNull(profileId);
         ArgumentNullException.ThrowIfNull(source);
 
-        CreateComponents();
-
         // get the source collector to get text sources
         ISourceCollector? collector = _factory.GetSourceCollector();
         if (collector == null) return;
 
+        // opt into bulk import if requested and supported
+        IBulkSpanRepository? bulk = _repository as IBulkSpanRepository;
+        bool wasBulk = bulk?.IsBulkImportEnabled ?? false;
+        if (bulk != null)
+        {
+            bulk.IsBulkImportEnabled = IsBulkImportEnabled;
+            bulk.ImportMetrics.Reset();
+        }
+
+        try
+        {
+            if (MaxDegreeOfParallelism > 1)
+            {
+                await BuildParallel(profileId, collector.Collect(source),
+                    cancel, progress);
+            }
+            else
+            {
+                await BuildSerial(profileId, collector.Collect(source),
+                    cancel, progress);
+            }
+        }
+        finally
+        {
+            if (bulk != null) bulk.IsBulkImportEnabled = wasBulk;
+        }
+
+        // spans are tracked by the repository while adding or deleting them,
+        // while document and word counts are just recalculated
+        if (!IsDryMode && _repository is IStatisticsSnapshotRepository stats)
+        {
+            Logger?.LogInformation("Updating statistics snapshot");
+            await stats.UpdateStatisticsSnapshotAsync(WordIndexOptions != null
+                ? StatisticsSnapshotParts.Documents |
+                  StatisticsSnapshotParts.Words
+                : StatisticsSnapshotParts.Documents, CancellationToken.None);
+        }
+
+        // report import throughput
+        if (bulk != null && progress != null)
+        {
+            progress.Report(new ProgressReport
+            {
+                Message = $"Span import: {bulk.ImportMetrics}"
+            });
+        }
+    }
+
+    private async Task BuildSerial(string profileId, IEnumerable<string> sources,
+        CancellationToken cancel, IProgress<ProgressReport>? progress)
+    {
+        IndexComponentSet components = CreateComponents();
+
         // process each document from source
         int docCount = 0;
         ProgressReport? report = progress != null? new ProgressReport() : null;
 
-        foreach (string src in collector.Collect(source))
+        foreach (string src in sources)
         {
             docCount++;
 
@@ -460,10 +667,146 @@ public sealed class IndexBuilder
             }
 
             Logger?.LogInformation(src);
-            await IndexDocument(src, profileId, _repository);
+            await IndexDocument(components, src, profileId, _repository,
+                cancel);
+            LogImportMetrics();
             if (cancel.IsCancellationRequested) break;
         }
     }
+
+    private void LogImportMetrics()
+    {
+        if (_repository is IBulkSpanRepository bulk)
+        {
+            Logger?.LogInformation("Span import: {Metrics}",
+                bulk.ImportMetrics);
+        }
+    }
+
+    /// <summary>
+    /// Indexes the documents from the specified sources in parallel, via
+    /// an <see cref="IndexPipeline{T}"/>.
+    /// </summary>
+    private async Task BuildParallel(string profileId,
+        IEnumerable<string> sources, CancellationToken cancel,
+        IProgress<ProgressReport>? progress)
+    {
+        int analysisCount = MaxDegreeOfParallelism;
+        int structureCount = StructureParallelism > 0
+            ? StructureParallelism : analysisCount;
+        int capacity = PipelineCapacity > 0
+            ? PipelineCapacity : analysisCount * 2;
+        bool tokens = (Contents & IndexContents.Tokens) != 0;
+        bool structures = (Contents & IndexContents.Structures) != 0;
+
+        Logger?.LogInformation("Parallel indexing: {AnalysisCount} analysis " +
+            "worker(s), {StructureCount} structure worker(s), capacity " +
+            "{Capacity}", analysisCount, structureCount, capacity);
+
+        // stateful components are not shared: each worker has its own
+        IndexComponentSet[] components = new IndexComponentSet[analysisCount];
+        for (int i = 0; i < analysisCount; i++)
+            components[i] = CreateComponents();
+        IList<IStructureParser>[] parsers = new IList<IStructureParser>[
+            structureCount];
+        for (int i = 0; i < structureCount; i++)
+            parsers[i] = _factory.GetStructureParsers();
+
+        int docCount = 0;
+        void Done(string source)
+        {
+            int count = Interlocked.Increment(ref docCount);
+            progress?.Report(new ProgressReport
+            {
+                Count = count,
+                Message = source
+            });
+        }
+
+        IndexPipeline<PreparedDocument> pipeline = new(
+            // analyze: retrieve, filter and tokenize
+            async (n, src, token) =>
+            {
+                IndexComponentSet set = components[n];
+                Logger?.LogInformation(src);
+                PreparedDocument? doc = await PrepareDocumentAsync(set,
+                    src, profileId, _repository, token);
+                if (doc == null)
+                {
+                    Done(src);
+                    return null;
+                }
+
+                if (structures) EnsureSameLength(doc.Text, doc.FilteredText);
+
+                if (tokens)
+                {
+                    Logger?.LogInformation(
+                        "Tokenizing {DocumentId}: {DocumentTitle}",
+                        doc.Document.Id, doc.Document.Title);
+                    await TokenizeAsync(set.Tokenizer, doc.FilteredText,
+                        doc.Document.Id, doc.Context, 1000,
+                        doc.Tokens.AddRange);
+                }
+                return doc;
+            },
+            // store the document and write its tokens
+            async (doc, token) =>
+            {
+                await StoreDocumentAsync(doc, _repository, token);
+                if (tokens)
+                {
+                    WriteTokens(doc.Tokens, doc.Document, _repository,
+                        doc.Updating);
+                    LogImportMetrics();
+                }
+                await UpdateWordIndexAsync(_repository, doc.Document.Id, true,
+                    token);
+                doc.Tokens.Clear();
+            },
+            // parse structures
+            (n, doc, _) =>
+            {
+                if (structures)
+                {
+                    AddStructures(parsers[n], doc.Text, doc.Document,
+                        _repository, doc.Updating, doc.Context);
+                }
+                Done(doc.Source);
+                return Task.CompletedTask;
+            })
+        {
+            AnalysisWorkerCount = analysisCount,
+            StructureWorkerCount = structureCount,
+            Capacity = capacity
+        };
+
+        try
+        {
+            await pipeline.RunAsync(sources, cancel);
+        }
+        catch (Exception ex)
+        {
+            Logger?.LogError(ex, "Indexing aborted");
+            throw;
+        }
+    }
+
+    /// <summary>
+    /// A document being indexed.
+    /// </summary>
+    private sealed class PreparedDocument(string source, IDocument document,
+        bool updating, string text, string filteredText,
+        DataDictionary context)
+    {
+        public string Source { get; } = source;
+        public IDocument Document { get; } = document;
+        public bool Updating { get; } = updating;
+        public string Text { get; } = text;
+        public string FilteredText { get; } = filteredText;
+        public DataDictionary Context { get; } = context;
+        public List<TextSpan> Tokens { get; } = [];
+    }
 }
 
 /// <summary>
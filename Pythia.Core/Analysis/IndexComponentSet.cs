@@ -0,0 +1,86 @@
+﻿using Corpus.Core.Analysis;
+using System;
+using System.Collections.Generic;
+
+namespace Pythia.Core.Analysis;
+
+/// <summary>
+/// A set of the components used by <see cref="IndexBuilder"/> to index
+/// a document. As many of these components are stateful, each indexing
+/// worker must use its own set, as created by
+/// <see cref="Config.PythiaFactory.GetIndexComponentSet"/>.
+/// </summary>
+public sealed class IndexComponentSet
+{
+    /// <summary>
+    /// Gets the text filters.
+    /// </summary>
+    public IList<ITextFilter> TextFilters { get; }
+
+    /// <summary>
+    /// Gets the attribute parsers.
+    /// </summary>
+    public IList<IAttributeParser> AttributeParsers { get; }
+
+    /// <summary>
+    /// Gets the document sort key builder.
+    /// </summary>
+    public IDocSortKeyBuilder DocSortKeyBuilder { get; }
+
+    /// <summary>
+    /// Gets the document date value calculator.
+    /// </summary>
+    public IDocDateValueCalculator DocDateValueCalculator { get; }
+
+    /// <summary>
+    /// Gets the tokenizer with its filters.
+    /// </summary>
+    public ITokenizer Tokenizer { get; }
+
+    /// <summary>
+    /// Gets the structure parsers.
+    /// </summary>
+    public IList<IStructureParser> StructureParsers { get; }
+
+    /// <summary>
+    /// Gets the text retriever.
+    /// </summary>
+    public ITextRetriever TextRetriever { get; }
+
+    /// <summary>
+    /// Initializes a new instance of the <see cref="IndexComponentSet"/>
+    /// class.
+    /// </summary>
+    /// <param name="textFilters">The text filters.</param>
+    /// <param name="attributeParsers">The attribute parsers.</param>
+    /// <param name="docSortKeyBuilder">The document sort key builder.</param>
+    /// <param name="docDateValueCalculator">The document date value
+    /// calculator.</param>
+    /// <param name="tokenizer">The tokenizer.</param>
+    /// <param name="structureParsers">The structure parsers.</param>
+    /// <param name="textRetriever">The text retriever.</param>
+    /// <exception cref="ArgumentNullException">any argument</exception>
+    public IndexComponentSet(IList<ITextFilter> textFilters,
+        IList<IAttributeParser> attributeParsers,
+        IDocSortKeyBuilder docSortKeyBuilder,
+        IDocDateValueCalculator docDateValueCalculator,
+        ITokenizer tokenizer,
+        IList<IStructureParser> structureParsers,
+        ITextRetriever textRetriever)
+    {
+        TextFilters = textFilters
+            ?? throw new ArgumentNullException(nameof(textFilters));
+        AttributeParsers = attributeParsers
+            ?? throw new ArgumentNullException(nameof(attributeParsers));
+        DocSortKeyBuilder = docSortKeyBuilder
+            ?? throw new ArgumentNullException(nameof(docSortKeyBuilder));
+        DocDateValueCalculator = docDateValueCalculator
+            ?? throw new ArgumentNullException(nameof(docDateValueCalculator));
+        Tokenizer = tokenizer
+            ?? throw new ArgumentNullException(nameof(tokenizer));
+        StructureParsers = structureParsers
+            ?? throw new ArgumentNullException(nameof(structureParsers));
+        TextRetriever = textRetriever
+            ?? throw new ArgumentNullException(nameof(textRetriever));
+    }
+}
@@ -0,0 +1,174 @@
+﻿using System;
+using System.Collections.Generic;
+using System.Runtime.ExceptionServices;
+using System.Threading;
+using System.Threading.Channels;
+using System.Threading.Tasks;
+
+namespace Pythia.Core.Analysis;
+
+/// <summary>
+/// A bounded pipeline for indexing documents in parallel, used by
+/// <see cref="IndexBuilder"/>. A collector stage feeds the document sources
+/// to N analysis workers (retrieval, metadata, filtering and tokenization),
+/// whose output goes to a single writer; the written items then go to M
+/// structure parsing workers, as structure parsers require the tokens of
+/// their document to be already stored. Stages are connected by bounded
+/// channels, so that a stage waits when the next one lags behind.
+/// </summary>
+/// <remarks>
+/// Cancellation stops collecting new sources, and analysis workers stop
+/// taking new documents; documents already analyzed are still written and
+/// parsed, so that no document is left with tokens and no structures.
+/// An error in any stage instead aborts all the stages and is rethrown.
+/// </remarks>
+/// <typeparam name="T">The type of the analyzed document.</typeparam>
+/// <param name="analyze">The analysis function, receiving the worker's
+/// number, the document's source and the cancellation token, and returning
+/// the analyzed document, or null to skip it.</param>
+/// <param name="write">The write function.</param>
+/// <param name="parse">The structure parsing function, receiving the
+/// worker's number and the written document.</param>
+public sealed class IndexPipeline<T>(
+    Func<int, string, CancellationToken, Task<T?>> analyze,
+    Func<T, CancellationToken, Task> write,
+    Func<int, T, CancellationToken, Task> parse) where T : class
+{
+    private readonly Func<int, string, CancellationToken, Task<T?>> _analyze
+        = analyze ?? throw new ArgumentNullException(nameof(analyze));
+    private readonly Func<T, CancellationToken, Task> _write
+        = write ?? throw new ArgumentNullException(nameof(write));
+    private readonly Func<int, T, CancellationToken, Task> _parse
+        = parse ?? throw new ArgumentNullException(nameof(parse));
+
+    /// <summary>
+    /// Gets or sets the count of analysis workers. Default is 1.
+    /// </summary>
+    public int AnalysisWorkerCount { get; set; } = 1;
+
+    /// <summary>
+    /// Gets or sets the count of structure parsing workers. Default is 1.
+    /// </summary>
+    public int StructureWorkerCount { get; set; } = 1;
+
+    /// <summary>
+    /// Gets or sets the maximum count of items queued between two stages.
+    /// Default is 2.
+    /// </summary>
+    public int Capacity { get; set; } = 2;
+
+    private static Channel<TItem> CreateChannel<TItem>(int capacity) =>
+        Channel.CreateBounded<TItem>(new BoundedChannelOptions(capacity)
+        {
+            FullMode = BoundedChannelFullMode.Wait
+        });
+
+    /// <summary>
+    /// Runs the pipeline on the specified sources.
+    /// </summary>
+    /// <param name="sources">The documents sources.</param>
+    /// <param name="cancel">The cancellation token.</param>
+    /// <exception cref="ArgumentNullException">sources</exception>
+    public async Task RunAsync(IEnumerable<string> sources,
+        CancellationToken cancel)
+    {
+        ArgumentNullException.ThrowIfNull(sources);
+
+        Channel<string> collected = CreateChannel<string>(Capacity);
+        Channel<T> analyzed = CreateChannel<T>(Capacity);
+        Channel<T> written = CreateChannel<T>(Capacity);
+
+        // abort is used for errors; stop also for cancellation, and is
+        // used only by the stages which should not drain their input
+        using CancellationTokenSource abort = new();
+        using CancellationTokenSource stop =
+            CancellationTokenSource.CreateLinkedTokenSource(cancel,
+            abort.Token);
+        object locker = new();
+        Exception? error = null;
+
+        void Fail(Exception ex)
+        {
+            lock (locker) error ??= ex;
+            abort.Cancel();
+        }
+
+        async Task RunStage(int workerCount, Func<int, Task> worker,
+            Action complete)
+        {
+            Task[] tasks = new Task[workerCount];
+            for (int i = 0; i < workerCount; i++)
+            {
+                int n = i;
+                tasks[i] = Task.Run(async () =>
+                {
+                    try
+                    {
+                        await worker(n);
+                    }
+                    catch (OperationCanceledException)
+                        when (stop.IsCancellationRequested)
+                    {
+                        // cancelled, or another stage failed
+                    }
+                    catch (Exception ex)
+                    {
+                        Fail(ex);
+                    }
+                });
+            }
+            await Task.WhenAll(tasks);
+            complete();
+        }
+
+        // collect
+        Task collecting = RunStage(1, async _ =>
+        {
+            foreach (string source in sources)
+            {
+                stop.Token.ThrowIfCancellationRequested();
+                await collected.Writer.WriteAsync(source, stop.Token);
+            }
+        }, () => collected.Writer.TryComplete());
+
+        // analyze: no new document is started once cancelled
+        Task analyzing = RunStage(Math.Max(1, AnalysisWorkerCount),
+            async n =>
+        {
+            await foreach (string source in collected.Reader.ReadAllAsync(
+                stop.Token))
+            {
+                stop.Token.ThrowIfCancellationRequested();
+                T? item = await _analyze(n, source, stop.Token);
+                if (item != null)
+                    await analyzed.Writer.WriteAsync(item, abort.Token);
+            }
+        }, () => analyzed.Writer.TryComplete());
+
+        // write: a single writer keeps the repository load bounded
+        Task writing = RunStage(1, async _ =>
+        {
+            await foreach (T item in analyzed.Reader.ReadAllAsync(
+                abort.Token))
+            {
+                await _write(item, abort.Token);
+                await written.Writer.WriteAsync(item, abort.Token);
+            }
+        }, () => written.Writer.TryComplete());
+
+        // parse structures
+        Task parsing = RunStage(Math.Max(1, StructureWorkerCount),
+            async n =>
+        {
+            await foreach (T item in written.Reader.ReadAllAsync(
+                abort.Token))
+            {
+                await _parse(n, item, abort.Token);
+            }
+        }, () => { });
+
+        await Task.WhenAll(collecting, analyzing, writing, parsing);
+
+        if (error != null) ExceptionDispatchInfo.Capture(error).Throw();
+    }
+}
@@ -220,6 +220,22 @@ public sealed class PythiaFactory : ComponentFactory
         return parsers;
     }
 
+    /// <summary>
+    /// Gets a new set of all the components used to index a document.
+    /// As components are created anew at each request, each call to this
+    /// method returns a distinct set, so that indexing workers running
+    /// in parallel never share stateful components.
+    /// </summary>
+    /// <returns>Components set.</returns>
+    public IndexComponentSet GetIndexComponentSet() => new(
+        GetTextFilters(),
+        GetAttributeParsers(),
+        GetDocSortKeyBuilder(),
+        GetDocDateValueCalculator(),
+        GetTokenizer(),
+        GetStructureParsers(),
+        GetTextRetriever());
+
     /// <summary>
     /// Gets the source collector.
     /// </summary>
@@ -0,0 +1,21 @@
+﻿namespace Pythia.Core;
+
+/// <summary>
+/// Optional interface implemented by index repositories which support
+/// a bulk import mode for spans. When bulk import is enabled, calls to
+/// <see cref="IIndexRepository.AddSpans"/> are streamed to the database
+/// in bulk rather than inserted row by row.
+/// </summary>
+public interface IBulkSpanRepository
+{
+    /// <summary>
+    /// Gets or sets a value indicating whether spans are imported in bulk.
+    /// </summary>
+    bool IsBulkImportEnabled { get; set; }
+
+    /// <summary>
+    /// Gets the metrics collected while importing spans, either in bulk
+    /// or row by row.
+    /// </summary>
+    SpanImportMetrics ImportMetrics { get; }
+}
@@ -0,0 +1,51 @@
+﻿using System.Threading;
+using System.Threading.Tasks;
+
+namespace Pythia.Core;
+
+/// <summary>
+/// Optional interface implemented by index repositories which can update
+/// the words index incrementally, one document at a time, rather than
+/// rebuilding it from all the token spans. Each document contributes
+/// its word and lemma counts, and its counts for each document attribute
+/// pair, which are added when the document is indexed and subtracted
+/// before it is removed or reindexed.
+/// </summary>
+/// <remarks>Numeric document attributes are counted in the bins created
+/// by the last full build of the words index: values falling outside
+/// them are not counted until the index is rebuilt. A full build is thus
+/// still the reference, and can be used to check and fix the index.
+/// </remarks>
+public interface IIncrementalWordIndexRepository
+{
+    /// <summary>
+    /// Adds to the words index the words of the specified document. Call
+    /// this after the document and its token spans have been stored.
+    /// </summary>
+    /// <param name="documentId">The document identifier.</param>
+    /// <param name="options">The words index options.</param>
+    /// <param name="cancel">The cancellation token.</param>
+    Task AddDocumentWordsAsync(int documentId, WordIndexOptions options,
+        CancellationToken cancel);
+
+    /// <summary>
+    /// Removes from the words index the words of the specified document.
+    /// Call this before the document's attributes or token spans are
+    /// changed or deleted. Words and lemmata whose count drops to 0 are
+    /// removed.
+    /// </summary>
+    /// <param name="documentId">The document identifier.</param>
+    /// <param name="options">The words index options.</param>
+    /// <param name="cancel">The cancellation token.</param>
+    Task RemoveDocumentWordsAsync(int documentId, WordIndexOptions options,
+        CancellationToken cancel);
+
+    /// <summary>
+    /// Checks the consistency of the words index, comparing the count of
+    /// each word and lemma with the count of the token spans linked to it.
+    /// </summary>
+    /// <param name="cancel">The cancellation token.</param>
+    /// <returns>The count of words and lemmata whose count does not match.
+    /// </returns>
+    Task<int> CheckWordIndexAsync(CancellationToken cancel = default);
+}
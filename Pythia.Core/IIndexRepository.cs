@@ -105,9 +105,106 @@ public interface IIndexRepository : ICorpusRepository
     /// <param name="literalFilters">The optional filters to apply to literal
     /// values in the query text.</param>
     /// <returns>The results page.</returns>
-    DataPage<SearchResult> Search(SearchRequest request,
+    SearchDataPage<SearchResult> Search(SearchRequest request,
         IList<ILiteralFilter>? literalFilters = null);
 
+    /// <summary>
+    /// Searches the index using the specified query asynchronously.
+    /// Cancelling <paramref name="cancel"/> cancels the query being executed
+    /// by the database.
+    /// </summary>
+    /// <param name="request">The query request.</param>
+    /// <param name="literalFilters">The optional filters to apply to literal
+    /// values in the query text.</param>
+    /// <param name="cancel">The cancellation token.</param>
+    /// <returns>The results page.</returns>
+    Task<SearchDataPage<SearchResult>> SearchAsync(SearchRequest request,
+        IList<ILiteralFilter>? literalFilters = null,
+        CancellationToken cancel = default);
+
+    /// <summary>
+    /// Gets the exact total count of results for the specified query.
+    /// This is used to get the count deferred by a search using
+    /// <see cref="SearchCountStrategy.Deferred"/>.
+    /// </summary>
+    /// <param name="request">The query request. Only its query is used.
+    /// </param>
+    /// <param name="literalFilters">The optional filters to apply to literal
+    /// values in the query text.</param>
+    /// <returns>Count.</returns>
+    int GetSearchCount(SearchRequest request,
+        IList<ILiteralFilter>? literalFilters = null);
+
+    /// <summary>
+    /// Gets the exact total count of results for the specified query
+    /// asynchronously. Cancelling <paramref name="cancel"/> cancels the
+    /// query being executed by the database.
+    /// </summary>
+    /// <param name="request">The query request. Only its query is used.
+    /// </param>
+    /// <param name="literalFilters">The optional filters to apply to literal
+    /// values in the query text.</param>
+    /// <param name="cancel">The cancellation token.</param>
+    /// <returns>Count.</returns>
+    Task<int> GetSearchCountAsync(SearchRequest request,
+        IList<ILiteralFilter>? literalFilters = null,
+        CancellationToken cancel = default);
+
+    /// <summary>
+    /// Searches the index using the specified query, paging results by
+    /// seeking after the specified continuation token rather than by
+    /// offset. Results are sorted by document's sort key, document ID,
+    /// position and ID, so the request's sort fields and page number
+    /// are ignored.
+    /// </summary>
+    /// <param name="request">The query request. Its page size is the
+    /// count of results to get.</param>
+    /// <param name="continuationToken">The continuation token got from the
+    /// previous page, or null to get the first page.</param>
+    /// <param name="literalFilters">The optional filters to apply to literal
+    /// values in the query text.</param>
+    /// <returns>The results page. Its total is calculated only for the
+    /// first page.</returns>
+    KeysetPage<SearchResult> SearchAfter(SearchRequest request,
+        string? continuationToken,
+        IList<ILiteralFilter>? literalFilters = null);
+
+    /// <summary>
+    /// Searches the index using the specified query asynchronously, paging
+    /// results like <see cref="SearchAfter"/>. Cancelling
+    /// <paramref name="cancel"/> cancels the query being executed by the
+    /// database.
+    /// </summary>
+    /// <param name="request">The query request. Its page size is the
+    /// count of results to get.</param>
+    /// <param name="continuationToken">The continuation token got from the
+    /// previous page, or null to get the first page.</param>
+    /// <param name="literalFilters">The optional filters to apply to literal
+    /// values in the query text.</param>
+    /// <param name="cancel">The cancellation token.</param>
+    /// <returns>The results page. Its total is calculated only for the
+    /// first page.</returns>
+    Task<KeysetPage<SearchResult>> SearchAfterAsync(SearchRequest request,
+        string? continuationToken,
+        IList<ILiteralFilter>? literalFilters = null,
+        CancellationToken cancel = default);
+
+    /// <summary>
+    /// Streams all the results of the specified query, sorted like in
+    /// <see cref="SearchAfter"/>. The query is run once, and results are
+    /// yielded while they are read, so that consumers like exports can
+    /// walk any count of results in constant memory.
+    /// </summary>
+    /// <param name="request">The query request. Only its query is used.
+    /// </param>
+    /// <param name="literalFilters">The optional filters to apply to literal
+    /// values in the query text.</param>
+    /// <param name="cancel">The cancellation token.</param>
+    /// <returns>Results.</returns>
+    IAsyncEnumerable<SearchResult> StreamSearchAsync(SearchRequest request,
+        IList<ILiteralFilter>? literalFilters = null,
+        CancellationToken cancel = default);
+
     /// <summary>
     /// Gets the context for the specified result(s).
     /// </summary>
@@ -118,6 +215,18 @@ public interface IIndexRepository : ICorpusRepository
     IList<KwicSearchResult> GetResultContext(IList<SearchResult> results,
         int contextSize);
 
+    /// <summary>
+    /// Gets the context for the specified result(s) asynchronously.
+    /// </summary>
+    /// <param name="results">The results to get context for.</param>
+    /// <param name="contextSize">Size of the context: e.g. if 5, you will
+    /// get 5 tokens to the left and 5 to the right.</param>
+    /// <param name="cancel">The cancellation token.</param>
+    /// <returns>results with context</returns>
+    Task<IList<KwicSearchResult>> GetResultContextAsync(
+        IList<SearchResult> results, int contextSize,
+        CancellationToken cancel = default);
+
     /// <summary>
     /// Gets the specified page of words.
     /// </summary>
@@ -125,6 +234,15 @@ public interface IIndexRepository : ICorpusRepository
     /// <returns>The results page.</returns>
     DataPage<Word> GetWords(WordFilter filter);
 
+    /// <summary>
+    /// Gets the specified page of words asynchronously.
+    /// </summary>
+    /// <param name="filter">The words filter.</param>
+    /// <param name="cancel">The cancellation token.</param>
+    /// <returns>The results page.</returns>
+    Task<DataPage<Word>> GetWordsAsync(WordFilter filter,
+        CancellationToken cancel = default);
+
     /// <summary>
     /// Gets the word or lemma counts for the subset of documents having
     /// the specified attribute name and any of its values. The counts are
@@ -144,12 +262,29 @@ public interface IIndexRepository : ICorpusRepository
     /// <returns>The results page.</returns>
     DataPage<Lemma> GetLemmata(LemmaFilter filter);
 
+    /// <summary>
+    /// Gets the specified page of lemmata asynchronously.
+    /// </summary>
+    /// <param name="filter">The filter.</param>
+    /// <param name="cancel">The cancellation token.</param>
+    /// <returns>The results page.</returns>
+    Task<DataPage<Lemma>> GetLemmataAsync(LemmaFilter filter,
+        CancellationToken cancel = default);
+
     /// <summary>
     /// Gets statistics about the index.
     /// </summary>
     /// <returns>Dictionary with statistics.</returns>
     IDictionary<string, double> GetStatistics();
 
+    /// <summary>
+    /// Gets statistics about the index asynchronously.
+    /// </summary>
+    /// <param name="cancel">The cancellation token.</param>
+    /// <returns>Dictionary with statistics.</returns>
+    Task<IDictionary<string, double>> GetStatisticsAsync(
+        CancellationToken cancel = default);
+
     /// <summary>
     /// Gets all the document name=value pairs to be used when filling
     /// word and lemma document counts.
@@ -165,10 +300,12 @@ public interface IIndexRepository : ICorpusRepository
     /// attributes to be excluded from the pairs. All the names of
     /// non-categorical attributes (like e.g. the file path of a document,
     /// which is unique for each document) should be excluded.</param>
+    /// <param name="cancel">The cancellation token.</param>
     /// <returns>Built pairs.</returns>
     public Task<IList<DocumentPair>> GetDocumentPairsAsync(
         IDictionary<string, int> binCounts,
-        HashSet<string> excludedAttrNames);
+        HashSet<string> excludedAttrNames,
+        CancellationToken cancel = default);
 
     /// <summary>
     /// Builds the words index basing on tokens.
@@ -0,0 +1,46 @@
+﻿using System.Threading;
+using System.Threading.Tasks;
+
+namespace Pythia.Core;
+
+/// <summary>
+/// Optional interface implemented by index repositories which store a
+/// snapshot of the index statistics, so that they can be read without
+/// scanning the whole index as <see cref="IIndexRepository.GetStatistics"/>
+/// does. Once refreshed, the snapshot is kept up to date: span counts are
+/// updated incrementally whenever spans and their attributes are added or
+/// deleted, while the cheaper document and word counts are updated by
+/// indexing and words index builds.
+/// </summary>
+/// <remarks>Deleting a document also updates the snapshot. Changes made
+/// by other means (e.g. deleting rows directly in the database) are not
+/// tracked: a full refresh realigns the snapshot
+/// with the index.</remarks>
+public interface IStatisticsSnapshotRepository
+{
+    /// <summary>
+    /// Gets the statistics snapshot.
+    /// </summary>
+    /// <param name="cancel">The cancellation token.</param>
+    /// <returns>The snapshot, or null if it was never refreshed.</returns>
+    Task<StatisticsSnapshot?> GetStatisticsSnapshotAsync(
+        CancellationToken cancel = default);
+
+    /// <summary>
+    /// Fully refreshes the statistics snapshot from the index, creating it
+    /// if it does not exist.
+    /// </summary>
+    /// <param name="cancel">The cancellation token.</param>
+    /// <returns>The refreshed snapshot.</returns>
+    Task<StatisticsSnapshot> RefreshStatisticsSnapshotAsync(
+        CancellationToken cancel = default);
+
+    /// <summary>
+    /// Recalculates the specified parts of the statistics snapshot. This
+    /// does nothing if the snapshot was never refreshed.
+    /// </summary>
+    /// <param name="parts">The parts to recalculate.</param>
+    /// <param name="cancel">The cancellation token.</param>
+    Task UpdateStatisticsSnapshotAsync(StatisticsSnapshotParts parts,
+        CancellationToken cancel = default);
+}
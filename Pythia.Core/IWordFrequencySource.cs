@@ -0,0 +1,39 @@
+﻿using System.Collections.Generic;
+
+namespace Pythia.Core;
+
+/// <summary>
+/// Optional interface implemented by index repositories which can stream
+/// the whole words and lemmata index, as required to load a
+/// <see cref="WordFrequencyStore"/>.
+/// </summary>
+public interface IWordFrequencySource
+{
+    /// <summary>
+    /// Gets a signature of the current state of the words and lemmata index.
+    /// The signature changes whenever the index is rebuilt or updated, so
+    /// that it can be used to detect stale copies of it.
+    /// </summary>
+    /// <returns>Signature.</returns>
+    string GetWordIndexSignature();
+
+    /// <summary>
+    /// Enumerates all the words.
+    /// </summary>
+    /// <returns>Words.</returns>
+    IEnumerable<Word> EnumerateWords();
+
+    /// <summary>
+    /// Enumerates all the lemmata.
+    /// </summary>
+    /// <returns>Lemmata.</returns>
+    IEnumerable<Lemma> EnumerateLemmata();
+
+    /// <summary>
+    /// Enumerates all the non-zero word or lemma counts.
+    /// </summary>
+    /// <param name="lemma">if set to <c>true</c> enumerate lemma counts,
+    /// else enumerate word counts.</param>
+    /// <returns>Counts.</returns>
+    IEnumerable<TokenCount> EnumerateTokenCounts(bool lemma);
+}
@@ -0,0 +1,169 @@
+﻿using Pythia.Core.Query;
+using System;
+using System.Collections.Generic;
+
+namespace Pythia.Core.Index;
+
+/// <summary>
+/// Streaming merge join evaluating a location operator between two
+/// sequences of spans, both sorted by document and then by start position.
+/// The right spans of each document are buffered once, and for each left
+/// span only the window of right spans whose positions can match is
+/// tested, using <see cref="SpanDistanceCalculator"/> for the semantics
+/// of the operator.
+/// </summary>
+public static class LocationMergeJoin
+{
+    private static bool IsMatch(int a1, int a2, int b1, int b2,
+        PositionalLocop locop)
+    {
+        return locop.Operator switch
+        {
+            pythiaLexer.NEAR => SpanDistanceCalculator.IsNearWithin(
+                a1, a2, b1, b2, locop.N, locop.M),
+            pythiaLexer.BEFORE => SpanDistanceCalculator.IsBeforeWithin(
+                a1, a2, b1, b2, locop.N, locop.M),
+            pythiaLexer.AFTER => SpanDistanceCalculator.IsAfterWithin(
+                a1, a2, b1, b2, locop.N, locop.M),
+            pythiaLexer.OVERLAPS => SpanDistanceCalculator.IsOverlapWithin(
+                a1, a2, b1, b2, locop.N, locop.M),
+            pythiaLexer.INSIDE => SpanDistanceCalculator.IsInsideWithin(
+                a1, a2, b1, b2, locop.Ns, locop.Ms, locop.Ne, locop.Me),
+            pythiaLexer.LALIGN => SpanDistanceCalculator.IsLeftAligned(
+                a1, b1, locop.N, locop.M),
+            pythiaLexer.RALIGN => SpanDistanceCalculator.IsRightAligned(
+                a2, b2, locop.N, locop.M),
+            _ => throw new ArgumentException(
+                "Unknown location operator: " + locop.Operator, nameof(locop))
+        };
+    }
+
+    private static bool ScanWindow(int a1, int a2,
+        List<(int P1, int P2)> right, long min, long max,
+        PositionalLocop locop)
+    {
+        if (min > max) return false;
+
+        // find the first right span with P1 >= min
+        int lo = 0, hi = right.Count;
+        while (lo < hi)
+        {
+            int mid = lo + ((hi - lo) >> 1);
+            if (right[mid].P1 < min) lo = mid + 1;
+            else hi = mid;
+        }
+
+        for (int i = lo; i < right.Count && right[i].P1 <= max; i++)
+        {
+            if (IsMatch(a1, a2, right[i].P1, right[i].P2, locop)) return true;
+        }
+        return false;
+    }
+
+    private static bool HasMatch(int a1, int a2, List<(int P1, int P2)> right,
+        int maxLength, PositionalLocop locop)
+    {
+        // the window of right P1 values which can match a; when the
+        // constraint is on right P2, the window is widened by the max
+        // length of right spans in the document
+        switch (locop.Operator)
+        {
+            case pythiaLexer.BEFORE:
+                return ScanWindow(a1, a2, right,
+                    a2 + 1L + locop.N, a2 + 1L + locop.M, locop);
+            case pythiaLexer.AFTER:
+                return ScanWindow(a1, a2, right,
+                    a1 - 1L - locop.M - maxLength, a1 - 1L - locop.N, locop);
+            case pythiaLexer.NEAR:
+                return ScanWindow(a1, a2, right,
+                        a2 + 1L + locop.N, a2 + 1L + locop.M, locop)
+                    || ScanWindow(a1, a2, right,
+                        a1 - 1L - locop.M - maxLength, a1 - 1L - locop.N, locop);
+            case pythiaLexer.OVERLAPS:
+                return ScanWindow(a1, a2, right,
+                    (long)a1 - maxLength, a2, locop);
+            case pythiaLexer.INSIDE:
+                return ScanWindow(a1, a2, right,
+                    (long)a1 - locop.Ms, (long)a1 - locop.Ns, locop);
+            case pythiaLexer.LALIGN:
+                return ScanWindow(a1, a2, right,
+                    (long)a1 - locop.M, (long)a1 - locop.N, locop);
+            case pythiaLexer.RALIGN:
+                return ScanWindow(a1, a2, right,
+                    (long)a2 + locop.N - maxLength, (long)a2 + locop.M, locop);
+            default:
+                throw new ArgumentException(
+                    "Unknown location operator: " + locop.Operator,
+                    nameof(locop));
+        }
+    }
+
+    /// <summary>
+    /// Gets the spans of the left sequence which are (or, for negated
+    /// operators, are not) in the specified location relative to any of
+    /// the spans of the right sequence in the same document. Both sequences
+    /// are enumerated once and in parallel, so they can be streamed from
+    /// their source.
+    /// </summary>
+    /// <typeparam name="T">The type of the spans.</typeparam>
+    /// <param name="left">The left spans, sorted by document.</param>
+    /// <param name="right">The right spans, sorted by document and then
+    /// by start position.</param>
+    /// <param name="locop">The location operator.</param>
+    /// <param name="locate">The function used to get the document number,
+    /// the start and the end position of a span. Document numbers must
+    /// grow in the same order in both sequences.</param>
+    /// <returns>Spans from <paramref name="left"/>, in their order.</returns>
+    /// <exception cref="ArgumentNullException">left, right or locate
+    /// </exception>
+    public static IEnumerable<T> Join<T>(IEnumerable<T> left,
+        IEnumerable<T> right, PositionalLocop locop,
+        Func<T, (int Document, int P1, int P2)> locate)
+    {
+        ArgumentNullException.ThrowIfNull(left);
+        ArgumentNullException.ThrowIfNull(right);
+        ArgumentNullException.ThrowIfNull(locate);
+
+        return JoinIterator(left, right, locop, locate);
+    }
+
+    private static IEnumerable<T> JoinIterator<T>(IEnumerable<T> left,
+        IEnumerable<T> right, PositionalLocop locop,
+        Func<T, (int Document, int P1, int P2)> locate)
+    {
+        using IEnumerator<T> r = right.GetEnumerator();
+        bool hasRight = r.MoveNext();
+
+        // the right spans in the current document, sorted by P1
+        List<(int P1, int P2)> window = [];
+        int windowDocument = 0, maxLength = 0;
+        bool hasWindow = false;
+
+        foreach (T item in left)
+        {
+            (int document, int a1, int a2) = locate(item);
+
+            if (!hasWindow || document != windowDocument)
+            {
+                window.Clear();
+                maxLength = 0;
+                while (hasRight && locate(r.Current).Document < document)
+                    hasRight = r.MoveNext();
+                while (hasRight)
+                {
+                    (int d, int b1, int b2) = locate(r.Current);
+                    if (d != document) break;
+                    window.Add((b1, b2));
+                    maxLength = Math.Max(maxLength, b2 - b1);
+                    hasRight = r.MoveNext();
+                }
+                windowDocument = document;
+                hasWindow = true;
+            }
+
+            bool match = window.Count > 0 &&
+                HasMatch(a1, a2, window, maxLength, locop);
+            if (match != locop.IsNegated) yield return item;
+        }
+    }
+}
@@ -0,0 +1,468 @@
+﻿using System;
+using System.Buffers;
+using System.Collections.Generic;
+using System.IO;
+using System.IO.MemoryMappedFiles;
+using System.Text;
+
+namespace Pythia.Core.Index;
+
+/// <summary>
+/// Read-only positional inverted index, memory-mapped from a file written
+/// by <see cref="PositionalIndexWriter"/>. The index has a posting list
+/// for each span type, and for each value of the privileged text
+/// attributes (value, lemma, pos, language, text) and of non-privileged
+/// attributes in each span type. Postings are delta and variable-length
+/// encoded, and sorted by span ordinal, which follows the order of search
+/// results. Documents are stored in the order of the database they come
+/// from, so that both share the same order of results.
+/// </summary>
+/// <remarks>
+/// <para>The file has these sections, in this order:</para>
+/// <list type="number">
+/// <item>header: magic, version, counts of documents, spans and terms,
+/// offsets of the following sections, and the count and latest last
+/// modified time of the source documents;</item>
+/// <item>documents: ID and references to author, title and sort key,
+/// in the order of the source database (sort key and ID);</item>
+/// <item>spans: ID, document ordinal, P1, P2, index, length, and
+/// references to type and value, in ordinal order;</item>
+/// <item>terms: reference to key, posting count, offset and length,
+/// sorted by lowercase key;</item>
+/// <item>postings: for each posting, the deltas of ordinal and document
+/// ordinal, P1 (a delta when in the same document) and P2-P1;</item>
+/// <item>strings: length-prefixed UTF-8 strings, referenced by their
+/// offset in this section.</item>
+/// </list>
+/// <para>All the read members of this class are thread-safe.</para>
+/// </remarks>
+public sealed class PositionalIndex : IDisposable
+{
+    /// <summary>
+    /// The file format version.
+    /// </summary>
+    public const int VERSION = 2;
+
+    internal const int MAGIC = 0x58505950;
+    internal const int HEADER_SIZE = 72;
+    internal const int DOCUMENT_SIZE = 16;
+    internal const int SPAN_SIZE = 32;
+    internal const int TERM_SIZE = 20;
+
+    // span record field offsets
+    internal const int SPAN_ID = 0;
+    internal const int SPAN_DOCUMENT = 4;
+    internal const int SPAN_P1 = 8;
+    internal const int SPAN_P2 = 12;
+    internal const int SPAN_INDEX = 16;
+    internal const int SPAN_LENGTH = 20;
+    internal const int SPAN_TYPE = 24;
+    internal const int SPAN_VALUE = 28;
+
+    // term keys are type + TYPE_SEP + field + FIELD_SEP + value; the
+    // type's own postings have an empty field and value, and attribute
+    // names are the values of NAME_FIELD
+    internal const char TYPE_SEP = '\u001e';
+    internal const char FIELD_SEP = '\u001f';
+    internal const string NAME_FIELD = "\u0001";
+
+    private readonly MemoryMappedFile _file;
+    private readonly MemoryMappedViewAccessor _view;
+    private readonly long _documentsOffset;
+    private readonly long _spansOffset;
+    private readonly long _termsOffset;
+    private readonly long _postingsOffset;
+    private readonly long _stringsOffset;
+    // lowercase keys, and original keys only when different
+    private readonly string[] _keys;
+    private readonly string?[] _originalKeys;
+    private readonly Dictionary<int, int> _documentOrdinals;
+    // the last check of the source database
+    private readonly object _checkLocker = new();
+    private DateTime _nextCheck;
+    private bool _stale;
+    private bool _disposed;
+
+    /// <summary>
+    /// Gets the index file path.
+    /// </summary>
+    public string FilePath { get; }
+
+    /// <summary>
+    /// Gets the count of documents.
+    /// </summary>
+    public int DocumentCount { get; }
+
+    /// <summary>
+    /// Gets the count of spans.
+    /// </summary>
+    public int SpanCount { get; }
+
+    /// <summary>
+    /// Gets the count of terms.
+    /// </summary>
+    public int TermCount => _keys.Length;
+
+    /// <summary>
+    /// Gets the count of the documents in the source database when this
+    /// index was built.
+    /// </summary>
+    public int SourceDocumentCount { get; }
+
+    /// <summary>
+    /// Gets the latest last modified time of the documents in the source
+    /// database when this index was built.
+    /// </summary>
+    public DateTime SourceLastModified { get; }
+
+    /// <summary>
+    /// Initializes a new instance of the <see cref="PositionalIndex"/> class,
+    /// opening the specified file. Only the terms and documents lists are
+    /// loaded in memory, while postings and spans are read from the mapped
+    /// file when required.
+    /// </summary>
+    /// <param name="path">The index file path.</param>
+    /// <exception cref="ArgumentNullException">path</exception>
+    /// <exception cref="InvalidDataException">not a positional index file
+    /// or unsupported version</exception>
+    public PositionalIndex(string path)
+    {
+        FilePath = path ?? throw new ArgumentNullException(nameof(path));
+
+        _file = MemoryMappedFile.CreateFromFile(path, FileMode.Open, null, 0,
+            MemoryMappedFileAccess.Read);
+        _view = _file.CreateViewAccessor(0, 0, MemoryMappedFileAccess.Read);
+
+        if (_view.Capacity < HEADER_SIZE || _view.ReadInt32(0) != MAGIC ||
+            _view.ReadInt32(4) != VERSION)
+        {
+            Dispose();
+            throw new InvalidDataException(
+                "Invalid or unsupported positional index file: " + path);
+        }
+
+        DocumentCount = _view.ReadInt32(8);
+        SpanCount = _view.ReadInt32(12);
+        int termCount = _view.ReadInt32(16);
+        _documentsOffset = _view.ReadInt64(20);
+        _spansOffset = _view.ReadInt64(28);
+        _termsOffset = _view.ReadInt64(36);
+        _postingsOffset = _view.ReadInt64(44);
+        _stringsOffset = _view.ReadInt64(52);
+        SourceDocumentCount = _view.ReadInt32(60);
+        SourceLastModified = new DateTime(_view.ReadInt64(64));
+
+        // terms
+        _keys = new string[termCount];
+        _originalKeys = new string?[termCount];
+        for (int i = 0; i < termCount; i++)
+        {
+            string key = ReadString(_view.ReadInt32(
+                _termsOffset + (long)i * TERM_SIZE))!;
+            string lower = key.ToLowerInvariant();
+            _keys[i] = lower;
+            if (lower != key) _originalKeys[i] = key;
+        }
+
+        // documents
+        _documentOrdinals = new Dictionary<int, int>(DocumentCount);
+        for (int i = 0; i < DocumentCount; i++)
+        {
+            _documentOrdinals[_view.ReadInt32(
+                _documentsOffset + (long)i * DOCUMENT_SIZE)] = i;
+        }
+    }
+
+    internal static string GetKey(string type, string field, string value) =>
+        type + TYPE_SEP + field + FIELD_SEP + value;
+
+    private string? ReadString(int reference)
+    {
+        if (reference < 0) return null;
+
+        long offset = _stringsOffset + reference;
+        int length = 0, shift = 0;
+        byte b;
+        do
+        {
+            b = _view.ReadByte(offset++);
+            length |= (b & 0x7F) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+
+        if (length == 0) return "";
+        byte[] buffer = ArrayPool<byte>.Shared.Rent(length);
+        try
+        {
+            _view.ReadArray(offset, buffer, 0, length);
+            return Encoding.UTF8.GetString(buffer, 0, length);
+        }
+        finally
+        {
+            ArrayPool<byte>.Shared.Return(buffer);
+        }
+    }
+
+    private PositionalPosting[] ReadPostings(int term)
+    {
+        long offset = _termsOffset + (long)term * TERM_SIZE;
+        int count = _view.ReadInt32(offset + 4);
+        long start = _view.ReadInt64(offset + 8);
+        int length = _view.ReadInt32(offset + 16);
+
+        PositionalPosting[] postings = new PositionalPosting[count];
+        byte[] buffer = ArrayPool<byte>.Shared.Rent(length);
+        try
+        {
+            _view.ReadArray(_postingsOffset + start, buffer, 0, length);
+            ReadOnlySpan<byte> data = buffer.AsSpan(0, length);
+
+            int position = 0, ordinal = 0, document = 0, p1 = 0;
+            for (int i = 0; i < count; i++)
+            {
+                ordinal += (int)VarInt.Read(data, ref position);
+                int documentDelta = (int)VarInt.Read(data, ref position);
+                document += documentDelta;
+                int p = (int)VarInt.Read(data, ref position);
+                p1 = documentDelta == 0 ? p1 + p : p;
+                int p2 = p1 + (int)VarInt.Read(data, ref position);
+                postings[i] = new PositionalPosting(ordinal, document, p1, p2);
+            }
+        }
+        finally
+        {
+            ArrayPool<byte>.Shared.Return(buffer);
+        }
+        return postings;
+    }
+
+    private int FindFirst(string key)
+    {
+        int lo = 0, hi = _keys.Length;
+        while (lo < hi)
+        {
+            int mid = lo + ((hi - lo) >> 1);
+            if (string.CompareOrdinal(_keys[mid], key) < 0) lo = mid + 1;
+            else hi = mid;
+        }
+        return lo;
+    }
+
+    private PositionalPosting[] ReadPostings(List<int> terms)
+    {
+        if (terms.Count == 0) return [];
+        if (terms.Count == 1) return ReadPostings(terms[0]);
+
+        List<PositionalPosting> postings = [];
+        foreach (int term in terms) postings.AddRange(ReadPostings(term));
+        postings.Sort((a, b) => a.Ordinal.CompareTo(b.Ordinal));
+
+        // a span can be found under more terms (e.g. with attributes
+        // having the same name): remove duplicates
+        List<PositionalPosting> unique = new(postings.Count);
+        foreach (PositionalPosting posting in postings)
+        {
+            if (unique.Count == 0 || unique[^1].Ordinal != posting.Ordinal)
+                unique.Add(posting);
+        }
+        return [.. unique];
+    }
+
+    /// <summary>
+    /// Gets the postings of all the spans of the specified type.
+    /// </summary>
+    /// <param name="type">The span type.</param>
+    /// <returns>Postings sorted by ordinal.</returns>
+    internal PositionalPosting[] GetTypePostings(string type) =>
+        Lookup(type, "", "");
+
+    /// <summary>
+    /// Gets the postings of the spans of the specified type whose field
+    /// is equal to the specified value, case insensitively.
+    /// </summary>
+    /// <param name="type">The span type.</param>
+    /// <param name="field">The field name.</param>
+    /// <param name="value">The value.</param>
+    /// <returns>Postings sorted by ordinal.</returns>
+    internal PositionalPosting[] Lookup(string type, string field,
+        string value)
+    {
+        ObjectDisposedException.ThrowIf(_disposed, this);
+
+        string key = GetKey(type, field, value).ToLowerInvariant();
+        List<int> terms = [];
+        for (int i = FindFirst(key); i < _keys.Length && _keys[i] == key; i++)
+            terms.Add(i);
+        return ReadPostings(terms);
+    }
+
+    /// <summary>
+    /// Gets the postings of the spans of the specified type whose field
+    /// value matches the specified filter.
+    /// </summary>
+    /// <param name="type">The span type.</param>
+    /// <param name="field">The field name.</param>
+    /// <param name="filter">The filter, receiving the value.</param>
+    /// <param name="original">True to pass the value to the filter as it
+    /// was indexed; false to pass it in lowercase.</param>
+    /// <param name="prefix">The optional lowercase value prefix, used
+    /// to limit the scan to values starting with it.</param>
+    /// <returns>Postings sorted by ordinal.</returns>
+    internal PositionalPosting[] Scan(string type, string field,
+        Func<string, bool> filter, bool original = false, string? prefix = null)
+    {
+        ObjectDisposedException.ThrowIf(_disposed, this);
+
+        string head = GetKey(type, field, "").ToLowerInvariant();
+        string start = head + (prefix ?? "");
+        List<int> terms = [];
+        for (int i = FindFirst(start);
+             i < _keys.Length && _keys[i].StartsWith(start, StringComparison.Ordinal);
+             i++)
+        {
+            string key = original ? _originalKeys[i] ?? _keys[i] : _keys[i];
+            if (filter(key[head.Length..])) terms.Add(i);
+        }
+        return ReadPostings(terms);
+    }
+
+    /// <summary>
+    /// Gets an integer field of the span with the specified ordinal.
+    /// </summary>
+    /// <param name="ordinal">The span ordinal.</param>
+    /// <param name="field">The field offset in the span record.</param>
+    /// <returns>The field value.</returns>
+    internal int GetSpanField(int ordinal, int field) =>
+        _view.ReadInt32(_spansOffset + (long)ordinal * SPAN_SIZE + field);
+
+    /// <summary>
+    /// Gets the ordinal of the document with the specified ID.
+    /// </summary>
+    /// <param name="documentId">The document ID.</param>
+    /// <returns>The ordinal, or -1 if not found.</returns>
+    public int GetDocumentOrdinal(int documentId) =>
+        _documentOrdinals.TryGetValue(documentId, out int ordinal)
+            ? ordinal : -1;
+
+    /// <summary>
+    /// Gets the sort key of the document with the specified ordinal.
+    /// </summary>
+    /// <param name="ordinal">The document ordinal.</param>
+    /// <returns>The sort key.</returns>
+    internal string GetDocumentSortKey(int ordinal) =>
+        ReadString(_view.ReadInt32(
+            _documentsOffset + (long)ordinal * DOCUMENT_SIZE + 12)) ?? "";
+
+    /// <summary>
+    /// Gets the search result corresponding to the span with the specified
+    /// ordinal.
+    /// </summary>
+    /// <param name="ordinal">The span ordinal.</param>
+    /// <returns>The result.</returns>
+    /// <exception cref="ArgumentOutOfRangeException">ordinal</exception>
+    public SearchResult GetResult(int ordinal)
+    {
+        ObjectDisposedException.ThrowIf(_disposed, this);
+        if (ordinal < 0 || ordinal >= SpanCount)
+            throw new ArgumentOutOfRangeException(nameof(ordinal));
+
+        long span = _spansOffset + (long)ordinal * SPAN_SIZE;
+        long document = _documentsOffset +
+            (long)_view.ReadInt32(span + SPAN_DOCUMENT) * DOCUMENT_SIZE;
+
+        return new SearchResult
+        {
+            Id = _view.ReadInt32(span + SPAN_ID),
+            DocumentId = _view.ReadInt32(document),
+            P1 = _view.ReadInt32(span + SPAN_P1),
+            P2 = _view.ReadInt32(span + SPAN_P2),
+            Index = _view.ReadInt32(span + SPAN_INDEX),
+            Length = _view.ReadInt32(span + SPAN_LENGTH),
+            Type = ReadString(_view.ReadInt32(span + SPAN_TYPE)),
+            Value = ReadString(_view.ReadInt32(span + SPAN_VALUE)),
+            Author = ReadString(_view.ReadInt32(document + 4)) ?? "",
+            Title = ReadString(_view.ReadInt32(document + 8)) ?? "",
+            SortKey = ReadString(_view.ReadInt32(document + 12)) ?? ""
+        };
+    }
+
+    /// <summary>
+    /// Compares the span with the specified ordinal to a search
+    /// continuation, using the order of search results. Documents are
+    /// compared by their rank in the index, i.e. in the database order;
+    /// only when the continuation's document is not in the index, they
+    /// are compared by sort key and ID.
+    /// </summary>
+    /// <param name="ordinal">The span ordinal.</param>
+    /// <param name="continuation">The continuation.</param>
+    /// <returns>Less than 0 when the span comes before the continuation,
+    /// 0 when it is the continuation, greater than 0 when after it.
+    /// </returns>
+    internal int CompareTo(int ordinal, SearchContinuation continuation)
+    {
+        int document = GetSpanField(ordinal, SPAN_DOCUMENT);
+        int other = GetDocumentOrdinal(continuation.DocumentId);
+        int n;
+        if (other > -1)
+        {
+            n = document.CompareTo(other);
+        }
+        else
+        {
+            n = string.CompareOrdinal(GetDocumentSortKey(document),
+                continuation.SortKey);
+            if (n == 0)
+            {
+                n = _view.ReadInt32(
+                    _documentsOffset + (long)document * DOCUMENT_SIZE)
+                    .CompareTo(continuation.DocumentId);
+            }
+        }
+        if (n != 0) return n;
+
+        n = GetSpanField(ordinal, SPAN_P1).CompareTo(continuation.P1);
+        if (n != 0) return n;
+
+        return GetSpanField(ordinal, SPAN_ID).CompareTo(continuation.Id);
+    }
+
+    /// <summary>
+    /// Checks whether this index is still current, i.e. whether its source
+    /// database still has the documents it was built from. The result is
+    /// shared by all the callers until the specified interval elapses, and
+    /// while a check is running the other callers get the previous result.
+    /// Once found stale, the index is stale until rebuilt and reopened.
+    /// </summary>
+    /// <param name="interval">The interval between checks.</param>
+    /// <param name="check">The check function, receiving this index and
+    /// returning true when it matches its source database.</param>
+    /// <returns>True if current.</returns>
+    /// <exception cref="ArgumentNullException">check</exception>
+    public bool IsCurrent(TimeSpan interval, Func<PositionalIndex, bool> check)
+    {
+        ArgumentNullException.ThrowIfNull(check);
+
+        lock (_checkLocker)
+        {
+            if (_stale) return false;
+            DateTime now = DateTime.UtcNow;
+            if (now < _nextCheck) return true;
+            _nextCheck = now + interval;
+        }
+
+        if (check(this)) return true;
+        lock (_checkLocker) _stale = true;
+        return false;
+    }
+
+    /// <summary>
+    /// Releases the mapped file.
+    /// </summary>
+    public void Dispose()
+    {
+        if (_disposed) return;
+        _view?.Dispose();
+        _file?.Dispose();
+        _disposed = true;
+    }
+}
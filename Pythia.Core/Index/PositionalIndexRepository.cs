@@ -0,0 +1,587 @@
+﻿using Corpus.Core;
+using Fusi.Tools;
+using Fusi.Tools.Data;
+using Pythia.Core.Analysis;
+using Pythia.Core.Query;
+using System;
+using System.Collections.Generic;
+using System.Linq;
+using System.Runtime.CompilerServices;
+using System.Threading;
+using System.Threading.Tasks;
+
+namespace Pythia.Core.Index;
+
+/// <summary>
+/// Index repository which searches a <see cref="PositionalIndex"/> in
+/// process, delegating anything else to another repository, usually the
+/// SQL one whose spans were used to build the positional index.
+/// </summary>
+/// <remarks>Searches which cannot be evaluated by the positional index
+/// (e.g. queries with corpus or document sets, or requests with custom
+/// sort fields) fall back to the inner repository. The positional index is
+/// not updated when indexing: rather, it is periodically compared with the
+/// inner repository (see <see cref="IsIndexCurrent"/>), and once found
+/// stale all the searches fall back to the inner repository, until the
+/// index is rebuilt.</remarks>
+/// <param name="inner">The inner repository.</param>
+/// <param name="index">The positional index.</param>
+/// <exception cref="ArgumentNullException">inner or index</exception>
+public sealed class PositionalIndexRepository(IIndexRepository inner,
+    PositionalIndex index) : IIndexRepository, IStatisticsSnapshotRepository
+{
+    /// <summary>
+    /// Gets the inner repository.
+    /// </summary>
+    public IIndexRepository Inner { get; } = inner
+        ?? throw new ArgumentNullException(nameof(inner));
+
+    /// <summary>
+    /// Gets the positional index.
+    /// </summary>
+    public PositionalIndex Index { get; } = index
+        ?? throw new ArgumentNullException(nameof(index));
+
+    /// <summary>
+    /// Gets or sets the interval between the checks of the positional index
+    /// against the inner repository. Default is 1 minute.
+    /// </summary>
+    public TimeSpan CheckInterval { get; set; } = TimeSpan.FromMinutes(1);
+
+    /// <summary>
+    /// Gets or sets the optional cache of evaluated postings. This should
+    /// be shared by all the repositories using the same positional index,
+    /// so that paging through results or counting them does not evaluate
+    /// the query again.
+    /// </summary>
+    public PositionalPostingCache? PostingCache { get; set; }
+
+    private bool MatchesInner(PositionalIndex index)
+    {
+        // documents were added or deleted
+        if (Inner.GetDocuments(new DocumentFilter { PageSize = 1 }).Total
+            != index.SourceDocumentCount)
+        {
+            return false;
+        }
+
+        // documents were added or updated: times in the database have
+        // microsecond precision, so skip the latest time of the index
+        return Inner.GetDocuments(new DocumentFilter
+        {
+            PageSize = 1,
+            MinTimeModified = index.SourceLastModified.AddTicks(10)
+        }).Total == 0;
+    }
+
+    /// <summary>
+    /// Determines whether the positional index is current, i.e. whether
+    /// the count of documents and their latest last modified time in the
+    /// inner repository are still equal to those stored in the index.
+    /// The check is done at most once every <see cref="CheckInterval"/>
+    /// for each index.
+    /// </summary>
+    /// <returns>True if current.</returns>
+    public bool IsIndexCurrent() => Index.IsCurrent(CheckInterval, MatchesInner);
+
+    /// <summary>
+    /// Tries to evaluate the specified request against the positional index.
+    /// </summary>
+    /// <param name="request">The request.</param>
+    /// <param name="literalFilters">The optional literal filters.</param>
+    /// <param name="postings">The resulting postings, or null when the
+    /// request is not supported by the positional index, or the index is
+    /// stale.</param>
+    /// <returns>True if evaluated.</returns>
+    public bool TryEvaluate(SearchRequest request,
+        IList<ILiteralFilter>? literalFilters,
+        out PositionalPosting[]? postings)
+    {
+        ArgumentNullException.ThrowIfNull(request);
+
+        postings = null;
+        if (request.SortFields?.Count > 0 || request.Query == null ||
+            !IsIndexCurrent())
+        {
+            return false;
+        }
+
+        try
+        {
+            postings = PostingCache != null
+                ? PostingCache.GetOrAdd(
+                    PositionalPostingCache.BuildKey(request.Query,
+                        literalFilters),
+                    () => Evaluate(request.Query, literalFilters))
+                : Evaluate(request.Query, literalFilters);
+            return true;
+        }
+        catch (NotSupportedException)
+        {
+            return false;
+        }
+    }
+
+    private PositionalPosting[] Evaluate(string query,
+        IList<ILiteralFilter>? literalFilters)
+    {
+        PositionalQueryEvaluator evaluator = new(Index);
+        if (literalFilters?.Count > 0)
+        {
+            foreach (ILiteralFilter filter in literalFilters)
+                evaluator.LiteralFilters.Add(filter);
+        }
+        return evaluator.Evaluate(query);
+    }
+
+    private static void ValidateSearchRequest(SearchRequest request)
+    {
+        ArgumentNullException.ThrowIfNull(request);
+        if (request.PageNumber < 1)
+            throw new ArgumentOutOfRangeException(nameof(request));
+        if (request.PageSize < 1 || request.PageSize > 100)
+            throw new ArgumentOutOfRangeException(nameof(request));
+    }
+
+    private SearchDataPage<SearchResult> CreatePage(SearchRequest request,
+        PositionalPosting[] postings)
+    {
+        int offset = (request.PageNumber - 1) * request.PageSize;
+        List<SearchResult> results = [.. postings
+            .Skip(offset)
+            .Take(request.PageSize)
+            .Select(p => Index.GetResult(p.Ordinal))];
+
+        return new SearchDataPage<SearchResult>(request.PageNumber,
+            request.PageSize, postings.Length, results);
+    }
+
+    /// <summary>
+    /// Searches the positional index, or the inner repository when the
+    /// request is not supported by the positional index. The total is
+    /// always exact, as counting is free.
+    /// </summary>
+    /// <param name="request">The request.</param>
+    /// <param name="literalFilters">The optional filters to apply to literal
+    /// values in the query text.</param>
+    /// <returns>The results page.</returns>
+    /// <exception cref="ArgumentNullException">request</exception>
+    /// <exception cref="ArgumentOutOfRangeException">invalid paging
+    /// </exception>
+    public SearchDataPage<SearchResult> Search(SearchRequest request,
+        IList<ILiteralFilter>? literalFilters = null)
+    {
+        ValidateSearchRequest(request);
+
+        return TryEvaluate(request, literalFilters,
+            out PositionalPosting[]? postings)
+            ? CreatePage(request, postings!)
+            : Inner.Search(request, literalFilters);
+    }
+
+    /// <summary>
+    /// Searches the positional index, or the inner repository when the
+    /// request is not supported by the positional index.
+    /// </summary>
+    /// <param name="request">The request.</param>
+    /// <param name="literalFilters">The optional filters to apply to literal
+    /// values in the query text.</param>
+    /// <param name="cancel">The cancellation token.</param>
+    /// <returns>The results page.</returns>
+    /// <exception cref="ArgumentNullException">request</exception>
+    /// <exception cref="ArgumentOutOfRangeException">invalid paging
+    /// </exception>
+    public Task<SearchDataPage<SearchResult>> SearchAsync(
+        SearchRequest request, IList<ILiteralFilter>? literalFilters = null,
+        CancellationToken cancel = default)
+    {
+        ValidateSearchRequest(request);
+        cancel.ThrowIfCancellationRequested();
+
+        return TryEvaluate(request, literalFilters,
+            out PositionalPosting[]? postings)
+            ? Task.FromResult(CreatePage(request, postings!))
+            : Inner.SearchAsync(request, literalFilters, cancel);
+    }
+
+    /// <summary>
+    /// Gets the total count of the results of the specified search.
+    /// </summary>
+    /// <param name="request">The request.</param>
+    /// <param name="literalFilters">The optional filters to apply to literal
+    /// values in the query text.</param>
+    /// <returns>Count.</returns>
+    /// <exception cref="ArgumentNullException">request</exception>
+    public int GetSearchCount(SearchRequest request,
+        IList<ILiteralFilter>? literalFilters = null)
+    {
+        return TryEvaluate(request, literalFilters,
+            out PositionalPosting[]? postings)
+            ? postings!.Length
+            : Inner.GetSearchCount(request, literalFilters);
+    }
+
+    /// <summary>
+    /// Gets the total count of the results of the specified search
+    /// asynchronously.
+    /// </summary>
+    /// <param name="request">The request.</param>
+    /// <param name="literalFilters">The optional filters to apply to literal
+    /// values in the query text.</param>
+    /// <param name="cancel">The cancellation token.</param>
+    /// <returns>Count.</returns>
+    /// <exception cref="ArgumentNullException">request</exception>
+    public Task<int> GetSearchCountAsync(SearchRequest request,
+        IList<ILiteralFilter>? literalFilters = null,
+        CancellationToken cancel = default)
+    {
+        cancel.ThrowIfCancellationRequested();
+
+        return TryEvaluate(request, literalFilters,
+            out PositionalPosting[]? postings)
+            ? Task.FromResult(postings!.Length)
+            : Inner.GetSearchCountAsync(request, literalFilters, cancel);
+    }
+
+    /// <summary>
+    /// Searches the positional index getting the page of results which
+    /// follows the specified continuation, or the inner repository when the
+    /// request is not supported by the positional index.
+    /// </summary>
+    /// <param name="request">The request. Its page number is ignored.</param>
+    /// <param name="continuationToken">The continuation token got from the
+    /// previous page, or null to get the first page.</param>
+    /// <param name="literalFilters">The optional filters to apply to literal
+    /// values in the query text.</param>
+    /// <returns>The page.</returns>
+    /// <exception cref="ArgumentNullException">request</exception>
+    /// <exception cref="ArgumentOutOfRangeException">invalid page size
+    /// </exception>
+    public KeysetPage<SearchResult> SearchAfter(SearchRequest request,
+        string? continuationToken,
+        IList<ILiteralFilter>? literalFilters = null)
+    {
+        ValidateSearchAfterRequest(request);
+
+        return TryEvaluate(request, literalFilters,
+            out PositionalPosting[]? postings)
+            ? CreateKeysetPage(request, continuationToken, postings!)
+            : Inner.SearchAfter(request, continuationToken, literalFilters);
+    }
+
+    /// <summary>
+    /// Searches the positional index getting the page of results which
+    /// follows the specified continuation, or the inner repository when the
+    /// request is not supported by the positional index.
+    /// </summary>
+    /// <param name="request">The request. Its page number is ignored.</param>
+    /// <param name="continuationToken">The continuation token got from the
+    /// previous page, or null to get the first page.</param>
+    /// <param name="literalFilters">The optional filters to apply to literal
+    /// values in the query text.</param>
+    /// <param name="cancel">The cancellation token.</param>
+    /// <returns>The page.</returns>
+    /// <exception cref="ArgumentNullException">request</exception>
+    /// <exception cref="ArgumentOutOfRangeException">invalid page size
+    /// </exception>
+    public Task<KeysetPage<SearchResult>> SearchAfterAsync(
+        SearchRequest request, string? continuationToken,
+        IList<ILiteralFilter>? literalFilters = null,
+        CancellationToken cancel = default)
+    {
+        ValidateSearchAfterRequest(request);
+        cancel.ThrowIfCancellationRequested();
+
+        return TryEvaluate(request, literalFilters,
+            out PositionalPosting[]? postings)
+            ? Task.FromResult(CreateKeysetPage(request, continuationToken,
+                postings!))
+            : Inner.SearchAfterAsync(request, continuationToken,
+                literalFilters, cancel);
+    }
+
+    private static void ValidateSearchAfterRequest(SearchRequest request)
+    {
+        ArgumentNullException.ThrowIfNull(request);
+        if (request.PageSize < 1 || request.PageSize > 1000)
+            throw new ArgumentOutOfRangeException(nameof(request));
+    }
+
+    private KeysetPage<SearchResult> CreateKeysetPage(SearchRequest request,
+        string? continuationToken, PositionalPosting[] postings)
+    {
+        // find the first posting after the continuation
+        int start = 0;
+        if (!string.IsNullOrEmpty(continuationToken))
+        {
+            SearchContinuation after =
+                SearchContinuation.Decode(continuationToken);
+            int hi = postings.Length;
+            while (start < hi)
+            {
+                int mid = start + ((hi - start) >> 1);
+                if (Index.CompareTo(postings[mid].Ordinal, after) <= 0)
+                    start = mid + 1;
+                else
+                    hi = mid;
+            }
+        }
+
+        List<SearchResult> results = [.. postings
+            .Skip(start)
+            .Take(request.PageSize)
+            .Select(p => Index.GetResult(p.Ordinal))];
+
+        // a full page might be followed by more results
+        string? next = results.Count == request.PageSize
+            ? SearchContinuation.FromResult(results[^1]).Encode()
+            : null;
+
+        return new KeysetPage<SearchResult>(results, next,
+            string.IsNullOrEmpty(continuationToken) ? postings.Length : -1);
+    }
+
+    /// <summary>
+    /// Streams all the results of the specified query, in keyset order.
+    /// When the query can be evaluated by the positional index, results
+    /// are materialized from its postings while enumerating; otherwise,
+    /// the stream of the inner repository is returned.
+    /// </summary>
+    /// <param name="request">The query request. Only its query is used.
+    /// </param>
+    /// <param name="literalFilters">The optional filters to apply to literal
+    /// values in the query text.</param>
+    /// <param name="cancel">The cancellation token.</param>
+    /// <returns>Results.</returns>
+    /// <exception cref="ArgumentNullException">request</exception>
+    public IAsyncEnumerable<SearchResult> StreamSearchAsync(
+        SearchRequest request, IList<ILiteralFilter>? literalFilters = null,
+        CancellationToken cancel = default)
+    {
+        ArgumentNullException.ThrowIfNull(request);
+
+        if (!TryEvaluate(request, literalFilters,
+            out PositionalPosting[]? postings))
+        {
+            return Inner.StreamSearchAsync(request, literalFilters, cancel);
+        }
+        return StreamPostingsAsync(postings!, cancel);
+    }
+
+    private async IAsyncEnumerable<SearchResult> StreamPostingsAsync(
+        PositionalPosting[] postings,
+        [EnumeratorCancellation] CancellationToken cancel)
+    {
+        foreach (PositionalPosting posting in postings)
+        {
+            cancel.ThrowIfCancellationRequested();
+            yield return Index.GetResult(posting.Ordinal);
+        }
+        await Task.CompletedTask;
+    }
+
+    #region Delegated
+    /// <inheritdoc/>
+    public string GetSchema() => Inner.GetSchema();
+
+    /// <inheritdoc/>
+    public ICorpus? GetCorpus(string id) => Inner.GetCorpus(id);
+
+    /// <inheritdoc/>
+    public DataPage<ICorpus> GetCorpora(CorpusFilter filter,
+        bool includeDocIds) => Inner.GetCorpora(filter, includeDocIds);
+
+    /// <inheritdoc/>
+    public void AddCorpus(ICorpus corpus, string? sourceId = null) =>
+        Inner.AddCorpus(corpus, sourceId);
+
+    /// <inheritdoc/>
+    public void DeleteCorpus(string id) => Inner.DeleteCorpus(id);
+
+    /// <inheritdoc/>
+    public void AddDocumentsToCorpus(string corpusId, string? userId,
+        params int[] documentIds) =>
+        Inner.AddDocumentsToCorpus(corpusId, userId, documentIds);
+
+    /// <inheritdoc/>
+    public void ChangeCorpusByFilter(string corpusId, string? userId,
+        DocumentFilter filter, bool add) =>
+        Inner.ChangeCorpusByFilter(corpusId, userId, filter, add);
+
+    /// <inheritdoc/>
+    public bool IsDocumentInCorpus(int documentId, string corpusId,
+        bool matchAsPrefix) =>
+        Inner.IsDocumentInCorpus(documentId, corpusId, matchAsPrefix);
+
+    /// <inheritdoc/>
+    public IDocument? GetDocument(int id, bool includeContent) =>
+        Inner.GetDocument(id, includeContent);
+
+    /// <inheritdoc/>
+    public IDocument? GetDocumentBySource(string source,
+        bool includeContent) =>
+        Inner.GetDocumentBySource(source, includeContent);
+
+    /// <inheritdoc/>
+    public DataPage<IDocument> GetDocuments(DocumentFilter filter) =>
+        Inner.GetDocuments(filter);
+
+    /// <inheritdoc/>
+    public void AddDocument(IDocument document, bool hasContent,
+        bool hasAttributes) =>
+        Inner.AddDocument(document, hasContent, hasAttributes);
+
+    /// <inheritdoc/>
+    public void DeleteDocument(int id) => Inner.DeleteDocument(id);
+
+    /// <inheritdoc/>
+    public void SetDocumentContent(int id, string content) =>
+        Inner.SetDocumentContent(id, content);
+
+    /// <inheritdoc/>
+    public void AddAttribute(Corpus.Core.Attribute attribute,
+        string targetType, bool unique) =>
+        Inner.AddAttribute(attribute, targetType, unique);
+
+    /// <inheritdoc/>
+    public DataPage<string> GetAttributeNames(AttributeFilter filter) =>
+        Inner.GetAttributeNames(filter);
+
+    /// <inheritdoc/>
+    public IProfile? GetProfile(string id, bool noContent = false) =>
+        Inner.GetProfile(id, noContent);
+
+    /// <inheritdoc/>
+    public DataPage<IProfile> GetProfiles(ProfileFilter filter,
+        bool noContent = false) => Inner.GetProfiles(filter, noContent);
+
+    /// <inheritdoc/>
+    public void AddProfile(IProfile profile) => Inner.AddProfile(profile);
+
+    /// <inheritdoc/>
+    public void DeleteProfile(string id) => Inner.DeleteProfile(id);
+
+    /// <inheritdoc/>
+    public IList<AttributeInfo> GetDocAttributeInfo(bool privileged) =>
+        Inner.GetDocAttributeInfo(privileged);
+
+    /// <inheritdoc/>
+    public IList<TextSpan> GetSpansAt(int documentId, int p1,
+        string? type = null, bool attributes = false) =>
+        Inner.GetSpansAt(documentId, p1, type, attributes);
+
+    /// <inheritdoc/>
+    public IEnumerable<TextSpan> EnumerateSpans(TextSpanFilter filter,
+        bool attributes = false) => Inner.EnumerateSpans(filter, attributes);
+
+    /// <inheritdoc/>
+    public void AddSpans(IEnumerable<TextSpan> spans) => Inner.AddSpans(spans);
+
+    /// <inheritdoc/>
+    public void AddSpanAttributes(int documentId, int start, int end,
+        string name, string value, AttributeType type) =>
+        Inner.AddSpanAttributes(documentId, start, end, name, value, type);
+
+    /// <inheritdoc/>
+    public void DeleteSpanAttributes(int documentId, int start, int end,
+        IEnumerable<string> names) =>
+        Inner.DeleteSpanAttributes(documentId, start, end, names);
+
+    /// <inheritdoc/>
+    public void DeleteDocumentSpans(int documentId, string? type = null,
+        bool negatedType = false) =>
+        Inner.DeleteDocumentSpans(documentId, type, negatedType);
+
+    /// <inheritdoc/>
+    public Tuple<int, int>? GetPositionRange(int documentId, int startIndex,
+        int endIndex) =>
+        Inner.GetPositionRange(documentId, startIndex, endIndex);
+
+    /// <inheritdoc/>
+    public IList<KwicSearchResult> GetResultContext(
+        IList<SearchResult> results, int contextSize) =>
+        Inner.GetResultContext(results, contextSize);
+
+    /// <inheritdoc/>
+    public Task<IList<KwicSearchResult>> GetResultContextAsync(
+        IList<SearchResult> results, int contextSize,
+        CancellationToken cancel = default) =>
+        Inner.GetResultContextAsync(results, contextSize, cancel);
+
+    /// <inheritdoc/>
+    public DataPage<Word> GetWords(WordFilter filter) =>
+        Inner.GetWords(filter);
+
+    /// <inheritdoc/>
+    public Task<DataPage<Word>> GetWordsAsync(WordFilter filter,
+        CancellationToken cancel = default) =>
+        Inner.GetWordsAsync(filter, cancel);
+
+    /// <inheritdoc/>
+    public IList<TokenCount> GetTokenCounts(bool lemma, int id,
+        string attrName) => Inner.GetTokenCounts(lemma, id, attrName);
+
+    /// <inheritdoc/>
+    public DataPage<Lemma> GetLemmata(LemmaFilter filter) =>
+        Inner.GetLemmata(filter);
+
+    /// <inheritdoc/>
+    public Task<DataPage<Lemma>> GetLemmataAsync(LemmaFilter filter,
+        CancellationToken cancel = default) =>
+        Inner.GetLemmataAsync(filter, cancel);
+
+    /// <inheritdoc/>
+    public IDictionary<string, double> GetStatistics() =>
+        Inner.GetStatistics();
+
+    /// <inheritdoc/>
+    public Task<IDictionary<string, double>> GetStatisticsAsync(
+        CancellationToken cancel = default) =>
+        Inner.GetStatisticsAsync(cancel);
+
+    /// <inheritdoc/>
+    public Task<IList<DocumentPair>> GetDocumentPairsAsync(
+        IDictionary<string, int> binCounts,
+        HashSet<string> excludedAttrNames,
+        CancellationToken cancel = default) =>
+        Inner.GetDocumentPairsAsync(binCounts, excludedAttrNames, cancel);
+
+    /// <inheritdoc/>
+    public Task BuildWordIndexAsync(string? language,
+        IDictionary<string, int> binCounts,
+        HashSet<string> excludedAttrNames,
+        HashSet<string> excludedSpanAttrNames,
+        HashSet<string> excludedPosValues,
+        CancellationToken cancel,
+        IProgress<ProgressReport>? progress = null) =>
+        Inner.BuildWordIndexAsync(language, binCounts, excludedAttrNames,
+            excludedSpanAttrNames, excludedPosValues, cancel, progress);
+
+    /// <inheritdoc/>
+    public void FinalizeIndex() => Inner.FinalizeIndex();
+
+    /// <inheritdoc/>
+    public Task<StatisticsSnapshot?> GetStatisticsSnapshotAsync(
+        CancellationToken cancel = default) =>
+        Inner is IStatisticsSnapshotRepository stats
+            ? stats.GetStatisticsSnapshotAsync(cancel)
+            : Task.FromResult<StatisticsSnapshot?>(null);
+
+    /// <inheritdoc/>
+    /// <exception cref="NotSupportedException">inner repository without
+    /// statistics snapshot</exception>
+    public Task<StatisticsSnapshot> RefreshStatisticsSnapshotAsync(
+        CancellationToken cancel = default) =>
+        Inner is IStatisticsSnapshotRepository stats
+            ? stats.RefreshStatisticsSnapshotAsync(cancel)
+            : throw new NotSupportedException(
+                "Statistics snapshot not supported by inner repository");
+
+    /// <inheritdoc/>
+    public Task UpdateStatisticsSnapshotAsync(StatisticsSnapshotParts parts,
+        CancellationToken cancel = default) =>
+        Inner is IStatisticsSnapshotRepository stats
+            ? stats.UpdateStatisticsSnapshotAsync(parts, cancel)
+            : Task.CompletedTask;
+    #endregion
+}
@@ -0,0 +1,319 @@
+﻿using System;
+using System.Collections.Generic;
+using System.IO;
+using System.Linq;
+using System.Text;
+
+namespace Pythia.Core.Index;
+
+/// <summary>
+/// Writer for a <see cref="PositionalIndex"/> file. Add the documents in
+/// the order of search results, as got from an index repository after
+/// indexing, then their spans (in any order), and then save the index.
+/// Spans are collected in memory until saved.
+/// </summary>
+public sealed class PositionalIndexWriter
+{
+    private sealed record DocumentEntry(int Id, string? Author, string? Title,
+        string? SortKey);
+
+    private readonly record struct SpanEntry(int Id, int DocumentId,
+        int P1, int P2, int Index, int Length, string Type, string Value);
+
+    private static readonly string[] _textFields =
+        ["value", "lemma", "pos", "language", "text"];
+
+    // documents in their order, and their indexes in this list by ID
+    private readonly List<DocumentEntry> _documents = [];
+    private readonly Dictionary<int, int> _documentIndexes = [];
+    private readonly List<SpanEntry> _spans = [];
+    // term key: span indexes in _spans
+    private readonly Dictionary<string, List<int>> _terms =
+        new(StringComparer.Ordinal);
+    private readonly Dictionary<string, string> _pool =
+        new(StringComparer.Ordinal);
+
+    /// <summary>
+    /// Gets the count of documents added so far.
+    /// </summary>
+    public int DocumentCount => _documents.Count;
+
+    /// <summary>
+    /// Gets the latest last modified time of the documents added so far.
+    /// </summary>
+    public DateTime LastModified { get; private set; } = DateTime.MinValue;
+
+    /// <summary>
+    /// Gets the count of spans added so far.
+    /// </summary>
+    public int SpanCount => _spans.Count;
+
+    private string Pool(string text)
+    {
+        if (_pool.TryGetValue(text, out string? pooled)) return pooled;
+        _pool[text] = text;
+        return text;
+    }
+
+    private void AddTerm(string type, string field, string value, int span)
+    {
+        string key = PositionalIndex.GetKey(type, field, value);
+        if (!_terms.TryGetValue(key, out List<int>? spans))
+        {
+            spans = [];
+            _terms[key] = spans;
+        }
+        spans.Add(span);
+    }
+
+    /// <summary>
+    /// Adds the specified document's metadata. Documents must be added in
+    /// the order of search results, as returned by the database (sort key
+    /// and ID, with the database collation); their rank in this order is
+    /// stored in the index, so that results and continuation tokens are
+    /// the same for both the positional index and the database. Adding a
+    /// document again replaces its metadata and keeps its rank.
+    /// </summary>
+    /// <param name="id">The document ID.</param>
+    /// <param name="author">The author.</param>
+    /// <param name="title">The title.</param>
+    /// <param name="sortKey">The sort key.</param>
+    /// <param name="lastModified">The optional last modified time. The
+    /// latest of these times is stored in the index, together with the
+    /// count of documents, to tell when the index is stale.</param>
+    public void AddDocument(int id, string? author, string? title,
+        string? sortKey, DateTime? lastModified = null)
+    {
+        DocumentEntry entry = new(id, author, title, sortKey);
+        if (_documentIndexes.TryGetValue(id, out int index))
+        {
+            _documents[index] = entry;
+        }
+        else
+        {
+            _documentIndexes[id] = _documents.Count;
+            _documents.Add(entry);
+        }
+        if (lastModified > LastModified) LastModified = lastModified.Value;
+    }
+
+    /// <summary>
+    /// Adds the specified span with its attributes.
+    /// </summary>
+    /// <param name="span">The span.</param>
+    /// <exception cref="ArgumentNullException">span</exception>
+    public void AddSpan(TextSpan span)
+    {
+        ArgumentNullException.ThrowIfNull(span);
+
+        int index = _spans.Count;
+        string type = Pool(span.Type);
+        _spans.Add(new SpanEntry(span.Id, span.DocumentId, span.P1, span.P2,
+            span.Index, span.Length, type, Pool(span.Value ?? "")));
+
+        // type
+        AddTerm(type, "", "", index);
+
+        // privileged text attributes
+        foreach (string field in _textFields)
+        {
+            string? value = field switch
+            {
+                "value" => span.Value,
+                "lemma" => span.Lemma,
+                "pos" => span.Pos,
+                "language" => span.Language,
+                _ => span.Text
+            };
+            if (value != null) AddTerm(type, field, value, index);
+        }
+
+        // non-privileged attributes
+        if (span.Attributes == null) return;
+        foreach (Corpus.Core.Attribute attribute in span.Attributes)
+        {
+            if (string.IsNullOrEmpty(attribute.Name) ||
+                TextSpan.IsPrivilegedSpanAttr(
+                    attribute.Name.ToLowerInvariant()))
+            {
+                continue;
+            }
+            AddTerm(type, PositionalIndex.NAME_FIELD, attribute.Name, index);
+            AddTerm(type, attribute.Name, attribute.Value ?? "", index);
+        }
+    }
+
+    private static int AddString(string? text, Stream strings,
+        Dictionary<string, int> references)
+    {
+        if (text == null) return -1;
+        if (references.TryGetValue(text, out int reference)) return reference;
+
+        reference = (int)strings.Position;
+        byte[] bytes = Encoding.UTF8.GetBytes(text);
+        VarInt.Write(strings, (uint)bytes.Length);
+        strings.Write(bytes);
+        references[text] = reference;
+        return reference;
+    }
+
+    private static void WritePostings(Stream postings, int[] ordinals,
+        SpanEntry[] spans, int[] documentOrdinals)
+    {
+        int prevOrdinal = 0, prevDocument = 0, prevP1 = 0;
+        foreach (int ordinal in ordinals)
+        {
+            SpanEntry span = spans[ordinal];
+            int document = documentOrdinals[ordinal];
+
+            VarInt.Write(postings, (uint)(ordinal - prevOrdinal));
+            VarInt.Write(postings, (uint)(document - prevDocument));
+            VarInt.Write(postings, (uint)(document == prevDocument
+                ? span.P1 - prevP1 : span.P1));
+            VarInt.Write(postings, (uint)(span.P2 - span.P1));
+
+            prevOrdinal = ordinal;
+            prevDocument = document;
+            prevP1 = span.P1;
+        }
+    }
+
+    /// <summary>
+    /// Saves the index to the specified file, overwriting it if it exists.
+    /// </summary>
+    /// <param name="path">The file path.</param>
+    /// <exception cref="ArgumentNullException">path</exception>
+    public void Save(string path)
+    {
+        ArgumentNullException.ThrowIfNull(path);
+
+        // documents keep the order they were added in, like search
+        // results; spans without a document get an empty one at the end
+        int sourceDocumentCount = _documents.Count;
+        List<DocumentEntry> documents = [.. _documents];
+        Dictionary<int, int> documentOrdinals = new(_documentIndexes);
+        foreach (SpanEntry span in _spans)
+        {
+            if (!documentOrdinals.ContainsKey(span.DocumentId))
+            {
+                documentOrdinals[span.DocumentId] = documents.Count;
+                documents.Add(new DocumentEntry(span.DocumentId,
+                    null, null, null));
+            }
+        }
+
+        // span ordinals follow the same order: document, P1, ID
+        int[] order = [.. Enumerable.Range(0, _spans.Count)];
+        Array.Sort(order, (a, b) =>
+        {
+            SpanEntry x = _spans[a], y = _spans[b];
+            int n = documentOrdinals[x.DocumentId].CompareTo(
+                documentOrdinals[y.DocumentId]);
+            if (n != 0) return n;
+            n = x.P1.CompareTo(y.P1);
+            return n != 0 ? n : x.Id.CompareTo(y.Id);
+        });
+        int[] ordinals = new int[order.Length];
+        SpanEntry[] spans = new SpanEntry[order.Length];
+        int[] spanDocuments = new int[order.Length];
+        for (int i = 0; i < order.Length; i++)
+        {
+            ordinals[order[i]] = i;
+            spans[i] = _spans[order[i]];
+            spanDocuments[i] = documentOrdinals[spans[i].DocumentId];
+        }
+
+        // terms are sorted by lowercase key, then by original key
+        string[] keys = [.. _terms.Keys];
+        string[] lowerKeys = [.. keys.Select(k => k.ToLowerInvariant())];
+        Array.Sort(lowerKeys, keys, StringComparer.Ordinal);
+        for (int i = 1, start = 0; i <= keys.Length; i++)
+        {
+            if (i == keys.Length || lowerKeys[i] != lowerKeys[start])
+            {
+                Array.Sort(keys, start, i - start, StringComparer.Ordinal);
+                start = i;
+            }
+        }
+
+        using MemoryStream strings = new();
+        Dictionary<string, int> references = new(StringComparer.Ordinal);
+        using FileStream postings = new(Path.GetTempFileName(),
+            FileMode.Create, FileAccess.ReadWrite, FileShare.None, 65536,
+            FileOptions.DeleteOnClose);
+
+        using FileStream stream = new(path, FileMode.Create, FileAccess.Write,
+            FileShare.None, 65536);
+        using BinaryWriter writer = new(stream, Encoding.UTF8);
+
+        // header placeholder
+        writer.Write(new byte[PositionalIndex.HEADER_SIZE]);
+
+        // documents
+        long documentsOffset = stream.Position;
+        foreach (DocumentEntry document in documents)
+        {
+            writer.Write(document.Id);
+            writer.Write(AddString(document.Author, strings, references));
+            writer.Write(AddString(document.Title, strings, references));
+            writer.Write(AddString(document.SortKey, strings, references));
+        }
+
+        // spans
+        long spansOffset = stream.Position;
+        for (int i = 0; i < spans.Length; i++)
+        {
+            SpanEntry span = spans[i];
+            writer.Write(span.Id);
+            writer.Write(spanDocuments[i]);
+            writer.Write(span.P1);
+            writer.Write(span.P2);
+            writer.Write(span.Index);
+            writer.Write(span.Length);
+            writer.Write(AddString(span.Type, strings, references));
+            writer.Write(AddString(span.Value, strings, references));
+        }
+
+        // terms, with their postings in a temporary stream
+        long termsOffset = stream.Position;
+        foreach (string key in keys)
+        {
+            int[] termOrdinals = [.. _terms[key]
+                .Select(s => ordinals[s]).Distinct().Order()];
+            long postingOffset = postings.Position;
+            WritePostings(postings, termOrdinals, spans, spanDocuments);
+
+            writer.Write(AddString(key, strings, references));
+            writer.Write(termOrdinals.Length);
+            writer.Write(postingOffset);
+            writer.Write((int)(postings.Position - postingOffset));
+        }
+
+        // postings
+        long postingsOffset = stream.Position;
+        writer.Flush();
+        postings.Position = 0;
+        postings.CopyTo(stream);
+
+        // strings
+        long stringsOffset = stream.Position;
+        strings.Position = 0;
+        strings.CopyTo(stream);
+
+        // header
+        stream.Position = 0;
+        writer.Write(PositionalIndex.MAGIC);
+        writer.Write(PositionalIndex.VERSION);
+        writer.Write(documents.Count);
+        writer.Write(spans.Length);
+        writer.Write(keys.Length);
+        writer.Write(documentsOffset);
+        writer.Write(spansOffset);
+        writer.Write(termsOffset);
+        writer.Write(postingsOffset);
+        writer.Write(stringsOffset);
+        writer.Write(sourceDocumentCount);
+        writer.Write(LastModified.Ticks);
+        writer.Flush();
+    }
+}
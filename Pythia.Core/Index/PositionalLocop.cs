@@ -0,0 +1,82 @@
+﻿using Pythia.Core.Query;
+using System;
+using System.Collections.Generic;
+using System.Globalization;
+using static Pythia.Core.Query.pythiaParser;
+
+namespace Pythia.Core.Index;
+
+/// <summary>
+/// A location operator with its arguments, as evaluated by
+/// <see cref="LocationMergeJoin"/>.
+/// </summary>
+/// <param name="Operator">The operator: one of the non-negated location
+/// operators of <see cref="pythiaLexer"/>, e.g. <see cref="pythiaLexer.NEAR"/>.
+/// </param>
+/// <param name="IsNegated">True if the operator is negated.</param>
+/// <param name="N">The min distance or overlap (n).</param>
+/// <param name="M">The max distance or overlap (m).</param>
+/// <param name="Ns">The min distance from container's start (ns).</param>
+/// <param name="Ms">The max distance from container's start (ms).</param>
+/// <param name="Ne">The min distance from container's end (ne).</param>
+/// <param name="Me">The max distance from container's end (me).</param>
+public readonly record struct PositionalLocop(int Operator, bool IsNegated,
+    int N = 0, int M = int.MaxValue, int Ns = 0, int Ms = int.MaxValue,
+    int Ne = 0, int Me = int.MaxValue)
+{
+    /// <summary>
+    /// Creates a location operator from the specified parse tree node.
+    /// Missing arguments get their defaults, while the <c>s</c> argument
+    /// is ignored, as it is in SQL queries.
+    /// </summary>
+    /// <param name="context">The locop context.</param>
+    /// <returns>Location operator.</returns>
+    /// <exception cref="ArgumentNullException">context</exception>
+    /// <exception cref="PythiaQueryException">invalid arguments</exception>
+    public static PositionalLocop Parse(LocopContext context)
+    {
+        ArgumentNullException.ThrowIfNull(context);
+
+        int op = context.@operator.Type;
+        bool negated = true;
+        switch (op)
+        {
+            case pythiaLexer.NOTNEAR: op = pythiaLexer.NEAR; break;
+            case pythiaLexer.NOTBEFORE: op = pythiaLexer.BEFORE; break;
+            case pythiaLexer.NOTAFTER: op = pythiaLexer.AFTER; break;
+            case pythiaLexer.NOTINSIDE: op = pythiaLexer.INSIDE; break;
+            case pythiaLexer.NOTOVERLAPS: op = pythiaLexer.OVERLAPS; break;
+            case pythiaLexer.NOTLALIGN: op = pythiaLexer.LALIGN; break;
+            case pythiaLexer.NOTRALIGN: op = pythiaLexer.RALIGN; break;
+            default: negated = false; break;
+        }
+
+        Dictionary<string, int> args = [];
+        foreach (LocnArgContext arg in context.locnArg())
+        {
+            args[arg.GetChild(0).GetText()] = int.Parse(
+                arg.GetChild(2).GetText(), CultureInfo.InvariantCulture);
+        }
+        if (negated && context.locsArg() != null)
+        {
+            throw new PythiaQueryException(
+                "Argument s cannot be used with a negated operator: " +
+                context.GetText());
+        }
+
+        PositionalLocop locop = new(op, negated,
+            args.GetValueOrDefault("n", 0),
+            args.GetValueOrDefault("m", int.MaxValue),
+            args.GetValueOrDefault("ns", 0),
+            args.GetValueOrDefault("ms", int.MaxValue),
+            args.GetValueOrDefault("ne", 0),
+            args.GetValueOrDefault("me", int.MaxValue));
+
+        if (locop.N > locop.M || locop.Ns > locop.Ms || locop.Ne > locop.Me)
+        {
+            throw new PythiaQueryException(
+                "Invalid location arguments: " + context.GetText());
+        }
+        return locop;
+    }
+}
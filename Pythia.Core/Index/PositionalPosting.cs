@@ -0,0 +1,14 @@
+﻿namespace Pythia.Core.Index;
+
+/// <summary>
+/// An entry in a posting list of a <see cref="PositionalIndex"/>.
+/// </summary>
+/// <param name="Ordinal">The span ordinal in the index. Ordinals follow
+/// the order of search results, i.e. document (by sort key and ID, in
+/// the database order), position, and span ID, so that a list sorted by ordinal is grouped
+/// by document and sorted by position within each document.</param>
+/// <param name="Document">The document ordinal in the index.</param>
+/// <param name="P1">The span start position.</param>
+/// <param name="P2">The span end position.</param>
+public readonly record struct PositionalPosting(int Ordinal, int Document,
+    int P1, int P2);
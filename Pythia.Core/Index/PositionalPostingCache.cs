@@ -0,0 +1,180 @@
+﻿using Pythia.Core.Analysis;
+using System;
+using System.Collections.Generic;
+using System.Text;
+
+namespace Pythia.Core.Index;
+
+/// <summary>
+/// A bounded, thread-safe LRU cache of the postings evaluated from a
+/// <see cref="PositionalIndex"/>. This avoids evaluating a query and
+/// merging its posting lists again when the same query is requested
+/// for another page, or for the count. A cache must be used with a single
+/// index, as its keys do not identify the index.
+/// </summary>
+public sealed class PositionalPostingCache
+{
+    private readonly object _locker = new();
+    private readonly Dictionary<string, LinkedListNode<
+        KeyValuePair<string, PositionalPosting[]>>> _map = [];
+    private readonly LinkedList<KeyValuePair<string, PositionalPosting[]>>
+        _lru = new();
+    private long _hits;
+    private long _misses;
+    private long _evictions;
+
+    /// <summary>
+    /// Gets the maximum count of posting lists in this cache. Each list
+    /// takes 16 bytes per result, so this should be kept low for large
+    /// indexes.
+    /// </summary>
+    public int Capacity { get; }
+
+    /// <summary>
+    /// Gets the count of posting lists in this cache.
+    /// </summary>
+    public int Count
+    {
+        get { lock (_locker) return _map.Count; }
+    }
+
+    /// <summary>
+    /// Gets the count of cache hits.
+    /// </summary>
+    public long Hits
+    {
+        get { lock (_locker) return _hits; }
+    }
+
+    /// <summary>
+    /// Gets the count of cache misses.
+    /// </summary>
+    public long Misses
+    {
+        get { lock (_locker) return _misses; }
+    }
+
+    /// <summary>
+    /// Gets the count of posting lists evicted from this cache because it
+    /// was full.
+    /// </summary>
+    public long Evictions
+    {
+        get { lock (_locker) return _evictions; }
+    }
+
+    /// <summary>
+    /// Initializes a new instance of the <see cref="PositionalPostingCache"/>
+    /// class.
+    /// </summary>
+    /// <param name="capacity">The maximum count of posting lists.</param>
+    /// <exception cref="ArgumentOutOfRangeException">capacity less than 1
+    /// </exception>
+    public PositionalPostingCache(int capacity = 64)
+    {
+        ArgumentOutOfRangeException.ThrowIfLessThan(capacity, 1);
+        Capacity = capacity;
+    }
+
+    /// <summary>
+    /// Builds a cache key from the specified query parameters.
+    /// </summary>
+    /// <param name="query">The Pythia query.</param>
+    /// <param name="literalFilters">The optional literal filters. These
+    /// are identified by their type, so all the filters of the same type
+    /// must have the same configuration in a process, as it happens when
+    /// they come from a single profile.</param>
+    /// <returns>Key.</returns>
+    public static string BuildKey(string? query,
+        IList<ILiteralFilter>? literalFilters)
+    {
+        StringBuilder sb = new(SearchRequest.NormalizeQuery(query));
+        sb.Append('\n');
+        if (literalFilters?.Count > 0)
+        {
+            foreach (ILiteralFilter filter in literalFilters)
+                sb.Append(filter.GetType().FullName).Append(',');
+        }
+        return sb.ToString();
+    }
+
+    /// <summary>
+    /// Gets the posting list with the specified key, evaluating and adding
+    /// it if not present.
+    /// </summary>
+    /// <param name="key">The key, as built by <see cref="BuildKey"/>.
+    /// </param>
+    /// <param name="evaluate">The function used to evaluate the postings.
+    /// This is called outside the cache lock.</param>
+    /// <returns>Postings.</returns>
+    /// <exception cref="ArgumentNullException">key or evaluate</exception>
+    public PositionalPosting[] GetOrAdd(string key,
+        Func<PositionalPosting[]> evaluate)
+    {
+        ArgumentNullException.ThrowIfNull(key);
+        ArgumentNullException.ThrowIfNull(evaluate);
+
+        lock (_locker)
+        {
+            if (_map.TryGetValue(key, out var node))
+            {
+                _lru.Remove(node);
+                _lru.AddFirst(node);
+                _hits++;
+                return node.Value.Value;
+            }
+            _misses++;
+        }
+
+        PositionalPosting[] postings = evaluate();
+
+        lock (_locker)
+        {
+            // another thread might have added it meantime
+            if (_map.TryGetValue(key, out var node))
+            {
+                _lru.Remove(node);
+                _lru.AddFirst(node);
+                return node.Value.Value;
+            }
+
+            _map[key] = _lru.AddFirst(
+                new KeyValuePair<string, PositionalPosting[]>(key, postings));
+            while (_map.Count > Capacity)
+            {
+                LinkedListNode<KeyValuePair<string, PositionalPosting[]>>
+                    last = _lru.Last!;
+                _lru.RemoveLast();
+                _map.Remove(last.Value.Key);
+                _evictions++;
+            }
+        }
+        return postings;
+    }
+
+    /// <summary>
+    /// Clears this cache and resets its counters.
+    /// </summary>
+    public void Clear()
+    {
+        lock (_locker)
+        {
+            _map.Clear();
+            _lru.Clear();
+            _hits = _misses = _evictions = 0;
+        }
+    }
+
+    /// <summary>
+    /// Converts to string.
+    /// </summary>
+    /// <returns>String.</returns>
+    public override string ToString()
+    {
+        lock (_locker)
+        {
+            return $"{_map.Count}/{Capacity}: {_hits} hits, {_misses} misses, " +
+                $"{_evictions} evictions";
+        }
+    }
+}
@@ -0,0 +1,303 @@
+﻿using Antlr4.Runtime;
+using Pythia.Core.Analysis;
+using Pythia.Core.Query;
+using System;
+using System.Collections.Generic;
+using System.Globalization;
+using System.Text;
+using System.Text.RegularExpressions;
+using static Pythia.Core.Query.pythiaParser;
+
+namespace Pythia.Core.Index;
+
+/// <summary>
+/// Evaluator of Pythia queries against a <see cref="PositionalIndex"/>.
+/// This walks the query tree evaluating pairs as posting lookups, logical
+/// operators as posting merges, and location operators as merge joins,
+/// with the same semantics of the SQL translation.
+/// </summary>
+/// <remarks>Queries with corpus or document sets, and pairs with the
+/// similarity operator or on <c>lemma_id</c> or <c>word_id</c>, are not
+/// supported: in this case <see cref="NotSupportedException"/> is thrown,
+/// so that callers can fall back to the SQL index. An evaluator is not
+/// thread-safe, but any number of them can share the same index.</remarks>
+/// <param name="index">The index.</param>
+/// <exception cref="ArgumentNullException">index</exception>
+public sealed class PositionalQueryEvaluator(PositionalIndex index)
+{
+    private static readonly Regex _escRegex = new("&([0-9a-fA-F]{1,4});");
+    private static readonly char[] _wildcards = ['*', '?'];
+
+    private readonly PositionalIndex _index = index
+        ?? throw new ArgumentNullException(nameof(index));
+    private string? _prevStructName;
+
+    /// <summary>
+    /// Gets the optional literal filters to apply to literal values of
+    /// query pairs.
+    /// </summary>
+    public IList<ILiteralFilter> LiteralFilters { get; } = [];
+
+    /// <summary>
+    /// Evaluates the specified query.
+    /// </summary>
+    /// <param name="query">The query.</param>
+    /// <returns>The matching spans postings, sorted by ordinal, i.e. in the
+    /// order of search results.</returns>
+    /// <exception cref="ArgumentNullException">query</exception>
+    /// <exception cref="PythiaQueryException">invalid query</exception>
+    /// <exception cref="NotSupportedException">query not supported by
+    /// the positional index</exception>
+    public PositionalPosting[] Evaluate(string query)
+    {
+        ArgumentNullException.ThrowIfNull(query);
+
+        AntlrInputStream input = new(query);
+        pythiaLexer lexer = new(input);
+        CommonTokenStream tokens = new(lexer);
+        pythiaParser parser = new(tokens);
+
+        // throw at any parser error
+        parser.RemoveErrorListeners();
+        parser.AddErrorListener(new ThrowingErrorListener());
+
+        QueryContext tree = parser.query();
+        if (tree.corSet() != null || tree.docSet() != null)
+        {
+            throw new NotSupportedException(
+                "Corpus and document sets are not supported by the " +
+                "positional index");
+        }
+
+        _prevStructName = null;
+        return Evaluate(tree.txtExpr());
+    }
+
+    private PositionalPosting[] Evaluate(TxtExprContext context)
+    {
+        switch (context)
+        {
+            case TePairContext pair:
+                return EvaluatePair(pair.pair());
+
+            case TeParenContext paren:
+                return Evaluate(paren.txtExpr());
+
+            case TeLogicalContext logical:
+                PositionalPosting[] left = Evaluate(logical.txtExpr(0));
+                PositionalPosting[] right = Evaluate(logical.txtExpr(1));
+                if (logical.AND() != null)
+                    return PostingMerger.Intersect(left, right);
+                if (logical.ANDNOT() != null)
+                    return PostingMerger.Except(left, right);
+                // like in SQL, ORNOT is a union
+                return PostingMerger.Union(left, right);
+
+            case TeLocationContext location:
+                PositionalPosting[] a = Evaluate(location.txtExpr(0));
+                PositionalPosting[] b = Evaluate(location.txtExpr(1));
+                return PostingMerger.Locate(a, b,
+                    PositionalLocop.Parse(location.locop()));
+
+            default:
+                throw new NotSupportedException(
+                    "Unexpected expression: " + context.GetText());
+        }
+    }
+
+    private static string? UnwrapValue(IToken? token)
+    {
+        if (token == null || token.StartIndex < 0) return null;
+
+        string value = token.Text;
+        if (value.Length > 1 && value[0] == '"' && value[^1] == '"')
+            value = value[1..^1];
+
+        return value.IndexOf('&') > -1
+            ? _escRegex.Replace(value, m => new string((char)int.Parse(
+                m.Groups[1].Value, NumberStyles.HexNumber), 1))
+            : value;
+    }
+
+    private string ApplyLiteralFilters(string text)
+    {
+        if (LiteralFilters.Count == 0) return text;
+        StringBuilder sb = new(text);
+        foreach (ILiteralFilter filter in LiteralFilters)
+        {
+            filter.Apply(sb);
+            if (sb.Length == 0) break;
+        }
+        return sb.ToString();
+    }
+
+    private PositionalPosting[] EvaluatePair(PairContext context)
+    {
+        // structure: when value is null, use name as this corresponds to
+        // shortcuts like "[$l]"
+        SpairContext? spair = context.spair();
+        if (spair != null)
+        {
+            string structName = spair.name.Text[1..];
+            _prevStructName = structName;
+            return _index.GetTypePostings(
+                UnwrapValue(spair.value) ?? structName);
+        }
+
+        TpairContext tpair = context.tpair();
+        string name = tpair.name.Text;
+        IToken? opToken = tpair.@operator;
+        int op = opToken != null && opToken.StartIndex > -1 ? opToken.Type : 0;
+        string? value = UnwrapValue(tpair.value);
+
+        // a name prefixed by _ refers to the previous structure's attribute
+        string type = TextSpan.TYPE_TOKEN;
+        if (name.StartsWith('_') && name.Length > 1)
+        {
+            type = _prevStructName ?? throw new PythiaQueryException(
+                "No previous structure pair for " + name);
+            name = name[1..];
+        }
+        string field = name.ToLowerInvariant();
+
+        if (TextSpan.IsPrivilegedSpanAttr(field))
+        {
+            if (op == 0 || value == null)
+            {
+                throw new PythiaQueryException(
+                    "Privileged attribute without value: " + name);
+            }
+            return TextSpan.IsNumericPrivilegedSpanAttr(field)
+                ? EvaluateNumericField(type, field, op, value)
+                : EvaluateTerms(type, field, op, value);
+        }
+
+        // non-privileged: name only, or name with operator and value
+        return op == 0
+            ? _index.Lookup(type, PositionalIndex.NAME_FIELD, field)
+            : EvaluateTerms(type, field, op, value ?? "");
+    }
+
+    private static double ParseNumber(string value)
+    {
+        if (!double.TryParse(value, NumberStyles.Float,
+            CultureInfo.InvariantCulture, out double n))
+        {
+            throw new PythiaQueryException("Invalid numeric value: " + value);
+        }
+        return n;
+    }
+
+    private static bool CompareNumber(double a, int op, double b)
+    {
+        return op switch
+        {
+            pythiaLexer.EQ or pythiaLexer.EQN => a == b,
+            pythiaLexer.NEQ or pythiaLexer.NEQN => a != b,
+            pythiaLexer.LT => a < b,
+            pythiaLexer.LTEQ => a <= b,
+            pythiaLexer.GT => a > b,
+            pythiaLexer.GTEQ => a >= b,
+            _ => throw new PythiaQueryException(
+                "Invalid operator for numeric value")
+        };
+    }
+
+    private PositionalPosting[] EvaluateNumericField(string type, string field,
+        int op, string value)
+    {
+        int offset = field switch
+        {
+            "p1" => PositionalIndex.SPAN_P1,
+            "p2" => PositionalIndex.SPAN_P2,
+            "index" => PositionalIndex.SPAN_INDEX,
+            "length" => PositionalIndex.SPAN_LENGTH,
+            _ => throw new NotSupportedException(
+                $"Field {field} is not supported by the positional index")
+        };
+        double n = ParseNumber(value);
+
+        List<PositionalPosting> result = [];
+        foreach (PositionalPosting posting in _index.GetTypePostings(type))
+        {
+            int fieldValue = offset switch
+            {
+                PositionalIndex.SPAN_P1 => posting.P1,
+                PositionalIndex.SPAN_P2 => posting.P2,
+                _ => _index.GetSpanField(posting.Ordinal, offset)
+            };
+            if (CompareNumber(fieldValue, op, n)) result.Add(posting);
+        }
+        return [.. result];
+    }
+
+    private static Regex BuildWildcardsRegex(string value)
+    {
+        StringBuilder sb = new("^");
+        foreach (char c in value)
+        {
+            sb.Append(c switch
+            {
+                '*' => ".*",
+                '?' => ".",
+                _ => Regex.Escape(c.ToString())
+            });
+        }
+        sb.Append('$');
+        return new Regex(sb.ToString(),
+            RegexOptions.Singleline | RegexOptions.CultureInvariant);
+    }
+
+    private PositionalPosting[] EvaluateTerms(string type, string field,
+        int op, string value)
+    {
+        string filtered;
+        switch (op)
+        {
+            case pythiaLexer.EQ:
+                return _index.Lookup(type, field, ApplyLiteralFilters(value));
+
+            case pythiaLexer.NEQ:
+                string lower = value.ToLowerInvariant();
+                return _index.Scan(type, field, v => v != lower);
+
+            case pythiaLexer.CONTAINS:
+                filtered = ApplyLiteralFilters(value).ToLowerInvariant();
+                return _index.Scan(type, field,
+                    v => v.Contains(filtered, StringComparison.Ordinal));
+
+            case pythiaLexer.STARTSWITH:
+                filtered = ApplyLiteralFilters(value).ToLowerInvariant();
+                return _index.Scan(type, field, _ => true, prefix: filtered);
+
+            case pythiaLexer.ENDSWITH:
+                filtered = ApplyLiteralFilters(value).ToLowerInvariant();
+                return _index.Scan(type, field,
+                    v => v.EndsWith(filtered, StringComparison.Ordinal));
+
+            case pythiaLexer.WILDCARDS:
+                // if value has no wildcards, fallback to equals
+                if (value.IndexOfAny(_wildcards) == -1)
+                    goto case pythiaLexer.EQ;
+                Regex wildcards = BuildWildcardsRegex(value.ToLowerInvariant());
+                return _index.Scan(type, field, wildcards.IsMatch);
+
+            case pythiaLexer.REGEXP:
+                // like in SQL, the regular expression is case sensitive
+                Regex regex = new(value, RegexOptions.CultureInvariant);
+                return _index.Scan(type, field, regex.IsMatch, true);
+
+            case pythiaLexer.SIMILAR:
+                throw new NotSupportedException(
+                    "Similarity is not supported by the positional index");
+
+            default:
+                // numeric comparison of numeric values only
+                double n = ParseNumber(value);
+                return _index.Scan(type, field, v =>
+                    double.TryParse(v, NumberStyles.Float,
+                        CultureInfo.InvariantCulture, out double d) &&
+                    CompareNumber(d, op, n));
+        }
+    }
+}
@@ -0,0 +1,121 @@
+﻿using System;
+using System.Collections.Generic;
+
+namespace Pythia.Core.Index;
+
+/// <summary>
+/// Merge operations on posting lists sorted by ordinal. Logical operators
+/// are merges on span ordinals, while location operators are merge joins
+/// on positions (see <see cref="LocationMergeJoin"/>).
+/// </summary>
+public static class PostingMerger
+{
+    /// <summary>
+    /// Gets the postings found in both lists (AND).
+    /// </summary>
+    /// <param name="left">The left list.</param>
+    /// <param name="right">The right list.</param>
+    /// <returns>Postings sorted by ordinal.</returns>
+    /// <exception cref="ArgumentNullException">left or right</exception>
+    public static PositionalPosting[] Intersect(PositionalPosting[] left,
+        PositionalPosting[] right)
+    {
+        ArgumentNullException.ThrowIfNull(left);
+        ArgumentNullException.ThrowIfNull(right);
+
+        List<PositionalPosting> result = new(Math.Min(left.Length, right.Length));
+        int i = 0, j = 0;
+        while (i < left.Length && j < right.Length)
+        {
+            int n = left[i].Ordinal.CompareTo(right[j].Ordinal);
+            if (n == 0)
+            {
+                result.Add(left[i++]);
+                j++;
+            }
+            else if (n < 0) i++;
+            else j++;
+        }
+        return [.. result];
+    }
+
+    /// <summary>
+    /// Gets the postings found in any of the lists (OR).
+    /// </summary>
+    /// <param name="left">The left list.</param>
+    /// <param name="right">The right list.</param>
+    /// <returns>Postings sorted by ordinal.</returns>
+    /// <exception cref="ArgumentNullException">left or right</exception>
+    public static PositionalPosting[] Union(PositionalPosting[] left,
+        PositionalPosting[] right)
+    {
+        ArgumentNullException.ThrowIfNull(left);
+        ArgumentNullException.ThrowIfNull(right);
+
+        List<PositionalPosting> result = new(left.Length + right.Length);
+        int i = 0, j = 0;
+        while (i < left.Length && j < right.Length)
+        {
+            int n = left[i].Ordinal.CompareTo(right[j].Ordinal);
+            if (n == 0)
+            {
+                result.Add(left[i++]);
+                j++;
+            }
+            else if (n < 0) result.Add(left[i++]);
+            else result.Add(right[j++]);
+        }
+        while (i < left.Length) result.Add(left[i++]);
+        while (j < right.Length) result.Add(right[j++]);
+        return [.. result];
+    }
+
+    /// <summary>
+    /// Gets the postings found in the left list but not in the right one
+    /// (AND NOT).
+    /// </summary>
+    /// <param name="left">The left list.</param>
+    /// <param name="right">The right list.</param>
+    /// <returns>Postings sorted by ordinal.</returns>
+    /// <exception cref="ArgumentNullException">left or right</exception>
+    public static PositionalPosting[] Except(PositionalPosting[] left,
+        PositionalPosting[] right)
+    {
+        ArgumentNullException.ThrowIfNull(left);
+        ArgumentNullException.ThrowIfNull(right);
+
+        List<PositionalPosting> result = new(left.Length);
+        int i = 0, j = 0;
+        while (i < left.Length)
+        {
+            while (j < right.Length && right[j].Ordinal < left[i].Ordinal) j++;
+            if (j == right.Length || right[j].Ordinal != left[i].Ordinal)
+                result.Add(left[i]);
+            i++;
+        }
+        return [.. result];
+    }
+
+    /// <summary>
+    /// Gets the postings of the left list which are (or, for negated
+    /// operators, are not) in the specified location relative to any of
+    /// the postings of the right list in the same document. This is a merge
+    /// join by document, where for each left posting only the window of
+    /// right postings whose positions can match is scanned.
+    /// </summary>
+    /// <param name="left">The left list.</param>
+    /// <param name="right">The right list.</param>
+    /// <param name="locop">The location operator.</param>
+    /// <returns>Postings from <paramref name="left"/>, sorted by ordinal.
+    /// </returns>
+    /// <exception cref="ArgumentNullException">left or right</exception>
+    public static PositionalPosting[] Locate(PositionalPosting[] left,
+        PositionalPosting[] right, PositionalLocop locop)
+    {
+        ArgumentNullException.ThrowIfNull(left);
+        ArgumentNullException.ThrowIfNull(right);
+
+        return [.. LocationMergeJoin.Join(left, right, locop,
+            p => (p.Document, p.P1, p.P2))];
+    }
+}
@@ -0,0 +1,50 @@
+﻿using System;
+using System.IO;
+
+namespace Pythia.Core.Index;
+
+/// <summary>
+/// Variable-length encoding for unsigned integers (7 bits per byte, with
+/// the high bit set when more bytes follow).
+/// </summary>
+internal static class VarInt
+{
+    /// <summary>
+    /// Writes the specified value.
+    /// </summary>
+    /// <param name="stream">The target stream.</param>
+    /// <param name="value">The value.</param>
+    public static void Write(Stream stream, uint value)
+    {
+        while (value >= 0x80)
+        {
+            stream.WriteByte((byte)(value | 0x80));
+            value >>= 7;
+        }
+        stream.WriteByte((byte)value);
+    }
+
+    /// <summary>
+    /// Reads a value from <paramref name="buffer"/> at the specified
+    /// position, advancing it.
+    /// </summary>
+    /// <param name="buffer">The source buffer.</param>
+    /// <param name="position">The position.</param>
+    /// <returns>The value.</returns>
+    /// <exception cref="InvalidDataException">invalid encoding</exception>
+    public static uint Read(ReadOnlySpan<byte> buffer, ref int position)
+    {
+        uint value = 0;
+        int shift = 0;
+        byte b;
+        do
+        {
+            if (shift > 28)
+                throw new InvalidDataException("Invalid variable-length int");
+            b = buffer[position++];
+            value |= (uint)(b & 0x7F) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return value;
+    }
+}
@@ -0,0 +1,50 @@
+﻿using System;
+using System.Collections.Generic;
+
+namespace Pythia.Core;
+
+/// <summary>
+/// A page of items got by keyset pagination, i.e. by seeking after the
+/// last item of the previous page rather than by skipping an offset.
+/// </summary>
+/// <typeparam name="T">The type of item.</typeparam>
+/// <remarks>
+/// Initializes a new instance of the <see cref="KeysetPage{T}"/> class.
+/// </remarks>
+/// <param name="items">The items.</param>
+/// <param name="continuationToken">The continuation token for the next
+/// page, or null if this is the last page.</param>
+/// <param name="total">The total count of items, or -1 if not
+/// calculated.</param>
+/// <exception cref="ArgumentNullException">items</exception>
+public sealed class KeysetPage<T>(IList<T> items, string? continuationToken,
+    int total = -1)
+{
+    /// <summary>
+    /// Gets the items.
+    /// </summary>
+    public IList<T> Items { get; } = items
+        ?? throw new ArgumentNullException(nameof(items));
+
+    /// <summary>
+    /// Gets the opaque token to pass to get the next page, or null if
+    /// this is the last page.
+    /// </summary>
+    public string? ContinuationToken { get; } = continuationToken;
+
+    /// <summary>
+    /// Gets the total count of items, or -1 if not calculated. This is
+    /// calculated only for the first page.
+    /// </summary>
+    public int Total { get; } = total;
+
+    /// <summary>
+    /// Converts to string.
+    /// </summary>
+    /// <returns>String.</returns>
+    public override string ToString()
+    {
+        return $"{Items.Count}/{Total}" +
+            (ContinuationToken != null ? " +" : "");
+    }
+}
@@ -0,0 +1,122 @@
+﻿using System;
+using System.Globalization;
+using System.Text;
+
+namespace Pythia.Core;
+
+/// <summary>
+/// The continuation key of a search paged by seeking rather than by offset
+/// (keyset pagination). This is the sort key, document ID, position and ID
+/// of the last result of a page; the next page starts after it. Outside
+/// the repository, this key is handled as an opaque token.
+/// </summary>
+/// <remarks>
+/// Initializes a new instance of the <see cref="SearchContinuation"/> class.
+/// </remarks>
+/// <param name="sortKey">The document's sort key.</param>
+/// <param name="documentId">The document ID.</param>
+/// <param name="p1">The start position.</param>
+/// <param name="id">The result ID.</param>
+/// <exception cref="ArgumentNullException">sortKey</exception>
+public sealed class SearchContinuation(string sortKey, int documentId,
+    int p1, int id)
+{
+    /// <summary>
+    /// The continuation preceding any result, used for the first page.
+    /// Document IDs start from 1, so this sorts before all the results.
+    /// </summary>
+    public static readonly SearchContinuation Start = new("", 0, 0, 0);
+
+    /// <summary>
+    /// Gets the document's sort key.
+    /// </summary>
+    public string SortKey { get; } = sortKey
+        ?? throw new ArgumentNullException(nameof(sortKey));
+
+    /// <summary>
+    /// Gets the document ID.
+    /// </summary>
+    public int DocumentId { get; } = documentId;
+
+    /// <summary>
+    /// Gets the start position.
+    /// </summary>
+    public int P1 { get; } = p1;
+
+    /// <summary>
+    /// Gets the result ID.
+    /// </summary>
+    public int Id { get; } = id;
+
+    /// <summary>
+    /// Creates a continuation from the specified result.
+    /// </summary>
+    /// <param name="result">The last result of a page.</param>
+    /// <returns>Continuation.</returns>
+    /// <exception cref="ArgumentNullException">result</exception>
+    public static SearchContinuation FromResult(SearchResult result)
+    {
+        ArgumentNullException.ThrowIfNull(result);
+        return new SearchContinuation(result.SortKey ?? "",
+            result.DocumentId, result.P1, result.Id);
+    }
+
+    /// <summary>
+    /// Encodes this continuation into an opaque URL-safe token.
+    /// </summary>
+    /// <returns>Token.</returns>
+    public string Encode()
+    {
+        // the sort key is last, so it can contain any character
+        string text = string.Create(CultureInfo.InvariantCulture,
+            $"{DocumentId},{P1},{Id},{SortKey}");
+        return Convert.ToBase64String(Encoding.UTF8.GetBytes(text))
+            .TrimEnd('=').Replace('+', '-').Replace('/', '_');
+    }
+
+    /// <summary>
+    /// Decodes the specified token.
+    /// </summary>
+    /// <param name="token">The token, or null or empty for the first page.
+    /// </param>
+    /// <returns>Continuation.</returns>
+    /// <exception cref="ArgumentException">invalid token</exception>
+    public static SearchContinuation Decode(string? token)
+    {
+        if (string.IsNullOrEmpty(token)) return Start;
+
+        try
+        {
+            string b64 = token.Replace('-', '+').Replace('_', '/');
+            b64 = b64.PadRight(b64.Length + (4 - b64.Length % 4) % 4, '=');
+            string[] parts = Encoding.UTF8.GetString(
+                Convert.FromBase64String(b64)).Split(',', 4);
+            if (parts.Length == 4)
+            {
+                return new SearchContinuation(parts[3],
+                    int.Parse(parts[0], CultureInfo.InvariantCulture),
+                    int.Parse(parts[1], CultureInfo.InvariantCulture),
+                    int.Parse(parts[2], CultureInfo.InvariantCulture));
+            }
+        }
+        catch (FormatException)
+        {
+            // handled below
+        }
+        catch (OverflowException)
+        {
+            // handled below
+        }
+        throw new ArgumentException("Invalid continuation token: " + token,
+            nameof(token));
+    }
+
+    /// <summary>
+    /// Converts to string.
+    /// </summary>
+    /// <returns>String.</returns>
+    public override string ToString()
+    {
+        return $"{SortKey}|{DocumentId}|{P1}|{Id}";
+    }
+}
@@ -0,0 +1,27 @@
+﻿namespace Pythia.Core;
+
+/// <summary>
+/// The strategy used to calculate the total count of results of a search.
+/// </summary>
+public enum SearchCountStrategy
+{
+    /// <summary>
+    /// Exact count. This is the default, but for frequent terms counting
+    /// all the results can cost more than getting a page of them.
+    /// </summary>
+    Exact = 0,
+
+    /// <summary>
+    /// Estimated count, as calculated by the database planner without
+    /// executing the count query. The total is marked as approximate,
+    /// unless it can be exactly inferred from the page got.
+    /// </summary>
+    Estimated,
+
+    /// <summary>
+    /// Deferred count: no count is executed, and the total is just the
+    /// count of results up to the page got. The exact count can be got
+    /// later with a separate request.
+    /// </summary>
+    Deferred
+}
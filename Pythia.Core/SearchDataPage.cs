@@ -0,0 +1,32 @@
+﻿using Fusi.Tools.Data;
+using System.Collections.Generic;
+
+namespace Pythia.Core;
+
+/// <summary>
+/// A page of search results, whose total might have been estimated or
+/// deferred according to the <see cref="SearchCountStrategy"/> requested.
+/// </summary>
+/// <typeparam name="T">The type of item.</typeparam>
+/// <remarks>
+/// Initializes a new instance of the <see cref="SearchDataPage{T}"/> class.
+/// </remarks>
+/// <param name="pageNumber">The page number.</param>
+/// <param name="pageSize">The page size.</param>
+/// <param name="total">The total count of items.</param>
+/// <param name="items">The items.</param>
+public class SearchDataPage<T>(int pageNumber, int pageSize, int total,
+    IList<T> items) : DataPage<T>(pageNumber, pageSize, total, items)
+{
+    /// <summary>
+    /// Gets a value indicating whether the total is just an estimate.
+    /// </summary>
+    public bool IsTotalApproximate { get; init; }
+
+    /// <summary>
+    /// Gets a value indicating whether the count was deferred, so that the
+    /// total is just the count of results up to this page. The exact count
+    /// must be requested separately.
+    /// </summary>
+    public bool IsTotalDeferred { get; init; }
+}
@@ -1,5 +1,6 @@
 ﻿using Fusi.Tools.Data;
 using System.Collections.Generic;
+using System.Text;
 
 namespace Pythia.Core;
 
@@ -23,6 +24,43 @@ public class SearchRequest : PagingOptions
     /// </summary>
     public IList<string>? SortFields { get; set; }
 
+    /// <summary>
+    /// The strategy used to calculate the total count of results.
+    /// Default is <see cref="SearchCountStrategy.Exact"/>.
+    /// </summary>
+    public SearchCountStrategy CountStrategy { get; set; }
+
+    /// <summary>
+    /// Normalizes the specified Pythia query by trimming it and collapsing
+    /// whitespace outside quoted values, so that it can be used as a key
+    /// when caching anything derived from it.
+    /// </summary>
+    /// <param name="query">The query.</param>
+    /// <returns>Normalized query.</returns>
+    public static string NormalizeQuery(string? query)
+    {
+        if (string.IsNullOrEmpty(query)) return "";
+
+        StringBuilder sb = new(query.Length);
+        bool quoted = false, space = false;
+        foreach (char c in query.Trim())
+        {
+            if (c == '"') quoted = !quoted;
+            if (!quoted && char.IsWhiteSpace(c))
+            {
+                space = true;
+                continue;
+            }
+            if (space)
+            {
+                sb.Append(' ');
+                space = false;
+            }
+            sb.Append(c);
+        }
+        return sb.ToString();
+    }
+
     /// <summary>
     /// Converts to string.
     /// </summary>
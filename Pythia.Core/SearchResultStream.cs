@@ -0,0 +1,99 @@
+﻿using System;
+using System.Collections.Generic;
+using System.Runtime.CompilerServices;
+using System.Threading;
+
+namespace Pythia.Core;
+
+/// <summary>
+/// Helpers for consuming the results streamed by
+/// <see cref="IIndexRepository.StreamSearchAsync"/>, as in exports.
+/// </summary>
+public static class SearchResultStream
+{
+    /// <summary>
+    /// The default count of results whose context is got in a single
+    /// request.
+    /// </summary>
+    public const int DEFAULT_WINDOW_SIZE = 500;
+
+    /// <summary>
+    /// Skips the first <paramref name="skip"/> items of the specified
+    /// sequence, and yields at most <paramref name="take"/> of the
+    /// following ones.
+    /// </summary>
+    /// <typeparam name="T">The type of item.</typeparam>
+    /// <param name="source">The source sequence.</param>
+    /// <param name="skip">The count of items to skip.</param>
+    /// <param name="take">The maximum count of items to yield, or 0 to
+    /// yield all of them.</param>
+    /// <param name="cancel">The cancellation token.</param>
+    /// <returns>Items.</returns>
+    /// <exception cref="ArgumentNullException">source</exception>
+    /// <exception cref="ArgumentOutOfRangeException">skip or take less
+    /// than 0</exception>
+    public static async IAsyncEnumerable<T> SliceAsync<T>(
+        IAsyncEnumerable<T> source, int skip, int take,
+        [EnumeratorCancellation] CancellationToken cancel = default)
+    {
+        ArgumentNullException.ThrowIfNull(source);
+        ArgumentOutOfRangeException.ThrowIfNegative(skip);
+        ArgumentOutOfRangeException.ThrowIfNegative(take);
+
+        int n = 0;
+        await foreach (T item in source.WithCancellation(cancel))
+        {
+            if (n++ < skip) continue;
+            yield return item;
+            if (take > 0 && n - skip == take) yield break;
+        }
+    }
+
+    /// <summary>
+    /// Gets the context for the specified results in windows of
+    /// <paramref name="windowSize"/> results each, so that all the
+    /// contexts of a window are got with a single request and only
+    /// one window at a time is held in memory.
+    /// </summary>
+    /// <param name="repository">The repository to get context from.
+    /// </param>
+    /// <param name="results">The results.</param>
+    /// <param name="contextSize">Size of the context: e.g. if 5, you will
+    /// get 5 tokens to the left and 5 to the right.</param>
+    /// <param name="windowSize">The maximum count of results in each
+    /// window.</param>
+    /// <param name="cancel">The cancellation token.</param>
+    /// <returns>Windows of results with context, in the same order of
+    /// <paramref name="results"/>.</returns>
+    /// <exception cref="ArgumentNullException">repository or results
+    /// </exception>
+    /// <exception cref="ArgumentOutOfRangeException">window size less
+    /// than 1</exception>
+    public static async IAsyncEnumerable<IList<KwicSearchResult>>
+        GetContextWindowsAsync(this IIndexRepository repository,
+        IAsyncEnumerable<SearchResult> results, int contextSize,
+        int windowSize = DEFAULT_WINDOW_SIZE,
+        [EnumeratorCancellation] CancellationToken cancel = default)
+    {
+        ArgumentNullException.ThrowIfNull(repository);
+        ArgumentNullException.ThrowIfNull(results);
+        ArgumentOutOfRangeException.ThrowIfLessThan(windowSize, 1);
+
+        List<SearchResult> window = new(windowSize);
+        await foreach (SearchResult result in results.WithCancellation(cancel))
+        {
+            window.Add(result);
+            if (window.Count < windowSize) continue;
+
+            yield return await repository.GetResultContextAsync(window,
+                contextSize, cancel);
+            window.Clear();
+        }
+
+        if (window.Count > 0)
+        {
+            yield return await repository.GetResultContextAsync(window,
+                contextSize, cancel);
+        }
+    }
+}
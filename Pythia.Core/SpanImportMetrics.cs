@@ -0,0 +1,109 @@
+﻿using System;
+
+namespace Pythia.Core;
+
+/// <summary>
+/// Throughput metrics collected while importing spans into an index
+/// repository. This is used to compare the per-row import path with the
+/// bulk import path.
+/// </summary>
+public sealed class SpanImportMetrics
+{
+    private readonly object _locker = new();
+    private long _spanCount;
+    private long _attributeCount;
+    private long _batchCount;
+    private TimeSpan _elapsed;
+
+    /// <summary>
+    /// Gets the count of imported spans.
+    /// </summary>
+    public long SpanCount
+    {
+        get { lock (_locker) return _spanCount; }
+    }
+
+    /// <summary>
+    /// Gets the count of imported span attributes.
+    /// </summary>
+    public long AttributeCount
+    {
+        get { lock (_locker) return _attributeCount; }
+    }
+
+    /// <summary>
+    /// Gets the count of imported batches.
+    /// </summary>
+    public long BatchCount
+    {
+        get { lock (_locker) return _batchCount; }
+    }
+
+    /// <summary>
+    /// Gets the total time spent importing.
+    /// </summary>
+    public TimeSpan Elapsed
+    {
+        get { lock (_locker) return _elapsed; }
+    }
+
+    /// <summary>
+    /// Gets the import rate in rows (spans plus attributes) per second.
+    /// </summary>
+    public double RowsPerSecond
+    {
+        get
+        {
+            lock (_locker)
+            {
+                return _elapsed.TotalSeconds > 0
+                    ? (_spanCount + _attributeCount) / _elapsed.TotalSeconds
+                    : 0;
+            }
+        }
+    }
+
+    /// <summary>
+    /// Adds the data of an imported batch to these metrics.
+    /// </summary>
+    /// <param name="spanCount">The count of spans in the batch.</param>
+    /// <param name="attributeCount">The count of attributes in the batch.
+    /// </param>
+    /// <param name="elapsed">The time spent importing the batch.</param>
+    public void Add(int spanCount, int attributeCount, TimeSpan elapsed)
+    {
+        lock (_locker)
+        {
+            _spanCount += spanCount;
+            _attributeCount += attributeCount;
+            _batchCount++;
+            _elapsed += elapsed;
+        }
+    }
+
+    /// <summary>
+    /// Resets these metrics.
+    /// </summary>
+    public void Reset()
+    {
+        lock (_locker)
+        {
+            _spanCount = _attributeCount = _batchCount = 0;
+            _elapsed = TimeSpan.Zero;
+        }
+    }
+
+    /// <summary>
+    /// Converts to string.
+    /// </summary>
+    /// <returns>String.</returns>
+    public override string ToString()
+    {
+        lock (_locker)
+        {
+            return $"{_spanCount} spans + {_attributeCount} attributes " +
+                $"in {_batchCount} batches, {_elapsed.TotalSeconds:F2}s: " +
+                $"{RowsPerSecond:F0} rows/s";
+        }
+    }
+}
@@ -0,0 +1,199 @@
+﻿using System;
+using System.Collections.Generic;
+
+namespace Pythia.Core;
+
+/// <summary>
+/// A snapshot of the index statistics, as stored by repositories
+/// implementing <see cref="IStatisticsSnapshotRepository"/>. The snapshot
+/// stores raw counters, some of them (like attribute counts) in separate
+/// entries for documents and spans; <see cref="Create"/> combines them into
+/// the same values returned by <see cref="IIndexRepository.GetStatistics"/>.
+/// </summary>
+public sealed class StatisticsSnapshot
+{
+    /// <summary>
+    /// The prefix of the entries with the count of the document attributes
+    /// having the name following it.
+    /// </summary>
+    public const string DOC_ATTR_PREFIX = "doc@";
+
+    /// <summary>
+    /// The prefix of the entries with the count of the span attributes
+    /// having the name following it.
+    /// </summary>
+    public const string SPAN_ATTR_PREFIX = "span@";
+
+    /// <summary>
+    /// The prefix of the entries with the count of the spans having the
+    /// type following it.
+    /// </summary>
+    public const string SPAN_TYPE_PREFIX = "span.";
+
+    /// <summary>
+    /// Gets the statistics.
+    /// </summary>
+    public IDictionary<string, double> Values { get; }
+
+    /// <summary>
+    /// Gets the time of the last full refresh of the snapshot.
+    /// </summary>
+    public DateTime Refreshed { get; }
+
+    /// <summary>
+    /// Gets the time of the last update of any of the snapshot entries.
+    /// This is the time the snapshot was taken, as it has been kept up
+    /// to date incrementally since <see cref="Refreshed"/>.
+    /// </summary>
+    public DateTime Updated { get; }
+
+    /// <summary>
+    /// Initializes a new instance of the <see cref="StatisticsSnapshot"/>
+    /// class.
+    /// </summary>
+    /// <param name="values">The statistics.</param>
+    /// <param name="refreshed">The time of the last full refresh.</param>
+    /// <param name="updated">The time of the last update.</param>
+    /// <exception cref="ArgumentNullException">values</exception>
+    public StatisticsSnapshot(IDictionary<string, double> values,
+        DateTime refreshed, DateTime updated)
+    {
+        Values = values ?? throw new ArgumentNullException(nameof(values));
+        Refreshed = refreshed;
+        Updated = updated;
+    }
+
+    private static void AddRatio(string dividend, string divisor,
+        Dictionary<string, double> stats)
+    {
+        if (stats.TryGetValue(dividend, out double de) &&
+            stats.TryGetValue(divisor, out double dv) && dv > 0)
+        {
+            stats[dividend + "_ratio"] = de / dv;
+        }
+    }
+
+    /// <summary>
+    /// Creates a snapshot from the specified stored entries. Attribute
+    /// counts are keyed by their name prefixed with <c>@</c>, span
+    /// attributes overriding document attributes with the same name,
+    /// and ratios are calculated from the counts.
+    /// </summary>
+    /// <param name="entries">The entries.</param>
+    /// <param name="refreshed">The time of the last full refresh.</param>
+    /// <param name="updated">The time of the last update.</param>
+    /// <returns>Snapshot.</returns>
+    /// <exception cref="ArgumentNullException">entries</exception>
+    public static StatisticsSnapshot Create(
+        IEnumerable<KeyValuePair<string, double>> entries,
+        DateTime refreshed, DateTime updated)
+    {
+        ArgumentNullException.ThrowIfNull(entries);
+
+        Dictionary<string, double> stats = [];
+        List<KeyValuePair<string, double>> spanAttrs = [];
+
+        foreach (KeyValuePair<string, double> entry in entries)
+        {
+            if (entry.Key.StartsWith(DOC_ATTR_PREFIX, StringComparison.Ordinal))
+            {
+                stats["@" + entry.Key[DOC_ATTR_PREFIX.Length..]] = entry.Value;
+            }
+            else if (entry.Key.StartsWith(SPAN_ATTR_PREFIX,
+                StringComparison.Ordinal))
+            {
+                spanAttrs.Add(entry);
+            }
+            else
+            {
+                stats[entry.Key] = entry.Value;
+            }
+        }
+        foreach (KeyValuePair<string, double> entry in spanAttrs)
+            stats["@" + entry.Key[SPAN_ATTR_PREFIX.Length..]] = entry.Value;
+
+        // calculated values
+        AddRatio("document_attribute_count", "document_count", stats);
+        AddRatio("span_attribute_count", "span_count", stats);
+        AddRatio("span_tok_attribute_count", "span_tok_count", stats);
+
+        return new StatisticsSnapshot(stats, refreshed, updated);
+    }
+
+    private static void Add(Dictionary<string, double> deltas, string key,
+        double value)
+    {
+        deltas[key] = deltas.TryGetValue(key, out double old)
+            ? old + value : value;
+    }
+
+    /// <summary>
+    /// Gets the changes to the snapshot entries caused by adding the
+    /// specified spans with their attributes.
+    /// </summary>
+    /// <param name="spans">The spans.</param>
+    /// <param name="nameSelector">The optional function used to get the
+    /// name of each attribute as stored, e.g. truncated.</param>
+    /// <returns>The changes, keyed by entry name.</returns>
+    /// <exception cref="ArgumentNullException">spans</exception>
+    public static Dictionary<string, double> GetSpanDeltas(
+        IEnumerable<TextSpan> spans, Func<string, string>? nameSelector = null)
+    {
+        ArgumentNullException.ThrowIfNull(spans);
+
+        Dictionary<string, double> deltas = [];
+        foreach (TextSpan span in spans)
+        {
+            Add(deltas, "span_count", 1);
+            Add(deltas, SPAN_TYPE_PREFIX + span.Type, 1);
+
+            if (span.Attributes?.Count > 0)
+            {
+                int count = span.Attributes.Count;
+                Add(deltas, "span_attribute_count", count);
+                if (span.Type == TextSpan.TYPE_TOKEN)
+                    Add(deltas, "span_tok_attribute_count", count);
+
+                foreach (Corpus.Core.Attribute attribute in span.Attributes)
+                {
+                    Add(deltas, SPAN_ATTR_PREFIX + (nameSelector != null
+                        ? nameSelector(attribute.Name) : attribute.Name), 1);
+                }
+            }
+        }
+        return deltas;
+    }
+}
+
+/// <summary>
+/// The parts of a <see cref="StatisticsSnapshot"/>, which can be updated
+/// separately.
+/// </summary>
+[Flags]
+public enum StatisticsSnapshotParts
+{
+    /// <summary>
+    /// No part.
+    /// </summary>
+    None = 0,
+
+    /// <summary>
+    /// Corpora, documents, document attributes and profiles.
+    /// </summary>
+    Documents = 0x01,
+
+    /// <summary>
+    /// Spans and span attributes.
+    /// </summary>
+    Spans = 0x02,
+
+    /// <summary>
+    /// Words and lemmata.
+    /// </summary>
+    Words = 0x04,
+
+    /// <summary>
+    /// All the parts.
+    /// </summary>
+    All = Documents | Spans | Words
+}
@@ -0,0 +1,787 @@
+﻿using Fusi.Tools.Data;
+using System;
+using System.Collections.Generic;
+using System.Globalization;
+using System.Linq;
+using System.Threading;
+
+namespace Pythia.Core;
+
+/// <summary>
+/// In-memory, read-only copy of the words and lemmata index with their
+/// per-attribute counts. Data are stored as columns of primitive arrays,
+/// with dictionary-encoded strings and prebuilt sort orders, so that
+/// browsing, sorting and filtering words and lemmata can be served in
+/// process without querying the database.
+/// </summary>
+/// <remarks>Filters have the same semantics as the SQL repository, with
+/// <c>_</c> and <c>%</c> as wildcards in value patterns. Values are sorted
+/// with <see cref="Comparer"/>, which should match the database collation
+/// so that pages are the same whether served by the store or by the
+/// database. The store is thread-safe: loading builds a new snapshot, which
+/// replaces the current one only when complete.</remarks>
+public sealed class WordFrequencyStore
+{
+    private readonly object _locker = new();
+    private Snapshot? _snapshot;
+
+    /// <summary>
+    /// Gets the comparer used to sort values and reversed values.
+    /// </summary>
+    public StringComparer Comparer { get; }
+
+    /// <summary>
+    /// Initializes a new instance of the <see cref="WordFrequencyStore"/>
+    /// class.
+    /// </summary>
+    /// <param name="comparer">The comparer used to sort values, which
+    /// should match the database collation. The default is the invariant
+    /// culture comparer, which, like the usual linguistic collations of
+    /// the database, sorts accented letters next to their base letters
+    /// (e.g. <c>città</c> before <c>cittadino</c>).</param>
+    public WordFrequencyStore(StringComparer? comparer = null)
+    {
+        Comparer = comparer ?? StringComparer.InvariantCulture;
+    }
+
+    /// <summary>
+    /// Creates the comparer for the specified collation.
+    /// </summary>
+    /// <param name="collation">The collation: a culture name like
+    /// <c>it-IT</c>, <c>ordinal</c> for the ordinal comparison (matching
+    /// the database <c>C</c> collation), or null or empty for the invariant
+    /// culture.</param>
+    /// <returns>Comparer.</returns>
+    /// <exception cref="CultureNotFoundException">invalid culture name
+    /// </exception>
+    public static StringComparer CreateComparer(string? collation)
+    {
+        if (string.IsNullOrEmpty(collation))
+            return StringComparer.InvariantCulture;
+        if (collation.Equals("ordinal", StringComparison.OrdinalIgnoreCase))
+            return StringComparer.Ordinal;
+        return StringComparer.Create(CultureInfo.GetCultureInfo(collation),
+            false);
+    }
+
+    /// <summary>
+    /// Gets a value indicating whether this store has been loaded.
+    /// </summary>
+    public bool IsLoaded => Volatile.Read(ref _snapshot) != null;
+
+    /// <summary>
+    /// Gets the signature of the loaded index, or null if not loaded.
+    /// </summary>
+    public string? Signature => Volatile.Read(ref _snapshot)?.Signature;
+
+    /// <summary>
+    /// Gets the UTC time of the last load, or null if not loaded.
+    /// </summary>
+    public DateTime? LoadedAt => Volatile.Read(ref _snapshot)?.LoadedAt;
+
+    /// <summary>
+    /// Gets the count of loaded words.
+    /// </summary>
+    public int WordCount => Volatile.Read(ref _snapshot)?.Words.Length ?? 0;
+
+    /// <summary>
+    /// Gets the count of loaded lemmata.
+    /// </summary>
+    public int LemmaCount => Volatile.Read(ref _snapshot)?.Lemmata.Length ?? 0;
+
+    /// <summary>
+    /// Gets the estimated memory used by the loaded data, in bytes.
+    /// </summary>
+    public long EstimatedMemory =>
+        Volatile.Read(ref _snapshot)?.EstimatedMemory ?? 0;
+
+    private Snapshot GetSnapshot()
+    {
+        return Volatile.Read(ref _snapshot)
+            ?? throw new InvalidOperationException("Word store not loaded");
+    }
+
+    /// <summary>
+    /// Loads this store from the specified source, replacing any previously
+    /// loaded data.
+    /// </summary>
+    /// <param name="source">The source.</param>
+    /// <exception cref="ArgumentNullException">source</exception>
+    public void Load(IWordFrequencySource source)
+    {
+        ArgumentNullException.ThrowIfNull(source);
+
+        lock (_locker)
+        {
+            Volatile.Write(ref _snapshot, Snapshot.Build(source,
+                source.GetWordIndexSignature(), Comparer));
+        }
+    }
+
+    /// <summary>
+    /// Reloads this store from the specified source if not loaded, or if
+    /// the source index signature has changed since the last load.
+    /// </summary>
+    /// <param name="source">The source.</param>
+    /// <returns>True if the store was (re)loaded.</returns>
+    /// <exception cref="ArgumentNullException">source</exception>
+    public bool Refresh(IWordFrequencySource source)
+    {
+        ArgumentNullException.ThrowIfNull(source);
+
+        lock (_locker)
+        {
+            string signature = source.GetWordIndexSignature();
+            if (_snapshot?.Signature == signature) return false;
+
+            Volatile.Write(ref _snapshot, Snapshot.Build(source, signature,
+                Comparer));
+            return true;
+        }
+    }
+
+    /// <summary>
+    /// Gets statistics about this store.
+    /// </summary>
+    /// <returns>Dictionary with statistics.</returns>
+    public IDictionary<string, double> GetStatistics()
+    {
+        Snapshot? snapshot = Volatile.Read(ref _snapshot);
+        if (snapshot == null) return new Dictionary<string, double>();
+
+        return new Dictionary<string, double>
+        {
+            ["word_count"] = snapshot.Words.Length,
+            ["lemma_count"] = snapshot.Lemmata.Length,
+            ["word_count_count"] = snapshot.WordCounts.Length,
+            ["lemma_count_count"] = snapshot.LemmaCounts.Length,
+            ["string_count"] = snapshot.Strings.Length,
+            ["memory"] = snapshot.EstimatedMemory
+        };
+    }
+
+    /// <summary>
+    /// Gets the specified page of words.
+    /// </summary>
+    /// <param name="filter">The words filter.</param>
+    /// <returns>The results page.</returns>
+    /// <exception cref="ArgumentNullException">filter</exception>
+    /// <exception cref="InvalidOperationException">store not loaded
+    /// </exception>
+    public DataPage<Word> GetWords(WordFilter filter)
+    {
+        ArgumentNullException.ThrowIfNull(filter);
+
+        Snapshot snapshot = GetSnapshot();
+        FrequencyTable table = snapshot.Words;
+        string[] strings = snapshot.Strings;
+
+        List<int> rows = Find(snapshot, table, filter, filter.LemmaId,
+            out int total);
+
+        return new DataPage<Word>(filter.PageNumber, filter.PageSize, total,
+            rows.ConvertAll(row => new Word
+            {
+                Id = table.Ids[row],
+                LemmaId = table.LemmaIds![row] < 0
+                    ? null : table.LemmaIds[row],
+                Value = strings[table.ValueIds[row]],
+                ReversedValue = strings[table.ReversedIds[row]],
+                Language = GetString(strings, table.LanguageIds[row]),
+                Pos = GetString(strings, table.PosIds[row]),
+                Lemma = GetString(strings, table.LemmaValueIds![row]),
+                Count = table.Counts[row]
+            }));
+    }
+
+    /// <summary>
+    /// Gets the specified page of lemmata.
+    /// </summary>
+    /// <param name="filter">The lemmata filter.</param>
+    /// <returns>The results page.</returns>
+    /// <exception cref="ArgumentNullException">filter</exception>
+    /// <exception cref="InvalidOperationException">store not loaded
+    /// </exception>
+    public DataPage<Lemma> GetLemmata(LemmaFilter filter)
+    {
+        ArgumentNullException.ThrowIfNull(filter);
+
+        Snapshot snapshot = GetSnapshot();
+        FrequencyTable table = snapshot.Lemmata;
+        string[] strings = snapshot.Strings;
+
+        List<int> rows = Find(snapshot, table, filter, null, out int total);
+
+        return new DataPage<Lemma>(filter.PageNumber, filter.PageSize, total,
+            rows.ConvertAll(row => new Lemma
+            {
+                Id = table.Ids[row],
+                Value = strings[table.ValueIds[row]],
+                ReversedValue = strings[table.ReversedIds[row]],
+                Language = GetString(strings, table.LanguageIds[row]),
+                Pos = GetString(strings, table.PosIds[row]),
+                Count = table.Counts[row]
+            }));
+    }
+
+    /// <summary>
+    /// Gets the word or lemma counts for the subset of documents having
+    /// the specified attribute name, sorted by descending count.
+    /// </summary>
+    /// <param name="lemma">if set to <c>true</c> get lemma counts, else
+    /// get word counts.</param>
+    /// <param name="id">The word or lemma identifier.</param>
+    /// <param name="attrName">Name of the attribute.</param>
+    /// <returns>Token counts.</returns>
+    /// <exception cref="ArgumentNullException">attrName</exception>
+    /// <exception cref="InvalidOperationException">store not loaded
+    /// </exception>
+    public IList<TokenCount> GetTokenCounts(bool lemma, int id,
+        string attrName)
+    {
+        ArgumentNullException.ThrowIfNull(attrName);
+
+        Snapshot snapshot = GetSnapshot();
+        CountTable table = lemma ? snapshot.LemmaCounts : snapshot.WordCounts;
+
+        List<TokenCount> counts = [];
+        if (!snapshot.Tags.TryGetValue(attrName, out int nameId))
+            return counts;
+
+        for (int row = LowerBound(table.SourceIds, id);
+             row < table.SourceIds.Length && table.SourceIds[row] == id;
+             row++)
+        {
+            if (table.NameIds[row] != nameId) continue;
+            counts.Add(new TokenCount(id, attrName,
+                snapshot.Strings[table.ValueIds[row]], table.Counts[row]));
+        }
+        return counts;
+    }
+
+    #region Query
+    private static string? GetString(string[] strings, int id) =>
+        id < 0 ? null : strings[id];
+
+    private static int LowerBound(int[] values, int value)
+    {
+        int lo = 0, hi = values.Length;
+        while (lo < hi)
+        {
+            int mid = lo + ((hi - lo) >> 1);
+            if (values[mid] < value) lo = mid + 1;
+            else hi = mid;
+        }
+        return lo;
+    }
+
+    /// <summary>
+    /// Gets the range of the rows in <paramref name="order"/> whose key
+    /// string starts with <paramref name="prefix"/>, or is equal to it when
+    /// <paramref name="exact"/> is true.
+    /// </summary>
+    private static (int Start, int End) GetPrefixRange(string[] strings,
+        int[] order, int[] keyIds, string prefix, bool exact)
+    {
+        // first row whose key is >= prefix
+        int lo = 0, hi = order.Length;
+        while (lo < hi)
+        {
+            int mid = lo + ((hi - lo) >> 1);
+            if (string.CompareOrdinal(strings[keyIds[order[mid]]], prefix) < 0)
+                lo = mid + 1;
+            else hi = mid;
+        }
+        int start = lo;
+
+        // first row whose key is past the matching ones
+        hi = order.Length;
+        while (lo < hi)
+        {
+            int mid = lo + ((hi - lo) >> 1);
+            string key = strings[keyIds[order[mid]]];
+            bool matches = exact
+                ? key == prefix
+                : key.StartsWith(prefix, StringComparison.Ordinal);
+            if (matches) lo = mid + 1;
+            else hi = mid;
+        }
+        return (start, lo);
+    }
+
+    /// <summary>
+    /// Determines whether <paramref name="text"/> matches the SQL LIKE
+    /// <paramref name="pattern"/>, where <c>_</c> matches any character and
+    /// <c>%</c> any sequence of characters.
+    /// </summary>
+    private static bool IsLike(string text, string pattern)
+    {
+        int t = 0, p = 0, starP = -1, starT = 0;
+        while (t < text.Length)
+        {
+            if (p < pattern.Length &&
+                (pattern[p] == '_' || pattern[p] == text[t]))
+            {
+                t++;
+                p++;
+            }
+            else if (p < pattern.Length && pattern[p] == '%')
+            {
+                starP = p++;
+                starT = t;
+            }
+            else if (starP > -1)
+            {
+                p = starP + 1;
+                t = ++starT;
+            }
+            else return false;
+        }
+        while (p < pattern.Length && pattern[p] == '%') p++;
+        return p == pattern.Length;
+    }
+
+    private static List<int> Find(Snapshot snapshot, FrequencyTable table,
+        LemmaFilter filter, int? lemmaId, out int total)
+    {
+        string[] strings = snapshot.Strings;
+        string? pattern = string.IsNullOrEmpty(filter.ValuePattern)
+            ? null : filter.ValuePattern;
+        int posId = -1;
+        if (!string.IsNullOrEmpty(filter.Pos) &&
+            !snapshot.Tags.TryGetValue(filter.Pos, out posId))
+        {
+            total = 0;
+            return [];
+        }
+
+        int[] order = filter.SortOrder switch
+        {
+            WordSortOrder.ByCount => table.ByCount,
+            WordSortOrder.ByReversedValue => table.ReversedOrder,
+            _ => table.ValueOrder
+        };
+        int[] ranks = filter.SortOrder switch
+        {
+            WordSortOrder.ByCount => table.CountRanks,
+            WordSortOrder.ByReversedValue => table.ReversedRanks,
+            _ => table.ValueRanks
+        };
+
+        // narrow the candidate rows using the sorted columns when possible
+        int[] candidates = order;
+        int start = 0, end = order.Length;
+        int[]? rangeOrder = null;
+        (int Start, int End) range = default;
+
+        if (lemmaId.HasValue)
+        {
+            int lo = LowerBound(table.LemmaIdsSorted!, lemmaId.Value);
+            int hi = LowerBound(table.LemmaIdsSorted!, lemmaId.Value + 1);
+            rangeOrder = table.ByLemma!;
+            range = (lo, hi);
+        }
+        else if (pattern != null)
+        {
+            int wild = pattern.Count(c => c == '_' || c == '%');
+            if (wild == 0)
+            {
+                rangeOrder = table.ByValue;
+                range = GetPrefixRange(strings, table.ByValue,
+                    table.ValueIds, pattern, true);
+            }
+            else if (wild == 1 && pattern[^1] == '%')
+            {
+                rangeOrder = table.ByValue;
+                range = GetPrefixRange(strings, table.ByValue,
+                    table.ValueIds, pattern[..^1], false);
+            }
+            else if (wild == 1 && pattern[0] == '%')
+            {
+                char[] a = pattern[1..].ToCharArray();
+                Array.Reverse(a);
+                rangeOrder = table.ByReversed;
+                range = GetPrefixRange(strings, table.ByReversed,
+                    table.ReversedIds, new string(a), false);
+            }
+        }
+
+        if (rangeOrder != null)
+        {
+            if (rangeOrder == order)
+            {
+                (start, end) = range;
+            }
+            else
+            {
+                candidates = rangeOrder[range.Start..range.End];
+                Array.Sort(candidates,
+                    (a, b) => ranks[a].CompareTo(ranks[b]));
+                end = candidates.Length;
+            }
+        }
+
+        // scan the candidates in the requested order, counting all the
+        // matching rows and collecting those in the requested page
+        int skip = filter.GetSkipCount();
+        int take = filter.PageSize;
+        List<int> page = [];
+        total = 0;
+
+        for (int i = 0; i < end - start; i++)
+        {
+            int row = filter.IsSortDescending
+                ? candidates[end - 1 - i]
+                : candidates[start + i];
+
+            if (lemmaId.HasValue && table.LemmaIds![row] != lemmaId.Value)
+                continue;
+            if (filter.MinValueLength > 0 &&
+                table.Lengths[row] < filter.MinValueLength)
+            {
+                continue;
+            }
+            if (filter.MaxValueLength > 0 &&
+                table.Lengths[row] > filter.MaxValueLength)
+            {
+                continue;
+            }
+            if (filter.MinCount > 0 && table.Counts[row] < filter.MinCount)
+                continue;
+            if (filter.MaxCount > 0 && table.Counts[row] > filter.MaxCount)
+                continue;
+            if (posId > -1 && table.PosIds[row] != posId) continue;
+            if (pattern != null &&
+                !IsLike(strings[table.ValueIds[row]], pattern))
+            {
+                continue;
+            }
+
+            if (total >= skip && page.Count < take) page.Add(row);
+            total++;
+        }
+
+        return page;
+    }
+    #endregion
+
+    #region Snapshot
+    /// <summary>
+    /// Builder for the dictionary of strings shared by all the tables.
+    /// </summary>
+    private sealed class StringPool
+    {
+        private readonly Dictionary<string, int> _ids =
+            new(StringComparer.Ordinal);
+        private readonly List<string> _strings = [];
+
+        public int Add(string? value)
+        {
+            if (value == null) return -1;
+            if (!_ids.TryGetValue(value, out int id))
+            {
+                id = _strings.Count;
+                _ids[value] = id;
+                _strings.Add(value);
+            }
+            return id;
+        }
+
+        public string[] ToArray() => [.. _strings];
+    }
+
+    /// <summary>
+    /// Columnar words or lemmata table.
+    /// </summary>
+    private sealed class FrequencyTable
+    {
+        public int[] Ids = [];
+        public int[] ValueIds = [];
+        public int[] ReversedIds = [];
+        public int[] LanguageIds = [];
+        public int[] PosIds = [];
+        public int[] Counts = [];
+        // value length in characters (Unicode code points)
+        public int[] Lengths = [];
+        // words only: lemma ID (-1=null) and lemma value
+        public int[]? LemmaIds;
+        public int[]? LemmaValueIds;
+
+        // rows in ascending ordinal order of value and reversed value, used
+        // to find values and prefixes by binary search
+        public int[] ByValue = [];
+        public int[] ByReversed = [];
+        // rows in ascending sort orders, and position of each row in them;
+        // value orders are the same arrays as the ordinal ones when sorting
+        // by ordinal comparison
+        public int[] ValueOrder = [];
+        public int[] ReversedOrder = [];
+        public int[] ByCount = [];
+        public int[] ValueRanks = [];
+        public int[] ReversedRanks = [];
+        public int[] CountRanks = [];
+        // words only: rows sorted by lemma ID and value, with their lemma IDs
+        public int[]? ByLemma;
+        public int[]? LemmaIdsSorted;
+
+        public int Length => Ids.Length;
+
+        public long EstimatedMemory
+        {
+            get
+            {
+                int arrays = LemmaIds != null ? 17 : 13;
+                if (ValueOrder != ByValue) arrays++;
+                if (ReversedOrder != ByReversed) arrays++;
+                return arrays * (24 + 4L * Length);
+            }
+        }
+
+        private static int[] GetRanks(int[] order)
+        {
+            int[] ranks = new int[order.Length];
+            for (int i = 0; i < order.Length; i++) ranks[order[i]] = i;
+            return ranks;
+        }
+
+        private static int[] GetOrder(int length, Comparison<int> comparison)
+        {
+            int[] order = [.. Enumerable.Range(0, length)];
+            Array.Sort(order, comparison);
+            return order;
+        }
+
+        public void Sort(string[] strings, StringComparer comparer)
+        {
+            int[] ids = Ids;
+            int[] valueIds = ValueIds;
+            int[] reversedIds = ReversedIds;
+            int[] counts = Counts;
+            bool ordinal = comparer == StringComparer.Ordinal;
+
+            ByValue = GetOrder(Length, (a, b) =>
+            {
+                int n = string.CompareOrdinal(strings[valueIds[a]],
+                    strings[valueIds[b]]);
+                return n != 0 ? n : ids[a].CompareTo(ids[b]);
+            });
+            ValueOrder = ordinal ? ByValue : GetOrder(Length, (a, b) =>
+            {
+                int n = comparer.Compare(strings[valueIds[a]],
+                    strings[valueIds[b]]);
+                if (n == 0)
+                {
+                    n = string.CompareOrdinal(strings[valueIds[a]],
+                        strings[valueIds[b]]);
+                }
+                return n != 0 ? n : ids[a].CompareTo(ids[b]);
+            });
+            ValueRanks = GetRanks(ValueOrder);
+            int[] valueRanks = ValueRanks;
+
+            ByReversed = GetOrder(Length, (a, b) =>
+            {
+                int n = string.CompareOrdinal(strings[reversedIds[a]],
+                    strings[reversedIds[b]]);
+                return n != 0 ? n : valueRanks[a].CompareTo(valueRanks[b]);
+            });
+            ReversedOrder = ordinal ? ByReversed : GetOrder(Length, (a, b) =>
+            {
+                int n = comparer.Compare(strings[reversedIds[a]],
+                    strings[reversedIds[b]]);
+                if (n == 0)
+                {
+                    n = string.CompareOrdinal(strings[reversedIds[a]],
+                        strings[reversedIds[b]]);
+                }
+                return n != 0 ? n : valueRanks[a].CompareTo(valueRanks[b]);
+            });
+            ReversedRanks = GetRanks(ReversedOrder);
+
+            ByCount = [.. Enumerable.Range(0, Length)];
+            Array.Sort(ByCount, (a, b) =>
+            {
+                int n = counts[a].CompareTo(counts[b]);
+                return n != 0 ? n : valueRanks[a].CompareTo(valueRanks[b]);
+            });
+            CountRanks = GetRanks(ByCount);
+
+            if (LemmaIds != null)
+            {
+                int[] lemmaIds = LemmaIds;
+                ByLemma = [.. ValueOrder];
+                Array.Sort(ByLemma, (a, b) =>
+                {
+                    int n = lemmaIds[a].CompareTo(lemmaIds[b]);
+                    return n != 0 ? n : valueRanks[a].CompareTo(valueRanks[b]);
+                });
+                LemmaIdsSorted = Array.ConvertAll(ByLemma,
+                    row => lemmaIds[row]);
+            }
+        }
+    }
+
+    /// <summary>
+    /// Columnar word or lemma counts table, sorted by source ID, attribute
+    /// name and descending count.
+    /// </summary>
+    private sealed class CountTable
+    {
+        public int[] SourceIds = [];
+        public int[] NameIds = [];
+        public int[] ValueIds = [];
+        public int[] Counts = [];
+
+        public int Length => SourceIds.Length;
+
+        public long EstimatedMemory => 4 * (24 + 4L * Length);
+    }
+
+    /// <summary>
+    /// An immutable snapshot of the loaded index.
+    /// </summary>
+    private sealed class Snapshot
+    {
+        public required string Signature { get; init; }
+        public required DateTime LoadedAt { get; init; }
+        public required string[] Strings { get; init; }
+        // low-cardinality strings (POS tags and attribute names) to their IDs
+        public required Dictionary<string, int> Tags { get; init; }
+        public required FrequencyTable Words { get; init; }
+        public required FrequencyTable Lemmata { get; init; }
+        public required CountTable WordCounts { get; init; }
+        public required CountTable LemmaCounts { get; init; }
+
+        public required long EstimatedMemory { get; init; }
+
+        private static int GetLength(string value)
+        {
+            int length = 0;
+            foreach (System.Text.Rune _ in value.EnumerateRunes()) length++;
+            return length;
+        }
+
+        private static FrequencyTable BuildTable(StringPool pool,
+            Dictionary<string, int> tags, IEnumerable<Word>? words,
+            IEnumerable<Lemma>? lemmata)
+        {
+            List<int> ids = [], values = [], reversed = [], languages = [],
+                poss = [], counts = [], lengths = [], lemmaIds = [],
+                lemmaValues = [];
+
+            void Add(int id, string value, string reversedValue,
+                string? language, string? pos, int count)
+            {
+                ids.Add(id);
+                values.Add(pool.Add(value));
+                reversed.Add(pool.Add(reversedValue));
+                languages.Add(pool.Add(language));
+                int posId = pool.Add(pos);
+                if (pos != null) tags[pos] = posId;
+                poss.Add(posId);
+                counts.Add(count);
+                lengths.Add(GetLength(value));
+            }
+
+            foreach (Word word in words ?? [])
+            {
+                Add(word.Id, word.Value, word.ReversedValue, word.Language,
+                    word.Pos, word.Count);
+                lemmaIds.Add(word.LemmaId ?? -1);
+                lemmaValues.Add(pool.Add(word.Lemma));
+            }
+            foreach (Lemma lemma in lemmata ?? [])
+            {
+                Add(lemma.Id, lemma.Value, lemma.ReversedValue,
+                    lemma.Language, lemma.Pos, lemma.Count);
+            }
+
+            return new FrequencyTable
+            {
+                Ids = [.. ids],
+                ValueIds = [.. values],
+                ReversedIds = [.. reversed],
+                LanguageIds = [.. languages],
+                PosIds = [.. poss],
+                Counts = [.. counts],
+                Lengths = [.. lengths],
+                LemmaIds = words != null ? [.. lemmaIds] : null,
+                LemmaValueIds = words != null ? [.. lemmaValues] : null
+            };
+        }
+
+        private static CountTable BuildCounts(IEnumerable<TokenCount> items,
+            StringPool pool, Dictionary<string, int> tags)
+        {
+            List<int> sources = [], names = [], values = [], counts = [];
+            foreach (TokenCount count in items)
+            {
+                if (count.Value <= 0) continue;
+                sources.Add(count.SourceId);
+                int nameId = pool.Add(count.AttributeName);
+                tags[count.AttributeName] = nameId;
+                names.Add(nameId);
+                values.Add(pool.Add(count.AttributeValue));
+                counts.Add(count.Value);
+            }
+
+            // sort by source ID, name and descending count
+            int[] order = [.. Enumerable.Range(0, sources.Count)];
+            Array.Sort(order, (a, b) =>
+            {
+                int n = sources[a].CompareTo(sources[b]);
+                if (n == 0) n = names[a].CompareTo(names[b]);
+                return n != 0 ? n : counts[b].CompareTo(counts[a]);
+            });
+
+            return new CountTable
+            {
+                SourceIds = Array.ConvertAll(order, i => sources[i]),
+                NameIds = Array.ConvertAll(order, i => names[i]),
+                ValueIds = Array.ConvertAll(order, i => values[i]),
+                Counts = Array.ConvertAll(order, i => counts[i])
+            };
+        }
+
+        public static Snapshot Build(IWordFrequencySource source,
+            string signature, StringComparer comparer)
+        {
+            StringPool pool = new();
+            Dictionary<string, int> tags = new(StringComparer.Ordinal);
+
+            FrequencyTable words = BuildTable(pool, tags,
+                source.EnumerateWords(), null);
+            FrequencyTable lemmata = BuildTable(pool, tags,
+                null, source.EnumerateLemmata());
+            CountTable wordCounts = BuildCounts(
+                source.EnumerateTokenCounts(false), pool, tags);
+            CountTable lemmaCounts = BuildCounts(
+                source.EnumerateTokenCounts(true), pool, tags);
+
+            string[] strings = pool.ToArray();
+            words.Sort(strings, comparer);
+            lemmata.Sort(strings, comparer);
+
+            long size = 24 + 8L * strings.Length;
+            foreach (string s in strings) size += 22 + 2L * s.Length;
+            // dictionary entries, keys are shared with strings
+            size += tags.Count * 24L;
+
+            return new Snapshot
+            {
+                Signature = signature,
+                LoadedAt = DateTime.UtcNow,
+                Strings = strings,
+                Tags = tags,
+                Words = words,
+                Lemmata = lemmata,
+                WordCounts = wordCounts,
+                LemmaCounts = lemmaCounts,
+                EstimatedMemory = size + words.EstimatedMemory +
+                    lemmata.EstimatedMemory + wordCounts.EstimatedMemory +
+                    lemmaCounts.EstimatedMemory
+            };
+        }
+    }
+    #endregion
+}
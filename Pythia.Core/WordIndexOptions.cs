@@ -0,0 +1,43 @@
+﻿using System.Collections.Generic;
+
+namespace Pythia.Core;
+
+/// <summary>
+/// The options which define the contents of the words index. These are
+/// the same options passed to <see cref="IIndexRepository.BuildWordIndexAsync"/>
+/// for a full build, and must be used unchanged when updating the index
+/// incrementally (see <see cref="IIncrementalWordIndexRepository"/>).
+/// </summary>
+public sealed class WordIndexOptions
+{
+    /// <summary>
+    /// Gets or sets the language to index (null matches NULL).
+    /// </summary>
+    public string? Language { get; set; }
+
+    /// <summary>
+    /// Gets or sets the desired bins counts. For each attribute (either
+    /// privileged or not) which must be handled as a number, this dictionary
+    /// includes its name as the key, and the desired count of bins as the
+    /// value.
+    /// </summary>
+    public IDictionary<string, int> BinCounts { get; set; } =
+        new Dictionary<string, int>();
+
+    /// <summary>
+    /// Gets or sets the names of the non-privileged document attributes
+    /// to be excluded from the pairs.
+    /// </summary>
+    public HashSet<string> ExcludedAttrNames { get; set; } = [];
+
+    /// <summary>
+    /// Gets or sets the names of the non-privileged span attributes to be
+    /// excluded from the words index.
+    /// </summary>
+    public HashSet<string> ExcludedSpanAttrNames { get; set; } = [];
+
+    /// <summary>
+    /// Gets or sets the POS values to be excluded from the index.
+    /// </summary>
+    public HashSet<string> ExcludedPosValues { get; set; } = [];
+}
@@ -0,0 +1,145 @@
+﻿using Pythia.Core;
+using System.Collections.Generic;
+using System.Threading;
+using System.Threading.Tasks;
+using Xunit;
+
+namespace Pythia.Sql.PgSql.Test;
+
+[Collection(nameof(NonParallelResourceCollection))]
+public sealed class IncrementalWordIndexTest : WriteTestBase
+{
+    // date_value is numeric and must be binned; all the test documents
+    // have the same date, so that bins do not change among builds
+    private static readonly WordIndexOptions _options = new()
+    {
+        Language = "lat",
+        BinCounts = new Dictionary<string, int> { ["date_value"] = 1 }
+    };
+
+    /// <summary>
+    /// Asserts that the incrementally updated words index is consistent,
+    /// and equal to the one built from scratch.
+    /// </summary>
+    private static async Task AssertSameAsFullBuildAsync(
+        SqlIndexRepository repository)
+    {
+        Assert.Equal(0, await repository.CheckWordIndexAsync());
+        List<string> incremental = DumpWordIndex();
+
+        await repository.BuildWordIndexAsync(_options.Language,
+            _options.BinCounts, _options.ExcludedAttrNames,
+            _options.ExcludedSpanAttrNames, _options.ExcludedPosValues,
+            CancellationToken.None);
+
+        Assert.Equal(0, await repository.CheckWordIndexAsync());
+        Assert.Equal(DumpWordIndex(), incremental);
+    }
+
+    [Fact]
+    public async Task AddDocumentWordsAsync_Added_SameAsFullBuild()
+    {
+        PgSqlIndexRepository repository = GetRepository();
+        int a = AddDocument(repository, "a");
+        AddTokens(repository, a, "Arma", "cano", "arma", "virum");
+        int b = AddDocument(repository, "b");
+        AddTokens(repository, b, "virum", "cano", "Troiae");
+
+        await repository.AddDocumentWordsAsync(a, _options,
+            CancellationToken.None);
+        await repository.AddDocumentWordsAsync(b, _options,
+            CancellationToken.None);
+
+        Assert.Equal(2, ExecuteScalar(
+            "SELECT count FROM word WHERE value='arma';"));
+        await AssertSameAsFullBuildAsync(repository);
+    }
+
+    [Fact]
+    public async Task AddDocumentWordsAsync_Updated_SameAsFullBuild()
+    {
+        PgSqlIndexRepository repository = GetRepository();
+        int a = AddDocument(repository, "a");
+        AddTokens(repository, a, "arma", "cano", "virum");
+        int b = AddDocument(repository, "b");
+        AddTokens(repository, b, "virum", "cano");
+        await repository.AddDocumentWordsAsync(a, _options,
+            CancellationToken.None);
+        await repository.AddDocumentWordsAsync(b, _options,
+            CancellationToken.None);
+
+        // update a: its words are removed before changing its tokens
+        await repository.RemoveDocumentWordsAsync(a, _options,
+            CancellationToken.None);
+        repository.DeleteDocumentSpans(a);
+        AddTokens(repository, a, "Troiae", "qui", "primus");
+        await repository.AddDocumentWordsAsync(a, _options,
+            CancellationToken.None);
+
+        Assert.Null(ExecuteScalar("SELECT id FROM word WHERE value='arma';"));
+        await AssertSameAsFullBuildAsync(repository);
+    }
+
+    [Fact]
+    public async Task AddDocumentWordsAsync_Readded_SameAsFullBuild()
+    {
+        PgSqlIndexRepository repository = GetRepository();
+        int a = AddDocument(repository, "a");
+        AddTokens(repository, a, "arma", "cano", "arma");
+        await repository.AddDocumentWordsAsync(a, _options,
+            CancellationToken.None);
+
+        // adding again a document already in the index does not
+        // count its words twice
+        await repository.AddDocumentWordsAsync(a, _options,
+            CancellationToken.None);
+
+        Assert.Equal(2, ExecuteScalar(
+            "SELECT count FROM word WHERE value='arma';"));
+        await AssertSameAsFullBuildAsync(repository);
+    }
+
+    [Fact]
+    public async Task RemoveDocumentWordsAsync_Removed_SameAsFullBuild()
+    {
+        PgSqlIndexRepository repository = GetRepository();
+        int a = AddDocument(repository, "a");
+        AddTokens(repository, a, "arma", "cano", "virum");
+        int b = AddDocument(repository, "b");
+        AddTokens(repository, b, "virum", "cano");
+        await repository.AddDocumentWordsAsync(a, _options,
+            CancellationToken.None);
+        await repository.AddDocumentWordsAsync(b, _options,
+            CancellationToken.None);
+
+        await repository.RemoveDocumentWordsAsync(b, _options,
+            CancellationToken.None);
+        repository.DeleteDocumentSpans(b);
+
+        Assert.Equal(1, ExecuteScalar(
+            "SELECT count FROM word WHERE value='virum';"));
+        await AssertSameAsFullBuildAsync(repository);
+    }
+
+    [Fact]
+    public async Task DeleteDocument_Indexed_SameAsFullBuild()
+    {
+        PgSqlIndexRepository repository = GetRepository();
+        int a = AddDocument(repository, "a");
+        AddTokens(repository, a, "arma", "cano", "virum");
+        int b = AddDocument(repository, "b");
+        AddTokens(repository, b, "virum", "cano", "Troiae");
+        await repository.AddDocumentWordsAsync(a, _options,
+            CancellationToken.None);
+        await repository.AddDocumentWordsAsync(b, _options,
+            CancellationToken.None);
+
+        // the options are derived from the index
+        repository.DeleteDocument(b);
+
+        Assert.Equal(1, ExecuteScalar(
+            "SELECT count FROM word WHERE value='virum';"));
+        Assert.Null(ExecuteScalar("SELECT id FROM word WHERE value='troiae';"));
+        await AssertSameAsFullBuildAsync(repository);
+    }
+}
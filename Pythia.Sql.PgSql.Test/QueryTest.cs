@@ -1,6 +1,12 @@
 ﻿using Corpus.Sql;
 using Fusi.Tools.Data;
 using Pythia.Core;
+using Pythia.Core.Analysis;
+using System;
+using System.Collections.Generic;
+using System.Linq;
+using System.Threading;
+using System.Threading.Tasks;
 using Xunit;
 
 namespace Pythia.Sql.PgSql.Test;
@@ -24,6 +30,62 @@ public sealed class QueryTest : IClassFixture<DatabaseFixture>
     }
 
     #region Helpers
+    private sealed class RamTokenCache : IConcurrentTokenCache
+    {
+        private readonly Dictionary<(int, int), TextSpan> _spans = [];
+
+        public HashSet<string> AllowedAttributes { get; } = [];
+
+        public int HitCount { get; private set; }
+
+        public void Open(string source) { }
+
+        public void Close() { }
+
+        public void Delete(string source) => _spans.Clear();
+
+        public bool Exists(string source) => true;
+
+        public void DeleteDocument(int id)
+        {
+            foreach ((int, int) key in _spans.Keys.Where(k => k.Item1 == id)
+                .ToList())
+            {
+                _spans.Remove(key);
+            }
+        }
+
+        public void AddSpans(int documentId, IList<TextSpan> spans,
+            string? content = null)
+        {
+            foreach (TextSpan span in spans)
+                _spans[(documentId, span.P1)] = span;
+        }
+
+        public TextSpan? GetSpan(int documentId, int position)
+        {
+            if (!_spans.TryGetValue((documentId, position),
+                out TextSpan? span))
+            {
+                return null;
+            }
+            HitCount++;
+            return span;
+        }
+
+        public IList<TextSpan> GetSpans(int documentId, int minPosition,
+            int maxPosition)
+        {
+            List<TextSpan> spans = [];
+            for (int p = minPosition; p <= maxPosition; p++)
+            {
+                TextSpan? span = GetSpan(documentId, p);
+                if (span != null) spans.Add(span);
+            }
+            return spans;
+        }
+    }
+
     private static SearchResult ParseResult(string csv)
     {
         // 0 id
@@ -76,6 +138,204 @@ public sealed class QueryTest : IClassFixture<DatabaseFixture>
     }
     #endregion
 
+    #region Context
+    [Fact]
+    public void GetResultContext_Sic_InInputOrder()
+    {
+        DataPage<SearchResult> page = _repository.Search(new SearchRequest
+        {
+            Query = "[value=\"sic\"]"
+        });
+        Assert.Equal(3, page.Items.Count);
+        List<SearchResult> items = [.. page.Items.Reverse()];
+
+        IList<KwicSearchResult> kwics =
+            _repository.GetResultContext(items, 2);
+
+        Assert.Equal(3, kwics.Count);
+        for (int i = 0; i < items.Count; i++)
+        {
+            Assert.Equal(items[i].Id, kwics[i].Id);
+            Assert.Equal("sic", kwics[i].Text);
+            Assert.Equal(2, kwics[i].LeftContext.Length);
+            Assert.Equal(2, kwics[i].RightContext.Length);
+        }
+    }
+
+    [Fact]
+    public void GetResultContext_TokenCache_FromCache()
+    {
+        DataPage<SearchResult> page = _repository.Search(new SearchRequest
+        {
+            Query = "[value=\"sic\"]"
+        });
+        Assert.Equal(3, page.Items.Count);
+        IList<KwicSearchResult> expected =
+            _repository.GetResultContext(page.Items, 2);
+
+        // cache uppercased tokens to tell them from those in the database
+        RamTokenCache cache = new();
+        foreach (int id in page.Items.Select(r => r.DocumentId).Distinct())
+        {
+            List<TextSpan> tokens = [.. _repository.EnumerateSpans(
+                new TextSpanFilter
+                {
+                    Type = TextSpan.TYPE_TOKEN,
+                    DocumentIds = [id]
+                }).Select(s =>
+                {
+                    TextSpan token = s.Clone();
+                    token.Value = s.Value.ToUpperInvariant();
+                    token.Text = s.Text.ToUpperInvariant();
+                    return token;
+                })];
+            cache.AddSpans(id, tokens);
+        }
+        SqlIndexRepository repository = new PgSqlIndexRepository
+        {
+            KwicTokenCache = cache
+        };
+        repository.Configure(new SqlRepositoryOptions
+        {
+            ConnectionString = DatabaseFixture.ConnectionString
+        });
+
+        IList<KwicSearchResult> kwics =
+            repository.GetResultContext(page.Items, 2);
+
+        Assert.True(cache.HitCount > 0);
+        Assert.Equal(expected.Count, kwics.Count);
+        for (int i = 0; i < expected.Count; i++)
+        {
+            Assert.Equal(expected[i].Id, kwics[i].Id);
+            Assert.Equal("SIC", kwics[i].Text);
+            Assert.Equal(expected[i].LeftContext.Select(
+                s => s.ToUpperInvariant()), kwics[i].LeftContext);
+            Assert.Equal(expected[i].RightContext.Select(
+                s => s.ToUpperInvariant()), kwics[i].RightContext);
+        }
+    }
+    #endregion
+
+    #region Async
+    [Fact]
+    public async Task SearchAsync_ValueEqSic_3()
+    {
+        DataPage<SearchResult> page = await _repository.SearchAsync(
+            new SearchRequest
+            {
+                Query = "[value=\"sic\"]"
+            });
+        Assert.Equal(3, page.Total);
+        Assert.Equal(3, page.Items.Count);
+        AssertResult(
+            "27,1,27,27,tok,1655,3,sic,Catullus,carmina,catullus-carmina-A-0054.00",
+            page.Items[0]);
+
+        IList<KwicSearchResult> kwics =
+            await _repository.GetResultContextAsync(page.Items, 2);
+        Assert.Equal(3, kwics.Count);
+        Assert.Equal(page.Items[0].Id, kwics[0].Id);
+    }
+
+    [Fact]
+    public async Task SearchAsync_Cancelled_Throws()
+    {
+        using CancellationTokenSource cts = new();
+        cts.Cancel();
+
+        await Assert.ThrowsAnyAsync<OperationCanceledException>(() =>
+            _repository.SearchAsync(new SearchRequest
+            {
+                Query = "[value=\"sic\"]"
+            }, null, cts.Token));
+    }
+
+    [Fact]
+    public async Task SearchAsync_Planned_SameResults()
+    {
+        SqlIndexRepository planned = new PgSqlIndexRepository
+        {
+            IsQueryPlanningEnabled = true,
+            QueryCache = null
+        };
+        planned.Configure(new SqlRepositoryOptions
+        {
+            ConnectionString = DatabaseFixture.ConnectionString
+        });
+        SearchRequest request = new()
+        {
+            Query = "[len>\"2\"] AND [value=\"sic\"]"
+        };
+
+        DataPage<SearchResult> expected =
+            await _repository.SearchAsync(request);
+        DataPage<SearchResult> page = await planned.SearchAsync(request);
+
+        Assert.Equal(3, page.Total);
+        Assert.Equal(expected.Items.Select(r => r.Id),
+            page.Items.Select(r => r.Id));
+    }
+
+    [Fact]
+    public async Task SearchAfterAsync_ValueEqSic_MatchesSync()
+    {
+        SearchRequest request = new()
+        {
+            PageSize = 2,
+            Query = "[value=\"sic\"]"
+        };
+
+        KeysetPage<SearchResult> first =
+            await _repository.SearchAfterAsync(request, null);
+        Assert.Equal(3, first.Total);
+        Assert.Equal(2, first.Items.Count);
+        Assert.NotNull(first.ContinuationToken);
+
+        KeysetPage<SearchResult> second = await _repository.SearchAfterAsync(
+            request, first.ContinuationToken);
+        Assert.Equal(-1, second.Total);
+        Assert.Single(second.Items);
+        Assert.Null(second.ContinuationToken);
+
+        KeysetPage<SearchResult> expected =
+            _repository.SearchAfter(request, first.ContinuationToken);
+        Assert.Equal(expected.Items.Select(r => r.Id),
+            second.Items.Select(r => r.Id));
+    }
+
+    [Fact]
+    public async Task GetSearchCountAsync_ValueEqSic_3()
+    {
+        int count = await _repository.GetSearchCountAsync(new SearchRequest
+        {
+            Query = "[value=\"sic\"]"
+        });
+        Assert.Equal(3, count);
+    }
+
+    [Fact]
+    public async Task GetSearchCountAsync_Cancelled_Throws()
+    {
+        SqlIndexRepository repository = new PgSqlIndexRepository
+        {
+            CountCache = null
+        };
+        repository.Configure(new SqlRepositoryOptions
+        {
+            ConnectionString = DatabaseFixture.ConnectionString
+        });
+        using CancellationTokenSource cts = new();
+        cts.Cancel();
+
+        await Assert.ThrowsAnyAsync<OperationCanceledException>(() =>
+            repository.GetSearchCountAsync(new SearchRequest
+            {
+                Query = "[value=\"sic\"]"
+            }, null, cts.Token));
+    }
+    #endregion
+
     #region Single token
     [Fact]
     public void ValueEqChommoda_1()
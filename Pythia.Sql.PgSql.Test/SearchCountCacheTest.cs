@@ -0,0 +1,68 @@
+﻿using System;
+using Xunit;
+
+namespace Pythia.Sql.PgSql.Test;
+
+public sealed class SearchCountCacheTest
+{
+    [Fact]
+    public void TryGet_NotSet_False()
+    {
+        using SearchCountCache cache = new();
+        Assert.False(cache.TryGet("SELECT COUNT(*) FROM r", out _));
+    }
+
+    [Fact]
+    public void TryGet_Set_True()
+    {
+        using SearchCountCache cache = new();
+        cache.Set("SELECT COUNT(*) FROM r", 42);
+
+        Assert.True(cache.TryGet("SELECT COUNT(*) FROM r", out int count));
+        Assert.Equal(42, count);
+    }
+
+    [Fact]
+    public void TryGet_NotExpired_True()
+    {
+        ManualTimeProvider time = new();
+        using SearchCountCache cache = new(TimeSpan.FromMinutes(2),
+            timeProvider: time);
+        cache.Set("SELECT COUNT(*) FROM r", 42);
+        time.Advance(TimeSpan.FromSeconds(119));
+
+        Assert.True(cache.TryGet("SELECT COUNT(*) FROM r", out int count));
+        Assert.Equal(42, count);
+    }
+
+    [Fact]
+    public void TryGet_Expired_False()
+    {
+        ManualTimeProvider time = new();
+        using SearchCountCache cache = new(TimeSpan.FromMinutes(2),
+            timeProvider: time);
+        cache.Set("SELECT COUNT(*) FROM r", 42);
+        time.Advance(TimeSpan.FromMinutes(2));
+
+        Assert.False(cache.TryGet("SELECT COUNT(*) FROM r", out _));
+    }
+
+    [Fact]
+    public void TryGet_Cleared_False()
+    {
+        using SearchCountCache cache = new();
+        cache.Set("SELECT COUNT(*) FROM r", 42);
+        cache.Clear();
+
+        Assert.False(cache.TryGet("SELECT COUNT(*) FROM r", out _));
+    }
+
+    private sealed class ManualTimeProvider : TimeProvider
+    {
+        private DateTimeOffset _now = new(2026, 1, 1, 0, 0, 0, TimeSpan.Zero);
+
+        public override DateTimeOffset GetUtcNow() => _now;
+
+        public void Advance(TimeSpan time) => _now += time;
+    }
+}
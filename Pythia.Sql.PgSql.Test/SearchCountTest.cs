@@ -0,0 +1,91 @@
+﻿using Pythia.Core;
+using Xunit;
+
+namespace Pythia.Sql.PgSql.Test;
+
+[Collection(nameof(NonParallelResourceCollection))]
+public sealed class SearchCountTest : WriteTestBase
+{
+    private static void AddToken(SqlIndexRepository repository,
+        int documentId, int position)
+    {
+        repository.AddSpans(
+        [
+            new TextSpan
+            {
+                DocumentId = documentId,
+                P1 = position,
+                P2 = position,
+                Index = (position - 1) * 9,
+                Length = 8,
+                Value = "chommoda",
+                Text = "Chommoda"
+            }
+        ]);
+    }
+
+    private static SearchRequest GetRequest(SearchCountStrategy strategy) =>
+        new()
+        {
+            Query = "[value=\"chommoda\"]",
+            CountStrategy = strategy
+        };
+
+    [Fact]
+    public void Search_ExactPaging_Cached()
+    {
+        using SearchCountCache cache = new();
+        PgSqlIndexRepository reader = GetRepository();
+        reader.CountCache = cache;
+        // a writer not sharing the cache, e.g. from another process
+        PgSqlIndexRepository writer = GetRepository();
+        writer.CountCache = null;
+        int docId = AddDocument(writer, "doc");
+        AddToken(writer, docId, 1);
+
+        Assert.Equal(1, reader.Search(
+            GetRequest(SearchCountStrategy.Exact)).Total);
+
+        // the next page gets its total from the cache
+        AddToken(writer, docId, 2);
+
+        Assert.Equal(1, reader.Search(
+            GetRequest(SearchCountStrategy.Exact)).Total);
+    }
+
+    [Fact]
+    public void Search_ExactAfterWrite_NotStale()
+    {
+        using SearchCountCache cache = new();
+        PgSqlIndexRepository repository = GetRepository();
+        repository.CountCache = cache;
+        int docId = AddDocument(repository, "doc");
+        AddToken(repository, docId, 1);
+
+        Assert.Equal(1, repository.Search(
+            GetRequest(SearchCountStrategy.Exact)).Total);
+
+        AddToken(repository, docId, 2);
+
+        Assert.Equal(2, repository.Search(
+            GetRequest(SearchCountStrategy.Exact)).Total);
+    }
+
+    [Fact]
+    public void GetSearchCount_AfterWrite_NotStale()
+    {
+        using SearchCountCache cache = new();
+        PgSqlIndexRepository repository = GetRepository();
+        repository.CountCache = cache;
+        int docId = AddDocument(repository, "doc");
+        AddToken(repository, docId, 1);
+
+        Assert.Equal(1, repository.GetSearchCount(
+            GetRequest(SearchCountStrategy.Deferred)));
+
+        AddToken(repository, docId, 2);
+
+        Assert.Equal(2, repository.GetSearchCount(
+            GetRequest(SearchCountStrategy.Deferred)));
+    }
+}
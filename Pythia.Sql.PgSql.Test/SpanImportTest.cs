@@ -0,0 +1,145 @@
+﻿using Corpus.Core;
+using Pythia.Core;
+using System;
+using System.Collections.Generic;
+using System.Linq;
+using Xunit;
+
+namespace Pythia.Sql.PgSql.Test;
+
+[Collection(nameof(NonParallelResourceCollection))]
+public sealed class SpanImportTest : WriteTestBase
+{
+    private static List<TextSpan> GetSpans(int documentId)
+    {
+        string[] words = ["Chommoda", "dicebat", "si", "quando", "commoda"];
+        List<TextSpan> spans = [];
+        int index = 0;
+        for (int i = 0; i < words.Length; i++)
+        {
+            TextSpan token = new()
+            {
+                DocumentId = documentId,
+                P1 = i + 1,
+                P2 = i + 1,
+                Index = index,
+                Length = words[i].Length,
+                Language = "lat",
+                Pos = i % 2 == 0 ? "NOUN" : "VERB",
+                Lemma = i % 2 == 0 ? null : words[i].ToLowerInvariant(),
+                Value = words[i].ToLowerInvariant(),
+                Text = words[i]
+            };
+            token.AddAttribute(new Corpus.Core.Attribute
+            {
+                Name = "len",
+                Value = words[i].Length.ToString(),
+                Type = AttributeType.Number
+            });
+            if (i == 0)
+            {
+                token.AddAttribute(new Corpus.Core.Attribute
+                {
+                    Name = "pn",
+                    Value = "Arrius"
+                });
+            }
+            spans.Add(token);
+            index += words[i].Length + 1;
+        }
+
+        TextSpan l = new()
+        {
+            DocumentId = documentId,
+            Type = "l",
+            P1 = 1,
+            P2 = words.Length,
+            Index = 0,
+            Length = index - 1,
+            Value = "1",
+            Text = "1"
+        };
+        l.AddAttribute(new Corpus.Core.Attribute
+        {
+            Name = "n",
+            Value = "1"
+        });
+        spans.Add(l);
+
+        return spans;
+    }
+
+    private static List<TextSpan> GetStoredSpans(SqlIndexRepository repository,
+        int documentId)
+    {
+        return [.. repository.EnumerateSpans(new TextSpanFilter
+        {
+            DocumentIds = [documentId]
+        }, true)];
+    }
+
+    private static string Dump(TextSpan span)
+    {
+        return $"{span.Type} {span.P1}-{span.P2} {span.Index}x{span.Length} " +
+            $"{span.Language}|{span.Pos}|{span.Lemma}|{span.Value}|" +
+            $"{span.Text}: " +
+            string.Join("; ", (span.Attributes ?? [])
+                .OrderBy(a => a.Name, StringComparer.Ordinal)
+                .Select(a => $"{a.Name}={a.Value}/{a.Type}"));
+    }
+
+    [Fact]
+    public void AddSpans_Bulk_MatchesPerRow()
+    {
+        PgSqlIndexRepository rowRepository = GetRepository();
+        PgSqlIndexRepository bulkRepository = GetRepository();
+        bulkRepository.IsBulkImportEnabled = true;
+        bulkRepository.SpanIdBlockSize = 4;
+        int rowDocId = AddDocument(rowRepository, "row");
+        int bulkDocId = AddDocument(rowRepository, "bulk");
+
+        rowRepository.AddSpans(GetSpans(rowDocId));
+        List<TextSpan> bulkSpans = GetSpans(bulkDocId);
+        bulkRepository.AddSpans(bulkSpans);
+
+        // new spans got their IDs, also set as the target of attributes
+        Assert.All(bulkSpans, s => Assert.True(s.Id > 0));
+        Assert.Equal(bulkSpans.Count,
+            bulkSpans.Select(s => s.Id).Distinct().Count());
+        Assert.All(bulkSpans, s => Assert.All(s.Attributes!,
+            a => Assert.Equal(s.Id, a.TargetId)));
+
+        // stored spans are equal
+        List<TextSpan> rowStored = GetStoredSpans(rowRepository, rowDocId);
+        List<TextSpan> bulkStored = GetStoredSpans(bulkRepository, bulkDocId);
+        Assert.Equal(6, rowStored.Count);
+        Assert.Equal(rowStored.Select(Dump), bulkStored.Select(Dump));
+        Assert.Equal(bulkSpans.Select(s => s.Id).Order(),
+            bulkStored.Select(s => s.Id).Order());
+
+        Assert.Equal(14L, ExecuteScalar(
+            "SELECT COUNT(*) FROM span_attribute;"));
+        Assert.Equal(1L, bulkRepository.ImportMetrics.BatchCount);
+    }
+
+    [Theory]
+    [InlineData(false)]
+    [InlineData(true)]
+    public void AddSpans_Failed_IdsReset(bool bulk)
+    {
+        PgSqlIndexRepository repository = GetRepository();
+        repository.IsBulkImportEnabled = bulk;
+        int docId = AddDocument(repository, "doc");
+
+        // the last span refers to a missing document
+        List<TextSpan> spans = GetSpans(docId);
+        spans[^1].DocumentId = docId + 100;
+
+        Assert.ThrowsAny<Exception>(() => repository.AddSpans(spans));
+
+        Assert.All(spans, s => Assert.Equal(0, s.Id));
+        Assert.All(spans, s => Assert.All(s.Attributes!,
+            a => Assert.Equal(0, a.TargetId)));
+        Assert.Equal(0L, ExecuteScalar("SELECT COUNT(*) FROM span;"));
+    }
+}
@@ -1,4 +1,5 @@
 ﻿using Pythia.Core;
+using System;
 using System.Collections.Generic;
 using System.IO;
 using System.Linq;
@@ -39,6 +40,22 @@ public sealed class SqlQueryBuilderTest
     private static string NormalizeWS(string? text) =>
         text != null ? Regex.Replace(text.Trim(), @"\s+", " ") : "";
 
+    private sealed class FixedPairEstimator(params double[] counts)
+        : IQueryPairEstimator
+    {
+        public IDictionary<string, double> Estimate(
+            IList<Tuple<QuerySetPair, string>> pairs)
+        {
+            Dictionary<string, double> estimates = [];
+            foreach (Tuple<QuerySetPair, string> t in pairs)
+            {
+                if (t.Item1.Number <= counts.Length)
+                    estimates[t.Item1.Id] = counts[t.Item1.Number - 1];
+            }
+            return estimates;
+        }
+    }
+
     private (string rows, string count) GetSql(string query)
     {
         SqlQueryBuilder builder = new(_helper);
@@ -357,4 +374,207 @@ public sealed class SqlQueryBuilderTest
         TestQuery query = _queries.First(q => q.Id == "struct_attribute");
         RunTestFor(query);
     }
+
+    [Fact]
+    public void BuildTemplate_SameAsBuildWithPagingParameters()
+    {
+        SqlQueryBuilder builder = new(_helper);
+        SearchRequest request = new()
+        {
+            Query = "[value=\"chommoda\"]",
+            PageNumber = 3
+        };
+
+        var rc = builder.Build(request);
+        SqlQueryTemplate template = builder.BuildTemplate(request);
+
+        Assert.Equal(rc.Item2, template.CountSql);
+        Assert.Equal(rc.Item1.Replace("LIMIT 20 OFFSET 40",
+            "LIMIT @limit OFFSET @offset"), template.DataSql);
+    }
+
+    [Fact]
+    public void BuildTemplate_Cached_ReusedAcrossPages()
+    {
+        SqlQueryCache cache = new(2);
+        SqlQueryBuilder builder = new(_helper) { Cache = cache };
+
+        SqlQueryTemplate a = builder.BuildTemplate(new SearchRequest
+        {
+            Query = "[value=\"chommoda\"]"
+        });
+        SqlQueryTemplate b = builder.BuildTemplate(new SearchRequest
+        {
+            Query = " [value=\"chommoda\"]\n",
+            PageNumber = 2
+        });
+
+        Assert.Same(a, b);
+        Assert.Equal(1, cache.Hits);
+        Assert.Equal(1, cache.Misses);
+    }
+
+    [Fact]
+    public void BuildTemplate_Keyset_SeeksAfterKey()
+    {
+        SqlQueryBuilder builder = new(_helper);
+        SqlQueryTemplate template = builder.BuildTemplate(new SearchRequest
+        {
+            Query = "[value=\"chommoda\"]",
+            SortFields = ["title"]
+        }, true);
+
+        string sql = NormalizeWS(template.DataSql);
+        Assert.Contains("WHERE (document.sort_key, r.document_id, r.p1, r.id) " +
+            "> (@k_sort_key, @k_document_id, @k_p1, @k_id)", sql);
+        Assert.EndsWith("ORDER BY document.sort_key, r.document_id, r.p1, r.id " +
+            "LIMIT @limit OFFSET 0", sql);
+    }
+
+    [Fact]
+    public void Build_Planned_RareAndOperandFirst()
+    {
+        SqlQueryBuilder builder = new(_helper)
+        {
+            Estimator = new FixedPairEstimator(1000000, 10)
+        };
+        var rc = builder.Build(new SearchRequest
+        {
+            Query = "[pos=\"NOUN\"] AND [value=\"philosophia\"]"
+        });
+
+        Assert.Contains("(SELECT * FROM s2 INTERSECT SELECT * FROM s1)",
+            NormalizeWS(rc.Item1));
+    }
+
+    [Fact]
+    public void Build_Planned_CommonAndOperandUnchanged()
+    {
+        SqlQueryBuilder builder = new(_helper)
+        {
+            Estimator = new FixedPairEstimator(10, 1000000)
+        };
+        var rc = builder.Build(new SearchRequest
+        {
+            Query = "[value=\"philosophia\"] AND [pos=\"NOUN\"]"
+        });
+
+        Assert.Contains("(SELECT * FROM s1 INTERSECT SELECT * FROM s2)",
+            NormalizeWS(rc.Item1));
+    }
+
+    [Fact]
+    public void Build_Planned_RareLocationSideDrivesJoin()
+    {
+        SqlQueryBuilder builder = new(_helper)
+        {
+            Estimator = new FixedPairEstimator(1000000, 10)
+        };
+        var rc = builder.Build(new SearchRequest
+        {
+            Query = "[pos=\"NOUN\"] NEAR(n=0,m=1) [value=\"philosophia\"]"
+        });
+
+        string sql = NormalizeWS(rc.Item1);
+        Assert.Contains("SELECT s1.* FROM s2 INNER JOIN s1 " +
+            "ON s1.document_id = s2.document_id", sql);
+    }
+
+    [Fact]
+    public void BuildTemplate_PlannedOtherDatabase_NotShared()
+    {
+        SqlQueryCache cache = new(2);
+        SearchRequest request = new()
+        {
+            Query = "[pos=\"NOUN\"] AND [value=\"philosophia\"]"
+        };
+        SqlQueryTemplate a = new SqlQueryBuilder(_helper)
+        {
+            Cache = cache,
+            Estimator = new FixedPairEstimator(1000000, 10),
+            DatabaseId = "a"
+        }.BuildTemplate(request);
+
+        SqlQueryTemplate b = new SqlQueryBuilder(_helper)
+        {
+            Cache = cache,
+            Estimator = new FixedPairEstimator(10, 1000000),
+            DatabaseId = "b"
+        }.BuildTemplate(request);
+
+        Assert.Equal(2, cache.Count);
+        Assert.Contains("(SELECT * FROM s2 INTERSECT SELECT * FROM s1)",
+            NormalizeWS(a.DataSql));
+        Assert.Contains("(SELECT * FROM s1 INTERSECT SELECT * FROM s2)",
+            NormalizeWS(b.DataSql));
+    }
+
+    [Fact]
+    public void Explain_Planned_ShowsEstimatesAndSwaps()
+    {
+        SqlQueryBuilder builder = new(_helper)
+        {
+            Estimator = new FixedPairEstimator(1000000, 10)
+        };
+        string explain = builder.Explain(new SearchRequest
+        {
+            Query = "[pos=\"NOUN\"] AND [value=\"philosophia\"]"
+        });
+
+        Assert.StartsWith("-- plan\n-- AND ~10 (swapped)\n" +
+            "--   s2: value EQ \"philosophia\" ~10\n" +
+            "--   s1: pos EQ \"NOUN\" ~1000000\n", explain);
+    }
+
+    [Fact]
+    public void Build_NearWithArgs_RangePredicates()
+    {
+        (string rows, _) = GetSql(
+            "[value=\"sic\"] NEAR(n=1,m=3) [value=\"mater\"]");
+
+        Assert.Contains("ON s1.document_id = s2.document_id AND " +
+            "((s2.p1 BETWEEN s1.p2 + 2 AND s1.p2 + 4) OR " +
+            "(s2.p2 BETWEEN s1.p1 - 4 AND s1.p1 - 2))", NormalizeWS(rows));
+        Assert.DoesNotContain("pyt_is_near_within", rows);
+    }
+
+    [Fact]
+    public void Build_InsideWithArgs_RangePredicates()
+    {
+        (string rows, _) = GetSql("[value=\"sic\"] INSIDE(me=0) [$l]");
+
+        Assert.Contains("(s2.p1 <= s1.p1 AND " +
+            "s2.p2 BETWEEN s1.p2 AND s1.p2)", NormalizeWS(rows));
+    }
+
+    [Fact]
+    public void Build_LocationFunctions_FunctionCall()
+    {
+        SqlQueryBuilder builder = new(_helper)
+        {
+            UseLocationFunctions = true
+        };
+        var rc = builder.Build(new SearchRequest
+        {
+            Query = "[value=\"sic\"] NEAR(n=1,m=3) [value=\"mater\"]"
+        });
+
+        Assert.Contains("ON s1.document_id = s2.document_id AND " +
+            "pyt_is_near_within(s1.p1, s1.p2, s2.p1, s2.p2, 1, 3)",
+            NormalizeWS(rc.Item1));
+    }
+
+    [Fact]
+    public void BuildByPosition_SortedByDocumentAndPosition()
+    {
+        SqlQueryBuilder builder = new(_helper);
+        string sql = builder.BuildByPosition(new SearchRequest
+        {
+            Query = "[value=\"sic\"]",
+            SortFields = ["author"]
+        });
+
+        Assert.EndsWith("ORDER BY r.document_id, r.p1, r.id",
+            NormalizeWS(sql));
+    }
 }
@@ -0,0 +1,47 @@
+﻿using Xunit;
+
+namespace Pythia.Sql.PgSql.Test;
+
+public sealed class SqlQueryCacheTest
+{
+    private static SqlQueryTemplate Create(string id) => new(id, id);
+
+    [Theory]
+    [InlineData("", "")]
+    [InlineData("  [value=\"a\"] ", "[value=\"a\"]")]
+    [InlineData("[value=\"a\"]\n\tAND  [pos=\"NOUN\"]",
+        "[value=\"a\"] AND [pos=\"NOUN\"]")]
+    [InlineData("[value=\"a  b\"]  OR [value=\"c\"]",
+        "[value=\"a  b\"] OR [value=\"c\"]")]
+    public void NormalizeQuery_Ok(string query, string expected)
+    {
+        Assert.Equal(expected, SqlQueryCache.NormalizeQuery(query));
+    }
+
+    [Fact]
+    public void BuildKey_DifferentSort_Different()
+    {
+        string a = SqlQueryCache.BuildKey("pg", "[value=\"a\"]", null, null);
+        string b = SqlQueryCache.BuildKey("pg", "[value=\"a\"]",
+            ["title"], null);
+        Assert.NotEqual(a, b);
+    }
+
+    [Fact]
+    public void GetOrAdd_Full_EvictsLeastRecentlyUsed()
+    {
+        SqlQueryCache cache = new(2);
+        cache.GetOrAdd("a", () => Create("a"));
+        cache.GetOrAdd("b", () => Create("b"));
+        // touch a, so that b is the least recently used
+        cache.GetOrAdd("a", () => Create("x"));
+        cache.GetOrAdd("c", () => Create("c"));
+
+        Assert.Equal(2, cache.Count);
+        Assert.Equal(1, cache.Hits);
+        Assert.Equal(3, cache.Misses);
+        Assert.Equal(1, cache.Evictions);
+        Assert.Equal("a", cache.GetOrAdd("a", () => Create("x")).DataSql);
+        Assert.Equal("b2", cache.GetOrAdd("b", () => Create("b2")).DataSql);
+    }
+}
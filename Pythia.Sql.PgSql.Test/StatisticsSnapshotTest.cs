@@ -0,0 +1,71 @@
+﻿using Corpus.Core;
+using Pythia.Core;
+using System.Collections.Generic;
+using System.Threading;
+using System.Threading.Tasks;
+using Xunit;
+
+namespace Pythia.Sql.PgSql.Test;
+
+[Collection(nameof(NonParallelResourceCollection))]
+public sealed class StatisticsSnapshotTest : WriteTestBase
+{
+    private static readonly string[] _names =
+    [
+        "document_count", "span_count", "span_attribute_count",
+        "span_tok_attribute_count", "word_count", "lemma_count",
+        StatisticsSnapshot.SPAN_TYPE_PREFIX + TextSpan.TYPE_TOKEN,
+        StatisticsSnapshot.SPAN_ATTR_PREFIX + "x"
+    ];
+
+    private static Dictionary<string, double> GetValues(
+        StatisticsSnapshot snapshot)
+    {
+        Dictionary<string, double> values = [];
+        foreach (string name in _names)
+        {
+            values[name] = snapshot.Values.TryGetValue(name, out double v)
+                ? v : 0;
+        }
+        return values;
+    }
+
+    [Fact]
+    public async Task DeleteDocument_Refreshed_SameAsRefresh()
+    {
+        PgSqlIndexRepository repository = GetRepository();
+        int a = AddDocument(repository, "a");
+        AddTokens(repository, a, "arma", "virum");
+        int b = AddDocument(repository, "b");
+        AddTokens(repository, b, "cano", "Troiae", "qui");
+        repository.AddSpanAttributes(b, 1, 2, "x", "1", AttributeType.Text);
+        await repository.BuildWordIndexAsync("lat",
+            new Dictionary<string, int> { ["date_value"] = 1 },
+            [], [], [], CancellationToken.None);
+        await repository.RefreshStatisticsSnapshotAsync();
+
+        repository.DeleteDocument(b);
+
+        Dictionary<string, double> updated = GetValues(
+            (await repository.GetStatisticsSnapshotAsync())!);
+        Assert.Equal(1, updated["document_count"]);
+        Assert.Equal(2, updated["span_count"]);
+        Assert.Equal(0, updated["span_attribute_count"]);
+        Assert.Equal(2, updated["word_count"]);
+        Assert.Equal(GetValues(await repository.RefreshStatisticsSnapshotAsync()),
+            updated);
+    }
+
+    [Fact]
+    public async Task DeleteDocument_NotRefreshed_NoSnapshot()
+    {
+        PgSqlIndexRepository repository = GetRepository();
+        int a = AddDocument(repository, "a");
+        AddTokens(repository, a, "arma", "virum");
+
+        repository.DeleteDocument(a);
+
+        Assert.Null(await repository.GetStatisticsSnapshotAsync());
+        Assert.Null(ExecuteScalar("SELECT id FROM span;"));
+    }
+}
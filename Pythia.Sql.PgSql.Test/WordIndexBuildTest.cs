@@ -0,0 +1,114 @@
+﻿using Corpus.Core;
+using System.Collections.Generic;
+using System.Threading;
+using System.Threading.Tasks;
+using Xunit;
+
+namespace Pythia.Sql.PgSql.Test;
+
+[Collection(nameof(NonParallelResourceCollection))]
+public sealed class WordIndexBuildTest : WriteTestBase
+{
+    // two values differing only in their last character, so that
+    // anything truncated to the column size would collide
+    private static readonly string _genreA = new string('x', 499) + "a";
+    private static readonly string _genreB = new string('x', 499) + "b";
+
+    private static PgSqlIndexRepository SetupCorpus()
+    {
+        PgSqlIndexRepository repository = GetRepository();
+
+        int a = AddDocument(repository, "a");
+        AddTokens(repository, a, "arma", "cano", "virum");
+        repository.AddAttribute(new Attribute
+        {
+            TargetId = a,
+            Name = "genre",
+            Value = _genreA
+        }, "document", false);
+
+        int b = AddDocument(repository, "b");
+        AddTokens(repository, b, "virum", "cano", "Troiae");
+        repository.AddAttribute(new Attribute
+        {
+            TargetId = b,
+            Name = "genre",
+            Value = _genreB
+        }, "document", false);
+
+        return repository;
+    }
+
+    private static Task BuildAsync(SqlIndexRepository repository) =>
+        repository.BuildWordIndexAsync("lat",
+            new Dictionary<string, int> { ["date_value"] = 1 },
+            [], [], [], CancellationToken.None);
+
+    [Fact]
+    public async Task BuildWordIndexAsync_Partitioned_SameAsSingle()
+    {
+        PgSqlIndexRepository repository = SetupCorpus();
+        await BuildAsync(repository);
+        List<string> expected = DumpWordIndex();
+
+        repository.WordCountPartitionSize = 1;
+        repository.WordCountParallelism = 4;
+        await BuildAsync(repository);
+
+        Assert.Equal(expected, DumpWordIndex());
+        Assert.Equal(0, await repository.CheckWordIndexAsync());
+    }
+
+    [Fact]
+    public async Task BuildWordIndexAsync_LongValues_DistinctCheckpoints()
+    {
+        PgSqlIndexRepository repository = SetupCorpus();
+        repository.WordCountPartitionSize = 2;
+        await BuildAsync(repository);
+
+        // one checkpoint per genre and word IDs range
+        long ranges = (long)ExecuteScalar(
+            "SELECT COUNT(*) FROM word_index_checkpoint " +
+            "WHERE id LIKE 'wc:author:%';")!;
+        Assert.True(ranges > 1);
+        Assert.Equal(ranges * 2, ExecuteScalar(
+            "SELECT COUNT(*) FROM word_index_checkpoint " +
+            "WHERE id LIKE 'wc:genre:%';"));
+        Assert.Equal(2L, ExecuteScalar(
+            "SELECT COUNT(DISTINCT doc_attr_value) FROM word_count " +
+            "WHERE doc_attr_name='genre';"));
+    }
+
+    [Fact]
+    public async Task BuildWordIndexAsync_Resumed_SkipsCompletedPartitions()
+    {
+        PgSqlIndexRepository repository = SetupCorpus();
+        repository.WordCountPartitionSize = 2;
+        repository.IsWordIndexBuildResumed = true;
+        await BuildAsync(repository);
+        List<string> expected = DumpWordIndex();
+
+        // simulate a build interrupted while counting genres: their
+        // counts and checkpoints are missing, like the lemma counts
+        ExecuteScalar("DELETE FROM word_count WHERE doc_attr_name='genre';" +
+            "DELETE FROM lemma_count;" +
+            "DELETE FROM word_index_checkpoint " +
+            "WHERE id LIKE 'wc:genre:%' OR id='lemma-counts';");
+        // a completed partition is not counted again: tamper its counts
+        // to detect this
+        ExecuteScalar("UPDATE word_count SET count=count+100 " +
+            "WHERE doc_attr_name='author';");
+
+        await BuildAsync(repository);
+
+        List<string> actual = DumpWordIndex();
+        Assert.Contains(actual, r => r.StartsWith("wc ") &&
+            r.Contains(" genre=" + _genreB + ": "));
+        Assert.NotEqual(expected, actual);
+        Assert.Equal(
+            expected.FindAll(r => r.Contains(" genre=")),
+            actual.FindAll(r => r.Contains(" genre=")));
+        Assert.All(actual.FindAll(r => r.StartsWith("wc ") &&
+            r.Contains(" author=")), r => Assert.Matches(": 10[0-9]$", r));
+    }
+}
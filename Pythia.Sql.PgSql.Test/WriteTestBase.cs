@@ -0,0 +1,157 @@
+﻿using Corpus.Core;
+using Corpus.Sql;
+using Fusi.DbManager;
+using Fusi.DbManager.PgSql;
+using Npgsql;
+using Pythia.Core;
+using System;
+using System.Collections.Generic;
+using System.Data;
+
+namespace Pythia.Sql.PgSql.Test;
+
+/// <summary>
+/// Base class for tests writing to the index. Unlike <see cref="TestBase"/>,
+/// these tests use their own database, which is cleared before each test.
+/// </summary>
+public abstract class WriteTestBase
+{
+    protected const string CST =
+        "User ID=postgres;Password=postgres;Host=localhost;Port=5432;Database={0}";
+    protected const string DB_NAME = "pythia-write-test";
+    static protected readonly string CS = string.Format(CST, DB_NAME);
+
+    protected const string PROFILE_ID = "test";
+
+    protected WriteTestBase()
+    {
+        IDbManager manager = new PgSqlDbManager(CST);
+
+        if (manager.Exists(DB_NAME)) manager.ClearDatabase(DB_NAME);
+        else
+        {
+            manager.CreateDatabase(DB_NAME,
+                new PgSqlIndexRepository().GetSchema(), null);
+        }
+    }
+
+    protected static IDbConnection GetConnection() => new NpgsqlConnection(CS);
+
+    protected static PgSqlIndexRepository GetRepository()
+    {
+        PgSqlIndexRepository repository = new();
+        repository.Configure(new SqlRepositoryOptions
+        {
+            ConnectionString = CS
+        });
+        return repository;
+    }
+
+    /// <summary>
+    /// Adds a document (with its profile, when missing).
+    /// </summary>
+    /// <param name="repository">The repository.</param>
+    /// <param name="title">The document's title.</param>
+    /// <returns>The ID of the document.</returns>
+    protected static int AddDocument(SqlIndexRepository repository,
+        string title)
+    {
+        if (repository.GetProfile(PROFILE_ID, true) == null)
+        {
+            repository.AddProfile(new Profile
+            {
+                Id = PROFILE_ID,
+                Content = "{}"
+            });
+        }
+
+        Document document = new()
+        {
+            Author = "Catullus",
+            Title = title,
+            Source = title + ".xml",
+            ProfileId = PROFILE_ID,
+            SortKey = title,
+            LastModified = DateTime.UtcNow
+        };
+        repository.AddDocument(document, false, false);
+        return document.Id;
+    }
+
+    /// <summary>
+    /// Adds to the specified document a token span for each of the
+    /// specified words, using the lowercased word as its lemma.
+    /// </summary>
+    /// <param name="repository">The repository.</param>
+    /// <param name="documentId">The document's ID.</param>
+    /// <param name="words">The words.</param>
+    protected static void AddTokens(SqlIndexRepository repository,
+        int documentId, params string[] words)
+    {
+        List<TextSpan> spans = [];
+        int index = 0;
+        for (int i = 0; i < words.Length; i++)
+        {
+            spans.Add(new TextSpan
+            {
+                DocumentId = documentId,
+                P1 = i + 1,
+                P2 = i + 1,
+                Index = index,
+                Length = words[i].Length,
+                Language = "lat",
+                Pos = i % 2 == 0 ? "NOUN" : "VERB",
+                Lemma = words[i].ToLowerInvariant(),
+                Value = words[i].ToLowerInvariant(),
+                Text = words[i]
+            });
+            index += words[i].Length + 1;
+        }
+        repository.AddSpans(spans);
+    }
+
+    /// <summary>
+    /// Dumps the words and lemmata index, with their counts, in a form
+    /// which does not depend on the rows IDs.
+    /// </summary>
+    protected static List<string> DumpWordIndex()
+    {
+        using IDbConnection connection = GetConnection();
+        connection.Open();
+        using IDbCommand cmd = connection.CreateCommand();
+        cmd.CommandText =
+            "SELECT 'w ' || value || '|' || COALESCE(pos, '') || '|' || " +
+            "lemma || '=' || count FROM word\n" +
+            "UNION ALL\n" +
+            "SELECT 'l ' || value || '|' || COALESCE(pos, '') || '=' || " +
+            "count FROM lemma\n" +
+            "UNION ALL\n" +
+            "SELECT 'wc ' || w.value || '|' || COALESCE(w.pos, '') || ' ' || " +
+            "wc.doc_attr_name || '=' || wc.doc_attr_value || ': ' || wc.count\n" +
+            "FROM word_count wc INNER JOIN word w ON wc.word_id=w.id\n" +
+            "UNION ALL\n" +
+            "SELECT 'lc ' || l.value || '|' || COALESCE(l.pos, '') || ' ' || " +
+            "lc.doc_attr_name || '=' || lc.doc_attr_value || ': ' || lc.count\n" +
+            "FROM lemma_count lc INNER JOIN lemma l ON lc.lemma_id=l.id\n" +
+            "ORDER BY 1;";
+
+        List<string> rows = [];
+        using IDataReader reader = cmd.ExecuteReader();
+        while (reader.Read()) rows.Add(reader.GetString(0));
+        return rows;
+    }
+
+    /// <summary>
+    /// Executes the specified scalar query.
+    /// </summary>
+    /// <param name="sql">The SQL code.</param>
+    /// <returns>Result.</returns>
+    protected static object? ExecuteScalar(string sql)
+    {
+        using IDbConnection connection = GetConnection();
+        connection.Open();
+        using IDbCommand cmd = connection.CreateCommand();
+        cmd.CommandText = sql;
+        return cmd.ExecuteScalar();
+    }
+}
@@ -62,6 +62,17 @@ public sealed class PgSqlHelper : SqlHelper, ISqlHelper
         return $"LIMIT {limit} OFFSET {offset}";
     }
 
+    /// <summary>
+    /// Builds the paging expression with the specified bind parameters.
+    /// </summary>
+    /// <param name="offsetParameter">The offset parameter name.</param>
+    /// <param name="limitParameter">The limit parameter name.</param>
+    /// <returns>SQL code.</returns>
+    public string BuildPaging(string offsetParameter, string limitParameter)
+    {
+        return $"LIMIT {limitParameter} OFFSET {offsetParameter}";
+    }
+
     /// <summary>
     /// Builds the SQL code required to represent the text field represented
     /// by <paramref name="name" /> as an integer number, when this cast
@@ -6,10 +6,13 @@ using Pythia.Core;
 using System;
 using System.Collections.Generic;
 using System.Data;
+using System.Data.Common;
 using System.IO;
 using System.Linq;
 using System.Reflection;
 using System.Text;
+using System.Text.Json;
+using System.Threading;
 using System.Threading.Tasks;
 
 namespace Pythia.Sql.PgSql;
@@ -20,7 +23,14 @@ namespace Pythia.Sql.PgSql;
 /// <seealso cref="SqlIndexRepository" />
 public sealed class PgSqlIndexRepository : SqlIndexRepository
 {
+    // session parameters for read-heavy search queries
+    private const string SEARCH_SESSION_SQL =
+        "SET max_parallel_workers_per_gather = 0; " +
+        "SET enable_parallel_hash = off; " +
+        "SET work_mem = '64MB';";
+
     private readonly PgSqlCorpusRepository _corpus;
+    private readonly Queue<int> _reservedSpanIds = new();
 
     /// <summary>
     /// Initializes a new instance of the <see cref="PgSqlIndexRepository"/>
@@ -99,13 +109,160 @@ public sealed class PgSqlIndexRepository : SqlIndexRepository
     protected override void ConfigureConnectionForSearch(IDbConnection connection)
     {
         using IDbCommand cmd = connection.CreateCommand();
-        cmd.CommandText =
-            "SET max_parallel_workers_per_gather = 0; " +
-            "SET enable_parallel_hash = off; " +
-            "SET work_mem = '64MB';";
+        cmd.CommandText = SEARCH_SESSION_SQL;
         cmd.ExecuteNonQuery();
     }
 
+    /// <summary>
+    /// Asynchronously configures the connection for read-heavy search
+    /// queries, like <see cref="ConfigureConnectionForSearch"/>.
+    /// </summary>
+    /// <param name="connection">The already-open connection to configure.
+    /// </param>
+    /// <param name="cancel">The cancellation token.</param>
+    protected override async Task ConfigureConnectionForSearchAsync(
+        DbConnection connection, CancellationToken cancel)
+    {
+        await using DbCommand cmd = connection.CreateCommand();
+        cmd.CommandText = SEARCH_SESSION_SQL;
+        await cmd.ExecuteNonQueryAsync(cancel);
+    }
+
+    /// <summary>
+    /// Creates the command getting the tokens in the KWIC window of each of
+    /// the specified results with a single set-based query: the results are
+    /// passed as arrays, unnested into a set of windows, and joined with
+    /// the token spans falling in each window.
+    /// </summary>
+    /// <param name="connection">The open connection.</param>
+    /// <param name="results">The results.</param>
+    /// <param name="contextSize">Size of the context.</param>
+    /// <returns>Command.</returns>
+    protected override IDbCommand CreateKwicCommand(IDbConnection connection,
+        IList<SearchResult> results, int contextSize)
+    {
+        NpgsqlCommand cmd = (NpgsqlCommand)connection.CreateCommand();
+        cmd.CommandText =
+            "SELECT s.document_id, s.p1, s.value, s.text, k.id\n" +
+            "FROM unnest(@ids, @document_ids, @p1s, @p2s) " +
+            "AS k(id, document_id, p1, p2)\n" +
+            "INNER JOIN span s ON s.type='" + TextSpan.TYPE_TOKEN + "'\n" +
+            "AND s.document_id=k.document_id\n" +
+            "AND s.p1 >= k.p1 - @size AND s.p2 <= k.p2 + @size\n" +
+            "ORDER BY k.id, s.p1;";
+        cmd.CommandTimeout = 0;
+
+        const NpgsqlDbType intArray = NpgsqlDbType.Array | NpgsqlDbType.Integer;
+        cmd.Parameters.AddWithValue("ids", intArray,
+            results.Select(r => r.Id).ToArray());
+        cmd.Parameters.AddWithValue("document_ids", intArray,
+            results.Select(r => r.DocumentId).ToArray());
+        cmd.Parameters.AddWithValue("p1s", intArray,
+            results.Select(r => r.P1).ToArray());
+        cmd.Parameters.AddWithValue("p2s", intArray,
+            results.Select(r => r.P2).ToArray());
+        cmd.Parameters.AddWithValue("size", NpgsqlDbType.Integer, contextSize);
+
+        return cmd;
+    }
+
+    /// <summary>
+    /// Estimates the count returned by the specified count query from the
+    /// rows estimated by the PostgreSQL planner for the input of the
+    /// count aggregate, without executing the query.
+    /// </summary>
+    /// <param name="connection">The open connection.</param>
+    /// <param name="countSql">The count query.</param>
+    /// <returns>The estimated count, or null if not available.</returns>
+    protected override int? EstimateSearchCount(IDbConnection connection,
+        string countSql)
+    {
+        using IDbCommand cmd = connection.CreateCommand();
+        cmd.CommandText = "EXPLAIN (FORMAT JSON) " + countSql;
+        return cmd.ExecuteScalar() is string json ? ParseCountEstimate(json) : null;
+    }
+
+    /// <summary>
+    /// Asynchronously estimates the count returned by the specified count
+    /// query, like <see cref="EstimateSearchCount"/>.
+    /// </summary>
+    /// <param name="connection">The open connection.</param>
+    /// <param name="countSql">The count query.</param>
+    /// <param name="cancel">The cancellation token.</param>
+    /// <returns>The estimated count, or null if not available.</returns>
+    protected override async Task<int?> EstimateSearchCountAsync(
+        DbConnection connection, string countSql, CancellationToken cancel)
+    {
+        await using DbCommand cmd = connection.CreateCommand();
+        cmd.CommandText = "EXPLAIN (FORMAT JSON) " + countSql;
+        return await cmd.ExecuteScalarAsync(cancel) is string json
+            ? ParseCountEstimate(json) : null;
+    }
+
+    /// <summary>
+    /// Estimates the count of spans matched by the specified pair subquery
+    /// from the rows estimated by the PostgreSQL planner, which uses the
+    /// statistics collected for the span tables.
+    /// </summary>
+    /// <param name="connection">The open connection.</param>
+    /// <param name="pairSql">The pair subquery.</param>
+    /// <param name="cancel">The cancellation token.</param>
+    /// <returns>The estimated count, or null if not available.</returns>
+    protected override double? EstimatePairCount(IDbConnection connection,
+        string pairSql, CancellationToken cancel)
+    {
+        using IDbCommand cmd = connection.CreateCommand();
+        cmd.CommandText = "EXPLAIN (FORMAT JSON) " + pairSql;
+        return ExecuteScalar(cmd, cancel) is string json
+            ? ParsePairEstimate(json) : null;
+    }
+
+    /// <summary>
+    /// Asynchronously estimates the count of spans matched by the specified
+    /// pair subquery, like <see cref="EstimatePairCount"/>.
+    /// </summary>
+    /// <param name="connection">The open connection.</param>
+    /// <param name="pairSql">The pair subquery.</param>
+    /// <param name="cancel">The cancellation token.</param>
+    /// <returns>The estimated count, or null if not available.</returns>
+    protected override async Task<double?> EstimatePairCountAsync(
+        DbConnection connection, string pairSql, CancellationToken cancel)
+    {
+        await using DbCommand cmd = connection.CreateCommand();
+        cmd.CommandText = "EXPLAIN (FORMAT JSON) " + pairSql;
+        return await cmd.ExecuteScalarAsync(cancel) is string json
+            ? ParsePairEstimate(json) : null;
+    }
+
+    private static double? ParsePairEstimate(string json)
+    {
+        using JsonDocument doc = JsonDocument.Parse(json);
+        return doc.RootElement[0].GetProperty("Plan")
+            .TryGetProperty("Plan Rows", out JsonElement rows)
+            ? rows.GetDouble() : null;
+    }
+
+    private static int? ParseCountEstimate(string json)
+    {
+        using JsonDocument doc = JsonDocument.Parse(json);
+        JsonElement plan = doc.RootElement[0].GetProperty("Plan");
+
+        // the top node is the aggregate: its outer child estimates the rows
+        if (plan.TryGetProperty("Plans", out JsonElement children))
+        {
+            foreach (JsonElement child in children.EnumerateArray())
+            {
+                if (child.TryGetProperty("Parent Relationship",
+                        out JsonElement rel) && rel.GetString() == "Outer"
+                    && child.TryGetProperty("Plan Rows", out JsonElement rows))
+                {
+                    return (int)Math.Min(int.MaxValue, rows.GetDouble());
+                }
+            }
+        }
+        return null;
+    }
+
     /// <summary>
     /// Builds the paging expression with the specified values.
     /// </summary>
@@ -115,6 +272,21 @@ public sealed class PgSqlIndexRepository : SqlIndexRepository
     protected override string GetPagingSql(int offset, int limit)
         => $"OFFSET {offset} LIMIT {limit}";
 
+    /// <summary>
+    /// Gets the SQL code adding the value of parameter <c>@value</c> to the
+    /// statistics snapshot entry named by parameter <c>@name</c>, inserting
+    /// the entry when missing, and touching its update time.
+    /// </summary>
+    /// <returns>SQL code.</returns>
+    protected override string GetStatisticsDeltaSql()
+    {
+        return "INSERT INTO stats_snapshot(name, value) " +
+            "VALUES(@name, @value)\n" +
+            "ON CONFLICT(name) DO UPDATE\n" +
+            "SET value=stats_snapshot.value+EXCLUDED.value, " +
+            "updated=CURRENT_TIMESTAMP;";
+    }
+
     /// <summary>
     /// Upserts the specified structure.
     /// </summary>
@@ -161,6 +333,167 @@ public sealed class PgSqlIndexRepository : SqlIndexRepository
         }
     }
 
+    /// <summary>
+    /// Gets or sets the count of span IDs reserved at once from the span
+    /// sequence when importing spans in bulk. Default is 10000.
+    /// </summary>
+    public int SpanIdBlockSize { get; set; } = 10000;
+
+    /// <summary>
+    /// Gets a span ID from the reserved IDs block, reserving a new block
+    /// when the current one is exhausted.
+    /// </summary>
+    /// <param name="connection">The connection.</param>
+    /// <param name="required">The count of IDs still required by the
+    /// current batch.</param>
+    /// <returns>ID.</returns>
+    private int GetReservedSpanId(NpgsqlConnection connection, int required)
+    {
+        lock (_reservedSpanIds)
+        {
+            if (_reservedSpanIds.Count == 0)
+            {
+                // reserve a block of IDs in a single round-trip
+                using NpgsqlCommand cmd = connection.CreateCommand();
+                cmd.CommandText =
+                    "SELECT nextval(pg_get_serial_sequence('span', 'id')) " +
+                    "FROM generate_series(1, @n);";
+                cmd.Parameters.AddWithValue("n",
+                    Math.Max(required, SpanIdBlockSize));
+
+                using NpgsqlDataReader reader = cmd.ExecuteReader();
+                while (reader.Read())
+                    _reservedSpanIds.Enqueue((int)reader.GetInt64(0));
+            }
+            return _reservedSpanIds.Dequeue();
+        }
+    }
+
+    private static void WriteNullableString(NpgsqlBinaryImporter importer,
+        string? value)
+    {
+        if (value == null) importer.WriteNull();
+        else importer.Write(value, NpgsqlDbType.Varchar);
+    }
+
+    /// <summary>
+    /// Inserts the specified spans with their attributes in bulk. Spans
+    /// and attributes are streamed via binary <c>COPY</c> into temporary
+    /// staging tables, and then merged into the target tables in a single
+    /// command. Spans without an ID get one from a block of IDs reserved
+    /// in advance from the span sequence.
+    /// </summary>
+    /// <param name="spans">The spans.</param>
+    /// <param name="connection">The connection.</param>
+    /// <param name="tr">The transaction.</param>
+    protected override void BulkInsertSpans(IList<TextSpan> spans,
+        IDbConnection connection, IDbTransaction tr)
+    {
+        ArgumentNullException.ThrowIfNull(spans);
+        ArgumentNullException.ThrowIfNull(connection);
+
+        NpgsqlConnection cnn = (NpgsqlConnection)connection;
+
+        // assign IDs to new spans and their attributes
+        int required = spans.Count(s => s.Id == 0);
+        foreach (TextSpan span in spans)
+        {
+            if (span.Id == 0) span.Id = GetReservedSpanId(cnn, required--);
+            if (span.Attributes?.Count > 0)
+            {
+                foreach (Corpus.Core.Attribute attribute in span.Attributes)
+                    attribute.TargetId = span.Id;
+            }
+        }
+
+        // ensure that staging tables exist (their rows are dropped on commit)
+        using (NpgsqlCommand cmd = cnn.CreateCommand())
+        {
+            cmd.CommandText =
+                "CREATE TEMP TABLE IF NOT EXISTS span_stage " +
+                "(LIKE span) ON COMMIT DELETE ROWS;\n" +
+                "CREATE TEMP TABLE IF NOT EXISTS span_attribute_stage " +
+                "(span_id int4 NOT NULL, name varchar(100) NOT NULL, " +
+                "value varchar(500) NOT NULL, type int4 NOT NULL) " +
+                "ON COMMIT DELETE ROWS;";
+            cmd.ExecuteNonQuery();
+        }
+
+        // stream spans
+        using (NpgsqlBinaryImporter importer = cnn.BeginBinaryImport(
+            "COPY span_stage(id, document_id, type, p1, p2, index, length, " +
+            "language, pos, lemma, value, text) FROM STDIN (FORMAT BINARY)"))
+        {
+            foreach (TextSpan span in spans)
+            {
+                importer.StartRow();
+                importer.Write(span.Id, NpgsqlDbType.Integer);
+                importer.Write(span.DocumentId, NpgsqlDbType.Integer);
+                importer.Write(GetTruncatedString(span.Type, TYPE_MAX)!,
+                    NpgsqlDbType.Varchar);
+                importer.Write(span.P1, NpgsqlDbType.Integer);
+                importer.Write(span.P2, NpgsqlDbType.Integer);
+                importer.Write(span.Index, NpgsqlDbType.Integer);
+                importer.Write((short)span.Length, NpgsqlDbType.Smallint);
+                WriteNullableString(importer,
+                    GetTruncatedString(span.Language, LANGUAGE_MAX));
+                WriteNullableString(importer,
+                    GetTruncatedString(span.Pos, POS_MAX));
+                WriteNullableString(importer,
+                    GetTruncatedString(span.Lemma, LEMMA_MAX));
+                importer.Write(GetTruncatedString(span.Value, VALUE_MAX)!,
+                    NpgsqlDbType.Varchar);
+                importer.Write(GetTruncatedString(span.Text, TEXT_MAX)!,
+                    NpgsqlDbType.Varchar);
+            }
+            importer.Complete();
+        }
+
+        // stream attributes
+        if (spans.Any(s => s.Attributes?.Count > 0))
+        {
+            using NpgsqlBinaryImporter importer = cnn.BeginBinaryImport(
+                "COPY span_attribute_stage(span_id, name, value, type) " +
+                "FROM STDIN (FORMAT BINARY)");
+            foreach (TextSpan span in spans.Where(s => s.Attributes?.Count > 0))
+            {
+                foreach (Corpus.Core.Attribute attribute in span.Attributes!)
+                {
+                    importer.StartRow();
+                    importer.Write(span.Id, NpgsqlDbType.Integer);
+                    importer.Write(
+                        GetTruncatedString(attribute.Name, ATTR_NAME_MAX)!,
+                        NpgsqlDbType.Varchar);
+                    importer.Write(
+                        GetTruncatedString(attribute.Value, ATTR_VALUE_MAX)!,
+                        NpgsqlDbType.Varchar);
+                    importer.Write((int)attribute.Type, NpgsqlDbType.Integer);
+                }
+            }
+            importer.Complete();
+        }
+
+        // merge staged rows
+        using (NpgsqlCommand cmd = cnn.CreateCommand())
+        {
+            cmd.CommandText = "INSERT INTO span(id, document_id, type, " +
+                "p1, p2, index, length, language, pos, lemma, value, text)\n" +
+                "SELECT id, document_id, type, p1, p2, index, length, " +
+                "language, pos, lemma, value, text FROM span_stage\n" +
+                "ON CONFLICT(id) DO UPDATE\n" +
+                "SET document_id=EXCLUDED.document_id, type=EXCLUDED.type, " +
+                "p1=EXCLUDED.p1, p2=EXCLUDED.p2, index=EXCLUDED.index, " +
+                "length=EXCLUDED.length, language=EXCLUDED.language, " +
+                "pos=EXCLUDED.pos, lemma=EXCLUDED.lemma, " +
+                "value=EXCLUDED.value, text=EXCLUDED.text;\n" +
+                "INSERT INTO span_attribute(span_id, name, value, type)\n" +
+                "SELECT span_id, name, value, type FROM span_attribute_stage;\n" +
+                "TRUNCATE span_stage, span_attribute_stage;";
+            cmd.CommandTimeout = 0;
+            cmd.ExecuteNonQuery();
+        }
+    }
+
     /// <summary>
     /// Upserts the profile.
     /// </summary>
@@ -0,0 +1,38 @@
+﻿using System;
+using System.Collections.Generic;
+using System.Threading;
+using System.Threading.Tasks;
+
+namespace Pythia.Sql;
+
+/// <summary>
+/// Estimator of the count of spans matched by the pairs of a query.
+/// This is used by <see cref="SqlQueryPlanner"/> to order the operands
+/// of a query so that the most selective ones come first.
+/// </summary>
+public interface IQueryPairEstimator
+{
+    /// <summary>
+    /// Estimates the count of spans matched by each of the specified pairs.
+    /// </summary>
+    /// <param name="pairs">The pairs, each with the SQL code of its
+    /// subquery.</param>
+    /// <returns>The estimated counts, keyed by pair ID (e.g. <c>s1</c>).
+    /// Pairs which cannot be estimated are not included.</returns>
+    IDictionary<string, double> Estimate(
+        IList<Tuple<QuerySetPair, string>> pairs);
+
+    /// <summary>
+    /// Asynchronously estimates the count of spans matched by each of the
+    /// specified pairs. The default implementation calls
+    /// <see cref="Estimate"/>.
+    /// </summary>
+    /// <param name="pairs">The pairs, each with the SQL code of its
+    /// subquery.</param>
+    /// <param name="cancel">The cancellation token.</param>
+    /// <returns>The estimated counts, keyed by pair ID (e.g. <c>s1</c>).
+    /// Pairs which cannot be estimated are not included.</returns>
+    Task<IDictionary<string, double>> EstimateAsync(
+        IList<Tuple<QuerySetPair, string>> pairs, CancellationToken cancel)
+        => Task.FromResult(Estimate(pairs));
+}
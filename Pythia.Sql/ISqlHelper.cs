@@ -48,6 +48,14 @@ public interface ISqlHelper
     /// <returns>SQL code.</returns>
     string BuildPaging(int offset, int limit);
 
+    /// <summary>
+    /// Builds the paging expression with the specified bind parameters.
+    /// </summary>
+    /// <param name="offsetParameter">The offset parameter name.</param>
+    /// <param name="limitParameter">The limit parameter name.</param>
+    /// <returns>SQL code.</returns>
+    string BuildPaging(string offsetParameter, string limitParameter);
+
     /// <summary>
     /// Builds the SQL code required to represent the text field represented
     /// by <paramref name="name"/> as an integer number, when this cast
@@ -443,6 +443,149 @@ public sealed class LocationHelper(IVocabulary vocabulary, ISqlHelper sqlHelper)
         sql.AppendLine(")");
     }
 
+    /// <summary>
+    /// Offsets beyond this value are treated as unbounded when building
+    /// range predicates: positions are relative to a document, so they can
+    /// never be reached, while adding them to a position might overflow.
+    /// </summary>
+    private const int MAX_RANGE_OFFSET = int.MaxValue / 2;
+
+    private static bool IsOpen(int offset) => offset >= MAX_RANGE_OFFSET;
+
+    private static string Offset(string column, long offset)
+    {
+        if (offset == 0) return column;
+        return offset > 0
+            ? column + " + " + offset.ToString(CultureInfo.InvariantCulture)
+            : column + " - " + (-offset).ToString(CultureInfo.InvariantCulture);
+    }
+
+    /// <summary>
+    /// Appends a predicate limiting <paramref name="column"/> to the range
+    /// from <paramref name="baseColumn"/> plus <paramref name="min"/> to
+    /// <paramref name="baseColumn"/> plus <paramref name="max"/>. A null
+    /// bound means that the range is open on that side.
+    /// </summary>
+    private static void AppendRange(string column, string baseColumn,
+        long? min, long? max, StringBuilder sql)
+    {
+        if (min != null && max != null)
+        {
+            sql.Append(column).Append(" BETWEEN ")
+               .Append(Offset(baseColumn, min.Value)).Append(" AND ")
+               .Append(Offset(baseColumn, max.Value));
+        }
+        else if (min != null)
+        {
+            sql.Append(column).Append(" >= ")
+               .Append(Offset(baseColumn, min.Value));
+        }
+        else
+        {
+            sql.Append(column).Append(" <= ")
+               .Append(Offset(baseColumn, max!.Value));
+        }
+    }
+
+    private static void AppendBeforeRange(string left, string right,
+        int n, int m, StringBuilder sql)
+    {
+        // a2 < b1 and b1 - a2 - 1 in [n, m]
+        AppendRange(right + ".p1", left + ".p2",
+            1L + n, IsOpen(m) ? null : 1L + m, sql);
+    }
+
+    private static void AppendAfterRange(string left, string right,
+        int n, int m, StringBuilder sql)
+    {
+        // a1 > b2 and a1 - b2 - 1 in [n, m]
+        AppendRange(right + ".p2", left + ".p1",
+            IsOpen(m) ? null : -1L - m, -1L - n, sql);
+    }
+
+    /// <summary>
+    /// Appends the locop condition to the specified SQL builder, as
+    /// predicates on the ranges of positions of the right span relative
+    /// to the left one. These are equivalent to the locop functions
+    /// appended by <see cref="AppendLocopFn"/>, but unlike function calls
+    /// they can be used by the database to limit the rows to join via
+    /// indexes on positions.
+    /// </summary>
+    /// <param name="left">The left subquery name.</param>
+    /// <param name="right">The right subquery name.</param>
+    /// <param name="sql">The target SQL builder.</param>
+    /// <exception cref="ArgumentNullException">sql</exception>
+    public void AppendLocopRange(string left, string right, StringBuilder sql)
+    {
+        ArgumentNullException.ThrowIfNull(sql);
+
+        int op = (int)LocopArgs[ARG_OP];
+        int n = GetMinArgValue(ARG_N);
+        int m = GetMaxArgValue(ARG_M);
+
+        sql.Append('(');
+        switch (op)
+        {
+            case pythiaLexer.BEFORE:
+            case pythiaLexer.NOTBEFORE:
+                AppendBeforeRange(left, right, n, m, sql);
+                break;
+            case pythiaLexer.AFTER:
+            case pythiaLexer.NOTAFTER:
+                AppendAfterRange(left, right, n, m, sql);
+                break;
+            case pythiaLexer.NEAR:
+            case pythiaLexer.NOTNEAR:
+                sql.Append('(');
+                AppendBeforeRange(left, right, n, m, sql);
+                sql.Append(") OR (");
+                AppendAfterRange(left, right, n, m, sql);
+                sql.Append(')');
+                break;
+            case pythiaLexer.OVERLAPS:
+            case pythiaLexer.NOTOVERLAPS:
+                // b1 <= a2 and b2 >= a1, with the overlap count in [n, m]
+                sql.Append(right).Append(".p1 <= ").Append(left).Append(".p2")
+                   .Append(" AND ")
+                   .Append(right).Append(".p2 >= ").Append(left).Append(".p1");
+                if (n > 1 || !IsOpen(m))
+                {
+                    sql.Append(" AND LEAST(").Append(left).Append(".p2, ")
+                       .Append(right).Append(".p2) - GREATEST(")
+                       .Append(left).Append(".p1, ")
+                       .Append(right).Append(".p1) + 1");
+                    if (IsOpen(m)) sql.Append(" >= ").Append(n);
+                    else sql.Append(" BETWEEN ").Append(n).Append(" AND ").Append(m);
+                }
+                break;
+            case pythiaLexer.LALIGN:
+            case pythiaLexer.NOTLALIGN:
+                // a1 - b1 in [n, m]
+                AppendRange(right + ".p1", left + ".p1",
+                    IsOpen(m) ? null : -(long)m, -(long)n, sql);
+                break;
+            case pythiaLexer.RALIGN:
+            case pythiaLexer.NOTRALIGN:
+                // b2 - a2 in [n, m]
+                AppendRange(right + ".p2", left + ".p2",
+                    n, IsOpen(m) ? null : m, sql);
+                break;
+            case pythiaLexer.INSIDE:
+            case pythiaLexer.NOTINSIDE:
+                // a1 - b1 in [ns, ms] and b2 - a2 in [ne, me]
+                int ms = GetMaxArgValue(ARG_MS);
+                int me = GetMaxArgValue(ARG_ME);
+                AppendRange(right + ".p1", left + ".p1",
+                    IsOpen(ms) ? null : -(long)ms,
+                    -(long)GetMinArgValue(ARG_NS), sql);
+                sql.Append(" AND ");
+                AppendRange(right + ".p2", left + ".p2",
+                    GetMinArgValue(ARG_NE), IsOpen(me) ? null : me, sql);
+                break;
+        }
+        sql.AppendLine(")");
+    }
+
     private static string MapMaxValue(int m) =>
         m == int.MaxValue ? "MAX" : m.ToString(CultureInfo.InvariantCulture);
 
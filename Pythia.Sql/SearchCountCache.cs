@@ -0,0 +1,101 @@
+﻿using Microsoft.Extensions.Caching.Memory;
+using System;
+
+namespace Pythia.Sql;
+
+/// <summary>
+/// A short-lived cache of exact search counts, keyed by the compiled count
+/// query. This avoids counting results again when paging through them.
+/// As the index can change, counts expire after <see cref="Lifetime"/>.
+/// </summary>
+public sealed class SearchCountCache : IDisposable
+{
+    private readonly MemoryCache _cache;
+    private readonly TimeProvider _time;
+
+    /// <summary>
+    /// Gets the default cache, shared by all the SQL index repositories
+    /// in this process.
+    /// </summary>
+    public static SearchCountCache Default { get; } = new();
+
+    /// <summary>
+    /// Gets the lifetime of each cached count.
+    /// </summary>
+    public TimeSpan Lifetime { get; }
+
+    /// <summary>
+    /// Initializes a new instance of the <see cref="SearchCountCache"/> class.
+    /// </summary>
+    /// <param name="lifetime">The lifetime of each count. Default is 2
+    /// minutes.</param>
+    /// <param name="capacity">The maximum count of cached counts.</param>
+    /// <param name="timeProvider">The time provider used for expiration.
+    /// Default is <see cref="TimeProvider.System"/>.</param>
+    /// <exception cref="ArgumentOutOfRangeException">capacity less than 1
+    /// </exception>
+    public SearchCountCache(TimeSpan? lifetime = null, int capacity = 1000,
+        TimeProvider? timeProvider = null)
+    {
+        ArgumentOutOfRangeException.ThrowIfLessThan(capacity, 1);
+
+        Lifetime = lifetime ?? TimeSpan.FromMinutes(2);
+        _time = timeProvider ?? TimeProvider.System;
+        _cache = new MemoryCache(new MemoryCacheOptions
+        {
+            SizeLimit = capacity
+        });
+    }
+
+    /// <summary>
+    /// Gets the count for the specified count query, if any.
+    /// </summary>
+    /// <param name="countSql">The count query.</param>
+    /// <param name="count">The count.</param>
+    /// <returns>True if found.</returns>
+    public bool TryGet(string countSql, out int count)
+    {
+        ArgumentNullException.ThrowIfNull(countSql);
+
+        if (_cache.TryGetValue(countSql, out CachedCount? entry)
+            && entry!.Expiration > _time.GetUtcNow())
+        {
+            count = entry.Count;
+            return true;
+        }
+        count = 0;
+        return false;
+    }
+
+    /// <summary>
+    /// Sets the count for the specified count query.
+    /// </summary>
+    /// <param name="countSql">The count query.</param>
+    /// <param name="count">The count.</param>
+    public void Set(string countSql, int count)
+    {
+        ArgumentNullException.ThrowIfNull(countSql);
+
+        // expiration is checked against the time provider, while the
+        // cache's own expiration just evicts stale entries
+        _cache.Set(countSql,
+            new CachedCount(count, _time.GetUtcNow() + Lifetime),
+            new MemoryCacheEntryOptions
+            {
+                AbsoluteExpirationRelativeToNow = Lifetime,
+                Size = 1
+            });
+    }
+
+    /// <summary>
+    /// Clears this cache, e.g. after the index was changed.
+    /// </summary>
+    public void Clear() => _cache.Clear();
+
+    /// <summary>
+    /// Disposes this cache.
+    /// </summary>
+    public void Dispose() => _cache.Dispose();
+
+    private sealed record CachedCount(int Count, DateTimeOffset Expiration);
+}
@@ -1,9 +1,11 @@
-﻿using Corpus.Core;
+﻿using Antlr4.Runtime;
+using Corpus.Core;
 using Corpus.Sql;
 using Fusi.Tools;
 using Fusi.Tools.Data;
 using Pythia.Core;
 using Pythia.Core.Analysis;
+using Pythia.Core.Index;
 using Pythia.Core.Query;
 using System;
 using System.Collections.Generic;
@@ -12,6 +14,7 @@ using System.Data.Common;
 using System.Diagnostics;
 using System.Globalization;
 using System.Linq;
+using System.Runtime.CompilerServices;
 using System.Text;
 using System.Threading;
 using System.Threading.Tasks;
@@ -24,7 +27,9 @@ namespace Pythia.Sql;
 /// <seealso cref="SqlCorpusRepository" />
 /// <seealso cref="IIndexRepository" />
 public abstract class SqlIndexRepository : SqlCorpusRepository,
-    IIndexRepository
+    IIndexRepository, IBulkSpanRepository,
+    IIncrementalWordIndexRepository, IWordFrequencySource,
+    IStatisticsSnapshotRepository
 {
     /// <summary>
     /// Word count.
@@ -88,6 +93,11 @@ public abstract class SqlIndexRepository : SqlCorpusRepository,
     /// </summary>
     protected const int TEXT_MAX = 1000;
 
+    // the numeric bins of the words index, cached for incremental updates
+    private Dictionary<string, IList<DocumentPair>>? _wordIndexBins;
+    // true when the statistics snapshot table is known to exist
+    private bool _isSnapshotTableReady;
+
     /// <summary>
     /// Gets the corpus repository.
     /// </summary>
@@ -98,6 +108,95 @@ public abstract class SqlIndexRepository : SqlCorpusRepository,
     /// </summary>
     protected ISqlHelper SqlHelper { get; }
 
+    /// <summary>
+    /// Gets or sets a value indicating whether spans are imported in bulk
+    /// by <see cref="AddSpans(IEnumerable{TextSpan})"/>.
+    /// </summary>
+    public bool IsBulkImportEnabled { get; set; }
+
+    /// <summary>
+    /// Gets the metrics collected while importing spans.
+    /// </summary>
+    public SpanImportMetrics ImportMetrics { get; } = new();
+
+    /// <summary>
+    /// Gets or sets the optional cache of compiled search queries used by
+    /// <see cref="Search"/>. By default this is the process-wide
+    /// <see cref="SqlQueryCache.Default"/> cache; set it to null to compile
+    /// each query anew.
+    /// </summary>
+    public SqlQueryCache? QueryCache { get; set; } = SqlQueryCache.Default;
+
+    /// <summary>
+    /// Gets or sets the optional short-lived cache of exact search counts
+    /// used by <see cref="Search"/> and <see cref="GetSearchCount"/>.
+    /// By default this is the process-wide <see cref="SearchCountCache.Default"/>
+    /// cache; set it to null to count results at each search. The totals
+    /// of all the count strategies are served from the cache, so that paging
+    /// does not count results again; the cache is cleared whenever this
+    /// repository changes spans, while changes made by other processes are
+    /// reflected once cached counts expire.
+    /// </summary>
+    public SearchCountCache? CountCache { get; set; } = SearchCountCache.Default;
+
+    /// <summary>
+    /// Gets or sets the optional open token cache to get KWIC contexts from.
+    /// When set, <see cref="GetResultContext"/> gets from it the tokens of
+    /// each context, and falls back to the database only for the contexts
+    /// not fully found in the cache. The cache is only read, and can be
+    /// shared by several repositories used by concurrent searches.
+    /// </summary>
+    public IConcurrentTokenCache? KwicTokenCache { get; set; }
+
+    /// <summary>
+    /// Gets or sets the timeout for each call to the asynchronous search
+    /// methods, like <see cref="SearchAsync"/>. When it elapses, the query
+    /// being executed is cancelled on the database server, and a
+    /// <see cref="TimeoutException"/> is thrown. The default value is
+    /// <see cref="TimeSpan.Zero"/>, meaning no timeout.
+    /// </summary>
+    public TimeSpan SearchTimeout { get; set; }
+
+    /// <summary>
+    /// Gets or sets a value indicating whether search queries are planned
+    /// according to the estimated selectivity of their pairs, so that
+    /// the rarest terms come first. Planning runs some estimate queries
+    /// on the search connection whenever a query is compiled rather than
+    /// got from <see cref="QueryCache"/>. The default value is false.
+    /// </summary>
+    public bool IsQueryPlanningEnabled { get; set; }
+
+    /// <summary>
+    /// Gets or sets a value indicating whether location operators in search
+    /// queries are compiled into calls to the location functions of the
+    /// database, rather than into range predicates on positions, which
+    /// is the default.
+    /// </summary>
+    public bool UseLocationFunctions { get; set; }
+
+    /// <summary>
+    /// Gets or sets the count of connections used in parallel to compute
+    /// the word counts by <see cref="BuildWordIndexAsync"/>. The default
+    /// value is 1.
+    /// </summary>
+    public int WordCountParallelism { get; set; } = 1;
+
+    /// <summary>
+    /// Gets or sets the maximum count of word IDs in each partition of word
+    /// counts computed by <see cref="BuildWordIndexAsync"/>. Word counts are
+    /// computed for each document pair and, when this is greater than 0,
+    /// for each range of word IDs of this size. The default value is 0.
+    /// </summary>
+    public int WordCountPartitionSize { get; set; }
+
+    /// <summary>
+    /// Gets or sets a value indicating whether <see cref="BuildWordIndexAsync"/>
+    /// resumes an interrupted build, skipping the stages and the word count
+    /// partitions already completed, rather than starting anew. A build is
+    /// resumed only when it has the same options of the interrupted one.
+    /// </summary>
+    public bool IsWordIndexBuildResumed { get; set; }
+
     /// <summary>
     /// Initializes a new instance of the <see cref="SqlIndexRepository"/>
     /// class.
@@ -134,6 +233,342 @@ public abstract class SqlIndexRepository : SqlCorpusRepository,
     {
     }
 
+    /// <summary>
+    /// Asynchronously configures the specified open connection for read-heavy
+    /// search queries. This is the asynchronous counterpart of
+    /// <see cref="ConfigureConnectionForSearch(IDbConnection)"/>, and the
+    /// base implementation is a no-op.
+    /// </summary>
+    /// <param name="connection">The already-open connection to configure.
+    /// </param>
+    /// <param name="cancel">The cancellation token.</param>
+    protected virtual Task ConfigureConnectionForSearchAsync(
+        DbConnection connection, CancellationToken cancel)
+    {
+        return Task.CompletedTask;
+    }
+
+    /// <summary>
+    /// Estimates the count returned by the specified count query without
+    /// executing it, e.g. from the database planner. This is used by
+    /// <see cref="SearchCountStrategy.Estimated"/>. The default
+    /// implementation does not support estimates and returns null.
+    /// </summary>
+    /// <param name="connection">The open connection.</param>
+    /// <param name="countSql">The count query.</param>
+    /// <returns>The estimated count, or null if not available.</returns>
+    protected virtual int? EstimateSearchCount(IDbConnection connection,
+        string countSql)
+    {
+        return null;
+    }
+
+    /// <summary>
+    /// Asynchronously estimates the count returned by the specified count
+    /// query without executing it. The default implementation does not
+    /// support estimates and returns null.
+    /// </summary>
+    /// <param name="connection">The open connection.</param>
+    /// <param name="countSql">The count query.</param>
+    /// <param name="cancel">The cancellation token.</param>
+    /// <returns>The estimated count, or null if not available.</returns>
+    protected virtual Task<int?> EstimateSearchCountAsync(
+        DbConnection connection, string countSql, CancellationToken cancel)
+    {
+        return Task.FromResult<int?>(null);
+    }
+
+    /// <summary>
+    /// Estimates the count of spans matched by the specified pair subquery
+    /// without executing it, e.g. from the database planner. This is used
+    /// for the pairs which cannot be estimated from the words or lemmata
+    /// index. The default implementation does not support estimates and
+    /// returns null.
+    /// </summary>
+    /// <param name="connection">The open connection.</param>
+    /// <param name="pairSql">The pair subquery.</param>
+    /// <param name="cancel">The cancellation token.</param>
+    /// <returns>The estimated count, or null if not available.</returns>
+    protected virtual double? EstimatePairCount(IDbConnection connection,
+        string pairSql, CancellationToken cancel)
+    {
+        return null;
+    }
+
+    /// <summary>
+    /// Asynchronously estimates the count of spans matched by the specified
+    /// pair subquery without executing it, like
+    /// <see cref="EstimatePairCount"/>. The default implementation does not
+    /// support estimates and returns null.
+    /// </summary>
+    /// <param name="connection">The open connection.</param>
+    /// <param name="pairSql">The pair subquery.</param>
+    /// <param name="cancel">The cancellation token.</param>
+    /// <returns>The estimated count, or null if not available.</returns>
+    protected virtual Task<double?> EstimatePairCountAsync(
+        DbConnection connection, string pairSql, CancellationToken cancel)
+    {
+        return Task.FromResult<double?>(null);
+    }
+
+    /// <summary>
+    /// Executes the specified command returning a scalar, cancelling it on
+    /// the database server when <paramref name="cancel"/> is cancelled.
+    /// This is used for the short queries which must run synchronously,
+    /// like those estimating pairs while compiling a query.
+    /// </summary>
+    /// <param name="cmd">The command.</param>
+    /// <param name="cancel">The cancellation token.</param>
+    /// <returns>The scalar.</returns>
+    /// <exception cref="OperationCanceledException">cancelled</exception>
+    protected static object? ExecuteScalar(IDbCommand cmd,
+        CancellationToken cancel)
+    {
+        cancel.ThrowIfCancellationRequested();
+        using CancellationTokenRegistration registration =
+            cancel.Register(cmd.Cancel);
+        try
+        {
+            return cmd.ExecuteScalar();
+        }
+        catch (DbException) when (cancel.IsCancellationRequested)
+        {
+            throw new OperationCanceledException(cancel);
+        }
+    }
+
+    /// <summary>
+    /// Estimator of query pairs using the open connection of a search.
+    /// Equality pairs on token value, lemma, or POS are estimated from
+    /// the words and lemmata index; all the others are estimated by
+    /// <see cref="EstimatePairCount"/>, or by
+    /// <see cref="EstimatePairCountAsync"/> when estimating asynchronously.
+    /// </summary>
+    /// <param name="repository">The repository.</param>
+    /// <param name="connection">The open connection.</param>
+    /// <param name="cancel">The cancellation token used when estimating
+    /// synchronously.</param>
+    private sealed class PairEstimator(SqlIndexRepository repository,
+        IDbConnection connection, CancellationToken cancel)
+        : IQueryPairEstimator
+    {
+        // the presence of the words and lemmata indexes, keyed by table
+        private readonly Dictionary<string, bool> _indexes = [];
+
+        private static string GetHasRowsSql(string tableName) =>
+            $"SELECT EXISTS(SELECT 1 FROM {tableName});";
+
+        private bool HasRows(string tableName)
+        {
+            if (!_indexes.TryGetValue(tableName, out bool hasRows))
+            {
+                using IDbCommand cmd = connection.CreateCommand();
+                cmd.CommandText = GetHasRowsSql(tableName);
+                hasRows = ExecuteScalar(cmd, cancel) is bool b && b;
+                _indexes[tableName] = hasRows;
+            }
+            return hasRows;
+        }
+
+        private async Task<bool> HasRowsAsync(string tableName,
+            CancellationToken cancel)
+        {
+            if (!_indexes.TryGetValue(tableName, out bool hasRows))
+            {
+                await using DbCommand cmd =
+                    ((DbConnection)connection).CreateCommand();
+                cmd.CommandText = GetHasRowsSql(tableName);
+                hasRows = await cmd.ExecuteScalarAsync(cancel) is bool b && b;
+                _indexes[tableName] = hasRows;
+            }
+            return hasRows;
+        }
+
+        /// <summary>
+        /// Gets the table of the words or lemmata index which can estimate
+        /// the specified pair, and creates the command getting the estimate
+        /// from it. This is possible only for equality pairs on token value,
+        /// lemma or POS.
+        /// </summary>
+        /// <param name="pair">The pair.</param>
+        /// <param name="table">The index table.</param>
+        /// <returns>The command, or null if not available.</returns>
+        private IDbCommand? CreateIndexedPairCommand(QuerySetPair pair,
+            out string table)
+        {
+            table = "";
+            if (pair.IsStructure || pair.Operator != pythiaLexer.EQ
+                || pair.Value == null)
+            {
+                return null;
+            }
+
+            // values and lemmata are indexed in lowercase, while POS tags
+            // keep their case; the field is never wrapped in a function,
+            // so that the filter can use its index
+            string field;
+            string[] values;
+            switch (pair.Name?.ToLowerInvariant())
+            {
+                case "value":
+                    table = "word";
+                    field = "value";
+                    values = [pair.Value.ToLowerInvariant()];
+                    break;
+                case "lemma":
+                    table = "lemma";
+                    field = "value";
+                    values = [pair.Value.ToLowerInvariant()];
+                    break;
+                case "pos":
+                    table = "word";
+                    field = "pos";
+                    values = [.. new[]
+                    {
+                        pair.Value,
+                        pair.Value.ToUpperInvariant(),
+                        pair.Value.ToLowerInvariant()
+                    }.Distinct()];
+                    break;
+                default:
+                    return null;
+            }
+
+            // the index holds the counts of all the distinct forms
+            IDbCommand cmd = connection.CreateCommand();
+            cmd.CommandText = "SELECT COALESCE(SUM(count), 0) " +
+                $"FROM {table} WHERE {field} IN(" +
+                string.Join(", ", values.Select((_, n) => $"@v{n}")) + ");";
+            for (int n = 0; n < values.Length; n++)
+                AddParameter(cmd, $"@v{n}", DbType.String, values[n]);
+            return cmd;
+        }
+
+        private static double ToEstimate(object? result) =>
+            Convert.ToDouble(result ?? 0, CultureInfo.InvariantCulture);
+
+        /// <summary>
+        /// Estimates the count of spans matched by the specified pair from
+        /// the words or lemmata index. This is possible only for equality
+        /// pairs on token value, lemma or POS, when the index was built.
+        /// </summary>
+        /// <param name="pair">The pair.</param>
+        /// <returns>The count, or null if not available.</returns>
+        private double? EstimateIndexedPair(QuerySetPair pair)
+        {
+            using IDbCommand? cmd = CreateIndexedPairCommand(pair,
+                out string table);
+            if (cmd == null || !HasRows(table)) return null;
+            return ToEstimate(ExecuteScalar(cmd, cancel));
+        }
+
+        private async Task<double?> EstimateIndexedPairAsync(
+            QuerySetPair pair, CancellationToken cancel)
+        {
+            using IDbCommand? cmd = CreateIndexedPairCommand(pair,
+                out string table);
+            if (cmd == null || !await HasRowsAsync(table, cancel)) return null;
+            return ToEstimate(
+                await ((DbCommand)cmd).ExecuteScalarAsync(cancel));
+        }
+
+        /// <summary>
+        /// Estimates the count of spans matched by each of the specified
+        /// pairs.
+        /// </summary>
+        /// <param name="pairs">The pairs, each with the SQL code of its
+        /// subquery.</param>
+        /// <returns>The estimated counts, keyed by pair ID.</returns>
+        public IDictionary<string, double> Estimate(
+            IList<Tuple<QuerySetPair, string>> pairs)
+        {
+            Dictionary<string, double> estimates = [];
+            foreach (Tuple<QuerySetPair, string> t in pairs)
+            {
+                double? n = EstimateIndexedPair(t.Item1)
+                    ?? repository.EstimatePairCount(connection, t.Item2,
+                        cancel);
+                if (n != null) estimates[t.Item1.Id] = n.Value;
+            }
+            return estimates;
+        }
+
+        /// <summary>
+        /// Asynchronously estimates the count of spans matched by each of
+        /// the specified pairs.
+        /// </summary>
+        /// <param name="pairs">The pairs, each with the SQL code of its
+        /// subquery.</param>
+        /// <param name="cancel">The cancellation token.</param>
+        /// <returns>The estimated counts, keyed by pair ID.</returns>
+        public async Task<IDictionary<string, double>> EstimateAsync(
+            IList<Tuple<QuerySetPair, string>> pairs, CancellationToken cancel)
+        {
+            Dictionary<string, double> estimates = [];
+            foreach (Tuple<QuerySetPair, string> t in pairs)
+            {
+                double? n = await EstimateIndexedPairAsync(t.Item1, cancel)
+                    ?? await repository.EstimatePairCountAsync(
+                        (DbConnection)connection, t.Item2, cancel);
+                if (n != null) estimates[t.Item1.Id] = n.Value;
+            }
+            return estimates;
+        }
+    }
+
+    /// <summary>
+    /// Opens a new connection and configures it for search.
+    /// </summary>
+    /// <param name="cancel">The cancellation token.</param>
+    /// <returns>The open connection.</returns>
+    private async Task<DbConnection> OpenSearchConnectionAsync(
+        CancellationToken cancel)
+    {
+        DbConnection connection = (DbConnection)GetConnection();
+        try
+        {
+            await connection.OpenAsync(cancel);
+            await ConfigureConnectionForSearchAsync(connection, cancel);
+            return connection;
+        }
+        catch
+        {
+            await connection.DisposeAsync();
+            throw;
+        }
+    }
+
+    /// <summary>
+    /// Runs the specified asynchronous search operation, cancelling it
+    /// when either <paramref name="cancel"/> is cancelled or
+    /// <see cref="SearchTimeout"/> elapses.
+    /// </summary>
+    /// <typeparam name="T">The type of the operation's result.</typeparam>
+    /// <param name="operation">The operation, receiving the token to pass
+    /// to all the database calls.</param>
+    /// <param name="cancel">The cancellation token.</param>
+    /// <returns>The operation's result.</returns>
+    /// <exception cref="TimeoutException">timeout elapsed</exception>
+    private async Task<T> RunSearchAsync<T>(
+        Func<CancellationToken, Task<T>> operation, CancellationToken cancel)
+    {
+        if (SearchTimeout <= TimeSpan.Zero) return await operation(cancel);
+
+        using CancellationTokenSource cts =
+            CancellationTokenSource.CreateLinkedTokenSource(cancel);
+        cts.CancelAfter(SearchTimeout);
+        try
+        {
+            return await operation(cts.Token);
+        }
+        catch (OperationCanceledException) when (
+            cts.IsCancellationRequested && !cancel.IsCancellationRequested)
+        {
+            throw new TimeoutException("Search timed out after " +
+                $"{SearchTimeout.TotalSeconds:F0} seconds");
+        }
+    }
+
     /// <summary>
     /// Gets the a truncated version of the received string.
     /// </summary>
@@ -393,7 +828,73 @@ public abstract class SqlIndexRepository : SqlCorpusRepository,
     }
 
     /// <summary>
-    /// Adds all the specified spans.
+    /// Inserts the specified spans with their attributes row by row.
+    /// </summary>
+    /// <param name="spans">The spans.</param>
+    /// <param name="connection">The connection.</param>
+    /// <returns>The count of inserted attributes.</returns>
+    private int InsertSpanRows(IEnumerable<TextSpan> spans,
+        IDbConnection connection)
+    {
+        int attrCount = 0;
+
+        // prepare insert attr command
+        DbCommand attrCmd = (DbCommand)connection.CreateCommand();
+        attrCmd.CommandText = "INSERT INTO span_attribute(span_id, name," +
+            "value, type)\n" +
+            "VALUES(@span_id, @name, @value, @type);";
+        AddParameter(attrCmd, "@span_id", DbType.Int32, 0);
+        AddParameter(attrCmd, "@name", DbType.String, "");
+        AddParameter(attrCmd, "@value", DbType.String, "");
+        AddParameter(attrCmd, "@type", DbType.Int32, 0);
+
+        // add each span
+        foreach (TextSpan span in spans)
+        {
+            UpsertSpan(span, connection);
+
+            // add span attributes
+            if (span.Attributes?.Count > 0)
+            {
+                foreach (Corpus.Core.Attribute attribute in span.Attributes)
+                {
+                    attrCmd.Parameters["@span_id"].Value = span.Id;
+                    attrCmd.Parameters["@name"].Value =
+                        GetTruncatedString(attribute.Name, ATTR_NAME_MAX);
+                    attrCmd.Parameters["@value"].Value =
+                        GetTruncatedString(attribute.Value, ATTR_VALUE_MAX);
+                    attrCmd.Parameters["@type"].Value = (int)attribute.Type;
+                    attrCmd.ExecuteNonQuery();
+                    attrCount++;
+                }
+            }
+        }
+
+        return attrCount;
+    }
+
+    /// <summary>
+    /// Inserts the specified spans with their attributes in bulk. The
+    /// default implementation just falls back to row-by-row insertion;
+    /// database-specific subclasses should override this to use their
+    /// native bulk copy mechanism.
+    /// </summary>
+    /// <param name="spans">The spans. Spans with ID=0 must get their
+    /// newly assigned ID, which must also be set as the target ID of
+    /// their attributes.</param>
+    /// <param name="connection">The connection.</param>
+    /// <param name="tr">The transaction.</param>
+    protected virtual void BulkInsertSpans(IList<TextSpan> spans,
+        IDbConnection connection, IDbTransaction tr)
+    {
+        InsertSpanRows(spans, connection);
+    }
+
+    /// <summary>
+    /// Adds all the specified spans. When <see cref="IsBulkImportEnabled"/>
+    /// is true, spans are imported via <see cref="BulkInsertSpans"/>;
+    /// otherwise, they are upserted one by one. Spans with ID=0 get their
+    /// new ID; if the import fails, their ID is reset to 0.
     /// </summary>
     /// <param name="spans">The spans.</param>
     /// <exception cref="ArgumentNullException">spans</exception>
@@ -401,59 +902,66 @@ public abstract class SqlIndexRepository : SqlCorpusRepository,
     {
         ArgumentNullException.ThrowIfNull(spans);
 
+        Stopwatch watch = Stopwatch.StartNew();
+        IList<TextSpan> list = spans as IList<TextSpan> ?? [.. spans];
+        if (list.Count == 0) return;
+
+        // new spans get their ID while inserting; should the transaction
+        // fail, these IDs would refer to rows which do not exist
+        List<TextSpan> newSpans = [.. list.Where(s => s.Id == 0)];
+
         using IDbConnection connection = GetConnection();
         connection.Open();
+        bool snapshot = HasStatisticsSnapshot(connection);
         using var tr = connection.BeginTransaction();
 
         try
         {
-            // prepare insert attr command
-            DbCommand attrCmd = (DbCommand)connection.CreateCommand();
-            attrCmd.CommandText = "INSERT INTO span_attribute(span_id, name," +
-                "value, type)\n" +
-                "VALUES(@span_id, @name, @value, @type);";
-            AddParameter(attrCmd, "@span_id", DbType.Int32, 0);
-            AddParameter(attrCmd, "@name", DbType.String, "");
-            AddParameter(attrCmd, "@value", DbType.String, "");
-            AddParameter(attrCmd, "@type", DbType.Int32, 0);
-
-            // add each span
-            foreach (TextSpan span in spans)
+            int attrCount;
+            if (IsBulkImportEnabled)
+            {
+                BulkInsertSpans(list, connection, tr);
+                attrCount = list.Sum(s => s.Attributes?.Count ?? 0);
+            }
+            else
             {
-                UpsertSpan(span, connection);
+                attrCount = InsertSpanRows(list, connection);
+            }
 
-                // add span attributes
-                if (span.Attributes?.Count > 0)
-                {
-                    foreach (Corpus.Core.Attribute attribute in span.Attributes)
-                    {
-                        attrCmd.Parameters["@span_id"].Value = span.Id;
-                        attrCmd.Parameters["@name"].Value =
-                            GetTruncatedString(attribute.Name, ATTR_NAME_MAX);
-                        attrCmd.Parameters["@value"].Value =
-                            GetTruncatedString(attribute.Value, ATTR_VALUE_MAX);
-                        attrCmd.Parameters["@type"].Value = (int)attribute.Type;
-                        attrCmd.ExecuteNonQuery();
-                    }
-                }
+            if (snapshot)
+            {
+                ApplyStatisticsDeltas(connection, tr,
+                    StatisticsSnapshot.GetSpanDeltas(list,
+                    n => GetTruncatedString(n, ATTR_NAME_MAX)!));
             }
 
             tr.Commit();
+            InvalidateSearchCounts();
+            ImportMetrics.Add(list.Count, attrCount, watch.Elapsed);
         }
         catch (Exception ex)
         {
             tr.Rollback();
+            foreach (TextSpan span in newSpans)
+            {
+                span.Id = 0;
+                if (span.Attributes?.Count > 0)
+                {
+                    foreach (Corpus.Core.Attribute attribute in span.Attributes)
+                        attribute.TargetId = 0;
+                }
+            }
             Debug.WriteLine(ex.ToString());
             throw;
         }
     }
 
     private static List<int> GetRangeTokenIds(IDbConnection connection,
-        int documentId, int start, int end)
+        int documentId, int start, int end, out int tokenCount)
     {
         // get all the target IDs in the specified doc's range
         DbCommand cmd = (DbCommand)connection.CreateCommand();
-        cmd.CommandText = "SELECT id FROM span\n" +
+        cmd.CommandText = "SELECT id, type FROM span\n" +
         "WHERE document_id=@document_id AND " +
             "p1 >= @start AND p2 <= @end;";
         AddParameter(cmd, "@document_id", DbType.Int32, documentId);
@@ -461,8 +969,13 @@ public abstract class SqlIndexRepository : SqlCorpusRepository,
         AddParameter(cmd, "@end", DbType.Int32, end);
 
         List<int> ids = [];
+        tokenCount = 0;
         using DbDataReader reader = cmd.ExecuteReader();
-        while (reader.Read()) ids.Add(reader.GetInt32(0));
+        while (reader.Read())
+        {
+            ids.Add(reader.GetInt32(0));
+            if (reader.GetString(1) == TextSpan.TYPE_TOKEN) tokenCount++;
+        }
 
         return ids;
     }
@@ -485,9 +998,11 @@ public abstract class SqlIndexRepository : SqlCorpusRepository,
     {
         using IDbConnection connection = GetConnection();
         connection.Open();
+        bool snapshot = HasStatisticsSnapshot(connection);
 
         // get all the target IDs in the specified doc's range
-        List<int> ids = GetRangeTokenIds(connection, documentId, start, end);
+        List<int> ids = GetRangeTokenIds(connection, documentId, start, end,
+            out int tokenCount);
 
         // truncate value if needed
         value = name switch
@@ -527,7 +1042,20 @@ public abstract class SqlIndexRepository : SqlCorpusRepository,
                 cmd.Parameters["@span_id"].Value = id;
                 cmd.ExecuteNonQuery();
             }
+
+            if (snapshot && !TextSpan.IsPrivilegedSpanAttr(name))
+            {
+                ApplyStatisticsDeltas(connection, tr, new Dictionary<string,
+                    double>
+                {
+                    ["span_attribute_count"] = ids.Count,
+                    ["span_tok_attribute_count"] = tokenCount,
+                    [StatisticsSnapshot.SPAN_ATTR_PREFIX +
+                        GetTruncatedString(name, ATTR_NAME_MAX)] = ids.Count
+                });
+            }
             tr.Commit();
+            InvalidateSearchCounts();
         }
         catch (Exception ex)
         {
@@ -554,15 +1082,97 @@ public abstract class SqlIndexRepository : SqlCorpusRepository,
         using IDbConnection connection = GetConnection();
         connection.Open();
 
-        List<int> ids = GetRangeTokenIds(connection, documentId, start, end);
+        List<int> ids = GetRangeTokenIds(connection, documentId, start, end,
+            out _);
+        if (ids.Count == 0) return;
+        bool snapshot = HasStatisticsSnapshot(connection);
 
         // remove the received attributes from each of these tokens
-        DbCommand cmd = (DbCommand)connection.CreateCommand();
-        cmd.CommandText = "DELETE FROM span_attribute\n" +
-            $"WHERE span_id IN({string.Join(",", ids)}) AND\n" +
-            $"name IN({string.Join(",",
-                names.Select(s => SqlHelper.SqlEncode(s, false, true)))});";
-        cmd.ExecuteNonQuery();
+        string filter = $"span_attribute.span_id IN({string.Join(",", ids)})" +
+            " AND\n" +
+            $"span_attribute.name IN({string.Join(",",
+                names.Select(s => SqlHelper.SqlEncode(s, false, true)))})";
+
+        using IDbTransaction tr = connection.BeginTransaction();
+        try
+        {
+            IDbCommand cmd = connection.CreateCommand();
+            cmd.Transaction = tr;
+            Dictionary<string, double> deltas = snapshot
+                ? GetSpanAttributeDeltas(cmd, filter) : [];
+
+            cmd.CommandText = $"DELETE FROM span_attribute\nWHERE {filter};";
+            cmd.ExecuteNonQuery();
+
+            ApplyStatisticsDeltas(connection, tr, deltas);
+            tr.Commit();
+            InvalidateSearchCounts();
+        }
+        catch (Exception ex)
+        {
+            tr.Rollback();
+            Debug.WriteLine(ex.ToString());
+            throw;
+        }
+    }
+
+    /// <summary>
+    /// Delete the document with the specified identifier with all its
+    /// related data. Its spans are subtracted from the statistics snapshot,
+    /// and its words from the words index, in the same transaction; the
+    /// documents part of the snapshot is then recalculated.
+    /// </summary>
+    /// <param name="id">The document identifier.</param>
+    public override void DeleteDocument(int id)
+    {
+        using IDbConnection connection = GetConnection();
+        connection.Open();
+        bool snapshot = HasStatisticsSnapshot(connection);
+        bool words;
+
+        using IDbTransaction tr = connection.BeginTransaction();
+        try
+        {
+            using IDbCommand cmd = connection.CreateCommand();
+            cmd.Transaction = tr;
+            AddParameter(cmd, "@document_id", DbType.Int32, id);
+
+            // the document's words are subtracted from the words index
+            // while its spans still exist, as they are deleted by cascade
+            cmd.CommandText = "SELECT 1 FROM span WHERE " +
+                "document_id=@document_id AND word_id IS NOT NULL LIMIT 1;";
+            words = cmd.ExecuteScalar() != null;
+            if (words)
+            {
+                SubtractDocumentWords(connection, id,
+                    GetIndexedWordOptions(connection, id));
+            }
+
+            // the spans being deleted are subtracted from the snapshot
+            Dictionary<string, double> deltas = snapshot
+                ? GetSpanDeltas(cmd, "span.document_id=@document_id") : [];
+
+            cmd.CommandText = "DELETE FROM document WHERE id=@document_id;";
+            cmd.ExecuteNonQuery();
+
+            ApplyStatisticsDeltas(connection, tr, deltas);
+            tr.Commit();
+            InvalidateSearchCounts();
+        }
+        catch (Exception ex)
+        {
+            tr.Rollback();
+            Debug.WriteLine(ex.ToString());
+            throw;
+        }
+
+        if (snapshot)
+        {
+            UpdateSnapshotParts(connection, words
+                ? StatisticsSnapshotParts.Documents |
+                  StatisticsSnapshotParts.Words
+                : StatisticsSnapshotParts.Documents);
+        }
     }
 
     /// <summary>
@@ -577,23 +1187,37 @@ public abstract class SqlIndexRepository : SqlCorpusRepository,
     {
         using IDbConnection connection = GetConnection();
         connection.Open();
+        bool snapshot = HasStatisticsSnapshot(connection);
 
-        IDbCommand cmd = connection.CreateCommand();
+        string filter = "span.document_id=@document_id";
         if (type != null)
+            filter += $" AND span.type{(negatedType ? "<>" : "=")}@type";
+
+        using IDbTransaction tr = connection.BeginTransaction();
+        try
         {
-            cmd.CommandText = "DELETE FROM span\n" +
-                "WHERE document_id=@document_id AND " +
-                $"type{(negatedType? "<>":"=")}@type;";
-            AddParameter(cmd, "@document_id", DbType.Int32, documentId);
-            AddParameter(cmd, "@type", DbType.String, type);
-        }
-        else
-        {
-            cmd.CommandText = "DELETE FROM span\n" +
-                "WHERE document_id=@document_id;";
+            IDbCommand cmd = connection.CreateCommand();
+            cmd.Transaction = tr;
             AddParameter(cmd, "@document_id", DbType.Int32, documentId);
+            if (type != null) AddParameter(cmd, "@type", DbType.String, type);
+
+            // the spans being deleted are subtracted from the snapshot
+            Dictionary<string, double> deltas = snapshot
+                ? GetSpanDeltas(cmd, filter) : [];
+
+            cmd.CommandText = $"DELETE FROM span\nWHERE {filter};";
+            cmd.ExecuteNonQuery();
+
+            ApplyStatisticsDeltas(connection, tr, deltas);
+            tr.Commit();
+            InvalidateSearchCounts();
+        }
+        catch (Exception ex)
+        {
+            tr.Rollback();
+            Debug.WriteLine(ex.ToString());
+            throw;
         }
-        cmd.ExecuteNonQuery();
     }
 
     /// <summary>
@@ -629,41 +1253,104 @@ public abstract class SqlIndexRepository : SqlCorpusRepository,
         return Tuple.Create(reader.GetInt32(0), reader.GetInt32(1));
     }
 
-    private static void CollectAttributesStats(IDbConnection connection,
-        string tableName, Dictionary<string, double> stats)
+    private static int GetMax(IDbConnection connection, string tableName,
+        string fieldName)
+    {
+        IDbCommand cmd = connection.CreateCommand();
+        cmd.CommandText = $"SELECT MAX({fieldName}) FROM {tableName};";
+        object? result = cmd.ExecuteScalar();
+        if (result == DBNull.Value || result == null) return 0;
+        return Convert.ToInt32(result);
+    }
+
+    /// <summary>
+    /// Creates a command with the specified SQL code and no timeout, on the
+    /// specified connection. This is shared by the synchronous and
+    /// asynchronous search methods, which differ only in the way they
+    /// execute it.
+    /// </summary>
+    /// <param name="connection">The open connection.</param>
+    /// <param name="sql">The SQL code.</param>
+    /// <returns>The command.</returns>
+    private static IDbCommand CreateSearchCommand(IDbConnection connection,
+        string sql)
     {
         IDbCommand cmd = connection.CreateCommand();
-        cmd.CommandText = "SELECT name, " +
-            $"COUNT(id) FROM {tableName} GROUP BY name;";
+        cmd.CommandText = sql;
+        cmd.CommandTimeout = 0;
+        return cmd;
+    }
+
+    private static object? ExecuteScalar(IDbConnection connection,
+        string sql)
+    {
+        using IDbCommand cmd = CreateSearchCommand(connection, sql);
+        return cmd.ExecuteScalar();
+    }
+
+    private static async Task<object?> ExecuteScalarAsync(
+        DbConnection connection, string sql, CancellationToken cancel)
+    {
+        await using DbCommand cmd =
+            (DbCommand)CreateSearchCommand(connection, sql);
+        return await cmd.ExecuteScalarAsync(cancel);
+    }
+
+    private static string BuildAttributesStatsSql(string tableName) =>
+        $"SELECT name, COUNT(id) FROM {tableName} GROUP BY name;";
+
+    private static void CollectAttributesStats(IDbConnection connection,
+        string tableName, Dictionary<string, double> stats,
+        string prefix = "@")
+    {
+        using IDbCommand cmd = CreateSearchCommand(connection,
+            BuildAttributesStatsSql(tableName));
 
         using IDataReader reader = cmd.ExecuteReader();
         while (reader.Read())
-            stats["@" + reader.GetString(0)] = reader.GetDouble(1);
+            stats[prefix + reader.GetString(0)] = reader.GetDouble(1);
     }
 
-    private static int GetCount(IDbConnection connection, string tableName,
-        string? tail = null)
+    private static async Task CollectAttributesStatsAsync(
+        DbConnection connection, string tableName,
+        Dictionary<string, double> stats, CancellationToken cancel,
+        string prefix = "@")
     {
-        IDbCommand cmd = connection.CreateCommand();
-        cmd.CommandText = $"SELECT COUNT(*) FROM {tableName}";
-        if (tail != null) cmd.CommandText += $" {tail}";
+        await using DbCommand cmd = (DbCommand)CreateSearchCommand(
+            connection, BuildAttributesStatsSql(tableName));
 
-        object? result = cmd.ExecuteScalar();
+        await using DbDataReader reader = await cmd.ExecuteReaderAsync(cancel);
+        while (await reader.ReadAsync(cancel))
+            stats[prefix + reader.GetString(0)] = reader.GetDouble(1);
+    }
 
-        if (result == DBNull.Value || result == null) return 0;
-        return Convert.ToInt32(result);
+    private static string BuildCountSql(string tableName, string? tail)
+    {
+        string sql = $"SELECT COUNT(*) FROM {tableName}";
+        if (tail != null) sql += $" {tail}";
+        return sql;
     }
 
-    private static int GetMax(IDbConnection connection, string tableName,
-        string fieldName)
+    private static int ToCount(object? result)
     {
-        IDbCommand cmd = connection.CreateCommand();
-        cmd.CommandText = $"SELECT MAX({fieldName}) FROM {tableName};";
-        object? result = cmd.ExecuteScalar();
         if (result == DBNull.Value || result == null) return 0;
         return Convert.ToInt32(result);
     }
 
+    private static int GetCount(IDbConnection connection, string tableName,
+        string? tail = null)
+    {
+        return ToCount(ExecuteScalar(connection,
+            BuildCountSql(tableName, tail)));
+    }
+
+    private static async Task<int> GetCountAsync(DbConnection connection,
+        string tableName, CancellationToken cancel, string? tail = null)
+    {
+        return ToCount(await ExecuteScalarAsync(connection,
+            BuildCountSql(tableName, tail), cancel));
+    }
+
     /// <summary>
     /// Gets the counts from the specified SQL query, which is like:
     /// <code>
@@ -677,13 +1364,12 @@ public abstract class SqlIndexRepository : SqlCorpusRepository,
     /// <param name="connection">The connection.</param>
     /// <param name="sql">The SQL code.</param>
     /// <returns>The counts dictionary.</returns>
-    private static Dictionary<string, int> GetCounts(IDbConnection connection,
-        string sql)
+    private static Dictionary<string, int> GetCounts(
+        IDbConnection connection, string sql)
     {
         Dictionary<string, int> counts = [];
 
-        IDbCommand cmd = connection.CreateCommand();
-        cmd.CommandText = sql;
+        using IDbCommand cmd = CreateSearchCommand(connection, sql);
 
         using IDataReader reader = cmd.ExecuteReader();
         while (reader.Read())
@@ -692,6 +1378,29 @@ public abstract class SqlIndexRepository : SqlCorpusRepository,
         return counts;
     }
 
+    /// <summary>
+    /// Gets the counts from the specified SQL query asynchronously, like
+    /// <see cref="GetCounts"/>.
+    /// </summary>
+    /// <param name="connection">The connection.</param>
+    /// <param name="sql">The SQL code.</param>
+    /// <param name="cancel">The cancellation token.</param>
+    /// <returns>The counts dictionary.</returns>
+    private static async Task<Dictionary<string, int>> GetCountsAsync(
+        DbConnection connection, string sql, CancellationToken cancel)
+    {
+        Dictionary<string, int> counts = [];
+
+        await using DbCommand cmd = (DbCommand)CreateSearchCommand(
+            connection, sql);
+
+        await using DbDataReader reader = await cmd.ExecuteReaderAsync(cancel);
+        while (await reader.ReadAsync(cancel))
+            counts[reader.GetString(0)] = reader.GetInt32(1);
+
+        return counts;
+    }
+
     private static void AddRatio(string dividend, string divisor,
         Dictionary<string, double> stats)
     {
@@ -702,57 +1411,156 @@ public abstract class SqlIndexRepository : SqlCorpusRepository,
         }
     }
 
+    private static Word ReadWord(IDataRecord record)
+    {
+        return new Word
+        {
+            Id = record.GetInt32(0),
+            LemmaId = record.IsDBNull(1) ? null : record.GetInt32(1),
+            Value = record.GetString(2),
+            ReversedValue = record.GetString(3),
+            Language = record.IsDBNull(4) ? null : record.GetString(4),
+            Pos = record.IsDBNull(5) ? null : record.GetString(5),
+            Lemma = record.IsDBNull(6) ? null : record.GetString(6),
+            Count = record.GetInt32(7)
+        };
+    }
+
+    private static Lemma ReadLemma(IDataRecord record)
+    {
+        return new Lemma
+        {
+            Id = record.GetInt32(0),
+            Value = record.GetString(1),
+            ReversedValue = record.GetString(2),
+            Pos = record.IsDBNull(3) ? null : record.GetString(3),
+            Language = record.IsDBNull(4) ? null : record.GetString(4),
+            Count = record.GetInt32(5)
+        };
+    }
+
     /// <summary>
-    /// Gets the specified page of words.
+    /// Reads a page of words or lemmata using the specified data and count
+    /// queries.
     /// </summary>
-    /// <param name="filter">The words filter.</param>
-    /// <returns>The results page.</returns>
-    /// <exception cref="ArgumentNullException">filter</exception>
-    public DataPage<Word> GetWords(WordFilter filter)
+    /// <typeparam name="T">The type of the items.</typeparam>
+    /// <param name="connection">The open connection.</param>
+    /// <param name="t">The data and count queries.</param>
+    /// <param name="pageNumber">The page number.</param>
+    /// <param name="pageSize">The page size.</param>
+    /// <param name="read">The function reading an item from a record.
+    /// </param>
+    /// <returns>The page.</returns>
+    private static DataPage<T> ReadPage<T>(IDbConnection connection,
+        Tuple<string, string> t, int pageNumber, int pageSize,
+        Func<IDataRecord, T> read)
     {
-        ArgumentNullException.ThrowIfNull(filter);
+        // get count
+        long? total = ExecuteScalar(connection, t.Item2) as long?;
+        if (total == null || total.Value == 0)
+            return new DataPage<T>(pageNumber, pageSize, 0, []);
 
-        SqlWordQueryBuilder builder = new(SqlHelper);
-        Tuple<string, string> t = builder.Build(filter);
+        // get data
+        List<T> items = [];
+        using IDbCommand cmd = CreateSearchCommand(connection, t.Item1);
+        using IDataReader reader = cmd.ExecuteReader();
+        while (reader.Read()) items.Add(read(reader));
 
-        using IDbConnection connection = GetConnection();
-        connection.Open();
-        ConfigureConnectionForSearch(connection);
+        return new DataPage<T>(pageNumber, pageSize, (int)total.Value, items);
+    }
 
+    /// <summary>
+    /// Reads a page of words or lemmata asynchronously, like
+    /// <see cref="ReadPage{T}"/>.
+    /// </summary>
+    /// <typeparam name="T">The type of the items.</typeparam>
+    /// <param name="connection">The open connection.</param>
+    /// <param name="t">The data and count queries.</param>
+    /// <param name="pageNumber">The page number.</param>
+    /// <param name="pageSize">The page size.</param>
+    /// <param name="read">The function reading an item from a record.
+    /// </param>
+    /// <param name="cancel">The cancellation token.</param>
+    /// <returns>The page.</returns>
+    private static async Task<DataPage<T>> ReadPageAsync<T>(
+        DbConnection connection, Tuple<string, string> t, int pageNumber,
+        int pageSize, Func<IDataRecord, T> read, CancellationToken cancel)
+    {
         // get count
-        IDbCommand cmd = connection.CreateCommand();
-        cmd.CommandText = t.Item2;
-        cmd.CommandTimeout = 0;
-        long? total = cmd.ExecuteScalar() as long?;
+        long? total = await ExecuteScalarAsync(connection, t.Item2, cancel)
+            as long?;
         if (total == null || total.Value == 0)
-        {
-            return new DataPage<Word>(
-                filter.PageNumber, filter.PageSize, 0, []);
-        }
+            return new DataPage<T>(pageNumber, pageSize, 0, []);
 
         // get data
-        List<Word> words = [];
-        cmd = connection.CreateCommand();
-        cmd.CommandText = t.Item1;
-        cmd.CommandTimeout = 0;
-        using IDataReader reader = cmd.ExecuteReader();
-        while (reader.Read())
+        List<T> items = [];
+        await using DbCommand cmd = (DbCommand)CreateSearchCommand(
+            connection, t.Item1);
+        await using DbDataReader reader = await cmd.ExecuteReaderAsync(cancel);
+        while (await reader.ReadAsync(cancel)) items.Add(read(reader));
+
+        return new DataPage<T>(pageNumber, pageSize, (int)total.Value, items);
+    }
+
+    /// <summary>
+    /// Opens a new connection and configures it for search.
+    /// </summary>
+    /// <returns>The open connection.</returns>
+    private IDbConnection OpenSearchConnection()
+    {
+        IDbConnection connection = GetConnection();
+        try
         {
-            words.Add(new Word
-            {
-                Id = reader.GetInt32(0),
-                LemmaId = reader.IsDBNull(1) ? null : reader.GetInt32(1),
-                Value = reader.GetString(2),
-                ReversedValue = reader.GetString(3),
-                Language = reader.IsDBNull(4) ? null : reader.GetString(4),
-                Pos = reader.IsDBNull(5) ? null : reader.GetString(5),
-                Lemma = reader.IsDBNull(6) ? null : reader.GetString(6),
-                Count = reader.GetInt32(7)
-            });
+            connection.Open();
+            ConfigureConnectionForSearch(connection);
+            return connection;
+        }
+        catch
+        {
+            connection.Dispose();
+            throw;
         }
+    }
+
+    /// <summary>
+    /// Gets the specified page of words.
+    /// </summary>
+    /// <param name="filter">The words filter.</param>
+    /// <returns>The results page.</returns>
+    /// <exception cref="ArgumentNullException">filter</exception>
+    public DataPage<Word> GetWords(WordFilter filter)
+    {
+        ArgumentNullException.ThrowIfNull(filter);
+
+        Tuple<string, string> t = new SqlWordQueryBuilder(SqlHelper)
+            .Build(filter);
+        using IDbConnection connection = OpenSearchConnection();
+        return ReadPage(connection, t, filter.PageNumber, filter.PageSize,
+            ReadWord);
+    }
+
+    /// <summary>
+    /// Gets the specified page of words asynchronously.
+    /// </summary>
+    /// <param name="filter">The words filter.</param>
+    /// <param name="cancel">The cancellation token.</param>
+    /// <returns>The results page.</returns>
+    /// <exception cref="ArgumentNullException">filter</exception>
+    /// <exception cref="TimeoutException">search timeout elapsed</exception>
+    public Task<DataPage<Word>> GetWordsAsync(WordFilter filter,
+        CancellationToken cancel = default)
+    {
+        ArgumentNullException.ThrowIfNull(filter);
 
-        return new DataPage<Word>(
-            filter.PageNumber, filter.PageSize, (int)total.Value, words);
+        Tuple<string, string> t = new SqlWordQueryBuilder(SqlHelper)
+            .Build(filter);
+        return RunSearchAsync(async c =>
+        {
+            await using DbConnection connection =
+                await OpenSearchConnectionAsync(c);
+            return await ReadPageAsync(connection, t, filter.PageNumber,
+                filter.PageSize, ReadWord, c);
+        }, cancel);
     }
 
     /// <summary>
@@ -765,45 +1573,35 @@ public abstract class SqlIndexRepository : SqlCorpusRepository,
     {
         ArgumentNullException.ThrowIfNull(filter);
 
-        SqlLemmaQueryBuilder builder = new(SqlHelper);
-        Tuple<string, string> t = builder.Build(filter);
-
-        using IDbConnection connection = GetConnection();
-        connection.Open();
-        ConfigureConnectionForSearch(connection);
+        Tuple<string, string> t = new SqlLemmaQueryBuilder(SqlHelper)
+            .Build(filter);
+        using IDbConnection connection = OpenSearchConnection();
+        return ReadPage(connection, t, filter.PageNumber, filter.PageSize,
+            ReadLemma);
+    }
 
-        // get count
-        IDbCommand cmd = connection.CreateCommand();
-        cmd.CommandText = t.Item2;
-        cmd.CommandTimeout = 0;
-        long? total = cmd.ExecuteScalar() as long?;
-        if (total == null || total.Value == 0)
-        {
-            return new DataPage<Lemma>(
-                filter.PageNumber, filter.PageSize, 0, []);
-        }
+    /// <summary>
+    /// Gets the specified page of lemmata asynchronously.
+    /// </summary>
+    /// <param name="filter">The lemmata filter.</param>
+    /// <param name="cancel">The cancellation token.</param>
+    /// <returns>The results page.</returns>
+    /// <exception cref="ArgumentNullException">filter</exception>
+    /// <exception cref="TimeoutException">search timeout elapsed</exception>
+    public Task<DataPage<Lemma>> GetLemmataAsync(LemmaFilter filter,
+        CancellationToken cancel = default)
+    {
+        ArgumentNullException.ThrowIfNull(filter);
 
-        // get data
-        List<Lemma> lemmata = [];
-        cmd = connection.CreateCommand();
-        cmd.CommandText = t.Item1;
-        cmd.CommandTimeout = 0;
-        using IDataReader reader = cmd.ExecuteReader();
-        while (reader.Read())
+        Tuple<string, string> t = new SqlLemmaQueryBuilder(SqlHelper)
+            .Build(filter);
+        return RunSearchAsync(async c =>
         {
-            lemmata.Add(new Lemma
-            {
-                Id = reader.GetInt32(0),
-                Value = reader.GetString(1),
-                ReversedValue = reader.GetString(2),
-                Pos = reader.IsDBNull(3) ? null : reader.GetString(3),
-                Language = reader.IsDBNull(4) ? null : reader.GetString(4),
-                Count = reader.GetInt32(5)
-            });
-        }
-
-        return new DataPage<Lemma>(
-            filter.PageNumber, filter.PageSize, (int)total.Value, lemmata);
+            await using DbConnection connection =
+                await OpenSearchConnectionAsync(c);
+            return await ReadPageAsync(connection, t, filter.PageNumber,
+                filter.PageSize, ReadLemma, c);
+        }, cancel);
     }
 
     /// <summary>
@@ -841,57 +1639,118 @@ public abstract class SqlIndexRepository : SqlCorpusRepository,
         return counts;
     }
 
-    /// <summary>
-    /// Gets statistics about the index.
-    /// </summary>
-    /// <returns>Dictionary with statistics.</returns>
-    public IDictionary<string, double> GetStatistics()
-    {
-        using IDbConnection connection = GetConnection();
-        connection.Open();
-
-        Dictionary<string, double> stats = [];
-
-        // attributes
-        CollectAttributesStats(connection, "document_attribute", stats);
-        CollectAttributesStats(connection, "span_attribute", stats);
-
+    // the statistics got by counting the rows of a table, with the table
+    // and the optional tail of the count query
+    private static readonly (string Key, string Table, string? Tail)[]
+        _tableCounts =
+    [
         // corpus
-        stats["corpus_count"] = GetCount(connection, "corpus");
+        ("corpus_count", "corpus", null),
         // documents
-        stats["document_count"] = GetCount(connection, "document");
-        stats["document_attribute_count"] =
-            GetCount(connection, "document_attribute");
+        ("document_count", "document", null),
+        ("document_attribute_count", "document_attribute", null),
         // profiles
-        stats["profile_count"] = GetCount(connection, "profile");
+        ("profile_count", "profile", null),
         // spans
-        stats["span_count"] = GetCount(connection, "span");
-        stats["span_attribute_count"] = GetCount(connection, "span_attribute");
-        stats["span_tok_attribute_count"] =
-            GetCount(connection, "span_attribute", "INNER JOIN span " +
-            "ON span_attribute.span_id=span.id WHERE span.type='tok';");
-
+        ("span_count", "span", null),
+        ("span_attribute_count", "span_attribute", null),
+        ("span_tok_attribute_count", "span_attribute",
+            "INNER JOIN span " +
+            "ON span_attribute.span_id=span.id WHERE span.type='tok';"),
         // words
-        stats["word_count"] = GetCount(connection, "word");
+        ("word_count", "word", null),
         // lemmata
-        stats["lemma_count"] = GetCount(connection, "lemma");
+        ("lemma_count", "lemma", null),
+    ];
+
+    private const string SPAN_TYPE_COUNTS_SQL =
+        "SELECT type, COUNT(id) FROM span " +
+        "GROUP BY span.type " +
+        "ORDER BY span.type;";
 
+    /// <summary>
+    /// Completes the specified statistics with the span counts grouped by
+    /// type and the calculated values.
+    /// </summary>
+    /// <param name="stats">The statistics.</param>
+    /// <param name="typeCounts">The span counts keyed by type.</param>
+    private static void CompleteStatistics(Dictionary<string, double> stats,
+        Dictionary<string, int> typeCounts)
+    {
         // add span grouped counts from query
-        Dictionary<string, int> counts = GetCounts(connection,
-            "SELECT type, COUNT(id) FROM span " +
-            "GROUP BY span.type " +
-            "ORDER BY span.type;");
-        foreach (KeyValuePair<string, int> pair in counts)
+        foreach (KeyValuePair<string, int> pair in typeCounts)
             stats["span." + pair.Key] = pair.Value;
 
         // calculated values
         AddRatio("document_attribute_count", "document_count", stats);
         AddRatio("span_attribute_count", "span_count", stats);
         AddRatio("span_tok_attribute_count", "span_tok_count", stats);
+    }
+
+    private static IDictionary<string, double> ReadStatistics(
+        IDbConnection connection)
+    {
+        Dictionary<string, double> stats = [];
+
+        // attributes
+        CollectAttributesStats(connection, "document_attribute", stats);
+        CollectAttributesStats(connection, "span_attribute", stats);
+
+        // table counts
+        foreach ((string key, string table, string? tail) in _tableCounts)
+            stats[key] = GetCount(connection, table, tail);
+
+        CompleteStatistics(stats, GetCounts(connection, SPAN_TYPE_COUNTS_SQL));
+        return stats;
+    }
+
+    private static async Task<IDictionary<string, double>>
+        ReadStatisticsAsync(DbConnection connection, CancellationToken cancel)
+    {
+        Dictionary<string, double> stats = [];
 
+        // attributes
+        await CollectAttributesStatsAsync(connection, "document_attribute",
+            stats, cancel);
+        await CollectAttributesStatsAsync(connection, "span_attribute",
+            stats, cancel);
+
+        // table counts
+        foreach ((string key, string table, string? tail) in _tableCounts)
+            stats[key] = await GetCountAsync(connection, table, cancel, tail);
+
+        CompleteStatistics(stats, await GetCountsAsync(connection,
+            SPAN_TYPE_COUNTS_SQL, cancel));
         return stats;
     }
 
+    /// <summary>
+    /// Gets statistics about the index.
+    /// </summary>
+    /// <returns>Dictionary with statistics.</returns>
+    public IDictionary<string, double> GetStatistics()
+    {
+        using IDbConnection connection = OpenSearchConnection();
+        return ReadStatistics(connection);
+    }
+
+    /// <summary>
+    /// Gets statistics about the index asynchronously.
+    /// </summary>
+    /// <param name="cancel">The cancellation token.</param>
+    /// <returns>Dictionary with statistics.</returns>
+    /// <exception cref="TimeoutException">search timeout elapsed</exception>
+    public Task<IDictionary<string, double>> GetStatisticsAsync(
+        CancellationToken cancel = default)
+    {
+        return RunSearchAsync(async c =>
+        {
+            await using DbConnection connection =
+                await OpenSearchConnectionAsync(c);
+            return await ReadStatisticsAsync(connection, c);
+        }, cancel);
+    }
+
     private static string BuildKwicSql(IList<SearchResult> results,
         int contextSize)
     {
@@ -956,1182 +1815,3580 @@ public abstract class SqlIndexRepository : SqlCorpusRepository,
         };
     }
 
-    /// <summary>
-    /// Gets the context for the specified result(s).
-    /// </summary>
-    /// <param name="results">The results to get context for.</param>
-    /// <param name="contextSize">Size of the context: e.g. if 5, you will
-    /// get 5 tokens to the left and 5 to the right.</param>
-    /// <returns>results with context</returns>
-    /// <exception cref="ArgumentNullException">null results</exception>
-    /// <exception cref="ArgumentOutOfRangeException">context size
-    /// out of range (1-10)</exception>
-    public IList<KwicSearchResult> GetResultContext(
-        IList<SearchResult> results, int contextSize)
+    private static KwicPart ReadKwicPart(IDataRecord record)
     {
-        ArgumentNullException.ThrowIfNull(results);
-        if (contextSize < 1 || contextSize > 10)
-            throw new ArgumentOutOfRangeException(nameof(contextSize));
+        return new KwicPart
+        {
+            DocumentId = record.GetInt32(0),
+            Position = record.GetInt32(1),
+            Value = record.GetString(2),
+            Text = record.GetString(3),
+            Id = record.GetInt32(4)
+        };
+    }
 
-        // nothing to do if no results
-        if (results.Count == 0) return [];
+    private static List<KwicPart> ReadKwicParts(IDbCommand cmd)
+    {
+        List<KwicPart> parts = [];
+        using IDataReader reader = cmd.ExecuteReader();
+        while (reader.Read()) parts.Add(ReadKwicPart(reader));
+        return parts;
+    }
 
-        // collect all the KWIC parts
-        using IDbConnection connection = GetConnection();
-        connection.Open();
-        ConfigureConnectionForSearch(connection);
-        string sql = BuildKwicSql(results, contextSize);
+    private static async Task<List<KwicPart>> ReadKwicPartsAsync(
+        DbCommand cmd, CancellationToken cancel)
+    {
+        List<KwicPart> parts = [];
+        await using DbDataReader reader = await cmd.ExecuteReaderAsync(cancel);
+        while (await reader.ReadAsync(cancel)) parts.Add(ReadKwicPart(reader));
+        return parts;
+    }
 
+    /// <summary>
+    /// Creates the command getting the tokens in the KWIC window of each of
+    /// the specified results with a single query. Its columns are document
+    /// ID, position, value, text and the ID of the result each token belongs
+    /// to, and rows are ordered by result ID and position. The default
+    /// implementation uses a union of a query for each result; implementations
+    /// should override it with a set-based query when the database supports
+    /// it.
+    /// </summary>
+    /// <param name="connection">The open connection.</param>
+    /// <param name="results">The results.</param>
+    /// <param name="contextSize">Size of the context.</param>
+    /// <returns>Command.</returns>
+    protected virtual IDbCommand CreateKwicCommand(IDbConnection connection,
+        IList<SearchResult> results, int contextSize)
+    {
         IDbCommand cmd = connection.CreateCommand();
-        cmd.CommandText = sql;
+        cmd.CommandText = BuildKwicSql(results, contextSize);
         cmd.CommandTimeout = 0;
+        return cmd;
+    }
 
-        List<KwicPart> parts = [];
-        using IDataReader reader = cmd.ExecuteReader();
-        while (reader.Read())
+    /// <summary>
+    /// Gets the tokens in the KWIC window of the specified result from
+    /// <see cref="KwicTokenCache"/>.
+    /// </summary>
+    /// <param name="result">The result.</param>
+    /// <param name="contextSize">Size of the context.</param>
+    /// <returns>Parts, or null if any of the tokens in the window is not
+    /// in the cache.</returns>
+    private List<KwicPart>? GetCachedKwicParts(SearchResult result,
+        int contextSize)
+    {
+        int min = Math.Max(1, result.P1 - contextSize);
+        int max = result.P2 + contextSize;
+        IList<TextSpan> spans = KwicTokenCache!.GetSpans(result.DocumentId,
+            min, max);
+        List<KwicPart> parts = new(spans.Count);
+
+        int p = min;
+        foreach (TextSpan span in spans)
         {
+            if (span.P1 != p) break;
             parts.Add(new KwicPart
             {
-                DocumentId = reader.GetInt32(0),
-                Position = reader.GetInt32(1),
-                Value = reader.GetString(2),
-                Text = reader.GetString(3),
-                Id = reader.GetInt32(4)
+                DocumentId = result.DocumentId,
+                Id = result.Id,
+                Position = p,
+                Value = span.Value,
+                Text = span.Text.Length > 0 ? span.Text : span.Value
             });
+            p++;
         }
 
-        // build KWIC
-        List<KwicSearchResult> searchResults = [];
-        int id = parts[0].Id, i = 1, start = 0;
+        // positions are contiguous from 1, so a missing token after the
+        // result can just be past the document's end
+        return p > result.P2 ? parts : null;
+    }
+
+    private static void ValidateResultContextArgs(IList<SearchResult> results,
+        int contextSize)
+    {
+        ArgumentNullException.ThrowIfNull(results);
+        if (contextSize < 1 || contextSize > 10)
+            throw new ArgumentOutOfRangeException(nameof(contextSize));
+    }
+
+    /// <summary>
+    /// Gets the KWIC parts of the specified results from the token cache,
+    /// if any, grouped by result ID.
+    /// </summary>
+    /// <param name="results">The results.</param>
+    /// <param name="contextSize">Size of the context.</param>
+    /// <param name="missing">The results whose parts were not found in the
+    /// cache, and must be got from the database.</param>
+    /// <returns>Parts grouped by result ID.</returns>
+    private Dictionary<int, List<KwicPart>> GetCachedResultParts(
+        IList<SearchResult> results, int contextSize,
+        out IList<SearchResult> missing)
+    {
+        Dictionary<int, List<KwicPart>> resultParts = new(results.Count);
+        missing = results;
+        if (KwicTokenCache == null) return resultParts;
+
+        missing = [];
+        foreach (SearchResult result in results)
+        {
+            List<KwicPart>? cached = GetCachedKwicParts(result, contextSize);
+            if (cached != null) resultParts[result.Id] = cached;
+            else missing.Add(result);
+        }
+        return resultParts;
+    }
 
-        while (i < parts.Count)
+    private static void AddResultParts(
+        Dictionary<int, List<KwicPart>> resultParts, IEnumerable<KwicPart> parts)
+    {
+        foreach (KwicPart part in parts)
         {
-            if (id != parts[i].Id)
+            if (!resultParts.TryGetValue(part.Id, out List<KwicPart>? list))
             {
-                KwicSearchResult result = CreateKwicSearchResult(
-                    results.First(r => r.Id == id),
-                    [.. parts.Skip(start).Take(i - start)],
-                    contextSize);
-                searchResults.Add(result);
-                start = i;
-                id = parts[i].Id;
+                list = [];
+                resultParts[part.Id] = list;
             }
-            i++;
+            list.Add(part);
         }
+    }
 
-        if (start < i)
+    private static List<KwicSearchResult> BuildKwicResults(
+        IList<SearchResult> results,
+        Dictionary<int, List<KwicPart>> resultParts, int contextSize)
+    {
+        List<KwicSearchResult> searchResults = new(results.Count);
+        foreach (SearchResult result in results)
         {
-            KwicSearchResult result = CreateKwicSearchResult(
-                results.First(r => r.Id == id),
-                [.. parts.Skip(start).Take(i - start)],
-                contextSize);
-            searchResults.Add(result);
+            if (resultParts.TryGetValue(result.Id, out List<KwicPart>? parts))
+                searchResults.Add(CreateKwicSearchResult(result, parts, contextSize));
         }
-
         return searchResults;
     }
 
     /// <summary>
-    /// Searches the index using the specified query.
+    /// Gets the context for the specified result(s). All the contexts are
+    /// got with a single query, unless they can be got from
+    /// <see cref="KwicTokenCache"/>.
     /// </summary>
-    /// <param name="request">The query request.</param>
-    /// <returns>results page</returns>
-    /// <param name="literalFilters">The optional filters to apply to literal
-    /// values in the query text.</param>
-    /// <exception cref="ArgumentNullException">request</exception>
-    /// <exception cref="ArgumentOutOfRangeException">page number
-    /// or size out of allowed ranges</exception>
-    public DataPage<SearchResult> Search(SearchRequest request,
-        IList<ILiteralFilter>? literalFilters = null)
+    /// <param name="results">The results to get context for.</param>
+    /// <param name="contextSize">Size of the context: e.g. if 5, you will
+    /// get 5 tokens to the left and 5 to the right.</param>
+    /// <returns>results with context, in the same order of
+    /// <paramref name="results"/></returns>
+    /// <exception cref="ArgumentNullException">null results</exception>
+    /// <exception cref="ArgumentOutOfRangeException">context size
+    /// out of range (1-10)</exception>
+    public IList<KwicSearchResult> GetResultContext(
+        IList<SearchResult> results, int contextSize)
     {
-        ArgumentNullException.ThrowIfNull(request);
-        if (request.PageNumber < 1)
-            throw new ArgumentOutOfRangeException(nameof(request));
-        if (request.PageSize < 1 || request.PageSize > 100)
-            throw new ArgumentOutOfRangeException(nameof(request));
-
-        SqlQueryBuilder builder = new(SqlHelper)
-        {
-            LiteralFilters = literalFilters
-        };
-        Tuple<string, string> t = builder.Build(request);
-        if (t == null)
-        {
-            return new DataPage<SearchResult>(
-                request.PageNumber, request.PageSize, 0, []);
-        }
+        ValidateResultContextArgs(results, contextSize);
 
-        using IDbConnection connection = GetConnection();
-        connection.Open();
-        ConfigureConnectionForSearch(connection);
+        // nothing to do if no results
+        if (results.Count == 0) return [];
 
-        // total
-        IDbCommand totCmd = connection.CreateCommand();
-        totCmd.CommandText = t.Item2;
-        totCmd.CommandTimeout = 0;
-        long? total = totCmd.ExecuteScalar() as long?;
-        if (total == null || total.Value < 1)
-        {
-            return new DataPage<SearchResult>(
-                request.PageNumber, request.PageSize, 0, []);
-        }
+        // collect all the KWIC parts grouped by result ID, first from
+        // the token cache if any, then from the database
+        Dictionary<int, List<KwicPart>> resultParts = GetCachedResultParts(
+            results, contextSize, out IList<SearchResult> missing);
 
-        // results
-        List<SearchResult> results = [];
-        IDbCommand dataCmd = connection.CreateCommand();
-        dataCmd.CommandText = t.Item1;
-        dataCmd.CommandTimeout = 0;
-        using IDataReader reader = dataCmd.ExecuteReader();
-        while (reader.Read())
+        if (missing.Count > 0)
         {
-            int documentId = reader.GetInt32(reader.GetOrdinal("document_id"));
+            using IDbConnection connection = GetConnection();
+            connection.Open();
+            ConfigureConnectionForSearch(connection);
 
-            results.Add(new SearchResult
-            {
-                Id = reader.GetInt32(reader.GetOrdinal("id")),
-                DocumentId = documentId,
-                P1 = reader.GetInt32(reader.GetOrdinal("p1")),
-                P2 = reader.GetInt32(reader.GetOrdinal("p2")),
-                Index = reader.GetInt32(reader.GetOrdinal("index")),
-                Length = reader.GetInt16(reader.GetOrdinal("length")),
-                Type = reader.GetString(reader.GetOrdinal("type")),
-                Value = reader.GetString(reader.GetOrdinal("value")),
-                // Text = reader.GetString(reader.GetOrdinal("text")),
-                Author = reader.GetString(reader.GetOrdinal("author")),
-                Title = reader.GetString(reader.GetOrdinal("title")),
-                SortKey = reader.GetString(reader.GetOrdinal("sort_key"))
-            });
+            using IDbCommand cmd = CreateKwicCommand(connection, missing,
+                contextSize);
+            AddResultParts(resultParts, ReadKwicParts(cmd));
         }
 
-        return new DataPage<SearchResult>(
-            request.PageNumber, request.PageSize, (int)total.Value, results);
+        return BuildKwicResults(results, resultParts, contextSize);
     }
 
-    #region Word Index Management
     /// <summary>
-    /// Clears the word index, removing all words and lemmata and their counts.
+    /// Gets the context for the specified result(s) asynchronously.
+    /// All the contexts are got with a single query, unless they can be
+    /// got from <see cref="KwicTokenCache"/>.
     /// </summary>
-    /// <param name="connection">connection</param>
-    private static void ClearWordIndex(IDbConnection connection)
+    /// <param name="results">The results to get context for.</param>
+    /// <param name="contextSize">Size of the context: e.g. if 5, you will
+    /// get 5 tokens to the left and 5 to the right.</param>
+    /// <param name="cancel">The cancellation token.</param>
+    /// <returns>results with context, in the same order of
+    /// <paramref name="results"/></returns>
+    /// <exception cref="ArgumentNullException">null results</exception>
+    /// <exception cref="ArgumentOutOfRangeException">context size
+    /// out of range (1-10)</exception>
+    /// <exception cref="TimeoutException">search timeout elapsed</exception>
+    public Task<IList<KwicSearchResult>> GetResultContextAsync(
+        IList<SearchResult> results, int contextSize,
+        CancellationToken cancel = default)
     {
-        using IDbTransaction trans = connection.BeginTransaction();
-        IDbCommand cmd = connection.CreateCommand();
-        cmd.Transaction = trans;
+        ValidateResultContextArgs(results, contextSize);
 
-        try
+        return RunSearchAsync<IList<KwicSearchResult>>(async c =>
         {
-            // remove foreign key constraints from span table
-            cmd.CommandText = "ALTER TABLE span DROP CONSTRAINT span_word_fk;";
-            cmd.ExecuteNonQuery();
+            if (results.Count == 0) return [];
 
-            cmd.CommandText = "ALTER TABLE span DROP CONSTRAINT span_lemma_fk;";
-            cmd.ExecuteNonQuery();
+            Dictionary<int, List<KwicPart>> resultParts = GetCachedResultParts(
+                results, contextSize, out IList<SearchResult> missing);
 
-            // set word_id and lemma_id to NULL in span table
-            cmd.CommandText = "UPDATE span SET word_id = NULL, lemma_id = NULL;";
-            cmd.ExecuteNonQuery();
+            if (missing.Count > 0)
+            {
+                await using DbConnection connection =
+                    await OpenSearchConnectionAsync(c);
 
-            // truncate the tables
-            cmd.CommandText = "TRUNCATE TABLE word_count, lemma_count, " +
-                "word, lemma RESTART IDENTITY;";
-            cmd.ExecuteNonQuery();
+                await using DbCommand cmd = (DbCommand)CreateKwicCommand(
+                    connection, missing, contextSize);
+                AddResultParts(resultParts, await ReadKwicPartsAsync(cmd, c));
+            }
 
-            // add back the foreign key constraints to span table
-            cmd.CommandText = """
-            ALTER TABLE span ADD CONSTRAINT span_word_fk 
-                FOREIGN KEY (word_id) REFERENCES word(id) ON DELETE SET NULL 
-                ON UPDATE CASCADE;
-            ALTER TABLE span ADD CONSTRAINT span_lemma_fk 
-                FOREIGN KEY (lemma_id) REFERENCES lemma(id) ON DELETE SET NULL 
-                ON UPDATE CASCADE;
-            """;
-            cmd.ExecuteNonQuery();
+            return BuildKwicResults(results, resultParts, contextSize);
+        }, cancel);
+    }
 
-            trans.Commit();
-        }
-        catch (Exception ex)
-        {
-            Debug.WriteLine(ex.ToString());
-            trans.Rollback();
-            throw;
-        }
+    private static void ValidateSearchRequest(SearchRequest request)
+    {
+        ArgumentNullException.ThrowIfNull(request);
+        if (request.PageNumber < 1)
+            throw new ArgumentOutOfRangeException(nameof(request));
+        if (request.PageSize < 1 || request.PageSize > 100)
+            throw new ArgumentOutOfRangeException(nameof(request));
     }
 
     /// <summary>
-    /// Insert a set of words.
+    /// Creates a query builder. When <see cref="IsQueryPlanningEnabled"/>,
+    /// the builder plans queries by running estimates on the specified
+    /// search connection.
     /// </summary>
-    /// <param name="connection">The connection.</param>
-    /// <param name="words">The words to insert.</param>
-    protected virtual async Task BatchInsertWords(IDbConnection connection,
-        List<Word> words)
+    /// <param name="literalFilters">The optional literal filters.</param>
+    /// <param name="connection">The open search connection.</param>
+    /// <param name="cancel">The cancellation token.</param>
+    /// <returns>Builder.</returns>
+    private SqlQueryBuilder CreateQueryBuilder(
+        IList<ILiteralFilter>? literalFilters, IDbConnection connection,
+        CancellationToken cancel)
     {
-        await using DbCommand cmd = (DbCommand)connection.CreateCommand();
-        cmd.CommandText =
-            "INSERT INTO word(language, value, reversed_value, pos, lemma, count)\n" +
-            "VALUES(@language, @value, @reversed_value, @pos, @lemma, @count);";
-        AddParameter(cmd, "@language", DbType.String, "");
-        AddParameter(cmd, "@value", DbType.String, "");
-        AddParameter(cmd, "@reversed_value", DbType.String, "");
-        AddParameter(cmd, "@pos", DbType.String, "");
-        AddParameter(cmd, "@lemma", DbType.String, "");
-        AddParameter(cmd, "@count", DbType.Int32, 0);
-
-        foreach (Word word in words)
+        return new SqlQueryBuilder(SqlHelper)
         {
-            cmd.Parameters["@language"].Value =
-                GetTruncatedString(word.Language, LANGUAGE_MAX)
-                ?? (object)DBNull.Value;
-            cmd.Parameters["@value"].Value =
-                GetTruncatedString(word.Value, VALUE_MAX);
-            cmd.Parameters["@reversed_value"].Value =
-                GetTruncatedString(word.ReversedValue, VALUE_MAX);
-            cmd.Parameters["@pos"].Value =
-                GetTruncatedString(word.Pos, POS_MAX)
-                ?? (object)DBNull.Value;
-            cmd.Parameters["@lemma"].Value =
-                GetTruncatedString(word.Lemma, LEMMA_MAX)
-                ?? (object)DBNull.Value;
-            cmd.Parameters["@count"].Value = word.Count;
-            await cmd.ExecuteNonQueryAsync();
-        }
+            LiteralFilters = literalFilters,
+            Cache = QueryCache,
+            Estimator = IsQueryPlanningEnabled
+                ? new PairEstimator(this, connection, cancel)
+                : null,
+            DatabaseId = IsQueryPlanningEnabled ? GetDatabaseId() : null,
+            UseLocationFunctions = UseLocationFunctions
+        };
     }
 
     /// <summary>
-    /// Build the SQL query to fetch words from the database by grouping
-    /// spans by language, value, POS and lemma, possibly excluding the
-    /// specified POS values and span attribute names.
+    /// Gets the identity of the database of this repository, used to keep
+    /// apart the planned templates of different databases in a shared
+    /// query cache.
     /// </summary>
-    /// <param name="language">The language (null matches NULL).</param>
-    /// <param name="excludedAttrNames">The span attribute names which when
-    /// present exclude it from results.</param>
-    /// <param name="excludedPosValues">The POS values which when assigned to
-    /// a span exclude it from results.</param>
-    /// <param name="order">True to add an order by clause.</param>
-    /// <returns>SQL query.</returns>
-    private string BuildWordFetchQuery(string? language,
-        HashSet<string> excludedAttrNames,
-        HashSet<string> excludedPosValues, bool order)
+    /// <returns>The hash of the connection string.</returns>
+    private string GetDatabaseId()
     {
-        // words are fetched from token spans grouped by language, value, pos
-        // and lemma
-        StringBuilder sb = new();
-        sb.Append(
-            "SELECT language, LOWER(value) AS value, pos, LOWER(lemma) as lemma, " +
-            "COUNT(id) as count\n" +
-            "FROM span WHERE type='tok'\n");
-
-        // match language (if null, it must match NULL)
-        if (language != null)
-        {
-            sb.Append("AND COALESCE(language, '') = ")
-                .Append(SqlHelper.SqlEncode(language, false, true))
-                .Append('\n');
-        }
-        else
-        {
-            sb.Append("AND language IS NULL\n");
-        }
+        byte[] hash = System.Security.Cryptography.SHA256.HashData(
+            Encoding.UTF8.GetBytes(ConnectionString ?? ""));
+        return Convert.ToHexString(hash);
+    }
 
-        // if some POS values are excluded, add the condition
-        if (excludedPosValues.Count > 0)
-        {
-            sb.Append("AND pos NOT IN (")
-                .AppendJoin(",", excludedPosValues.Select(
-                    p => SqlHelper.SqlEncode(p, false, true)))
-                .Append(")\n");
-        }
+    private SqlQueryTemplate BuildSearchTemplate(SearchRequest request,
+        IList<ILiteralFilter>? literalFilters, IDbConnection connection,
+        bool keyset = false)
+    {
+        return CreateQueryBuilder(literalFilters, connection,
+            CancellationToken.None).BuildTemplate(request, keyset);
+    }
 
-        // if some span attribute names are excluded, add the condition
-        if (excludedAttrNames.Count > 0)
-        {
-            sb.Append("AND NOT EXISTS\n(\n" +
-                "  SELECT 1 FROM span_attribute sa\n" +
-                "  WHERE sa.id=span.id\n" +
-                "  AND sa.name IN(")
-                .AppendJoin(",",
-                    excludedAttrNames.Select(n => $"'{SqlHelper.SqlEncode(n)}'"))
-                .Append(")\n)\n");
-        }
+    private Task<SqlQueryTemplate> BuildSearchTemplateAsync(
+        SearchRequest request, IList<ILiteralFilter>? literalFilters,
+        DbConnection connection, CancellationToken cancel,
+        bool keyset = false)
+    {
+        return CreateQueryBuilder(literalFilters, connection, cancel)
+            .BuildTemplateAsync(request, keyset, cancel);
+    }
 
-        // group by language, value, pos and lemma
-        sb.Append("GROUP BY language, LOWER(value), pos, LOWER(lemma)\n");
+    /// <summary>
+    /// Explains the SQL query built for the specified search request,
+    /// by showing the plan chosen for its text expression followed by
+    /// the SQL code. Each plan node is followed by its estimated count.
+    /// </summary>
+    /// <param name="request">The query request.</param>
+    /// <param name="literalFilters">The optional filters to apply to literal
+    /// values in the query text.</param>
+    /// <returns>Explanation.</returns>
+    /// <exception cref="ArgumentNullException">request</exception>
+    public string ExplainSearch(SearchRequest request,
+        IList<ILiteralFilter>? literalFilters = null)
+    {
+        ArgumentNullException.ThrowIfNull(request);
 
-        // if the order is requested, add it
-        if (order)
-            sb.Append("ORDER BY language, LOWER(value), pos, LOWER(lemma)\n");
+        using IDbConnection connection = GetConnection();
+        connection.Open();
+        return CreateQueryBuilder(literalFilters, connection,
+            CancellationToken.None).Explain(request);
+    }
 
-        return sb.ToString();
+    private static IDbCommand CreateSearchDataCommand(IDbConnection connection,
+        SqlQueryTemplate t, int offset, int limit)
+    {
+        IDbCommand cmd = connection.CreateCommand();
+        cmd.CommandText = t.DataSql;
+        cmd.CommandTimeout = 0;
+        AddParameter(cmd, SqlQueryTemplate.OffsetParameter,
+            DbType.Int32, offset);
+        AddParameter(cmd, SqlQueryTemplate.LimitParameter,
+            DbType.Int32, limit);
+        return cmd;
     }
 
     /// <summary>
-    /// Assign word ID FK to token spans based on the grouping which defines
-    /// a word (language, value, POS and lemma), possibly excluding those spans
+    /// Creates the page of search results, adjusting its estimated or
+    /// deferred total when possible.
+    /// </summary>
+    private SearchDataPage<SearchResult> CreateSearchPage(
+        SearchRequest request, SqlQueryTemplate t, int offset, int total,
+        bool approximate, bool deferred, List<SearchResult> results)
+    {
+        // an estimated or deferred total is exact when the page is not full,
+        // and can never be less than the results got up to this page
+        if (approximate || deferred)
+        {
+            int seen = offset + results.Count;
+            if (results.Count < request.PageSize
+                && (results.Count > 0 || offset == 0))
+            {
+                total = seen;
+                approximate = deferred = false;
+                CountCache?.Set(GetCountCacheKey(t.CountSql), total);
+            }
+            else if (deferred || total < seen)
+            {
+                total = seen;
+            }
+        }
+
+        return new SearchDataPage<SearchResult>(
+            request.PageNumber, request.PageSize, total, results)
+        {
+            IsTotalApproximate = approximate,
+            IsTotalDeferred = deferred
+        };
+    }
+
+    /// <summary>
+    /// Searches the index using the specified query.
+    /// </summary>
+    /// <param name="request">The query request.</param>
+    /// <returns>results page</returns>
+    /// <param name="literalFilters">The optional filters to apply to literal
+    /// values in the query text.</param>
+    /// <exception cref="ArgumentNullException">request</exception>
+    /// <exception cref="ArgumentOutOfRangeException">page number
+    /// or size out of allowed ranges</exception>
+    public SearchDataPage<SearchResult> Search(SearchRequest request,
+        IList<ILiteralFilter>? literalFilters = null)
+    {
+        ValidateSearchRequest(request);
+
+        using IDbConnection connection = OpenSearchConnection();
+        SqlQueryTemplate t = BuildSearchTemplate(request, literalFilters,
+            connection);
+
+        // total
+        int offset = SqlQueryTemplate.GetOffset(request.PageNumber,
+            request.PageSize);
+        int total = 0;
+        bool approximate = false, deferred = false;
+
+        switch (request.CountStrategy)
+        {
+            case SearchCountStrategy.Deferred:
+                deferred = !TryGetCachedCount(t.CountSql, out total);
+                break;
+            case SearchCountStrategy.Estimated:
+                if (TryGetCachedCount(t.CountSql, out total)) break;
+                int? estimate = EstimateSearchCount(connection, t.CountSql);
+                if (estimate != null)
+                {
+                    total = estimate.Value;
+                    approximate = true;
+                }
+                else
+                {
+                    total = CountSearchResults(connection, t.CountSql);
+                }
+                break;
+            default:
+                total = CountSearchResults(connection, t.CountSql);
+                break;
+        }
+
+        if (total < 1 && !approximate && !deferred)
+        {
+            return new SearchDataPage<SearchResult>(
+                request.PageNumber, request.PageSize, 0, []);
+        }
+
+        // results
+        using IDbCommand dataCmd = CreateSearchDataCommand(connection, t,
+            offset, request.PageSize);
+        List<SearchResult> results = ReadSearchResults(dataCmd);
+
+        return CreateSearchPage(request, t, offset, total, approximate,
+            deferred, results);
+    }
+
+    /// <summary>
+    /// Searches the index using the specified query asynchronously.
+    /// When <paramref name="cancel"/> is cancelled or
+    /// <see cref="SearchTimeout"/> elapses, the query being executed is
+    /// cancelled on the database server.
+    /// </summary>
+    /// <param name="request">The query request.</param>
+    /// <param name="literalFilters">The optional filters to apply to literal
+    /// values in the query text.</param>
+    /// <param name="cancel">The cancellation token.</param>
+    /// <returns>results page</returns>
+    /// <exception cref="ArgumentNullException">request</exception>
+    /// <exception cref="ArgumentOutOfRangeException">page number
+    /// or size out of allowed ranges</exception>
+    /// <exception cref="TimeoutException">search timeout elapsed</exception>
+    public Task<SearchDataPage<SearchResult>> SearchAsync(
+        SearchRequest request,
+        IList<ILiteralFilter>? literalFilters = null,
+        CancellationToken cancel = default)
+    {
+        ValidateSearchRequest(request);
+
+        return RunSearchAsync(async c =>
+        {
+            await using DbConnection connection =
+                await OpenSearchConnectionAsync(c);
+            SqlQueryTemplate t = await BuildSearchTemplateAsync(request,
+                literalFilters, connection, c);
+
+            // total
+            int offset = SqlQueryTemplate.GetOffset(request.PageNumber,
+                request.PageSize);
+            int total = 0;
+            bool approximate = false, deferred = false;
+
+            switch (request.CountStrategy)
+            {
+                case SearchCountStrategy.Deferred:
+                    deferred = !TryGetCachedCount(t.CountSql, out total);
+                    break;
+                case SearchCountStrategy.Estimated:
+                    if (TryGetCachedCount(t.CountSql, out total)) break;
+                    int? estimate = await EstimateSearchCountAsync(connection,
+                        t.CountSql, c);
+                    if (estimate != null)
+                    {
+                        total = estimate.Value;
+                        approximate = true;
+                    }
+                    else
+                    {
+                        total = await CountSearchResultsAsync(connection,
+                            t.CountSql, c);
+                    }
+                    break;
+                default:
+                    total = await CountSearchResultsAsync(connection,
+                        t.CountSql, c);
+                    break;
+            }
+
+            if (total < 1 && !approximate && !deferred)
+            {
+                return new SearchDataPage<SearchResult>(
+                    request.PageNumber, request.PageSize, 0, []);
+            }
+
+            // results
+            await using DbCommand dataCmd = (DbCommand)CreateSearchDataCommand(
+                connection, t, offset, request.PageSize);
+            List<SearchResult> results = await ReadSearchResultsAsync(dataCmd,
+                c);
+
+            return CreateSearchPage(request, t, offset, total, approximate,
+                deferred, results);
+        }, cancel);
+    }
+
+    private string GetCountCacheKey(string countSql) =>
+        ConnectionString + "\n" + countSql;
+
+    private bool TryGetCachedCount(string countSql, out int count)
+    {
+        count = 0;
+        return CountCache?.TryGet(GetCountCacheKey(countSql), out count)
+            == true;
+    }
+
+    /// <summary>
+    /// Clears the cached search counts, as the index was changed.
+    /// </summary>
+    private void InvalidateSearchCounts() => CountCache?.Clear();
+
+    /// <summary>
+    /// Counts the results of the specified count query, getting the count
+    /// from <see cref="CountCache"/> when available, and storing it there
+    /// otherwise.
+    /// </summary>
+    /// <param name="connection">The open connection.</param>
+    /// <param name="countSql">The count query.</param>
+    /// <returns>Count.</returns>
+    private int CountSearchResults(IDbConnection connection, string countSql)
+    {
+        if (TryGetCachedCount(countSql, out int count)) return count;
+
+        count = (int)(ExecuteScalar(connection, countSql) as long? ?? 0);
+
+        CountCache?.Set(GetCountCacheKey(countSql), count);
+        return count;
+    }
+
+    private async Task<int> CountSearchResultsAsync(DbConnection connection,
+        string countSql, CancellationToken cancel)
+    {
+        if (TryGetCachedCount(countSql, out int count)) return count;
+
+        count = (int)(await ExecuteScalarAsync(connection, countSql, cancel)
+            as long? ?? 0);
+
+        CountCache?.Set(GetCountCacheKey(countSql), count);
+        return count;
+    }
+
+    /// <summary>
+    /// Gets the exact total count of results for the specified query.
+    /// This is used to get the count deferred by a search using
+    /// <see cref="SearchCountStrategy.Deferred"/>. Counts are cached
+    /// in <see cref="CountCache"/> when set.
+    /// </summary>
+    /// <param name="request">The query request. Only its query is used.
+    /// </param>
+    /// <param name="literalFilters">The optional filters to apply to literal
+    /// values in the query text.</param>
+    /// <returns>Count.</returns>
+    /// <exception cref="ArgumentNullException">request</exception>
+    public int GetSearchCount(SearchRequest request,
+        IList<ILiteralFilter>? literalFilters = null)
+    {
+        ArgumentNullException.ThrowIfNull(request);
+
+        using IDbConnection connection = OpenSearchConnection();
+        SqlQueryTemplate t = BuildSearchTemplate(request, literalFilters,
+            connection);
+        return CountSearchResults(connection, t.CountSql);
+    }
+
+    /// <summary>
+    /// Gets the exact total count of results for the specified query
+    /// asynchronously. This is used to get the count deferred by a search
+    /// using <see cref="SearchCountStrategy.Deferred"/>. Counts are cached
+    /// in <see cref="CountCache"/> when set. When <paramref name="cancel"/>
+    /// is cancelled or <see cref="SearchTimeout"/> elapses, the count query
+    /// is cancelled on the database server.
+    /// </summary>
+    /// <param name="request">The query request. Only its query is used.
+    /// </param>
+    /// <param name="literalFilters">The optional filters to apply to literal
+    /// values in the query text.</param>
+    /// <param name="cancel">The cancellation token.</param>
+    /// <returns>Count.</returns>
+    /// <exception cref="ArgumentNullException">request</exception>
+    /// <exception cref="TimeoutException">search timeout elapsed</exception>
+    public Task<int> GetSearchCountAsync(SearchRequest request,
+        IList<ILiteralFilter>? literalFilters = null,
+        CancellationToken cancel = default)
+    {
+        ArgumentNullException.ThrowIfNull(request);
+
+        return RunSearchAsync(async c =>
+        {
+            await using DbConnection connection =
+                await OpenSearchConnectionAsync(c);
+            SqlQueryTemplate t = await BuildSearchTemplateAsync(request,
+                literalFilters, connection, c);
+            return await CountSearchResultsAsync(connection, t.CountSql, c);
+        }, cancel);
+    }
+
+    private static SearchResult ReadSearchResult(IDataRecord record)
+    {
+        return new SearchResult
+        {
+            Id = record.GetInt32(record.GetOrdinal("id")),
+            DocumentId = record.GetInt32(record.GetOrdinal("document_id")),
+            P1 = record.GetInt32(record.GetOrdinal("p1")),
+            P2 = record.GetInt32(record.GetOrdinal("p2")),
+            Index = record.GetInt32(record.GetOrdinal("index")),
+            Length = record.GetInt16(record.GetOrdinal("length")),
+            Type = record.GetString(record.GetOrdinal("type")),
+            Value = record.GetString(record.GetOrdinal("value")),
+            // Text = record.GetString(record.GetOrdinal("text")),
+            Author = record.GetString(record.GetOrdinal("author")),
+            Title = record.GetString(record.GetOrdinal("title")),
+            SortKey = record.GetString(record.GetOrdinal("sort_key"))
+        };
+    }
+
+    private static List<SearchResult> ReadSearchResults(IDbCommand cmd)
+    {
+        List<SearchResult> results = [];
+        using IDataReader reader = cmd.ExecuteReader();
+        while (reader.Read()) results.Add(ReadSearchResult(reader));
+        return results;
+    }
+
+    private static async Task<List<SearchResult>> ReadSearchResultsAsync(
+        DbCommand cmd, CancellationToken cancel)
+    {
+        List<SearchResult> results = [];
+        await using DbDataReader reader = await cmd.ExecuteReaderAsync(cancel);
+        while (await reader.ReadAsync(cancel))
+            results.Add(ReadSearchResult(reader));
+        return results;
+    }
+
+    /// <summary>
+    /// Searches the index using the specified query, paging results by
+    /// seeking after the specified continuation token rather than by
+    /// offset. Results are sorted by document's sort key, document ID,
+    /// position and ID, so the request's sort fields and page number
+    /// are ignored. This is much faster than <see cref="Search"/> when
+    /// walking through deep pages, as in exports, because no rows need
+    /// to be skipped.
+    /// </summary>
+    /// <param name="request">The query request. Its page size is the
+    /// count of results to get.</param>
+    /// <param name="continuationToken">The continuation token got from the
+    /// previous page, or null to get the first page.</param>
+    /// <param name="literalFilters">The optional filters to apply to literal
+    /// values in the query text.</param>
+    /// <returns>The results page. Its total is calculated only for the
+    /// first page.</returns>
+    /// <exception cref="ArgumentNullException">request</exception>
+    /// <exception cref="ArgumentOutOfRangeException">page size out of
+    /// allowed range</exception>
+    /// <exception cref="ArgumentException">invalid continuation token
+    /// </exception>
+    public KeysetPage<SearchResult> SearchAfter(SearchRequest request,
+        string? continuationToken,
+        IList<ILiteralFilter>? literalFilters = null)
+    {
+        ValidateSearchAfterRequest(request);
+        SearchContinuation after = SearchContinuation.Decode(continuationToken);
+
+        using IDbConnection connection = OpenSearchConnection();
+        SqlQueryTemplate t = BuildSearchTemplate(request, literalFilters,
+            connection, true);
+        return ReadKeysetPage(connection, t, request, continuationToken,
+            after);
+    }
+
+    /// <summary>
+    /// Searches the index using the specified query asynchronously, paging
+    /// results by seeking after the specified continuation token rather
+    /// than by offset, like <see cref="SearchAfter"/>. When
+    /// <paramref name="cancel"/> is cancelled or <see cref="SearchTimeout"/>
+    /// elapses, the query being executed is cancelled on the database
+    /// server.
+    /// </summary>
+    /// <param name="request">The query request. Its page size is the
+    /// count of results to get.</param>
+    /// <param name="continuationToken">The continuation token got from the
+    /// previous page, or null to get the first page.</param>
+    /// <param name="literalFilters">The optional filters to apply to literal
+    /// values in the query text.</param>
+    /// <param name="cancel">The cancellation token.</param>
+    /// <returns>The results page. Its total is calculated only for the
+    /// first page.</returns>
+    /// <exception cref="ArgumentNullException">request</exception>
+    /// <exception cref="ArgumentOutOfRangeException">page size out of
+    /// allowed range</exception>
+    /// <exception cref="ArgumentException">invalid continuation token
+    /// </exception>
+    /// <exception cref="TimeoutException">search timeout elapsed</exception>
+    public Task<KeysetPage<SearchResult>> SearchAfterAsync(
+        SearchRequest request, string? continuationToken,
+        IList<ILiteralFilter>? literalFilters = null,
+        CancellationToken cancel = default)
+    {
+        ValidateSearchAfterRequest(request);
+        SearchContinuation after = SearchContinuation.Decode(continuationToken);
+
+        return RunSearchAsync(async c =>
+        {
+            await using DbConnection connection =
+                await OpenSearchConnectionAsync(c);
+            SqlQueryTemplate t = await BuildSearchTemplateAsync(request,
+                literalFilters, connection, c, true);
+            return await ReadKeysetPageAsync(connection, t, request,
+                continuationToken, after, c);
+        }, cancel);
+    }
+
+    private static void ValidateSearchAfterRequest(SearchRequest request)
+    {
+        ArgumentNullException.ThrowIfNull(request);
+        if (request.PageSize < 1 || request.PageSize > 1000)
+            throw new ArgumentOutOfRangeException(nameof(request));
+    }
+
+    private static IDbCommand CreateKeysetDataCommand(
+        IDbConnection connection, SqlQueryTemplate t,
+        SearchContinuation after, int limit)
+    {
+        IDbCommand cmd = CreateSearchCommand(connection, t.DataSql);
+        AddParameter(cmd, SqlQueryTemplate.KeySortKeyParameter,
+            DbType.String, after.SortKey);
+        AddParameter(cmd, SqlQueryTemplate.KeyDocumentIdParameter,
+            DbType.Int32, after.DocumentId);
+        AddParameter(cmd, SqlQueryTemplate.KeyP1Parameter,
+            DbType.Int32, after.P1);
+        AddParameter(cmd, SqlQueryTemplate.KeyIdParameter,
+            DbType.Int32, after.Id);
+        AddParameter(cmd, SqlQueryTemplate.LimitParameter, DbType.Int32,
+            limit);
+        return cmd;
+    }
+
+    private static KeysetPage<SearchResult> CreateKeysetPage(
+        SearchRequest request, List<SearchResult> results, int total)
+    {
+        // a full page might be followed by more results
+        string? next = results.Count == request.PageSize
+            ? SearchContinuation.FromResult(results[^1]).Encode()
+            : null;
+
+        return new KeysetPage<SearchResult>(results, next, total);
+    }
+
+    private KeysetPage<SearchResult> ReadKeysetPage(IDbConnection connection,
+        SqlQueryTemplate t, SearchRequest request, string? continuationToken,
+        SearchContinuation after)
+    {
+        // total (first page only)
+        int total = -1;
+        if (string.IsNullOrEmpty(continuationToken))
+        {
+            total = CountSearchResults(connection, t.CountSql);
+            if (total == 0) return new KeysetPage<SearchResult>([], null, 0);
+        }
+
+        // results
+        using IDbCommand dataCmd = CreateKeysetDataCommand(connection, t,
+            after, request.PageSize);
+        return CreateKeysetPage(request, ReadSearchResults(dataCmd), total);
+    }
+
+    private async Task<KeysetPage<SearchResult>> ReadKeysetPageAsync(
+        DbConnection connection, SqlQueryTemplate t, SearchRequest request,
+        string? continuationToken, SearchContinuation after,
+        CancellationToken cancel)
+    {
+        // total (first page only)
+        int total = -1;
+        if (string.IsNullOrEmpty(continuationToken))
+        {
+            total = await CountSearchResultsAsync(connection, t.CountSql,
+                cancel);
+            if (total == 0) return new KeysetPage<SearchResult>([], null, 0);
+        }
+
+        // results
+        await using DbCommand dataCmd = (DbCommand)CreateKeysetDataCommand(
+            connection, t, after, request.PageSize);
+        return CreateKeysetPage(request,
+            await ReadSearchResultsAsync(dataCmd, cancel), total);
+    }
+
+    /// <summary>
+    /// Streams all the results of the specified query, sorted like in
+    /// <see cref="SearchAfter"/>. The keyset query is run once from the
+    /// start key with no limit, and rows are yielded while they are read
+    /// from the data reader, which does not buffer the result set; so,
+    /// unlike walking pages, no count is calculated and no query is
+    /// repeated. The connection is held until the enumeration ends.
+    /// </summary>
+    /// <param name="request">The query request. Only its query is used.
+    /// </param>
+    /// <param name="literalFilters">The optional filters to apply to literal
+    /// values in the query text.</param>
+    /// <param name="cancel">The cancellation token.</param>
+    /// <returns>Results.</returns>
+    /// <exception cref="ArgumentNullException">request</exception>
+    public async IAsyncEnumerable<SearchResult> StreamSearchAsync(
+        SearchRequest request, IList<ILiteralFilter>? literalFilters = null,
+        [EnumeratorCancellation] CancellationToken cancel = default)
+    {
+        ArgumentNullException.ThrowIfNull(request);
+
+        SearchContinuation start = SearchContinuation.Start;
+        await using DbConnection connection =
+            await OpenSearchConnectionAsync(cancel);
+        SqlQueryTemplate t = await BuildSearchTemplateAsync(request,
+            literalFilters, connection, cancel, true);
+        await using DbCommand cmd = (DbCommand)CreateKeysetDataCommand(
+            connection, t, start, int.MaxValue);
+
+        await using DbDataReader reader = await cmd.ExecuteReaderAsync(cancel);
+        while (await reader.ReadAsync(cancel))
+            yield return ReadSearchResult(reader);
+    }
+
+    /// <summary>
+    /// Enumerates all the results of the specified query, sorted by
+    /// document ID, position and ID. Results are streamed from a single
+    /// command, so that they can be consumed by in-process merge joins
+    /// like <see cref="SearchByMergeJoin"/>.
+    /// </summary>
+    /// <param name="query">The query.</param>
+    /// <param name="literalFilters">The optional filters to apply to literal
+    /// values in the query text.</param>
+    /// <returns>Results.</returns>
+    /// <exception cref="ArgumentNullException">query</exception>
+    public IEnumerable<SearchResult> EnumerateByPosition(string query,
+        IList<ILiteralFilter>? literalFilters = null)
+    {
+        ArgumentNullException.ThrowIfNull(query);
+
+        using IDbConnection connection = GetConnection();
+        connection.Open();
+        ConfigureConnectionForSearch(connection);
+        string sql = CreateQueryBuilder(literalFilters, connection,
+            CancellationToken.None).BuildByPosition(
+                new SearchRequest { Query = query });
+
+        using IDbCommand cmd = connection.CreateCommand();
+        cmd.CommandText = sql;
+        cmd.CommandTimeout = 0;
+        using IDataReader reader = cmd.ExecuteReader();
+        while (reader.Read()) yield return ReadSearchResult(reader);
+    }
+
+    /// <summary>
+    /// Searches the index using the specified query, whose text expression
+    /// must be a location expression, evaluating its location operator
+    /// in process rather than in the database. The results of both sides
+    /// of the operator are streamed sorted by document and position
+    /// (see <see cref="EnumerateByPosition"/>), and merge-joined by
+    /// <see cref="LocationMergeJoin"/>.
+    /// </summary>
+    /// <param name="query">The query, like <c>[value="sic"] NEAR(m=3)
+    /// [value="mater"]</c>. Corpus and document sets are not supported.
+    /// </param>
+    /// <param name="literalFilters">The optional filters to apply to literal
+    /// values in the query text.</param>
+    /// <returns>Results from the left side of the operator, sorted by
+    /// document ID, position and ID.</returns>
+    /// <exception cref="ArgumentNullException">query</exception>
+    /// <exception cref="NotSupportedException">query is not a location
+    /// expression</exception>
+    public IEnumerable<SearchResult> SearchByMergeJoin(string query,
+        IList<ILiteralFilter>? literalFilters = null)
+    {
+        ArgumentNullException.ThrowIfNull(query);
+
+        pythiaLexer lexer = new(new AntlrInputStream(query));
+        pythiaParser parser = new(new CommonTokenStream(lexer));
+        parser.RemoveErrorListeners();
+        parser.AddErrorListener(new ThrowingErrorListener());
+        pythiaParser.QueryContext tree = parser.query();
+
+        pythiaParser.TxtExprContext expr = tree.txtExpr();
+        while (expr is pythiaParser.TeParenContext paren)
+            expr = paren.txtExpr();
+
+        if (tree.corSet() != null || tree.docSet() != null ||
+            expr is not pythiaParser.TeLocationContext location)
+        {
+            throw new NotSupportedException(
+                "Not a location expression: " + query);
+        }
+
+        static string GetText(string query, ParserRuleContext context) =>
+            query[context.Start.StartIndex..(context.Stop.StopIndex + 1)];
+
+        PositionalLocop locop = PositionalLocop.Parse(location.locop());
+        return LocationMergeJoin.Join(
+            EnumerateByPosition(GetText(query, location.txtExpr(0)),
+                literalFilters),
+            EnumerateByPosition(GetText(query, location.txtExpr(1)),
+                literalFilters),
+            locop,
+            r => (r.DocumentId, r.P1, r.P2));
+    }
+
+    #region Word Index Management
+    /// <summary>
+    /// Clears the word index, removing all words and lemmata and their counts.
+    /// </summary>
+    /// <param name="connection">connection</param>
+    private static void ClearWordIndex(IDbConnection connection)
+    {
+        using IDbTransaction trans = connection.BeginTransaction();
+        IDbCommand cmd = connection.CreateCommand();
+        cmd.Transaction = trans;
+
+        try
+        {
+            // remove foreign key constraints from span table
+            cmd.CommandText = "ALTER TABLE span DROP CONSTRAINT span_word_fk;";
+            cmd.ExecuteNonQuery();
+
+            cmd.CommandText = "ALTER TABLE span DROP CONSTRAINT span_lemma_fk;";
+            cmd.ExecuteNonQuery();
+
+            // set word_id and lemma_id to NULL in span table
+            cmd.CommandText = "UPDATE span SET word_id = NULL, lemma_id = NULL;";
+            cmd.ExecuteNonQuery();
+
+            // truncate the tables
+            cmd.CommandText = "TRUNCATE TABLE word_count, lemma_count, " +
+                "word, lemma, word_index_checkpoint RESTART IDENTITY;";
+            cmd.ExecuteNonQuery();
+
+            // add back the foreign key constraints to span table
+            cmd.CommandText = """
+            ALTER TABLE span ADD CONSTRAINT span_word_fk 
+                FOREIGN KEY (word_id) REFERENCES word(id) ON DELETE SET NULL 
+                ON UPDATE CASCADE;
+            ALTER TABLE span ADD CONSTRAINT span_lemma_fk 
+                FOREIGN KEY (lemma_id) REFERENCES lemma(id) ON DELETE SET NULL 
+                ON UPDATE CASCADE;
+            """;
+            cmd.ExecuteNonQuery();
+
+            trans.Commit();
+        }
+        catch (Exception ex)
+        {
+            Debug.WriteLine(ex.ToString());
+            trans.Rollback();
+            throw;
+        }
+    }
+
+    /// <summary>
+    /// Insert a set of words.
+    /// </summary>
+    /// <param name="connection">The connection.</param>
+    /// <param name="words">The words to insert.</param>
+    protected virtual async Task BatchInsertWords(IDbConnection connection,
+        List<Word> words)
+    {
+        await using DbCommand cmd = (DbCommand)connection.CreateCommand();
+        cmd.CommandText =
+            "INSERT INTO word(language, value, reversed_value, pos, lemma, count)\n" +
+            "VALUES(@language, @value, @reversed_value, @pos, @lemma, @count);";
+        AddParameter(cmd, "@language", DbType.String, "");
+        AddParameter(cmd, "@value", DbType.String, "");
+        AddParameter(cmd, "@reversed_value", DbType.String, "");
+        AddParameter(cmd, "@pos", DbType.String, "");
+        AddParameter(cmd, "@lemma", DbType.String, "");
+        AddParameter(cmd, "@count", DbType.Int32, 0);
+
+        foreach (Word word in words)
+        {
+            cmd.Parameters["@language"].Value =
+                GetTruncatedString(word.Language, LANGUAGE_MAX)
+                ?? (object)DBNull.Value;
+            cmd.Parameters["@value"].Value =
+                GetTruncatedString(word.Value, VALUE_MAX);
+            cmd.Parameters["@reversed_value"].Value =
+                GetTruncatedString(word.ReversedValue, VALUE_MAX);
+            cmd.Parameters["@pos"].Value =
+                GetTruncatedString(word.Pos, POS_MAX)
+                ?? (object)DBNull.Value;
+            cmd.Parameters["@lemma"].Value =
+                GetTruncatedString(word.Lemma, LEMMA_MAX)
+                ?? (object)DBNull.Value;
+            cmd.Parameters["@count"].Value = word.Count;
+            await cmd.ExecuteNonQueryAsync();
+        }
+    }
+
+    /// <summary>
+    /// Build the SQL query to fetch words from the database by grouping
+    /// spans by language, value, POS and lemma, possibly excluding the
+    /// specified POS values and span attribute names.
+    /// </summary>
+    /// <param name="language">The language (null matches NULL).</param>
+    /// <param name="excludedAttrNames">The span attribute names which when
+    /// present exclude it from results.</param>
+    /// <param name="excludedPosValues">The POS values which when assigned to
+    /// a span exclude it from results.</param>
+    /// <param name="order">True to add an order by clause.</param>
+    /// <param name="documentId">The ID of the document to fetch words from,
+    /// or 0 to fetch them from all the documents.</param>
+    /// <returns>SQL query.</returns>
+    private string BuildWordFetchQuery(string? language,
+        HashSet<string> excludedAttrNames,
+        HashSet<string> excludedPosValues, bool order, int documentId = 0)
+    {
+        // words are fetched from token spans grouped by language, value, pos
+        // and lemma
+        StringBuilder sb = new();
+        sb.Append(
+            "SELECT language, LOWER(value) AS value, pos, LOWER(lemma) as lemma, " +
+            "COUNT(id) as count\n" +
+            "FROM span WHERE type='tok'\n");
+
+        // restrict to a single document if requested
+        if (documentId > 0)
+        {
+            sb.Append("AND document_id=")
+                .Append(documentId.ToString(CultureInfo.InvariantCulture))
+                .Append('\n');
+        }
+
+        // match language (if null, it must match NULL)
+        if (language != null)
+        {
+            sb.Append("AND COALESCE(language, '') = ")
+                .Append(SqlHelper.SqlEncode(language, false, true))
+                .Append('\n');
+        }
+        else
+        {
+            sb.Append("AND language IS NULL\n");
+        }
+
+        // if some POS values are excluded, add the condition
+        if (excludedPosValues.Count > 0)
+        {
+            sb.Append("AND pos NOT IN (")
+                .AppendJoin(",", excludedPosValues.Select(
+                    p => SqlHelper.SqlEncode(p, false, true)))
+                .Append(")\n");
+        }
+
+        // if some span attribute names are excluded, add the condition
+        if (excludedAttrNames.Count > 0)
+        {
+            sb.Append("AND NOT EXISTS\n(\n" +
+                "  SELECT 1 FROM span_attribute sa\n" +
+                "  WHERE sa.id=span.id\n" +
+                "  AND sa.name IN(")
+                .AppendJoin(",",
+                    excludedAttrNames.Select(n => $"'{SqlHelper.SqlEncode(n)}'"))
+                .Append(")\n)\n");
+        }
+
+        // group by language, value, pos and lemma
+        sb.Append("GROUP BY language, LOWER(value), pos, LOWER(lemma)\n");
+
+        // if the order is requested, add it
+        if (order)
+            sb.Append("ORDER BY language, LOWER(value), pos, LOWER(lemma)\n");
+
+        return sb.ToString();
+    }
+
+    /// <summary>
+    /// Assign word ID FK to token spans based on the grouping which defines
+    /// a word (language, value, POS and lemma), possibly excluding those spans
     /// defined by the specified attribute names and POS values.
     /// </summary>
     /// <param name="connection">The connection.</param>
-    /// <param name="excludedAttrNames">The span attributes names used to exclude
-    /// spans from words. A span with any of these attributes names will be
-    /// excluded.</param>
-    /// <param name="excludedPosValues">The POS values used to exclude spans
-    /// from words. A span with any of these POS values will be excluded.</param>
-    private async Task AssignWordIdsAsync(IDbConnection connection,
+    /// <param name="excludedAttrNames">The span attributes names used to exclude
+    /// spans from words. A span with any of these attributes names will be
+    /// excluded.</param>
+    /// <param name="excludedPosValues">The POS values used to exclude spans
+    /// from words. A span with any of these POS values will be excluded.</param>
+    /// <param name="documentId">The ID of the document whose spans should
+    /// be updated, or 0 to update the spans of all the documents.</param>
+    private async Task AssignWordIdsAsync(IDbConnection connection,
+        HashSet<string> excludedAttrNames,
+        HashSet<string> excludedPosValues, int documentId = 0)
+    {
+        // build the update SQL query with the same exclusion criteria
+        StringBuilder updateSql = new();
+        updateSql.AppendLine("UPDATE span SET word_id = word.id");
+        updateSql.AppendLine("FROM word");
+        updateSql.AppendLine("WHERE span.type = 'tok'");
+        if (documentId > 0)
+        {
+            updateSql.AppendLine("  AND span.document_id = " +
+                documentId.ToString(CultureInfo.InvariantCulture));
+        }
+        updateSql.AppendLine("  AND COALESCE(span.language, '') = " +
+            "COALESCE(word.language, '')");
+        updateSql.AppendLine("  AND LOWER(span.value) = word.value");
+        updateSql.AppendLine("  AND COALESCE(span.pos, '') = " +
+            "COALESCE(word.pos, '')");
+        updateSql.AppendLine("  AND LOWER(span.lemma) = word.lemma");
+
+        // add the same POS exclusion criteria used when collecting words
+        if (excludedPosValues.Count > 0)
+        {
+            updateSql.Append("  AND span.pos NOT IN (")
+                    .AppendJoin(",", excludedPosValues.Select(
+                        p => SqlHelper.SqlEncode(p, false, true)))
+                    .AppendLine(")");
+        }
+
+        // add the same attribute-based exclusion criteria used
+        // when collecting words
+        if (excludedAttrNames.Count > 0)
+        {
+            updateSql.AppendLine("  AND NOT EXISTS (");
+            updateSql.AppendLine("    SELECT 1 FROM span_attribute sa");
+            updateSql.AppendLine("    WHERE sa.span_id = span.id");
+            updateSql.Append("      AND sa.name IN(")
+                    .AppendJoin(",", excludedAttrNames.Select(
+                        n => $"'{SqlHelper.SqlEncode(n)}'"))
+                    .AppendLine("))");
+        }
+
+        DbCommand cmd = (DbCommand)connection.CreateCommand();
+        cmd.CommandText = updateSql.ToString();
+        cmd.CommandTimeout = 3600; // 1 hour
+        await cmd.ExecuteNonQueryAsync();
+    }
+
+    /// <summary>
+    /// Inserts words into the database, fetching them from the token spans
+    /// grouped by language, value, POS and lemma.
+    /// </summary>
+    /// <remarks>This works as follows:
+    /// <para>- count the total pages of token spans to fetch;</para>
+    /// <para>- fetch each token spans page, where spans are grouped by language,
+    /// value, POS, and lemma;</para>
+    /// <para>- for each word, add it to the words table(in batches for better
+    /// performance);</para>
+    /// <para>- finally, assign FK word_id to each token span which was grouped
+    /// into a word.</para>
+    /// </remarks>
+    /// <param name="connection">The connection.</param>
+    /// <param name="pageSize">The page size.</param>
+    /// <param name="language">The language (null to match NULL).</param>
+    /// <param name="excludedAttrNames">The span attributes names used to exclude
+    /// spans from words. A span with any of these attributes names will be
+    /// excluded.</param>
+    /// <param name="excludedPosValues">The POS values used to exclude spans
+    /// from words. A span with any of these POS values will be excluded.</param>
+    /// <param name="cancel">The cancellation token.</param>
+    /// <param name="progress">The progress reporter.</param>
+    private async Task InsertWordsAsync(IDbConnection connection,
+        int pageSize,
+        string? language,
+        HashSet<string> excludedAttrNames,
+        HashSet<string> excludedPosValues,
+        CancellationToken cancel,
+        IProgress<ProgressReport>? progress = null)
+    {
+        // setup
+        ProgressReport report = new();
+        const int batchSize = 1000;
+        List<Word> words = new(batchSize);
+
+        // get a new connection for the insert
+        using IDbConnection connection2 = GetConnection();
+        connection2.Open();
+
+        // get the SQL query to fetch (unordered) words from token spans
+        string sql = BuildWordFetchQuery(language,
+            excludedAttrNames, excludedPosValues, false);
+
+        // count the unique combinations of language, value, pos, and lemma,
+        // corresponding to the number of words to extract, except for those
+        // excluded by the specified attributes and POS values
+        DbCommand cmd = (DbCommand)connection.CreateCommand();
+        cmd.CommandText = "SELECT COUNT(*) FROM(\n" + sql + ") AS s;";
+
+        // execute the count command and calculate the page count
+        object? result = await cmd.ExecuteScalarAsync();
+        if (result == null) return;
+        long? total = result as long?;
+        if (total == null || total.Value == 0) return;
+        int pageCount = (int)Math.Ceiling((double)total.Value / pageSize);
+
+        // prepare the corresponding paged fetch command to get words
+        sql = BuildWordFetchQuery(language,
+            excludedAttrNames, excludedPosValues, true);
+        cmd.CommandText = sql + SqlHelper.BuildPaging(0, pageSize);
+
+        // for each words page
+        int offset = 0;
+        for (int i = 0; i < pageCount; i++)
+        {
+            await using (DbDataReader reader = await cmd.ExecuteReaderAsync())
+            {
+                // for each word in page
+                while (await reader.ReadAsync())
+                {
+                    if (cancel.IsCancellationRequested) break;
+
+                    // materialize the word
+                    Word word = new()
+                    {
+                        Language = await reader.IsDBNullAsync(0)
+                            ? null : reader.GetString(0),
+                        Value = reader.GetString(1),
+                        Pos = await reader.IsDBNullAsync(2)
+                            ? null : reader.GetString(2),
+                        Lemma = await reader.IsDBNullAsync(3)
+                            ? null : reader.GetString(3),
+                        Count = reader.GetInt32(4)
+                    };
+                    // skip non-letter words
+                    if (!word.Value.All(char.IsLetter) ||
+                        word.Lemma?.All(char.IsLetter) != true)
+                    {
+                        continue;
+                    }
+                    word.ReversedValue = word.Value.Length > 1
+                        ? new string([.. word.Value.Reverse()])
+                        : word.Value;
+
+                    // add the word to the batch
+                    words.Add(word);
+
+                    // if the batch is full, flush it
+                    if (words.Count == batchSize)
+                    {
+                        await BatchInsertWords(connection2, words);
+                        words.Clear();
+                    }
+                }
+            }
+
+            // move to the next page
+            offset += pageSize;
+            cmd.CommandText = sql + SqlHelper.BuildPaging(offset, pageSize);
+
+            // report progress if requested
+            if (progress != null)
+            {
+                report.Percent = (i + 1) * 100 / pageCount;
+                report.Message = "Inserting words...";
+                progress.Report(report);
+            }
+        }
+
+        // if there are any words left in the batch, flush them
+        if (words.Count > 0) await BatchInsertWords(connection2, words);
+
+        // update word ID FK in span table
+        report.Message = "Updating span table...";
+        progress?.Report(report);
+        await AssignWordIdsAsync(connection2,
+            excludedAttrNames, excludedPosValues);
+    }
+
+    /// <summary>
+    /// Insert a batch of lemmata.
+    /// </summary>
+    /// <param name="connection">The connection.</param>
+    /// <param name="lemmata">The lemmata.</param>
+    protected virtual async Task BatchInsertLemmata(IDbConnection connection,
+        List<Lemma> lemmata)
+    {
+        DbCommand cmdInsert = (DbCommand)connection.CreateCommand();
+        cmdInsert.CommandText =
+            "INSERT INTO lemma(pos, language, value, reversed_value, count)\n" +
+            "VALUES(@pos, @language, @value, @reversed_value, @count);";
+        AddParameter(cmdInsert, "@pos", DbType.String, "");
+        AddParameter(cmdInsert, "@language", DbType.String, "");
+        AddParameter(cmdInsert, "@value", DbType.String, "");
+        AddParameter(cmdInsert, "@reversed_value", DbType.String, "");
+        AddParameter(cmdInsert, "@count", DbType.Int32, 0);
+
+        foreach (Lemma lemma in lemmata)
+        {
+            cmdInsert.Parameters["@pos"].Value =
+                GetTruncatedString(lemma.Pos, POS_MAX)
+                ?? (object)DBNull.Value;
+            cmdInsert.Parameters["@language"].Value =
+                GetTruncatedString(lemma.Language, LANGUAGE_MAX)
+                ?? (object)DBNull.Value;
+            cmdInsert.Parameters["@value"].Value =
+                GetTruncatedString(lemma.Value, VALUE_MAX);
+            cmdInsert.Parameters["@reversed_value"].Value =
+                GetTruncatedString(lemma.ReversedValue, VALUE_MAX);
+            cmdInsert.Parameters["@count"].Value = lemma.Count;
+
+            await cmdInsert.ExecuteNonQueryAsync();
+        }
+    }
+
+    /// <summary>
+    /// Insert lemmata into the database, fetching them from the list of words,
+    /// grouped by their language, POS and lemma.
+    /// </summary>
+    /// <remarks>This works as follows:
+    /// <para>- count the total pages of words to fetch;</para>
+    /// <para>- fetch each word page, where words are grouped by language, 
+    /// POS, and lemma(excluding words having a NULL lemma);</para>
+    /// <para>- for each lemma, add it to the lemmata table(in batches for
+    /// better performance); the lemma count is equal to the sum of all its
+    /// words counts;</para>
+    /// <para>- finally, assign FK lemma_id to each word which was grouped into
+    /// a lemma, and to each span having a word_id FK and belonging to the same
+    /// lemma.</para>
+    /// </remarks>
+    /// <param name="connection">The connection.</param>
+    /// <param name="pageSize">The page size.</param>
+    /// <param name="cancel">The cancellation token.</param>
+    /// <param name="progress">The progress reporter.</param>
+    private async Task InsertLemmataAsync(IDbConnection connection,
+        int pageSize,
+        CancellationToken cancel,
+        IProgress<ProgressReport>? progress = null)
+    {
+        ProgressReport? report = new();
+        const int batchSize = 1000;
+        List<Lemma> lemmata = new(batchSize);
+
+        // prepare insert command
+        IDbConnection connection2 = GetConnection();
+        connection2.Open();
+
+        // get the total counts of lemmata and their pages
+        DbCommand cmd = (DbCommand)connection.CreateCommand();
+        cmd.CommandText =
+            "SELECT COUNT(*) FROM(\n" +
+            "SELECT pos, language, LOWER(lemma)\n" +
+            "FROM word\n" +
+            "WHERE lemma IS NOT NULL\n" +
+            "GROUP BY pos, language, LOWER(lemma))\nAS s;";
+        object? result = await cmd.ExecuteScalarAsync();
+        if (result == null) return;
+        long? total = result as long?;
+        if (total == null || total.Value == 0) return;
+        int pageCount = (int)Math.Ceiling((double)total.Value / pageSize);
+
+        // prepare fetch command
+        const string sql =
+            "SELECT pos, language, LOWER(lemma) AS value, SUM(count) AS count\n" +
+            "FROM word\n" +
+            "WHERE lemma IS NOT NULL\n" +
+            "GROUP BY pos, language, LOWER(lemma)\n" +
+            "ORDER BY LOWER(lemma)\n";
+        cmd.CommandText = sql + SqlHelper.BuildPaging(0, pageSize);
+
+        // process by pages
+        int offset = 0;
+        for (int i = 0; i < pageCount; i++)
+        {
+            await using (DbDataReader reader = await cmd.ExecuteReaderAsync())
+            {
+                // for each lemma in the page
+                while (await reader.ReadAsync())
+                {
+                    if (cancel.IsCancellationRequested) break;
+
+                    // materialize the lemma
+                    Lemma lemma = new()
+                    {
+                        Pos = await reader.IsDBNullAsync(0)
+                            ? null : reader.GetString(0),
+                        Language = await reader.IsDBNullAsync(1)
+                            ? null : reader.GetString(1),
+                        Value = reader.GetString(2),
+                        Count = reader.GetInt32(3)
+                    };
+                    lemma.ReversedValue = lemma.Value.Length > 1
+                        ? new string([.. lemma.Value.Reverse()])
+                        : lemma.Value;
+
+                    // skip non-letter lemmata
+                    if (!lemma.Value.All(char.IsLetter)) continue;
+
+                    // add the lemma to the batch
+                    lemmata.Add(lemma);
+
+                    // if the batch is full, flush it
+                    if (lemmata.Count == batchSize)
+                    {
+                        await BatchInsertLemmata(connection2, lemmata);
+                        lemmata.Clear();
+                    }
+                }
+            }
+
+            // move to the next page
+            offset += pageSize;
+            cmd.CommandText = sql + SqlHelper.BuildPaging(offset, pageSize);
+
+            // report progress if requested
+            if (progress != null)
+            {
+                report.Percent = (i + 1) * 100 / pageCount;
+                report.Message = "Inserting lemmata...";
+                progress.Report(report);
+            }
+        }
+
+        // if there are any lemmata left in the batch, flush them
+        if (lemmata.Count > 0)
+            await BatchInsertLemmata(connection2, lemmata);
+
+        // update lemma ID FK in word table
+        report.Message = "Updating word table...";
+        progress?.Report(report);
+        cmd.CommandText = "UPDATE word SET lemma_id=lemma.id\n" +
+            "FROM lemma\n" +
+            "WHERE COALESCE (word.pos,'')=COALESCE(lemma.pos, '')\n" +
+            "AND COALESCE (word.language,'')=COALESCE(lemma.language, '')\n" +
+            "AND LOWER(word.lemma) = lemma.value\n" +
+            "AND word.lemma IS NOT NULL;";
+        cmd.CommandTimeout = 3600; // 1 hour
+        await cmd.ExecuteNonQueryAsync();
+
+        // update lemma ID FK in span table - only for spans that already have
+        // word_id. This ensures we respect the same exclusions that were
+        // applied during word collection
+        report.Message = "Updating span table...";
+        progress?.Report(report);
+        cmd.CommandText = "UPDATE span SET lemma_id=lemma.id\n" +
+            "FROM lemma\n" +
+            "WHERE COALESCE (span.pos,'')=COALESCE(lemma.pos, '')\n" +
+            "AND COALESCE (span.language,'')=COALESCE(lemma.language, '')\n" +
+            "AND LOWER(span.lemma) = lemma.value\n" +
+            "AND span.lemma IS NOT NULL\n" +
+            // only update spans that have a word_id, ensuring consistency
+            // with word exclusions
+            "AND span.word_id IS NOT NULL;";
+        cmd.CommandTimeout = 3600; // 1 hour
+        await cmd.ExecuteNonQueryAsync();
+    }
+
+    /// <summary>
+    /// Gets the distinct names of all document's attributes.
+    /// </summary>
+    /// <param name="connection">The connection.</param>
+    /// <param name="cancel">The cancellation token.</param>
+    /// <returns>Names.</returns>
+    private static async Task<HashSet<string>> GetDocAttrNamesAsync(
+        IDbConnection connection, CancellationToken cancel)
+    {
+        DbCommand cmd = (DbCommand)connection.CreateCommand();
+        cmd.CommandText = "SELECT DISTINCT name FROM document_attribute;";
+
+        HashSet<string> names = [];
+        using DbDataReader reader = await cmd.ExecuteReaderAsync(cancel);
+        while (await reader.ReadAsync(cancel)) names.Add(reader.GetString(0));
+
+        return names;
+    }
+
+    /// <summary>
+    /// Reads a numeric document pair's minimum and maximum values using the
+    /// specified SQL command to fetch them.
+    /// </summary>
+    /// <param name="cmd">The SQL command.</param>
+    /// <param name="name">The pair's name.</param>
+    /// <param name="privileged">True if the pair refers to a privileged
+    /// attribute.</param>
+    /// <param name="integer">True to use integer bins.</param>
+    /// <param name="binCount">The desired bins count.</param>
+    /// <param name="cancel">The cancellation token.</param>
+    /// <returns>List of pairs.</returns>
+    private static async Task<IList<DocumentPair>> ReadDocumentPairMinMaxAsync(
+        DbCommand cmd, string name, bool privileged, bool integer, int binCount,
+        CancellationToken cancel)
+    {
+        await using var reader = await cmd.ExecuteReaderAsync(cancel);
+
+        if (await reader.ReadAsync(cancel))
+        {
+            if (await reader.IsDBNullAsync(0, cancel)) return [];
+
+            // if fields are strings, read as string and then parse double
+            double min, max;
+            if (reader.GetFieldType(0) == typeof(string))
+            {
+                string n = reader.GetString(0);
+                string m = reader.GetString(1);
+
+                if (string.IsNullOrEmpty(n) || string.IsNullOrEmpty(m))
+                    return [];
+                min = double.Parse(n, CultureInfo.InvariantCulture);
+                max = double.Parse(m, CultureInfo.InvariantCulture);
+                return DocumentPair.GenerateBinPairs(name, privileged, integer,
+                    min, max, binCount);
+            }
+            else
+            {
+                min = reader.GetDouble(0);
+                max = reader.GetDouble(1);
+            }
+
+            return DocumentPair.GenerateBinPairs(name, privileged, integer,
+                min, max, binCount);
+        }
+        return [];
+    }
+
+    private static (string, bool) ParseBinName(string name)
+    {
+        return name.StartsWith('^')
+            ? (name[1..], true)
+            : (name, false);
+    }
+
+    /// <summary>
+    /// Gets all the document attributes name=value pairs to be used when filling
+    /// word and lemma document counts.
+    /// </summary>
+    /// <param name="binCounts">The desired bins counts. For each attribute
+    /// (either privileged or not) which must be handled as a number,
+    /// this dictionary includes its name as the key, and the desired count
+    /// of bins as the value. For instance, an attribute named <c>year</c>
+    /// whose value is a year number would have an entry with key=<c>year</c>
+    /// and value=<c>3</c>, meaning that we want to distribute its values in
+    /// 3 bins.</param>
+    /// <param name="excludedAttrNames">The names of the non-privileged
+    /// attributes to be excluded from the pairs. All the names of
+    /// non-categorical attributes (like e.g. the file path of a document,
+    /// which is unique for each document) should be excluded.</param>
+    /// <param name="cancel">The cancellation token.</param>
+    /// <returns>Built pairs.</returns>
+    /// <exception cref="ArgumentNullException">binCounts or excludedAttrNames
+    /// </exception>
+    public async Task<IList<DocumentPair>> GetDocumentPairsAsync(
+        IDictionary<string, int> binCounts,
+        HashSet<string> excludedAttrNames,
+        CancellationToken cancel = default)
+    {
+        ArgumentNullException.ThrowIfNull(binCounts);
+        ArgumentNullException.ThrowIfNull(excludedAttrNames);
+
+        // open a connection to the database
+        await using DbConnection connection = (DbConnection)GetConnection();
+        await connection.OpenAsync(cancel);
+
+        // prepare the set of privileged document attributes
+        HashSet< string> privilegedDocAttrs = [
+            .. TextSpan.GetPrivilegedAttrs(false).Except(
+                ["title", "source", "profile_id", "sort_key"])];
+        List<DocumentPair> pairs = [];
+        StringBuilder sql = new();
+
+        // (A) non-numeric:
+        // (A.1) privileged
+        foreach (string name in privilegedDocAttrs
+            .Where(n => !binCounts.ContainsKey(n) &&
+                        !binCounts.ContainsKey("^" + n)))
+        {
+            if (sql.Length > 0) sql.Append("UNION\n");
+
+            sql.Append(
+                $"SELECT DISTINCT '{name}' AS name, {name} AS value, true AS p " +
+                "FROM document\n");
+        }
+
+        // (A.2) non-privileged
+        IList<string> docAttrNames = [.. 
+            (await GetDocAttrNamesAsync(connection, cancel)).Except(excludedAttrNames)];
+
+        foreach (string name in docAttrNames
+            .Where(n => !binCounts.ContainsKey(n) &&
+                        !binCounts.ContainsKey("^" + n) &&
+                        !privilegedDocAttrs.Contains(n) &&
+                        !privilegedDocAttrs.Contains("^" + n)))
+        {
+            if (sql.Length > 0) sql.Append("UNION\n");
+
+            sql.Append("SELECT DISTINCT name, value, false as p " +
+                $"FROM document_attribute WHERE name='{name}'\n");
+        }
+
+        // fetch pairs from the generated SQL queries
+        await using (DbCommand cmd = (DbCommand)connection.CreateCommand())
+        {
+            cmd.CommandText = sql.ToString();
+            await using var reader = await cmd.ExecuteReaderAsync(cancel);
+            while (await reader.ReadAsync(cancel))
+            {
+                DocumentPair pair = new(
+                    reader.GetString(0),
+                    reader.GetString(1),
+                    reader.GetBoolean(2));
+                pairs.Add(pair);
+            }
+        }
+
+        // (B): numeric
+        await using (DbCommand cmd = (DbCommand)connection.CreateCommand())
+        {
+            // (B.1): numeric, privileged
+            foreach (var pair in binCounts.Where(
+                p => privilegedDocAttrs.Contains(p.Key) ||
+                     privilegedDocAttrs.Contains("^" + p.Key)))
+            {
+                // a name prefixed by ^ means we want integer bins
+                (string name, bool integer) = ParseBinName(pair.Key);
+
+                cmd.CommandText = $"SELECT MIN({name}) AS n," +
+                    $"MAX({name}) AS m FROM document";
+                pairs.AddRange(await ReadDocumentPairMinMaxAsync(cmd,
+                    name, true, integer, pair.Value, cancel));
+            }
+
+            // (B.2): numeric, non-privileged
+            foreach (var pair in binCounts.Where(
+                p => !privilegedDocAttrs.Contains(p.Key) &&
+                     !privilegedDocAttrs.Contains("^" + p.Key)))
+            {
+                // a name prefixed by ^ means we want integer bins
+                (string name, bool integer) = ParseBinName(pair.Key);
+
+                cmd.CommandText = "SELECT MIN(value) AS n, MAX(value) AS m\n" +
+                    "FROM document_attribute\n" +
+                    $"WHERE name='{name}'";
+                pairs.AddRange(
+                    await ReadDocumentPairMinMaxAsync(cmd, name, false, integer,
+                    pair.Value, cancel));
+            }
+        }
+
+        return pairs;
+    }
+
+    /// <summary>
+    /// Appends a document pair clause to the SQL query.
+    /// </summary>
+    /// <param name="table">The table name.</param>
+    /// <param name="pair">The pair.</param>
+    /// <param name="sql">The SQL builder.</param>
+    private void AppendDocPairClause(string table, DocumentPair pair,
+        StringBuilder sql)
+    {
+        // if the pair is numeric, use a numeric comparison within a defined range
+        if (pair.IsNumeric || pair.Value == null)
+        {
+            string nn = SqlHelper.BuildTextAsNumber($"{table}.{pair.Name}");
+            sql.Append(nn)
+               .Append(">=")
+               .AppendFormat(CultureInfo.InvariantCulture,
+                    pair.MinValue % 1 == 0
+                    ? "{0:0}" : "{0:0.00}", pair.MinValue)
+               .Append(" AND ")
+               .Append(nn)
+               .Append('<')
+               .AppendFormat(CultureInfo.InvariantCulture,
+                    pair.MaxValue % 1 == 0
+                    ? "{0:0}" : "{0:0.00}", pair.MaxValue);
+        }
+        // else, use a string comparison
+        else
+        {
+            sql.Append($"{table}.{pair.Name}='{SqlHelper.SqlEncode(pair.Value!)}'");
+        }
+    }
+
+    /// <summary>
+    /// Append a document attribute pair clause to the SQL query.
+    /// </summary>
+    /// <param name="table">The table name.</param>
+    /// <param name="pair">The pair.</param>
+    /// <param name="sql">The SQL builder.</param>
+    private void AppendDocAttrPairClause(string table, DocumentPair pair,
+        StringBuilder sql)
+    {
+        // if the pair is numeric, use a numeric comparison within a defined range
+        if (pair.IsNumeric)
+        {
+            string nn = SqlHelper.BuildTextAsNumber($"{table}.value");
+            sql.Append(nn)
+               .Append(">=")
+               .AppendFormat(CultureInfo.InvariantCulture, "{0:F2}", pair.MinValue)
+               .Append(" AND ")
+               .Append(nn)
+               .Append('<')
+               .AppendFormat(CultureInfo.InvariantCulture, "{0:F2}", pair.MaxValue)
+               .Append(" AND ")
+               .Append($"{table}.name='{SqlHelper.SqlEncode(pair.Name)}'");
+        }
+        // else, use a string comparison
+        else
+        {
+            sql.Append($"{table}.value='{SqlHelper.SqlEncode(pair.Value!)}' " +
+                $"AND {table}.name='{SqlHelper.SqlEncode(pair.Name)}'");
+        }
+    }
+
+    /// <summary>
+    /// Insert a group of word counts.
+    /// </summary>
+    /// <param name="connection">The connection.</param>
+    /// <param name="counts">The counts.</param>
+    protected virtual async Task BatchInsertWordCounts(IDbConnection connection,
+        List<WordCount> counts)
+    {
+        DbCommand cmd = (DbCommand)connection.CreateCommand();
+        cmd.CommandText = "INSERT INTO word_count(" +
+            "word_id, lemma_id, doc_attr_name, doc_attr_value, count)\n" +
+            "VALUES(@word_id, @lemma_id, @doc_attr_name, @doc_attr_value, @count);";
+        AddParameter(cmd, "@word_id", DbType.Int32, 0);
+        AddParameter(cmd, "@lemma_id", DbType.Int32, 0);
+        AddParameter(cmd, "@doc_attr_name", DbType.String, "");
+        AddParameter(cmd, "@doc_attr_value", DbType.String, "");
+        AddParameter(cmd, "@count", DbType.Int32, 0);
+
+        foreach (WordCount count in counts)
+        {
+            cmd.Parameters["@word_id"].Value = count.WordId;
+            cmd.Parameters["@lemma_id"].Value = count.LemmaId == 0
+                ? DBNull.Value : count.LemmaId;
+            cmd.Parameters["@doc_attr_name"].Value =
+                GetTruncatedString(count.Pair.Name, ATTR_NAME_MAX);
+            cmd.Parameters["@doc_attr_value"].Value =
+                count.Pair.Value ??
+                $"{count.Pair.MinValue:F2}:{count.Pair.MaxValue:F2}";
+            cmd.Parameters["@count"].Value = count.Value;
+
+            await cmd.ExecuteNonQueryAsync();
+        }
+    }
+
+    /// <summary>
+    /// Builds a SQL UNION query fragment for a single document pair that counts
+    /// word occurrences in documents matching that pair.
+    /// </summary>
+    /// <param name="pair">The document pair.</param>
+    /// <param name="sql">The SQL builder to append to.</param>
+    /// <param name="documentId">The ID of the document to count words in,
+    /// or 0 to count them in all the documents.</param>
+    /// <param name="firstWordId">The first word ID to count, or 0.</param>
+    /// <param name="lastWordId">The last word ID to count, or 0.</param>
+    private void AppendWordCountUnionClause(DocumentPair pair, StringBuilder sql,
+        int documentId = 0, int firstWordId = 0, int lastWordId = 0)
+    {
+        // Build the SELECT clause with the pair name and value as constants
+        sql.Append("SELECT s.word_id, s.lemma_id, ");
+        sql.Append($"'{SqlHelper.SqlEncode(pair.Name)}' AS doc_attr_name, ");
+
+        // The doc_attr_value depends on whether it's numeric (range) or string (value)
+        if (pair.IsNumeric)
+        {
+            sql.AppendFormat(CultureInfo.InvariantCulture,
+                "'{0:F2}:{1:F2}' AS doc_attr_value, ",
+                pair.MinValue, pair.MaxValue);
+        }
+        else
+        {
+            sql.Append($"'{SqlHelper.SqlEncode(pair.Value!)}' AS doc_attr_value, ");
+        }
+
+        sql.Append("COUNT(*) AS count\n");
+
+        // FROM clause depends on privileged vs non-privileged attributes
+        if (pair.IsPrivileged)
+        {
+            sql.Append("FROM span s\n");
+            sql.Append("INNER JOIN document d ON s.document_id = d.id\n");
+            sql.Append("WHERE s.word_id IS NOT NULL AND ");
+            AppendDocPairClause("d", pair, sql);
+        }
+        else
+        {
+            sql.Append("FROM span s\n");
+            sql.Append("INNER JOIN document_attribute da ON s.document_id = da.document_id\n");
+            sql.Append("WHERE s.word_id IS NOT NULL AND ");
+            AppendDocAttrPairClause("da", pair, sql);
+        }
+
+        if (documentId > 0)
+        {
+            sql.Append(" AND s.document_id=")
+               .Append(documentId.ToString(CultureInfo.InvariantCulture));
+        }
+        if (lastWordId > 0)
+        {
+            sql.Append(" AND s.word_id BETWEEN ")
+               .Append(firstWordId.ToString(CultureInfo.InvariantCulture))
+               .Append(" AND ")
+               .Append(lastWordId.ToString(CultureInfo.InvariantCulture));
+        }
+
+        sql.Append("\nGROUP BY s.word_id, s.lemma_id");
+    }
+
+    /// <summary>
+    /// Gets the word's lemma IDs for words in the specified range.
+    /// </summary>
+    /// <param name="firstId">The ID of the first word to get.</param>
+    /// <param name="lastId">The ID of the last word to get.</param>
+    /// <returns>List of tuples with each word's ID and lemma ID.</returns>
+    private async Task<List<Tuple<int, int>>> GetWordLemmaIdsAsync(
+        int firstId, int lastId)
+    {
+        using IDbConnection connection = GetConnection();
+        connection.Open();
+
+        DbCommand cmd = (DbCommand)connection.CreateCommand();
+        cmd.CommandText = "SELECT id, lemma_id, value FROM word " +
+            "WHERE id>=@first_id AND id<=@last_id;";
+        AddParameter(cmd, "@first_id", DbType.Int32, firstId);
+        AddParameter(cmd, "@last_id", DbType.Int32, lastId);
+        List<Tuple<int, int>> ids = [];
+
+        await using DbDataReader reader = await cmd.ExecuteReaderAsync();
+        while (await reader.ReadAsync())
+        {
+            // ignore non-letter words
+            string value = reader.GetString(2);
+            if (string.IsNullOrEmpty(value) || !value.All(char.IsLetter))
+                continue;
+
+            ids.Add(Tuple.Create(
+                reader.GetInt32(0),
+                await reader.IsDBNullAsync(1) ? 0 : reader.GetInt32(1)));
+        }
+        return ids;
+    }
+
+    #region Word Index Checkpoints
+    private const string CHECKPOINT_WORDS = "words";
+    private const string CHECKPOINT_LEMMATA = "lemmata";
+    private const string CHECKPOINT_LEMMA_COUNTS = "lemma-counts";
+
+    /// <summary>
+    /// Ensures that the word index checkpoint table exists, as databases
+    /// created before its introduction lack it.
+    /// </summary>
+    /// <param name="connection">The connection.</param>
+    private static async Task EnsureCheckpointTableAsync(
+        IDbConnection connection)
+    {
+        await using DbCommand cmd = (DbCommand)connection.CreateCommand();
+        cmd.CommandText =
+            "CREATE TABLE IF NOT EXISTS word_index_checkpoint (\n" +
+            "id varchar(500) NOT NULL,\n" +
+            "completed timestamp NOT NULL DEFAULT now(),\n" +
+            "CONSTRAINT word_index_checkpoint_pk PRIMARY KEY (id));";
+        await cmd.ExecuteNonQueryAsync();
+    }
+
+    /// <summary>
+    /// Gets the IDs of all the completed word index checkpoints.
+    /// </summary>
+    /// <param name="connection">The connection.</param>
+    /// <returns>IDs.</returns>
+    private static async Task<HashSet<string>> GetCheckpointsAsync(
+        IDbConnection connection)
+    {
+        await using DbCommand cmd = (DbCommand)connection.CreateCommand();
+        cmd.CommandText = "SELECT id FROM word_index_checkpoint;";
+
+        HashSet<string> ids = [];
+        await using DbDataReader reader = await cmd.ExecuteReaderAsync();
+        while (await reader.ReadAsync()) ids.Add(reader.GetString(0));
+        return ids;
+    }
+
+    private static void AddCheckpointCommand(DbCommand cmd, string id)
+    {
+        cmd.CommandText = "INSERT INTO word_index_checkpoint(id) VALUES(@id);";
+        AddParameter(cmd, "@id", DbType.String,
+            GetTruncatedString(id, ATTR_VALUE_MAX));
+    }
+
+    /// <summary>
+    /// Adds the specified word index checkpoint.
+    /// </summary>
+    /// <param name="connection">The connection.</param>
+    /// <param name="id">The checkpoint ID.</param>
+    private static async Task AddCheckpointAsync(IDbConnection connection,
+        string id)
+    {
+        await using DbCommand cmd = (DbCommand)connection.CreateCommand();
+        AddCheckpointCommand(cmd, id);
+        await cmd.ExecuteNonQueryAsync();
+    }
+
+    /// <summary>
+    /// Gets the checkpoint ID representing the options of a word index
+    /// build, including the word count partition size, so that only a
+    /// build with the same options is resumed.
+    /// </summary>
+    /// <returns>Checkpoint ID.</returns>
+    private string GetOptionsCheckpoint(string? language,
+        IDictionary<string, int> binCounts,
         HashSet<string> excludedAttrNames,
+        HashSet<string> excludedSpanAttrNames,
         HashSet<string> excludedPosValues)
     {
-        // build the update SQL query with the same exclusion criteria
-        StringBuilder updateSql = new();
-        updateSql.AppendLine("UPDATE span SET word_id = word.id");
-        updateSql.AppendLine("FROM word");
-        updateSql.AppendLine("WHERE span.type = 'tok'");
-        updateSql.AppendLine("  AND COALESCE(span.language, '') = " +
-            "COALESCE(word.language, '')");
-        updateSql.AppendLine("  AND LOWER(span.value) = word.value");
-        updateSql.AppendLine("  AND COALESCE(span.pos, '') = " +
-            "COALESCE(word.pos, '')");
-        updateSql.AppendLine("  AND LOWER(span.lemma) = word.lemma");
+        StringBuilder sb = new();
+        sb.Append(language ?? "\0").Append('|')
+          .AppendJoin(",", binCounts.OrderBy(p => p.Key, StringComparer.Ordinal)
+            .Select(p => $"{p.Key}={p.Value}")).Append('|')
+          .AppendJoin(",", excludedAttrNames.Order(StringComparer.Ordinal))
+          .Append('|')
+          .AppendJoin(",", excludedSpanAttrNames.Order(StringComparer.Ordinal))
+          .Append('|')
+          .AppendJoin(",", excludedPosValues.Order(StringComparer.Ordinal))
+          .Append('|')
+          .Append(WordCountPartitionSize.ToString(CultureInfo.InvariantCulture));
+
+        byte[] hash = System.Security.Cryptography.SHA256.HashData(
+            Encoding.UTF8.GetBytes(sb.ToString()));
+        return "options:" + Convert.ToHexString(hash);
+    }
+    #endregion
 
-        // add the same POS exclusion criteria used when collecting words
-        if (excludedPosValues.Count > 0)
+    /// <summary>
+    /// A partition of the word counts, including the words of a range
+    /// of IDs for a single document pair.
+    /// </summary>
+    /// <param name="Pair">The document pair.</param>
+    /// <param name="FirstWordId">The first word ID, or 0 for all.</param>
+    /// <param name="LastWordId">The last word ID, or 0 for all.</param>
+    private sealed record WordCountPartition(DocumentPair Pair,
+        int FirstWordId, int LastWordId)
+    {
+        /// <summary>
+        /// Gets the partition's checkpoint ID. This is the attribute name
+        /// followed by a hash of the exact pair and word IDs range, so that
+        /// distinct partitions never share the same ID, whatever the length
+        /// of their value or the width of their bin.
+        /// </summary>
+        public string Id
+        {
+            get
+            {
+                string value = Pair.IsNumeric
+                    ? string.Format(CultureInfo.InvariantCulture,
+                        "{0:R}:{1:R}", Pair.MinValue, Pair.MaxValue)
+                    : Pair.Value!;
+                string key = string.Join('\0', Pair.Name,
+                    Pair.IsNumeric ? "n" : "s", Pair.IsPrivileged ? "p" : "",
+                    value, FirstWordId.ToString(CultureInfo.InvariantCulture),
+                    LastWordId.ToString(CultureInfo.InvariantCulture));
+                byte[] hash = System.Security.Cryptography.SHA256.HashData(
+                    Encoding.UTF8.GetBytes(key));
+                return $"wc:{Pair.Name}:{Convert.ToHexString(hash)}";
+            }
+        }
+
+        /// <summary>
+        /// Gets a human-readable label for the partition, used in progress
+        /// reports.
+        /// </summary>
+        public string Label
+        {
+            get
+            {
+                string value = Pair.IsNumeric
+                    ? string.Format(CultureInfo.InvariantCulture,
+                        "{0:F2}:{1:F2}", Pair.MinValue, Pair.MaxValue)
+                    : Pair.Value!;
+                return $"{Pair.Name}={value}:{FirstWordId}-{LastWordId}";
+            }
+        }
+    }
+
+    /// <summary>
+    /// Gets the partitions of the word counts for the specified pairs.
+    /// </summary>
+    /// <param name="connection">The connection.</param>
+    /// <param name="docPairs">The document pairs.</param>
+    /// <returns>Partitions.</returns>
+    private async Task<List<WordCountPartition>> GetWordCountPartitionsAsync(
+        IDbConnection connection, IList<DocumentPair> docPairs)
+    {
+        List<(int, int)> ranges = [];
+        if (WordCountPartitionSize > 0)
+        {
+            await using DbCommand cmd = (DbCommand)connection.CreateCommand();
+            cmd.CommandText = "SELECT MIN(id), MAX(id) FROM word;";
+            await using DbDataReader reader = await cmd.ExecuteReaderAsync();
+            if (await reader.ReadAsync() && !await reader.IsDBNullAsync(0))
+            {
+                int min = reader.GetInt32(0), max = reader.GetInt32(1);
+                for (long first = min; first <= max;
+                    first += WordCountPartitionSize)
+                {
+                    ranges.Add(((int)first, (int)Math.Min(max,
+                        first + WordCountPartitionSize - 1)));
+                }
+            }
+        }
+        if (ranges.Count == 0) ranges.Add((0, 0));
+
+        return [.. docPairs.SelectMany(pair => ranges.Select(
+            r => new WordCountPartition(pair, r.Item1, r.Item2)))];
+    }
+
+    /// <summary>
+    /// Inserts counts for all words for the specified document's attributes
+    /// name=value pairs. Counts are computed in partitions, one for each
+    /// document pair and range of word IDs (see
+    /// <see cref="WordCountPartitionSize"/>), using up to
+    /// <see cref="WordCountParallelism"/> connections. Each partition is
+    /// inserted in its own transaction together with its checkpoint, so
+    /// that an interrupted build can be resumed skipping the completed
+    /// partitions.
+    /// </summary>
+    /// <param name="connection">The connection.</param>
+    /// <param name="docPairs">The document's attributes name=value pairs. Each
+    /// pair defines the context for a count.</param>
+    /// <param name="checkpoints">The IDs of the completed checkpoints.</param>
+    /// <param name="cancel">The cancellation token.</param>
+    /// <param name="progress">The optional progress reporter.</param>
+    private async Task InsertWordCountsAsync(IDbConnection connection,
+        IList<DocumentPair> docPairs, HashSet<string> checkpoints,
+        CancellationToken cancel,
+        IProgress<ProgressReport>? progress = null)
+    {
+        if (docPairs.Count == 0) return;
+
+        List<WordCountPartition> partitions =
+            await GetWordCountPartitionsAsync(connection, docPairs);
+        int total = partitions.Count;
+        partitions.RemoveAll(p => checkpoints.Contains(p.Id));
+        int done = total - partitions.Count;
+
+        progress?.Report(new ProgressReport
+        {
+            Count = done,
+            Percent = done * 100 / total,
+            Message = $"Word count partitions: {total}, completed: {done}"
+        });
+
+        await Parallel.ForEachAsync(partitions, new ParallelOptions
+        {
+            MaxDegreeOfParallelism = Math.Max(1, WordCountParallelism),
+            CancellationToken = cancel
+        }, async (partition, c) =>
+        {
+            StringBuilder sql = new();
+            sql.Append("INSERT INTO word_count(word_id, lemma_id, " +
+                "doc_attr_name, doc_attr_value, count)\n");
+            AppendWordCountUnionClause(partition.Pair, sql, 0,
+                partition.FirstWordId, partition.LastWordId);
+            sql.Append(';');
+
+            using IDbConnection partConnection = GetConnection();
+            partConnection.Open();
+            using IDbTransaction trans = partConnection.BeginTransaction();
+            try
+            {
+                await using (DbCommand cmd =
+                    (DbCommand)partConnection.CreateCommand())
+                {
+                    cmd.CommandText = sql.ToString();
+                    cmd.CommandTimeout = 3600; // 1 hour
+                    await cmd.ExecuteNonQueryAsync(c);
+                }
+                await using (DbCommand cmd =
+                    (DbCommand)partConnection.CreateCommand())
+                {
+                    AddCheckpointCommand(cmd, partition.Id);
+                    await cmd.ExecuteNonQueryAsync(c);
+                }
+                trans.Commit();
+            }
+            catch (Exception ex)
+            {
+                Debug.WriteLine(ex.ToString());
+                trans.Rollback();
+                throw;
+            }
+
+            int n = Interlocked.Increment(ref done);
+            progress?.Report(new ProgressReport
+            {
+                Count = n,
+                Percent = n * 100 / total,
+                Message = $"Word counts: {partition.Label}"
+            });
+        });
+    }
+
+    /// <summary>
+    /// Inserts the lemma counts summing the word counts, and adds their
+    /// checkpoint in the same transaction, so that a resumed build never
+    /// inserts them twice.
+    /// </summary>
+    /// <param name="connection">The connection.</param>
+    /// <param name="cancel">The cancellation token.</param>
+    private static async Task InsertLemmaCountsAsync(IDbConnection connection,
+        CancellationToken cancel)
+    {
+        using IDbTransaction trans = connection.BeginTransaction();
+        try
         {
-            updateSql.Append("  AND span.pos NOT IN (")
-                    .AppendJoin(",", excludedPosValues.Select(
-                        p => SqlHelper.SqlEncode(p, false, true)))
-                    .AppendLine(")");
+            await using (DbCommand cmd = (DbCommand)connection.CreateCommand())
+            {
+                cmd.Transaction = (DbTransaction)trans;
+                cmd.CommandText = "INSERT INTO lemma_count(" +
+                    "lemma_id, doc_attr_name, doc_attr_value, count)\n" +
+                    "SELECT lemma_id, doc_attr_name, doc_attr_value, " +
+                    "SUM(count)\n" +
+                    "FROM word_count\n" +
+                    "WHERE lemma_id IS NOT NULL\n" +
+                    "GROUP BY lemma_id, doc_attr_name, doc_attr_value;";
+                cmd.CommandTimeout = 3600; // 1 hour
+                await cmd.ExecuteNonQueryAsync(cancel);
+            }
+            await using (DbCommand cmd = (DbCommand)connection.CreateCommand())
+            {
+                cmd.Transaction = (DbTransaction)trans;
+                AddCheckpointCommand(cmd, CHECKPOINT_LEMMA_COUNTS);
+                await cmd.ExecuteNonQueryAsync(cancel);
+            }
+            trans.Commit();
         }
-
-        // add the same attribute-based exclusion criteria used
-        // when collecting words
-        if (excludedAttrNames.Count > 0)
+        catch (Exception ex)
         {
-            updateSql.AppendLine("  AND NOT EXISTS (");
-            updateSql.AppendLine("    SELECT 1 FROM span_attribute sa");
-            updateSql.AppendLine("    WHERE sa.span_id = span.id");
-            updateSql.Append("      AND sa.name IN(")
-                    .AppendJoin(",", excludedAttrNames.Select(
-                        n => $"'{SqlHelper.SqlEncode(n)}'"))
-                    .AppendLine("))");
+            Debug.WriteLine(ex.ToString());
+            trans.Rollback();
+            throw;
         }
-
-        DbCommand cmd = (DbCommand)connection.CreateCommand();
-        cmd.CommandText = updateSql.ToString();
-        cmd.CommandTimeout = 3600; // 1 hour
-        await cmd.ExecuteNonQueryAsync();
     }
 
     /// <summary>
-    /// Inserts words into the database, fetching them from the token spans
-    /// grouped by language, value, POS and lemma.
+    /// Builds the words index basing on tokens.
     /// </summary>
-    /// <remarks>This works as follows:
-    /// <para>- count the total pages of token spans to fetch;</para>
-    /// <para>- fetch each token spans page, where spans are grouped by language,
-    /// value, POS, and lemma;</para>
-    /// <para>- for each word, add it to the words table(in batches for better
-    /// performance);</para>
-    /// <para>- finally, assign FK word_id to each token span which was grouped
-    /// into a word.</para>
-    /// </remarks>
-    /// <param name="connection">The connection.</param>
-    /// <param name="pageSize">The page size.</param>
-    /// <param name="language">The language (null to match NULL).</param>
-    /// <param name="excludedAttrNames">The span attributes names used to exclude
-    /// spans from words. A span with any of these attributes names will be
-    /// excluded.</param>
-    /// <param name="excludedPosValues">The POS values used to exclude spans
-    /// from words. A span with any of these POS values will be excluded.</param>
+    /// <param name="language">The language to index (null matches NULL).</param>
+    /// <param name="binCounts">The desired bins counts. For each attribute
+    /// (either privileged or not) which must be handled as a number,
+    /// this dictionary includes its name as the key, and the desired count
+    /// of bins as the value. For instance, an attribute named <c>year</c>
+    /// whose value is a year number would have an entry with key=<c>year</c>
+    /// and value=<c>3</c>, meaning that we want to distribute its values in
+    /// 3 bins.</param>
+    /// <param name="excludedAttrNames">The names of the non-privileged
+    /// attributes to be excluded from the pairs. All the names of non categorical
+    /// attributes should be excluded.</param>
+    /// <param name="excludedSpanAttrNames">The names of the non-privileged
+    /// span attributes to be excluded from the words index. This is used
+    /// to remove tokens like proper names, foreign words, etc.</param>
+    /// <param name="excludedPosValues">The POS values to be excluded from
+    /// the index. These are usually like PROPN, NUM, SYM, X, and the like.</param>
     /// <param name="cancel">The cancellation token.</param>
-    /// <param name="progress">The progress reporter.</param>
-    private async Task InsertWordsAsync(IDbConnection connection,
-        int pageSize,
+    /// <param name="progress">The progress.</param>
+    public async Task BuildWordIndexAsync(
         string? language,
+        IDictionary<string, int> binCounts,
         HashSet<string> excludedAttrNames,
+        HashSet<string> excludedSpanAttrNames,
         HashSet<string> excludedPosValues,
         CancellationToken cancel,
         IProgress<ProgressReport>? progress = null)
     {
-        // setup
+        const int pageSize = 100;
         ProgressReport report = new();
-        const int batchSize = 1000;
-        List<Word> words = new(batchSize);
 
-        // get a new connection for the insert
-        using IDbConnection connection2 = GetConnection();
-        connection2.Open();
+        using IDbConnection connection = GetConnection();
+        connection.Open();
 
-        // get the SQL query to fetch (unordered) words from token spans
-        string sql = BuildWordFetchQuery(language,
-            excludedAttrNames, excludedPosValues, false);
+        // resume only a build with the same options
+        await EnsureCheckpointTableAsync(connection);
+        string options = GetOptionsCheckpoint(language, binCounts,
+            excludedAttrNames, excludedSpanAttrNames, excludedPosValues);
+        HashSet<string> checkpoints = IsWordIndexBuildResumed
+            ? await GetCheckpointsAsync(connection) : [];
+        if (!checkpoints.Contains(options)) checkpoints.Clear();
 
-        // count the unique combinations of language, value, pos, and lemma,
-        // corresponding to the number of words to extract, except for those
-        // excluded by the specified attributes and POS values
-        DbCommand cmd = (DbCommand)connection.CreateCommand();
-        cmd.CommandText = "SELECT COUNT(*) FROM(\n" + sql + ") AS s;";
+        if (!checkpoints.Contains(CHECKPOINT_WORDS))
+        {
+            report.Message = "Clearing word index...";
+            progress?.Report(report);
+            ClearWordIndex(connection);
+            _wordIndexBins = null;
+            await AddCheckpointAsync(connection, options);
+
+            report.Message = "Inserting words...";
+            progress?.Report(report);
+            await InsertWordsAsync(connection, pageSize, language,
+                excludedSpanAttrNames, excludedPosValues, cancel, progress);
+            if (cancel.IsCancellationRequested) return;
+            await AddCheckpointAsync(connection, CHECKPOINT_WORDS);
+        }
 
-        // execute the count command and calculate the page count
-        object? result = await cmd.ExecuteScalarAsync();
-        if (result == null) return;
-        long? total = result as long?;
-        if (total == null || total.Value == 0) return;
-        int pageCount = (int)Math.Ceiling((double)total.Value / pageSize);
+        if (!checkpoints.Contains(CHECKPOINT_LEMMATA))
+        {
+            // remove lemmata partially inserted by an interrupted build
+            if (checkpoints.Contains(CHECKPOINT_WORDS))
+            {
+                report.Message = "Clearing lemmata...";
+                progress?.Report(report);
+                await using DbCommand cmd = (DbCommand)connection.CreateCommand();
+                cmd.CommandText = "DELETE FROM lemma;";
+                cmd.CommandTimeout = 3600; // 1 hour
+                await cmd.ExecuteNonQueryAsync();
+            }
 
-        // prepare the corresponding paged fetch command to get words
-        sql = BuildWordFetchQuery(language,
-            excludedAttrNames, excludedPosValues, true);
-        cmd.CommandText = sql + SqlHelper.BuildPaging(0, pageSize);
+            report.Message = "Inserting lemmata...";
+            progress?.Report(report);
+            await InsertLemmataAsync(connection, pageSize, cancel, progress);
+            if (cancel.IsCancellationRequested) return;
+            await AddCheckpointAsync(connection, CHECKPOINT_LEMMATA);
+        }
 
-        // for each words page
-        int offset = 0;
-        for (int i = 0; i < pageCount; i++)
+        report.Message = "Collecting document pairs...";
+        progress?.Report(report);
+        IList<DocumentPair> docPairs = await GetDocumentPairsAsync(
+            binCounts, excludedAttrNames, cancel);
+
+        report.Message = "Calculating word counts...";
+        progress?.Report(report);
+        await InsertWordCountsAsync(connection, docPairs, checkpoints,
+            cancel, progress);
+        if (cancel.IsCancellationRequested) return;
+
+        if (!checkpoints.Contains(CHECKPOINT_LEMMA_COUNTS))
         {
-            await using (DbDataReader reader = await cmd.ExecuteReaderAsync())
+            report.Message = "Calculating lemma counts...";
+            progress?.Report(report);
+            await InsertLemmaCountsAsync(connection, cancel);
+        }
+
+        // word and lemma IDs of spans changed
+        InvalidateSearchCounts();
+        await UpdateStatisticsSnapshotAsync(StatisticsSnapshotParts.Words,
+            cancel);
+    }
+
+    /// <summary>
+    /// Finalizes the index by eventually adding calculated data into it.
+    /// </summary>
+    public void FinalizeIndex()
+    {
+    }
+    #endregion
+
+    #region Incremental Word Index
+    /// <summary>
+    /// Gets the numeric bins used in the words index for the document
+    /// attributes in the specified bin counts. Bins are read from the
+    /// word counts created by the last full build, and cached.
+    /// </summary>
+    /// <param name="connection">The connection.</param>
+    /// <param name="binCounts">The bin counts.</param>
+    /// <param name="privileged">The privileged document attributes.</param>
+    /// <param name="cancel">The cancellation token.</param>
+    /// <returns>Bins keyed by attribute name.</returns>
+    private async Task<Dictionary<string, IList<DocumentPair>>>
+        GetWordIndexBinsAsync(IDbConnection connection,
+        IDictionary<string, int> binCounts, HashSet<string> privileged,
+        CancellationToken cancel)
+    {
+        if (_wordIndexBins != null) return _wordIndexBins;
+
+        Dictionary<string, IList<DocumentPair>> bins = [];
+        await using DbCommand cmd = (DbCommand)CreateWordIndexBinsCommand(
+            connection);
+
+        foreach (string key in binCounts.Keys)
+        {
+            (string name, _) = ParseBinName(key);
+            List<DocumentPair> pairs = [];
+            cmd.Parameters["@name"].Value = name;
+
+            await using (DbDataReader reader =
+                await cmd.ExecuteReaderAsync(cancel))
             {
-                // for each word in page
-                while (await reader.ReadAsync())
-                {
-                    if (cancel.IsCancellationRequested) break;
+                while (await reader.ReadAsync(cancel))
+                    AddWordIndexBin(reader, name, privileged, pairs);
+            }
+            bins[name] = pairs;
+        }
 
-                    // materialize the word
-                    Word word = new()
-                    {
-                        Language = await reader.IsDBNullAsync(0)
-                            ? null : reader.GetString(0),
-                        Value = reader.GetString(1),
-                        Pos = await reader.IsDBNullAsync(2)
-                            ? null : reader.GetString(2),
-                        Lemma = await reader.IsDBNullAsync(3)
-                            ? null : reader.GetString(3),
-                        Count = reader.GetInt32(4)
-                    };
-                    // skip non-letter words
-                    if (!word.Value.All(char.IsLetter) ||
-                        word.Lemma?.All(char.IsLetter) != true)
-                    {
-                        continue;
-                    }
-                    word.ReversedValue = word.Value.Length > 1
-                        ? new string([.. word.Value.Reverse()])
-                        : word.Value;
+        _wordIndexBins = bins;
+        return bins;
+    }
 
-                    // add the word to the batch
-                    words.Add(word);
+    /// <summary>
+    /// Gets the numeric bins used in the words index, like
+    /// <see cref="GetWordIndexBinsAsync"/>.
+    /// </summary>
+    /// <param name="connection">The connection.</param>
+    /// <param name="binCounts">The bin counts.</param>
+    /// <param name="privileged">The privileged document attributes.</param>
+    /// <returns>Bins keyed by attribute name.</returns>
+    private Dictionary<string, IList<DocumentPair>> GetWordIndexBins(
+        IDbConnection connection, IDictionary<string, int> binCounts,
+        HashSet<string> privileged)
+    {
+        if (_wordIndexBins != null) return _wordIndexBins;
 
-                    // if the batch is full, flush it
-                    if (words.Count == batchSize)
-                    {
-                        await BatchInsertWords(connection2, words);
-                        words.Clear();
-                    }
-                }
+        Dictionary<string, IList<DocumentPair>> bins = [];
+        using IDbCommand cmd = CreateWordIndexBinsCommand(connection);
+
+        foreach (string key in binCounts.Keys)
+        {
+            (string name, _) = ParseBinName(key);
+            List<DocumentPair> pairs = [];
+            ((IDataParameter)cmd.Parameters["@name"]).Value = name;
+
+            using (IDataReader reader = cmd.ExecuteReader())
+            {
+                while (reader.Read())
+                    AddWordIndexBin(reader, name, privileged, pairs);
             }
+            bins[name] = pairs;
+        }
+
+        _wordIndexBins = bins;
+        return bins;
+    }
+
+    private static IDbCommand CreateWordIndexBinsCommand(
+        IDbConnection connection)
+    {
+        IDbCommand cmd = connection.CreateCommand();
+        cmd.CommandText = "SELECT DISTINCT doc_attr_value FROM word_count " +
+            "WHERE doc_attr_name=@name;";
+        AddParameter(cmd, "@name", DbType.String, "");
+        return cmd;
+    }
+
+    private static void AddWordIndexBin(IDataRecord record, string name,
+        HashSet<string> privileged, List<DocumentPair> pairs)
+    {
+        if (TryParseWordIndexBin(record.GetString(0),
+            out double min, out double max))
+        {
+            pairs.Add(new DocumentPair(name, min, max,
+                privileged.Contains(name)));
+        }
+    }
+
+    /// <summary>
+    /// Parses the value of a numeric bin in the word counts, stored as
+    /// <c>min:max</c>.
+    /// </summary>
+    /// <param name="value">The value.</param>
+    /// <param name="min">The bin minimum value.</param>
+    /// <param name="max">The bin maximum value.</param>
+    /// <returns>True if the value is a bin.</returns>
+    private static bool TryParseWordIndexBin(string value, out double min,
+        out double max)
+    {
+        string[] range = value.Split(':');
+        min = max = 0;
+        return range.Length == 2 &&
+            double.TryParse(range[0], NumberStyles.Float,
+                CultureInfo.InvariantCulture, out min) &&
+            double.TryParse(range[1], NumberStyles.Float,
+                CultureInfo.InvariantCulture, out max);
+    }
+
+    /// <summary>
+    /// Gets the words index options required to subtract the specified
+    /// document from the words index, as found in the index itself: a
+    /// document attribute whose counts all have bin values is binned.
+    /// This is used when the options of the words index build are not
+    /// known, like when deleting a document. Only the pairs counting the
+    /// document's words are considered.
+    /// </summary>
+    /// <param name="connection">The connection.</param>
+    /// <param name="documentId">The document identifier.</param>
+    /// <param name="cancel">The cancellation token.</param>
+    /// <returns>Options.</returns>
+    private static async Task<WordIndexOptions> GetIndexedWordOptionsAsync(
+        IDbConnection connection, int documentId, CancellationToken cancel)
+    {
+        await using DbCommand cmd = (DbCommand)CreateIndexedWordOptionsCommand(
+            connection, documentId);
+
+        Dictionary<string, bool> binned = [];
+        await using (DbDataReader reader = await cmd.ExecuteReaderAsync(cancel))
+        {
+            while (await reader.ReadAsync(cancel))
+                AddIndexedWordOption(reader, binned);
+        }
+        return CreateIndexedWordOptions(binned);
+    }
+
+    /// <summary>
+    /// Gets the words index options required to subtract the specified
+    /// document from the words index, like
+    /// <see cref="GetIndexedWordOptionsAsync"/>.
+    /// </summary>
+    /// <param name="connection">The connection.</param>
+    /// <param name="documentId">The document identifier.</param>
+    /// <returns>Options.</returns>
+    private static WordIndexOptions GetIndexedWordOptions(
+        IDbConnection connection, int documentId)
+    {
+        using IDbCommand cmd = CreateIndexedWordOptionsCommand(connection,
+            documentId);
+
+        Dictionary<string, bool> binned = [];
+        using (IDataReader reader = cmd.ExecuteReader())
+        {
+            while (reader.Read()) AddIndexedWordOption(reader, binned);
+        }
+        return CreateIndexedWordOptions(binned);
+    }
+
+    private static IDbCommand CreateIndexedWordOptionsCommand(
+        IDbConnection connection, int documentId)
+    {
+        IDbCommand cmd = connection.CreateCommand();
+        cmd.CommandText = "SELECT DISTINCT doc_attr_name, doc_attr_value " +
+            "FROM word_count WHERE word_id IN(SELECT word_id FROM span " +
+            "WHERE document_id=@document_id AND word_id IS NOT NULL);";
+        AddParameter(cmd, "@document_id", DbType.Int32, documentId);
+        return cmd;
+    }
+
+    private static void AddIndexedWordOption(IDataRecord record,
+        Dictionary<string, bool> binned)
+    {
+        string name = record.GetString(0);
+        bool bin = TryParseWordIndexBin(record.GetString(1), out _, out _);
+        binned[name] = (!binned.TryGetValue(name, out bool b) || b) && bin;
+    }
+
+    private static WordIndexOptions CreateIndexedWordOptions(
+        Dictionary<string, bool> binned)
+    {
+        // the bin counts are not used when updating the index
+        return new WordIndexOptions
+        {
+            BinCounts = binned.Where(p => p.Value)
+                .ToDictionary(p => p.Key, _ => 0)
+        };
+    }
+
+    /// <summary>
+    /// Gets the document attribute pairs which may include the specified
+    /// document: its own categorical pairs, and all the numeric bins.
+    /// This mirrors <see cref="GetDocumentPairsAsync"/> for a single
+    /// document.
+    /// </summary>
+    /// <param name="connection">The connection.</param>
+    /// <param name="documentId">The document identifier.</param>
+    /// <param name="options">The words index options.</param>
+    /// <param name="cancel">The cancellation token.</param>
+    /// <returns>Pairs.</returns>
+    private async Task<IList<DocumentPair>> GetDocumentWordPairsAsync(
+        IDbConnection connection, int documentId, WordIndexOptions options,
+        CancellationToken cancel)
+    {
+        HashSet<string> privileged = GetWordPairPrivilegedAttrs();
+        HashSet<string> binned = GetWordPairBinnedAttrs(options);
+        List<DocumentPair> pairs = [];
+
+        await using DbCommand cmd = (DbCommand)connection.CreateCommand();
+        AddParameter(cmd, "@document_id", DbType.Int32, documentId);
 
-            // move to the next page
-            offset += pageSize;
-            cmd.CommandText = sql + SqlHelper.BuildPaging(offset, pageSize);
+        // (A.1) categorical, privileged
+        string[] names = [.. privileged.Where(n => !binned.Contains(n))];
+        if (names.Length > 0)
+        {
+            cmd.CommandText = BuildPrivilegedWordPairsSql(names);
+            await using DbDataReader reader = await cmd.ExecuteReaderAsync(
+                cancel);
+            if (await reader.ReadAsync(cancel))
+                AddPrivilegedWordPairs(reader, names, pairs);
+        }
 
-            // report progress if requested
-            if (progress != null)
-            {
-                report.Percent = (i + 1) * 100 / pageCount;
-                report.Message = "Inserting words...";
-                progress.Report(report);
-            }
+        // (A.2) categorical, non-privileged
+        cmd.CommandText = DOC_WORD_PAIRS_SQL;
+        await using (DbDataReader reader = await cmd.ExecuteReaderAsync(cancel))
+        {
+            while (await reader.ReadAsync(cancel))
+                AddWordPair(reader, options, privileged, binned, pairs);
         }
 
-        // if there are any words left in the batch, flush them
-        if (words.Count > 0) await BatchInsertWords(connection2, words);
+        // (B) numeric: the query picks the bin including the document
+        foreach (IList<DocumentPair> bins in (await GetWordIndexBinsAsync(
+            connection, options.BinCounts, privileged, cancel)).Values)
+        {
+            pairs.AddRange(bins);
+        }
 
-        // update word ID FK in span table
-        report.Message = "Updating span table...";
-        progress?.Report(report);
-        await AssignWordIdsAsync(connection2,
-            excludedAttrNames, excludedPosValues);
+        return pairs;
     }
 
     /// <summary>
-    /// Insert a batch of lemmata.
+    /// Gets the document attribute pairs which may include the specified
+    /// document, like <see cref="GetDocumentWordPairsAsync"/>.
     /// </summary>
     /// <param name="connection">The connection.</param>
-    /// <param name="lemmata">The lemmata.</param>
-    protected virtual async Task BatchInsertLemmata(IDbConnection connection,
-        List<Lemma> lemmata)
+    /// <param name="documentId">The document identifier.</param>
+    /// <param name="options">The words index options.</param>
+    /// <returns>Pairs.</returns>
+    private IList<DocumentPair> GetDocumentWordPairs(IDbConnection connection,
+        int documentId, WordIndexOptions options)
     {
-        DbCommand cmdInsert = (DbCommand)connection.CreateCommand();
-        cmdInsert.CommandText =
-            "INSERT INTO lemma(pos, language, value, reversed_value, count)\n" +
-            "VALUES(@pos, @language, @value, @reversed_value, @count);";
-        AddParameter(cmdInsert, "@pos", DbType.String, "");
-        AddParameter(cmdInsert, "@language", DbType.String, "");
-        AddParameter(cmdInsert, "@value", DbType.String, "");
-        AddParameter(cmdInsert, "@reversed_value", DbType.String, "");
-        AddParameter(cmdInsert, "@count", DbType.Int32, 0);
+        HashSet<string> privileged = GetWordPairPrivilegedAttrs();
+        HashSet<string> binned = GetWordPairBinnedAttrs(options);
+        List<DocumentPair> pairs = [];
 
-        foreach (Lemma lemma in lemmata)
+        using IDbCommand cmd = connection.CreateCommand();
+        AddParameter(cmd, "@document_id", DbType.Int32, documentId);
+
+        // (A.1) categorical, privileged
+        string[] names = [.. privileged.Where(n => !binned.Contains(n))];
+        if (names.Length > 0)
         {
-            cmdInsert.Parameters["@pos"].Value =
-                GetTruncatedString(lemma.Pos, POS_MAX)
-                ?? (object)DBNull.Value;
-            cmdInsert.Parameters["@language"].Value =
-                GetTruncatedString(lemma.Language, LANGUAGE_MAX)
-                ?? (object)DBNull.Value;
-            cmdInsert.Parameters["@value"].Value =
-                GetTruncatedString(lemma.Value, VALUE_MAX);
-            cmdInsert.Parameters["@reversed_value"].Value =
-                GetTruncatedString(lemma.ReversedValue, VALUE_MAX);
-            cmdInsert.Parameters["@count"].Value = lemma.Count;
+            cmd.CommandText = BuildPrivilegedWordPairsSql(names);
+            using IDataReader reader = cmd.ExecuteReader();
+            if (reader.Read()) AddPrivilegedWordPairs(reader, names, pairs);
+        }
 
-            await cmdInsert.ExecuteNonQueryAsync();
+        // (A.2) categorical, non-privileged
+        cmd.CommandText = DOC_WORD_PAIRS_SQL;
+        using (IDataReader reader = cmd.ExecuteReader())
+        {
+            while (reader.Read())
+                AddWordPair(reader, options, privileged, binned, pairs);
+        }
+
+        // (B) numeric: the query picks the bin including the document
+        foreach (IList<DocumentPair> bins in GetWordIndexBins(connection,
+            options.BinCounts, privileged).Values)
+        {
+            pairs.AddRange(bins);
+        }
+
+        return pairs;
+    }
+
+    private const string DOC_WORD_PAIRS_SQL =
+        "SELECT DISTINCT name, value FROM document_attribute " +
+        "WHERE document_id=@document_id;";
+
+    private static HashSet<string> GetWordPairPrivilegedAttrs() =>
+    [
+        .. TextSpan.GetPrivilegedAttrs(false).Except(
+            ["title", "source", "profile_id", "sort_key"])
+    ];
+
+    private static HashSet<string> GetWordPairBinnedAttrs(
+        WordIndexOptions options) =>
+        [.. options.BinCounts.Keys.Select(k => ParseBinName(k).Item1)];
+
+    private static string BuildPrivilegedWordPairsSql(string[] names) =>
+        $"SELECT {string.Join(", ", names)} " +
+        "FROM document WHERE id=@document_id;";
+
+    private static void AddPrivilegedWordPairs(IDataRecord record,
+        string[] names, List<DocumentPair> pairs)
+    {
+        for (int i = 0; i < names.Length; i++)
+        {
+            if (record.IsDBNull(i)) continue;
+            pairs.Add(new DocumentPair(names[i],
+                Convert.ToString(record.GetValue(i),
+                    CultureInfo.InvariantCulture)!,
+                true));
+        }
+    }
+
+    private static void AddWordPair(IDataRecord record,
+        WordIndexOptions options, HashSet<string> privileged,
+        HashSet<string> binned, List<DocumentPair> pairs)
+    {
+        string name = record.GetString(0);
+        if (options.ExcludedAttrNames.Contains(name) ||
+            binned.Contains(name) || privileged.Contains(name))
+        {
+            return;
         }
+        pairs.Add(new DocumentPair(name, record.GetString(1), false));
     }
 
     /// <summary>
-    /// Insert lemmata into the database, fetching them from the list of words,
-    /// grouped by their language, POS and lemma.
+    /// Inserts the specified words, with a count of 0, unless they are
+    /// already present in the words index. Words are inserted in batches,
+    /// each with a single set-based statement.
     /// </summary>
-    /// <remarks>This works as follows:
-    /// <para>- count the total pages of words to fetch;</para>
-    /// <para>- fetch each word page, where words are grouped by language, 
-    /// POS, and lemma(excluding words having a NULL lemma);</para>
-    /// <para>- for each lemma, add it to the lemmata table(in batches for
-    /// better performance); the lemma count is equal to the sum of all its
-    /// words counts;</para>
-    /// <para>- finally, assign FK lemma_id to each word which was grouped into
-    /// a lemma, and to each span having a word_id FK and belonging to the same
-    /// lemma.</para>
-    /// </remarks>
     /// <param name="connection">The connection.</param>
-    /// <param name="pageSize">The page size.</param>
+    /// <param name="words">The words.</param>
     /// <param name="cancel">The cancellation token.</param>
-    /// <param name="progress">The progress reporter.</param>
-    private async Task InsertLemmataAsync(IDbConnection connection,
-        int pageSize,
-        CancellationToken cancel,
-        IProgress<ProgressReport>? progress = null)
+    private static async Task InsertMissingWordsAsync(
+        IDbConnection connection, IList<Word> words, CancellationToken cancel)
     {
-        ProgressReport? report = new();
         const int batchSize = 1000;
-        List<Lemma> lemmata = new(batchSize);
+        for (int i = 0; i < words.Count; i += batchSize)
+        {
+            await using DbCommand cmd = (DbCommand)connection.CreateCommand();
+            StringBuilder sql = new(
+                "INSERT INTO word(language, value, reversed_value, pos, " +
+                "lemma, count)\n" +
+                "SELECT DISTINCT v.language, v.value, v.reversed_value, " +
+                "v.pos, v.lemma, 0\nFROM (VALUES ");
+
+            int n = 0;
+            foreach (Word word in words.Skip(i).Take(batchSize))
+            {
+                if (n > 0) sql.Append(',');
+                sql.Append($"(@l{n},@v{n},@r{n},@p{n},@m{n})");
+                AddParameter(cmd, $"@l{n}", DbType.String,
+                    GetTruncatedString(word.Language, LANGUAGE_MAX)
+                    ?? (object)DBNull.Value);
+                AddParameter(cmd, $"@v{n}", DbType.String,
+                    GetTruncatedString(word.Value, VALUE_MAX)!);
+                AddParameter(cmd, $"@r{n}", DbType.String,
+                    GetTruncatedString(word.ReversedValue, VALUE_MAX)!);
+                AddParameter(cmd, $"@p{n}", DbType.String,
+                    GetTruncatedString(word.Pos, POS_MAX)
+                    ?? (object)DBNull.Value);
+                AddParameter(cmd, $"@m{n}", DbType.String,
+                    GetTruncatedString(word.Lemma, LEMMA_MAX)
+                    ?? (object)DBNull.Value);
+                n++;
+            }
 
-        // prepare insert command
-        IDbConnection connection2 = GetConnection();
-        connection2.Open();
+            sql.Append(")\nAS v(language, value, reversed_value, pos, lemma)\n" +
+                "WHERE NOT EXISTS(SELECT 1 FROM word w\n" +
+                "  WHERE COALESCE(w.language, '')=COALESCE(v.language, '')\n" +
+                "  AND w.value=v.value\n" +
+                "  AND COALESCE(w.pos, '')=COALESCE(v.pos, '')\n" +
+                "  AND w.lemma=v.lemma);");
+            cmd.CommandText = sql.ToString();
+            await cmd.ExecuteNonQueryAsync(cancel);
+        }
+    }
 
-        // get the total counts of lemmata and their pages
-        DbCommand cmd = (DbCommand)connection.CreateCommand();
-        cmd.CommandText =
-            "SELECT COUNT(*) FROM(\n" +
-            "SELECT pos, language, LOWER(lemma)\n" +
-            "FROM word\n" +
-            "WHERE lemma IS NOT NULL\n" +
-            "GROUP BY pos, language, LOWER(lemma))\nAS s;";
-        object? result = await cmd.ExecuteScalarAsync();
-        if (result == null) return;
-        long? total = result as long?;
-        if (total == null || total.Value == 0) return;
-        int pageCount = (int)Math.Ceiling((double)total.Value / pageSize);
+    /// <summary>
+    /// Adds to the words index the words of the specified document's token
+    /// spans which are not yet present, with a count of 0, and links the
+    /// spans to them. The same happens for the lemmata of these words.
+    /// </summary>
+    /// <param name="connection">The connection.</param>
+    /// <param name="documentId">The document identifier.</param>
+    /// <param name="options">The words index options.</param>
+    /// <param name="cancel">The cancellation token.</param>
+    private async Task InsertDocumentWordsAsync(IDbConnection connection,
+        int documentId, WordIndexOptions options, CancellationToken cancel)
+    {
+        // words
+        List<Word> words = [];
+        await using (DbCommand cmd = (DbCommand)connection.CreateCommand())
+        {
+            cmd.CommandText = BuildWordFetchQuery(options.Language,
+                options.ExcludedSpanAttrNames, options.ExcludedPosValues,
+                false, documentId);
+            await using DbDataReader reader = await cmd.ExecuteReaderAsync(
+                cancel);
+            while (await reader.ReadAsync(cancel))
+            {
+                Word word = new()
+                {
+                    Language = await reader.IsDBNullAsync(0)
+                        ? null : reader.GetString(0),
+                    Value = reader.GetString(1),
+                    Pos = await reader.IsDBNullAsync(2)
+                        ? null : reader.GetString(2),
+                    Lemma = await reader.IsDBNullAsync(3)
+                        ? null : reader.GetString(3)
+                };
+                // skip non-letter words
+                if (!word.Value.All(char.IsLetter) ||
+                    word.Lemma?.All(char.IsLetter) != true)
+                {
+                    continue;
+                }
+                word.ReversedValue = word.Value.Length > 1
+                    ? new string([.. word.Value.Reverse()])
+                    : word.Value;
+                words.Add(word);
+            }
+        }
 
-        // prepare fetch command
-        const string sql =
-            "SELECT pos, language, LOWER(lemma) AS value, SUM(count) AS count\n" +
-            "FROM word\n" +
-            "WHERE lemma IS NOT NULL\n" +
-            "GROUP BY pos, language, LOWER(lemma)\n" +
-            "ORDER BY LOWER(lemma)\n";
-        cmd.CommandText = sql + SqlHelper.BuildPaging(0, pageSize);
+        await InsertMissingWordsAsync(connection, words, cancel);
 
-        // process by pages
-        int offset = 0;
-        for (int i = 0; i < pageCount; i++)
+        await AssignWordIdsAsync(connection, options.ExcludedSpanAttrNames,
+            options.ExcludedPosValues, documentId);
+
+        // lemmata of the document's words not yet linked to a lemma
+        string docWords = "SELECT word_id FROM span WHERE document_id=" +
+            documentId.ToString(CultureInfo.InvariantCulture) +
+            " AND word_id IS NOT NULL";
+        List<Lemma> lemmata = [];
+        await using (DbCommand cmd = (DbCommand)connection.CreateCommand())
         {
-            await using (DbDataReader reader = await cmd.ExecuteReaderAsync())
+            cmd.CommandText =
+                "SELECT DISTINCT w.pos, w.language, LOWER(w.lemma) AS value\n" +
+                "FROM word w\n" +
+                "WHERE w.lemma_id IS NULL AND w.lemma IS NOT NULL\n" +
+                $"AND w.id IN({docWords})\n" +
+                "AND NOT EXISTS(SELECT 1 FROM lemma l\n" +
+                "  WHERE COALESCE(l.pos, '')=COALESCE(w.pos, '')\n" +
+                "  AND COALESCE(l.language, '')=COALESCE(w.language, '')\n" +
+                "  AND l.value=LOWER(w.lemma));";
+            await using DbDataReader reader = await cmd.ExecuteReaderAsync(
+                cancel);
+            while (await reader.ReadAsync(cancel))
             {
-                // for each lemma in the page
-                while (await reader.ReadAsync())
+                Lemma lemma = new()
                 {
-                    if (cancel.IsCancellationRequested) break;
+                    Pos = await reader.IsDBNullAsync(0)
+                        ? null : reader.GetString(0),
+                    Language = await reader.IsDBNullAsync(1)
+                        ? null : reader.GetString(1),
+                    Value = reader.GetString(2)
+                };
+                // skip non-letter lemmata
+                if (!lemma.Value.All(char.IsLetter)) continue;
+                lemma.ReversedValue = lemma.Value.Length > 1
+                    ? new string([.. lemma.Value.Reverse()])
+                    : lemma.Value;
+                lemmata.Add(lemma);
+            }
+        }
+        if (lemmata.Count > 0) await BatchInsertLemmata(connection, lemmata);
 
-                    // materialize the lemma
-                    Lemma lemma = new()
-                    {
-                        Pos = await reader.IsDBNullAsync(0)
-                            ? null : reader.GetString(0),
-                        Language = await reader.IsDBNullAsync(1)
-                            ? null : reader.GetString(1),
-                        Value = reader.GetString(2),
-                        Count = reader.GetInt32(3)
-                    };
-                    lemma.ReversedValue = lemma.Value.Length > 1
-                        ? new string([.. lemma.Value.Reverse()])
-                        : lemma.Value;
+        await using (DbCommand cmd = (DbCommand)connection.CreateCommand())
+        {
+            cmd.CommandText = "UPDATE word SET lemma_id=lemma.id\n" +
+                "FROM lemma\n" +
+                "WHERE COALESCE (word.pos,'')=COALESCE(lemma.pos, '')\n" +
+                "AND COALESCE (word.language,'')=COALESCE(lemma.language, '')\n" +
+                "AND LOWER(word.lemma) = lemma.value\n" +
+                "AND word.lemma IS NOT NULL AND word.lemma_id IS NULL\n" +
+                $"AND word.id IN({docWords});\n" +
+                "UPDATE span SET lemma_id=lemma.id\n" +
+                "FROM lemma\n" +
+                "WHERE COALESCE (span.pos,'')=COALESCE(lemma.pos, '')\n" +
+                "AND COALESCE (span.language,'')=COALESCE(lemma.language, '')\n" +
+                "AND LOWER(span.lemma) = lemma.value\n" +
+                "AND span.lemma IS NOT NULL\n" +
+                "AND span.word_id IS NOT NULL\n" +
+                "AND span.document_id=" +
+                documentId.ToString(CultureInfo.InvariantCulture) + ";";
+            await cmd.ExecuteNonQueryAsync(cancel);
+        }
+    }
 
-                    // skip non-letter lemmata
-                    if (!lemma.Value.All(char.IsLetter)) continue;
+    /// <summary>
+    /// Applies to the words index the counts of the specified document,
+    /// adding or subtracting them.
+    /// </summary>
+    /// <param name="connection">The connection.</param>
+    /// <param name="documentId">The document identifier.</param>
+    /// <param name="options">The words index options.</param>
+    /// <param name="sign">1 to add the counts, -1 to subtract them.</param>
+    /// <param name="cancel">The cancellation token.</param>
+    private async Task ApplyDocumentWordCountsAsync(IDbConnection connection,
+        int documentId, WordIndexOptions options, int sign,
+        CancellationToken cancel)
+    {
+        // word and lemma counts for each document pair: existing counts
+        // are updated, missing ones inserted
+        IList<DocumentPair> pairs = await GetDocumentWordPairsAsync(
+            connection, documentId, options, cancel);
 
-                    // add the lemma to the batch
-                    lemmata.Add(lemma);
+        await using DbCommand cmd = (DbCommand)connection.CreateCommand();
+        cmd.CommandText = BuildDocumentWordCountsSql(documentId, pairs, sign);
+        await cmd.ExecuteNonQueryAsync(cancel);
+    }
 
-                    // if the batch is full, flush it
-                    if (lemmata.Count == batchSize)
-                    {
-                        await BatchInsertLemmata(connection2, lemmata);
-                        lemmata.Clear();
-                    }
-                }
-            }
+    /// <summary>
+    /// Applies to the words index the counts of the specified document,
+    /// like <see cref="ApplyDocumentWordCountsAsync"/>.
+    /// </summary>
+    /// <param name="connection">The connection.</param>
+    /// <param name="documentId">The document identifier.</param>
+    /// <param name="options">The words index options.</param>
+    /// <param name="sign">1 to add the counts, -1 to subtract them.</param>
+    private void ApplyDocumentWordCounts(IDbConnection connection,
+        int documentId, WordIndexOptions options, int sign)
+    {
+        IList<DocumentPair> pairs = GetDocumentWordPairs(connection,
+            documentId, options);
 
-            // move to the next page
-            offset += pageSize;
-            cmd.CommandText = sql + SqlHelper.BuildPaging(offset, pageSize);
+        using IDbCommand cmd = connection.CreateCommand();
+        cmd.CommandText = BuildDocumentWordCountsSql(documentId, pairs, sign);
+        cmd.ExecuteNonQuery();
+    }
 
-            // report progress if requested
-            if (progress != null)
+    /// <summary>
+    /// Builds the SQL code applying to the words index the counts of the
+    /// specified document.
+    /// </summary>
+    /// <param name="documentId">The document identifier.</param>
+    /// <param name="pairs">The document attribute pairs which may include
+    /// the document.</param>
+    /// <param name="sign">1 to add the counts, -1 to subtract them.</param>
+    /// <returns>SQL.</returns>
+    private string BuildDocumentWordCountsSql(int documentId,
+        IList<DocumentPair> pairs, int sign)
+    {
+        string id = documentId.ToString(CultureInfo.InvariantCulture);
+        StringBuilder sql = new();
+
+        // word and lemma totals
+        sql.Append("UPDATE word SET count=word.count+d.n\n" +
+            $"FROM (SELECT word_id, COUNT(*)*{sign} AS n FROM span\n" +
+            $"  WHERE document_id={id} AND word_id IS NOT NULL\n" +
+            "  GROUP BY word_id) AS d\n" +
+            "WHERE word.id=d.word_id;\n");
+        sql.Append("UPDATE lemma SET count=lemma.count+d.n\n" +
+            $"FROM (SELECT lemma_id, COUNT(*)*{sign} AS n FROM span\n" +
+            $"  WHERE document_id={id} AND lemma_id IS NOT NULL\n" +
+            "  GROUP BY lemma_id) AS d\n" +
+            "WHERE lemma.id=d.lemma_id;\n");
+
+        // word and lemma counts for each document pair
+        if (pairs.Count > 0)
+        {
+            StringBuilder union = new();
+            for (int i = 0; i < pairs.Count; i++)
             {
-                report.Percent = (i + 1) * 100 / pageCount;
-                report.Message = "Inserting lemmata...";
-                progress.Report(report);
+                if (i > 0) union.Append("\nUNION ALL\n");
+                AppendWordCountUnionClause(pairs[i], union, documentId);
             }
+
+            sql.Append("WITH d AS (\n" +
+                "SELECT word_id, lemma_id, doc_attr_name, doc_attr_value, " +
+                $"count*{sign} AS count FROM (\n")
+               .Append(union)
+               .Append(") AS c),\n" +
+                "u AS (UPDATE word_count wc SET count=wc.count+d.count\n" +
+                "  FROM d WHERE wc.word_id=d.word_id\n" +
+                "  AND wc.doc_attr_name=d.doc_attr_name\n" +
+                "  AND wc.doc_attr_value=d.doc_attr_value\n" +
+                "  RETURNING wc.word_id, wc.doc_attr_name, wc.doc_attr_value)\n" +
+                "INSERT INTO word_count(" +
+                "word_id, lemma_id, doc_attr_name, doc_attr_value, count)\n" +
+                "SELECT word_id, lemma_id, doc_attr_name, doc_attr_value, count\n" +
+                "FROM d WHERE count>0 AND NOT EXISTS(SELECT 1 FROM u\n" +
+                "  WHERE u.word_id=d.word_id\n" +
+                "  AND u.doc_attr_name=d.doc_attr_name\n" +
+                "  AND u.doc_attr_value=d.doc_attr_value);\n");
+
+            sql.Append("WITH d AS (\n" +
+                "SELECT lemma_id, doc_attr_name, doc_attr_value, " +
+                $"SUM(count)*{sign} AS count FROM (\n")
+               .Append(union)
+               .Append(") AS c WHERE lemma_id IS NOT NULL\n" +
+                "GROUP BY lemma_id, doc_attr_name, doc_attr_value),\n" +
+                "u AS (UPDATE lemma_count lc SET count=lc.count+d.count\n" +
+                "  FROM d WHERE lc.lemma_id=d.lemma_id\n" +
+                "  AND lc.doc_attr_name=d.doc_attr_name\n" +
+                "  AND lc.doc_attr_value=d.doc_attr_value\n" +
+                "  RETURNING lc.lemma_id, lc.doc_attr_name, lc.doc_attr_value)\n" +
+                "INSERT INTO lemma_count(" +
+                "lemma_id, doc_attr_name, doc_attr_value, count)\n" +
+                "SELECT lemma_id, doc_attr_name, doc_attr_value, count\n" +
+                "FROM d WHERE count>0 AND NOT EXISTS(SELECT 1 FROM u\n" +
+                "  WHERE u.lemma_id=d.lemma_id\n" +
+                "  AND u.doc_attr_name=d.doc_attr_name\n" +
+                "  AND u.doc_attr_value=d.doc_attr_value);\n");
         }
 
-        // if there are any lemmata left in the batch, flush them
-        if (lemmata.Count > 0)
-            await BatchInsertLemmata(connection2, lemmata);
+        return sql.ToString();
+    }
 
-        // update lemma ID FK in word table
-        report.Message = "Updating word table...";
-        progress?.Report(report);
-        cmd.CommandText = "UPDATE word SET lemma_id=lemma.id\n" +
-            "FROM lemma\n" +
-            "WHERE COALESCE (word.pos,'')=COALESCE(lemma.pos, '')\n" +
-            "AND COALESCE (word.language,'')=COALESCE(lemma.language, '')\n" +
-            "AND LOWER(word.lemma) = lemma.value\n" +
-            "AND word.lemma IS NOT NULL;";
-        cmd.CommandTimeout = 3600; // 1 hour
-        await cmd.ExecuteNonQueryAsync();
+    /// <summary>
+    /// Subtracts the counts of the specified document from the words index,
+    /// removes the words, lemmata and counts dropping to 0, and unlinks
+    /// the document's spans from words and lemmata.
+    /// </summary>
+    /// <param name="connection">The connection.</param>
+    /// <param name="documentId">The document identifier.</param>
+    /// <param name="options">The words index options.</param>
+    /// <param name="cancel">The cancellation token.</param>
+    private async Task SubtractDocumentWordsAsync(IDbConnection connection,
+        int documentId, WordIndexOptions options, CancellationToken cancel)
+    {
+        await ApplyDocumentWordCountsAsync(connection, documentId, options, -1,
+            cancel);
 
-        // update lemma ID FK in span table - only for spans that already have
-        // word_id. This ensures we respect the same exclusions that were
-        // applied during word collection
-        report.Message = "Updating span table...";
-        progress?.Report(report);
-        cmd.CommandText = "UPDATE span SET lemma_id=lemma.id\n" +
-            "FROM lemma\n" +
-            "WHERE COALESCE (span.pos,'')=COALESCE(lemma.pos, '')\n" +
-            "AND COALESCE (span.language,'')=COALESCE(lemma.language, '')\n" +
-            "AND LOWER(span.lemma) = lemma.value\n" +
-            "AND span.lemma IS NOT NULL\n" +
-            // only update spans that have a word_id, ensuring consistency
-            // with word exclusions
-            "AND span.word_id IS NOT NULL;";
-        cmd.CommandTimeout = 3600; // 1 hour
-        await cmd.ExecuteNonQueryAsync();
+        await using DbCommand cmd = (DbCommand)connection.CreateCommand();
+        cmd.CommandText = BuildUnlinkDocumentWordsSql(documentId);
+        await cmd.ExecuteNonQueryAsync(cancel);
     }
 
     /// <summary>
-    /// Gets the distinct names of all document's attributes.
+    /// Subtracts the counts of the specified document from the words index,
+    /// like <see cref="SubtractDocumentWordsAsync"/>.
     /// </summary>
     /// <param name="connection">The connection.</param>
-    /// <returns>Names.</returns>
-    private static async Task<HashSet<string>> GetDocAttrNamesAsync(
-        IDbConnection connection)
+    /// <param name="documentId">The document identifier.</param>
+    /// <param name="options">The words index options.</param>
+    private void SubtractDocumentWords(IDbConnection connection,
+        int documentId, WordIndexOptions options)
     {
-        DbCommand cmd = (DbCommand)connection.CreateCommand();
-        cmd.CommandText = "SELECT DISTINCT name FROM document_attribute;";
-
-        HashSet<string> names = [];
-        using DbDataReader reader = await cmd.ExecuteReaderAsync();
-        while (reader.Read()) names.Add(reader.GetString(0));
+        ApplyDocumentWordCounts(connection, documentId, options, -1);
 
-        return names;
+        using IDbCommand cmd = connection.CreateCommand();
+        cmd.CommandText = BuildUnlinkDocumentWordsSql(documentId);
+        cmd.ExecuteNonQuery();
     }
 
     /// <summary>
-    /// Reads a numeric document pair's minimum and maximum values using the
-    /// specified SQL command to fetch them.
+    /// Builds the SQL code removing the words, lemmata and counts of the
+    /// specified document which dropped to 0, and unlinking the document's
+    /// spans from words and lemmata.
     /// </summary>
-    /// <param name="cmd">The SQL command.</param>
-    /// <param name="name">The pair's name.</param>
-    /// <param name="privileged">True if the pair refers to a privileged
-    /// attribute.</param>
-    /// <param name="integer">True to use integer bins.</param>
-    /// <param name="binCount">The desired bins count.</param>
-    /// <returns>List of pairs.</returns>
-    private static async Task<IList<DocumentPair>> ReadDocumentPairMinMaxAsync(
-        DbCommand cmd, string name, bool privileged, bool integer, int binCount)
+    /// <param name="documentId">The document identifier.</param>
+    /// <returns>SQL.</returns>
+    private static string BuildUnlinkDocumentWordsSql(int documentId)
     {
-        await using var reader = await cmd.ExecuteReaderAsync();
+        string id = documentId.ToString(CultureInfo.InvariantCulture);
+        string docWords = $"SELECT word_id FROM span WHERE document_id={id}";
+        string docLemmata = $"SELECT lemma_id FROM span WHERE document_id={id}";
+
+        return
+            $"DELETE FROM word_count WHERE count<=0 AND word_id IN({docWords});\n" +
+            $"DELETE FROM lemma_count WHERE count<=0 AND lemma_id IN({docLemmata});\n" +
+            $"DELETE FROM word WHERE count<=0 AND id IN({docWords});\n" +
+            $"DELETE FROM lemma WHERE count<=0 AND id IN({docLemmata});\n" +
+            "UPDATE span SET word_id=NULL, lemma_id=NULL\n" +
+            $"WHERE document_id={id} " +
+            "AND (word_id IS NOT NULL OR lemma_id IS NOT NULL);";
+    }
 
-        if (await reader.ReadAsync())
-        {
-            if (await reader.IsDBNullAsync(0)) return [];
+    /// <summary>
+    /// Adds to the words index the words of the specified document. Call
+    /// this after the document and its token spans have been stored.
+    /// If the document's spans are already linked to words, the document
+    /// is removed from the index before being added again.
+    /// </summary>
+    /// <param name="documentId">The document identifier.</param>
+    /// <param name="options">The words index options.</param>
+    /// <param name="cancel">The cancellation token.</param>
+    /// <exception cref="ArgumentNullException">options</exception>
+    public async Task AddDocumentWordsAsync(int documentId,
+        WordIndexOptions options, CancellationToken cancel)
+    {
+        ArgumentNullException.ThrowIfNull(options);
 
-            // if fields are strings, read as string and then parse double
-            double min, max;
-            if (reader.GetFieldType(0) == typeof(string))
-            {
-                string n = reader.GetString(0);
-                string m = reader.GetString(1);
+        using IDbConnection connection = GetConnection();
+        connection.Open();
+        using IDbTransaction trans = connection.BeginTransaction();
 
-                if (string.IsNullOrEmpty(n) || string.IsNullOrEmpty(m))
-                    return [];
-                min = double.Parse(n, CultureInfo.InvariantCulture);
-                max = double.Parse(m, CultureInfo.InvariantCulture);
-                return DocumentPair.GenerateBinPairs(name, privileged, integer,
-                    min, max, binCount);
-            }
-            else
+        try
+        {
+            await using (DbCommand cmd = (DbCommand)connection.CreateCommand())
             {
-                min = reader.GetDouble(0);
-                max = reader.GetDouble(1);
+                cmd.CommandText = "SELECT 1 FROM span WHERE document_id=" +
+                    documentId.ToString(CultureInfo.InvariantCulture) +
+                    " AND word_id IS NOT NULL LIMIT 1;";
+                if (await cmd.ExecuteScalarAsync(cancel) != null)
+                {
+                    await SubtractDocumentWordsAsync(connection, documentId,
+                        options, cancel);
+                }
             }
 
-            return DocumentPair.GenerateBinPairs(name, privileged, integer,
-                min, max, binCount);
+            await InsertDocumentWordsAsync(connection, documentId, options,
+                cancel);
+            await ApplyDocumentWordCountsAsync(connection, documentId, options,
+                1, cancel);
+            trans.Commit();
+        }
+        catch (Exception ex)
+        {
+            Debug.WriteLine(ex.ToString());
+            trans.Rollback();
+            throw;
         }
-        return [];
     }
 
-    private static (string, bool) ParseBinName(string name)
+    /// <summary>
+    /// Removes from the words index the words of the specified document.
+    /// Call this before the document's attributes or token spans are
+    /// changed or deleted. Words and lemmata whose count drops to 0 are
+    /// removed.
+    /// </summary>
+    /// <param name="documentId">The document identifier.</param>
+    /// <param name="options">The words index options.</param>
+    /// <param name="cancel">The cancellation token.</param>
+    /// <exception cref="ArgumentNullException">options</exception>
+    public async Task RemoveDocumentWordsAsync(int documentId,
+        WordIndexOptions options, CancellationToken cancel)
     {
-        return name.StartsWith('^')
-            ? (name[1..], true)
-            : (name, false);
+        ArgumentNullException.ThrowIfNull(options);
+
+        using IDbConnection connection = GetConnection();
+        connection.Open();
+        using IDbTransaction trans = connection.BeginTransaction();
+
+        try
+        {
+            await SubtractDocumentWordsAsync(connection, documentId, options,
+                cancel);
+            trans.Commit();
+        }
+        catch (Exception ex)
+        {
+            Debug.WriteLine(ex.ToString());
+            trans.Rollback();
+            throw;
+        }
     }
 
     /// <summary>
-    /// Gets all the document attributes name=value pairs to be used when filling
-    /// word and lemma document counts.
+    /// Checks the consistency of the words index, comparing the count of
+    /// each word and lemma with the count of the token spans linked to it.
     /// </summary>
-    /// <param name="binCounts">The desired bins counts. For each attribute
-    /// (either privileged or not) which must be handled as a number,
-    /// this dictionary includes its name as the key, and the desired count
-    /// of bins as the value. For instance, an attribute named <c>year</c>
-    /// whose value is a year number would have an entry with key=<c>year</c>
-    /// and value=<c>3</c>, meaning that we want to distribute its values in
-    /// 3 bins.</param>
-    /// <param name="excludedAttrNames">The names of the non-privileged
-    /// attributes to be excluded from the pairs. All the names of
-    /// non-categorical attributes (like e.g. the file path of a document,
-    /// which is unique for each document) should be excluded.</param>
-    /// <returns>Built pairs.</returns>
-    /// <exception cref="ArgumentNullException">binCounts or excludedAttrNames
-    /// </exception>
-    public async Task<IList<DocumentPair>> GetDocumentPairsAsync(
-        IDictionary<string, int> binCounts,
-        HashSet<string> excludedAttrNames)
+    /// <param name="cancel">The cancellation token.</param>
+    /// <returns>The count of words and lemmata whose count does not match.
+    /// </returns>
+    public async Task<int> CheckWordIndexAsync(
+        CancellationToken cancel = default)
     {
-        ArgumentNullException.ThrowIfNull(binCounts);
-        ArgumentNullException.ThrowIfNull(excludedAttrNames);
+        await using DbConnection connection = (DbConnection)GetConnection();
+        await connection.OpenAsync(cancel);
 
-        // open a connection to the database
+        await using DbCommand cmd = (DbCommand)connection.CreateCommand();
+        cmd.CommandText =
+            "SELECT (SELECT COUNT(*) FROM word w\n" +
+            "  LEFT JOIN (SELECT word_id, COUNT(*) AS n FROM span\n" +
+            "    WHERE word_id IS NOT NULL GROUP BY word_id) s\n" +
+            "  ON s.word_id=w.id\n" +
+            "  WHERE w.count<>COALESCE(s.n, 0))\n" +
+            "+ (SELECT COUNT(*) FROM lemma l\n" +
+            "  LEFT JOIN (SELECT lemma_id, COUNT(*) AS n FROM span\n" +
+            "    WHERE lemma_id IS NOT NULL GROUP BY lemma_id) s\n" +
+            "  ON s.lemma_id=l.id\n" +
+            "  WHERE l.count<>COALESCE(s.n, 0));";
+        cmd.CommandTimeout = 3600; // 1 hour
+        object? result = await cmd.ExecuteScalarAsync(cancel);
+        return result == null || result is DBNull
+            ? 0 : Convert.ToInt32(result, CultureInfo.InvariantCulture);
+    }
+    #endregion
+
+    #region Word Frequency Source
+    /// <summary>
+    /// Gets a signature of the current state of the words and lemmata index.
+    /// The signature is built from the count, total frequency and maximum
+    /// ID of words and lemmata, and from the maximum ID of their counts.
+    /// </summary>
+    /// <returns>Signature.</returns>
+    public string GetWordIndexSignature()
+    {
         using IDbConnection connection = GetConnection();
         connection.Open();
+        IDbCommand cmd = connection.CreateCommand();
+        cmd.CommandText = "SELECT " +
+            "(SELECT COUNT(id) FROM word), " +
+            "(SELECT COALESCE(SUM(count),0) FROM word), " +
+            "(SELECT COALESCE(MAX(id),0) FROM word), " +
+            "(SELECT COUNT(id) FROM lemma), " +
+            "(SELECT COALESCE(SUM(count),0) FROM lemma), " +
+            "(SELECT COALESCE(MAX(id),0) FROM lemma), " +
+            "(SELECT COALESCE(MAX(id),0) FROM word_count), " +
+            "(SELECT COALESCE(MAX(id),0) FROM lemma_count);";
+        cmd.CommandTimeout = 0;
 
-        // prepare the set of privileged document attributes
-        HashSet< string> privilegedDocAttrs = [
-            .. TextSpan.GetPrivilegedAttrs(false).Except(
-                ["title", "source", "profile_id", "sort_key"])];
-        List<DocumentPair> pairs = [];
-        StringBuilder sql = new();
+        using IDataReader reader = cmd.ExecuteReader();
+        if (!reader.Read()) return "";
+        object[] values = new object[reader.FieldCount];
+        reader.GetValues(values);
+        return string.Join("/", values);
+    }
 
-        // (A) non-numeric:
-        // (A.1) privileged
-        foreach (string name in privilegedDocAttrs
-            .Where(n => !binCounts.ContainsKey(n) &&
-                        !binCounts.ContainsKey("^" + n)))
-        {
-            if (sql.Length > 0) sql.Append("UNION\n");
+    /// <summary>
+    /// Enumerates all the words.
+    /// </summary>
+    /// <returns>Words.</returns>
+    public IEnumerable<Word> EnumerateWords()
+    {
+        using IDbConnection connection = GetConnection();
+        connection.Open();
+        IDbCommand cmd = connection.CreateCommand();
+        cmd.CommandText = "SELECT id, lemma_id, value, reversed_value,\n" +
+            "language, pos, lemma, count FROM word ORDER BY id;";
+        cmd.CommandTimeout = 0;
 
-            sql.Append(
-                $"SELECT DISTINCT '{name}' AS name, {name} AS value, true AS p " +
-                "FROM document\n");
-        }
+        using IDataReader reader = cmd.ExecuteReader();
+        while (reader.Read()) yield return ReadWord(reader);
+    }
 
-        // (A.2) non-privileged
-        IList<string> docAttrNames = [.. 
-            (await GetDocAttrNamesAsync(connection)).Except(excludedAttrNames)];
+    /// <summary>
+    /// Enumerates all the lemmata.
+    /// </summary>
+    /// <returns>Lemmata.</returns>
+    public IEnumerable<Lemma> EnumerateLemmata()
+    {
+        using IDbConnection connection = GetConnection();
+        connection.Open();
+        IDbCommand cmd = connection.CreateCommand();
+        cmd.CommandText = "SELECT id, value, reversed_value,\n" +
+            "pos, language, count FROM lemma ORDER BY id;";
+        cmd.CommandTimeout = 0;
 
-        foreach (string name in docAttrNames
-            .Where(n => !binCounts.ContainsKey(n) &&
-                        !binCounts.ContainsKey("^" + n) &&
-                        !privilegedDocAttrs.Contains(n) &&
-                        !privilegedDocAttrs.Contains("^" + n)))
-        {
-            if (sql.Length > 0) sql.Append("UNION\n");
+        using IDataReader reader = cmd.ExecuteReader();
+        while (reader.Read()) yield return ReadLemma(reader);
+    }
 
-            sql.Append("SELECT DISTINCT name, value, false as p " +
-                $"FROM document_attribute WHERE name='{name}'\n");
-        }
+    /// <summary>
+    /// Enumerates all the non-zero word or lemma counts.
+    /// </summary>
+    /// <param name="lemma">if set to <c>true</c> enumerate lemma counts,
+    /// else enumerate word counts.</param>
+    /// <returns>Counts.</returns>
+    public IEnumerable<TokenCount> EnumerateTokenCounts(bool lemma)
+    {
+        string name = lemma ? "lemma" : "word";
+        using IDbConnection connection = GetConnection();
+        connection.Open();
+        IDbCommand cmd = connection.CreateCommand();
+        cmd.CommandText =
+            $"SELECT {name}_id, doc_attr_name, doc_attr_value, count\n" +
+            $"FROM {name}_count WHERE count>0\n" +
+            $"ORDER BY {name}_id, doc_attr_name, count DESC;";
+        cmd.CommandTimeout = 0;
 
-        // fetch pairs from the generated SQL queries
-        await using (DbCommand cmd = (DbCommand)connection.CreateCommand())
+        using IDataReader reader = cmd.ExecuteReader();
+        while (reader.Read())
         {
-            cmd.CommandText = sql.ToString();
-            await using var reader = await cmd.ExecuteReaderAsync();
-            while (await reader.ReadAsync())
-            {
-                DocumentPair pair = new(
-                    reader.GetString(0),
-                    reader.GetString(1),
-                    reader.GetBoolean(2));
-                pairs.Add(pair);
-            }
+            yield return new TokenCount(reader.GetInt32(0),
+                reader.GetString(1), reader.GetString(2), reader.GetInt32(3));
         }
+    }
+    #endregion
 
-        // (B): numeric
-        await using (DbCommand cmd = (DbCommand)connection.CreateCommand())
-        {
-            // (B.1): numeric, privileged
-            foreach (var pair in binCounts.Where(
-                p => privilegedDocAttrs.Contains(p.Key) ||
-                     privilegedDocAttrs.Contains("^" + p.Key)))
-            {
-                // a name prefixed by ^ means we want integer bins
-                (string name, bool integer) = ParseBinName(pair.Key);
-
-                cmd.CommandText = $"SELECT MIN({name}) AS n," +
-                    $"MAX({name}) AS m FROM document";
-                pairs.AddRange(await ReadDocumentPairMinMaxAsync(cmd,
-                    name, true, integer, pair.Value));
-            }
-
-            // (B.2): numeric, non-privileged
-            foreach (var pair in binCounts.Where(
-                p => !privilegedDocAttrs.Contains(p.Key) &&
-                     !privilegedDocAttrs.Contains("^" + p.Key)))
-            {
-                // a name prefixed by ^ means we want integer bins
-                (string name, bool integer) = ParseBinName(pair.Key);
+    #region Statistics Snapshot
+    // the name of the entry whose time is the last full refresh
+    private const string SNAPSHOT_REFRESHED = "$refreshed";
 
-                cmd.CommandText = "SELECT MIN(value) AS n, MAX(value) AS m\n" +
-                    "FROM document_attribute\n" +
-                    $"WHERE name='{name}'";
-                pairs.AddRange(
-                    await ReadDocumentPairMinMaxAsync(cmd, name, false, integer,
-                    pair.Value));
-            }
+    private static string GetSnapshotPartsFilter(StatisticsSnapshotParts parts)
+    {
+        List<string> filters = [];
+        if ((parts & StatisticsSnapshotParts.Documents) != 0)
+        {
+            filters.Add("name IN('corpus_count','document_count'," +
+                "'document_attribute_count','profile_count') OR " +
+                $"name LIKE '{StatisticsSnapshot.DOC_ATTR_PREFIX}%'");
         }
+        if ((parts & StatisticsSnapshotParts.Spans) != 0)
+            filters.Add("name LIKE 'span%'");
+        if ((parts & StatisticsSnapshotParts.Words) != 0)
+            filters.Add("name IN('word_count','lemma_count')");
 
-        return pairs;
+        return string.Join(" OR ", filters.Select(f => $"({f})"));
     }
 
     /// <summary>
-    /// Appends a document pair clause to the SQL query.
+    /// Ensures that the statistics snapshot table exists, as databases
+    /// created before its introduction lack it.
     /// </summary>
-    /// <param name="table">The table name.</param>
-    /// <param name="pair">The pair.</param>
-    /// <param name="sql">The SQL builder.</param>
-    private void AppendDocPairClause(string table, DocumentPair pair,
-        StringBuilder sql)
+    /// <param name="connection">The connection.</param>
+    private void EnsureSnapshotTable(IDbConnection connection)
     {
-        // if the pair is numeric, use a numeric comparison within a defined range
-        if (pair.IsNumeric || pair.Value == null)
-        {
-            string nn = SqlHelper.BuildTextAsNumber($"{table}.{pair.Name}");
-            sql.Append(nn)
-               .Append(">=")
-               .AppendFormat(CultureInfo.InvariantCulture,
-                    pair.MinValue % 1 == 0
-                    ? "{0:0}" : "{0:0.00}", pair.MinValue)
-               .Append(" AND ")
-               .Append(nn)
-               .Append('<')
-               .AppendFormat(CultureInfo.InvariantCulture,
-                    pair.MaxValue % 1 == 0
-                    ? "{0:0}" : "{0:0.00}", pair.MaxValue);
-        }
-        // else, use a string comparison
-        else
+        if (_isSnapshotTableReady) return;
+
+        IDbCommand cmd = connection.CreateCommand();
+        cmd.CommandText =
+            "CREATE TABLE IF NOT EXISTS stats_snapshot (\n" +
+            "name varchar(200) NOT NULL,\n" +
+            "value double precision NOT NULL,\n" +
+            "updated timestamp with time zone NOT NULL " +
+            "DEFAULT CURRENT_TIMESTAMP,\n" +
+            "CONSTRAINT stats_snapshot_pk PRIMARY KEY (name));";
+        cmd.ExecuteNonQuery();
+        _isSnapshotTableReady = true;
+    }
+
+    /// <summary>
+    /// Determines whether the statistics snapshot has been refreshed, and
+    /// thus must be kept up to date.
+    /// </summary>
+    /// <param name="connection">The connection.</param>
+    /// <returns>True if the snapshot exists.</returns>
+    private bool HasStatisticsSnapshot(IDbConnection connection)
+    {
+        EnsureSnapshotTable(connection);
+
+        IDbCommand cmd = connection.CreateCommand();
+        cmd.CommandText = "SELECT 1 FROM stats_snapshot WHERE name=@name;";
+        AddParameter(cmd, "@name", DbType.String, SNAPSHOT_REFRESHED);
+        return cmd.ExecuteScalar() != null;
+    }
+
+    private static void AddDelta(Dictionary<string, double> deltas,
+        string name, double value)
+    {
+        deltas[name] = deltas.TryGetValue(name, out double old)
+            ? old + value : value;
+    }
+
+    /// <summary>
+    /// Gets the changes to the statistics snapshot caused by deleting the
+    /// span attributes matching the specified filter.
+    /// </summary>
+    /// <param name="cmd">The command to use, with the parameters of the
+    /// filter, if any.</param>
+    /// <param name="filter">The SQL filter on span and span attribute
+    /// columns, qualified with their table name.</param>
+    /// <returns>The changes, keyed by entry name.</returns>
+    private static Dictionary<string, double> GetSpanAttributeDeltas(
+        IDbCommand cmd, string filter)
+    {
+        cmd.CommandText = "SELECT span_attribute.name, span.type, " +
+            "COUNT(span_attribute.id)\n" +
+            "FROM span_attribute INNER JOIN span " +
+            "ON span_attribute.span_id=span.id\n" +
+            $"WHERE {filter}\n" +
+            "GROUP BY span_attribute.name, span.type;";
+
+        Dictionary<string, double> deltas = [];
+        using IDataReader reader = cmd.ExecuteReader();
+        while (reader.Read())
         {
-            sql.Append($"{table}.{pair.Name}='{SqlHelper.SqlEncode(pair.Value!)}'");
+            double count = Convert.ToDouble(reader.GetValue(2),
+                CultureInfo.InvariantCulture);
+            AddDelta(deltas, "span_attribute_count", -count);
+            AddDelta(deltas, StatisticsSnapshot.SPAN_ATTR_PREFIX +
+                reader.GetString(0), -count);
+            if (reader.GetString(1) == TextSpan.TYPE_TOKEN)
+                AddDelta(deltas, "span_tok_attribute_count", -count);
         }
+        return deltas;
     }
 
     /// <summary>
-    /// Append a document attribute pair clause to the SQL query.
+    /// Gets the changes to the statistics snapshot caused by deleting the
+    /// spans matching the specified filter, with their attributes.
     /// </summary>
-    /// <param name="table">The table name.</param>
-    /// <param name="pair">The pair.</param>
-    /// <param name="sql">The SQL builder.</param>
-    private void AppendDocAttrPairClause(string table, DocumentPair pair,
-        StringBuilder sql)
+    /// <param name="cmd">The command to use, with the parameters of the
+    /// filter, if any.</param>
+    /// <param name="filter">The SQL filter on span columns, qualified with
+    /// their table name.</param>
+    /// <returns>The changes, keyed by entry name.</returns>
+    private static Dictionary<string, double> GetSpanDeltas(IDbCommand cmd,
+        string filter)
     {
-        // if the pair is numeric, use a numeric comparison within a defined range
-        if (pair.IsNumeric)
+        Dictionary<string, double> deltas = [];
+        cmd.CommandText = "SELECT span.type, COUNT(span.id)\n" +
+            $"FROM span WHERE {filter}\nGROUP BY span.type;";
+        using (IDataReader reader = cmd.ExecuteReader())
         {
-            string nn = SqlHelper.BuildTextAsNumber($"{table}.value");
-            sql.Append(nn)
-               .Append(">=")
-               .AppendFormat(CultureInfo.InvariantCulture, "{0:F2}", pair.MinValue)
-               .Append(" AND ")
-               .Append(nn)
-               .Append('<')
-               .AppendFormat(CultureInfo.InvariantCulture, "{0:F2}", pair.MaxValue)
-               .Append(" AND ")
-               .Append($"{table}.name='{SqlHelper.SqlEncode(pair.Name)}'");
+            while (reader.Read())
+            {
+                double count = Convert.ToDouble(reader.GetValue(1),
+                    CultureInfo.InvariantCulture);
+                AddDelta(deltas, "span_count", -count);
+                AddDelta(deltas, StatisticsSnapshot.SPAN_TYPE_PREFIX +
+                    reader.GetString(0), -count);
+            }
         }
-        // else, use a string comparison
-        else
+        foreach (KeyValuePair<string, double> delta in
+            GetSpanAttributeDeltas(cmd, filter))
         {
-            sql.Append($"{table}.value='{SqlHelper.SqlEncode(pair.Value!)}' " +
-                $"AND {table}.name='{SqlHelper.SqlEncode(pair.Name)}'");
+            AddDelta(deltas, delta.Key, delta.Value);
         }
+        return deltas;
     }
 
     /// <summary>
-    /// Insert a group of word counts.
+    /// Gets the SQL code adding the value of parameter <c>@value</c> to the
+    /// statistics snapshot entry named by parameter <c>@name</c>, inserting
+    /// the entry when missing, and touching its update time.
+    /// </summary>
+    /// <returns>SQL code.</returns>
+    protected virtual string GetStatisticsDeltaSql()
+    {
+        return "UPDATE stats_snapshot SET value=value+@value, " +
+            "updated=CURRENT_TIMESTAMP\n" +
+            "WHERE name=@name;\n" +
+            "INSERT INTO stats_snapshot(name, value)\n" +
+            "SELECT @name, @value WHERE NOT EXISTS" +
+            "(SELECT 1 FROM stats_snapshot WHERE name=@name);";
+    }
+
+    /// <summary>
+    /// Applies the specified changes to the statistics snapshot. Entries are
+    /// updated in name order, so that concurrent transactions lock them in
+    /// the same order.
     /// </summary>
     /// <param name="connection">The connection.</param>
-    /// <param name="counts">The counts.</param>
-    protected virtual async Task BatchInsertWordCounts(IDbConnection connection,
-        List<WordCount> counts)
+    /// <param name="tr">The transaction.</param>
+    /// <param name="deltas">The changes, keyed by entry name.</param>
+    private void ApplyStatisticsDeltas(IDbConnection connection,
+        IDbTransaction tr, IDictionary<string, double> deltas)
     {
-        DbCommand cmd = (DbCommand)connection.CreateCommand();
-        cmd.CommandText = "INSERT INTO word_count(" +
-            "word_id, lemma_id, doc_attr_name, doc_attr_value, count)\n" +
-            "VALUES(@word_id, @lemma_id, @doc_attr_name, @doc_attr_value, @count);";
-        AddParameter(cmd, "@word_id", DbType.Int32, 0);
-        AddParameter(cmd, "@lemma_id", DbType.Int32, 0);
-        AddParameter(cmd, "@doc_attr_name", DbType.String, "");
-        AddParameter(cmd, "@doc_attr_value", DbType.String, "");
-        AddParameter(cmd, "@count", DbType.Int32, 0);
+        if (deltas.Count == 0) return;
 
-        foreach (WordCount count in counts)
+        DbCommand cmd = (DbCommand)connection.CreateCommand();
+        cmd.Transaction = (DbTransaction)tr;
+        cmd.CommandText = GetStatisticsDeltaSql();
+        AddParameter(cmd, "@name", DbType.String, "");
+        AddParameter(cmd, "@value", DbType.Double, 0.0);
+
+        bool removing = false;
+        foreach (KeyValuePair<string, double> delta in deltas
+            .Where(d => d.Value != 0)
+            .OrderBy(d => d.Key, StringComparer.Ordinal))
         {
-            cmd.Parameters["@word_id"].Value = count.WordId;
-            cmd.Parameters["@lemma_id"].Value = count.LemmaId == 0
-                ? DBNull.Value : count.LemmaId;
-            cmd.Parameters["@doc_attr_name"].Value =
-                GetTruncatedString(count.Pair.Name, ATTR_NAME_MAX);
-            cmd.Parameters["@doc_attr_value"].Value =
-                count.Pair.Value ??
-                $"{count.Pair.MinValue:F2}:{count.Pair.MaxValue:F2}";
-            cmd.Parameters["@count"].Value = count.Value;
+            if (delta.Value < 0) removing = true;
+            cmd.Parameters["@name"].Value = delta.Key;
+            cmd.Parameters["@value"].Value = delta.Value;
+            cmd.ExecuteNonQuery();
+        }
 
-            await cmd.ExecuteNonQueryAsync();
+        // grouped counts dropping to 0 are removed, like in the statistics
+        if (removing)
+        {
+            cmd.Parameters.Clear();
+            cmd.CommandText = "DELETE FROM stats_snapshot WHERE value<=0 " +
+                $"AND (name LIKE '{StatisticsSnapshot.SPAN_TYPE_PREFIX}%' " +
+                $"OR name LIKE '{StatisticsSnapshot.SPAN_ATTR_PREFIX}%');";
+            cmd.ExecuteNonQuery();
         }
     }
 
+    private static StatisticsSnapshotParts GetSnapshotPart(string table)
+    {
+        return table switch
+        {
+            "word" or "lemma" => StatisticsSnapshotParts.Words,
+            "span" or "span_attribute" => StatisticsSnapshotParts.Spans,
+            _ => StatisticsSnapshotParts.Documents
+        };
+    }
+
     /// <summary>
-    /// Builds a SQL UNION query fragment for a single document pair that counts
-    /// word occurrences in documents matching that pair.
+    /// Gets the table counts of <see cref="_tableCounts"/> belonging to
+    /// the specified snapshot parts.
     /// </summary>
-    /// <param name="pair">The document pair.</param>
-    /// <param name="sql">The SQL builder to append to.</param>
-    private void AppendWordCountUnionClause(DocumentPair pair, StringBuilder sql)
+    /// <param name="parts">The parts.</param>
+    /// <returns>The table counts.</returns>
+    private static IEnumerable<(string Key, string Table, string? Tail)>
+        GetSnapshotTableCounts(StatisticsSnapshotParts parts)
     {
-        // Build the SELECT clause with the pair name and value as constants
-        sql.Append("SELECT s.word_id, s.lemma_id, ");
-        sql.Append($"'{SqlHelper.SqlEncode(pair.Name)}' AS doc_attr_name, ");
+        return _tableCounts.Where(c => (parts & GetSnapshotPart(c.Table)) != 0);
+    }
 
-        // The doc_attr_value depends on whether it's numeric (range) or string (value)
-        if (pair.IsNumeric)
+    private static void AddSnapshotSpanTypeCounts(
+        Dictionary<string, double> stats, Dictionary<string, int> counts)
+    {
+        foreach (KeyValuePair<string, int> pair in counts)
+            stats[StatisticsSnapshot.SPAN_TYPE_PREFIX + pair.Key] = pair.Value;
+    }
+
+    private static void CollectSnapshotParts(IDbConnection connection,
+        StatisticsSnapshotParts parts, Dictionary<string, double> stats)
+    {
+        if ((parts & StatisticsSnapshotParts.Documents) != 0)
         {
-            sql.AppendFormat(CultureInfo.InvariantCulture,
-                "'{0:F2}:{1:F2}' AS doc_attr_value, ",
-                pair.MinValue, pair.MaxValue);
+            CollectAttributesStats(connection, "document_attribute", stats,
+                StatisticsSnapshot.DOC_ATTR_PREFIX);
         }
-        else
+        if ((parts & StatisticsSnapshotParts.Spans) != 0)
         {
-            sql.Append($"'{SqlHelper.SqlEncode(pair.Value!)}' AS doc_attr_value, ");
+            CollectAttributesStats(connection, "span_attribute", stats,
+                StatisticsSnapshot.SPAN_ATTR_PREFIX);
+            AddSnapshotSpanTypeCounts(stats, GetCounts(connection,
+                SPAN_TYPE_COUNTS_SQL));
         }
 
-        sql.Append("COUNT(*) AS count\n");
+        foreach ((string key, string table, string? tail)
+            in GetSnapshotTableCounts(parts))
+        {
+            stats[key] = GetCount(connection, table, tail);
+        }
+    }
 
-        // FROM clause depends on privileged vs non-privileged attributes
-        if (pair.IsPrivileged)
+    private static async Task CollectSnapshotPartsAsync(
+        DbConnection connection, StatisticsSnapshotParts parts,
+        Dictionary<string, double> stats, CancellationToken cancel)
+    {
+        if ((parts & StatisticsSnapshotParts.Documents) != 0)
         {
-            sql.Append("FROM span s\n");
-            sql.Append("INNER JOIN document d ON s.document_id = d.id\n");
-            sql.Append("WHERE s.word_id IS NOT NULL AND ");
-            AppendDocPairClause("d", pair, sql);
+            await CollectAttributesStatsAsync(connection, "document_attribute",
+                stats, cancel, StatisticsSnapshot.DOC_ATTR_PREFIX);
         }
-        else
+        if ((parts & StatisticsSnapshotParts.Spans) != 0)
         {
-            sql.Append("FROM span s\n");
-            sql.Append("INNER JOIN document_attribute da ON s.document_id = da.document_id\n");
-            sql.Append("WHERE s.word_id IS NOT NULL AND ");
-            AppendDocAttrPairClause("da", pair, sql);
+            await CollectAttributesStatsAsync(connection, "span_attribute",
+                stats, cancel, StatisticsSnapshot.SPAN_ATTR_PREFIX);
+            AddSnapshotSpanTypeCounts(stats, await GetCountsAsync(connection,
+                SPAN_TYPE_COUNTS_SQL, cancel));
         }
 
-        sql.Append("\nGROUP BY s.word_id, s.lemma_id");
+        foreach ((string key, string table, string? tail)
+            in GetSnapshotTableCounts(parts))
+        {
+            stats[key] = await GetCountAsync(connection, table, cancel, tail);
+        }
     }
 
     /// <summary>
-    /// Gets the word's lemma IDs for words in the specified range.
+    /// Replaces the entries of the specified parts of the statistics
+    /// snapshot with the received ones.
     /// </summary>
-    /// <param name="firstId">The ID of the first word to get.</param>
-    /// <param name="lastId">The ID of the last word to get.</param>
-    /// <returns>List of tuples with each word's ID and lemma ID.</returns>
-    private async Task<List<Tuple<int, int>>> GetWordLemmaIdsAsync(
-        int firstId, int lastId)
+    /// <param name="connection">The connection.</param>
+    /// <param name="parts">The parts to replace.</param>
+    /// <param name="stats">The new entries.</param>
+    /// <param name="cancel">The cancellation token.</param>
+    private static async Task WriteSnapshotPartsAsync(DbConnection connection,
+        StatisticsSnapshotParts parts, Dictionary<string, double> stats,
+        CancellationToken cancel)
     {
-        using IDbConnection connection = GetConnection();
-        connection.Open();
+        await using DbTransaction tr =
+            await connection.BeginTransactionAsync(cancel);
+        try
+        {
+            await using DbCommand cmd = connection.CreateCommand();
+            cmd.Transaction = tr;
+            cmd.CommandText = GetSnapshotPartsDeleteSql(parts);
+            await cmd.ExecuteNonQueryAsync(cancel);
+
+            cmd.CommandText = SNAPSHOT_INSERT_SQL;
+            AddParameter(cmd, "@name", DbType.String, "");
+            AddParameter(cmd, "@value", DbType.Double, 0.0);
+            foreach (KeyValuePair<string, double> entry in stats)
+            {
+                cmd.Parameters["@name"].Value = entry.Key;
+                cmd.Parameters["@value"].Value = entry.Value;
+                await cmd.ExecuteNonQueryAsync(cancel);
+            }
 
-        DbCommand cmd = (DbCommand)connection.CreateCommand();
-        cmd.CommandText = "SELECT id, lemma_id, value FROM word " +
-            "WHERE id>=@first_id AND id<=@last_id;";
-        AddParameter(cmd, "@first_id", DbType.Int32, firstId);
-        AddParameter(cmd, "@last_id", DbType.Int32, lastId);
-        List<Tuple<int, int>> ids = [];
+            // a full refresh also marks the snapshot as existing
+            if (parts == StatisticsSnapshotParts.All)
+            {
+                cmd.Parameters["@name"].Value = SNAPSHOT_REFRESHED;
+                cmd.Parameters["@value"].Value = 0.0;
+                await cmd.ExecuteNonQueryAsync(cancel);
+            }
 
-        await using DbDataReader reader = await cmd.ExecuteReaderAsync();
-        while (await reader.ReadAsync())
+            await tr.CommitAsync(cancel);
+        }
+        catch (Exception ex)
         {
-            // ignore non-letter words
-            string value = reader.GetString(2);
-            if (string.IsNullOrEmpty(value) || !value.All(char.IsLetter))
-                continue;
-
-            ids.Add(Tuple.Create(
-                reader.GetInt32(0),
-                await reader.IsDBNullAsync(1) ? 0 : reader.GetInt32(1)));
+            await tr.RollbackAsync(CancellationToken.None);
+            Debug.WriteLine(ex.ToString());
+            throw;
         }
-        return ids;
+    }
+
+    private const string SNAPSHOT_INSERT_SQL =
+        "INSERT INTO stats_snapshot(name, value) VALUES(@name, @value);";
+
+    private static string GetSnapshotPartsDeleteSql(
+        StatisticsSnapshotParts parts)
+    {
+        return parts == StatisticsSnapshotParts.All
+            ? "DELETE FROM stats_snapshot;"
+            : $"DELETE FROM stats_snapshot WHERE {GetSnapshotPartsFilter(parts)};";
     }
 
     /// <summary>
-    /// Inserts counts for all words for the specified document's attributes
-    /// name=value pairs using a bulk SQL approach with UNION ALL queries.
-    /// This dramatically improves performance by replacing millions of individual
-    /// queries with a single bulk operation.
+    /// Recalculates the specified parts of the statistics snapshot, which
+    /// must exist. Unlike <see cref="WriteSnapshotPartsAsync"/>, this never
+    /// writes a full refresh.
     /// </summary>
     /// <param name="connection">The connection.</param>
-    /// <param name="docPairs">The document's attributes name=value pairs. Each
-    /// pair defines the context for a count.</param>
-    /// <param name="cancel">The cancellation token.</param>
-    /// <param name="progress">The optional progress reporter.</param>
-    private async Task InsertWordCountsAsync(IDbConnection connection,
-        IList<DocumentPair> docPairs, CancellationToken cancel,
-        IProgress<ProgressReport>? progress = null)
+    /// <param name="parts">The parts to recalculate.</param>
+    private static void UpdateSnapshotParts(IDbConnection connection,
+        StatisticsSnapshotParts parts)
     {
-        if (docPairs.Count == 0) return;
-
-        ProgressReport report = new() { Message = "Building word counts query..." };
-        progress?.Report(report);
-
-        // Build a massive UNION ALL query that counts all words for all pairs
-        // in a single SQL statement. This is dramatically faster than the
-        // previous approach of executing one query per word per pair.
-        StringBuilder sql = new();
-        sql.Append("INSERT INTO word_count(word_id, lemma_id, doc_attr_name, doc_attr_value, count)\n");
+        Dictionary<string, double> stats = [];
+        CollectSnapshotParts(connection, parts, stats);
 
-        // Build UNION ALL clauses for each document pair
-        for (int i = 0; i < docPairs.Count; i++)
+        using IDbTransaction tr = connection.BeginTransaction();
+        try
         {
-            if (cancel.IsCancellationRequested) return;
-
-            if (i > 0) sql.Append("\nUNION ALL\n");
-            AppendWordCountUnionClause(docPairs[i], sql);
+            using IDbCommand cmd = connection.CreateCommand();
+            cmd.Transaction = tr;
+            cmd.CommandText = GetSnapshotPartsDeleteSql(parts);
+            cmd.ExecuteNonQuery();
 
-            // Report progress on query building
-            if (progress != null && i % 10 == 0)
+            cmd.CommandText = SNAPSHOT_INSERT_SQL;
+            AddParameter(cmd, "@name", DbType.String, "");
+            AddParameter(cmd, "@value", DbType.Double, 0.0);
+            foreach (KeyValuePair<string, double> entry in stats)
             {
-                report.Percent = i * 100 / docPairs.Count;
-                report.Message = $"Building query: {i + 1}/{docPairs.Count} pairs...";
-                progress.Report(report);
+                ((IDataParameter)cmd.Parameters["@name"]).Value = entry.Key;
+                ((IDataParameter)cmd.Parameters["@value"]).Value = entry.Value;
+                cmd.ExecuteNonQuery();
             }
-        }
-
-        sql.Append(';');
-
-        // Execute the bulk insert
-        report.Message = "Executing bulk word count insert...";
-        report.Percent = 0;
-        progress?.Report(report);
-
-        DbCommand cmd = (DbCommand)connection.CreateCommand();
-        cmd.CommandText = sql.ToString();
-        cmd.CommandTimeout = 3600; // 1 hour timeout for this potentially long operation
-
-        await cmd.ExecuteNonQueryAsync(cancel);
-
-        report.Message = "Word counts inserted successfully.";
-        report.Percent = 100;
-        progress?.Report(report);
-    }
 
-    private static async Task InsertLemmaCountsAsync(IDbConnection connection)
-    {
-        DbCommand cmd = (DbCommand)connection.CreateCommand();
-        cmd.CommandText = "INSERT INTO lemma_count(" +
-            "lemma_id, doc_attr_name, doc_attr_value, count)\n" +
-            "SELECT lemma_id, doc_attr_name, doc_attr_value, SUM(count)\n" +
-            "FROM word_count\n" +
-            "WHERE lemma_id IS NOT NULL\n" +
-            "GROUP BY lemma_id, doc_attr_name, doc_attr_value;";
-        cmd.CommandTimeout = 3600; // 1 hour
-        await cmd.ExecuteNonQueryAsync();
+            tr.Commit();
+        }
+        catch (Exception ex)
+        {
+            tr.Rollback();
+            Debug.WriteLine(ex.ToString());
+            throw;
+        }
     }
 
     /// <summary>
-    /// Builds the words index basing on tokens.
+    /// Gets the statistics snapshot.
     /// </summary>
-    /// <param name="language">The language to index (null matches NULL).</param>
-    /// <param name="binCounts">The desired bins counts. For each attribute
-    /// (either privileged or not) which must be handled as a number,
-    /// this dictionary includes its name as the key, and the desired count
-    /// of bins as the value. For instance, an attribute named <c>year</c>
-    /// whose value is a year number would have an entry with key=<c>year</c>
-    /// and value=<c>3</c>, meaning that we want to distribute its values in
-    /// 3 bins.</param>
-    /// <param name="excludedAttrNames">The names of the non-privileged
-    /// attributes to be excluded from the pairs. All the names of non categorical
-    /// attributes should be excluded.</param>
-    /// <param name="excludedSpanAttrNames">The names of the non-privileged
-    /// span attributes to be excluded from the words index. This is used
-    /// to remove tokens like proper names, foreign words, etc.</param>
-    /// <param name="excludedPosValues">The POS values to be excluded from
-    /// the index. These are usually like PROPN, NUM, SYM, X, and the like.</param>
     /// <param name="cancel">The cancellation token.</param>
-    /// <param name="progress">The progress.</param>
-    public async Task BuildWordIndexAsync(
-        string? language,
-        IDictionary<string, int> binCounts,
-        HashSet<string> excludedAttrNames,
-        HashSet<string> excludedSpanAttrNames,
-        HashSet<string> excludedPosValues,
-        CancellationToken cancel,
-        IProgress<ProgressReport>? progress = null)
+    /// <returns>The snapshot, or null if it was never refreshed.</returns>
+    public async Task<StatisticsSnapshot?> GetStatisticsSnapshotAsync(
+        CancellationToken cancel = default)
     {
-        const int pageSize = 100;
-        ProgressReport report = new();
+        await using DbConnection connection = (DbConnection)GetConnection();
+        await connection.OpenAsync(cancel);
+        EnsureSnapshotTable(connection);
 
-        using IDbConnection connection = GetConnection();
-        connection.Open();
+        await using DbCommand cmd = connection.CreateCommand();
+        cmd.CommandText = "SELECT name, value, updated FROM stats_snapshot;";
 
-        report.Message = "Clearing word index...";
-        progress?.Report(report);
-        ClearWordIndex(connection);
+        List<KeyValuePair<string, double>> entries = [];
+        DateTime? refreshed = null;
+        DateTime updated = DateTime.MinValue;
 
-        report.Message = "Inserting words...";
-        progress?.Report(report);
-        await InsertWordsAsync(connection, pageSize, language,
-            excludedSpanAttrNames, excludedPosValues, cancel, progress);
+        await using DbDataReader reader = await cmd.ExecuteReaderAsync(cancel);
+        while (await reader.ReadAsync(cancel))
+        {
+            string name = reader.GetString(0);
+            DateTime time = reader.GetDateTime(2);
+            if (time > updated) updated = time;
 
-        report.Message = "Inserting lemmata...";
-        progress?.Report(report);
-        await InsertLemmataAsync(connection, pageSize, cancel, progress);
+            if (name == SNAPSHOT_REFRESHED) refreshed = time;
+            else entries.Add(new(name, reader.GetDouble(1)));
+        }
 
-        report.Message = "Collecting document pairs...";
-        progress?.Report(report);
-        IList<DocumentPair> docPairs = await GetDocumentPairsAsync(
-            binCounts, excludedAttrNames);
+        return refreshed != null
+            ? StatisticsSnapshot.Create(entries, refreshed.Value, updated)
+            : null;
+    }
 
-        report.Message = "Calculating word counts...";
-        progress?.Report(report);
-        await InsertWordCountsAsync(connection, docPairs, cancel, progress);
+    /// <summary>
+    /// Fully refreshes the statistics snapshot from the index, creating it
+    /// if it does not exist.
+    /// </summary>
+    /// <param name="cancel">The cancellation token.</param>
+    /// <returns>The refreshed snapshot.</returns>
+    public async Task<StatisticsSnapshot> RefreshStatisticsSnapshotAsync(
+        CancellationToken cancel = default)
+    {
+        await using (DbConnection connection = (DbConnection)GetConnection())
+        {
+            await connection.OpenAsync(cancel);
+            EnsureSnapshotTable(connection);
+
+            Dictionary<string, double> stats = [];
+            await CollectSnapshotPartsAsync(connection,
+                StatisticsSnapshotParts.All, stats, cancel);
+            await WriteSnapshotPartsAsync(connection,
+                StatisticsSnapshotParts.All, stats, cancel);
+        }
 
-        report.Message = "Calculating lemma counts...";
-        progress?.Report(report);
-        await InsertLemmaCountsAsync(connection);
+        return (await GetStatisticsSnapshotAsync(cancel))!;
     }
 
     /// <summary>
-    /// Finalizes the index by eventually adding calculated data into it.
+    /// Recalculates the specified parts of the statistics snapshot. This
+    /// does nothing if the snapshot was never refreshed.
     /// </summary>
-    public void FinalizeIndex()
+    /// <param name="parts">The parts to recalculate.</param>
+    /// <param name="cancel">The cancellation token.</param>
+    public async Task UpdateStatisticsSnapshotAsync(
+        StatisticsSnapshotParts parts, CancellationToken cancel = default)
     {
+        if (parts == StatisticsSnapshotParts.None) return;
+
+        await using DbConnection connection = (DbConnection)GetConnection();
+        await connection.OpenAsync(cancel);
+        if (!HasStatisticsSnapshot(connection)) return;
+
+        Dictionary<string, double> stats = [];
+        await CollectSnapshotPartsAsync(connection, parts, stats, cancel);
+        await WriteSnapshotPartsAsync(connection, parts, stats, cancel);
     }
     #endregion
 
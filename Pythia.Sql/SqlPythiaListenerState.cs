@@ -39,11 +39,33 @@ public class SqlPythiaListenerState(IVocabulary vocabulary, ISqlHelper sqlHelper
     /// </summary>
     public Dictionary<string, string> PairCteQueries { get; } = [];
 
+    /// <summary>
+    /// Gets the text pairs, a dictionary where the key is the pair subquery
+    /// name like <c>s1</c>, and the value is the pair, with literal filters
+    /// applied to its value. These are used for planning the query.
+    /// </summary>
+    public Dictionary<string, QuerySetPair> Pairs { get; } = [];
+
+    /// <summary>
+    /// Gets or sets the optional plan for the text expression of the query,
+    /// as built by <see cref="SqlQueryPlanner"/>.
+    /// </summary>
+    public SqlQueryPlan? Plan { get; set; }
+
+    /// <summary>
+    /// Gets or sets a value indicating whether location operators are
+    /// compiled into calls to the location functions of the database,
+    /// rather than into range predicates on positions.
+    /// </summary>
+    public bool UseLocationFunctions { get; set; }
+
     /// <summary>
     /// Resets this state.
     /// </summary>
     public void Reset()
     {
         PairCteQueries.Clear();
+        Pairs.Clear();
+        Plan = null;
     }
 }
@@ -720,6 +720,12 @@ public class SqlPythiaPairListener(SqlPythiaListenerState state)
             }
             AppendTxtPairFilter(pair, node);
         }
+
+        // keep the pair for the planner
+        QuerySetPair planned = pair.Clone();
+        if (planned.Value != null)
+            planned.Value = ApplyLiteralFilters(planned.Value);
+        _state.Pairs[pair.Id] = planned;
     }
 
     /// <summary>
@@ -58,6 +58,33 @@ public class SqlPythiaQueryListener(SqlPythiaListenerState state)
     /// </summary>
     public int PageSize { get; set; } = 20;
 
+    /// <summary>
+    /// Gets or sets a value indicating whether paging is represented by
+    /// the <see cref="SqlQueryTemplate.OffsetParameter"/> and
+    /// <see cref="SqlQueryTemplate.LimitParameter"/> bind parameters rather
+    /// than by <see cref="PageNumber"/> and <see cref="PageSize"/> values.
+    /// </summary>
+    public bool IsPagingParameterized { get; set; }
+
+    /// <summary>
+    /// Gets or sets a value indicating whether results are paged by seeking
+    /// after the key represented by the <see cref="SqlQueryTemplate"/> key
+    /// parameters, rather than by offset. In this case results are sorted
+    /// by document's sort key, document ID, position and ID, so that
+    /// <see cref="SortFields"/> and <see cref="PageNumber"/> are ignored,
+    /// and the limit is always represented by a parameter.
+    /// </summary>
+    public bool IsKeysetPaging { get; set; }
+
+    /// <summary>
+    /// Gets or sets a value indicating whether all the results are got
+    /// sorted by document ID, position and ID, with no paging. This is used
+    /// to stream results into in-process merge joins. When true,
+    /// <see cref="SortFields"/>, <see cref="PageNumber"/>,
+    /// <see cref="PageSize"/> and <see cref="IsKeysetPaging"/> are ignored.
+    /// </summary>
+    public bool IsPositionOrdered { get; set; }
+
     /// <summary>
     /// Gets the optional sort fields. If not specified, the query will sort
     /// by document's sort key. Otherwise, it will sort by all the fields
@@ -76,6 +103,12 @@ public class SqlPythiaQueryListener(SqlPythiaListenerState state)
     /// <returns>SQL string</returns>
     public string? GetSql(bool count) => count ? _countSql : _dataSql;
 
+    /// <summary>
+    /// Gets the plan followed by this listener when building the SQL code,
+    /// or null if the query was not planned.
+    /// </summary>
+    public SqlQueryPlan? Plan => _state.Plan;
+
     #region Final
     /// <summary>
     /// Builds the SQL corresponding to the list of fields to sort by.
@@ -164,7 +197,8 @@ public class SqlPythiaQueryListener(SqlPythiaListenerState state)
             return "SELECT COUNT(*) FROM r\n";
         }
 
-        int skipCount = (PageNumber - 1) * PageSize;
+        if (IsPositionOrdered) return GetPositionFinalSelect();
+        if (IsKeysetPaging) return GetKeysetFinalSelect();
 
         // custom sort
         string sort = BuildSortSql();
@@ -175,7 +209,48 @@ public class SqlPythiaQueryListener(SqlPythiaListenerState state)
             + "FROM r\n"
             + "INNER JOIN document ON r.document_id=document.id\n"
             + "ORDER BY " + sort + "\n" +
-            _state.SqlHelper.BuildPaging(skipCount, PageSize);
+            (IsPagingParameterized
+                ? _state.SqlHelper.BuildPaging(SqlQueryTemplate.OffsetParameter,
+                    SqlQueryTemplate.LimitParameter)
+                : _state.SqlHelper.BuildPaging(
+                    SqlQueryTemplate.GetOffset(PageNumber, PageSize), PageSize));
+    }
+
+    /// <summary>
+    /// Gets the final SELECT query for keyset paging. Rows are filtered
+    /// by comparing their key with the key of the last row of the previous
+    /// page, so that no rows need to be skipped.
+    /// </summary>
+    /// <returns>SQL.</returns>
+    private string GetKeysetFinalSelect()
+    {
+        return "SELECT DISTINCT r.id, r.document_id, r.p1, r.p2, r.type,\n"
+            + "r.index, r.length, r.value,\n"
+            + "document.author, document.title, document.sort_key\n"
+            + "FROM r\n"
+            + "INNER JOIN document ON r.document_id=document.id\n"
+            + "WHERE (document.sort_key, r.document_id, r.p1, r.id) > ("
+            + SqlQueryTemplate.KeySortKeyParameter + ", "
+            + SqlQueryTemplate.KeyDocumentIdParameter + ", "
+            + SqlQueryTemplate.KeyP1Parameter + ", "
+            + SqlQueryTemplate.KeyIdParameter + ")\n"
+            + "ORDER BY document.sort_key, r.document_id, r.p1, r.id\n"
+            + _state.SqlHelper.BuildPaging("0", SqlQueryTemplate.LimitParameter);
+    }
+
+    /// <summary>
+    /// Gets the final SELECT query for all the results sorted by document
+    /// ID, position and ID.
+    /// </summary>
+    /// <returns>SQL.</returns>
+    private static string GetPositionFinalSelect()
+    {
+        return "SELECT DISTINCT r.id, r.document_id, r.p1, r.p2, r.type,\n"
+            + "r.index, r.length, r.value,\n"
+            + "document.author, document.title, document.sort_key\n"
+            + "FROM r\n"
+            + "INNER JOIN document ON r.document_id=document.id\n"
+            + "ORDER BY r.document_id, r.p1, r.id\n";
     }
     #endregion
 
@@ -317,11 +392,23 @@ public class SqlPythiaQueryListener(SqlPythiaListenerState state)
         }
     }
 
+    private void AppendLocopCondition(string left, string right,
+        StringBuilder sql)
+    {
+        if (_state.UseLocationFunctions)
+            _location.AppendLocopFn(left, right, sql);
+        else
+            _location.AppendLocopRange(left, right, sql);
+    }
+
     /// <summary>
     /// Exit a parse tree produced by the <c>teLocation</c>
     /// labeled alternative in <see cref="M:Pythia.Core.Query.pythiaParser.txtExpr" />.
     /// This pops the right side of the LOCOP, the left side of the LOCOP,
     /// then appends the LOCOP function call to the SQL parts stack.
+    /// When the plan swaps the operator's sides, the right side is the
+    /// first relation in the join, while the result is still got from the
+    /// left side.
     /// </summary>
     /// <param name="context">The parse tree.</param>
     public override void ExitTeLocation(TeLocationContext context)
@@ -359,22 +446,27 @@ public class SqlPythiaQueryListener(SqlPythiaListenerState state)
             sql.AppendLine();
             sql.AppendLine($"WHERE {leftPart.TableName}.document_id = " +
                 $"{rightPart.TableName}.document_id AND");
-            _location.AppendLocopFn(leftPart.TableName, rightPart.TableName, sql);
+            AppendLocopCondition(leftPart.TableName, rightPart.TableName, sql);
             sql.AppendLine(")");
         }
         else
         {
+            // the first relation drives the join
+            bool swapped = _state.Plan?.IsSwapped(context) == true;
+            SqlPart firstPart = swapped ? rightPart : leftPart;
+            SqlPart secondPart = swapped ? leftPart : rightPart;
+
             sql.Append($"SELECT {leftPart.TableName}.* FROM " +
-                $"{(leftPart.IsSubquery ? leftPart.SqlCode : leftPart.TableName)}");
-            if (leftPart.IsSubquery) sql.Append($" AS {leftPart.TableName}");
+                $"{(firstPart.IsSubquery ? firstPart.SqlCode : firstPart.TableName)}");
+            if (firstPart.IsSubquery) sql.Append($" AS {firstPart.TableName}");
             sql.AppendLine();
-            sql.Append($"INNER JOIN {(rightPart.IsSubquery ?
-                rightPart.SqlCode : rightPart.TableName)}");
-            if (rightPart.IsSubquery) sql.Append($" AS {rightPart.TableName}");
+            sql.Append($"INNER JOIN {(secondPart.IsSubquery ?
+                secondPart.SqlCode : secondPart.TableName)}");
+            if (secondPart.IsSubquery) sql.Append($" AS {secondPart.TableName}");
             sql.AppendLine();
             sql.AppendLine($"ON {leftPart.TableName}.document_id = " +
                 $"{rightPart.TableName}.document_id AND");
-            _location.AppendLocopFn(leftPart.TableName, rightPart.TableName, sql);
+            AppendLocopCondition(leftPart.TableName, rightPart.TableName, sql);
         }
 
         _sqlParts.Push(sql.ToString());
@@ -385,7 +477,8 @@ public class SqlPythiaQueryListener(SqlPythiaListenerState state)
     /// labeled alternative in <see cref="M:Pythia.Core.Query.pythiaParser.txtExpr" />.
     /// This pops the right side of the logical operator, the left side of the
     /// logical operator, and appends both joined by the corresponding SQL
-    /// set operator to the SQL parts stack.
+    /// set operator to the SQL parts stack. When the plan swaps the operands
+    /// of AND, the right operand comes first.
     /// </summary>
     /// <param name="context">The parse tree.</param>
     public override void ExitTeLogical(TeLogicalContext context)
@@ -396,6 +489,9 @@ public class SqlPythiaQueryListener(SqlPythiaListenerState state)
                     context.ANDNOT() != null ? "EXCEPT" :
                     "UNION";
 
+        if (context.AND() != null && _state.Plan?.IsSwapped(context) == true)
+            (left, right) = (right, left);
+
         _sqlParts.Push($"({left} {op} {right})");
     }
 }
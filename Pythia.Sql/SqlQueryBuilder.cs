@@ -5,7 +5,10 @@ using Pythia.Core.Analysis;
 using Pythia.Core.Query;
 using System;
 using System.Collections.Generic;
+using System.Text;
 using System.Text.RegularExpressions;
+using System.Threading;
+using System.Threading.Tasks;
 
 namespace Pythia.Sql;
 
@@ -34,6 +37,39 @@ public sealed class SqlQueryBuilder(ISqlHelper sqlHelper)
     /// </summary>
     public IList<ILiteralFilter>? LiteralFilters { get; set; }
 
+    /// <summary>
+    /// Gets or sets the optional cache used by <see cref="BuildTemplate"/>.
+    /// </summary>
+    public SqlQueryCache? Cache { get; set; }
+
+    /// <summary>
+    /// Gets or sets the optional estimator of the count of spans matched by
+    /// each pair. When set, a planning pass (<see cref="SqlQueryPlanner"/>)
+    /// orders the operands of the query so that the most selective ones
+    /// come first.
+    /// </summary>
+    public IQueryPairEstimator? Estimator { get; set; }
+
+    /// <summary>
+    /// Gets or sets the optional identity of the database queried, e.g. a
+    /// hash of its connection string. When <see cref="Estimator"/> is set,
+    /// templates depend on the data of the database, so this is added to
+    /// their key in <see cref="Cache"/>, which may be shared by several
+    /// databases.
+    /// </summary>
+    public string? DatabaseId { get; set; }
+
+    /// <summary>
+    /// Gets or sets a value indicating whether location operators are
+    /// compiled into calls to the location functions of the database
+    /// (like <c>pyt_is_near_within</c>), rather than into range predicates
+    /// on positions. Function calls are opaque to the database planner,
+    /// so that it must evaluate them for each pair of spans in the same
+    /// document; range predicates instead can use indexes on positions.
+    /// The default value is false.
+    /// </summary>
+    public bool UseLocationFunctions { get; set; }
+
     /// <summary>
     /// Gets the type of the specified privileged attribute.
     /// </summary>
@@ -75,6 +111,140 @@ public sealed class SqlQueryBuilder(ISqlHelper sqlHelper)
     {
         ArgumentNullException.ThrowIfNull(request);
 
+        SqlPythiaQueryListener listener = Walk(request, false, false);
+        return Tuple.Create(listener.GetSql(false)!, listener.GetSql(true)!);
+    }
+
+    /// <summary>
+    /// Builds an SQL query template from the specified Pythia query.
+    /// Paging is represented by bind parameters, so that the template does
+    /// not depend on the requested page, and can be got from
+    /// <see cref="Cache"/> when this is set.
+    /// </summary>
+    /// <param name="request">The Pythia query request. Its page number and
+    /// size are ignored.</param>
+    /// <param name="keyset">True to build a template for keyset paging,
+    /// where results are got by seeking after a key rather than by offset.
+    /// </param>
+    /// <returns>The template.</returns>
+    /// <exception cref="ArgumentNullException">request</exception>
+    public SqlQueryTemplate BuildTemplate(SearchRequest request,
+        bool keyset = false)
+    {
+        ArgumentNullException.ThrowIfNull(request);
+
+        SqlQueryTemplate Compile() =>
+            CreateTemplate(Walk(request, true, keyset));
+
+        if (Cache == null) return Compile();
+
+        return Cache.GetOrAdd(GetCacheKey(request, keyset), Compile);
+    }
+
+    /// <summary>
+    /// Builds an SQL query template from the specified Pythia query, like
+    /// <see cref="BuildTemplate"/>, awaiting the estimates of its pairs
+    /// when <see cref="Estimator"/> is set.
+    /// </summary>
+    /// <param name="request">The Pythia query request. Its page number and
+    /// size are ignored.</param>
+    /// <param name="keyset">True to build a template for keyset paging.
+    /// </param>
+    /// <param name="cancel">The cancellation token.</param>
+    /// <returns>The template.</returns>
+    /// <exception cref="ArgumentNullException">request</exception>
+    public async Task<SqlQueryTemplate> BuildTemplateAsync(
+        SearchRequest request, bool keyset = false,
+        CancellationToken cancel = default)
+    {
+        ArgumentNullException.ThrowIfNull(request);
+
+        async Task<SqlQueryTemplate> CompileAsync() =>
+            CreateTemplate(await WalkAsync(request, true, keyset, cancel));
+
+        if (Cache == null) return await CompileAsync();
+
+        return await Cache.GetOrAddAsync(GetCacheKey(request, keyset),
+            CompileAsync);
+    }
+
+    private static SqlQueryTemplate CreateTemplate(
+        SqlPythiaQueryListener listener)
+    {
+        return new SqlQueryTemplate(listener.GetSql(false)!,
+            listener.GetSql(true)!);
+    }
+
+    private string GetCacheKey(SearchRequest request, bool keyset)
+    {
+        return SqlQueryCache.BuildKey(
+            _sqlHelper.GetType().FullName! + (keyset ? "+keyset" : "") +
+                (Estimator != null ? $"+planned:{DatabaseId}" : "") +
+                (UseLocationFunctions ? "+locfn" : ""),
+            request.Query, keyset ? null : request.SortFields, LiteralFilters);
+    }
+
+    /// <summary>
+    /// Builds an SQL query getting all the results of the specified Pythia
+    /// query, sorted by document ID, position and ID, with no paging.
+    /// This is used to stream results into in-process merge joins.
+    /// </summary>
+    /// <param name="request">The Pythia query request. Its sort fields,
+    /// page number and size are ignored.</param>
+    /// <returns>SQL.</returns>
+    /// <exception cref="ArgumentNullException">request</exception>
+    public string BuildByPosition(SearchRequest request)
+    {
+        ArgumentNullException.ThrowIfNull(request);
+
+        return Walk(request, false, false, true).GetSql(false)!;
+    }
+
+    /// <summary>
+    /// Explains the SQL query built from the specified Pythia query, by
+    /// showing the plan chosen for its text expression (when
+    /// <see cref="Estimator"/> is set) followed by the SQL code for the
+    /// requested page.
+    /// </summary>
+    /// <param name="request">The Pythia query request.</param>
+    /// <returns>The explanation, where each plan node is followed by its
+    /// estimated count (<c>?</c> when not available) and by
+    /// <c>(swapped)</c> when its operands were swapped; operands are listed
+    /// in execution order.</returns>
+    /// <exception cref="ArgumentNullException">request</exception>
+    public string Explain(SearchRequest request)
+    {
+        ArgumentNullException.ThrowIfNull(request);
+
+        SqlPythiaQueryListener listener = Walk(request, false, false);
+        StringBuilder sb = new();
+        sb.Append("-- plan\n");
+        if (listener.Plan?.Root != null)
+        {
+            foreach (string line in listener.Plan.ToString()
+                .Split('\n', StringSplitOptions.RemoveEmptyEntries))
+            {
+                sb.Append("-- ").Append(line).Append('\n');
+            }
+        }
+        else
+        {
+            sb.Append("-- (not planned)\n");
+        }
+        sb.Append(listener.GetSql(false));
+        return sb.ToString();
+    }
+
+    /// <summary>
+    /// Parses the specified request's query and runs the first pass on it,
+    /// collecting its pairs.
+    /// </summary>
+    /// <param name="request">The request.</param>
+    /// <param name="state">The listener state.</param>
+    /// <returns>The parsed query.</returns>
+    private pythiaParser.QueryContext Parse(SearchRequest request,
+        out SqlPythiaListenerState state)
+    {
         AntlrInputStream input = new(request.Query);
         pythiaLexer lexer = new(input);
         CommonTokenStream tokens = new(lexer);
@@ -85,11 +255,11 @@ public sealed class SqlQueryBuilder(ISqlHelper sqlHelper)
         parser.AddErrorListener(new ThrowingErrorListener());
 
         pythiaParser.QueryContext tree = parser.query();
-        ParseTreeWalker walker = new();
 
-        SqlPythiaListenerState state = new(lexer.Vocabulary, _sqlHelper)
+        state = new(lexer.Vocabulary, _sqlHelper)
         {
-            HasNonPrivilegedDocAttrs = HasNonPrivilegedDocAttrs(request.Query)
+            HasNonPrivilegedDocAttrs = HasNonPrivilegedDocAttrs(request.Query),
+            UseLocationFunctions = UseLocationFunctions
         };
 
         // first pass
@@ -99,13 +269,34 @@ public sealed class SqlQueryBuilder(ISqlHelper sqlHelper)
             foreach (ILiteralFilter filter in LiteralFilters)
                 pairListener.LiteralFilters.Add(filter);
         }
-        walker.Walk(pairListener, tree);
+        new ParseTreeWalker().Walk(pairListener, tree);
+
+        return tree;
+    }
+
+    /// <summary>
+    /// Runs the planning pass, when an estimator is specified, and the
+    /// second pass on the specified parsed query.
+    /// </summary>
+    private static SqlPythiaQueryListener Complete(
+        pythiaParser.QueryContext tree, SqlPythiaListenerState state,
+        IQueryPairEstimator? estimator, SearchRequest request,
+        bool parameterizedPaging, bool keyset, bool byPosition)
+    {
+        ParseTreeWalker walker = new();
+
+        // planning pass
+        if (estimator != null)
+            walker.Walk(new SqlQueryPlanner(state, estimator), tree);
 
         // second pass
         SqlPythiaQueryListener queryListener = new(state)
         {
             PageNumber = request.PageNumber,
             PageSize = request.PageSize,
+            IsPagingParameterized = parameterizedPaging,
+            IsKeysetPaging = keyset,
+            IsPositionOrdered = byPosition
         };
         if (request.SortFields?.Count > 0)
         {
@@ -114,6 +305,45 @@ public sealed class SqlQueryBuilder(ISqlHelper sqlHelper)
         }
 
         walker.Walk(queryListener, tree);
-        return Tuple.Create(queryListener.GetSql(false)!, queryListener.GetSql(true)!);
+        return queryListener;
+    }
+
+    private SqlPythiaQueryListener Walk(SearchRequest request,
+        bool parameterizedPaging, bool keyset, bool byPosition = false)
+    {
+        pythiaParser.QueryContext tree = Parse(request,
+            out SqlPythiaListenerState state);
+        return Complete(tree, state, Estimator, request, parameterizedPaging,
+            keyset, byPosition);
+    }
+
+    private async Task<SqlPythiaQueryListener> WalkAsync(
+        SearchRequest request, bool parameterizedPaging, bool keyset,
+        CancellationToken cancel)
+    {
+        pythiaParser.QueryContext tree = Parse(request,
+            out SqlPythiaListenerState state);
+
+        // the pairs are estimated before planning, so that the planner
+        // just gets the estimates
+        IQueryPairEstimator? estimator = null;
+        if (Estimator != null)
+        {
+            estimator = new EstimatedPairs(await Estimator.EstimateAsync(
+                SqlQueryPlanner.GetPairs(state), cancel));
+        }
+        return Complete(tree, state, estimator, request, parameterizedPaging,
+            keyset, false);
+    }
+
+    /// <summary>
+    /// Pair estimator returning estimates got in advance.
+    /// </summary>
+    /// <param name="estimates">The estimates.</param>
+    private sealed class EstimatedPairs(IDictionary<string, double> estimates)
+        : IQueryPairEstimator
+    {
+        public IDictionary<string, double> Estimate(
+            IList<Tuple<QuerySetPair, string>> pairs) => estimates;
     }
 }
@@ -0,0 +1,228 @@
+﻿using Pythia.Core;
+using Pythia.Core.Analysis;
+using System;
+using System.Collections.Generic;
+using System.Text;
+using System.Threading.Tasks;
+
+namespace Pythia.Sql;
+
+/// <summary>
+/// A bounded, thread-safe LRU cache of compiled SQL query templates.
+/// This avoids parsing a Pythia query and walking its tree again when
+/// the same query is requested for another page, or for the count.
+/// </summary>
+public sealed class SqlQueryCache
+{
+    private readonly object _locker = new();
+    private readonly Dictionary<string, LinkedListNode<
+        KeyValuePair<string, SqlQueryTemplate>>> _map = [];
+    private readonly LinkedList<KeyValuePair<string, SqlQueryTemplate>> _lru
+        = new();
+    private long _hits;
+    private long _misses;
+    private long _evictions;
+
+    /// <summary>
+    /// Gets the default cache, shared by all the SQL index repositories
+    /// in this process.
+    /// </summary>
+    public static SqlQueryCache Default { get; } = new();
+
+    /// <summary>
+    /// Gets the maximum count of templates in this cache.
+    /// </summary>
+    public int Capacity { get; }
+
+    /// <summary>
+    /// Gets the count of templates in this cache.
+    /// </summary>
+    public int Count
+    {
+        get { lock (_locker) return _map.Count; }
+    }
+
+    /// <summary>
+    /// Gets the count of cache hits.
+    /// </summary>
+    public long Hits
+    {
+        get { lock (_locker) return _hits; }
+    }
+
+    /// <summary>
+    /// Gets the count of cache misses.
+    /// </summary>
+    public long Misses
+    {
+        get { lock (_locker) return _misses; }
+    }
+
+    /// <summary>
+    /// Gets the count of templates evicted from this cache because it
+    /// was full.
+    /// </summary>
+    public long Evictions
+    {
+        get { lock (_locker) return _evictions; }
+    }
+
+    /// <summary>
+    /// Initializes a new instance of the <see cref="SqlQueryCache"/> class.
+    /// </summary>
+    /// <param name="capacity">The maximum count of templates.</param>
+    /// <exception cref="ArgumentOutOfRangeException">capacity less than 1
+    /// </exception>
+    public SqlQueryCache(int capacity = 512)
+    {
+        ArgumentOutOfRangeException.ThrowIfLessThan(capacity, 1);
+        Capacity = capacity;
+    }
+
+    /// <summary>
+    /// Normalizes the specified Pythia query by trimming it and collapsing
+    /// whitespace outside quoted values.
+    /// </summary>
+    /// <param name="query">The query.</param>
+    /// <returns>Normalized query.</returns>
+    public static string NormalizeQuery(string? query) =>
+        SearchRequest.NormalizeQuery(query);
+
+    /// <summary>
+    /// Builds a cache key from the specified query parameters.
+    /// </summary>
+    /// <param name="dialect">The SQL dialect, e.g. the SQL helper type.
+    /// </param>
+    /// <param name="query">The Pythia query.</param>
+    /// <param name="sortFields">The optional sort fields.</param>
+    /// <param name="literalFilters">The optional literal filters. These
+    /// are identified by their type, so all the filters of the same type
+    /// must have the same configuration in a process, as it happens when
+    /// they come from a single profile.</param>
+    /// <returns>Key.</returns>
+    public static string BuildKey(string dialect, string? query,
+        IList<string>? sortFields, IList<ILiteralFilter>? literalFilters)
+    {
+        StringBuilder sb = new(dialect);
+        sb.Append('\n').Append(NormalizeQuery(query)).Append('\n');
+        if (sortFields?.Count > 0) sb.AppendJoin(',', sortFields);
+        sb.Append('\n');
+        if (literalFilters?.Count > 0)
+        {
+            foreach (ILiteralFilter filter in literalFilters)
+                sb.Append(filter.GetType().FullName).Append(',');
+        }
+        return sb.ToString();
+    }
+
+    private bool TryGet(string key, out SqlQueryTemplate? template)
+    {
+        lock (_locker)
+        {
+            if (_map.TryGetValue(key, out var node))
+            {
+                _lru.Remove(node);
+                _lru.AddFirst(node);
+                _hits++;
+                template = node.Value.Value;
+                return true;
+            }
+            _misses++;
+        }
+        template = null;
+        return false;
+    }
+
+    private SqlQueryTemplate Add(string key, SqlQueryTemplate template)
+    {
+        lock (_locker)
+        {
+            // another thread might have added it meantime
+            if (_map.TryGetValue(key, out var node))
+            {
+                _lru.Remove(node);
+                _lru.AddFirst(node);
+                return node.Value.Value;
+            }
+
+            _map[key] = _lru.AddFirst(new KeyValuePair<string, SqlQueryTemplate>(
+                key, template));
+            while (_map.Count > Capacity)
+            {
+                LinkedListNode<KeyValuePair<string, SqlQueryTemplate>> last =
+                    _lru.Last!;
+                _lru.RemoveLast();
+                _map.Remove(last.Value.Key);
+                _evictions++;
+            }
+        }
+        return template;
+    }
+
+    /// <summary>
+    /// Gets the template with the specified key, building and adding it
+    /// if not present.
+    /// </summary>
+    /// <param name="key">The key, as built by <see cref="BuildKey"/>.
+    /// </param>
+    /// <param name="build">The function used to build the template.
+    /// This is called outside the cache lock.</param>
+    /// <returns>Template.</returns>
+    /// <exception cref="ArgumentNullException">key or build</exception>
+    public SqlQueryTemplate GetOrAdd(string key, Func<SqlQueryTemplate> build)
+    {
+        ArgumentNullException.ThrowIfNull(key);
+        ArgumentNullException.ThrowIfNull(build);
+
+        return TryGet(key, out SqlQueryTemplate? template)
+            ? template!
+            : Add(key, build());
+    }
+
+    /// <summary>
+    /// Gets the template with the specified key, building it asynchronously
+    /// and adding it if not present.
+    /// </summary>
+    /// <param name="key">The key, as built by <see cref="BuildKey"/>.
+    /// </param>
+    /// <param name="build">The function used to build the template.
+    /// This is called outside the cache lock.</param>
+    /// <returns>Template.</returns>
+    /// <exception cref="ArgumentNullException">key or build</exception>
+    public async Task<SqlQueryTemplate> GetOrAddAsync(string key,
+        Func<Task<SqlQueryTemplate>> build)
+    {
+        ArgumentNullException.ThrowIfNull(key);
+        ArgumentNullException.ThrowIfNull(build);
+
+        return TryGet(key, out SqlQueryTemplate? template)
+            ? template!
+            : Add(key, await build());
+    }
+
+    /// <summary>
+    /// Clears this cache and resets its counters.
+    /// </summary>
+    public void Clear()
+    {
+        lock (_locker)
+        {
+            _map.Clear();
+            _lru.Clear();
+            _hits = _misses = _evictions = 0;
+        }
+    }
+
+    /// <summary>
+    /// Converts to string.
+    /// </summary>
+    /// <returns>String.</returns>
+    public override string ToString()
+    {
+        lock (_locker)
+        {
+            return $"{_map.Count}/{Capacity}: {_hits} hits, {_misses} misses, " +
+                $"{_evictions} evictions";
+        }
+    }
+}
@@ -0,0 +1,66 @@
+﻿using Antlr4.Runtime.Tree;
+using System;
+using System.Collections.Generic;
+using System.Text;
+
+namespace Pythia.Sql;
+
+/// <summary>
+/// The execution plan chosen by <see cref="SqlQueryPlanner"/> for the text
+/// expression of a query. Each node of the plan corresponds to a pair or
+/// to an operator in the query's parse tree.
+/// </summary>
+public sealed class SqlQueryPlan
+{
+    private readonly Dictionary<IParseTree, SqlQueryPlanNode> _nodes = [];
+
+    /// <summary>
+    /// Gets or sets the root node of the plan.
+    /// </summary>
+    public SqlQueryPlanNode? Root { get; set; }
+
+    /// <summary>
+    /// Sets the plan node corresponding to the specified parse tree node.
+    /// </summary>
+    /// <param name="tree">The parse tree node.</param>
+    /// <param name="node">The plan node.</param>
+    /// <exception cref="ArgumentNullException">tree or node</exception>
+    public void SetNode(IParseTree tree, SqlQueryPlanNode node)
+    {
+        ArgumentNullException.ThrowIfNull(tree);
+        ArgumentNullException.ThrowIfNull(node);
+        _nodes[tree] = node;
+    }
+
+    /// <summary>
+    /// Gets the plan node corresponding to the specified parse tree node.
+    /// </summary>
+    /// <param name="tree">The parse tree node.</param>
+    /// <returns>The node, or null if not found.</returns>
+    public SqlQueryPlanNode? GetNode(IParseTree tree)
+    {
+        return _nodes.TryGetValue(tree, out SqlQueryPlanNode? node)
+            ? node : null;
+    }
+
+    /// <summary>
+    /// Determines whether the operands of the operator corresponding to
+    /// the specified parse tree node are swapped.
+    /// </summary>
+    /// <param name="tree">The parse tree node.</param>
+    /// <returns><c>true</c> if swapped; otherwise, <c>false</c>.</returns>
+    public bool IsSwapped(IParseTree tree) => GetNode(tree)?.IsSwapped == true;
+
+    /// <summary>
+    /// Converts to string, rendering the plan as an indented tree where
+    /// each node is followed by its estimated count.
+    /// </summary>
+    /// <returns>String.</returns>
+    public override string ToString()
+    {
+        if (Root == null) return "";
+        StringBuilder sb = new();
+        Root.Render(0, sb);
+        return sb.ToString();
+    }
+}
@@ -0,0 +1,85 @@
+﻿using System.Collections.Generic;
+using System.Globalization;
+using System.Text;
+
+namespace Pythia.Sql;
+
+/// <summary>
+/// A node in a <see cref="SqlQueryPlan"/>, corresponding to a pair or to
+/// an operator of the query's text expression.
+/// </summary>
+public sealed class SqlQueryPlanNode
+{
+    /// <summary>
+    /// Gets the label of this node, like <c>s1: value EQ "sic"</c> for
+    /// a pair, or the operator name like <c>AND</c> or <c>INSIDE</c>.
+    /// </summary>
+    public string Label { get; }
+
+    /// <summary>
+    /// Gets or sets the estimated count of spans matched by this node,
+    /// or null if not available.
+    /// </summary>
+    public double? Estimate { get; set; }
+
+    /// <summary>
+    /// Gets or sets a value indicating whether the operands of this node
+    /// are swapped with respect to their grammar order, so that the
+    /// right operand comes first (AND) or drives the join (location
+    /// operators).
+    /// </summary>
+    public bool IsSwapped { get; set; }
+
+    /// <summary>
+    /// Gets the children nodes, i.e. the operands of an operator node,
+    /// in their grammar order.
+    /// </summary>
+    public IList<SqlQueryPlanNode> Children { get; } = [];
+
+    /// <summary>
+    /// Initializes a new instance of the <see cref="SqlQueryPlanNode"/>
+    /// class.
+    /// </summary>
+    /// <param name="label">The label.</param>
+    public SqlQueryPlanNode(string label)
+    {
+        Label = label ?? "";
+    }
+
+    /// <summary>
+    /// Appends a line for this node and for each of its descendants,
+    /// indented according to their depth, to the specified builder.
+    /// Children are listed in their execution order.
+    /// </summary>
+    /// <param name="depth">The depth of this node.</param>
+    /// <param name="sb">The target builder.</param>
+    internal void Render(int depth, StringBuilder sb)
+    {
+        sb.Append(' ', depth * 2).Append(Label).Append(" ~");
+        sb.Append(Estimate.HasValue
+            ? Estimate.Value.ToString("F0", CultureInfo.InvariantCulture)
+            : "?");
+        if (IsSwapped) sb.Append(" (swapped)");
+        sb.Append('\n');
+
+        if (Children.Count == 2 && IsSwapped)
+        {
+            Children[1].Render(depth + 1, sb);
+            Children[0].Render(depth + 1, sb);
+        }
+        else
+        {
+            foreach (SqlQueryPlanNode child in Children)
+                child.Render(depth + 1, sb);
+        }
+    }
+
+    /// <summary>
+    /// Converts to string.
+    /// </summary>
+    /// <returns>String.</returns>
+    public override string ToString()
+    {
+        return $"{Label} ~{Estimate}{(IsSwapped ? " (swapped)" : "")}";
+    }
+}
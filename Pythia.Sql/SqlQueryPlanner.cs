@@ -0,0 +1,211 @@
+﻿using Antlr4.Runtime.Tree;
+using Pythia.Core.Query;
+using System;
+using System.Collections.Generic;
+using System.Diagnostics.CodeAnalysis;
+using System.Linq;
+using System.Text;
+using static Pythia.Core.Query.pythiaParser;
+
+namespace Pythia.Sql;
+
+/// <summary>
+/// Planning pass for the SQL listeners. This listener runs after
+/// <see cref="SqlPythiaPairListener"/> and before
+/// <see cref="SqlPythiaQueryListener"/>: it estimates the count of spans
+/// matched by each pair subquery via an <see cref="IQueryPairEstimator"/>,
+/// propagates the estimates up the text expression, and marks the
+/// operators whose operands should be swapped so that the most selective
+/// operand comes first: the operands of AND, and the sides of a non-negated
+/// location operator, where the rarer side drives the join. The resulting
+/// plan is stored in <see cref="SqlPythiaListenerState.Plan"/>.
+/// </summary>
+/// <seealso cref="pythiaBaseListener" />
+/// <remarks>
+/// Initializes a new instance of the <see cref="SqlQueryPlanner"/> class.
+/// </remarks>
+/// <param name="state">The listener state.</param>
+/// <param name="estimator">The pairs estimator.</param>
+/// <exception cref="ArgumentNullException">state or estimator</exception>
+public sealed class SqlQueryPlanner(SqlPythiaListenerState state,
+    IQueryPairEstimator estimator) : pythiaBaseListener
+{
+    private readonly SqlPythiaListenerState _state = state
+        ?? throw new ArgumentNullException(nameof(state));
+    private readonly IQueryPairEstimator _estimator = estimator
+        ?? throw new ArgumentNullException(nameof(estimator));
+    private readonly Stack<SqlQueryPlanNode> _nodes = [];
+    private IDictionary<string, double> _estimates =
+        new Dictionary<string, double>();
+    private SqlQueryPlan _plan = new();
+    private int _pairNumber;
+
+    private string GetPairLabel(string id)
+    {
+        if (!_state.Pairs.TryGetValue(id, out QuerySetPair? pair)) return id;
+
+        StringBuilder sb = new();
+        sb.Append(id).Append(": ")
+          .Append(pair.IsStructure ? "$" : "").Append(pair.Name);
+        if (pair.Operator > 0)
+        {
+            sb.Append(' ')
+              .Append(_state.Vocabulary.GetSymbolicName(pair.Operator))
+              .Append(" \"").Append(pair.Value).Append('"');
+        }
+        return sb.ToString();
+    }
+
+    private static bool IsLess(double? a, double? b) =>
+        a.HasValue && b.HasValue && a.Value < b.Value;
+
+    private static double? Min(double? a, double? b) =>
+        a.HasValue && b.HasValue ? Math.Min(a.Value, b.Value) : a ?? b;
+
+    /// <summary>
+    /// Enter a parse tree produced by <see cref="M:pythiaParser.query" />:
+    /// this estimates all the pairs collected by the pair listener.
+    /// </summary>
+    /// <param name="context">The parse tree.</param>
+    public override void EnterQuery([NotNull] QueryContext context)
+    {
+        _nodes.Clear();
+        _pairNumber = 0;
+        _plan = new SqlQueryPlan();
+        _state.Plan = _plan;
+
+        _estimates = _estimator.Estimate(GetPairs(_state));
+    }
+
+    /// <summary>
+    /// Gets the pairs to estimate from the specified listener state, as
+    /// collected by the pair listener.
+    /// </summary>
+    /// <param name="state">The listener state.</param>
+    /// <returns>The pairs, each with the SQL code of its subquery, in
+    /// their order in the query.</returns>
+    /// <exception cref="ArgumentNullException">state</exception>
+    public static IList<Tuple<QuerySetPair, string>> GetPairs(
+        SqlPythiaListenerState state)
+    {
+        ArgumentNullException.ThrowIfNull(state);
+
+        return [.. state.Pairs.Values
+            .Where(p => state.PairCteQueries.ContainsKey(p.Id))
+            .OrderBy(p => p.Number)
+            .Select(p => Tuple.Create(p, state.PairCteQueries[p.Id]))];
+    }
+
+    /// <summary>
+    /// Exit a parse tree produced by <see cref="M:pythiaParser.query" />:
+    /// this sets the root of the plan.
+    /// </summary>
+    /// <param name="context">The parse tree.</param>
+    public override void ExitQuery([NotNull] QueryContext context)
+    {
+        _plan.Root = _nodes.Count > 0 ? _nodes.Peek() : null;
+    }
+
+    /// <summary>
+    /// Enter a parse tree produced by the <c>tePair</c> labeled alternative
+    /// in <see cref="M:Pythia.Core.Query.pythiaParser.txtExpr" />. This
+    /// pushes a leaf node with the pair's estimate.
+    /// </summary>
+    /// <param name="context">The parse tree.</param>
+    public override void EnterTePair([NotNull] TePairContext context)
+    {
+        string id = $"s{++_pairNumber}";
+        SqlQueryPlanNode node = new(GetPairLabel(id))
+        {
+            Estimate = _estimates.TryGetValue(id, out double n) ? n : null
+        };
+        _plan.SetNode(context, node);
+        _nodes.Push(node);
+    }
+
+    /// <summary>
+    /// Exit a parse tree produced by the <c>teParen</c> labeled alternative
+    /// in <see cref="M:Pythia.Core.Query.pythiaParser.txtExpr" />. The node
+    /// of the wrapped expression also represents the parenthesized one.
+    /// </summary>
+    /// <param name="context">The parse tree.</param>
+    public override void ExitTeParen([NotNull] TeParenContext context)
+    {
+        if (_nodes.Count > 0) _plan.SetNode(context, _nodes.Peek());
+    }
+
+    /// <summary>
+    /// Exit a parse tree produced by the <c>teLogical</c> labeled alternative
+    /// in <see cref="M:Pythia.Core.Query.pythiaParser.txtExpr" />. This
+    /// estimates the result of the operator, and swaps the operands of AND
+    /// when the right one is more selective.
+    /// </summary>
+    /// <param name="context">The parse tree.</param>
+    public override void ExitTeLogical([NotNull] TeLogicalContext context)
+    {
+        SqlQueryPlanNode right = _nodes.Pop();
+        SqlQueryPlanNode left = _nodes.Pop();
+        SqlQueryPlanNode node;
+
+        if (context.AND() != null)
+        {
+            // INTERSECT: commutative, and bounded by its rarest operand
+            node = new SqlQueryPlanNode("AND")
+            {
+                Estimate = Min(left.Estimate, right.Estimate),
+                IsSwapped = IsLess(right.Estimate, left.Estimate)
+            };
+        }
+        else if (context.ANDNOT() != null)
+        {
+            // EXCEPT: not commutative, bounded by its left operand
+            node = new SqlQueryPlanNode("ANDNOT")
+            {
+                Estimate = left.Estimate
+            };
+        }
+        else
+        {
+            // UNION: the order of operands is irrelevant
+            node = new SqlQueryPlanNode(context.OR() != null ? "OR" : "ORNOT")
+            {
+                Estimate = left.Estimate + right.Estimate
+            };
+        }
+
+        node.Children.Add(left);
+        node.Children.Add(right);
+        _plan.SetNode(context, node);
+        _nodes.Push(node);
+    }
+
+    /// <summary>
+    /// Exit a parse tree produced by the <c>teLocation</c> labeled alternative
+    /// in <see cref="M:Pythia.Core.Query.pythiaParser.txtExpr" />. This
+    /// estimates the result of the operator, and for non-negated operators
+    /// lets the right side drive the join when it is more selective.
+    /// </summary>
+    /// <param name="context">The parse tree.</param>
+    public override void ExitTeLocation([NotNull] TeLocationContext context)
+    {
+        SqlQueryPlanNode right = _nodes.Pop();
+        SqlQueryPlanNode left = _nodes.Pop();
+
+        int op = ((ITerminalNode)context.locop().GetChild(0)).Symbol.Type;
+        bool negated = LocationState.IsNotFn(op);
+
+        // the result is a subset of the left side; when not negated,
+        // each result also needs a match on the right side
+        SqlQueryPlanNode node = new(_state.Vocabulary.GetSymbolicName(op))
+        {
+            Estimate = negated
+                ? left.Estimate
+                : Min(left.Estimate, right.Estimate),
+            IsSwapped = !negated && IsLess(right.Estimate, left.Estimate)
+        };
+        node.Children.Add(left);
+        node.Children.Add(right);
+        _plan.SetNode(context, node);
+        _nodes.Push(node);
+    }
+}
@@ -0,0 +1,75 @@
+﻿using System;
+
+namespace Pythia.Sql;
+
+/// <summary>
+/// A compiled SQL query template, built from a Pythia query by
+/// <see cref="SqlQueryBuilder"/>. Paging is not spliced into the data
+/// query text, but represented by the <see cref="OffsetParameter"/> and
+/// <see cref="LimitParameter"/> bind parameters, so that the same template
+/// can serve any page and the database can reuse its prepared plan.
+/// </summary>
+/// <remarks>
+/// Initializes a new instance of the <see cref="SqlQueryTemplate"/> class.
+/// </remarks>
+/// <param name="dataSql">The data SQL.</param>
+/// <param name="countSql">The count SQL.</param>
+/// <exception cref="ArgumentNullException">dataSql or countSql</exception>
+public sealed class SqlQueryTemplate(string dataSql, string countSql)
+{
+    /// <summary>
+    /// The name of the paging offset parameter.
+    /// </summary>
+    public const string OffsetParameter = "@offset";
+
+    /// <summary>
+    /// The name of the paging limit parameter.
+    /// </summary>
+    public const string LimitParameter = "@limit";
+
+    /// <summary>
+    /// The name of the keyset paging sort key parameter.
+    /// </summary>
+    public const string KeySortKeyParameter = "@k_sort_key";
+
+    /// <summary>
+    /// The name of the keyset paging document ID parameter.
+    /// </summary>
+    public const string KeyDocumentIdParameter = "@k_document_id";
+
+    /// <summary>
+    /// The name of the keyset paging position parameter.
+    /// </summary>
+    public const string KeyP1Parameter = "@k_p1";
+
+    /// <summary>
+    /// The name of the keyset paging ID parameter.
+    /// </summary>
+    public const string KeyIdParameter = "@k_id";
+
+    /// <summary>
+    /// Gets the SQL code for the results page query, having the
+    /// <see cref="OffsetParameter"/> and <see cref="LimitParameter"/>
+    /// parameters, or, for keyset paging, the <see cref="LimitParameter"/>
+    /// and the key parameters (<see cref="KeySortKeyParameter"/>,
+    /// <see cref="KeyDocumentIdParameter"/>, <see cref="KeyP1Parameter"/>,
+    /// <see cref="KeyIdParameter"/>).
+    /// </summary>
+    public string DataSql { get; } = dataSql
+        ?? throw new ArgumentNullException(nameof(dataSql));
+
+    /// <summary>
+    /// Gets the SQL code for the total count query.
+    /// </summary>
+    public string CountSql { get; } = countSql
+        ?? throw new ArgumentNullException(nameof(countSql));
+
+    /// <summary>
+    /// Gets the paging offset for the specified page.
+    /// </summary>
+    /// <param name="pageNumber">The page number (1-N).</param>
+    /// <param name="pageSize">The page size.</param>
+    /// <returns>Offset.</returns>
+    public static int GetOffset(int pageNumber, int pageSize) =>
+        (pageNumber - 1) * pageSize;
+}
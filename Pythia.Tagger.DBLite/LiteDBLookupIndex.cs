@@ -3,6 +3,7 @@ using LiteDB;
 using Pythia.Tagger.Lookup;
 using System;
 using System.Collections.Generic;
+using System.Collections.ObjectModel;
 using System.IO;
 using System.Linq;
 
@@ -15,9 +16,15 @@ namespace Pythia.Tagger.LiteDB;
 /// </summary>
 public sealed class LiteDBLookupIndex : ILookupIndex, IDisposable
 {
+    // max count of values queried at once by LookupMany
+    private const int LOOKUP_CHUNK_SIZE = 500;
+
     private readonly LiteDatabase _db;
     private readonly ILiteCollection<LookupEntry> _collection;
     private readonly DamerauLevenshteinSimilarityScorer _similarityScorer = new();
+    // the comparer of the database collation, used by its indexes
+    private readonly StringComparer _comparer;
+    private LookupCache? _cache = new();
     private bool _pendingRebuild;
     private bool _disposed;
     private readonly bool _readOnly;
@@ -27,6 +34,28 @@ public sealed class LiteDBLookupIndex : ILookupIndex, IDisposable
     /// </summary>
     public string DatabasePath { get; }
 
+    /// <summary>
+    /// Gets or sets the maximum count of recent lookup results to keep in
+    /// memory. Setting this clears the cache; 0 disables it. The default
+    /// value is 10,000.
+    /// </summary>
+    /// <exception cref="ArgumentOutOfRangeException">value less than 0
+    /// </exception>
+    public int CacheSize
+    {
+        get { return _cache?.Capacity ?? 0; }
+        set
+        {
+            ArgumentOutOfRangeException.ThrowIfNegative(value);
+            _cache = value > 0 ? new LookupCache(value) : null;
+        }
+    }
+
+    /// <summary>
+    /// Gets the cache of recent lookup results, or null if disabled.
+    /// </summary>
+    public LookupCache? Cache => _cache;
+
     /// <summary>
     /// Creates a new instance of the <see cref="LiteDBLookupIndex"/> class
     /// with the specified database path.
@@ -57,6 +86,9 @@ public sealed class LiteDBLookupIndex : ILookupIndex, IDisposable
 
         _db = new LiteDatabase(connectionString);
         _collection = _db.GetCollection<LookupEntry>("entries");
+        Collation collation = _db.Collation;
+        _comparer = StringComparer.Create(collation.Culture,
+            collation.SortOptions);
 
         // create indexes if not read-only
         if (!readOnly)
@@ -85,6 +117,7 @@ public sealed class LiteDBLookupIndex : ILookupIndex, IDisposable
             throw new InvalidOperationException("Cannot modify a read-only index");
 
         _collection.DeleteAll();
+        _cache?.Clear();
         _pendingRebuild = true;
     }
 
@@ -103,6 +136,7 @@ public sealed class LiteDBLookupIndex : ILookupIndex, IDisposable
             throw new InvalidOperationException("Cannot modify a read-only index");
 
         _collection.Upsert(entry);
+        _cache?.Clear();
         _pendingRebuild = true;
     }
 
@@ -121,6 +155,7 @@ public sealed class LiteDBLookupIndex : ILookupIndex, IDisposable
             throw new InvalidOperationException("Cannot modify a read-only index");
 
         // begin an implicit transaction
+        _cache?.Clear();
         _pendingRebuild = true;
         _db.BeginTrans();
 
@@ -184,22 +219,108 @@ public sealed class LiteDBLookupIndex : ILookupIndex, IDisposable
     /// </summary>
     /// <param name="value">The entry value.</param>
     /// <param name="pos">The optional part of speech.</param>
-    /// <returns>Zero or more matching entries.</returns>
+    /// <returns>Zero or more matching entries. Values and parts of speech
+    /// are compared with the database collation, which by default ignores
+    /// case. The returned list is read-only.</returns>
     /// <exception cref="ArgumentNullException">value is null</exception>
     public IList<LookupEntry> Lookup(string value, string? pos = null)
     {
         ArgumentNullException.ThrowIfNull(value);
 
-        if (string.IsNullOrEmpty(value)) return [];
+        if (string.IsNullOrEmpty(value))
+            return ReadOnlyCollection<LookupEntry>.Empty;
+        if (_cache?.TryGet(value, pos, out IList<LookupEntry>? cached) == true)
+            return cached;
+
+        List<LookupEntry> entries = pos == null
+            ? [.. _collection.Find(e => e.Value == value)]
+            : [.. _collection.Find(e => e.Value == value && e.Pos == pos)];
+        ReadOnlyCollection<LookupEntry> result = entries.AsReadOnly();
+        _cache?.Set(value, pos, result);
+        return result;
+    }
+
+    /// <summary>
+    /// Lookup the index for all the entries exactly matching each of the
+    /// specified values and optional parts of speech. Results not found in
+    /// the cache are got by querying the values index for chunks of
+    /// distinct values in their sort order, and then filtering the entries
+    /// of each value by part of speech in memory. Like in
+    /// <see cref="Lookup"/>, values and parts of speech are compared with
+    /// the database collation.
+    /// </summary>
+    /// <param name="keys">The values with their optional part of speech.
+    /// </param>
+    /// <returns>Zero or more matching entries for each key, in the same
+    /// order of the keys. Each list is read-only.</returns>
+    /// <exception cref="ArgumentNullException">keys</exception>
+    public IList<IList<LookupEntry>> LookupMany(
+        IEnumerable<(string Value, string? Pos)> keys)
+    {
+        ArgumentNullException.ThrowIfNull(keys);
+
+        List<(string Value, string? Pos)> keyList = [.. keys];
+        IList<LookupEntry>?[] results = new IList<LookupEntry>?[keyList.Count];
 
-        if (pos == null)
+        // collect the values not found in cache (once for all the values
+        // equal for the collation, which are matched by the same entries)
+        SortedSet<string> missing = new(_comparer);
+        for (int i = 0; i < keyList.Count; i++)
         {
-            return [.. _collection.Find(e => e.Value == value)];
+            (string value, string? pos) = keyList[i];
+            ArgumentNullException.ThrowIfNull(value);
+
+            if (value.Length == 0)
+                results[i] = ReadOnlyCollection<LookupEntry>.Empty;
+            else if (_cache?.TryGet(value, pos,
+                out IList<LookupEntry>? cached) == true)
+            {
+                results[i] = cached;
+            }
+            else missing.Add(value);
         }
-        else
+
+        // get all the entries of the missing values, in chunks, bucketed
+        // by the value they match: the entry's value may differ from it,
+        // e.g. in case, as the values index uses the database collation
+        Dictionary<string, List<LookupEntry>> found = new(
+            StringComparer.Ordinal);
+        foreach (string[] chunk in missing.Chunk(LOOKUP_CHUNK_SIZE))
         {
-            return [.. _collection.Find(e => e.Value == value && e.Pos == pos)];
+            foreach (LookupEntry entry in _collection.Find(
+                Query.In(nameof(LookupEntry.Value),
+                chunk.Select(v => new BsonValue(v)))))
+            {
+                if (!missing.TryGetValue(entry.Value!, out string? value))
+                    continue;
+                if (!found.TryGetValue(value, out List<LookupEntry>? list))
+                {
+                    list = [];
+                    found[value] = list;
+                }
+                list.Add(entry);
+            }
         }
+
+        // resolve the missing results
+        for (int i = 0; i < keyList.Count; i++)
+        {
+            if (results[i] != null) continue;
+
+            (string value, string? pos) = keyList[i];
+            missing.TryGetValue(value, out string? key);
+            List<LookupEntry> entries = found.TryGetValue(key!,
+                out List<LookupEntry>? all)
+                ? [.. pos == null
+                    ? all
+                    : all.Where(e => _comparer.Equals(e.Pos, pos))]
+                : [];
+            ReadOnlyCollection<LookupEntry> result = entries.AsReadOnly();
+            _cache?.Set(value, pos, result);
+            results[i] = result;
+        }
+
+        return [.. results.Select(r => r!)];
     }
 
     /// <summary>
@@ -267,8 +388,8 @@ public sealed class LiteDBLookupIndex : ILookupIndex, IDisposable
             // apply fuzzy filtering in memory
             List<LookupEntry> filteredResults = [.. allResults
                 .Where(e => e.Value != null &&
-                       _similarityScorer.Score(e.Value, filter.Value) >=
-                       filter.Threshold)];
+                       _similarityScorer.IsWithin(e.Value, filter.Value,
+                           filter.Threshold))];
 
             // calculate total before paging
             int total = filteredResults.Count;
@@ -3,6 +3,7 @@ using Pythia.Tagger.Lookup;
 using System;
 using System.Collections.Generic;
 using System.IO;
+using System.Linq;
 using Xunit;
 
 namespace Pythia.Tagger.LiteDB.Test;
@@ -292,6 +293,102 @@ public sealed class LiteDBLookupIndexTest : IDisposable
         Assert.Throws<ArgumentNullException>(() => index.Lookup(null!));
     }
 
+    [Fact]
+    public void Lookup_AfterAdd_IgnoresCachedResult()
+    {
+        using LiteDBLookupIndex index = CreateIndex();
+        index.Add(CreateEntry(1, "apple", "apple", "NOUN"));
+        Assert.Single(index.Lookup("apple"));
+
+        index.Add(CreateEntry(2, "apple", "apple", "VERB"));
+
+        Assert.Equal(2, index.Lookup("apple").Count);
+    }
+
+    [Fact]
+    public void LookupMany_Keys_ReturnsEntriesInKeysOrder()
+    {
+        using LiteDBLookupIndex index = CreateIndex();
+        index.Add(CreateEntry(1, "apple", "apple", "NOUN"));
+        index.Add(CreateEntry(2, "apple", "apple", "VERB"));
+        index.Add(CreateEntry(3, "banana", "banana", "NOUN"));
+
+        IList<IList<LookupEntry>> results = index.LookupMany(
+        [
+            ("banana", null),
+            ("apple", "VERB"),
+            ("orange", null),
+            ("apple", null),
+            ("", null)
+        ]);
+
+        Assert.Equal(5, results.Count);
+        Assert.Equal(3, Assert.Single(results[0]).Id);
+        Assert.Equal(2, Assert.Single(results[1]).Id);
+        Assert.Empty(results[2]);
+        Assert.Equal(2, results[3].Count);
+        Assert.Empty(results[4]);
+    }
+
+    [Fact]
+    public void LookupMany_DifferentCase_SameAsLookup()
+    {
+        using LiteDBLookupIndex index = CreateIndex();
+        index.Add(CreateEntry(1, "apple", "apple", "NOUN"));
+        index.Add(CreateEntry(2, "Apple", "apple", "PROPN"));
+        index.Add(CreateEntry(3, "banana", "banana", "NOUN"));
+        index.CacheSize = 0;
+        (string, string?)[] keys =
+        [
+            ("APPLE", null),
+            ("apple", "noun"),
+            ("Banana", null),
+            ("apple", null)
+        ];
+
+        IList<IList<LookupEntry>> results = index.LookupMany(keys);
+
+        Assert.Equal(keys.Length, results.Count);
+        for (int i = 0; i < keys.Length; i++)
+        {
+            Assert.Equal(
+                index.Lookup(keys[i].Item1, keys[i].Item2).Select(e => e.Id)
+                    .Order(),
+                results[i].Select(e => e.Id).Order());
+        }
+        Assert.Equal(2, results[0].Count);
+        Assert.Equal(1, Assert.Single(results[1]).Id);
+        Assert.Equal(3, Assert.Single(results[2]).Id);
+    }
+
+    [Fact]
+    public void LookupMany_Cached_ReadOnly()
+    {
+        using LiteDBLookupIndex index = CreateIndex();
+        index.Add(CreateEntry(1, "apple", "apple", "NOUN"));
+
+        IList<LookupEntry> entries = index.LookupMany([("apple", null)])[0];
+
+        Assert.True(entries.IsReadOnly);
+        Assert.Throws<NotSupportedException>(() => entries.Clear());
+        Assert.True(index.Lookup("apple").IsReadOnly);
+        Assert.Single(index.Lookup("apple"));
+    }
+
+    [Fact]
+    public void LookupMany_Cached_HitsCache()
+    {
+        using LiteDBLookupIndex index = CreateIndex();
+        index.Add(CreateEntry(1, "apple", "apple", "NOUN"));
+        index.Lookup("apple");
+
+        IList<IList<LookupEntry>> results = index.LookupMany(
+            [("apple", null)]);
+
+        Assert.Single(results[0]);
+        Assert.Equal(1, index.Cache!.Hits);
+    }
+
     [Fact]
     public void Find_ExactMatch_ReturnsMatchingEntries()
     {
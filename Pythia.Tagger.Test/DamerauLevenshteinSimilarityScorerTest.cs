@@ -0,0 +1,75 @@
+﻿using Xunit;
+
+namespace Pythia.Tagger.Test;
+
+public sealed class DamerauLevenshteinSimilarityScorerTest
+{
+    [Theory]
+    [InlineData("", "", 1.0)]
+    [InlineData("casa", "", 0.0)]
+    [InlineData("casa", "casa", 1.0)]
+    [InlineData("casa", "cassa", 0.8)]
+    [InlineData("casa", "csaa", 0.75)]
+    [InlineData("casa", "cosa", 0.75)]
+    [InlineData("abc", "xyz", 0.0)]
+    [InlineData("ca", "abc", 0.0)]
+    public void Score_Ok(string a, string b, double expected)
+    {
+        DamerauLevenshteinSimilarityScorer scorer = new();
+
+        Assert.Equal(expected, scorer.Score(a, b), 6);
+        Assert.Equal(expected, scorer.Score(b, a), 6);
+    }
+
+    [Fact]
+    public void Score_LongStrings_Ok()
+    {
+        DamerauLevenshteinSimilarityScorer scorer = new();
+        string a = new('a', 200) + "xy";
+        string b = new('a', 200) + "yx";
+
+        Assert.Equal(1 - 1.0 / 202, scorer.Score(a, b), 6);
+    }
+
+    [Theory]
+    [InlineData("casa", "cassa", 0.8, true)]
+    [InlineData("casa", "cassa", 0.81, false)]
+    [InlineData("casa", "csaa", 0.75, true)]
+    [InlineData("casa", "csaa", 0.8, false)]
+    [InlineData("casa", "abbastanza", 0.5, false)]
+    [InlineData("casa", "casa", 1, true)]
+    [InlineData("casa", "", 0, true)]
+    [InlineData("casa", "", 0.1, false)]
+    [InlineData("abc", "xyz", 0, true)]
+    public void IsWithin_Ok(string a, string b, double threshold,
+        bool expected)
+    {
+        DamerauLevenshteinSimilarityScorer scorer = new();
+
+        Assert.Equal(expected, scorer.IsWithin(a, b, threshold));
+    }
+
+    [Fact]
+    public void IsWithin_SameAsScore()
+    {
+        DamerauLevenshteinSimilarityScorer scorer = new();
+        string[] values =
+        [
+            "casa", "case", "cassa", "acsa", "sacca", "asa", "casale",
+            "cosa", "a", "ab", "ba", "abba", "baba", "abbastanza"
+        ];
+        double[] thresholds = [0, 0.25, 0.5, 0.6, 0.75, 0.8, 0.9, 1];
+
+        foreach (string a in values)
+        {
+            foreach (string b in values)
+            {
+                foreach (double t in thresholds)
+                {
+                    Assert.Equal(scorer.Score(a, b) >= t,
+                        scorer.IsWithin(a, b, t));
+                }
+            }
+        }
+    }
+}
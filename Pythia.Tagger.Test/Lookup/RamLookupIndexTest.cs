@@ -0,0 +1,173 @@
+﻿using Fusi.Tools.Data;
+using Pythia.Tagger.Lookup;
+using System.Collections.Generic;
+using System.Linq;
+using Xunit;
+
+namespace Pythia.Tagger.Test.Lookup;
+
+public sealed class RamLookupIndexTest
+{
+    private static readonly string[] _values =
+    [
+        "casa", "case", "caso", "cassa", "casetta", "cosa", "cose", "rosa",
+        "Rosa", "rose", "posa", "pausa", "causa", "casale", "a", "e", "ai",
+        "abbastanza", "abbassare", "abbracciare", "accasare", "accusare"
+    ];
+
+    private static RamLookupIndex GetIndex()
+    {
+        int id = 0;
+        return new RamLookupIndex(_values.Select(v => new LookupEntry
+        {
+            Id = ++id,
+            Value = v,
+            Text = v,
+            Lemma = v.Length > 2 ? v[..3] : v,
+            Pos = id % 2 == 0 ? "NOUN" : "VERB"
+        }));
+    }
+
+    [Fact]
+    public void Get_Existing_Ok()
+    {
+        RamLookupIndex index = GetIndex();
+
+        LookupEntry? entry = index.Get(3);
+
+        Assert.NotNull(entry);
+        Assert.Equal("caso", entry.Value);
+        Assert.Null(index.Get(100));
+    }
+
+    [Fact]
+    public void Lookup_Value_Ok()
+    {
+        RamLookupIndex index = GetIndex();
+        index.Add(new LookupEntry { Id = 100, Value = "casa", Pos = "NOUN" });
+
+        IList<LookupEntry> entries = index.Lookup("casa");
+
+        Assert.Equal(new[] { 1, 100 }, entries.Select(e => e.Id));
+    }
+
+    [Fact]
+    public void Lookup_ValueAndPos_Ok()
+    {
+        RamLookupIndex index = GetIndex();
+        index.Add(new LookupEntry { Id = 100, Value = "casa", Pos = "NOUN" });
+
+        IList<LookupEntry> entries = index.Lookup("casa", "NOUN");
+
+        Assert.Single(entries);
+        Assert.Equal(100, entries[0].Id);
+        Assert.Empty(index.Lookup("casa", "ADJ"));
+        Assert.Empty(index.Lookup("missing"));
+    }
+
+    [Fact]
+    public void Find_Prefix_IgnoresCase()
+    {
+        RamLookupIndex index = GetIndex();
+
+        DataPage<LookupEntry> page = index.Find(new LookupFilter
+        {
+            PageSize = 0,
+            Value = "RO",
+            Comparison = LookupEntryComparison.Prefix
+        });
+
+        Assert.Equal(new[] { "rosa", "Rosa", "rose" },
+            page.Items.Select(e => e.Value));
+    }
+
+    [Fact]
+    public void Find_Suffix_Ok()
+    {
+        RamLookupIndex index = GetIndex();
+
+        DataPage<LookupEntry> page = index.Find(new LookupFilter
+        {
+            PageSize = 0,
+            Value = "usa",
+            Comparison = LookupEntryComparison.Suffix
+        });
+
+        Assert.Equal(new[] { "pausa", "causa" },
+            page.Items.Select(e => e.Value));
+    }
+
+    [Fact]
+    public void Find_PrefixAfterAdd_IncludesNewEntry()
+    {
+        RamLookupIndex index = GetIndex();
+        LookupFilter filter = new()
+        {
+            PageSize = 0,
+            Value = "pos",
+            Comparison = LookupEntryComparison.Prefix
+        };
+        Assert.Single(index.Find(filter).Items);
+
+        index.Add(new LookupEntry { Id = 100, Value = "posare" });
+
+        Assert.Equal(2, index.Find(filter).Total);
+    }
+
+    [Fact]
+    public void Find_PrefixWithPosAndPaging_Ok()
+    {
+        RamLookupIndex index = GetIndex();
+
+        DataPage<LookupEntry> page = index.Find(new LookupFilter
+        {
+            PageNumber = 2,
+            PageSize = 2,
+            Value = "cas",
+            Comparison = LookupEntryComparison.Prefix,
+            Pos = "VERB"
+        });
+
+        // VERB: casa, caso, casetta
+        Assert.Equal(3, page.Total);
+        Assert.Single(page.Items);
+        Assert.Equal("casetta", page.Items[0].Value);
+    }
+
+    [Theory]
+    [InlineData("casa", 0.75)]
+    [InlineData("casa", 0.5)]
+    [InlineData("abbasare", 0.8)]
+    [InlineData("ai", 0.5)]
+    [InlineData("cassa", 1)]
+    [InlineData("rosa", 0.3)]
+    public void Find_Fuzzy_SameAsScan(string value, double threshold)
+    {
+        RamLookupIndex index = GetIndex();
+        DamerauLevenshteinSimilarityScorer scorer = new();
+
+        DataPage<LookupEntry> page = index.Find(new LookupFilter
+        {
+            PageSize = 0,
+            Value = value,
+            Comparison = LookupEntryComparison.Fuzzy,
+            Threshold = threshold
+        });
+
+        Assert.Equal(
+            _values.Where(v => scorer.Score(v, value) >= threshold),
+            page.Items.Select(e => e.Value!));
+    }
+
+    [Fact]
+    public void DeletionIndex_Candidates_IncludeTranspositions()
+    {
+        DeletionIndex index = new(2);
+        foreach (string value in _values) index.Add(value);
+
+        ISet<int> candidates = index.GetCandidates("csaa", 1);
+
+        Assert.Contains(candidates, id => index[id] == "casa");
+        Assert.DoesNotContain(candidates, id => index[id] == "abbastanza");
+    }
+}
@@ -1,4 +1,5 @@
 ﻿using System;
+using System.Buffers;
 
 namespace Pythia.Tagger;
 
@@ -14,53 +15,105 @@ namespace Pythia.Tagger;
 /// </remarks>
 public sealed class DamerauLevenshteinSimilarityScorer : IStringSimilarityScorer
 {
+    // max count of ints for the rows buffer to be allocated on the stack
+    private const int MAX_STACK_INTS = 256;
+
     /// <summary>
-    /// Calculates the Damerau-Levenshtein distance between two strings.
+    /// Calculates the Damerau-Levenshtein distance between two strings,
+    /// up to the specified maximum distance.
     /// </summary>
+    /// <remarks>Only three rolling rows of the distances matrix are kept,
+    /// and only the cells within <paramref name="max"/> from the diagonal
+    /// are computed, as all the others exceed it. As the minimum of each
+    /// row never decreases, computation stops as soon as it exceeds
+    /// <paramref name="max"/>.</remarks>
     /// <param name="a">First string.</param>
     /// <param name="b">Second string.</param>
-    /// <returns>The edit distance between the strings.</returns>
-    private static int DamerauLevenshteinDistance(string a, string b)
+    /// <param name="max">The maximum distance of interest.</param>
+    /// <returns>The edit distance between the strings, or
+    /// <paramref name="max"/> + 1 if greater than <paramref name="max"/>.
+    /// </returns>
+    private static int DamerauLevenshteinDistance(ReadOnlySpan<char> a,
+        ReadOnlySpan<char> b, int max)
     {
-        // create a matrix with a row and column for each string character
-        // plus one
-        int[,] matrix = new int[a.Length + 1, b.Length + 1];
-
-        // initialize the matrix with increasing values along the rows
-        // and columns
-        for (int i = 0; i <= a.Length; i++) matrix[i, 0] = i;
+        // skip the common prefix and suffix
+        int prefix = a.CommonPrefixLength(b);
+        a = a[prefix..];
+        b = b[prefix..];
+        while (a.Length > 0 && b.Length > 0 && a[^1] == b[^1])
+        {
+            a = a[..^1];
+            b = b[..^1];
+        }
 
-        for (int j = 0; j <= b.Length; j++) matrix[0, j] = j;
+        // use the shorter string for columns
+        if (a.Length < b.Length)
+        {
+            ReadOnlySpan<char> t = a;
+            a = b;
+            b = t;
+        }
+        if (a.Length - b.Length > max) return max + 1;
+        if (b.Length == 0) return a.Length;
+        max = Math.Min(max, a.Length);
 
-        // fill the matrix by considering each combination of characters
-        for (int i = 1; i <= a.Length; i++)
+        // three rolling rows: i-2, i-1 and i
+        int width = b.Length + 1;
+        int[]? rented = null;
+        Span<int> buffer = 3 * width <= MAX_STACK_INTS
+            ? stackalloc int[3 * width]
+            : (rented = ArrayPool<int>.Shared.Rent(3 * width));
+        try
         {
-            for (int j = 1; j <= b.Length; j++)
-            {
-                int cost = (a[i - 1] == b[j - 1]) ? 0 : 1;
+            Span<int> prev2 = buffer.Slice(0, width);
+            Span<int> prev = buffer.Slice(width, width);
+            Span<int> cur = buffer.Slice(2 * width, width);
+            int outside = max + 1;
 
-                // calculate the cost of different operations
-                int deletion = matrix[i - 1, j] + 1;
-                int insertion = matrix[i, j - 1] + 1;
-                int substitution = matrix[i - 1, j - 1] + cost;
+            for (int j = 0; j < width; j++) prev[j] = j;
 
-                // take the minimum cost operation
-                int minCost = Math.Min(deletion,
-                    Math.Min(insertion, substitution));
+            for (int i = 1; i <= a.Length; i++)
+            {
+                // band of the cells within max from the diagonal
+                int start = Math.Max(1, i - max);
+                int end = Math.Min(b.Length, i + max);
+                cur[start - 1] = start == 1 ? i : outside;
+                int rowMin = cur[start - 1];
 
-                // check for transposition
-                if (i > 1 && j > 1 && a[i - 1] == b[j - 2] &&
-                    a[i - 2] == b[j - 1])
+                for (int j = start; j <= end; j++)
                 {
-                    minCost = Math.Min(minCost, matrix[i - 2, j - 2] + cost);
+                    int cost = a[i - 1] == b[j - 1] ? 0 : 1;
+                    int d = Math.Min(Math.Min(prev[j] + 1, cur[j - 1] + 1),
+                        prev[j - 1] + cost);
+
+                    // transposition
+                    if (i > 1 && j > 1 && a[i - 1] == b[j - 2] &&
+                        a[i - 2] == b[j - 1])
+                    {
+                        d = Math.Min(d, prev2[j - 2] + cost);
+                    }
+
+                    cur[j] = d;
+                    if (d < rowMin) rowMin = d;
                 }
+                if (end < b.Length) cur[end + 1] = outside;
+
+                if (rowMin > max) return outside;
 
-                matrix[i, j] = minCost;
+                // rotate rows
+                Span<int> t = prev2;
+                prev2 = prev;
+                prev = cur;
+                cur = t;
             }
-        }
 
-        // the bottom-right cell contains the final distance
-        return matrix[a.Length, b.Length];
+            int distance = prev[b.Length];
+            return distance > max ? outside : distance;
+        }
+        finally
+        {
+            if (rented != null) ArrayPool<int>.Shared.Return(rented);
+        }
     }
 
     /// <summary>
@@ -83,11 +136,38 @@ public sealed class DamerauLevenshteinSimilarityScorer : IStringSimilarityScorer
             return 1.0;
 
         // calculate Damerau-Levenshtein distance
-        int distance = DamerauLevenshteinDistance(a, b);
+        int maxLength = Math.Max(a.Length, b.Length);
+        int distance = DamerauLevenshteinDistance(a, b, maxLength);
 
         // convert the distance to a similarity score between 0 and 1
         // using the formula: 1 - (distance / max(len(a), len(b)))
-        int maxLength = Math.Max(a.Length, b.Length);
         return 1.0 - ((double)distance / maxLength);
     }
+
+    /// <summary>
+    /// Determines whether the similarity score between two strings is
+    /// greater than or equal to the specified threshold. This is faster
+    /// than <see cref="Score(string, string)"/>, as the distance is
+    /// computed only up to the maximum allowed by the threshold.
+    /// </summary>
+    /// <param name="a">First string.</param>
+    /// <param name="b">Second string.</param>
+    /// <param name="threshold">The minimum similarity score.</param>
+    /// <returns>True if the score is not less than the threshold.</returns>
+    public bool IsWithin(string a, string b, double threshold)
+    {
+        if (string.IsNullOrEmpty(a) || string.IsNullOrEmpty(b) || a == b)
+            return Score(a, b) >= threshold;
+
+        // score >= threshold means distance <= (1 - threshold) * max length
+        int maxLength = Math.Max(a.Length, b.Length);
+        double maxDistance = (1 - threshold) * maxLength;
+        if (maxDistance < 0) return false;
+        int max = maxDistance >= maxLength
+            ? maxLength : (int)(maxDistance + 1e-9);
+
+        int distance = DamerauLevenshteinDistance(a, b, max);
+        return distance <= max &&
+            1.0 - ((double)distance / maxLength) >= threshold;
+    }
 }
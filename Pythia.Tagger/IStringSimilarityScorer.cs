@@ -17,4 +17,17 @@ public interface IStringSimilarityScorer
     /// <param name="b">Second string.</param>
     /// <returns>Similarity score between 0 and 1, where 1 means identical.</returns>
     double Score(string a, string b);
+
+    /// <summary>
+    /// Determines whether the similarity score between two strings is
+    /// greater than or equal to the specified threshold. Implementations
+    /// can override this to stop scoring as soon as the threshold cannot
+    /// be reached.
+    /// </summary>
+    /// <param name="a">First string.</param>
+    /// <param name="b">Second string.</param>
+    /// <param name="threshold">The minimum similarity score.</param>
+    /// <returns>True if the score is not less than the threshold.</returns>
+    bool IsWithin(string a, string b, double threshold) =>
+        Score(a, b) >= threshold;
 }
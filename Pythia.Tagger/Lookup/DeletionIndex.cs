@@ -0,0 +1,162 @@
+﻿using System;
+using System.Collections.Generic;
+
+namespace Pythia.Tagger.Lookup;
+
+/// <summary>
+/// Symmetric deletion index (as in SymSpell), used to find the candidate
+/// values within a maximum edit distance from a given value without
+/// comparing it to all the indexed values.
+/// </summary>
+/// <remarks>Each value is indexed under all the strings got by deleting
+/// up to <see cref="MaxDistance"/> characters from its first
+/// <see cref="PrefixLength"/> characters. Two values within distance N
+/// (counting insertions, deletions, substitutions and transpositions of
+/// adjacent characters) always share at least one string got by deleting
+/// up to N characters from each of them, so looking up the deletions of
+/// a value returns a superset of the values within distance N. Candidates
+/// must then be verified with a real distance function. Deletion strings
+/// are stored by their hash code to save memory: collisions just add
+/// more candidates to verify.</remarks>
+public sealed class DeletionIndex
+{
+    private readonly List<string> _values = [];
+    private readonly Dictionary<string, int> _valueIds =
+        new(StringComparer.Ordinal);
+    // postings: deletion hash to first posting, and linked postings
+    private readonly Dictionary<int, int> _heads = [];
+    private readonly List<int> _postingValues = [];
+    private readonly List<int> _postingNext = [];
+
+    /// <summary>
+    /// Gets the maximum edit distance supported by this index.
+    /// </summary>
+    public int MaxDistance { get; }
+
+    /// <summary>
+    /// Gets the length of the values prefix used to generate deletions.
+    /// </summary>
+    public int PrefixLength { get; }
+
+    /// <summary>
+    /// Gets the count of the distinct values in this index.
+    /// </summary>
+    public int Count => _values.Count;
+
+    /// <summary>
+    /// Gets the value with the specified identifier.
+    /// </summary>
+    /// <param name="id">The value identifier.</param>
+    /// <returns>Value.</returns>
+    public string this[int id] => _values[id];
+
+    /// <summary>
+    /// Initializes a new instance of the <see cref="DeletionIndex"/> class.
+    /// </summary>
+    /// <param name="maxDistance">The maximum edit distance supported.
+    /// </param>
+    /// <param name="prefixLength">The length of the values prefix used
+    /// to generate deletions. This must be greater than
+    /// <paramref name="maxDistance"/>.</param>
+    /// <exception cref="ArgumentOutOfRangeException">maxDistance less than
+    /// 1 or prefixLength not greater than maxDistance</exception>
+    public DeletionIndex(int maxDistance = 2, int prefixLength = 7)
+    {
+        ArgumentOutOfRangeException.ThrowIfLessThan(maxDistance, 1);
+        ArgumentOutOfRangeException.ThrowIfLessThanOrEqual(prefixLength,
+            maxDistance);
+
+        MaxDistance = maxDistance;
+        PrefixLength = prefixLength;
+    }
+
+    /// <summary>
+    /// Collects all the strings got by deleting from 0 up to
+    /// <paramref name="distance"/> characters from <paramref name="value"/>.
+    /// </summary>
+    private static void CollectDeletions(string value, int distance,
+        HashSet<string> deletions)
+    {
+        deletions.Add(value);
+        if (distance == 0 || value.Length == 0) return;
+
+        for (int i = 0; i < value.Length; i++)
+        {
+            string deletion = value.Remove(i, 1);
+            if (!deletions.Contains(deletion))
+                CollectDeletions(deletion, distance - 1, deletions);
+        }
+    }
+
+    private string GetPrefix(string value) =>
+        value.Length > PrefixLength ? value[..PrefixLength] : value;
+
+    /// <summary>
+    /// Adds the specified value to this index, unless already present.
+    /// </summary>
+    /// <param name="value">The value.</param>
+    /// <returns>The value identifier.</returns>
+    /// <exception cref="ArgumentNullException">value</exception>
+    public int Add(string value)
+    {
+        ArgumentNullException.ThrowIfNull(value);
+
+        if (_valueIds.TryGetValue(value, out int id)) return id;
+        id = _values.Count;
+        _values.Add(value);
+        _valueIds[value] = id;
+
+        HashSet<string> deletions = new(StringComparer.Ordinal);
+        CollectDeletions(GetPrefix(value), MaxDistance, deletions);
+        HashSet<int> hashes = [];
+        foreach (string deletion in deletions)
+        {
+            int hash = deletion.GetHashCode();
+            if (!hashes.Add(hash)) continue;
+
+            _postingValues.Add(id);
+            _postingNext.Add(_heads.TryGetValue(hash, out int head)
+                ? head : -1);
+            _heads[hash] = _postingValues.Count - 1;
+        }
+        return id;
+    }
+
+    /// <summary>
+    /// Gets the identifiers of the candidate values within the specified
+    /// edit distance from <paramref name="value"/>. This is a superset of
+    /// the values within that distance: candidates must be verified.
+    /// </summary>
+    /// <param name="value">The value.</param>
+    /// <param name="distance">The maximum edit distance, not greater than
+    /// <see cref="MaxDistance"/>.</param>
+    /// <returns>Candidate value identifiers.</returns>
+    /// <exception cref="ArgumentNullException">value</exception>
+    /// <exception cref="ArgumentOutOfRangeException">distance less than 0
+    /// or greater than <see cref="MaxDistance"/></exception>
+    public ISet<int> GetCandidates(string value, int distance)
+    {
+        ArgumentNullException.ThrowIfNull(value);
+        ArgumentOutOfRangeException.ThrowIfNegative(distance);
+        ArgumentOutOfRangeException.ThrowIfGreaterThan(distance, MaxDistance);
+
+        HashSet<string> deletions = new(StringComparer.Ordinal);
+        CollectDeletions(GetPrefix(value), distance, deletions);
+
+        HashSet<int> candidates = [];
+        foreach (string deletion in deletions)
+        {
+            if (!_heads.TryGetValue(deletion.GetHashCode(), out int posting))
+                continue;
+
+            while (posting > -1)
+            {
+                int id = _postingValues[posting];
+                if (Math.Abs(_values[id].Length - value.Length) <= distance)
+                    candidates.Add(id);
+                posting = _postingNext[posting];
+            }
+        }
+        return candidates;
+    }
+}
@@ -1,4 +1,5 @@
 ﻿using Fusi.Tools.Data;
+using System;
 using System.Collections.Generic;
 
 namespace Pythia.Tagger.Lookup;
@@ -41,6 +42,26 @@ public interface ILookupIndex
     /// <returns>Zero or more matching entries.</returns>
     IList<LookupEntry> Lookup(string value, string? pos = null);
 
+    /// <summary>
+    /// Lookup the index for all the entries exactly matching each of the
+    /// specified values and optional parts of speech. Implementations can
+    /// override this to lookup all the values at once.
+    /// </summary>
+    /// <param name="keys">The values with their optional part of speech.
+    /// </param>
+    /// <returns>Zero or more matching entries for each key, in the same
+    /// order of the keys.</returns>
+    IList<IList<LookupEntry>> LookupMany(
+        IEnumerable<(string Value, string? Pos)> keys)
+    {
+        ArgumentNullException.ThrowIfNull(keys);
+
+        List<IList<LookupEntry>> results = [];
+        foreach ((string value, string? pos) in keys)
+            results.Add(Lookup(value, pos));
+        return results;
+    }
+
     /// <summary>
     /// Find the entries matching the specified filter.
     /// </summary>
@@ -0,0 +1,139 @@
+﻿using System;
+using System.Collections.Generic;
+
+namespace Pythia.Tagger.Lookup;
+
+/// <summary>
+/// A bounded, thread-safe LRU cache of lookup results, keyed by value and
+/// optional part of speech. This is used by lookup indexes whose lookups
+/// are expensive, as the same forms are looked up again and again when
+/// checking a text.
+/// </summary>
+public sealed class LookupCache
+{
+    private readonly object _locker = new();
+    private readonly Dictionary<(string Value, string? Pos),
+        LinkedListNode<KeyValuePair<(string Value, string? Pos),
+            IList<LookupEntry>>>> _map = [];
+    private readonly LinkedList<KeyValuePair<(string Value, string? Pos),
+        IList<LookupEntry>>> _lru = new();
+    private long _hits;
+    private long _misses;
+
+    /// <summary>
+    /// Gets the maximum count of results in this cache.
+    /// </summary>
+    public int Capacity { get; }
+
+    /// <summary>
+    /// Gets the count of results in this cache.
+    /// </summary>
+    public int Count
+    {
+        get { lock (_locker) return _map.Count; }
+    }
+
+    /// <summary>
+    /// Gets the count of cache hits.
+    /// </summary>
+    public long Hits
+    {
+        get { lock (_locker) return _hits; }
+    }
+
+    /// <summary>
+    /// Gets the count of cache misses.
+    /// </summary>
+    public long Misses
+    {
+        get { lock (_locker) return _misses; }
+    }
+
+    /// <summary>
+    /// Initializes a new instance of the <see cref="LookupCache"/> class.
+    /// </summary>
+    /// <param name="capacity">The maximum count of results.</param>
+    /// <exception cref="ArgumentOutOfRangeException">capacity less than 1
+    /// </exception>
+    public LookupCache(int capacity = 10000)
+    {
+        ArgumentOutOfRangeException.ThrowIfLessThan(capacity, 1);
+        Capacity = capacity;
+    }
+
+    /// <summary>
+    /// Tries to get the cached result for the specified value and part of
+    /// speech.
+    /// </summary>
+    /// <param name="value">The value.</param>
+    /// <param name="pos">The optional part of speech.</param>
+    /// <param name="entries">The cached entries.</param>
+    /// <returns>True if found.</returns>
+    /// <exception cref="ArgumentNullException">value</exception>
+    public bool TryGet(string value, string? pos,
+        out IList<LookupEntry> entries)
+    {
+        ArgumentNullException.ThrowIfNull(value);
+
+        lock (_locker)
+        {
+            if (_map.TryGetValue((value, pos), out var node))
+            {
+                _lru.Remove(node);
+                _lru.AddFirst(node);
+                _hits++;
+                entries = node.Value.Value;
+                return true;
+            }
+            _misses++;
+        }
+        entries = [];
+        return false;
+    }
+
+    /// <summary>
+    /// Adds or replaces the result for the specified value and part of
+    /// speech, evicting the least recently used results when full.
+    /// </summary>
+    /// <param name="value">The value.</param>
+    /// <param name="pos">The optional part of speech.</param>
+    /// <param name="entries">The entries.</param>
+    /// <exception cref="ArgumentNullException">value or entries</exception>
+    public void Set(string value, string? pos, IList<LookupEntry> entries)
+    {
+        ArgumentNullException.ThrowIfNull(value);
+        ArgumentNullException.ThrowIfNull(entries);
+
+        lock (_locker)
+        {
+            if (_map.TryGetValue((value, pos), out var node))
+            {
+                _lru.Remove(node);
+                _map.Remove((value, pos));
+            }
+
+            _map[(value, pos)] = _lru.AddFirst(
+                new KeyValuePair<(string, string?), IList<LookupEntry>>(
+                    (value, pos), entries));
+            while (_map.Count > Capacity)
+            {
+                var last = _lru.Last!;
+                _lru.RemoveLast();
+                _map.Remove(last.Value.Key);
+            }
+        }
+    }
+
+    /// <summary>
+    /// Clears this cache and resets its counters.
+    /// </summary>
+    public void Clear()
+    {
+        lock (_locker)
+        {
+            _map.Clear();
+            _lru.Clear();
+            _hits = _misses = 0;
+        }
+    }
+}
@@ -8,11 +8,57 @@ namespace Pythia.Tagger.Lookup;
 /// <summary>
 /// RAM-based lookup index, used for testing or fast lookup.
 /// </summary>
+/// <remarks>Entries are indexed by identifier, value and value+POS in hash
+/// tables, updated as entries are added. Prefix and suffix searches use
+/// arrays of the (reversed) values sorted by ordinal case-insensitive
+/// comparison, while fuzzy searches use a <see cref="DeletionIndex"/>,
+/// so that only the values within the maximum distance allowed by the
+/// threshold get scored. These structures are built on first use, and
+/// rebuilt after entries are added. Results are always returned in the
+/// order entries were added.</remarks>
 /// <seealso cref="ILookupIndex" />
 public sealed class RamLookupIndex : ILookupIndex
 {
     private readonly List<LookupEntry> _entries = [];
+    private readonly Dictionary<int, int> _ids = [];
+    private readonly Dictionary<string, List<int>> _values =
+        new(StringComparer.Ordinal);
+    private readonly Dictionary<(string Value, string? Pos), List<int>>
+        _valuePos = [];
     private readonly DamerauLevenshteinSimilarityScorer _similarityScorer = new();
+    private readonly object _locker = new();
+    private int _maxFuzzyDistance;
+
+    // lazily built structures
+    private SortedKeys? _prefixes;
+    private SortedKeys? _suffixes;
+    private DeletionIndex? _deletions;
+
+    /// <summary>
+    /// Gets or sets the maximum edit distance indexed for fuzzy searches.
+    /// Fuzzy searches whose threshold allows for a greater distance scan
+    /// all the entries. The default value is 2.
+    /// </summary>
+    /// <exception cref="ArgumentOutOfRangeException">value less than 1
+    /// </exception>
+    public int MaxFuzzyDistance
+    {
+        get { return _maxFuzzyDistance; }
+        set
+        {
+            ArgumentOutOfRangeException.ThrowIfLessThan(value, 1);
+            lock (_locker)
+            {
+                _maxFuzzyDistance = value;
+                _deletions = null;
+            }
+        }
+    }
+
+    /// <summary>
+    /// Gets the count of entries in this index.
+    /// </summary>
+    public int Count => _entries.Count;
 
     /// <summary>
     /// Initializes a new instance of the RamLookupIndex class, optionally
@@ -25,8 +71,18 @@ public sealed class RamLookupIndex : ILookupIndex
     /// to the index; otherwise, the index is initialized empty.</param>
     public RamLookupIndex(IEnumerable<LookupEntry>? entries = null)
     {
-        _entries.Clear();
-        if (entries != null) _entries.AddRange(entries);
+        _maxFuzzyDistance = 2;
+        if (entries != null) AddBatch(entries);
+    }
+
+    private void ResetSearchStructures()
+    {
+        lock (_locker)
+        {
+            _prefixes = null;
+            _suffixes = null;
+            _deletions = null;
+        }
     }
 
     /// <summary>
@@ -35,6 +91,33 @@ public sealed class RamLookupIndex : ILookupIndex
     public void Clear()
     {
         _entries.Clear();
+        _ids.Clear();
+        _values.Clear();
+        _valuePos.Clear();
+        ResetSearchStructures();
+    }
+
+    private static void AddToList<TKey>(Dictionary<TKey, List<int>> index,
+        TKey key, int row) where TKey : notnull
+    {
+        if (!index.TryGetValue(key, out List<int>? rows))
+        {
+            rows = [];
+            index[key] = rows;
+        }
+        rows.Add(row);
+    }
+
+    private void AddEntry(LookupEntry entry)
+    {
+        int row = _entries.Count;
+        _entries.Add(entry);
+        _ids.TryAdd(entry.Id, row);
+        if (entry.Value != null)
+        {
+            AddToList(_values, entry.Value, row);
+            AddToList(_valuePos, (entry.Value, entry.Pos), row);
+        }
     }
 
     /// <summary>
@@ -45,7 +128,8 @@ public sealed class RamLookupIndex : ILookupIndex
     public void Add(LookupEntry entry)
     {
         ArgumentNullException.ThrowIfNull(entry);
-        _entries.Add(entry);
+        AddEntry(entry);
+        ResetSearchStructures();
     }
 
     /// <summary>
@@ -56,7 +140,8 @@ public sealed class RamLookupIndex : ILookupIndex
     public void AddBatch(IEnumerable<LookupEntry> entries)
     {
         ArgumentNullException.ThrowIfNull(entries);
-        _entries.AddRange(entries);
+        foreach (LookupEntry entry in entries) AddEntry(entry);
+        ResetSearchStructures();
     }
 
     /// <summary>
@@ -66,7 +151,7 @@ public sealed class RamLookupIndex : ILookupIndex
     /// <returns>Entry or null if not found</returns>
     public LookupEntry? Get(int id)
     {
-        return _entries.FirstOrDefault(w => w.Id == id);
+        return _ids.TryGetValue(id, out int row) ? _entries[row] : null;
     }
 
     /// <summary>
@@ -82,60 +167,211 @@ public sealed class RamLookupIndex : ILookupIndex
         ArgumentNullException.ThrowIfNull(value);
 
         if (string.IsNullOrEmpty(value)) return [];
-        return [.. _entries
-            .Where(w => w.Value == value && (pos == null || w.Pos == pos))];
+
+        List<int>? rows;
+        if (pos == null) _values.TryGetValue(value, out rows);
+        else _valuePos.TryGetValue((value, pos), out rows);
+
+        return rows == null ? [] : rows.ConvertAll(row => _entries[row]);
     }
 
-    private IQueryable<LookupEntry> ApplyFilter(IQueryable<LookupEntry> query,
-        LookupFilter filter)
+    /// <summary>
+    /// Lookup the index for all the entries exactly matching each of the
+    /// specified values and optional parts of speech.
+    /// </summary>
+    /// <param name="keys">The values with their optional part of speech.
+    /// </param>
+    /// <returns>Zero or more matching entries for each key, in the same
+    /// order of the keys.</returns>
+    /// <exception cref="ArgumentNullException">keys</exception>
+    public IList<IList<LookupEntry>> LookupMany(
+        IEnumerable<(string Value, string? Pos)> keys)
     {
-        // lemma
-        if (!string.IsNullOrEmpty(filter.Lemma))
+        ArgumentNullException.ThrowIfNull(keys);
+        return [.. keys.Select(k => Lookup(k.Value, k.Pos))];
+    }
+
+    #region Search Structures
+    /// <summary>
+    /// Entries values (or reversed values), upper-cased and sorted by
+    /// ordinal comparison, with the indexes of their entries.
+    /// </summary>
+    private sealed class SortedKeys
+    {
+        private readonly string[] _keys;
+        private readonly int[] _rows;
+
+        public SortedKeys(IList<LookupEntry> entries, bool reversed)
         {
-            query = query.Where(w => w.Lemma == filter.Lemma);
+            List<string> keys = [];
+            List<int> rows = [];
+            for (int i = 0; i < entries.Count; i++)
+            {
+                if (entries[i].Value == null) continue;
+                keys.Add(GetKey(entries[i].Value!, reversed));
+                rows.Add(i);
+            }
+            _keys = [.. keys];
+            _rows = [.. rows];
+            Array.Sort(_keys, _rows, StringComparer.Ordinal);
         }
 
-        // pos
-        if (!string.IsNullOrEmpty(filter.Pos))
+        public static string GetKey(string value, bool reversed)
         {
-            query = query.Where(w => w.Pos == filter.Pos);
+            string key = value.ToUpperInvariant();
+            if (!reversed) return key;
+
+            char[] a = key.ToCharArray();
+            Array.Reverse(a);
+            return new string(a);
         }
 
-        // value
-        if (!string.IsNullOrEmpty(filter.Value))
+        /// <summary>
+        /// Gets the entry indexes of all the keys starting with the
+        /// specified prefix, sorted in ascending order.
+        /// </summary>
+        public List<int> Find(string prefix)
         {
-            switch (filter.Comparison)
+            int start = 0, end = _keys.Length;
+            while (start < end)
             {
-                case LookupEntryComparison.Exact:
-                    query = query.Where(w => w.Value == filter.Value);
-                    break;
-                case LookupEntryComparison.Prefix:
-                    query = query.Where(w => w.Value!.StartsWith(filter.Value,
-                        StringComparison.OrdinalIgnoreCase));
-                    break;
-                case LookupEntryComparison.Substring:
-                    query = query.Where(w => w.Value!.Contains(filter.Value,
-                        StringComparison.OrdinalIgnoreCase));
-                    break;
-                case LookupEntryComparison.Suffix:
-                    query = query.Where(w => w.Value!.EndsWith(filter.Value,
-                        StringComparison.OrdinalIgnoreCase));
-                    break;
-                case LookupEntryComparison.Fuzzy:
-                    if (filter.Threshold < 0 || filter.Threshold > 1)
-                    {
-                        throw new ArgumentOutOfRangeException(nameof(
-                            filter.Threshold),
-                            "Threshold must be between 0 and 1.");
-                    }
-                    query = query.Where(w => w.Value != null &&
-                        _similarityScorer.Score(w.Value, filter.Value)
-                            >= filter.Threshold);
-                    break;
+                int mid = start + ((end - start) >> 1);
+                if (string.CompareOrdinal(_keys[mid], prefix) < 0)
+                    start = mid + 1;
+                else end = mid;
             }
+
+            List<int> rows = [];
+            for (int i = start; i < _keys.Length &&
+                 _keys[i].StartsWith(prefix, StringComparison.Ordinal); i++)
+            {
+                rows.Add(_rows[i]);
+            }
+            rows.Sort();
+            return rows;
+        }
+    }
+
+    private SortedKeys GetPrefixes()
+    {
+        lock (_locker)
+        {
+            return _prefixes ??= new SortedKeys(_entries, false);
+        }
+    }
+
+    private SortedKeys GetSuffixes()
+    {
+        lock (_locker)
+        {
+            return _suffixes ??= new SortedKeys(_entries, true);
+        }
+    }
+
+    private DeletionIndex GetDeletions()
+    {
+        lock (_locker)
+        {
+            if (_deletions == null)
+            {
+                DeletionIndex deletions = new(_maxFuzzyDistance,
+                    Math.Max(7, _maxFuzzyDistance + 1));
+                foreach (string value in _values.Keys)
+                {
+                    if (value.Length > 0) deletions.Add(value);
+                }
+                _deletions = deletions;
+            }
+            return _deletions;
+        }
+    }
+
+    /// <summary>
+    /// Gets the maximum edit distance between <paramref name="value"/> and
+    /// any other value whose similarity score can reach
+    /// <paramref name="threshold"/>.
+    /// </summary>
+    /// <remarks>The score is 1 - distance / max(len(a), len(b)), and the
+    /// other value cannot be longer than len(a) + distance, so that a score
+    /// not less than T requires distance &lt;= (1 - T) * len(a) / T.
+    /// </remarks>
+    private static int GetMaxDistance(string value, double threshold)
+    {
+        double max = (1 - threshold) * value.Length / threshold;
+        return max >= int.MaxValue ? int.MaxValue : (int)(max + 1e-9);
+    }
+
+    /// <summary>
+    /// Gets the sorted indexes of the entries which may match the value
+    /// of the specified filter, or null when all the entries must be
+    /// scanned.
+    /// </summary>
+    private List<int>? GetCandidates(LookupFilter filter)
+    {
+        if (string.IsNullOrEmpty(filter.Value)) return null;
+
+        switch (filter.Comparison)
+        {
+            case LookupEntryComparison.Exact:
+                return _values.TryGetValue(filter.Value, out List<int>? rows)
+                    ? rows : [];
+
+            case LookupEntryComparison.Prefix:
+                return GetPrefixes().Find(
+                    SortedKeys.GetKey(filter.Value, false));
+
+            case LookupEntryComparison.Suffix:
+                return GetSuffixes().Find(
+                    SortedKeys.GetKey(filter.Value, true));
+
+            case LookupEntryComparison.Fuzzy:
+                if (filter.Threshold <= 0) return null;
+                int distance = GetMaxDistance(filter.Value, filter.Threshold);
+                if (distance > _maxFuzzyDistance) return null;
+
+                DeletionIndex deletions = GetDeletions();
+                List<int> candidates = [];
+                foreach (int id in deletions.GetCandidates(filter.Value,
+                    distance))
+                {
+                    candidates.AddRange(_values[deletions[id]]);
+                }
+                candidates.Sort();
+                return candidates;
+
+            default:
+                return null;
         }
+    }
+    #endregion
+
+    private bool IsMatch(LookupEntry entry, LookupFilter filter)
+    {
+        // lemma
+        if (!string.IsNullOrEmpty(filter.Lemma) && entry.Lemma != filter.Lemma)
+            return false;
+
+        // pos
+        if (!string.IsNullOrEmpty(filter.Pos) && entry.Pos != filter.Pos)
+            return false;
 
-        return query;
+        // value
+        if (string.IsNullOrEmpty(filter.Value)) return true;
+
+        return filter.Comparison switch
+        {
+            LookupEntryComparison.Exact => entry.Value == filter.Value,
+            LookupEntryComparison.Prefix => entry.Value!.StartsWith(
+                filter.Value, StringComparison.OrdinalIgnoreCase),
+            LookupEntryComparison.Substring => entry.Value!.Contains(
+                filter.Value, StringComparison.OrdinalIgnoreCase),
+            LookupEntryComparison.Suffix => entry.Value!.EndsWith(
+                filter.Value, StringComparison.OrdinalIgnoreCase),
+            LookupEntryComparison.Fuzzy => entry.Value != null &&
+                _similarityScorer.IsWithin(entry.Value, filter.Value,
+                    filter.Threshold),
+            _ => true
+        };
     }
 
     /// <summary>
@@ -149,11 +385,20 @@ public sealed class RamLookupIndex : ILookupIndex
     {
         ArgumentNullException.ThrowIfNull(filter);
 
-        IQueryable<LookupEntry> query =
-            ApplyFilter(_entries.AsQueryable(), filter);
-        int total = query.Count();
+        if (!string.IsNullOrEmpty(filter.Value) &&
+            filter.Comparison == LookupEntryComparison.Fuzzy &&
+            (filter.Threshold < 0 || filter.Threshold > 1))
+        {
+            throw new ArgumentOutOfRangeException(nameof(filter.Threshold),
+                "Threshold must be between 0 and 1.");
+        }
+
+        IEnumerable<LookupEntry> candidates =
+            GetCandidates(filter)?.Select(row => _entries[row]) ?? _entries;
+        List<LookupEntry> matches = [.. candidates
+            .Where(entry => IsMatch(entry, filter))];
 
-        if (total == 0)
+        if (matches.Count == 0)
         {
             return new DataPage<LookupEntry>(
                 filter.PageNumber, filter.PageSize, 0, []);
@@ -163,14 +408,13 @@ public sealed class RamLookupIndex : ILookupIndex
         if (filter.PageSize <= 0)
         {
             return new DataPage<LookupEntry>(filter.PageNumber, filter.PageSize,
-                query.Count(), [.. query]);
+                matches.Count, matches);
         }
         else
         {
-            query = query.Skip(filter.GetSkipCount())
-                         .Take(filter.PageSize);
             return new DataPage<LookupEntry>(filter.PageNumber, filter.PageSize,
-                total, [.. query]);
+                matches.Count, [.. matches.Skip(filter.GetSkipCount())
+                    .Take(filter.PageSize)]);
         }
     }
 }
@@ -2,6 +2,8 @@
 using Pythia.Tagger.Lookup;
 using System;
 using System.Collections.Generic;
+using System.Diagnostics;
+using System.Linq;
 
 namespace Pythia.Tools;
 
@@ -26,6 +28,29 @@ public sealed class WordChecker
     /// </summary>
     public HashSet<string> Whitelist { get; set; }
 
+    /// <summary>
+    /// Gets the count of words checked since the last reset.
+    /// </summary>
+    public long CheckedCount { get; private set; }
+
+    /// <summary>
+    /// Gets the count of index lookups (of words and their variants)
+    /// performed since the last reset.
+    /// </summary>
+    public long LookupCount { get; private set; }
+
+    /// <summary>
+    /// Gets the total time spent in index lookups since the last reset.
+    /// </summary>
+    public TimeSpan LookupTime { get; private set; }
+
+    /// <summary>
+    /// Gets the average lookup time per checked word since the last reset.
+    /// </summary>
+    public TimeSpan AverageLookupTime => CheckedCount > 0
+        ? LookupTime / CheckedCount
+        : TimeSpan.Zero;
+
     /// <summary>
     /// Creates a new instance of the <see cref="WordChecker"/> class.
     /// </summary>
@@ -125,58 +150,52 @@ public sealed class WordChecker
     }
 
     /// <summary>
-    /// Checks the given word against the index and returns a list of
-    /// results.
+    /// Resets the lookup statistics.
     /// </summary>
-    /// <param name="word">The word to check.</param>
-    /// <returns>List of results.</returns>
-    public IList<WordCheckResult> Check(WordToCheck word)
+    public void ResetStatistics()
     {
-        ArgumentNullException.ThrowIfNull(word);
-
-        // if word is in the whitelist, consider it correct
-        if (Whitelist != null && Whitelist.Contains(word.Value))
-        {
-            return [new WordCheckResult(word, WordCheckResult.CODE_OK,
-                WordCheckResultType.Info)
-            {
-                Message = $"Word '{word.Value}' is in whitelist"
-            }];
-        }
+        CheckedCount = 0;
+        LookupCount = 0;
+        LookupTime = TimeSpan.Zero;
+    }
 
-        // find the word (without POS) in the index
-        IList<LookupEntry> entries = _index.Lookup(word.Value);
+    private IList<IList<LookupEntry>> LookupMany(
+        IList<(string Value, string? Pos)> keys)
+    {
+        if (keys.Count == 0) return [];
 
-        // if any found, ensure that at least one has a compatible POS
-        // i.e. a POS with the same POS tag and any subset of features
-        if (entries.Count > 0) return HandleFound(word, entries);
+        long start = Stopwatch.GetTimestamp();
+        IList<IList<LookupEntry>> results = _index.LookupMany(keys);
+        LookupTime += Stopwatch.GetElapsedTime(start);
+        LookupCount += keys.Count;
+        return results;
+    }
 
-        // no entries found, try with variants
+    private static List<WordCheckResult> BuildVariantResults(WordToCheck word,
+        IList<VariantForm> variants, IList<IList<LookupEntry>> entries,
+        int offset)
+    {
         List<WordCheckResult> results = [];
 
-        // for each variant form of the word, check if it exists in the index
-        foreach (VariantForm v in _variantBuilder.Build(word.Value, word.Pos,
-            _index))
+        // for each variant form found in the index, add a result
+        for (int i = 0; i < variants.Count; i++)
         {
-            entries = _index.Lookup(v.Value!, v.Pos);
+            if (entries[offset + i].Count == 0) continue;
 
-            // if any found, add a result with the variant
-            if (entries.Count > 0)
+            VariantForm v = variants[i];
+            results.Add(new WordCheckResult(word,
+                WordCheckResult.CODE_VAR_FOUND,
+                WordCheckResultType.ErrorWithHint)
             {
-                results.Add(new WordCheckResult(word,
-                    WordCheckResult.CODE_VAR_FOUND,
-                    WordCheckResultType.ErrorWithHint)
+                Message = $"Variant '{v.Value}' found for " +
+                    $"'{word.Value}' with POS '{v.Pos}'",
+                Action = "use-variant",
+                Data = new Dictionary<string, string>
                 {
-                    Message = $"Variant '{v.Value}' found for " +
-                        $"'{word.Value}' with POS '{v.Pos}'",
-                    Action = "use-variant",
-                    Data = new Dictionary<string, string>
-                    {
-                        { "variant", v.Value! },
-                        { "pos", v.Pos! }
-                    }
-                });
-            }
+                    { "variant", v.Value! },
+                    { "pos", v.Pos! }
+                }
+            });
         }
 
         if (results.Count == 0)
@@ -194,4 +213,88 @@ public sealed class WordChecker
 
         return results;
     }
+
+    /// <summary>
+    /// Checks the given words against the index in a single pass. All the
+    /// words are looked up at once, and then all the variants of the words
+    /// not found are looked up at once, so that indexes implementing a
+    /// batch lookup can resolve them with a few queries. The time spent
+    /// in lookups is added to <see cref="LookupTime"/>.
+    /// </summary>
+    /// <param name="words">The words to check.</param>
+    /// <returns>List of results for each word, in the same order of the
+    /// words.</returns>
+    /// <exception cref="ArgumentNullException">words</exception>
+    public IList<IList<WordCheckResult>> Check(IList<WordToCheck> words)
+    {
+        ArgumentNullException.ThrowIfNull(words);
+
+        IList<WordCheckResult>?[] results =
+            new IList<WordCheckResult>?[words.Count];
+
+        // if word is in the whitelist, consider it correct
+        List<int> pending = [];
+        for (int i = 0; i < words.Count; i++)
+        {
+            ArgumentNullException.ThrowIfNull(words[i]);
+            if (Whitelist != null && Whitelist.Contains(words[i].Value))
+            {
+                results[i] = [new WordCheckResult(words[i],
+                    WordCheckResult.CODE_OK, WordCheckResultType.Info)
+                {
+                    Message = $"Word '{words[i].Value}' is in whitelist"
+                }];
+            }
+            else pending.Add(i);
+        }
+        CheckedCount += words.Count;
+
+        // find the words (without POS) in the index
+        IList<IList<LookupEntry>> found = LookupMany(
+            [.. pending.Select(i => (words[i].Value, (string?)null))]);
+
+        // if any found, ensure that at least one has a compatible POS
+        // i.e. a POS with the same POS tag and any subset of features;
+        // else collect the variants of the word to look them up
+        List<(int Index, IList<VariantForm> Variants)> missing = [];
+        List<(string Value, string? Pos)> variantKeys = [];
+        for (int j = 0; j < pending.Count; j++)
+        {
+            int i = pending[j];
+            if (found[j].Count > 0)
+            {
+                results[i] = HandleFound(words[i], found[j]);
+                continue;
+            }
+
+            IList<VariantForm> variants = _variantBuilder.Build(
+                words[i].Value, words[i].Pos, _index);
+            missing.Add((i, variants));
+            variantKeys.AddRange(variants.Select(v => (v.Value!, v.Pos)));
+        }
+
+        // check if each variant form of the words exists in the index
+        IList<IList<LookupEntry>> variantEntries = LookupMany(variantKeys);
+        int offset = 0;
+        foreach ((int i, IList<VariantForm> variants) in missing)
+        {
+            results[i] = BuildVariantResults(words[i], variants,
+                variantEntries, offset);
+            offset += variants.Count;
+        }
+
+        return [.. results.Select(r => r!)];
+    }
+
+    /// <summary>
+    /// Checks the given word against the index and returns a list of
+    /// results.
+    /// </summary>
+    /// <param name="word">The word to check.</param>
+    /// <returns>List of results.</returns>
+    public IList<WordCheckResult> Check(WordToCheck word)
+    {
+        ArgumentNullException.ThrowIfNull(word);
+        return Check([word])[0];
+    }
 }
@@ -0,0 +1,114 @@
+﻿using Conllu;
+using Fusi.Tools;
+using Xunit;
+
+namespace Pythia.Udp.Plugin.Test;
+
+// These tests do not require network access: they use FakeUdpProcessor
+// in place of the UDPipe service.
+public sealed class UdpTextFilterFakeTest : IDisposable
+{
+    // 5 sentences of 11 characters each, i.e. 5 chunks
+    private const string TEXT = "Alpha beta. Gamma zeta! Delta iota? " +
+        "Theta iota. Kappa beta.";
+
+    private readonly string _cacheDir = Path.Combine(Path.GetTempPath(),
+        $"udp-cache-test-{Guid.NewGuid()}");
+
+    public void Dispose()
+    {
+        try
+        {
+            if (Directory.Exists(_cacheDir)) Directory.Delete(_cacheDir, true);
+        }
+        catch
+        {
+            // ignore errors during cleanup
+        }
+    }
+
+    private static UdpTextFilter CreateFilter(FakeUdpProcessor processor,
+        string? cacheDir = null)
+    {
+        UdpTextFilter filter = new(processor);
+        filter.Configure(new UdpTextFilterOptions
+        {
+            Model = "fake",
+            MaxChunkLength = 11,
+            MaxConcurrency = 3,
+            RetryDelay = 1,
+            CacheDirectory = cacheDir
+        });
+        return filter;
+    }
+
+    private static async Task<IList<UdpChunk>> ApplyAsync(
+        UdpTextFilter filter)
+    {
+        DataDictionary context = new();
+        TextReader reader = await filter.ApplyAsync(
+            new StringReader(TEXT), context);
+        Assert.Equal(TEXT, reader.ReadToEnd());
+        return (IList<UdpChunk>)context.Data[UdpTextFilter.UDP_KEY];
+    }
+
+    [Fact]
+    public async Task ApplyAsync_Concurrent_KeepsChunksOrder()
+    {
+        FakeUdpProcessor processor = new()
+        {
+            Latency = TimeSpan.FromMilliseconds(20)
+        };
+        UdpTextFilter filter = CreateFilter(processor);
+
+        IList<UdpChunk> chunks = await ApplyAsync(filter);
+
+        Assert.Equal(5, chunks.Count);
+        Assert.Equal(5, processor.CallCount);
+        Assert.Equal(["alpha", "gamma", "delta", "theta", "kappa"],
+            chunks.Select(c => c.Sentences[0].Tokens[0].Lemma));
+    }
+
+    [Fact]
+    public async Task ApplyAsync_TransientFailures_Retries()
+    {
+        FakeUdpProcessor processor = new() { FailCount = 2 };
+        UdpTextFilter filter = CreateFilter(processor);
+
+        IList<UdpChunk> chunks = await ApplyAsync(filter);
+
+        Assert.Equal(7, processor.CallCount);
+        Assert.All(chunks, c => Assert.Single(c.Sentences));
+    }
+
+    [Fact]
+    public async Task ApplyAsync_Cancelled_Throws()
+    {
+        FakeUdpProcessor processor = new()
+        {
+            Latency = TimeSpan.FromSeconds(10)
+        };
+        UdpTextFilter filter = CreateFilter(processor);
+        using CancellationTokenSource cts = new(50);
+
+        await Assert.ThrowsAnyAsync<OperationCanceledException>(() =>
+            filter.ApplyAsync(new StringReader(TEXT), new DataDictionary(),
+                cts.Token));
+    }
+
+    [Fact]
+    public async Task ApplyAsync_Cached_SkipsProcessor()
+    {
+        FakeUdpProcessor processor = new();
+        await ApplyAsync(CreateFilter(processor, _cacheDir));
+        Assert.Equal(5, processor.CallCount);
+
+        IList<UdpChunk> chunks = await ApplyAsync(
+            CreateFilter(processor, _cacheDir));
+
+        Assert.Equal(5, processor.CallCount);
+        Token token = chunks[1].Sentences[0].Tokens[1];
+        Assert.Equal("zeta", token.Lemma);
+        Assert.Equal("TokenRange=6:10", token.Misc);
+    }
+}
@@ -0,0 +1,105 @@
+﻿using Conllu;
+using Fusi.Tools.Text;
+using Xunit;
+
+namespace Pythia.Udp.Plugin.Test;
+
+// These tests do not require network access: they build chunks manually.
+public sealed class UdpTokenIndexTest
+{
+    private static Token CreateToken(string id, string form, string? upos,
+        string? misc)
+    {
+        return new Token
+        {
+            Identifier = new TokenIdentifier(id),
+            Form = form,
+            Lemma = form,
+            Upos = upos,
+            Misc = misc
+        };
+    }
+
+    // "Questo è della casa. Fine." in 2 chunks, the second at offset 21
+    private static List<UdpChunk> CreateChunks()
+    {
+        Sentence s1 = new();
+        s1.Tokens.Add(CreateToken("1", "Questo", "PRON", "TokenRange=0:6"));
+        s1.Tokens.Add(CreateToken("2", "è", "AUX", "TokenRange=7:8"));
+        s1.Tokens.Add(CreateToken("3-4", "della", null, "TokenRange=9:14"));
+        s1.Tokens.Add(CreateToken("3", "di", "ADP", null));
+        s1.Tokens.Add(CreateToken("4", "la", "DET", null));
+        s1.Tokens.Add(CreateToken("5", "casa", "NOUN",
+            "SpaceAfter=No|TokenRange=15:19"));
+        s1.Tokens.Add(CreateToken("6", ".", "PUNCT", "TokenRange=19:20"));
+        UdpChunk c1 = new(new TextRange(0, 20));
+        c1.Sentences.Add(s1);
+
+        Sentence s2 = new();
+        s2.Tokens.Add(CreateToken("1", "Fine", "NOUN",
+            "SpaceAfter=No|TokenRange=0:4"));
+        s2.Tokens.Add(CreateToken("2", ".", "PUNCT", "TokenRange=4:5"));
+        UdpChunk c2 = new(new TextRange(21, 5));
+        c2.Sentences.Add(s2);
+
+        return [c1, c2];
+    }
+
+    [Fact]
+    public void Build_SkipsPunctuationAndChildren()
+    {
+        UdpTokenIndex index = UdpTokenIndex.Build(CreateChunks());
+
+        Assert.Equal(5, index.Count);
+    }
+
+    [Theory]
+    [InlineData(0, 6, "Questo")]
+    [InlineData(7, 1, "è")]
+    [InlineData(9, 5, "della")]
+    [InlineData(15, 5, "casa")]
+    [InlineData(21, 4, "Fine")]
+    [InlineData(23, 1, "Fine")]
+    public void Find_Overlapping_Found(int start, int length, string form)
+    {
+        UdpTokenIndex index = UdpTokenIndex.Build(CreateChunks());
+
+        int i = index.Find(start, length);
+
+        Assert.True(i > -1);
+        Assert.Equal(form, index.GetToken(i).Form);
+    }
+
+    [Theory]
+    [InlineData(6, 1)]
+    [InlineData(20, 1)]
+    [InlineData(30, 2)]
+    public void Find_NotOverlapping_NotFound(int start, int length)
+    {
+        UdpTokenIndex index = UdpTokenIndex.Build(CreateChunks());
+
+        Assert.Equal(-1, index.Find(start, length));
+    }
+
+    [Fact]
+    public void GetRange_SecondChunk_DocumentBased()
+    {
+        UdpTokenIndex index = UdpTokenIndex.Build(CreateChunks());
+
+        TextRange range = index.GetRange(index.Find(21, 4));
+
+        Assert.Equal(21, range.Start);
+        Assert.Equal(4, range.Length);
+    }
+
+    [Fact]
+    public void GetChildren_Multiword_Children()
+    {
+        UdpTokenIndex index = UdpTokenIndex.Build(CreateChunks());
+
+        List<Token> children = index.GetChildren(index.Find(9, 5));
+
+        Assert.Equal(["di", "la"], children.Select(t => t.Form));
+        Assert.Empty(index.GetChildren(index.Find(0, 6)));
+    }
+}
@@ -0,0 +1,63 @@
+﻿using Conllu;
+using Fusi.UDPipe;
+using System;
+using System.Collections.Generic;
+using System.Threading;
+using System.Threading.Tasks;
+
+namespace Pythia.Udp.Plugin;
+
+/// <summary>
+/// UDPipe processor using the UDPipe API service.
+/// </summary>
+/// <seealso cref="IUdpProcessor" />
+public sealed class ApiUdpProcessor : IUdpProcessor
+{
+    private readonly ApiUDPipeProcessor _processor = new();
+
+    /// <summary>
+    /// Gets the name of the model used, or null if not configured.
+    /// </summary>
+    public string? Model { get; private set; }
+
+    /// <summary>
+    /// Configures this processor to use the specified model.
+    /// </summary>
+    /// <param name="model">The model's name.</param>
+    /// <exception cref="ArgumentNullException">model</exception>
+    public void Configure(string model)
+    {
+        ArgumentNullException.ThrowIfNull(model);
+
+        _processor.Configure(new UDPipeOptions
+        {
+            Model = model,
+            Input = UDPipeOptions.FORMAT_API_TOKENIZE,
+            Tagger = "",
+            Parser = "",
+            Tokenizer = string.Join(";", UDPipeOptions.TOKENIZER_RANGES)
+        });
+        Model = model;
+    }
+
+    /// <summary>
+    /// Parses the specified text into sentences.
+    /// </summary>
+    /// <param name="text">The text.</param>
+    /// <param name="cancel">The cancellation token.</param>
+    /// <returns>Sentences.</returns>
+    /// <exception cref="ArgumentNullException">text</exception>
+    /// <exception cref="InvalidOperationException">not configured</exception>
+    public async Task<IList<Sentence>> ParseAsync(string text,
+        CancellationToken cancel)
+    {
+        ArgumentNullException.ThrowIfNull(text);
+        if (Model == null)
+        {
+            throw new InvalidOperationException(
+                "UDPipe processor not configured");
+        }
+
+        return [.. await _processor.ParseAsync(text, cancel)];
+    }
+}
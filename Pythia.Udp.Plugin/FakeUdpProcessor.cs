@@ -0,0 +1,109 @@
+﻿using Conllu;
+using System;
+using System.Collections.Generic;
+using System.Globalization;
+using System.Net.Http;
+using System.Text.RegularExpressions;
+using System.Threading;
+using System.Threading.Tasks;
+
+namespace Pythia.Udp.Plugin;
+
+/// <summary>
+/// A local stand-in for a UDPipe service, used to test and benchmark
+/// <see cref="UdpTextFilter"/> without network access. Tokens are sequences
+/// of letters or digits, or single punctuation characters; sentences end
+/// after <c>.</c>, <c>?</c> or <c>!</c>. Each token gets its value lowercased
+/// as lemma, a UPOS tag (<c>PUNCT</c>, <c>NUM</c> or <c>X</c>) and its
+/// range in <c>Misc</c>, like the UDPipe API does.
+/// </summary>
+public sealed partial class FakeUdpProcessor : IUdpProcessor
+{
+    private int _callCount;
+    private int _failCount;
+
+    /// <summary>
+    /// Gets or sets the simulated latency of each call.
+    /// </summary>
+    public TimeSpan Latency { get; set; }
+
+    /// <summary>
+    /// Gets or sets the count of the next calls which will fail with an
+    /// <see cref="HttpRequestException"/>, to simulate transient errors.
+    /// </summary>
+    public int FailCount
+    {
+        get { return Volatile.Read(ref _failCount); }
+        set { Volatile.Write(ref _failCount, value); }
+    }
+
+    /// <summary>
+    /// Gets the count of calls to <see cref="ParseAsync"/>, including the
+    /// failed ones.
+    /// </summary>
+    public int CallCount => Volatile.Read(ref _callCount);
+
+    [GeneratedRegex(@"[\p{L}\p{N}]+|[^\p{L}\p{N}\s]")]
+    private static partial Regex TokenRegex();
+
+    private static string GetUpos(string value)
+    {
+        if (!char.IsLetterOrDigit(value[0])) return "PUNCT";
+        return char.IsDigit(value[0]) ? "NUM" : "X";
+    }
+
+    /// <summary>
+    /// Parses the specified text into sentences.
+    /// </summary>
+    /// <param name="text">The text.</param>
+    /// <param name="cancel">The cancellation token.</param>
+    /// <returns>Sentences.</returns>
+    /// <exception cref="ArgumentNullException">text</exception>
+    /// <exception cref="HttpRequestException">simulated failure</exception>
+    public async Task<IList<Sentence>> ParseAsync(string text,
+        CancellationToken cancel)
+    {
+        ArgumentNullException.ThrowIfNull(text);
+
+        Interlocked.Increment(ref _callCount);
+        if (Latency > TimeSpan.Zero) await Task.Delay(Latency, cancel);
+        cancel.ThrowIfCancellationRequested();
+
+        // consume one of the failures to simulate, if any
+        int failures;
+        do
+        {
+            failures = Volatile.Read(ref _failCount);
+            if (failures <= 0) break;
+        } while (Interlocked.CompareExchange(
+            ref _failCount, failures - 1, failures) != failures);
+        if (failures > 0)
+            throw new HttpRequestException("Simulated UDPipe failure");
+
+        List<Sentence> sentences = [];
+        Sentence sentence = new();
+        int id = 0;
+        foreach (Match m in TokenRegex().Matches(text))
+        {
+            sentence.Tokens.Add(new Token
+            {
+                Identifier = new TokenIdentifier(
+                    (++id).ToString(CultureInfo.InvariantCulture)),
+                Form = m.Value,
+                Lemma = m.Value.ToLowerInvariant(),
+                Upos = GetUpos(m.Value),
+                Misc = $"TokenRange={m.Index}:{m.Index + m.Length}"
+            });
+
+            if (m.Value is "." or "?" or "!")
+            {
+                sentences.Add(sentence);
+                sentence = new();
+                id = 0;
+            }
+        }
+        if (sentence.Tokens.Count > 0) sentences.Add(sentence);
+
+        return sentences;
+    }
+}
@@ -0,0 +1,24 @@
+﻿using Conllu;
+using System.Collections.Generic;
+using System.Threading;
+using System.Threading.Tasks;
+
+namespace Pythia.Udp.Plugin;
+
+/// <summary>
+/// A UDPipe processor used by <see cref="UdpTextFilter"/> to analyze a chunk
+/// of text. Implementations must be safe for concurrent calls, as chunks
+/// can be analyzed in parallel.
+/// </summary>
+public interface IUdpProcessor
+{
+    /// <summary>
+    /// Parses the specified text into sentences. Each token is expected to
+    /// have its range in <paramref name="text"/> in its <c>Misc</c> field
+    /// (<c>TokenRange=START:END</c>).
+    /// </summary>
+    /// <param name="text">The text.</param>
+    /// <param name="cancel">The cancellation token.</param>
+    /// <returns>Sentences.</returns>
+    Task<IList<Sentence>> ParseAsync(string text, CancellationToken cancel);
+}
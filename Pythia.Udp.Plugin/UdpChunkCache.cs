@@ -0,0 +1,186 @@
+﻿using Conllu;
+using System;
+using System.Collections.Generic;
+using System.IO;
+using System.Linq;
+using System.Security.Cryptography;
+using System.Text;
+using System.Text.Json;
+
+namespace Pythia.Udp.Plugin;
+
+/// <summary>
+/// A file system cache of the sentences got by analyzing chunks of text with
+/// UDPipe. Each entry is keyed by a hash of the model name and of the chunk's
+/// text, so that re-indexing an unchanged text does not require to call
+/// UDPipe again. As token ranges are relative to the chunk's text, the same
+/// entry can be reused wherever the chunk is found. Entries are stored as
+/// JSON files under a subdirectory named after the first two characters of
+/// their key.
+/// </summary>
+public sealed class UdpChunkCache
+{
+    private static readonly JsonSerializerOptions _jsonOptions = new()
+    {
+        DefaultIgnoreCondition =
+            System.Text.Json.Serialization.JsonIgnoreCondition.WhenWritingNull
+    };
+
+    /// <summary>
+    /// Gets the cache root directory.
+    /// </summary>
+    public string Directory { get; }
+
+    /// <summary>
+    /// Initializes a new instance of the <see cref="UdpChunkCache"/> class.
+    /// </summary>
+    /// <param name="directory">The cache root directory. This is created
+    /// if it does not exist.</param>
+    /// <exception cref="ArgumentNullException">directory</exception>
+    public UdpChunkCache(string directory)
+    {
+        Directory = directory ??
+            throw new ArgumentNullException(nameof(directory));
+        System.IO.Directory.CreateDirectory(directory);
+    }
+
+    /// <summary>
+    /// Gets the cache key for the specified model and text.
+    /// </summary>
+    /// <param name="model">The model's name.</param>
+    /// <param name="text">The chunk's text.</param>
+    /// <returns>Key.</returns>
+    /// <exception cref="ArgumentNullException">model or text</exception>
+    public static string GetKey(string model, string text)
+    {
+        ArgumentNullException.ThrowIfNull(model);
+        ArgumentNullException.ThrowIfNull(text);
+
+        byte[] hash = SHA256.HashData(Encoding.UTF8.GetBytes(
+            model + "\n" + text));
+        return Convert.ToHexString(hash).ToLowerInvariant();
+    }
+
+    private string GetPath(string key) =>
+        Path.Combine(Directory, key[..2], key + ".json");
+
+    /// <summary>
+    /// Tries to get the sentences cached for the specified key.
+    /// </summary>
+    /// <param name="key">The key.</param>
+    /// <param name="sentences">The sentences, or null if not found.</param>
+    /// <returns>True if found.</returns>
+    /// <exception cref="ArgumentNullException">key</exception>
+    public bool TryGet(string key, out IList<Sentence>? sentences)
+    {
+        ArgumentNullException.ThrowIfNull(key);
+        sentences = null;
+
+        string path = GetPath(key);
+        if (!File.Exists(path)) return false;
+
+        try
+        {
+            using FileStream stream = File.OpenRead(path);
+            List<List<CachedToken>>? data = JsonSerializer
+                .Deserialize<List<List<CachedToken>>>(stream, _jsonOptions);
+            if (data == null) return false;
+
+            sentences = [.. data.Select(tokens =>
+            {
+                Sentence sentence = new();
+                sentence.Tokens.AddRange(tokens.Select(t => t.ToToken()));
+                return sentence;
+            })];
+            return true;
+        }
+        catch (Exception ex) when (ex is IOException or JsonException)
+        {
+            // a corrupt or concurrently replaced entry is just a miss
+            return false;
+        }
+    }
+
+    /// <summary>
+    /// Stores the specified sentences under the specified key.
+    /// </summary>
+    /// <param name="key">The key.</param>
+    /// <param name="sentences">The sentences.</param>
+    /// <exception cref="ArgumentNullException">key or sentences</exception>
+    public void Set(string key, IList<Sentence> sentences)
+    {
+        ArgumentNullException.ThrowIfNull(key);
+        ArgumentNullException.ThrowIfNull(sentences);
+
+        string path = GetPath(key);
+        System.IO.Directory.CreateDirectory(Path.GetDirectoryName(path)!);
+
+        // write to a temporary file and then move it, so that readers
+        // never see a partially written entry
+        string tmpPath = path + "." + Guid.NewGuid().ToString("N") + ".tmp";
+        using (FileStream stream = File.Create(tmpPath))
+        {
+            JsonSerializer.Serialize(stream,
+                sentences.Select(s => s.Tokens.Select(CachedToken.From)
+                    .ToList()).ToList(),
+                _jsonOptions);
+        }
+        File.Move(tmpPath, path, true);
+    }
+
+    /// <summary>
+    /// Removes all the entries from this cache.
+    /// </summary>
+    public void Clear()
+    {
+        foreach (string dir in System.IO.Directory.EnumerateDirectories(
+            Directory))
+        {
+            System.IO.Directory.Delete(dir, true);
+        }
+    }
+
+    private sealed class CachedToken
+    {
+        public string? Id { get; set; }
+        public string? Form { get; set; }
+        public string? Lemma { get; set; }
+        public string? Upos { get; set; }
+        public string? Xpos { get; set; }
+        public Dictionary<string, string>? Feats { get; set; }
+        public int? Head { get; set; }
+        public string? DepRel { get; set; }
+        public string? Misc { get; set; }
+
+        public static CachedToken From(Token token) => new()
+        {
+            Id = token.Identifier?.ToString(),
+            Form = token.Form,
+            Lemma = token.Lemma,
+            Upos = token.Upos,
+            Xpos = token.Xpos,
+            Feats = token.Feats?.Count > 0 ? token.Feats : null,
+            Head = token.Head,
+            DepRel = token.DepRel,
+            Misc = token.Misc
+        };
+
+        public Token ToToken()
+        {
+            Token token = new()
+            {
+                Form = Form,
+                Lemma = Lemma,
+                Upos = Upos,
+                Xpos = Xpos,
+                Head = Head,
+                DepRel = DepRel,
+                Misc = Misc
+            };
+            if (Id != null) token.Identifier = new TokenIdentifier(Id);
+            if (Feats != null)
+                token.Feats = new Dictionary<string, string>(Feats);
+            return token;
+        }
+    }
+}
@@ -1,12 +1,14 @@
-﻿using Corpus.Core.Analysis;
+﻿using Conllu;
+using Corpus.Core.Analysis;
 using Fusi.Tools;
 using Fusi.Tools.Configuration;
-using Fusi.UDPipe;
 using Pythia.Core.Plugin.Analysis;
 using System;
 using System.Collections.Generic;
 using System.Diagnostics;
 using System.IO;
+using System.Linq;
+using System.Net.Http;
 using System.Text.RegularExpressions;
 using System.Threading;
 using System.Threading.Tasks;
@@ -31,9 +33,16 @@ namespace Pythia.Udp.Plugin;
 /// <seealso cref="ITextFilter" />
 /// <seealso cref="IConfigurable&lt;UdpTextFilterOptions&gt;" />
 [Tag("text-filter.udp")]
-public sealed class UdpTextFilter : ITextFilter, IConfigurable<UdpTextFilterOptions>
+public sealed class UdpTextFilter : ICancellableTextFilter,
+    IConfigurable<UdpTextFilterOptions>
 {
     private readonly UdpChunkBuilder _builder;
+    private readonly IUdpProcessor _processor;
+    private string _model;
+    private int _maxConcurrency;
+    private int _maxRetries;
+    private TimeSpan _retryDelay;
+    private UdpChunkCache? _cache;
     private bool _dirty;
 
     /// <summary>
@@ -42,16 +51,39 @@ public sealed class UdpTextFilter : ITextFilter, IConfigurable<UdpTextFilterOpti
     /// </summary>
     public const string UDP_KEY = "udp";
 
-    private readonly ApiUDPipeProcessor _processor;
+    /// <summary>
+    /// The key used for the <see cref="UdpTokenIndex"/> built from the
+    /// UDPipe results stored in the filter's context.
+    /// Value: <c>udp-index</c>.
+    /// </summary>
+    public const string UDP_INDEX_KEY = "udp-index";
+
+    /// <summary>
+    /// Initializes a new instance of the <see cref="UdpTextFilter"/> class
+    /// using the UDPipe API service.
+    /// </summary>
+    public UdpTextFilter() : this(new ApiUdpProcessor())
+    {
+    }
 
     /// <summary>
-    /// Initializes a new instance of the <see cref="UdpTextFilter"/> class.
+    /// Initializes a new instance of the <see cref="UdpTextFilter"/> class
+    /// using the specified processor. Unless this is an
+    /// <see cref="ApiUdpProcessor"/>, the filter is ready to use even
+    /// before being configured.
     /// </summary>
-    public UdpTextFilter()
+    /// <param name="processor">The processor.</param>
+    /// <exception cref="ArgumentNullException">processor</exception>
+    public UdpTextFilter(IUdpProcessor processor)
     {
+        _processor = processor ??
+            throw new ArgumentNullException(nameof(processor));
         _builder = new UdpChunkBuilder();
-        _processor = new ApiUDPipeProcessor();
-        _dirty = true;
+        _model = "";
+        _maxConcurrency = 4;
+        _maxRetries = 3;
+        _retryDelay = TimeSpan.FromMilliseconds(500);
+        _dirty = processor is ApiUdpProcessor;
     }
 
     private void InitProcessor(string model)
@@ -59,15 +91,8 @@ public sealed class UdpTextFilter : ITextFilter, IConfigurable<UdpTextFilterOpti
         ArgumentNullException.ThrowIfNull(model);
         if (string.IsNullOrEmpty(model)) return;
 
-        UDPipeOptions options = new()
-        {
-            Model = model,
-            Input = UDPipeOptions.FORMAT_API_TOKENIZE,
-            Tagger = "",
-            Parser = "",
-            Tokenizer = string.Join(";", UDPipeOptions.TOKENIZER_RANGES)
-        };
-        _processor.Configure(options);
+        _model = model;
+        if (_processor is ApiUdpProcessor api) api.Configure(model);
         _dirty = false;
     }
 
@@ -89,13 +114,63 @@ public sealed class UdpTextFilter : ITextFilter, IConfigurable<UdpTextFilterOpti
                 RegexOptions.Compiled);
         }
 
+        _maxConcurrency = Math.Max(1, options.MaxConcurrency);
+        _maxRetries = Math.Max(0, options.MaxRetries);
+        _retryDelay = TimeSpan.FromMilliseconds(
+            Math.Max(0, options.RetryDelay));
+        _cache = string.IsNullOrEmpty(options.CacheDirectory)
+            ? null : new UdpChunkCache(options.CacheDirectory);
+
         InitProcessor(options.Model);
     }
 
+    private async Task<IList<Sentence>> ParseAsync(string text,
+        CancellationToken cancel)
+    {
+        for (int attempt = 0; ; attempt++)
+        {
+            try
+            {
+                return await _processor.ParseAsync(text, cancel);
+            }
+            catch (Exception ex) when (attempt < _maxRetries &&
+                !cancel.IsCancellationRequested &&
+                ex is HttpRequestException or TimeoutException
+                    or TaskCanceledException)
+            {
+                // exponential backoff before retrying
+                Debug.WriteLine($"UDPipe attempt {attempt + 1} failed: " +
+                    ex.Message);
+                await Task.Delay(_retryDelay * Math.Pow(2, attempt), cancel);
+            }
+        }
+    }
+
+    private async Task ParseChunkAsync(string text, UdpChunk chunk,
+        CancellationToken cancel)
+    {
+        string chunkText = chunk.Range.Extract(text);
+        string? key = null;
+        if (_cache != null)
+        {
+            key = UdpChunkCache.GetKey(_model, chunkText);
+            if (_cache.TryGet(key, out IList<Sentence>? cached))
+            {
+                chunk.Sentences.AddRange(cached!);
+                return;
+            }
+        }
+
+        IList<Sentence> sentences = await ParseAsync(chunkText, cancel);
+        if (key != null) _cache!.Set(key, sentences);
+        chunk.Sentences.AddRange(sentences);
+    }
+
     /// <summary>
     /// Applies the filter to the specified reader asynchronously. Sentences
     /// extracted from document are stored in <paramref name="context"/>
-    /// under key <see cref="UDP_KEY"/>.
+    /// under key <see cref="UDP_KEY"/>, and their tokens index under key
+    /// <see cref="UDP_INDEX_KEY"/>.
     /// </summary>
     /// <param name="reader">The input reader.</param>
     /// <param name="context">The context. This will receive the sentences
@@ -103,30 +178,46 @@ public sealed class UdpTextFilter : ITextFilter, IConfigurable<UdpTextFilterOpti
     /// If null, the filter will do nothing.</param>
     /// <returns>The output reader.</returns>
     /// <exception cref="ArgumentNullException">reader</exception>
-    public async Task<TextReader> ApplyAsync(TextReader reader,
+    public Task<TextReader> ApplyAsync(TextReader reader,
         IHasDataDictionary? context = null)
+        => ApplyAsync(reader, context, CancellationToken.None);
+
+    /// <summary>
+    /// Applies the filter to the specified reader asynchronously. Chunks
+    /// are analyzed concurrently, up to the configured maximum concurrency,
+    /// each into its own chunk object, so that the order of chunks is
+    /// preserved. Failed calls are retried with exponential backoff, and
+    /// the first failure which cannot be retried cancels the pending calls.
+    /// </summary>
+    /// <param name="reader">The input reader.</param>
+    /// <param name="context">The context. This will receive the sentences
+    /// extracted from the text under key <see cref="UDP_KEY"/>.
+    /// If null, the filter will do nothing.</param>
+    /// <param name="cancel">The cancellation token.</param>
+    /// <returns>The output reader.</returns>
+    /// <exception cref="ArgumentNullException">reader</exception>
+    public async Task<TextReader> ApplyAsync(TextReader reader,
+        IHasDataDictionary? context, CancellationToken cancel)
     {
         ArgumentNullException.ThrowIfNull(reader);
 
         if (context == null || _dirty) return reader;
-        string text = await reader.ReadToEndAsync();
+        string text = await reader.ReadToEndAsync(cancel);
 
         IList<UdpChunk> chunks = _builder.Build(text);
-        foreach (UdpChunk chunk in chunks)
-        {
-            if (chunk.IsOversized)
-            {
-                Debug.WriteLine("Oversized chunk: " + chunk);
-                continue;
-            }
+        foreach (UdpChunk chunk in chunks.Where(c => c.IsOversized))
+            Debug.WriteLine("Oversized chunk: " + chunk);
 
-            string chunkText = chunk.Range.Extract(text);
-            chunk.Sentences.AddRange(await _processor.ParseAsync(
-                chunkText,
-                CancellationToken.None));
-        }
+        await Parallel.ForEachAsync(chunks.Where(c => !c.IsOversized),
+            new ParallelOptions
+            {
+                MaxDegreeOfParallelism = _maxConcurrency,
+                CancellationToken = cancel
+            },
+            async (chunk, token) => await ParseChunkAsync(text, chunk, token));
 
         context!.Data[UDP_KEY] = chunks;
+        context.Data[UDP_INDEX_KEY] = UdpTokenIndex.Build(chunks);
 
         return new StringReader(text);
     }
@@ -167,6 +258,31 @@ public class UdpTextFilterOptions
     /// </summary>
     public HashSet<string>? BlackTags { get; set; }
 
+    /// <summary>
+    /// Gets or sets the maximum count of chunks analyzed at the same time.
+    /// The default value is 4.
+    /// </summary>
+    public int MaxConcurrency { get; set; } = 4;
+
+    /// <summary>
+    /// Gets or sets the maximum count of retries for each failed chunk
+    /// analysis. The default value is 3.
+    /// </summary>
+    public int MaxRetries { get; set; } = 3;
+
+    /// <summary>
+    /// Gets or sets the delay in milliseconds before the first retry. The
+    /// delay doubles at each further retry. The default value is 500.
+    /// </summary>
+    public int RetryDelay { get; set; } = 500;
+
+    /// <summary>
+    /// Gets or sets the optional directory used to cache the results of
+    /// chunk analyses. When set, chunks already analyzed with the same
+    /// model are not submitted again to UDPipe.
+    /// </summary>
+    public string? CacheDirectory { get; set; }
+
     /// <summary>
     /// Initializes a new instance of the <see cref="UdpTextFilterOptions"/>
     /// class.
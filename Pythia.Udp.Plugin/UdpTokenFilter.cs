@@ -9,8 +9,6 @@ using System;
 using System.Collections.Generic;
 using System.Diagnostics;
 using System.Globalization;
-using System.Linq;
-using System.Text.RegularExpressions;
 using System.Threading.Tasks;
 
 namespace Pythia.Udp.Plugin;
@@ -26,10 +24,9 @@ namespace Pythia.Udp.Plugin;
 /// </summary>
 /// <seealso cref="ITokenFilter" />
 [Tag("token-filter.udp")]
-public sealed partial class UdpTokenFilter : ITokenFilter,
+public sealed class UdpTokenFilter : ITokenFilter,
     IConfigurable<UdpTokenFilterOptions>
 {
-    private readonly Regex _rangeRegex;
     private UdpTokenFilterOptions _options;
 
     /// <summary>
@@ -37,7 +34,6 @@ public sealed partial class UdpTokenFilter : ITokenFilter,
     /// </summary>
     public UdpTokenFilter()
     {
-        _rangeRegex = RangeRegex();
         _options = new()
         {
             Props = UdpTokenProps.Lemma | UdpTokenProps.UPosTag |
@@ -45,70 +41,6 @@ public sealed partial class UdpTokenFilter : ITokenFilter,
         };
     }
 
-    [GeneratedRegex("TokenRange=([0-9]+):([0-9]+)", RegexOptions.Compiled)]
-    private static partial Regex RangeRegex();
-
-    private TextRange ParseUdpRange(string text, int offset)
-    {
-        if (string.IsNullOrEmpty(text)) return TextRange.Empty;
-        Match m = _rangeRegex.Match(text);
-        if (!m.Success) return TextRange.Empty;
-
-        int a = offset + int.Parse(m.Groups[1].Value, CultureInfo.InvariantCulture);
-        int b = offset + int.Parse(m.Groups[2].Value, CultureInfo.InvariantCulture);
-
-        return new TextRange(a, b - a);
-    }
-
-    /// <summary>
-    /// Matches the specified token in the given chunks.
-    /// </summary>
-    /// <param name="chunks">The UDP chunks.</param>
-    /// <param name="token">The token to match.</param>
-    /// <param name="matchedRange">The document-based range of the matched
-    /// UDP token, as derived from its <c>Misc</c>'s <c>TokenRange</c> and
-    /// the owning chunk's start offset; <see cref="TextRange.Empty"/> if
-    /// no token matched.</param>
-    /// <returns>UDP token or null if not matched.</returns>
-    private Token? MatchToken(IList<UdpChunk> chunks, TextSpan token,
-        out TextRange matchedRange)
-    {
-        matchedRange = TextRange.Empty;
-
-        // create a range for the token
-        TextRange tokenRange = new(token.Index, token.Length);
-
-        // for each chunk, find the first sentence which contains
-        // the token range
-        foreach (UdpChunk chunk in chunks.Where(
-            c => !c.IsOversized && !c.HasNoAlpha &&
-            c.Range.Overlaps(tokenRange)))
-        {
-            // if the chunk starts after the token, then stop
-            if (chunk.Range.Start > tokenRange.End) break;
-
-            // find the first token in the chunk's sentences which overlaps
-            // the token range and is not a punctuation
-            foreach (Sentence sentence in chunk.Sentences)
-            {
-                foreach (Token t in sentence.Tokens)
-                {
-                    if (t.Upos == "PUNCT") continue;
-
-                    TextRange range = ParseUdpRange(t.Misc, chunk.Range.Start);
-                    if (range.Overlaps(tokenRange))
-                    {
-                        matchedRange = range;
-                        return t;
-                    }
-                }
-            }
-        }
-
-        // if no token matched, return null
-        return null;
-    }
-
     /// <summary>
     /// Finds the first override applicable to <paramref name="matchedRange"/>,
     /// looking it up in the ranges lists stored in <paramref name="context"/>'s
@@ -137,30 +69,26 @@ public sealed partial class UdpTokenFilter : ITokenFilter,
         return null;
     }
 
-    private static List<Token> CollectChildTokens(IList<UdpChunk> chunks,
-        Token parent, TextRange parentRange)
+    /// <summary>
+    /// Gets the index of the UDPipe tokens in the specified chunks, as
+    /// stored in the context by <see cref="UdpTextFilter"/>; if not present
+    /// or built from other chunks, the index is built and stored in the
+    /// context, so that this happens once per document.
+    /// </summary>
+    private static UdpTokenIndex GetTokenIndex(IHasDataDictionary context,
+        IList<UdpChunk> chunks)
     {
-        foreach (UdpChunk chunk in chunks.Where(
-            c => !c.IsOversized && !c.HasNoAlpha &&
-            c.Range.Overlaps(parentRange)))
+        if (context.Data.TryGetValue(UdpTextFilter.UDP_INDEX_KEY,
+                out object? value) &&
+            value is UdpTokenIndex index &&
+            ReferenceEquals(index.Chunks, chunks))
         {
-            foreach (Sentence sentence in chunk.Sentences)
-            {
-                // match parent by Misc which contains TokenRange, it seems
-                // that objects are reused so we can't just do IndexOf(parent)
-                int i = sentence.Tokens.FindIndex(t => t.Misc == parent.Misc);
-                if (i < 0) continue;
-                List<Token> children = [];
-                for (int j = i + 1; j < sentence.Tokens.Count; j++)
-                {
-                    Token t = sentence.Tokens[j];
-                    if (t.Misc?.Contains("TokenRange") == true) break;
-                    children.Add(t);
-                }
-                return children;
-            }
+            return index;
         }
-        return [];
+
+        index = UdpTokenIndex.Build(chunks);
+        context.Data[UdpTextFilter.UDP_INDEX_KEY] = index;
+        return index;
     }
 
     /// <summary>
@@ -403,8 +331,11 @@ public sealed partial class UdpTokenFilter : ITokenFilter,
         IList<UdpChunk> chunks = (IList<UdpChunk>)
             context.Data[UdpTextFilter.UDP_KEY];
 
-        Token? matched = MatchToken(chunks, token, out TextRange matchedRange);
-        if (matched == null) return Task.CompletedTask;
+        UdpTokenIndex index = GetTokenIndex(context, chunks);
+        int matchedIndex = index.Find(token.Index, token.Length);
+        if (matchedIndex < 0) return Task.CompletedTask;
+        Token matched = index.GetToken(matchedIndex);
+        TextRange matchedRange = index.GetRange(matchedIndex);
 
         // check whether markup-derived data should override the tagger's
         // own analysis for this token (e.g. an abbr element telling us
@@ -431,8 +362,7 @@ public sealed partial class UdpTokenFilter : ITokenFilter,
             // without a TokenRange in Misc
             if (matched.IsMultiwordToken)
             {
-                List<Token> children = CollectChildTokens(chunks, matched,
-                    new(token.Index, token.Length));
+                List<Token> children = index.GetChildren(matchedIndex);
                 if (children.Count == 0)
                 {
                     Debug.WriteLine(
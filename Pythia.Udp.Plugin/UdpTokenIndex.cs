@@ -0,0 +1,201 @@
+﻿using Conllu;
+using Fusi.Tools.Text;
+using System;
+using System.Collections.Generic;
+using System.Globalization;
+
+namespace Pythia.Udp.Plugin;
+
+/// <summary>
+/// An index of the UDPipe tokens got from a document's chunks, sorted by
+/// their offset in the document. This is built once per document, so that
+/// <see cref="UdpTokenFilter"/> can find the UDPipe token overlapping each
+/// token with a binary search, without parsing token ranges again and
+/// without allocations. Punctuation tokens and tokens without a range
+/// (like the children of multiword tokens) are not indexed; the children
+/// of each multiword token are collected with it.
+/// </summary>
+public sealed class UdpTokenIndex
+{
+    private const string RANGE_PREFIX = "TokenRange=";
+
+    private static readonly List<Token> _noChildren = [];
+
+    // token start and (inclusive) end offsets in the document, in document
+    // order, plus the maximum end offset up to each token, which is
+    // non-decreasing even if ranges overlap, so it can be binary-searched
+    private readonly int[] _starts;
+    private readonly int[] _ends;
+    private readonly int[] _maxEnds;
+    private readonly Token[] _tokens;
+    private readonly List<Token>?[] _children;
+
+    /// <summary>
+    /// Gets the chunks this index was built from.
+    /// </summary>
+    public IList<UdpChunk> Chunks { get; }
+
+    /// <summary>
+    /// Gets the count of indexed tokens.
+    /// </summary>
+    public int Count => _tokens.Length;
+
+    private UdpTokenIndex(IList<UdpChunk> chunks, List<int> starts,
+        List<int> ends, List<Token> tokens, List<List<Token>?> children)
+    {
+        Chunks = chunks;
+        _starts = [.. starts];
+        _ends = [.. ends];
+        _tokens = [.. tokens];
+        _children = [.. children];
+
+        _maxEnds = new int[_ends.Length];
+        int max = int.MinValue;
+        for (int i = 0; i < _ends.Length; i++)
+        {
+            max = Math.Max(max, _ends[i]);
+            _maxEnds[i] = max;
+        }
+    }
+
+    /// <summary>
+    /// Parses the range of a UDPipe token from its <c>Misc</c> field.
+    /// </summary>
+    /// <param name="misc">The misc field's value.</param>
+    /// <param name="start">The start offset.</param>
+    /// <param name="end">The exclusive end offset.</param>
+    /// <returns>True if parsed.</returns>
+    internal static bool TryParseRange(string? misc, out int start,
+        out int end)
+    {
+        start = end = 0;
+        if (string.IsNullOrEmpty(misc)) return false;
+
+        int i = misc.IndexOf(RANGE_PREFIX, StringComparison.Ordinal);
+        if (i < 0) return false;
+        ReadOnlySpan<char> s = misc.AsSpan(i + RANGE_PREFIX.Length);
+
+        int colon = s.IndexOf(':');
+        if (colon < 1) return false;
+        int len = colon + 1;
+        while (len < s.Length && char.IsAsciiDigit(s[len])) len++;
+
+        return int.TryParse(s[..colon], NumberStyles.None,
+                CultureInfo.InvariantCulture, out start) &&
+            int.TryParse(s[(colon + 1)..len], NumberStyles.None,
+                CultureInfo.InvariantCulture, out end);
+    }
+
+    /// <summary>
+    /// Builds the index for the specified chunks. Oversized chunks and
+    /// chunks without letters are ignored.
+    /// </summary>
+    /// <param name="chunks">The chunks.</param>
+    /// <returns>Index.</returns>
+    /// <exception cref="ArgumentNullException">chunks</exception>
+    public static UdpTokenIndex Build(IList<UdpChunk> chunks)
+    {
+        ArgumentNullException.ThrowIfNull(chunks);
+
+        List<int> starts = [];
+        List<int> ends = [];
+        List<Token> tokens = [];
+        List<List<Token>?> children = [];
+
+        foreach (UdpChunk chunk in chunks)
+        {
+            if (chunk.IsOversized || chunk.HasNoAlpha) continue;
+            int offset = chunk.Range.Start;
+
+            foreach (Sentence sentence in chunk.Sentences)
+            {
+                List<Token> sentenceTokens = sentence.Tokens;
+                for (int i = 0; i < sentenceTokens.Count; i++)
+                {
+                    Token t = sentenceTokens[i];
+                    if (t.Upos == "PUNCT" ||
+                        !TryParseRange(t.Misc, out int a, out int b))
+                    {
+                        continue;
+                    }
+
+                    starts.Add(offset + a);
+                    ends.Add(offset + b - 1);
+                    tokens.Add(t);
+
+                    // collect the children of a multiword token, i.e. all
+                    // the tokens following it without a TokenRange
+                    if (!t.IsMultiwordToken)
+                    {
+                        children.Add(null);
+                        continue;
+                    }
+                    List<Token> tokenChildren = [];
+                    for (int j = i + 1; j < sentenceTokens.Count; j++)
+                    {
+                        if (sentenceTokens[j].Misc?.Contains(RANGE_PREFIX)
+                            == true)
+                        {
+                            break;
+                        }
+                        tokenChildren.Add(sentenceTokens[j]);
+                    }
+                    children.Add(tokenChildren);
+                }
+            }
+        }
+
+        return new UdpTokenIndex(chunks, starts, ends, tokens, children);
+    }
+
+    /// <summary>
+    /// Finds the first UDPipe token in document order overlapping the
+    /// specified range.
+    /// </summary>
+    /// <param name="index">The range start offset.</param>
+    /// <param name="length">The range length.</param>
+    /// <returns>The index of the token, or -1 if not found.</returns>
+    public int Find(int index, int length)
+    {
+        int last = index + length - 1;
+
+        // find the first token whose max end reaches the range start
+        int lo = 0, hi = _maxEnds.Length;
+        while (lo < hi)
+        {
+            int mid = lo + ((hi - lo) >> 1);
+            if (_maxEnds[mid] < index) lo = mid + 1;
+            else hi = mid;
+        }
+
+        // scan forward for the first overlapping token
+        for (int i = lo; i < _starts.Length && _starts[i] <= last; i++)
+        {
+            if (_ends[i] >= index) return i;
+        }
+        return -1;
+    }
+
+    /// <summary>
+    /// Gets the token at the specified index.
+    /// </summary>
+    /// <param name="i">The token index.</param>
+    /// <returns>Token.</returns>
+    public Token GetToken(int i) => _tokens[i];
+
+    /// <summary>
+    /// Gets the range of the token at the specified index in the document.
+    /// </summary>
+    /// <param name="i">The token index.</param>
+    /// <returns>Range.</returns>
+    public TextRange GetRange(int i) =>
+        new(_starts[i], _ends[i] - _starts[i] + 1);
+
+    /// <summary>
+    /// Gets the children of the multiword token at the specified index.
+    /// </summary>
+    /// <param name="i">The token index.</param>
+    /// <returns>Children, empty if the token is not a multiword token.
+    /// </returns>
+    public List<Token> GetChildren(int i) => _children[i] ?? _noChildren;
+}
@@ -0,0 +1,129 @@
+﻿using Corpus.Sql;
+using Microsoft.Extensions.Configuration;
+using Pythia.Cli.Services;
+using Pythia.Core;
+using Pythia.Sql.PgSql;
+using Spectre.Console;
+using Spectre.Console.Cli;
+using System;
+using System.Collections.Generic;
+using System.ComponentModel;
+using System.Diagnostics;
+using System.Globalization;
+using System.Linq;
+using System.Threading;
+using System.Threading.Tasks;
+
+namespace Pythia.Cli.Commands;
+
+/// <summary>
+/// Benchmark the evaluation of location operators: SQL with calls to the
+/// location functions, SQL with range predicates on positions, and
+/// in-process merge join.
+/// </summary>
+internal sealed class BenchmarkLocationCommand :
+    AsyncCommand<BenchmarkLocationCommandSettings>
+{
+    private static (double median, int count) Measure(int repeat,
+        CancellationToken cancel, Func<int> run)
+    {
+        // warm up caches and connections
+        int count = run();
+
+        List<double> times = new(repeat);
+        for (int i = 0; i < repeat; i++)
+        {
+            cancel.ThrowIfCancellationRequested();
+            Stopwatch stopwatch = Stopwatch.StartNew();
+            run();
+            stopwatch.Stop();
+            times.Add(stopwatch.Elapsed.TotalMilliseconds);
+        }
+        times.Sort();
+        return (times[times.Count / 2], count);
+    }
+
+    protected override Task<int> ExecuteAsync(CommandContext context,
+        BenchmarkLocationCommandSettings settings, CancellationToken cancel)
+    {
+        AnsiConsole.MarkupLine("[red underline]BENCHMARK LOCATION[/]");
+        AnsiConsole.MarkupLine($"Database: [cyan]{settings.DbName}[/]");
+        AnsiConsole.MarkupLine($"Repeat: [cyan]{settings.Repeat}[/]");
+
+        try
+        {
+            string cs = string.Format(
+                CliAppContext.Configuration!.GetConnectionString("Default")!,
+                settings.DbName);
+            PgSqlIndexRepository repository = new()
+            {
+                // measure the whole evaluation of each query
+                QueryCache = null,
+                CountCache = null,
+                IsQueryPlanningEnabled = false
+            };
+            repository.Configure(new SqlRepositoryOptions
+            {
+                ConnectionString = cs
+            });
+
+            Table table = new();
+            table.AddColumn("query");
+            table.AddColumn("mode");
+            table.AddColumn(new TableColumn("count").RightAligned());
+            table.AddColumn(new TableColumn("ms").RightAligned());
+
+            foreach (string query in settings.Queries)
+            {
+                AnsiConsole.MarkupLine($"[yellow]{Markup.Escape(query)}[/]");
+                SearchRequest request = new() { Query = query };
+
+                repository.UseLocationFunctions = true;
+                var fn = Measure(settings.Repeat, cancel,
+                    () => repository.GetSearchCount(request));
+
+                repository.UseLocationFunctions = false;
+                var range = Measure(settings.Repeat, cancel,
+                    () => repository.GetSearchCount(request));
+
+                var merge = Measure(settings.Repeat, cancel,
+                    () => repository.SearchByMergeJoin(query).Count());
+
+                foreach ((string mode, (double ms, int count)) in
+                    new[] { ("functions", fn), ("ranges", range),
+                        ("merge join", merge) })
+                {
+                    table.AddRow(Markup.Escape(query), mode,
+                        count.ToString(CultureInfo.InvariantCulture),
+                        ms.ToString("F1", CultureInfo.InvariantCulture));
+                }
+            }
+
+            AnsiConsole.Write(table);
+            return Task.FromResult(0);
+        }
+        catch (Exception ex)
+        {
+            Debug.WriteLine(ex.ToString());
+            AnsiConsole.WriteException(ex);
+            return Task.FromResult(1);
+        }
+    }
+}
+
+public class BenchmarkLocationCommandSettings : CommandSettings
+{
+    [Description("The location queries to benchmark")]
+    [CommandArgument(0, "<query>")]
+    public string[] Queries { get; set; } = [];
+
+    [Description("The database name")]
+    [CommandOption("-d|--db <NAME>")]
+    [DefaultValue("pythia")]
+    public string DbName { get; set; } = "pythia";
+
+    [Description("The count of timed runs for each query and mode")]
+    [CommandOption("-r|--repeat <COUNT>")]
+    [DefaultValue(5)]
+    public int Repeat { get; set; } = 5;
+}
@@ -0,0 +1,166 @@
+﻿using Fusi.Tools.Data;
+using Pythia.Tagger.LiteDB;
+using Pythia.Tagger.Lookup;
+using Spectre.Console;
+using Spectre.Console.Cli;
+using System;
+using System.Collections.Generic;
+using System.ComponentModel;
+using System.Diagnostics;
+using System.Globalization;
+using System.Linq;
+using System.Threading;
+using System.Threading.Tasks;
+
+namespace Pythia.Cli.Commands;
+
+/// <summary>
+/// Benchmark the RAM-based lookup index against the LiteDB-based one,
+/// using a sample of the values of a LiteDB lookup index.
+/// </summary>
+internal sealed class BenchmarkLookupCommand :
+    AsyncCommand<BenchmarkLookupCommandSettings>
+{
+    private static (double us, long count) Measure(IList<string> values,
+        CancellationToken cancel, Func<string, int> run)
+    {
+        long count = 0;
+        Stopwatch stopwatch = Stopwatch.StartNew();
+        foreach (string value in values)
+        {
+            cancel.ThrowIfCancellationRequested();
+            count += run(value);
+        }
+        stopwatch.Stop();
+        return (stopwatch.Elapsed.TotalMicroseconds / values.Count, count);
+    }
+
+    private static int Find(ILookupIndex index, string value,
+        LookupEntryComparison comparison, double threshold = 0.8)
+    {
+        DataPage<LookupEntry> page = index.Find(new LookupFilter
+        {
+            PageSize = 0,
+            Value = value,
+            Comparison = comparison,
+            Threshold = threshold
+        });
+        return page.Total;
+    }
+
+    protected override Task<int> ExecuteAsync(CommandContext context,
+        BenchmarkLookupCommandSettings settings, CancellationToken cancel)
+    {
+        AnsiConsole.MarkupLine("[red underline]BENCHMARK LOOKUP[/]");
+        AnsiConsole.MarkupLine(
+            $"Index: [cyan]{settings.LookupIndexPath}[/]");
+        AnsiConsole.MarkupLine($"Sample: [cyan]{settings.Count}[/]");
+        AnsiConsole.MarkupLine($"Fuzzy sample: [cyan]{settings.FuzzyCount}[/]");
+        AnsiConsole.MarkupLine($"Threshold: [cyan]{settings.Threshold}[/]");
+
+        try
+        {
+            using LiteDBLookupIndex liteIndex =
+                new(settings.LookupIndexPath, true);
+
+            // load all the entries into a RAM index
+            Stopwatch stopwatch = Stopwatch.StartNew();
+            IList<LookupEntry> entries = liteIndex.Find(
+                new LookupFilter { PageSize = 0 }).Items;
+            RamLookupIndex ramIndex = new(entries);
+            AnsiConsole.MarkupLine($"Loaded {entries.Count} entries " +
+                $"in {stopwatch.ElapsedMilliseconds} ms");
+
+            // pick a random sample of values
+            Random random = new(settings.Seed);
+            List<string> values = [.. entries
+                .Where(e => !string.IsNullOrEmpty(e.Value))
+                .Select(e => e.Value!)
+                .Distinct()
+                .OrderBy(_ => random.Next())
+                .Take(settings.Count)];
+            if (values.Count == 0)
+            {
+                AnsiConsole.MarkupLine("[yellow]No values[/]");
+                return Task.FromResult(0);
+            }
+            List<string> fuzzyValues = [.. values.Take(settings.FuzzyCount)];
+            List<string> prefixes = [.. values.Select(
+                v => v.Length > 3 ? v[..3] : v)];
+            List<string> suffixes = [.. values.Select(
+                v => v.Length > 3 ? v[^3..] : v)];
+
+            Table table = new();
+            table.AddColumn("operation");
+            table.AddColumn("index");
+            table.AddColumn(new TableColumn("results").RightAligned());
+            table.AddColumn(new TableColumn("µs/op").RightAligned());
+
+            foreach ((string name, ILookupIndex index) in
+                new (string, ILookupIndex)[]
+                {
+                    ("RAM", ramIndex), ("LiteDB", liteIndex)
+                })
+            {
+                List<(string, (double, long))> results =
+                [
+                    ("lookup", Measure(values, cancel,
+                        v => index.Lookup(v).Count)),
+                    ("prefix", Measure(prefixes, cancel,
+                        v => Find(index, v, LookupEntryComparison.Prefix))),
+                    ("suffix", Measure(suffixes, cancel,
+                        v => Find(index, v, LookupEntryComparison.Suffix)))
+                ];
+                if (fuzzyValues.Count > 0)
+                {
+                    results.Add(("fuzzy", Measure(fuzzyValues, cancel,
+                        v => Find(index, v, LookupEntryComparison.Fuzzy,
+                            settings.Threshold))));
+                }
+
+                foreach ((string op, (double us, long count)) in results)
+                {
+                    table.AddRow(op, name,
+                        count.ToString(CultureInfo.InvariantCulture),
+                        us.ToString("F1", CultureInfo.InvariantCulture));
+                }
+            }
+
+            AnsiConsole.Write(table);
+            return Task.FromResult(0);
+        }
+        catch (Exception ex)
+        {
+            Debug.WriteLine(ex.ToString());
+            AnsiConsole.WriteException(ex);
+            return Task.FromResult(1);
+        }
+    }
+}
+
+public class BenchmarkLookupCommandSettings : CommandSettings
+{
+    [Description("The path to the LiteDB lookup index")]
+    [CommandArgument(0, "<LOOKUP_INDEX_PATH>")]
+    public string LookupIndexPath { get; set; } = "";
+
+    [Description("The count of sample values")]
+    [CommandOption("-n|--count <COUNT>")]
+    [DefaultValue(1000)]
+    public int Count { get; set; } = 1000;
+
+    [Description("The count of sample values for fuzzy searches")]
+    [CommandOption("-f|--fuzzy <COUNT>")]
+    [DefaultValue(20)]
+    public int FuzzyCount { get; set; } = 20;
+
+    [Description("The threshold for fuzzy searches")]
+    [CommandOption("-t|--threshold <VALUE>")]
+    [DefaultValue(0.8)]
+    public double Threshold { get; set; } = 0.8;
+
+    [Description("The seed for the random sample")]
+    [CommandOption("-s|--seed <SEED>")]
+    [DefaultValue(42)]
+    public int Seed { get; set; } = 42;
+}
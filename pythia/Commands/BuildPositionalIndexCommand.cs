@@ -0,0 +1,105 @@
+﻿using Corpus.Core;
+using Corpus.Sql;
+using Fusi.Tools.Data;
+using Microsoft.Extensions.Configuration;
+using Pythia.Cli.Services;
+using Pythia.Core;
+using Pythia.Core.Index;
+using Pythia.Sql.PgSql;
+using Spectre.Console;
+using Spectre.Console.Cli;
+using System;
+using System.ComponentModel;
+using System.Diagnostics;
+using System.Threading;
+using System.Threading.Tasks;
+
+namespace Pythia.Cli.Commands;
+
+/// <summary>
+/// Build the in-process positional index from the documents and spans
+/// of the specified database.
+/// </summary>
+internal sealed class BuildPositionalIndexCommand :
+    AsyncCommand<BuildPositionalIndexCommandSettings>
+{
+    protected override Task<int> ExecuteAsync(CommandContext context,
+        BuildPositionalIndexCommandSettings settings, CancellationToken cancel)
+    {
+        AnsiConsole.MarkupLine("[red underline]INDEX POSITIONS[/]");
+        AnsiConsole.MarkupLine($"Database: [cyan]{settings.DbName}[/]");
+        AnsiConsole.MarkupLine($"Output: [cyan]{settings.Output}[/]");
+
+        try
+        {
+            string cs = string.Format(
+                CliAppContext.Configuration!.GetConnectionString("Default")!,
+                settings.DbName);
+            PgSqlIndexRepository repository = new();
+            repository.Configure(new SqlRepositoryOptions
+            {
+                ConnectionString = cs
+            });
+
+            PositionalIndexWriter writer = new();
+
+            // documents, in the database order of search results (sort key
+            // and ID), which is kept in the index
+            DocumentFilter filter = new() { PageSize = 100 };
+            DataPage<IDocument> page;
+            do
+            {
+                page = repository.GetDocuments(filter);
+                foreach (IDocument document in page.Items)
+                {
+                    writer.AddDocument(document.Id, document.Author,
+                        document.Title, document.SortKey,
+                        document.LastModified);
+                }
+                filter.PageNumber++;
+            } while (page.Items.Count == filter.PageSize);
+            AnsiConsole.MarkupLine(
+                $"Documents: [cyan]{writer.DocumentCount}[/]");
+
+            // spans with their attributes
+            foreach (TextSpan span in repository.EnumerateSpans(
+                new TextSpanFilter(), true))
+            {
+                cancel.ThrowIfCancellationRequested();
+                writer.AddSpan(span);
+                if (writer.SpanCount % 100000 == 0)
+                {
+                    AnsiConsole.MarkupLine(
+                        $"[yellow]{writer.SpanCount}[/] " +
+                        $"[green]{DateTime.Now:HH:mm:ss}[/]");
+                }
+            }
+            AnsiConsole.MarkupLine($"Spans: [cyan]{writer.SpanCount}[/]");
+
+            writer.Save(settings.Output);
+
+            using PositionalIndex index = new(settings.Output);
+            AnsiConsole.MarkupLine($"Terms: [cyan]{index.TermCount}[/]");
+            AnsiConsole.MarkupLine("[green]Completed[/]");
+            return Task.FromResult(0);
+        }
+        catch (Exception ex)
+        {
+            Debug.WriteLine(ex.ToString());
+            AnsiConsole.WriteException(ex);
+            return Task.FromResult(1);
+        }
+    }
+}
+
+public class BuildPositionalIndexCommandSettings : CommandSettings
+{
+    [Description("The output index file path")]
+    [CommandArgument(0, "<output>")]
+    public string Output { get; set; } = "";
+
+    [Description("The database name")]
+    [CommandOption("-d|--db <NAME>")]
+    [DefaultValue("pythia")]
+    public string DbName { get; set; } = "pythia";
+}
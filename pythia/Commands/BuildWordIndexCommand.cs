@@ -48,6 +48,11 @@ internal sealed class BuildWordIndexCommand :
         AnsiConsole.MarkupLine("[red underline]INDEX WORDS[/]");
         AnsiConsole.MarkupLine($"Database: [cyan]{settings.DbName}[/]");
         AnsiConsole.MarkupLine($"Language: [cyan]{settings.Language ?? "NULL"}[/]");
+        AnsiConsole.MarkupLine($"Check only: [cyan]{settings.IsCheck}[/]");
+        AnsiConsole.MarkupLine($"Parallelism: [cyan]{settings.Parallelism}[/]");
+        AnsiConsole.MarkupLine(
+            $"Partition size: [cyan]{settings.PartitionSize}[/]");
+        AnsiConsole.MarkupLine($"Resume: [cyan]{settings.IsResumed}[/]");
         if (settings.BinCounts.Length > 0)
         {
             AnsiConsole.MarkupLine(
@@ -108,12 +113,26 @@ internal sealed class BuildWordIndexCommand :
                 CliAppContext.Configuration!.GetConnectionString("Default")!,
                 settings.DbName);
 
-            SqlIndexRepository repository = new PgSqlIndexRepository();
+            SqlIndexRepository repository = new PgSqlIndexRepository
+            {
+                WordCountParallelism = Math.Max(1, settings.Parallelism),
+                WordCountPartitionSize = settings.PartitionSize,
+                IsWordIndexBuildResumed = settings.IsResumed
+            };
             repository.Configure(new SqlRepositoryOptions
             {
                 ConnectionString = cs
             });
 
+            if (settings.IsCheck)
+            {
+                int errors = await repository.CheckWordIndexAsync(cancel);
+                AnsiConsole.MarkupLine(errors == 0
+                    ? "[green]Word index is consistent[/]"
+                    : $"[red]Words or lemmata with wrong counts: {errors}[/]");
+                return errors == 0 ? 0 : 2;
+            }
+
             string? prevMessage = null;
             int prevPercent = -1;
 
@@ -130,7 +149,7 @@ internal sealed class BuildWordIndexCommand :
                 [.. settings.ExcludedDocAttrs],
                 [.. settings.ExcludedSpanAttrs],
                 [.. settings.ExcludedPosValues],
-                CancellationToken.None,
+                cancel,
                 new Progress<ProgressReport>(async report =>
                 {
                     prevMessage = report.Message;
@@ -148,9 +167,19 @@ internal sealed class BuildWordIndexCommand :
                     }
                 }));
 
+            if (cancel.IsCancellationRequested)
+            {
+                AnsiConsole.MarkupLine("[yellow]Interrupted: use -r to resume[/]");
+                return 1;
+            }
             AnsiConsole.MarkupLine("[green]Completed[/]");
             return 0;
         }
+        catch (OperationCanceledException)
+        {
+            AnsiConsole.MarkupLine("[yellow]Interrupted: use -r to resume[/]");
+            return 1;
+        }
         catch (Exception ex)
         {
             Debug.WriteLine(ex.ToString());
@@ -207,12 +236,34 @@ public class BuildWordIndexCommandSettings : CommandSettings
     [CommandOption("--n-start")]
     public bool NotifyStart { get; set; }
 
-    public Dictionary<string, int> ParseBinCounts()
+    [Description("The count of connections computing word counts in " +
+        "parallel (1)")]
+    [CommandOption("-j|--parallel <DOP>")]
+    [DefaultValue(1)]
+    public int Parallelism { get; set; } = 1;
+
+    [Description("The count of word IDs in each word counts partition " +
+        "(0=one partition per document pair)")]
+    [CommandOption("-s|--partition-size <SIZE>")]
+    public int PartitionSize { get; set; }
+
+    [Description("Resume an interrupted build with the same options")]
+    [CommandOption("-r|--resume")]
+    public bool IsResumed { get; set; }
+
+    [Description("Check the word index counts instead of building it")]
+    [CommandOption("-k|--check")]
+    public bool IsCheck { get; set; }
+
+    public Dictionary<string, int> ParseBinCounts() => ParseBinCounts(BinCounts);
+
+    public static Dictionary<string, int> ParseBinCounts(
+        IEnumerable<string> counts)
     {
         Regex r = new(@"^([^=]+)=([0-9]+)$");
 
         Dictionary<string, int> dct = [];
-        foreach (string s in BinCounts)
+        foreach (string s in counts)
         {
             Match m = r.Match(s);
             if (m.Success)
@@ -45,10 +45,13 @@ internal sealed class CacheTokensCommand : AsyncCommand<CacheTokensCommandSettin
         AnsiConsole.MarkupLine($"Target profile ID: [cyan]{settings.TargetProfileId}[/]");
         AnsiConsole.MarkupLine($"Database name: [cyan]{settings.DbName}[/]");
         AnsiConsole.MarkupLine($"Plugin tag: [cyan]{settings.PluginTag}[/]");
+        AnsiConsole.MarkupLine($"Binary: [cyan]{settings.IsBinary}[/]");
 
         try
         {
-            FsForwardTokenCache cache = new();
+            ITokenCache cache = settings.IsBinary
+                ? new FsBinaryTokenCache()
+                : new FsForwardTokenCache();
             cache.AllowedAttributes.Add("s0");
             cache.AllowedAttributes.Add("text");
 
@@ -121,6 +124,10 @@ public class CacheTokensCommandSettings : CommandSettings
     [CommandOption("-t|--tag <PLUGIN_TAG>")]
     public string? PluginTag { get; set; }
 
+    [Description("Use the binary cache format")]
+    [CommandOption("-b|--binary")]
+    public bool IsBinary { get; set; }
+
     public CacheTokensCommandSettings()
     {
         DbName = "pythia";
@@ -82,6 +82,7 @@ internal sealed class CheckWordIndexCommand : AsyncCommand<CheckWordIndexCommand
             $"Output path: [cyan]{settings.OutputPath}[/]");
         AnsiConsole.MarkupLine($"Database: [cyan]{settings.DbName}[/]");
         AnsiConsole.MarkupLine($"Context: [cyan]{settings.ContextSize}[/]");
+        AnsiConsole.MarkupLine($"Batch size: [cyan]{settings.BatchSize}[/]");
         AnsiConsole.MarkupLine(
             $"Ignore POS mismatches: [cyan]{settings.IgnorePosMismatches}[/]");
         AnsiConsole.MarkupLine(
@@ -113,6 +114,59 @@ internal sealed class CheckWordIndexCommand : AsyncCommand<CheckWordIndexCommand
         return whitelist;
     }
 
+    private static int CheckBatch(IList<TextSpan> spans, WordChecker checker,
+        PgSqlIndexRepository repository, CsvWordReportWriter writer,
+        int contextSize)
+    {
+        IList<IList<WordCheckResult>> batchResults = checker.Check(
+            [.. spans.Select(span => new WordToCheck
+            {
+                Id = span.Id,
+                Language = span.Language,
+                Pos = span.Pos,
+                Value = span.Value,
+                Lemma = span.Lemma,
+            })]);
+
+        int resultCount = 0;
+        SearchResult sr = new();
+        for (int i = 0; i < spans.Count; i++)
+        {
+            TextSpan span = spans[i];
+            IList<WordCheckResult> results = batchResults[i];
+            AnsiConsole.WriteLine(span.ToString());
+
+            foreach (WordCheckResult result in results
+                .Where(r => r.Type != WordCheckResultType.Info))
+            {
+                result.Data ??= [];
+
+                result.Data["doc_id"] = span.DocumentId
+                    .ToString(CultureInfo.InvariantCulture);
+
+                if (contextSize > 0)
+                {
+                    sr.P1 = span.P1;
+                    sr.P2 = span.P2;
+                    sr.DocumentId = span.DocumentId;
+                    sr.Index = span.Index;
+                    sr.Length = span.Length;
+                    KwicSearchResult cr = repository.GetResultContext(
+                        [sr], contextSize)[0];
+                    result.Data["context"] =
+                        ($"{string.Join(" ", cr.LeftContext)}" +
+                        $" [{cr.Text}] " +
+                        $"{string.Join(" ", cr.RightContext)}").Trim();
+                }
+                else result.Data["context"] = span.Text;
+
+                writer.Write(result);
+            }
+            resultCount += results.Count;
+        }
+        return resultCount;
+    }
+
     protected override Task<int> ExecuteAsync(CommandContext context,
         CheckWordIndexCommandSettings settings, CancellationToken cancel)
     {
@@ -168,6 +222,7 @@ internal sealed class CheckWordIndexCommand : AsyncCommand<CheckWordIndexCommand
             bool loadAttributes = settings.ExcludedAttributes != null &&
                                   settings.ExcludedAttributes.Length > 0;
 
+            List<TextSpan> batch = new(settings.BatchSize);
             foreach (TextSpan span in repository.EnumerateSpans(filter, loadAttributes)
                 .Where(s => string.IsNullOrEmpty(s.Language) &&
                             !_excludedPos.Contains(s.Pos ?? "") &&
@@ -176,51 +231,36 @@ internal sealed class CheckWordIndexCommand : AsyncCommand<CheckWordIndexCommand
                             !ShouldExcludeByAttributes(s, settings.ExcludedAttributes)))
             {
                 spanCount++;
-                AnsiConsole.WriteLine(span.ToString());
-
-                IList<WordCheckResult> results = checker.Check(new WordToCheck
+                batch.Add(span);
+                if (batch.Count >= settings.BatchSize)
                 {
-                    Id = span.Id,
-                    Language = span.Language,
-                    Pos = span.Pos,
-                    Value = span.Value,
-                    Lemma = span.Lemma,
-                });
-                SearchResult sr = new();
-
-                foreach (WordCheckResult result in results
-                    .Where(r => r.Type != WordCheckResultType.Info))
-                {
-                    result.Data ??= [];
-
-                    result.Data["doc_id"] = span.DocumentId
-                        .ToString(CultureInfo.InvariantCulture);
-
-                    if (settings.ContextSize > 0)
-                    {
-                        sr.P1 = span.P1;
-                        sr.P2 = span.P2;
-                        sr.DocumentId = span.DocumentId;
-                        sr.Index = span.Index;
-                        sr.Length = span.Length;
-                        KwicSearchResult cr = repository.GetResultContext(
-                            [sr], settings.ContextSize)[0];
-                        result.Data["context"] =
-                            ($"{string.Join(" ", cr.LeftContext)}" +
-                            $" [{cr.Text}] " +
-                            $"{string.Join(" ", cr.RightContext)}").Trim();
-                    }
-                    else result.Data["context"] = span.Text;
-
-                    writer.Write(result);
+                    resultCount += CheckBatch(batch, checker, repository,
+                        writer, settings.ContextSize);
+                    batch.Clear();
                 }
-                resultCount += results.Count;
+            }
+            if (batch.Count > 0)
+            {
+                resultCount += CheckBatch(batch, checker, repository,
+                    writer, settings.ContextSize);
             }
 
             writer.Close();
 
             AnsiConsole.MarkupLine($"Completed: [yellow]{spanCount}[/] spans, " +
                 $"[yellow]{resultCount}[/] results.");
+            AnsiConsole.MarkupLine(
+                $"Lookups: [yellow]{checker.LookupCount}[/] in " +
+                $"[yellow]{checker.LookupTime}[/], " +
+                "[yellow]" + checker.AverageLookupTime.TotalMilliseconds
+                    .ToString("0.000", CultureInfo.InvariantCulture) +
+                "[/] ms/token");
+            if (index.Cache != null)
+            {
+                AnsiConsole.MarkupLine(
+                    $"Lookup cache: [yellow]{index.Cache.Hits}[/] hits, " +
+                    $"[yellow]{index.Cache.Misses}[/] misses.");
+            }
 
             return Task.FromResult(0);
         }
@@ -257,6 +297,11 @@ public class CheckWordIndexCommandSettings : CommandSettings
     [DefaultValue(5)]
     public int ContextSize { get; set; } = 5;
 
+    [CommandOption("-b|--batch")]
+    [Description("The count of tokens to check in a single pass.")]
+    [DefaultValue(500)]
+    public int BatchSize { get; set; } = 500;
+
     [CommandOption("-p|--no-pos-mismatch")]
     [Description("If set, ignores POS mismatches when checking words.")]
     [DefaultValue(true)]
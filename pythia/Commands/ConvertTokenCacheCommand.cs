@@ -0,0 +1,77 @@
+﻿using Pythia.Core;
+using Pythia.Core.Plugin.Analysis;
+using Spectre.Console;
+using Spectre.Console.Cli;
+using System;
+using System.Collections.Generic;
+using System.ComponentModel;
+using System.Diagnostics;
+using System.Linq;
+using System.Threading;
+using System.Threading.Tasks;
+
+namespace Pythia.Cli.Commands;
+
+/// <summary>
+/// Convert a text tokens cache (<see cref="FsForwardTokenCache"/>), e.g.
+/// as processed by a 3rd-party POS tagger, into a binary tokens cache
+/// (<see cref="FsBinaryTokenCache"/>), to be used for deferred tagging.
+/// </summary>
+internal sealed class ConvertTokenCacheCommand :
+    AsyncCommand<ConvertTokenCacheCommandSettings>
+{
+    protected override Task<int> ExecuteAsync(CommandContext context,
+        ConvertTokenCacheCommandSettings settings, CancellationToken cancel)
+    {
+        AnsiConsole.MarkupLine("[green underline]CONVERT TOKENS CACHE[/]");
+        AnsiConsole.MarkupLine($"Input dir: [cyan]{settings.InputDir}[/]");
+        AnsiConsole.MarkupLine($"Output dir: [cyan]{settings.OutputDir}[/]");
+
+        try
+        {
+            FsForwardTokenCache source = new();
+            FsBinaryTokenCache target = new();
+            foreach (string name in settings.AllowedAttributes ?? [])
+                target.AllowedAttributes.Add(name);
+
+            source.Open(settings.InputDir!);
+            target.Open(settings.OutputDir!);
+
+            int count = 0;
+            foreach (int id in source.GetDocumentIds())
+            {
+                List<TextSpan> spans = source.EnumerateSpans(id).ToList();
+                target.AddSpans(id, spans);
+                AnsiConsole.MarkupLine($"{id}: [cyan]{spans.Count}[/]");
+                count++;
+            }
+
+            target.Close();
+            source.Close();
+            AnsiConsole.MarkupLine($"Documents: [cyan]{count}[/]");
+
+            return Task.FromResult(0);
+        }
+        catch (Exception ex)
+        {
+            Debug.WriteLine(ex.ToString());
+            AnsiConsole.WriteException(ex);
+            return Task.FromResult(1);
+        }
+    }
+}
+
+public class ConvertTokenCacheCommandSettings : CommandSettings
+{
+    [Description("The input text cache directory")]
+    [CommandArgument(0, "<INPUT_DIR>")]
+    public string? InputDir { get; set; }
+
+    [Description("The output binary cache directory")]
+    [CommandArgument(1, "<OUTPUT_DIR>")]
+    public string? OutputDir { get; set; }
+
+    [Description("The attribute(s) to keep; when not set, all are kept")]
+    [CommandOption("-a|--attr <NAME>")]
+    public string[]? AllowedAttributes { get; set; }
+}
@@ -57,7 +57,7 @@ internal sealed class DumpDocPairsCommand : AsyncCommand<DumpDocPairsSettings>
 
             IList<DocumentPair> pairs = await repository.GetDocumentPairsAsync(
                 settings.ParseBinCounts(),
-                [.. settings.ExcludedDocAttrs]);
+                [.. settings.ExcludedDocAttrs], cancel);
 
             AnsiConsole.Markup("Writing CSV file...");
 
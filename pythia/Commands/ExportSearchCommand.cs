@@ -1,6 +1,5 @@
 ﻿using Corpus.Sql;
 using CsvHelper;
-using Fusi.Tools.Data;
 using Microsoft.Extensions.Configuration;
 using Pythia.Cli.Services;
 using Pythia.Core;
@@ -13,7 +12,6 @@ using System.ComponentModel;
 using System.Diagnostics;
 using System.Globalization;
 using System.IO;
-using System.Linq;
 using System.Text;
 using System.Threading;
 using System.Threading.Tasks;
@@ -25,6 +23,8 @@ namespace Pythia.Cli.Commands;
 /// </summary>
 internal sealed class ExportSearchCommand : AsyncCommand<ExportSearchCommandSettings>
 {
+    private const int WRITER_BUFFER_SIZE = 64 * 1024;
+
     private static List<string> LoadQueriesFromFile(string filePath)
     {
         List<string> queries = [];
@@ -109,150 +109,133 @@ internal sealed class ExportSearchCommand : AsyncCommand<ExportSearchCommandSett
         csv.NextRecord();
     }
 
-    private static void ProcessQuery(string query, PgSqlIndexRepository repository,
-        ExportSearchCommandSettings settings, string outputFileName)
+    /// <summary>
+    /// Gets the results with context for the requested pages of the
+    /// specified query. The query is run once and its results are streamed,
+    /// so pages just define the slice of results to export; contexts are
+    /// got a window at a time.
+    /// </summary>
+    private static IAsyncEnumerable<IList<KwicSearchResult>> GetResults(
+        string query, PgSqlIndexRepository repository,
+        ExportSearchCommandSettings settings, CancellationToken cancel)
     {
-        SearchRequest request = new()
-        {
-            Query = query,
-            PageNumber = settings.FirstPage,
-            PageSize = settings.PageSize
-        };
+        int skip = (int)Math.Min(int.MaxValue,
+            (long)(settings.FirstPage - 1) * settings.PageSize);
+        int take = settings.LastPage == 0 ? 0 : (int)Math.Min(int.MaxValue,
+            (long)(settings.LastPage - settings.FirstPage + 1)
+            * settings.PageSize);
+
+        IAsyncEnumerable<SearchResult> results = SearchResultStream.SliceAsync(
+            repository.StreamSearchAsync(new SearchRequest { Query = query },
+                null, cancel),
+            skip, take, cancel);
+
+        return repository.GetContextWindowsAsync(results,
+            settings.ContextSize, settings.WindowSize, cancel);
+    }
+
+    private static StreamWriter CreateWriter(string path) =>
+        new(path, false, Encoding.UTF8, WRITER_BUFFER_SIZE);
 
-        AnsiConsole.Progress().Start(ctx =>
+    private static Task ProcessQuery(string query,
+        PgSqlIndexRepository repository, ExportSearchCommandSettings settings,
+        string outputFileName, CancellationToken cancel)
+    {
+        return AnsiConsole.Progress().StartAsync(async ctx =>
         {
             ProgressTask task = ctx.AddTask("[green]Exporting...[/]");
+            task.IsIndeterminate = true;
 
-            DataPage<SearchResult> page = repository.Search(request);
-            if (page.PageCount == 0)
+            CsvWriter? csv = null;
+            int total = 0;
+            await foreach (IList<KwicSearchResult> window in GetResults(
+                query, repository, settings, cancel))
             {
-                AnsiConsole.MarkupLine("[yellow]No results found[/]");
-                return;
-            }
-
-            int lastPage = settings.LastPage == 0
-                ? page.PageCount : settings.LastPage;
-
-            StreamWriter writer = new(
-                Path.Combine(settings.OutputDirectory, outputFileName),
-                false, Encoding.UTF8);
-            CsvWriter csv = new(writer, CultureInfo.InvariantCulture);
-            WriteCsvHeader(settings.ContextSize, csv);
-
-            while (request.PageNumber <= lastPage)
-            {
-                task.Value = (double)request.PageNumber * 100 / page.PageCount;
-
-                const int contextBatchSize = 20;
-                for (int i = 0; i < page.Items.Count; i += contextBatchSize)
+                if (csv == null)
                 {
-                    int batchCount = Math.Min(contextBatchSize,
-                        page.Items.Count - i);
-                    List<SearchResult> batch = [.. page.Items
-                        .Skip(i)
-                        .Take(batchCount)];
-
-                    IList<KwicSearchResult> results =
-                        repository.GetResultContext(batch, settings.ContextSize);
-
-                    foreach (KwicSearchResult result in results)
-                    {
-                        WriteCsvResult(result, csv);
-                    }
+                    csv = new(CreateWriter(Path.Combine(
+                        settings.OutputDirectory, outputFileName)),
+                        CultureInfo.InvariantCulture);
+                    WriteCsvHeader(settings.ContextSize, csv);
                 }
 
-                request.PageNumber++;
-                page = repository.Search(request);
+                foreach (KwicSearchResult result in window)
+                    WriteCsvResult(result, csv);
+
+                total += window.Count;
+                task.Description = $"[green]Exported {total}...[/]";
             }
+            task.StopTask();
 
-            csv.Flush();
+            if (csv == null)
+            {
+                AnsiConsole.MarkupLine("[yellow]No results found[/]");
+                return;
+            }
+            await csv.DisposeAsync();
         });
     }
 
-    private static void ProcessQueryWithMultipleFiles(string query,
+    private static Task ProcessQueryWithMultipleFiles(string query,
         PgSqlIndexRepository repository, ExportSearchCommandSettings settings,
-        DateTime now)
+        DateTime now, CancellationToken cancel)
     {
-        SearchRequest request = new()
-        {
-            Query = query,
-            PageNumber = settings.FirstPage,
-            PageSize = settings.PageSize
-        };
-
-        AnsiConsole.Progress().Start(ctx =>
+        return AnsiConsole.Progress().StartAsync(async ctx =>
         {
             ProgressTask task = ctx.AddTask("[green]Exporting...[/]");
+            task.IsIndeterminate = true;
 
-            DataPage<SearchResult> page = repository.Search(request);
-            if (page.PageCount == 0)
-            {
-                AnsiConsole.MarkupLine("[yellow]No results found[/]");
-                return;
-            }
-
-            int lastPage = settings.LastPage == 0
-                ? page.PageCount : settings.LastPage;
+            int rowCount = 0, fileNr = 1, total = 0;
+            CsvWriter? csv = null;
 
-            string fileName = BuildFileName(now, 1);
-            int rowCount = 0, fileNr = 1;
-
-            StreamWriter writer = new(
-                Path.Combine(settings.OutputDirectory, fileName),
-                false, Encoding.UTF8);
-            CsvWriter csv = new(writer, CultureInfo.InvariantCulture);
-            WriteCsvHeader(settings.ContextSize, csv);
-
-            while (request.PageNumber <= lastPage)
+            await foreach (IList<KwicSearchResult> window in GetResults(
+                query, repository, settings, cancel))
             {
-                task.Value = (double)request.PageNumber * 100 / page.PageCount;
-
-                const int contextBatchSize = 20;
-                for (int i = 0; i < page.Items.Count; i += contextBatchSize)
+                foreach (KwicSearchResult result in window)
                 {
-                    int batchCount = Math.Min(contextBatchSize,
-                        page.Items.Count - i);
-                    List<SearchResult> batch = [.. page.Items
-                        .Skip(i)
-                        .Take(batchCount)];
+                    if (csv == null)
+                    {
+                        csv = new(CreateWriter(Path.Combine(
+                            settings.OutputDirectory,
+                            BuildFileName(now, fileNr))),
+                            CultureInfo.InvariantCulture);
+                        WriteCsvHeader(settings.ContextSize, csv);
+                    }
 
-                    IList<KwicSearchResult> results =
-                        repository.GetResultContext(batch, settings.ContextSize);
+                    WriteCsvResult(result, csv);
 
-                    foreach (KwicSearchResult result in results)
+                    if (++rowCount >= settings.MaxRowPerFile
+                        && settings.MaxRowPerFile > 0)
                     {
-                        WriteCsvResult(result, csv);
-
-                        if (++rowCount >= settings.MaxRowPerFile
-                            && settings.MaxRowPerFile > 0)
-                        {
-                            csv.Flush();
-                            rowCount = 0;
-                            fileName = BuildFileName(now, ++fileNr);
-
-                            writer = new StreamWriter(
-                                Path.Combine(settings.OutputDirectory, fileName),
-                                false, Encoding.UTF8);
-                            csv = new CsvWriter(writer,
-                                CultureInfo.InvariantCulture);
-                            WriteCsvHeader(settings.ContextSize, csv);
-                        }
+                        await csv.DisposeAsync();
+                        csv = null;
+                        rowCount = 0;
+                        fileNr++;
                     }
                 }
 
-                request.PageNumber++;
-                page = repository.Search(request);
+                total += window.Count;
+                task.Description = $"[green]Exported {total}...[/]";
             }
+            task.StopTask();
 
-            csv.Flush();
+            if (csv != null) await csv.DisposeAsync();
+            else if (total == 0)
+                AnsiConsole.MarkupLine("[yellow]No results found[/]");
         });
     }
 
-    protected override Task<int> ExecuteAsync(CommandContext context,
+    protected override async Task<int> ExecuteAsync(CommandContext context,
         ExportSearchCommandSettings settings, CancellationToken cancel)
     {
         AnsiConsole.MarkupLine("[green underline]EXPORT SEARCH[/]");
 
+        if (settings.LastPage != 0 && settings.LastPage < settings.FirstPage)
+        {
+            AnsiConsole.MarkupLine("[red]Last page is before first page[/]");
+            return 1;
+        }
+
         if (!Directory.Exists(settings.OutputDirectory))
             Directory.CreateDirectory(settings.OutputDirectory);
 
@@ -296,7 +279,8 @@ internal sealed class ExportSearchCommand : AsyncCommand<ExportSearchCommandSett
                     AnsiConsole.WriteLine(query);
 
                     string outputFileName = $"q{(i + 1):D5}.csv";
-                    ProcessQuery(query, repository, settings, outputFileName);
+                    await ProcessQuery(query, repository, settings,
+                        outputFileName, cancel);
                 }
             }
             else
@@ -323,7 +307,7 @@ internal sealed class ExportSearchCommand : AsyncCommand<ExportSearchCommandSett
                         new TextPrompt<string>("Enter query:"));
                 }
 
-                if (string.IsNullOrEmpty(settings.Query)) return Task.FromResult(0);
+                if (string.IsNullOrEmpty(settings.Query)) return 0;
 
                 if (!settings.Query.StartsWith('['))
                 {
@@ -336,22 +320,23 @@ internal sealed class ExportSearchCommand : AsyncCommand<ExportSearchCommandSett
 
                 if (settings.MaxRowPerFile > 0)
                 {
-                    ProcessQueryWithMultipleFiles(settings.Query, repository,
-                        settings, now);
+                    await ProcessQueryWithMultipleFiles(settings.Query,
+                        repository, settings, now, cancel);
                 }
                 else
                 {
-                    ProcessQuery(settings.Query, repository, settings, fileName);
+                    await ProcessQuery(settings.Query, repository, settings,
+                        fileName, cancel);
                 }
             }
 
-            return Task.FromResult(0);
+            return 0;
         }
         catch (Exception ex)
         {
             Debug.WriteLine(ex.ToString());
             AnsiConsole.WriteException(ex);
-            return Task.FromResult(1);
+            return 1;
         }
     }
 }
@@ -387,6 +372,11 @@ internal class ExportSearchCommandSettings : CommandSettings
     [DefaultValue(0)]
     public int MaxRowPerFile { get; set; }
 
+    [Description("The count of results whose context is got at once")]
+    [CommandOption("-w|--window <WINDOW_SIZE>")]
+    [DefaultValue(SearchResultStream.DEFAULT_WINDOW_SIZE)]
+    public int WindowSize { get; set; } = SearchResultStream.DEFAULT_WINDOW_SIZE;
+
     [Description("The KWIC context size")]
     [CommandOption("-c|--context-size <CONTEXT_SIZE>")]
     [DefaultValue(5)]
@@ -7,6 +7,7 @@ using Microsoft.Extensions.Configuration;
 using Pythia.Cli.Core;
 using Pythia.Cli.Plugin.Standard;
 using Pythia.Cli.Services;
+using Pythia.Core;
 using Pythia.Core.Analysis;
 using Pythia.Core.Config;
 using Pythia.Sql;
@@ -74,6 +75,15 @@ internal sealed class IndexCommand : AsyncCommand<IndexCommandSettings>
         AnsiConsole.MarkupLine($"Store content: [cyan]{settings.IsContentStored}[/]");
         AnsiConsole.MarkupLine($"Preflight: [cyan]{settings.IsDry}[/]");
         AnsiConsole.MarkupLine($"Plugin tag: [cyan]{settings.PluginTag}[/]");
+        AnsiConsole.MarkupLine($"Bulk import: [cyan]{settings.IsBulk}[/]");
+        AnsiConsole.MarkupLine($"Parallelism: [cyan]{settings.Parallelism}[/]");
+        AnsiConsole.MarkupLine(
+            $"Incremental word index: [cyan]{settings.IsWordIndexUpdated}[/]");
+        if (settings.Parallelism > 1)
+        {
+            AnsiConsole.MarkupLine(
+                $"Structure parallelism: [cyan]{settings.StructureParallelism}[/]");
+        }
         if (settings.DumpMode > 0)
         {
             AnsiConsole.MarkupLine($"Dump mode: [cyan]{settings.DumpMode}[/]");
@@ -146,6 +156,20 @@ internal sealed class IndexCommand : AsyncCommand<IndexCommandSettings>
                 Contents = ParseIndexContents(settings.Contents),
                 IsDryMode = settings.IsDry,
                 IsContentStored = settings.IsContentStored,
+                IsBulkImportEnabled = settings.IsBulk,
+                MaxDegreeOfParallelism = Math.Max(1, settings.Parallelism),
+                StructureParallelism = settings.StructureParallelism,
+                WordIndexOptions = settings.IsWordIndexUpdated
+                    ? new WordIndexOptions
+                    {
+                        Language = settings.WordLanguage,
+                        BinCounts = BuildWordIndexCommandSettings
+                            .ParseBinCounts(settings.WordBinCounts),
+                        ExcludedAttrNames = [.. settings.WordExcludedDocAttrs],
+                        ExcludedSpanAttrNames = [.. settings.WordExcludedSpanAttrs],
+                        ExcludedPosValues = [.. settings.WordExcludedPosValues]
+                    }
+                    : null,
                 Logger = CliAppContext.Logger
             };
 
@@ -212,6 +236,8 @@ internal sealed class IndexCommand : AsyncCommand<IndexCommandSettings>
                 }
             });
 
+            AnsiConsole.MarkupLine(
+                $"Span import: [cyan]{repository.ImportMetrics}[/]");
             AnsiConsole.MarkupLine("[green]Completed[/]");
             if (_sink != null)
             {
@@ -260,10 +286,51 @@ public class IndexCommandSettings : CommandSettings
     [CommandOption("-p|--preflight|--dry")]
     public bool IsDry { get; set; }
 
+    [Description("Import spans in bulk via binary COPY")]
+    [CommandOption("-b|--bulk")]
+    public bool IsBulk { get; set; }
+
+    [Description("The count of documents to analyze in parallel (1)")]
+    [CommandOption("-j|--parallel <DOP>")]
+    [DefaultValue(1)]
+    public int Parallelism { get; set; } = 1;
+
+    [Description("The count of structure parsing workers when parallel " +
+        "(0=same as --parallel)")]
+    [CommandOption("-s|--s-parallel <DOP>")]
+    public int StructureParallelism { get; set; }
+
     [Description("The factory provider plugin tag")]
     [CommandOption("-t|--tag <PLUGIN_TAG>")]
     public string? PluginTag { get; set; }
 
+    [Description("Update the word index incrementally, using the same " +
+        "--w-... options used to build it")]
+    [CommandOption("-w|--words")]
+    public bool IsWordIndexUpdated { get; set; }
+
+    [Description("The language code for the word index (not set=NULL)")]
+    [CommandOption("--w-lang <LANG>")]
+    public string? WordLanguage { get; set; }
+
+    [Description("The class counts for document attribute bins ([^]name=N, multiple)")]
+    [CommandOption("--w-class-counts <COUNTS>")]
+    [DefaultValue(new string[] { "date_value=3" })]
+    public string[] WordBinCounts { get; set; } = ["date_value=3"];
+
+    [Description("The document attributes to exclude from word index (multiple)")]
+    [CommandOption("--w-exclude-doc <ATTR>")]
+    [DefaultValue(new string[] { "date" })]
+    public string[] WordExcludedDocAttrs { get; set; } = ["date"];
+
+    [Description("The span attributes names to exclude from word index (multiple)")]
+    [CommandOption("--w-exclude-span <ATTR>")]
+    public string[] WordExcludedSpanAttrs { get; set; } = [];
+
+    [Description("The POS values to exclude from the word index (multiple)")]
+    [CommandOption("--w-exclude-pos <POS>")]
+    public string[] WordExcludedPosValues { get; set; } = [];
+
     [Description("The optional dump mode to use: 0=none, " +
         "1=dump filtered, 2=dump filtered and don't index")]
     [CommandOption("-u|--dump <DUMP_MODE>")]
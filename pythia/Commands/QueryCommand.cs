@@ -3,6 +3,7 @@ using Fusi.Tools.Data;
 using Microsoft.Extensions.Configuration;
 using Pythia.Cli.Services;
 using Pythia.Core;
+using Pythia.Core.Index;
 using Pythia.Sql;
 using Pythia.Sql.PgSql;
 using Spectre.Console;
@@ -31,6 +32,7 @@ internal sealed class QueryCommand : AsyncCommand<QueryCommandSettings>
     private readonly SearchRequest _request;
     private DataPage<SearchResult>? _page;
     private SqlIndexRepository? _repository;
+    private IIndexRepository? _searcher;
 
     public QueryCommand()
     {
@@ -126,25 +128,25 @@ internal sealed class QueryCommand : AsyncCommand<QueryCommandSettings>
                 case 'n':
                     if (_page.PageNumber == _page.PageCount) break;
                     _request.PageNumber++;
-                    _page = _repository!.Search(_request);
+                    Search();
                     break;
 
                 case 'p':
                     if (_page.PageNumber == 1) break;
                     _request.PageNumber--;
-                    _page = _repository!.Search(_request);
+                    Search();
                     break;
 
                 case 'f':
                     if (_page.PageNumber == 1) break;
                     _request.PageNumber = 1;
-                    _page = _repository!.Search(_request);
+                    Search();
                     break;
 
                 case 'l':
                     if (_page.PageNumber == _page.PageCount) break;
                     _request.PageNumber = _page.PageCount;
-                    _page = _repository!.Search(_request);
+                    Search();
                     break;
 
                 case 'k':
@@ -157,6 +159,14 @@ internal sealed class QueryCommand : AsyncCommand<QueryCommandSettings>
         }
     }
 
+    private void Search()
+    {
+        Stopwatch stopwatch = Stopwatch.StartNew();
+        _page = _searcher!.Search(_request);
+        stopwatch.Stop();
+        AnsiConsole.MarkupLine($"[grey]{stopwatch.ElapsedMilliseconds} ms[/]");
+    }
+
     private void AddToHistory(string text)
     {
         if (_history.Contains(text)) return;
@@ -172,19 +182,40 @@ internal sealed class QueryCommand : AsyncCommand<QueryCommandSettings>
         string cs = string.Format(
             CliAppContext.Configuration!.GetConnectionString("Default")!,
             settings.DbName);
-        _repository = new PgSqlIndexRepository();
+        _repository = new PgSqlIndexRepository
+        {
+            IsQueryPlanningEnabled = settings.IsPlanningEnabled
+        };
         _repository.Configure(new SqlRepositoryOptions
         {
             ConnectionString = cs
         });
 
+        // search the positional index if requested
+        if (!string.IsNullOrEmpty(settings.PositionalIndexPath))
+        {
+            AnsiConsole.MarkupLine(
+                $"Positional index: [cyan]{settings.PositionalIndexPath}[/]");
+        }
+        using PositionalIndex? index =
+            string.IsNullOrEmpty(settings.PositionalIndexPath)
+                ? null
+                : new PositionalIndex(settings.PositionalIndexPath);
+        _searcher = index != null
+            ? new PositionalIndexRepository(_repository, index)
+            {
+                PostingCache = new PositionalPostingCache()
+            }
+            : _repository;
+
         string prevQuery = "[value=\"chommoda\"]";
         while (true)
         {
             try
             {
                 string query = AnsiConsole.Ask(
-                    "Query ([red]x[/]=exit, [cyan]h[/]=history): ",
+                    "Query ([red]x[/]=exit, [cyan]h[/]=history, " +
+                    "[cyan]e[/]=explain): ",
                     prevQuery.EscapeMarkup()).Replace("[[", "[").Replace("]]", "]");
 
                 switch (query)
@@ -195,15 +226,21 @@ internal sealed class QueryCommand : AsyncCommand<QueryCommandSettings>
                     case "h":
                         HandleHistory();
                         _request.PageNumber = 1;
-                        _page = _repository.Search(_request);
+                        Search();
                         ShowPage();
                         break;
 
+                    case "e":
+                        // explain the last query without changing it
+                        AnsiConsole.WriteLine(_repository.ExplainSearch(
+                            new SearchRequest { Query = prevQuery }));
+                        continue;
+
                     default:
                         AddToHistory(query);
                         _request.PageNumber = 1;
                         _request.Query = query;
-                        _page = _repository.Search(_request);
+                        Search();
                         ShowPage();
                         break;
                 }
@@ -225,4 +262,13 @@ internal class QueryCommandSettings : CommandSettings
     [CommandOption("-d|--db <NAME>")]
     [DefaultValue("pythia")]
     public string DbName { get; set; } = "pythia";
+
+    [Description("The optional positional index file to search")]
+    [CommandOption("-p|--positional <PATH>")]
+    public string? PositionalIndexPath { get; set; }
+
+    [Description("Plan queries according to the estimated selectivity " +
+        "of their pairs")]
+    [CommandOption("-l|--plan")]
+    public bool IsPlanningEnabled { get; set; }
 }
@@ -0,0 +1,93 @@
+﻿using Corpus.Sql;
+using Microsoft.Extensions.Configuration;
+using Pythia.Cli.Services;
+using Pythia.Core;
+using Pythia.Sql;
+using Pythia.Sql.PgSql;
+using Spectre.Console;
+using Spectre.Console.Cli;
+using System;
+using System.Collections.Generic;
+using System.ComponentModel;
+using System.Diagnostics;
+using System.Globalization;
+using System.Linq;
+using System.Threading;
+using System.Threading.Tasks;
+
+namespace Pythia.Cli.Commands;
+
+/// <summary>
+/// Fully refresh the statistics snapshot of the specified database.
+/// </summary>
+internal sealed class RefreshStatsCommand :
+    AsyncCommand<RefreshStatsCommandSettings>
+{
+    protected override async Task<int> ExecuteAsync(CommandContext context,
+        RefreshStatsCommandSettings settings, CancellationToken cancel)
+    {
+        AnsiConsole.MarkupLine("[red underline]REFRESH STATISTICS[/]");
+        AnsiConsole.MarkupLine($"Database: [cyan]{settings.DbName}[/]");
+
+        try
+        {
+            string cs = string.Format(
+                CliAppContext.Configuration!.GetConnectionString("Default")!,
+                settings.DbName);
+
+            SqlIndexRepository repository = new PgSqlIndexRepository();
+            repository.Configure(new SqlRepositoryOptions
+            {
+                ConnectionString = cs
+            });
+
+            Stopwatch watch = Stopwatch.StartNew();
+            StatisticsSnapshot snapshot = await AnsiConsole.Status().StartAsync(
+                "Refreshing...",
+                _ => repository.RefreshStatisticsSnapshotAsync(cancel));
+            watch.Stop();
+
+            if (settings.IsListed)
+            {
+                foreach (KeyValuePair<string, double> pair in
+                    snapshot.Values.OrderBy(p => p.Key,
+                    StringComparer.Ordinal))
+                {
+                    AnsiConsole.MarkupLine(
+                        $"{Markup.Escape(pair.Key)}: [cyan]" +
+                        pair.Value.ToString(CultureInfo.InvariantCulture) +
+                        "[/]");
+                }
+            }
+
+            AnsiConsole.MarkupLine(
+                $"[green]Completed in {watch.Elapsed:hh\\:mm\\:ss}: " +
+                $"{snapshot.Values.Count} entries at " +
+                $"{snapshot.Refreshed:yyyy-MM-dd HH:mm:ss}[/]");
+            return 0;
+        }
+        catch (OperationCanceledException)
+        {
+            AnsiConsole.MarkupLine("[yellow]Interrupted[/]");
+            return 1;
+        }
+        catch (Exception ex)
+        {
+            Debug.WriteLine(ex.ToString());
+            AnsiConsole.WriteException(ex);
+            return 1;
+        }
+    }
+}
+
+internal class RefreshStatsCommandSettings : CommandSettings
+{
+    [Description("The database name")]
+    [CommandOption("-d|--db <NAME>")]
+    [DefaultValue("pythia")]
+    public string DbName { get; set; } = "pythia";
+
+    [Description("List the refreshed statistics")]
+    [CommandOption("-l|--list")]
+    public bool IsListed { get; set; }
+}
@@ -68,6 +68,10 @@ public static class Program
                     .WithDescription("Cache the tokens got from tokenizing " +
                     "the texts from the specified source.");
 
+                config.AddCommand<ConvertTokenCacheCommand>("cache-bin")
+                    .WithDescription("Convert a text tokens cache into " +
+                    "a binary one.");
+
                 config.AddCommand<CreateDbCommand>("create-db")
                     .WithDescription("Create or clear the Pythia database");
 
@@ -91,9 +95,24 @@ public static class Program
                 config.AddCommand<BuildWordIndexCommand>("index-w")
                     .WithDescription("Build words index from tokens");
 
+                config.AddCommand<BuildPositionalIndexCommand>("index-p")
+                    .WithDescription("Build the in-process positional index " +
+                    "from documents and spans");
+
+                config.AddCommand<RefreshStatsCommand>("refresh-stats")
+                    .WithDescription("Fully refresh the statistics snapshot");
+
                 config.AddCommand<QueryCommand>("query")
                     .WithDescription("Query the database");
 
+                config.AddCommand<BenchmarkLocationCommand>("bench-locop")
+                    .WithDescription("Benchmark the evaluation of location " +
+                    "operators");
+
+                config.AddCommand<BenchmarkLookupCommand>("bench-lookup")
+                    .WithDescription("Benchmark the RAM lookup index " +
+                    "against the LiteDB one");
+
                 config.AddCommand<BulkWriteTablesCommand>("bulk-write")
                     .WithDescription("Bulk-write all the Pythia database " +
                     "tables into files");